@@ -0,0 +1,395 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.servlet.internal;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.FilterCondition;
+import org.forgerock.json.resource.QueryFilters;
+import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.util.ContextUtil;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.SecurityContext;
+import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.query.QueryFilterVisitor;
+
+/**
+ * Compiles declarative router filter conditions, query filters over the request and its context, into
+ * trees of {@link FilterCondition}s, so that they are parsed once and evaluated without a script.
+ * <p>
+ * The fields a condition may refer to are:
+ * <ul>
+ *     <li>{@code /request/method} - the request type in lower case, e.g. {@code create}</li>
+ *     <li>{@code /request/resourcePath} - the resource path of the request</li>
+ *     <li>{@code /request/action} - the action of an action request</li>
+ *     <li>{@code /request/additionalParameters/<name>} - an additional parameter of the request</li>
+ *     <li>{@code /request/content/...} - a field of the content of a create, update or action request</li>
+ *     <li>{@code /context/name} - the name of the current context</li>
+ *     <li>{@code /context/caller/external} - whether the request was received from an external client</li>
+ *     <li>{@code /context/security/authenticationId} - the authenticated id of the caller</li>
+ *     <li>{@code /context/security/authorization/...} - a field of the authorization of the caller</li>
+ * </ul>
+ * For example, {@code /context/caller/external eq true or /context/name eq "selfservice"}. All the
+ * filter operators are supported but extended matches; a field whose value is a list matches if any of
+ * its elements matches.
+ */
+final class RequestConditions {
+
+    private static final QueryFilterVisitor<FilterCondition, Void, JsonPointer> COMPILER = new Compiler();
+
+    private RequestConditions() {
+    }
+
+    /**
+     * Compiles a condition.
+     *
+     * @param queryFilter the condition, a query filter over the request and context fields
+     * @return the compiled condition
+     * @throws IllegalArgumentException if the query filter is invalid or refers to unsupported fields
+     */
+    static FilterCondition compile(String queryFilter) {
+        return QueryFilters.parse(queryFilter).accept(COMPILER, null);
+    }
+
+    /**
+     * The value of a request or context field.
+     */
+    private interface Field {
+        Object get(Context context, Request request);
+    }
+
+    private static Field compileField(final JsonPointer pointer) {
+        String root = pointer.size() > 0 ? pointer.get(0) : null;
+        String name = pointer.size() > 1 ? pointer.get(1) : null;
+        if ("request".equals(root) && name != null) {
+            switch (name) {
+            case "method":
+                if (pointer.size() == 2) {
+                    return new Field() {
+                        @Override
+                        public Object get(Context context, Request request) {
+                            return request.getRequestType().name().toLowerCase(Locale.ROOT);
+                        }
+                    };
+                }
+                break;
+            case "resourcePath":
+                if (pointer.size() == 2) {
+                    return new Field() {
+                        @Override
+                        public Object get(Context context, Request request) {
+                            return request.getResourcePath();
+                        }
+                    };
+                }
+                break;
+            case "action":
+                if (pointer.size() == 2) {
+                    return new Field() {
+                        @Override
+                        public Object get(Context context, Request request) {
+                            return request instanceof ActionRequest ? ((ActionRequest) request).getAction() : null;
+                        }
+                    };
+                }
+                break;
+            case "additionalParameters":
+                if (pointer.size() == 3) {
+                    final String parameter = pointer.get(2);
+                    return new Field() {
+                        @Override
+                        public Object get(Context context, Request request) {
+                            return request.getAdditionalParameter(parameter);
+                        }
+                    };
+                }
+                break;
+            case "content":
+                final JsonPointer contentField = pointer.relativePointer(pointer.size() - 2);
+                return new Field() {
+                    @Override
+                    public Object get(Context context, Request request) {
+                        JsonValue content = null;
+                        if (request instanceof CreateRequest) {
+                            content = ((CreateRequest) request).getContent();
+                        } else if (request instanceof UpdateRequest) {
+                            content = ((UpdateRequest) request).getContent();
+                        } else if (request instanceof ActionRequest) {
+                            content = ((ActionRequest) request).getContent();
+                        }
+                        return valueOf(content, contentField);
+                    }
+                };
+            default:
+                break;
+            }
+        } else if ("context".equals(root) && name != null) {
+            if ("name".equals(name) && pointer.size() == 2) {
+                return new Field() {
+                    @Override
+                    public Object get(Context context, Request request) {
+                        return context.getContextName();
+                    }
+                };
+            } else if ("caller".equals(name) && pointer.size() == 3 && "external".equals(pointer.get(2))) {
+                return new Field() {
+                    @Override
+                    public Object get(Context context, Request request) {
+                        return ContextUtil.isExternal(context);
+                    }
+                };
+            } else if ("security".equals(name) && pointer.size() == 3
+                    && "authenticationId".equals(pointer.get(2))) {
+                return new Field() {
+                    @Override
+                    public Object get(Context context, Request request) {
+                        return context.containsContext(SecurityContext.class)
+                                ? context.asContext(SecurityContext.class).getAuthenticationId()
+                                : null;
+                    }
+                };
+            } else if ("security".equals(name) && pointer.size() > 3 && "authorization".equals(pointer.get(2))) {
+                final JsonPointer authorizationField = pointer.relativePointer(pointer.size() - 3);
+                return new Field() {
+                    @Override
+                    public Object get(Context context, Request request) {
+                        return context.containsContext(SecurityContext.class)
+                                ? valueOf(new JsonValue(context.asContext(SecurityContext.class).getAuthorization()),
+                                        authorizationField)
+                                : null;
+                    }
+                };
+            }
+        }
+        throw new IllegalArgumentException("Unsupported field " + pointer + " in router filter condition");
+    }
+
+    private static Object valueOf(JsonValue value, JsonPointer field) {
+        if (value == null) {
+            return null;
+        }
+        JsonValue fieldValue = value.get(field);
+        return fieldValue == null ? null : fieldValue.getObject();
+    }
+
+    /**
+     * A comparison of the value of a field with an assertion.
+     */
+    private abstract static class Comparison implements FilterCondition {
+        private final Field field;
+        final Object assertion;
+
+        Comparison(JsonPointer field, Object assertion) {
+            this.field = compileField(field);
+            this.assertion = assertion;
+        }
+
+        @Override
+        public boolean matches(Context context, Request request) {
+            Object value = field.get(context, request);
+            if (value instanceof Collection) {
+                for (Object element : (Collection<?>) value) {
+                    if (element != null && matches(element)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+            return value != null && matches(value);
+        }
+
+        abstract boolean matches(Object value);
+
+        /**
+         * Compares a value with the assertion.
+         *
+         * @return the comparison of the value with the assertion, or null if they are not comparable
+         */
+        Integer compare(Object value) {
+            if (value instanceof Number && assertion instanceof Number) {
+                return Double.compare(((Number) value).doubleValue(), ((Number) assertion).doubleValue());
+            } else if (value instanceof String && assertion instanceof String) {
+                return ((String) value).compareTo((String) assertion);
+            } else if (value instanceof Boolean && assertion instanceof Boolean) {
+                return ((Boolean) value).compareTo((Boolean) assertion);
+            }
+            return null;
+        }
+    }
+
+    private static final class Compiler implements QueryFilterVisitor<FilterCondition, Void, JsonPointer> {
+
+        private List<FilterCondition> compileAll(List<QueryFilter<JsonPointer>> subFilters) {
+            List<FilterCondition> conditions = new ArrayList<>(subFilters.size());
+            for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                conditions.add(subFilter.accept(this, null));
+            }
+            return conditions;
+        }
+
+        @Override
+        public FilterCondition visitAndFilter(Void p, List<QueryFilter<JsonPointer>> subFilters) {
+            final List<FilterCondition> conditions = compileAll(subFilters);
+            return new FilterCondition() {
+                @Override
+                public boolean matches(Context context, Request request) {
+                    for (FilterCondition condition : conditions) {
+                        if (!condition.matches(context, request)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitOrFilter(Void p, List<QueryFilter<JsonPointer>> subFilters) {
+            final List<FilterCondition> conditions = compileAll(subFilters);
+            return new FilterCondition() {
+                @Override
+                public boolean matches(Context context, Request request) {
+                    for (FilterCondition condition : conditions) {
+                        if (condition.matches(context, request)) {
+                            return true;
+                        }
+                    }
+                    return false;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitNotFilter(Void p, QueryFilter<JsonPointer> subFilter) {
+            final FilterCondition condition = subFilter.accept(this, null);
+            return new FilterCondition() {
+                @Override
+                public boolean matches(Context context, Request request) {
+                    return !condition.matches(context, request);
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitBooleanLiteralFilter(Void p, final boolean value) {
+            return new FilterCondition() {
+                @Override
+                public boolean matches(Context context, Request request) {
+                    return value;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitPresentFilter(Void p, JsonPointer field) {
+            return new Comparison(field, null) {
+                @Override
+                boolean matches(Object value) {
+                    return true;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitEqualsFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, valueAssertion) {
+                @Override
+                boolean matches(Object value) {
+                    Integer comparison = compare(value);
+                    return comparison != null && comparison == 0;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitContainsFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, String.valueOf(valueAssertion)) {
+                @Override
+                boolean matches(Object value) {
+                    return value instanceof String && ((String) value).contains((String) assertion);
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitStartsWithFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, String.valueOf(valueAssertion)) {
+                @Override
+                boolean matches(Object value) {
+                    return value instanceof String && ((String) value).startsWith((String) assertion);
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitGreaterThanFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, valueAssertion) {
+                @Override
+                boolean matches(Object value) {
+                    Integer comparison = compare(value);
+                    return comparison != null && comparison > 0;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitGreaterThanOrEqualToFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, valueAssertion) {
+                @Override
+                boolean matches(Object value) {
+                    Integer comparison = compare(value);
+                    return comparison != null && comparison >= 0;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitLessThanFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, valueAssertion) {
+                @Override
+                boolean matches(Object value) {
+                    Integer comparison = compare(value);
+                    return comparison != null && comparison < 0;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitLessThanOrEqualToFilter(Void p, JsonPointer field, Object valueAssertion) {
+            return new Comparison(field, valueAssertion) {
+                @Override
+                boolean matches(Object value) {
+                    Integer comparison = compare(value);
+                    return comparison != null && comparison <= 0;
+                }
+            };
+        }
+
+        @Override
+        public FilterCondition visitExtendedMatchFilter(Void p, JsonPointer field, String operator,
+                Object valueAssertion) {
+            throw new IllegalArgumentException("Unsupported operator " + operator + " in router filter condition");
+        }
+    }
+}
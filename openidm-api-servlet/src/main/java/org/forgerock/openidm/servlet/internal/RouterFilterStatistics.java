@@ -0,0 +1,180 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.servlet.internal;
+
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.forgerock.json.resource.FilterCondition;
+import org.forgerock.json.resource.Request;
+import org.forgerock.services.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Counts the evaluations of the conditions and scripts of the configured router filters and the time
+ * spent in them, so that the filters that cost the most can be found. The counters are always on: they
+ * only add two clock reads per evaluation.
+ */
+class RouterFilterStatistics implements RouterFilterStatisticsMBean {
+
+    private static final Logger logger = LoggerFactory.getLogger(RouterFilterStatistics.class);
+
+    /** The name the statistics are registered under on the platform MBean server */
+    static final String MBEAN_NAME = "org.forgerock.openidm.router:type=Filters";
+
+    /**
+     * The stages of a filter that are timed.
+     */
+    enum Stage {
+        CONDITION("condition"),
+        ON_REQUEST("onRequest"),
+        ON_RESPONSE("onResponse"),
+        ON_FAILURE("onFailure");
+
+        private final String key;
+
+        Stage(String key) {
+            this.key = key;
+        }
+    }
+
+    private final ConcurrentMap<String, Counters> filters = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the counters of a filter, created on first use.
+     *
+     * @param name the name of the filter
+     * @return the counters of the filter
+     */
+    Counters getCounters(String name) {
+        Counters counters = filters.get(name);
+        if (counters == null) {
+            counters = new Counters();
+            Counters existing = filters.putIfAbsent(name, counters);
+            if (existing != null) {
+                counters = existing;
+            }
+        }
+        return counters;
+    }
+
+    @Override
+    public Map<String, Map<String, Long>> getFilterStatistics() {
+        Map<String, Map<String, Long>> statistics = new LinkedHashMap<>();
+        for (Map.Entry<String, Counters> entry : filters.entrySet()) {
+            statistics.put(entry.getKey(), entry.getValue().toMap());
+        }
+        return statistics;
+    }
+
+    void registerMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName mbeanObjectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(mbeanObjectName)) {
+                mBeanServer.unregisterMBean(mbeanObjectName);
+            }
+            mBeanServer.registerMBean(this, mbeanObjectName);
+        } catch (Exception ex) {
+            // The statistics are only informational, do not fail the router
+            logger.warn("Failed to register router filter statistics MBean", ex);
+        }
+    }
+
+    void unregisterMBean() {
+        try {
+            MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
+            ObjectName mbeanObjectName = new ObjectName(MBEAN_NAME);
+            if (mBeanServer.isRegistered(mbeanObjectName)) {
+                mBeanServer.unregisterMBean(mbeanObjectName);
+            }
+        } catch (Exception ex) {
+            logger.warn("Failed to unregister router filter statistics MBean", ex);
+        }
+    }
+
+    /**
+     * The counters of one filter.
+     */
+    static final class Counters {
+        private final AtomicLong[] counts = new AtomicLong[Stage.values().length];
+        private final AtomicLong[] nanos = new AtomicLong[Stage.values().length];
+        private final AtomicLong matched = new AtomicLong();
+
+        private Counters() {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] = new AtomicLong();
+                nanos[i] = new AtomicLong();
+            }
+        }
+
+        /**
+         * Records an evaluation of a stage.
+         *
+         * @param stage the stage evaluated
+         * @param startNanos the value of {@link System#nanoTime()} when the evaluation started
+         */
+        void record(Stage stage, long startNanos) {
+            long elapsed = System.nanoTime() - startNanos;
+            counts[stage.ordinal()].incrementAndGet();
+            nanos[stage.ordinal()].addAndGet(elapsed);
+        }
+
+        /**
+         * Wraps the condition of the filter so that its evaluations are recorded.
+         *
+         * @param condition the condition of the filter
+         * @return the timed condition
+         */
+        FilterCondition timed(final FilterCondition condition) {
+            return new FilterCondition() {
+                @Override
+                public boolean matches(Context context, Request request) {
+                    long start = System.nanoTime();
+                    boolean matches = false;
+                    try {
+                        matches = condition.matches(context, request);
+                        return matches;
+                    } finally {
+                        record(Stage.CONDITION, start);
+                        if (matches) {
+                            matched.incrementAndGet();
+                        }
+                    }
+                }
+            };
+        }
+
+        private Map<String, Long> toMap() {
+            Map<String, Long> map = new LinkedHashMap<>();
+            for (Stage stage : Stage.values()) {
+                map.put(stage.key + "Count", counts[stage.ordinal()].get());
+                map.put(stage.key + "Micros", TimeUnit.NANOSECONDS.toMicros(nanos[stage.ordinal()].get()));
+            }
+            map.put("matched", matched.get());
+            return map;
+        }
+    }
+}
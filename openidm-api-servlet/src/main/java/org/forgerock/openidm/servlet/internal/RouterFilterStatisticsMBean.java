@@ -0,0 +1,34 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.servlet.internal;
+
+import java.util.Map;
+
+/**
+ * Timing counters of the configured router filters.
+ */
+public interface RouterFilterStatisticsMBean {
+
+    /**
+     * Returns the counters of each configured router filter, by filter name. For each of the
+     * {@code condition}, {@code onRequest}, {@code onResponse} and {@code onFailure} stages of a filter,
+     * {@code <stage>Count} is the number of evaluations and {@code <stage>Micros} the total time spent in
+     * them; {@code matched} is the number of requests the condition of the filter matched.
+     *
+     * @return the counters by filter name
+     */
+    Map<String, Map<String, Long>> getFilterStatistics();
+}
@@ -64,14 +64,25 @@ public class ScriptedFilter implements Filter {
     private final Pair<JsonPointer, ScriptEntry> onResponse;
     /** the onFailure script and the config path at which it is defined */
     private final Pair<JsonPointer, ScriptEntry> onFailure;
+    /** the counters recording the script evaluations, or null */
+    private final RouterFilterStatistics.Counters counters;
 
     public ScriptedFilter(
             Pair<JsonPointer, ScriptEntry> onRequest,
             Pair<JsonPointer, ScriptEntry> onResponse,
             Pair<JsonPointer, ScriptEntry> onFailure) {
+        this(onRequest, onResponse, onFailure, null);
+    }
+
+    ScriptedFilter(
+            Pair<JsonPointer, ScriptEntry> onRequest,
+            Pair<JsonPointer, ScriptEntry> onResponse,
+            Pair<JsonPointer, ScriptEntry> onFailure,
+            RouterFilterStatistics.Counters counters) {
         this.onRequest = onRequest;
         this.onResponse = onResponse;
         this.onFailure = onFailure;
+        this.counters = counters;
     }
 
     @Override
@@ -196,6 +207,7 @@ public class ScriptedFilter implements Filter {
                     .asPromise();
             }
             Script script = populateScript(scriptEntry, context, request);
+            final long start = System.nanoTime();
             try {
                 script.eval();
             } catch (Exception e) {
@@ -204,6 +216,10 @@ public class ScriptedFilter implements Filter {
                 ResourceException re = Utils.adapt(e);
                 logger.debug("ResourceException detail: " + re.getDetail());
                 return re.asPromise();
+            } finally {
+                if (counters != null) {
+                    counters.record(RouterFilterStatistics.Stage.ON_REQUEST, start);
+                }
             }
         }
         return newResultPromise(request);
@@ -221,6 +237,7 @@ public class ScriptedFilter implements Filter {
             }
             Script script = populateScript(scriptEntry, context, request);
             script.put("response", response);
+            final long start = System.nanoTime();
             try {
                 script.eval();
             } catch (Exception e) {
@@ -229,6 +246,10 @@ public class ScriptedFilter implements Filter {
                 ResourceException re = Utils.adapt(e);
                 logger.debug("ResourceException detail: " + re.getDetail());
                 return re.asPromise();
+            } finally {
+                if (counters != null) {
+                    counters.record(RouterFilterStatistics.Stage.ON_RESPONSE, start);
+                }
             }
         }
         return newResultPromise(response);
@@ -245,6 +266,7 @@ public class ScriptedFilter implements Filter {
             }
             Script script = populateScript(scriptEntry, context, request);
             script.put("exception", error.includeCauseInJsonValue().toJsonValue().asMap());
+            final long start = System.nanoTime();
             try {
                 script.eval();
             } catch (Exception e) {
@@ -253,6 +275,10 @@ public class ScriptedFilter implements Filter {
                 ResourceException re = Utils.adapt(e);
                 logger.debug("ResourceException detail: " + re.getDetail());
                 return re.asPromise();
+            } finally {
+                if (counters != null) {
+                    counters.record(RouterFilterStatistics.Stage.ON_FAILURE, start);
+                }
             }
         }
         return error.asPromise();
@@ -29,8 +29,10 @@ import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.regex.Pattern;
 
 import javax.script.ScriptException;
@@ -45,6 +47,7 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.forgerock.json.JsonPointer;
@@ -70,6 +73,7 @@ import org.forgerock.json.resource.Request;
 import org.forgerock.json.resource.RequestHandler;
 import org.forgerock.json.resource.RequestType;
 import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourcePath;
 import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.json.resource.Resources;
 import org.forgerock.json.resource.Response;
@@ -111,6 +115,31 @@ public class ServletConnectionFactory implements ConnectionFactory {
     /** Event name prefix for monitoring the router */
     public final static String EVENT_ROUTER_PREFIX = "openidm/internal/router/";
 
+    /** Placeholder of the resource identifiers in the router event names */
+    static final String ID_PLACEHOLDER = "{id}";
+
+    /**
+     * The number of leading path segments naming a resource collection, by first segment, e.g. 2 for
+     * {@code managed/user}; the collections of the generic repository are looked up in
+     * {@link #REPO_COLLECTION_DEPTHS} after the {@code repo} segment.
+     */
+    private static final Map<String, Integer> COLLECTION_DEPTHS = new HashMap<String, Integer>();
+    private static final Map<String, Integer> REPO_COLLECTION_DEPTHS = new HashMap<String, Integer>();
+    private static final int DEFAULT_COLLECTION_DEPTH = 2;
+
+    static {
+        COLLECTION_DEPTHS.put("system", 3);
+        COLLECTION_DEPTHS.put("policy", 3);
+        COLLECTION_DEPTHS.put("recon", 1);
+        COLLECTION_DEPTHS.put("sync", 1);
+        COLLECTION_DEPTHS.put("taskscanner", 1);
+        COLLECTION_DEPTHS.put("cluster", 1);
+        REPO_COLLECTION_DEPTHS.put("system", 3);
+        REPO_COLLECTION_DEPTHS.put("link", 1);
+        REPO_COLLECTION_DEPTHS.put("relationships", 1);
+        REPO_COLLECTION_DEPTHS.put("locks", 1);
+    }
+
     /**
      * Setup logging for the {@link org.forgerock.openidm.servlet.internal.ServletConnectionFactory}.
      */
@@ -119,6 +148,9 @@ public class ServletConnectionFactory implements ConnectionFactory {
     // the created connection factory
     protected ConnectionFactory connectionFactory;
 
+    /** the timing counters of the configured filters */
+    private final RouterFilterStatistics filterStatistics = new RouterFilterStatistics();
+
     /** the Request Handler (Router) */
     @Reference(target = "(org.forgerock.openidm.router=*)")
     protected RequestHandler requestHandler = null;
@@ -134,6 +166,26 @@ public class ServletConnectionFactory implements ConnectionFactory {
     @Reference(policy = ReferencePolicy.DYNAMIC, target = "(service.pid=org.forgerock.openidm.maintenance)")
     private Filter maintenanceFilter = null;
 
+    /** Filters registered as services by other components, applied after the configured filters */
+    @Reference(
+            name = "reference_ServletConnectionFactory_Filter",
+            referenceInterface = Filter.class,
+            bind = "bindServiceFilter",
+            unbind = "unbindServiceFilter",
+            cardinality = ReferenceCardinality.OPTIONAL_MULTIPLE,
+            policy = ReferencePolicy.DYNAMIC,
+            target = "(" + ServerConstants.ROUTER_FILTER + "=*)"
+    )
+    private final List<Filter> serviceFilters = new CopyOnWriteArrayList<>();
+
+    protected void bindServiceFilter(Filter filter) {
+        serviceFilters.add(filter);
+    }
+
+    protected void unbindServiceFilter(Filter filter) {
+        serviceFilters.remove(filter);
+    }
+
     @Activate
     protected void activate(ComponentContext context) throws ServletException, NamespaceException {
         logger.debug("Creating servlet router/connection factory");
@@ -148,6 +200,7 @@ public class ServletConnectionFactory implements ConnectionFactory {
             connectionFactory = newWrappedInternalConnectionFactory(Resources.newInternalConnectionFactory(
                     init(enhancedConfig.getConfigurationAsJson(context), requestHandler, auditFilter)));
             auditFilter.setConnectionFactory(connectionFactory);
+            filterStatistics.registerMBean();
         } catch (Throwable t) {
             logger.error("Failed to configure the Filtered Router service", t);
         }
@@ -157,6 +210,7 @@ public class ServletConnectionFactory implements ConnectionFactory {
 
     @Deactivate
     protected synchronized void deactivate(ComponentContext context) {
+        filterStatistics.unregisterMBean();
     }
     
     private ConnectionFactory newWrappedInternalConnectionFactory(final ConnectionFactory connectionFactory) {
@@ -337,20 +391,20 @@ public class ServletConnectionFactory implements ConnectionFactory {
              */
             private Name getRouterEventName(Request request) {
                 RequestType requestType = request.getRequestType();
-                String idContext;
+                ResourcePath idContext;
 
                 // For query and action group statistics by full URI
                 // Create has only the component name in the getResourceName to start with
                 if (RequestType.QUERY.equals(requestType) || RequestType.ACTION.equals(requestType) 
                         || RequestType.CREATE.equals(requestType)) {
-                    idContext = request.getResourcePath();
+                    idContext = request.getResourcePathObject();
                 } else {
                     // For RUD, patch group statistics without the local resource identifier
-                    idContext = request.getResourcePathObject().head(request.getResourcePathObject().size() - 1).toString();
+                    idContext = request.getResourcePathObject().head(request.getResourcePathObject().size() - 1);
                 }
 
                 String eventName = new StringBuilder(EVENT_ROUTER_PREFIX)
-                        .append(idContext)
+                        .append(toRouteTemplate(idContext))
                         .append("/")
                         .append(requestType.toString().toLowerCase())
                         .toString();
@@ -360,6 +414,38 @@ public class ServletConnectionFactory implements ConnectionFactory {
         };
     }
 
+    /**
+     * Returns the route template of a resource path, the resource identifiers replaced by
+     * {@value #ID_PLACEHOLDER}, so that the router statistics are grouped by route rather than by resource,
+     * e.g. {@code managed/user/{id}/roles} for {@code managed/user/bjensen/roles}.
+     * <p>
+     * The segments past the resource collection alternate between an identifier and a field or
+     * sub-collection of the identified resource.
+     *
+     * @param path the resource path
+     * @return the route template
+     */
+    static String toRouteTemplate(ResourcePath path) {
+        int depth = DEFAULT_COLLECTION_DEPTH;
+        if (!path.isEmpty()) {
+            Integer rootDepth = COLLECTION_DEPTHS.get(path.get(0));
+            if ("repo".equals(path.get(0)) && path.size() > 1) {
+                rootDepth = REPO_COLLECTION_DEPTHS.get(path.get(1));
+                depth = 1 + (rootDepth != null ? rootDepth : DEFAULT_COLLECTION_DEPTH);
+            } else if (rootDepth != null) {
+                depth = rootDepth;
+            }
+        }
+        if (path.size() <= depth) {
+            return path.toString();
+        }
+        StringBuilder template = new StringBuilder(path.head(depth).toString());
+        for (int i = depth; i < path.size(); i++) {
+            template.append('/').append((i - depth) % 2 == 0 ? ID_PLACEHOLDER : path.get(i));
+        }
+        return template.toString();
+    }
+
     /**
      * Initialize the router with configuration. Supports modifying router configuration.
      *
@@ -371,8 +457,8 @@ public class ServletConnectionFactory implements ConnectionFactory {
     RequestHandler init(JsonValue configuration, final RequestHandler handler, final Filter auditFilter)
             throws ScriptException, ResourceException {
         final JsonValue filterConfig = configuration.get("filters").expect(List.class);
-        // # filters = config filters + maintenance + logging + audit
-        final List<Filter> filters = new ArrayList<>(filterConfig.size() + 3);
+        // # filters = config filters + maintenance + logging + audit + service filters
+        final List<Filter> filters = new ArrayList<>(filterConfig.size() + 4);
 
         filters.add(Filters.conditionalFilter(Filters.matchResourcePath("((?!(audit|updates)).)*"), maintenanceFilter));
         filters.add(newLoggingFilter());
@@ -385,23 +471,33 @@ public class ServletConnectionFactory implements ConnectionFactory {
             }
         }
 
+        filters.add(newServiceFilter());
+
         // filters will always have at least the logging filter
         return new FilterChain(handler, filters);
     }
 
     /**
      * Create a Filter from the filter configuration.
+     * <p>
+     * The filter applies to the requests matching all of its conditions: the resource path
+     * {@code pattern}, the request types listed in {@code methods} and the {@code condition}. The
+     * condition is either a script, or a query filter over the request and its context, which is compiled
+     * once by {@link RequestConditions} and evaluated without a script. The conditions are evaluated
+     * in that order, so a condition script only runs for the requests matching the pattern and methods.
      *
      * @param config
      *            the configuration describing a single filter.
      * @return a Filter
      * @throws org.forgerock.json.JsonValueException
-     *             TODO.
+     *             if the configuration is invalid.
      */
     private Filter newFilter(JsonValue config) throws JsonValueException, ScriptException {
-        FilterCondition filterCondition = null;
+        final List<FilterCondition> conditions = new ArrayList<>();
 
-        final Pair<JsonPointer, ScriptEntry> condition = getScript(config.get("condition"));
+        final JsonValue conditionConfig = config.get("condition");
+        final Pair<JsonPointer, ScriptEntry> condition =
+                conditionConfig.isString() ? null : getScript(conditionConfig);
         final Pair<JsonPointer, ScriptEntry> onRequest = getScript(config.get("onRequest"));
         final Pair<JsonPointer, ScriptEntry> onResponse = getScript(config.get("onResponse"));
         final Pair<JsonPointer, ScriptEntry> onFailure = getScript(config.get("onFailure"));
@@ -414,7 +510,7 @@ public class ServletConnectionFactory implements ConnectionFactory {
         // Check for condition on pattern
         Pattern pattern = config.get("pattern").asPattern();
         if (null != pattern) {
-            filterCondition = Filters.matchResourcePath(pattern);
+            conditions.add(Filters.matchResourcePath(pattern));
         }
 
         // Check for condition on type
@@ -423,19 +519,21 @@ public class ServletConnectionFactory implements ConnectionFactory {
             requestTypes.add(method.asEnum(RequestType.class));
         }
         if (!requestTypes.isEmpty()) {
-            filterCondition = (null == filterCondition) 
-                    ? Filters.matchRequestType(requestTypes)
-                    : Filters.and(filterCondition, Filters.matchRequestType(requestTypes));
+            conditions.add(Filters.matchRequestType(requestTypes));
         }
 
-        // Create the filter
-        Filter filter = (null == filterCondition)
-                ? new ScriptedFilter(onRequest, onResponse, onFailure)
-                : Filters.conditionalFilter(filterCondition, new ScriptedFilter(onRequest, onResponse, onFailure));
+        // Check for a declarative condition
+        if (conditionConfig.isString()) {
+            try {
+                conditions.add(RequestConditions.compile(conditionConfig.asString()));
+            } catch (IllegalArgumentException e) {
+                throw new JsonValueException(conditionConfig, e.getMessage(), e);
+            }
+        }
 
         // Check for a condition script
         if (null != condition) {
-            FilterCondition conditionFilterCondition = new FilterCondition() {
+            conditions.add(new FilterCondition() {
                 @Override
                 public boolean matches(final Context context, final Request request) {
                     try {
@@ -448,10 +546,20 @@ public class ServletConnectionFactory implements ConnectionFactory {
                     }
                     return false;
                 }
-            };
-            filter = Filters.conditionalFilter(conditionFilterCondition, filter);
+            });
         }
-        return filter;
+
+        // Create the filter
+        final RouterFilterStatistics.Counters counters = filterStatistics.getCounters(
+                config.get("name").defaultTo(config.getPointer().toString()).asString());
+        final Filter filter = new ScriptedFilter(onRequest, onResponse, onFailure, counters);
+        if (conditions.isEmpty()) {
+            return filter;
+        }
+        final FilterCondition filterCondition = conditions.size() == 1
+                ? conditions.get(0)
+                : Filters.and(conditions.toArray(new FilterCondition[conditions.size()]));
+        return Filters.conditionalFilter(counters.timed(filterCondition), filter);
     }
 
     private Pair<JsonPointer, ScriptEntry> getScript(JsonValue scriptJson) throws ScriptException {
@@ -537,6 +645,54 @@ public class ServletConnectionFactory implements ConnectionFactory {
         };
     }
 
+    /**
+     * Create a Filter passing the requests through the filters currently registered as services.
+     *
+     * @return a Filter
+     */
+    private Filter newServiceFilter() {
+        return new Filter() {
+            @Override
+            public Promise<ActionResponse, ResourceException> filterAction(Context context, ActionRequest request, RequestHandler next) {
+                return chainOf(next).handleAction(context, request);
+            }
+
+            @Override
+            public Promise<ResourceResponse, ResourceException> filterCreate(Context context, CreateRequest request, RequestHandler next) {
+                return chainOf(next).handleCreate(context, request);
+            }
+
+            @Override
+            public Promise<ResourceResponse, ResourceException> filterDelete(Context context, DeleteRequest request, RequestHandler next) {
+                return chainOf(next).handleDelete(context, request);
+            }
+
+            @Override
+            public Promise<ResourceResponse, ResourceException> filterPatch(Context context, PatchRequest request, RequestHandler next) {
+                return chainOf(next).handlePatch(context, request);
+            }
+
+            @Override
+            public Promise<QueryResponse, ResourceException> filterQuery(Context context, QueryRequest request, QueryResourceHandler handler, RequestHandler next) {
+                return chainOf(next).handleQuery(context, request, handler);
+            }
+
+            @Override
+            public Promise<ResourceResponse, ResourceException> filterRead(Context context, ReadRequest request, RequestHandler next) {
+                return chainOf(next).handleRead(context, request);
+            }
+
+            @Override
+            public Promise<ResourceResponse, ResourceException> filterUpdate(Context context, UpdateRequest request, RequestHandler next) {
+                return chainOf(next).handleUpdate(context, request);
+            }
+
+            private RequestHandler chainOf(RequestHandler next) {
+                return serviceFilters.isEmpty() ? next : new FilterChain(next, serviceFilters);
+            }
+        };
+    }
+
     // ----- Implementation of ConnectionFactory
 
     @Override
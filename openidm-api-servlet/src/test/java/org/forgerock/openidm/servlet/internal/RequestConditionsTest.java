@@ -0,0 +1,111 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.servlet.internal;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.forgerock.json.resource.FilterCondition;
+import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.Requests;
+import org.forgerock.openidm.util.ContextUtil;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.services.context.SecurityContext;
+import org.testng.annotations.Test;
+
+/**
+ * Test of the compiled router filter conditions.
+ */
+public class RequestConditionsTest {
+
+    private static final Context ROOT = new RootContext();
+
+    private static Context security(String authenticationId, Map<String, Object> authorization) {
+        return new SecurityContext(ROOT, authenticationId, authorization);
+    }
+
+    @Test
+    public void testRequestFields() {
+        Request read = Requests.newReadRequest("managed/user/bjensen");
+        Request create = Requests.newCreateRequest("managed/user", json(object(field("userName", "bjensen"))));
+
+        FilterCondition method = RequestConditions.compile("/request/method eq \"read\"");
+        assertThat(method.matches(ROOT, read)).isTrue();
+        assertThat(method.matches(ROOT, create)).isFalse();
+
+        FilterCondition path = RequestConditions.compile("/request/resourcePath sw \"managed/\"");
+        assertThat(path.matches(ROOT, read)).isTrue();
+        assertThat(path.matches(ROOT, Requests.newReadRequest("system/ldap/account"))).isFalse();
+
+        FilterCondition content = RequestConditions.compile("/request/content/userName eq \"bjensen\"");
+        assertThat(content.matches(ROOT, create)).isTrue();
+        assertThat(content.matches(ROOT, read)).isFalse();
+    }
+
+    @Test
+    public void testContextFields() {
+        Request read = Requests.newReadRequest("managed/user/bjensen");
+        Map<String, Object> authorization = object(
+                field("id", "bjensen"),
+                field("roles", Arrays.asList("openidm-authorized", "openidm-admin")));
+
+        FilterCondition admin = RequestConditions.compile(
+                "/context/security/authorization/roles eq \"openidm-admin\"");
+        assertThat(admin.matches(security("bjensen", authorization), read)).isTrue();
+        assertThat(admin.matches(security("bjensen", null), read)).isFalse();
+        assertThat(admin.matches(ROOT, read)).isFalse();
+
+        FilterCondition name = RequestConditions.compile("/context/name eq \"security\"");
+        assertThat(name.matches(security("bjensen", authorization), read)).isTrue();
+        assertThat(name.matches(ROOT, read)).isFalse();
+
+        FilterCondition external = RequestConditions.compile("/context/caller/external eq true");
+        assertThat(external.matches(ContextUtil.createInternalContext(), read)).isFalse();
+        assertThat(external.matches(ROOT, read)).isFalse();
+    }
+
+    @Test
+    public void testBooleanOperators() {
+        Request read = Requests.newReadRequest("managed/user/bjensen");
+        Context context = security("bjensen", null);
+
+        assertThat(RequestConditions.compile(
+                "/request/method eq \"read\" and /context/security/authenticationId eq \"bjensen\"")
+                .matches(context, read)).isTrue();
+        assertThat(RequestConditions.compile(
+                "/request/method eq \"create\" or /context/security/authenticationId pr")
+                .matches(context, read)).isTrue();
+        assertThat(RequestConditions.compile("!(/request/method eq \"read\")")
+                .matches(context, read)).isFalse();
+        assertThat(RequestConditions.compile("true").matches(context, read)).isTrue();
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testUnsupportedField() {
+        RequestConditions.compile("/request/unknown eq \"read\"");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidQueryFilter() {
+        RequestConditions.compile("/request/method eq");
+    }
+}
@@ -121,6 +121,28 @@ public class ServletConnectionFactoryTest {
         testable.create(createContext("admin"), Requests.newCreateRequest("/managed/user", content));
     }
 
+    @Test
+    public void testRouteTemplateCollapsesResourceIds() throws Exception {
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("managed/user")))
+                .isEqualTo("managed/user");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("managed/user/bjensen")))
+                .isEqualTo("managed/user/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("managed/user/bjensen/roles")))
+                .isEqualTo("managed/user/{id}/roles");
+        assertThat(ServletConnectionFactory.toRouteTemplate(
+                ResourcePath.valueOf("managed/user/bjensen/roles/d1e3ab")))
+                .isEqualTo("managed/user/{id}/roles/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("system/ldap/account/uid=bjensen")))
+                .isEqualTo("system/ldap/account/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("repo/managed/user/bjensen")))
+                .isEqualTo("repo/managed/user/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("repo/link/0a1b2c")))
+                .isEqualTo("repo/link/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf("recon/0a1b2c")))
+                .isEqualTo("recon/{id}");
+        assertThat(ServletConnectionFactory.toRouteTemplate(ResourcePath.valueOf(""))).isEqualTo("");
+    }
+
     private Context createContext(String id) {
         final Map<String, Object> authzid = new HashMap<>();
         authzid.put(SecurityContext.AUTHZID_ID, id);
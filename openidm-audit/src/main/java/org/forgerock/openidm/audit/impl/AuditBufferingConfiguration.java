@@ -0,0 +1,112 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.audit.impl;
+
+/**
+ * Configuration of the write-behind buffer of the router and repository audit event handlers.
+ * <p>
+ * Example of valid JSON configuration:
+ * <pre>
+ *  "buffering" : {
+ *    "enabled" : true,
+ *    "capacity" : 10000,
+ *    "batchSize" : 100,
+ *    "overflowPolicy" : "SPILL",
+ *    "spillFile" : "&{launcher.working.location}/audit/repo-spill.json"
+ *  }
+ * </pre>
+ */
+public class AuditBufferingConfiguration {
+
+    /**
+     * What to do with an audit event when the buffer is full.
+     */
+    public enum OverflowPolicy {
+        /** Wait on the publishing thread until the writer has made room */
+        BLOCK,
+        /** Discard the event and count it */
+        DROP,
+        /** Append the event to the spill file, from which it is written once the buffer has drained */
+        SPILL
+    }
+
+    /** Whether audit events are written in the background rather than on the request thread */
+    private boolean enabled = false;
+
+    /** The maximum number of audit events waiting to be written */
+    private int capacity = 10000;
+
+    /** The maximum number of audit events of a topic written in one transaction */
+    private int batchSize = 100;
+
+    /** What to do with an audit event when the buffer is full: BLOCK, DROP or SPILL */
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+
+    /** The file audit events overflowing the buffer are appended to, for the SPILL policy */
+    private String spillFile;
+
+    /** The maximum time in milliseconds to wait for buffered audit events to be written on shutdown */
+    private long shutdownTimeout = 30000L;
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        this.capacity = capacity;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public void setBatchSize(int batchSize) {
+        this.batchSize = batchSize;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public String getSpillFile() {
+        return spillFile;
+    }
+
+    public void setSpillFile(String spillFile) {
+        this.spillFile = spillFile;
+    }
+
+    public long getShutdownTimeout() {
+        return shutdownTimeout;
+    }
+
+    public void setShutdownTimeout(long shutdownTimeout) {
+        this.shutdownTimeout = shutdownTimeout;
+    }
+}
@@ -0,0 +1,566 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.audit.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Requests.newActionRequest;
+import static org.forgerock.json.resource.Requests.newCreateRequest;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.audit.AuditingContext;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.InternalServerErrorException;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourcePath;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.openidm.audit.impl.AuditBufferingConfiguration.OverflowPolicy;
+import org.forgerock.openidm.util.JsonUtil;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Writes audit events to a router target in the background, so that publishing an event only queues it.
+ * <p>
+ * A single writer thread drains the bounded buffer and writes the events of each topic with the
+ * {@code createBatch} action of the repository, which inserts them as JDBC statement batches in one
+ * transaction (group commit).
+ * Targets that do not support the action get one create request per event. When the buffer is full,
+ * the configured {@link OverflowPolicy} applies. On shutdown, the events still buffered are written
+ * before the writer stops.
+ * <p>
+ * Events are written with the context of the request that published them. Events spilled to the spill
+ * file lose their context and are written with a new root context when they are replayed. The replay
+ * records how many lines of the replay file it has written in an offset file, so that a replay that is
+ * interrupted continues after them, and moves lines that can not be parsed to a quarantine file.
+ */
+class BufferedAuditEventWriter {
+
+    private static final Logger logger = LoggerFactory.getLogger(BufferedAuditEventWriter.class);
+
+    /** The repository action creating a batch of objects in one transaction */
+    static final String ACTION_CREATE_BATCH = "createBatch";
+
+    /** The field of the {@code createBatch} action content listing the objects to create */
+    static final String FIELD_BATCH_OBJECTS = "objects";
+
+    private static final long POLL_TIMEOUT_MILLIS = 500L;
+    private static final int DROP_LOG_INTERVAL = 1000;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final String FIELD_TOPIC = "topic";
+    private static final String FIELD_EVENT = "event";
+
+    private final String name;
+    private final ResourcePath resourcePath;
+    private final ConnectionFactory connectionFactory;
+    private final OverflowPolicy overflowPolicy;
+    private final int batchSize;
+    private final long shutdownTimeout;
+    private final BlockingQueue<BufferedEvent> buffer;
+    private final File spillFile;
+    private final File replayFile;
+    private final File replayOffsetFile;
+    private final File quarantineFile;
+    private final Object spillLock = new Object();
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+
+    /** Open while events are spilled, closed when the spill file is replayed */
+    private Writer spillWriter;
+    private volatile boolean batchSupported = true;
+    private volatile boolean running;
+    private Thread writerThread;
+
+    /**
+     * Creates a writer, which only buffers events once started.
+     *
+     * @param name the name of the audit event handler
+     * @param resourcePath the router target the audit events are written to
+     * @param connectionFactory the connection factory to the router
+     * @param config the buffering configuration
+     */
+    BufferedAuditEventWriter(String name, ResourcePath resourcePath, ConnectionFactory connectionFactory,
+            AuditBufferingConfiguration config) {
+        if (config.getCapacity() < 1 || config.getBatchSize() < 1) {
+            throw new IllegalArgumentException("Audit buffering capacity and batchSize must be positive");
+        }
+        if (config.getOverflowPolicy() == OverflowPolicy.SPILL && config.getSpillFile() == null) {
+            throw new IllegalArgumentException("Audit buffering with the SPILL overflow policy requires a spillFile");
+        }
+        this.name = name;
+        this.resourcePath = resourcePath;
+        this.connectionFactory = connectionFactory;
+        this.overflowPolicy = config.getOverflowPolicy();
+        this.batchSize = config.getBatchSize();
+        this.shutdownTimeout = config.getShutdownTimeout();
+        this.buffer = new ArrayBlockingQueue<BufferedEvent>(config.getCapacity());
+        this.spillFile = config.getSpillFile() != null ? new File(config.getSpillFile()) : null;
+        this.replayFile = spillFile != null ? new File(spillFile.getPath() + ".replay") : null;
+        this.replayOffsetFile = spillFile != null ? new File(spillFile.getPath() + ".replay.offset") : null;
+        this.quarantineFile = spillFile != null ? new File(spillFile.getPath() + ".corrupt") : null;
+    }
+
+    /**
+     * Starts the writer thread.
+     */
+    synchronized void startup() {
+        if (running) {
+            return;
+        }
+        running = true;
+        writerThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                drain();
+            }
+        }, "audit-writer-" + name);
+        writerThread.setDaemon(true);
+        writerThread.start();
+        logger.info("Buffering audit events to {}, {} overflow policy", resourcePath, overflowPolicy);
+    }
+
+    /**
+     * Stops the writer thread once all buffered events are written, waiting at most the configured shutdown
+     * timeout. Events published after the shutdown are written on the publishing thread, and so are the events
+     * of publishers blocked on a full buffer, which stop waiting once the writer is shut down.
+     */
+    void shutdown() {
+        Thread thread;
+        synchronized (this) {
+            running = false;
+            thread = writerThread;
+            writerThread = null;
+        }
+        if (thread != null) {
+            try {
+                thread.join(shutdownTimeout);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (thread.isAlive()) {
+                logger.warn("Audit writer {} did not write {} buffered events within {} ms",
+                        name, buffer.size(), shutdownTimeout);
+            } else {
+                // Events buffered by publishers racing with the shutdown after the writer stopped
+                writeRemaining();
+            }
+        }
+        synchronized (spillLock) {
+            closeSpillWriter();
+        }
+    }
+
+    /**
+     * Buffers an audit event for writing.
+     *
+     * @param context the context of the request publishing the event
+     * @param topic the audit event topic
+     * @param content the audit event
+     * @throws ResourceException if the event was written synchronously and failed, or the publishing thread
+     * was interrupted waiting for room in the buffer
+     */
+    void publish(Context context, String topic, JsonValue content) throws ResourceException {
+        BufferedEvent event = new BufferedEvent(context, topic, content);
+        if (!running) {
+            create(event);
+            return;
+        }
+        switch (overflowPolicy) {
+            case BLOCK:
+                try {
+                    while (!buffer.offer(event, POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                        if (!running) {
+                            // Nothing may drain the buffer anymore
+                            create(event);
+                            return;
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InternalServerErrorException("Interrupted while buffering audit event", e);
+                }
+                break;
+            case DROP:
+                if (!buffer.offer(event)) {
+                    long dropped = droppedCount.incrementAndGet();
+                    if (dropped % DROP_LOG_INTERVAL == 1) {
+                        logger.warn("Audit buffer of {} is full, {} audit events dropped so far", name, dropped);
+                    }
+                }
+                break;
+            case SPILL:
+                if (!buffer.offer(event)) {
+                    spill(event);
+                }
+                break;
+        }
+        if (!running) {
+            // Shut down while buffering, the writer may have stopped before it saw this event
+            writeRemaining();
+        }
+    }
+
+    private void writeRemaining() {
+        List<BufferedEvent> remaining = new ArrayList<BufferedEvent>();
+        buffer.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            write(remaining);
+        }
+    }
+
+    /**
+     * @return the number of audit events dropped because the buffer was full
+     */
+    long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /**
+     * @return the number of audit events appended to the spill file because the buffer was full
+     */
+    long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /**
+     * @return the number of audit events waiting in the buffer
+     */
+    int getBufferedCount() {
+        return buffer.size();
+    }
+
+    private void drain() {
+        List<BufferedEvent> batch = new ArrayList<BufferedEvent>(batchSize);
+        while (running || !buffer.isEmpty()) {
+            try {
+                BufferedEvent first = buffer.poll(POLL_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    // Idle, catch up with the events that overflowed
+                    replaySpilled();
+                    continue;
+                }
+                batch.add(first);
+                buffer.drainTo(batch, batchSize - 1);
+                write(batch);
+            } catch (InterruptedException e) {
+                logger.debug("Audit writer {} interrupted", name);
+            } catch (RuntimeException e) {
+                logger.warn("Audit writer {} failed to write {} audit events", name, batch.size(), e);
+            } finally {
+                batch.clear();
+            }
+        }
+        replaySpilled();
+    }
+
+    /**
+     * Writes the events, in one batch per topic.
+     */
+    private void write(List<BufferedEvent> events) {
+        Map<String, List<BufferedEvent>> byTopic = new LinkedHashMap<String, List<BufferedEvent>>();
+        for (BufferedEvent event : events) {
+            List<BufferedEvent> topicEvents = byTopic.get(event.topic);
+            if (topicEvents == null) {
+                topicEvents = new ArrayList<BufferedEvent>();
+                byTopic.put(event.topic, topicEvents);
+            }
+            topicEvents.add(event);
+        }
+        for (Map.Entry<String, List<BufferedEvent>> entry : byTopic.entrySet()) {
+            write(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Writes the events of a topic. A batch is written with the context of its first event.
+     */
+    private void write(String topic, List<BufferedEvent> events) {
+        if (events.size() > 1 && batchSupported) {
+            List<Object> objects = new ArrayList<Object>(events.size());
+            for (BufferedEvent event : events) {
+                objects.add(event.content.getObject());
+            }
+            ActionRequest request = newActionRequest(resourcePath.concat(topic), ACTION_CREATE_BATCH)
+                    .setContent(json(object(field(FIELD_BATCH_OBJECTS, objects))));
+            try {
+                connectionFactory.getConnection().action(newContext(events.get(0).context), request);
+                return;
+            } catch (NotSupportedException | BadRequestException e) {
+                logger.info("{} does not support batch creates, writing audit events one at a time", resourcePath);
+                batchSupported = false;
+            } catch (ResourceException e) {
+                // Write the events individually, so that only the failing ones are lost
+                logger.debug("Failed to write a batch of {} audit events of topic {}", events.size(), topic, e);
+            }
+        }
+        int failed = 0;
+        ResourceException failure = null;
+        for (BufferedEvent event : events) {
+            try {
+                create(event);
+            } catch (ResourceException e) {
+                failed++;
+                failure = e;
+            }
+        }
+        if (failure != null) {
+            logger.warn("Failed to write {} audit events of topic {} to {}", failed, topic, resourcePath, failure);
+        }
+    }
+
+    private ResourceResponse create(BufferedEvent event) throws ResourceException {
+        String auditEventId = event.content.get(ResourceResponse.FIELD_CONTENT_ID).asString();
+        return connectionFactory.getConnection().create(newContext(event.context),
+                newCreateRequest(resourcePath.concat(event.topic), auditEventId, event.content));
+    }
+
+    /**
+     * Events are written on behalf of the requests that published them, after these requests completed.
+     *
+     * @param context the context of the request that published the event, or null for a replayed event
+     */
+    private Context newContext(Context context) {
+        return new AuditingContext(context != null ? context : new RootContext());
+    }
+
+    private void spill(BufferedEvent event) throws ResourceException {
+        synchronized (spillLock) {
+            try {
+                if (spillWriter == null) {
+                    File parent = spillFile.getAbsoluteFile().getParentFile();
+                    if (parent != null && !parent.exists() && !parent.mkdirs()) {
+                        throw new IOException("Failed to create directory " + parent);
+                    }
+                    spillWriter = new BufferedWriter(
+                            new OutputStreamWriter(new FileOutputStream(spillFile, true), UTF_8));
+                }
+                spillWriter.write(JsonUtil.writeValueAsString(
+                        json(object(field(FIELD_TOPIC, event.topic), field(FIELD_EVENT, event.content.getObject())))));
+                spillWriter.write('\n');
+                spillWriter.flush();
+                long spilled = spilledCount.incrementAndGet();
+                if (spilled % DROP_LOG_INTERVAL == 1) {
+                    logger.info("Audit buffer of {} is full, {} audit events spilled to {} so far",
+                            name, spilled, spillFile);
+                }
+            } catch (IOException e) {
+                throw new InternalServerErrorException("Failed to spill audit event to " + spillFile, e);
+            }
+        }
+    }
+
+    /**
+     * Writes the spilled events, including those left by a previous run, and empties the spill file.
+     */
+    private void replaySpilled() {
+        if (spillFile == null) {
+            return;
+        }
+        synchronized (spillLock) {
+            // The replay file is left over if the previous replay did not complete
+            if (!replayFile.exists()) {
+                if (!spillFile.exists() || spillFile.length() == 0) {
+                    return;
+                }
+                closeSpillWriter();
+                if (!spillFile.renameTo(replayFile)) {
+                    logger.warn("Failed to rename audit spill file {} to {}", spillFile, replayFile);
+                    return;
+                }
+                deleteReplayOffset();
+            }
+        }
+        final long committed = readReplayOffset();
+        List<BufferedEvent> batch = new ArrayList<BufferedEvent>(batchSize);
+        long lineNumber = 0;
+        int replayed = 0;
+        int quarantined = 0;
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(replayFile), UTF_8));
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                if (lineNumber <= committed || line.isEmpty()) {
+                    continue;
+                }
+                BufferedEvent event = parseSpilled(line);
+                if (event == null) {
+                    // Write the lines before it first, so the offset can move past the quarantined line
+                    write(batch);
+                    replayed += batch.size();
+                    batch.clear();
+                    quarantine(line);
+                    quarantined++;
+                    writeReplayOffset(lineNumber);
+                    continue;
+                }
+                batch.add(event);
+                if (batch.size() == batchSize) {
+                    write(batch);
+                    replayed += batch.size();
+                    batch.clear();
+                    writeReplayOffset(lineNumber);
+                }
+            }
+            write(batch);
+            replayed += batch.size();
+        } catch (IOException | RuntimeException e) {
+            // Keep the replay file, the events after the offset are written on the next replay
+            logger.warn("Failed to replay audit spill file {} after {} events", replayFile, replayed, e);
+            return;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close audit spill file {}", replayFile, e);
+                }
+            }
+        }
+        if (!replayFile.delete()) {
+            logger.warn("Failed to delete replayed audit spill file {}", replayFile);
+        } else {
+            deleteReplayOffset();
+        }
+        if (quarantined > 0) {
+            logger.warn("Moved {} unreadable audit events spilled to {} to {}",
+                    quarantined, spillFile, quarantineFile);
+        }
+        logger.info("Wrote {} audit events spilled to {}", replayed, spillFile);
+    }
+
+    /**
+     * @return the spilled event of a line of the replay file, or null if the line is not a spilled event
+     */
+    private BufferedEvent parseSpilled(String line) {
+        try {
+            JsonValue spilled = JsonUtil.parseStringified(line);
+            if (spilled.isMap() && spilled.get(FIELD_TOPIC).isString() && spilled.get(FIELD_EVENT).isMap()) {
+                return new BufferedEvent(null, spilled.get(FIELD_TOPIC).asString(), spilled.get(FIELD_EVENT));
+            }
+        } catch (RuntimeException e) {
+            logger.debug("Unreadable line in audit spill file {}", replayFile, e);
+        }
+        return null;
+    }
+
+    private void quarantine(String line) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(quarantineFile, true), UTF_8);
+        try {
+            writer.write(line);
+            writer.write('\n');
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * @return the number of lines of the replay file already written, 0 if none or unknown
+     */
+    private long readReplayOffset() {
+        if (!replayOffsetFile.exists()) {
+            return 0;
+        }
+        BufferedReader reader = null;
+        try {
+            reader = new BufferedReader(new FileReader(replayOffsetFile));
+            String offset = reader.readLine();
+            return offset != null ? Math.max(0, Long.parseLong(offset.trim())) : 0;
+        } catch (IOException | NumberFormatException e) {
+            logger.warn("Failed to read audit replay offset {}, replaying {} from the start",
+                    replayOffsetFile, replayFile, e);
+            return 0;
+        } finally {
+            if (reader != null) {
+                try {
+                    reader.close();
+                } catch (IOException e) {
+                    logger.debug("Failed to close audit replay offset {}", replayOffsetFile, e);
+                }
+            }
+        }
+    }
+
+    private void writeReplayOffset(long lineNumber) throws IOException {
+        Writer writer = new FileWriter(replayOffsetFile, false);
+        try {
+            writer.write(Long.toString(lineNumber));
+        } finally {
+            writer.close();
+        }
+    }
+
+    private void deleteReplayOffset() {
+        if (replayOffsetFile.exists() && !replayOffsetFile.delete()) {
+            logger.warn("Failed to delete audit replay offset {}", replayOffsetFile);
+        }
+    }
+
+    private void closeSpillWriter() {
+        if (spillWriter != null) {
+            try {
+                spillWriter.close();
+            } catch (IOException e) {
+                logger.warn("Failed to close audit spill file {}", spillFile, e);
+            }
+            spillWriter = null;
+        }
+    }
+
+    /**
+     * An audit event waiting to be written.
+     */
+    private static final class BufferedEvent {
+        private final Context context;
+        private final String topic;
+        private final JsonValue content;
+
+        private BufferedEvent(Context context, String topic, JsonValue content) {
+            this.context = context;
+            this.topic = topic;
+            this.content = content;
+        }
+    }
+}
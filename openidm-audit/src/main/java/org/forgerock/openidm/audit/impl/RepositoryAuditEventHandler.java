@@ -55,13 +55,14 @@ public class RepositoryAuditEventHandler extends AuditEventHandlerBase {
         routerConfig.setTopics(configuration.getTopics());
         routerConfig.setName(configuration.getName());
         routerConfig.setEnabled(configuration.isEnabled());
+        routerConfig.setBuffering(configuration.getBuffering());
         this.routerAuditEventHandler =
                 new RouterAuditEventHandler(routerConfig, eventTopicsMetaData, connectionFactory);
     }
 
     @Override
     public void startup() throws ResourceException {
-        // do nothing
+        routerAuditEventHandler.startup();
     }
 
     @Override
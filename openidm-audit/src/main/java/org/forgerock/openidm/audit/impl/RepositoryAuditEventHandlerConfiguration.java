@@ -25,6 +25,8 @@ import org.forgerock.audit.events.handlers.EventHandlerConfiguration;
 public class RepositoryAuditEventHandlerConfiguration extends EventHandlerConfiguration {
     private static final String REPO_AUDIT_PATH = "repo/audit";
 
+    private AuditBufferingConfiguration buffering;
+
     /**
      * Returns the fixed path to repository audits.
      * @return #REPO_AUDIT_PATH
@@ -33,4 +35,23 @@ public class RepositoryAuditEventHandlerConfiguration extends EventHandlerConfig
         return REPO_AUDIT_PATH;
     }
 
+    /**
+     * Returns the configuration of the write-behind buffer of audit events.
+     *
+     * @return the buffering configuration, or null if events are written on the publishing thread
+     * @see AuditBufferingConfiguration
+     */
+    public AuditBufferingConfiguration getBuffering() {
+        return buffering;
+    }
+
+    /**
+     * Sets the configuration of the write-behind buffer of audit events.
+     *
+     * @param buffering the buffering configuration
+     */
+    public void setBuffering(AuditBufferingConfiguration buffering) {
+        this.buffering = buffering;
+    }
+
 }
@@ -26,6 +26,7 @@ package org.forgerock.openidm.audit.impl;
 import static org.forgerock.json.resource.Requests.copyOfQueryRequest;
 import static org.forgerock.json.resource.Requests.newCreateRequest;
 import static org.forgerock.json.resource.Requests.newReadRequest;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import javax.inject.Inject;
@@ -60,6 +61,9 @@ public class RouterAuditEventHandler extends AuditEventHandlerBase {
     /** the DependencyProvider to provide access to the ConnectionFactory */
     private final ConnectionFactory connectionFactory;
 
+    /** the background writer of published events, or null if events are written on the publishing thread */
+    private final BufferedAuditEventWriter bufferedWriter;
+
     @Inject
     public RouterAuditEventHandler(
             final RouterAuditEventHandlerConfiguration configuration,
@@ -68,17 +72,26 @@ public class RouterAuditEventHandler extends AuditEventHandlerBase {
         super(configuration.getName(), eventTopicsMetaData, configuration.getTopics(), configuration.isEnabled());
         this.resourcePath = ResourcePath.valueOf(configuration.getResourcePath());
         this.connectionFactory = connectionFactory;
+        final AuditBufferingConfiguration buffering = configuration.getBuffering();
+        this.bufferedWriter = buffering != null && buffering.isEnabled()
+                ? new BufferedAuditEventWriter(configuration.getName(), resourcePath, connectionFactory, buffering)
+                : null;
         logger.info("Audit logging to: {}", resourcePath.toString());
     }
 
     @Override
     public void startup() throws ResourceException {
-        // do nothing
+        if (bufferedWriter != null) {
+            bufferedWriter.startup();
+        }
     }
 
     @Override
     public void shutdown() throws ResourceException {
-        // do nothing
+        if (bufferedWriter != null) {
+            // flush the buffered events
+            bufferedWriter.shutdown();
+        }
     }
 
     @Override
@@ -86,6 +99,10 @@ public class RouterAuditEventHandler extends AuditEventHandlerBase {
             final JsonValue auditEventContent) {
         try {
             final String auditEventId = auditEventContent.get(ResourceResponse.FIELD_CONTENT_ID).asString();
+            if (bufferedWriter != null) {
+                bufferedWriter.publish(context, auditEventTopic, auditEventContent);
+                return newResultPromise(newResourceResponse(auditEventId, null, auditEventContent));
+            }
             return newResultPromise(connectionFactory.getConnection().create(new AuditingContext(context),
                     newCreateRequest(
                             resourcePath.concat(auditEventTopic),
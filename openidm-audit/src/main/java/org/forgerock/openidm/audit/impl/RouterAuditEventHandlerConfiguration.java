@@ -32,7 +32,10 @@ import org.forgerock.audit.events.handlers.EventHandlerConfiguration;
  * This configuration object can be created from JSON. Example of valid JSON configuration:
  * <pre>
  *  {
- *    "resourcePath" : "system/auditdb"
+ *    "resourcePath" : "system/auditdb",
+ *    "buffering" : {
+ *      "enabled" : true
+ *    }
  *  }
  * </pre>
  */
@@ -41,6 +44,8 @@ public class RouterAuditEventHandlerConfiguration extends EventHandlerConfigurat
     @JsonProperty(required=true)
     private String resourcePath;
 
+    private AuditBufferingConfiguration buffering;
+
     /**
      * Returns the resourcePath where the audit events will be sent.
      *
@@ -59,4 +64,22 @@ public class RouterAuditEventHandlerConfiguration extends EventHandlerConfigurat
         this.resourcePath = resourcePath;
     }
 
+    /**
+     * Returns the configuration of the write-behind buffer of audit events.
+     *
+     * @return the buffering configuration, or null if events are written on the publishing thread
+     */
+    public AuditBufferingConfiguration getBuffering() {
+        return buffering;
+    }
+
+    /**
+     * Sets the configuration of the write-behind buffer of audit events.
+     *
+     * @param buffering the buffering configuration
+     */
+    public void setBuffering(AuditBufferingConfiguration buffering) {
+        this.buffering = buffering;
+    }
+
 }
\ No newline at end of file
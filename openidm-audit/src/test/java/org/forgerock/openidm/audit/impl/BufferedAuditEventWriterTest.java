@@ -0,0 +1,287 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.audit.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.http.routing.RoutingMode;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourcePath;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.openidm.audit.impl.AuditBufferingConfiguration.OverflowPolicy;
+import org.forgerock.openidm.audit.mocks.MockRequestHandler;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.promise.Promise;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class BufferedAuditEventWriterTest {
+
+    private static final Context CONTEXT = new RootContext();
+
+    private BlockingRequestHandler requestHandler;
+    private Router router;
+
+    @BeforeMethod
+    public void setUp() {
+        requestHandler = new BlockingRequestHandler();
+        router = new Router();
+        router.addRoute(RoutingMode.STARTS_WITH, Router.uriTemplate("audit/db"), requestHandler);
+    }
+
+    private BufferedAuditEventWriter newWriter(AuditBufferingConfiguration config) {
+        return new BufferedAuditEventWriter("router", ResourcePath.valueOf("audit/db"),
+                Resources.newInternalConnectionFactory(router), config);
+    }
+
+    private static JsonValue event(int i) {
+        return json(object(field(ResourceResponse.FIELD_CONTENT_ID, "event" + i), field("somedata", "foo")));
+    }
+
+    /**
+     * @return the number of events written, individually or in batches
+     */
+    private int writtenCount() {
+        int count = 0;
+        for (Request request : requestHandler.getRequests()) {
+            assertThat(request.getResourcePath()).isEqualTo("access");
+            if (request instanceof ActionRequest) {
+                assertThat(((ActionRequest) request).getAction()).isEqualTo(BufferedAuditEventWriter.ACTION_CREATE_BATCH);
+                count += ((ActionRequest) request).getContent().get(BufferedAuditEventWriter.FIELD_BATCH_OBJECTS).size();
+            } else {
+                assertThat(request).isInstanceOf(CreateRequest.class);
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Test
+    public void testWritesBufferedEventsOnShutdown() throws Exception {
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setBatchSize(10);
+        BufferedAuditEventWriter writer = newWriter(config);
+        writer.startup();
+
+        requestHandler.block();
+        for (int i = 0; i < 25; i++) {
+            writer.publish(CONTEXT, "access", event(i));
+        }
+        requestHandler.awaitBlocked();
+        requestHandler.release();
+        writer.shutdown();
+
+        assertThat(writer.getBufferedCount()).isEqualTo(0);
+        assertThat(writtenCount()).isEqualTo(25);
+    }
+
+    @Test
+    public void testWritesSynchronouslyWhenNotStarted() throws Exception {
+        BufferedAuditEventWriter writer = newWriter(new AuditBufferingConfiguration());
+
+        writer.publish(CONTEXT, "access", event(0));
+
+        assertThat(requestHandler.getRequests()).hasSize(1);
+        assertThat(requestHandler.getRequests().get(0)).isInstanceOf(CreateRequest.class);
+    }
+
+    @Test
+    public void testDropsEventsWhenFull() throws Exception {
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setCapacity(1);
+        config.setOverflowPolicy(OverflowPolicy.DROP);
+        BufferedAuditEventWriter writer = newWriter(config);
+        writer.startup();
+
+        requestHandler.block();
+        writer.publish(CONTEXT, "access", event(0));
+        requestHandler.awaitBlocked();
+        writer.publish(CONTEXT, "access", event(1));
+        writer.publish(CONTEXT, "access", event(2));
+        writer.publish(CONTEXT, "access", event(3));
+        requestHandler.release();
+        writer.shutdown();
+
+        assertThat(writer.getDroppedCount()).isEqualTo(2);
+        assertThat(writtenCount()).isEqualTo(2);
+    }
+
+    @Test
+    public void testSpillsEventsWhenFull() throws Exception {
+        File spillFile = File.createTempFile("audit-spill", ".json");
+        spillFile.delete();
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setCapacity(1);
+        config.setOverflowPolicy(OverflowPolicy.SPILL);
+        config.setSpillFile(spillFile.getPath());
+        BufferedAuditEventWriter writer = newWriter(config);
+        writer.startup();
+
+        requestHandler.block();
+        writer.publish(CONTEXT, "access", event(0));
+        requestHandler.awaitBlocked();
+        writer.publish(CONTEXT, "access", event(1));
+        writer.publish(CONTEXT, "access", event(2));
+        writer.publish(CONTEXT, "access", event(3));
+        assertThat(spillFile.exists()).isTrue();
+        requestHandler.release();
+        writer.shutdown();
+
+        assertThat(writer.getSpilledCount()).isEqualTo(2);
+        assertThat(writtenCount()).isEqualTo(4);
+        assertThat(spillFile.exists()).isFalse();
+    }
+
+    @Test
+    public void testReplayQuarantinesCorruptLinesAndSkipsCommittedOnes() throws Exception {
+        File spillFile = File.createTempFile("audit-spill", ".json");
+        spillFile.delete();
+        File replayFile = new File(spillFile.getPath() + ".replay");
+        File offsetFile = new File(spillFile.getPath() + ".replay.offset");
+        File quarantineFile = new File(spillFile.getPath() + ".corrupt");
+        // Left over by a replay that was interrupted after writing the first line
+        write(replayFile, "{\"topic\":\"access\",\"event\":{\"_id\":\"event0\"}}\n"
+                + "{\"topic\":\"access\",\"event\":{\"_id\":\n"
+                + "{\"topic\":\"access\",\"event\":{\"_id\":\"event2\"}}\n");
+        write(offsetFile, "1");
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setOverflowPolicy(OverflowPolicy.SPILL);
+        config.setSpillFile(spillFile.getPath());
+        BufferedAuditEventWriter writer = newWriter(config);
+
+        writer.startup();
+        writer.shutdown();
+
+        assertThat(writtenCount()).isEqualTo(1);
+        assertThat(requestHandler.getRequests().get(0)).isInstanceOf(CreateRequest.class);
+        assertThat(((CreateRequest) requestHandler.getRequests().get(0)).getNewResourceId()).isEqualTo("event2");
+        assertThat(replayFile.exists()).isFalse();
+        assertThat(offsetFile.exists()).isFalse();
+        assertThat(Files.readAllLines(quarantineFile.toPath(), Charset.forName("UTF-8")))
+                .containsExactly("{\"topic\":\"access\",\"event\":{\"_id\":");
+        quarantineFile.delete();
+    }
+
+    @Test
+    public void testShutdownReleasesBlockedPublishers() throws Exception {
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setCapacity(1);
+        config.setShutdownTimeout(100);
+        final BufferedAuditEventWriter writer = newWriter(config);
+        writer.startup();
+
+        requestHandler.block();
+        writer.publish(CONTEXT, "access", event(0));
+        requestHandler.awaitBlocked();
+        writer.publish(CONTEXT, "access", event(1));
+        final CountDownLatch published = new CountDownLatch(1);
+        Thread publisher = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    writer.publish(CONTEXT, "access", event(2));
+                    published.countDown();
+                } catch (ResourceException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        });
+        publisher.start();
+
+        // The writer is stuck, so the publisher writes its event itself once the writer is shut down
+        writer.shutdown();
+        requestHandler.release();
+        assertThat(published.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+
+    private static void write(File file, String content) throws Exception {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), Charset.forName("UTF-8"));
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testSpillRequiresFile() {
+        AuditBufferingConfiguration config = new AuditBufferingConfiguration();
+        config.setOverflowPolicy(OverflowPolicy.SPILL);
+        newWriter(config);
+    }
+
+    /**
+     * Holds the first write after {@link #block()} until {@link #release()}.
+     */
+    private static class BlockingRequestHandler extends MockRequestHandler {
+        private volatile CountDownLatch blocked = new CountDownLatch(0);
+        private volatile CountDownLatch released = new CountDownLatch(0);
+
+        void block() {
+            blocked = new CountDownLatch(1);
+            released = new CountDownLatch(1);
+        }
+
+        void awaitBlocked() throws InterruptedException {
+            assertThat(blocked.await(10, TimeUnit.SECONDS)).isTrue();
+        }
+
+        void release() {
+            released.countDown();
+        }
+
+        private void await() {
+            blocked.countDown();
+            try {
+                released.await(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        @Override
+        public Promise<ActionResponse, ResourceException> handleAction(Context context, ActionRequest request) {
+            await();
+            return super.handleAction(context, request);
+        }
+
+        @Override
+        public Promise<ResourceResponse, ResourceException> handleCreate(Context context, CreateRequest request) {
+            await();
+            return super.handleCreate(context, request);
+        }
+    }
+}
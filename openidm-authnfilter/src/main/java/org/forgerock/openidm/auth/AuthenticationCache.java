@@ -0,0 +1,246 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.auth;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.forgerock.json.resource.ResourceResponse;
+
+/**
+ * A bounded cache of the authenticated principals resolved by the auth modules, so that repeated requests
+ * with the same credentials skip the user detail query and the role calculation.
+ * <p>
+ * Entries are keyed by auth module and principal, expire a fixed time after they were cached, and are
+ * evicted least recently used first once the cache is full. The entries of a user are invalidated when
+ * the resource it was resolved to is updated or deleted.
+ */
+public class AuthenticationCache {
+
+    private static final String REPO_PREFIX = "repo/";
+
+    /**
+     * A principal resolved by an auth module.
+     */
+    public static final class Entry {
+        private final Key key;
+        private final String resourcePath;
+        private final ResourceResponse resource;
+        private final List<String> roles;
+        private final long expires;
+
+        private Entry(Key key, String resourcePath, ResourceResponse resource, List<String> roles, long expires) {
+            this.key = key;
+            this.resourcePath = resourcePath;
+            this.resource = resource;
+            this.roles = roles;
+            this.expires = expires;
+        }
+
+        /**
+         * @return the resource the principal was resolved to
+         */
+        public ResourceResponse getResource() {
+            return resource;
+        }
+
+        /**
+         * @return the roles calculated for the principal
+         */
+        public List<String> getRoles() {
+            return roles;
+        }
+    }
+
+    /**
+     * The key of an entry; auth modules are told apart by identity, as the roles calculated for a
+     * principal depend on the configuration of the module.
+     */
+    private static final class Key {
+        private final Object module;
+        private final String principal;
+
+        private Key(Object module, String principal) {
+            this.module = module;
+            this.principal = principal;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return module == other.module && principal.equals(other.principal);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * System.identityHashCode(module) + principal.hashCode();
+        }
+    }
+
+    private final int maxEntries;
+    private final long timeToLive;
+
+    /** The entries, least recently used first */
+    private final LinkedHashMap<Key, Entry> entries;
+
+    /** The keys of the entries by the path of the resource they were resolved to */
+    private final Map<String, Set<Key>> keysByResource = new HashMap<>();
+
+    /**
+     * Creates an authentication cache.
+     *
+     * @param maxEntries the maximum number of entries
+     * @param timeToLive the time after which entries expire, in milliseconds
+     */
+    public AuthenticationCache(int maxEntries, long timeToLive) {
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+                if (size() > AuthenticationCache.this.maxEntries) {
+                    unindex(eldest.getValue());
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * Returns the principal an auth module resolved, unless it expired.
+     *
+     * @param module the auth module
+     * @param principal the authenticated principal
+     * @return the cached entry, or null if there is none
+     */
+    public synchronized Entry get(Object module, String principal) {
+        Key key = new Key(module, principal);
+        Entry entry = entries.get(key);
+        if (entry != null && entry.expires <= System.currentTimeMillis()) {
+            remove(entry);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Caches the principal resolved by an auth module.
+     *
+     * @param module the auth module
+     * @param principal the authenticated principal
+     * @param resourceContainer the resource collection the principal was resolved in
+     * @param resource the resource the principal was resolved to
+     * @param roles the roles calculated for the principal
+     * @throws NullPointerException if the roles are null, as an entry without roles could not restore them
+     */
+    public synchronized void put(Object module, String principal, String resourceContainer,
+            ResourceResponse resource, List<String> roles) {
+        if (roles == null) {
+            throw new NullPointerException("Cannot cache a principal without its roles");
+        }
+        Key key = new Key(module, principal);
+        Entry entry = new Entry(key, resourcePath(resourceContainer, resource.getId()), resource,
+                Collections.unmodifiableList(new ArrayList<>(roles)),
+                System.currentTimeMillis() + timeToLive);
+        Entry previous = entries.put(key, entry);
+        if (previous != null) {
+            unindex(previous);
+        }
+        Set<Key> keys = keysByResource.get(entry.resourcePath);
+        if (keys == null) {
+            keys = new HashSet<>();
+            keysByResource.put(entry.resourcePath, keys);
+        }
+        keys.add(key);
+    }
+
+    /**
+     * Invalidates the entries resolved to a resource.
+     *
+     * @param resourceContainer the resource collection, with or without the {@code repo/} prefix
+     * @param resourceId the resource id
+     * @return whether any entry was invalidated
+     */
+    public synchronized boolean invalidate(String resourceContainer, String resourceId) {
+        Set<Key> keys = keysByResource.remove(resourcePath(resourceContainer, resourceId));
+        if (keys == null) {
+            return false;
+        }
+        for (Key key : keys) {
+            entries.remove(key);
+        }
+        return true;
+    }
+
+    /**
+     * Invalidates all entries.
+     */
+    public synchronized void invalidateAll() {
+        entries.clear();
+        keysByResource.clear();
+    }
+
+    /**
+     * @return the number of entries
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.key);
+        unindex(entry);
+    }
+
+    private void unindex(Entry entry) {
+        Set<Key> keys = keysByResource.get(entry.resourcePath);
+        if (keys != null) {
+            keys.remove(entry.key);
+            if (keys.isEmpty()) {
+                keysByResource.remove(entry.resourcePath);
+            }
+        }
+    }
+
+    private static String resourcePath(String resourceContainer, String resourceId) {
+        return normalize(resourceContainer) + "/" + resourceId;
+    }
+
+    /**
+     * Normalizes a resource collection so that a collection and the repository collection backing it,
+     * such as {@code managed/user} and {@code repo/managed/user}, match.
+     */
+    static String normalize(String resourceContainer) {
+        String container = resourceContainer;
+        while (container.startsWith("/")) {
+            container = container.substring(1);
+        }
+        while (container.endsWith("/")) {
+            container = container.substring(0, container.length() - 1);
+        }
+        return container.startsWith(REPO_PREFIX) ? container.substring(REPO_PREFIX.length()) : container;
+    }
+}
@@ -0,0 +1,299 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.auth;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.inject.Provider;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.Filter;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.RequestHandler;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourcePath;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.cluster.ClusterEvent;
+import org.forgerock.openidm.cluster.ClusterEventListener;
+import org.forgerock.openidm.cluster.ClusterEventType;
+import org.forgerock.openidm.cluster.ClusterManagementService;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.promise.ResultHandler;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A router {@link Filter} invalidating the {@link AuthenticationCache} entries of the users written through the
+ * router, and the entries cached by the other instances of the cluster. Any write to a managed role invalidates
+ * all entries.
+ * <p>
+ * The resources invalidated locally are sent to the other instances in one cluster event per
+ * {@link #NOTIFICATION_DELAY} at most; when more than {@link #MAX_NOTIFIED_RESOURCES} are pending, the other
+ * instances invalidate all their entries instead.
+ */
+class AuthenticationCacheInvalidator implements Filter, ClusterEventListener {
+
+    private static final Logger logger = LoggerFactory.getLogger(AuthenticationCacheInvalidator.class);
+
+    /** The id of the cluster event listener */
+    static final String EVENT_LISTENER_ID = "authentication";
+
+    private static final String EVENT_RESOURCES = "resources";
+    private static final String EVENT_ALL = "all";
+
+    /** The collection of the managed roles, which the roles calculated for any principal may depend on */
+    static final String ROLE_CONTAINER = "managed/role";
+
+    /** The delay, in milliseconds, over which invalidations are collected into one cluster event */
+    static final long NOTIFICATION_DELAY = 1000L;
+
+    /** The number of pending invalidations beyond which the other instances invalidate all entries */
+    static final int MAX_NOTIFIED_RESOURCES = 1000;
+
+    private final AuthenticationCache cache;
+    private final Set<String> resourceContainers = new LinkedHashSet<>();
+    private final Provider<ClusterManagementService> clusterManagementServiceProvider;
+
+    /** The resource paths invalidated locally and not yet sent to the cluster, null if none is pending */
+    private Set<String> pending;
+    /** Whether the other instances must invalidate all their entries, as a role was written or too many are pending */
+    private boolean overflow;
+    private final ScheduledExecutorService notifier = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "authentication-cache-invalidator");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    /**
+     * Creates an invalidator.
+     *
+     * @param cache the cache to invalidate
+     * @param resourceContainers the collections the auth modules resolve principals in
+     * @param clusterManagementServiceProvider the provider of the cluster management service, if any
+     */
+    AuthenticationCacheInvalidator(AuthenticationCache cache, Set<String> resourceContainers,
+            Provider<ClusterManagementService> clusterManagementServiceProvider) {
+        this.cache = cache;
+        for (String resourceContainer : resourceContainers) {
+            this.resourceContainers.add(AuthenticationCache.normalize(resourceContainer));
+        }
+        this.clusterManagementServiceProvider = clusterManagementServiceProvider;
+    }
+
+    /**
+     * Stops sending invalidations to the cluster.
+     */
+    void close() {
+        notifier.shutdownNow();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> filterAction(Context context, ActionRequest request,
+            RequestHandler next) {
+        return invalidateOnResult(request.getResourcePathObject(), null, next.handleAction(context, request));
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> filterCreate(Context context, CreateRequest request,
+            RequestHandler next) {
+        return invalidateOnResult(request.getResourcePathObject(), request.getNewResourceId(),
+                next.handleCreate(context, request));
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> filterDelete(Context context, DeleteRequest request,
+            RequestHandler next) {
+        return invalidateOnResult(request.getResourcePathObject(), null, next.handleDelete(context, request));
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> filterPatch(Context context, PatchRequest request,
+            RequestHandler next) {
+        return invalidateOnResult(request.getResourcePathObject(), null, next.handlePatch(context, request));
+    }
+
+    @Override
+    public Promise<QueryResponse, ResourceException> filterQuery(Context context, QueryRequest request,
+            QueryResourceHandler handler, RequestHandler next) {
+        return next.handleQuery(context, request, handler);
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> filterRead(Context context, ReadRequest request,
+            RequestHandler next) {
+        return next.handleRead(context, request);
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> filterUpdate(Context context, UpdateRequest request,
+            RequestHandler next) {
+        return invalidateOnResult(request.getResourcePathObject(), null, next.handleUpdate(context, request));
+    }
+
+    /**
+     * Invalidates, once a write succeeds, the entries of the resource it changed: a write to
+     * {@code <container>/<id>} or below it, such as a relationship of the resource, changes the resource
+     * {@code <id>}; a create in {@code <container>} changes the resource it creates. A write to a role
+     * changes the roles calculated for any principal, and invalidates all entries.
+     *
+     * @param path the path of the request
+     * @param newResourceId the id of the resource created in the path, or null
+     * @param promise the result of the write
+     * @return the result of the write
+     */
+    private <R> Promise<R, ResourceException> invalidateOnResult(ResourcePath path, String newResourceId,
+            Promise<R, ResourceException> promise) {
+        final String resourcePath = AuthenticationCache.normalize(path.toString());
+        if (resourcePath.equals(ROLE_CONTAINER) || resourcePath.startsWith(ROLE_CONTAINER + "/")) {
+            return promise.thenOnResult(new ResultHandler<R>() {
+                @Override
+                public void handleResult(R result) {
+                    cache.invalidateAll();
+                    notifyCluster(null);
+                }
+            });
+        }
+        for (final String resourceContainer : resourceContainers) {
+            final String resourceId;
+            if (resourcePath.equals(resourceContainer)) {
+                resourceId = newResourceId;
+            } else if (resourcePath.startsWith(resourceContainer + "/")) {
+                String subPath = resourcePath.substring(resourceContainer.length() + 1);
+                int separator = subPath.indexOf('/');
+                resourceId = separator < 0 ? subPath : subPath.substring(0, separator);
+            } else {
+                continue;
+            }
+            if (resourceId == null || resourceId.isEmpty()) {
+                return promise;
+            }
+            return promise.thenOnResult(new ResultHandler<R>() {
+                @Override
+                public void handleResult(R result) {
+                    cache.invalidate(resourceContainer, resourceId);
+                    notifyCluster(resourceContainer + "/" + resourceId);
+                }
+            });
+        }
+        return promise;
+    }
+
+    /**
+     * Schedules the invalidation of a resource on the other instances of the cluster.
+     *
+     * @param resourcePath the path of the resource, or null to invalidate all entries
+     */
+    private void notifyCluster(String resourcePath) {
+        ClusterManagementService cluster = clusterManagementServiceProvider.get();
+        if (cluster == null || !cluster.isEnabled()) {
+            return;
+        }
+        synchronized (this) {
+            if (pending == null) {
+                pending = new LinkedHashSet<>();
+                try {
+                    notifier.schedule(new Runnable() {
+                        @Override
+                        public void run() {
+                            sendPending();
+                        }
+                    }, NOTIFICATION_DELAY, TimeUnit.MILLISECONDS);
+                } catch (RuntimeException e) {
+                    // Closed
+                    pending = null;
+                    return;
+                }
+            }
+            if (resourcePath != null && pending.size() < MAX_NOTIFIED_RESOURCES) {
+                pending.add(resourcePath);
+            } else {
+                overflow = true;
+            }
+        }
+    }
+
+    private void sendPending() {
+        List<String> resourcePaths;
+        boolean all;
+        synchronized (this) {
+            resourcePaths = new ArrayList<>(pending);
+            all = overflow;
+            pending = null;
+            overflow = false;
+        }
+        ClusterManagementService cluster = clusterManagementServiceProvider.get();
+        if (cluster == null || !cluster.isEnabled()) {
+            return;
+        }
+        JsonValue details = all
+                ? json(object(field(EVENT_ALL, true)))
+                : json(object(field(EVENT_RESOURCES, resourcePaths)));
+        cluster.sendEvent(new ClusterEvent(ClusterEventType.CUSTOM, cluster.getInstanceId(), EVENT_LISTENER_ID,
+                details));
+    }
+
+    /**
+     * Invalidates the entries of the resources updated or deleted on another instance of the cluster.
+     *
+     * @param event {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean handleEvent(ClusterEvent event) {
+        if (event.getType() != ClusterEventType.CUSTOM) {
+            return true;
+        }
+        JsonValue details = event.getDetails();
+        if (details.get(EVENT_ALL).defaultTo(false).asBoolean()) {
+            logger.debug("Invalidating all cached principals for instance {}", event.getInstanceId());
+            cache.invalidateAll();
+            return true;
+        }
+        for (String resourcePath : details.get(EVENT_RESOURCES).defaultTo(new ArrayList<String>())
+                .asList(String.class)) {
+            int separator = resourcePath.lastIndexOf('/');
+            if (separator > 0) {
+                cache.invalidate(resourcePath.substring(0, separator), resourcePath.substring(separator + 1));
+            }
+        }
+        return true;
+    }
+}
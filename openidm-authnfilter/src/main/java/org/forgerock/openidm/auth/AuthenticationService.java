@@ -18,7 +18,11 @@ package org.forgerock.openidm.auth;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import javax.inject.Provider;
 
 import org.apache.commons.lang3.StringUtils;
@@ -30,6 +34,7 @@ import org.apache.felix.scr.annotations.Deactivate;
 import org.apache.felix.scr.annotations.Properties;
 import org.apache.felix.scr.annotations.Property;
 import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 
@@ -56,6 +61,9 @@ import org.forgerock.json.resource.ResourceException;
 import org.forgerock.openidm.crypto.util.JettyPropertyUtil;
 import org.forgerock.openidm.auth.modules.IDMAuthModule;
 import org.forgerock.openidm.auth.modules.IDMAuthModuleWrapper;
+import org.forgerock.openidm.cluster.ClusterEvent;
+import org.forgerock.openidm.cluster.ClusterEventListener;
+import org.forgerock.openidm.cluster.ClusterManagementService;
 import org.forgerock.openidm.router.IDMConnectionFactory;
 import org.forgerock.script.ScriptRegistry;
 import org.forgerock.services.context.SecurityContext;
@@ -68,6 +76,7 @@ import org.forgerock.openidm.core.ServerConstants;
 import org.forgerock.openidm.crypto.CryptoService;
 import org.forgerock.util.promise.Promise;
 import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceRegistration;
 import org.osgi.service.component.ComponentContext;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -121,7 +130,7 @@ import static org.forgerock.caf.authentication.framework.AuthenticationFilter.Au
         @Property(name = Constants.SERVICE_DESCRIPTION, value = "OpenIDM Authentication Service"),
         @Property(name = ServerConstants.ROUTER_PREFIX, value = "/authentication")
 })
-public class AuthenticationService implements SingletonResourceProvider {
+public class AuthenticationService implements SingletonResourceProvider, ClusterEventListener {
 
     /** The PID for this Component. */
     public static final String PID = "org.forgerock.openidm.authentication";
@@ -138,12 +147,25 @@ public class AuthenticationService implements SingletonResourceProvider {
     private static final String AUTH_MODULE_NAME_KEY = "name";
     private static final String AUTH_MODULE_CLASS_NAME_KEY = "className";
     private static final String MODULE_CONFIG_ENABLED = "enabled";
+    private static final String PRINCIPAL_CACHE_KEY = "principalCache";
+    private static final String PRINCIPAL_CACHE_ENABLED = "enabled";
+    private static final String PRINCIPAL_CACHE_MAX_ENTRIES = "maxEntries";
+    private static final String PRINCIPAL_CACHE_TTL = "timeToLiveSeconds";
+    private static final int DEFAULT_PRINCIPAL_CACHE_MAX_ENTRIES = 10000;
+    private static final long DEFAULT_PRINCIPAL_CACHE_TTL = 60L;
 
     private JsonValue config;
 
     /** The authenticators to delegate to.*/
     private List<Authenticator> authenticators = new ArrayList<>();
 
+    /** The cache of the principals resolved by the auth modules, or null if disabled */
+    private AuthenticationCache principalCache;
+
+    /** The router filter invalidating the principal cache, and its service registration */
+    private volatile AuthenticationCacheInvalidator principalCacheInvalidator;
+    private ServiceRegistration<org.forgerock.json.resource.Filter> principalCacheInvalidatorRegistration;
+
     // ----- Declarative Service Implementation
 
     @Reference(policy = ReferencePolicy.DYNAMIC)
@@ -165,6 +187,29 @@ public class AuthenticationService implements SingletonResourceProvider {
     @Reference(policy = ReferencePolicy.DYNAMIC, target="(service.pid=org.forgerock.openidm.auth.config)")
     private AuthFilterWrapper authFilterWrapper;
 
+    /** The ClusterManagementService used to invalidate the principals cached by the other instances */
+    @Reference(cardinality = ReferenceCardinality.OPTIONAL_UNARY, policy = ReferencePolicy.DYNAMIC)
+    private volatile ClusterManagementService clusterManagementService;
+
+    protected void bindClusterManagementService(final ClusterManagementService clusterManagementService) {
+        this.clusterManagementService = clusterManagementService;
+        this.clusterManagementService.register(AuthenticationCacheInvalidator.EVENT_LISTENER_ID, this);
+    }
+
+    protected void unbindClusterManagementService(final ClusterManagementService clusterManagementService) {
+        clusterManagementService.unregister(AuthenticationCacheInvalidator.EVENT_LISTENER_ID);
+        this.clusterManagementService = null;
+    }
+
+    /** An on-demand Provider for the ClusterManagementService */
+    private final Provider<ClusterManagementService> clusterManagementServiceProvider =
+            new Provider<ClusterManagementService>() {
+                @Override
+                public ClusterManagementService get() {
+                    return clusterManagementService;
+                }
+            };
+
     /** An on-demand Provider for the ConnectionFactory */
     private final Provider<ConnectionFactory> connectionFactoryProvider =
             new Provider<ConnectionFactory>() {
@@ -231,6 +276,7 @@ public class AuthenticationService implements SingletonResourceProvider {
         logger.info("Activating Authentication Service with configuration {}", context.getProperties());
         config = enhancedConfig.getConfigurationAsJson(context);
 
+        principalCache = newPrincipalCache(config.get(PRINCIPAL_CACHE_KEY));
         authFilterWrapper.setFilter(configureAuthenticationFilter(config));
 
         // the auth module list config lives under at /serverAuthConfig/authModule
@@ -247,6 +293,10 @@ public class AuthenticationService implements SingletonResourceProvider {
             authenticators.add(authenticator);
         }
 
+        if (principalCache != null) {
+            registerPrincipalCacheInvalidator(context, authModuleConfig);
+        }
+
         logger.debug("OpenIDM Config for Authentication {} is activated.", config.get(Constants.SERVICE_PID));
     }
 
@@ -261,6 +311,16 @@ public class AuthenticationService implements SingletonResourceProvider {
         config = null;
         authenticators.clear();
 
+        if (principalCacheInvalidatorRegistration != null) {
+            principalCacheInvalidatorRegistration.unregister();
+            principalCacheInvalidatorRegistration = null;
+        }
+        if (principalCacheInvalidator != null) {
+            principalCacheInvalidator.close();
+            principalCacheInvalidator = null;
+        }
+        principalCache = null;
+
         // remove CAF filter from CHF filter wrapper
         if (authFilterWrapper != null) {
             try {
@@ -271,6 +331,60 @@ public class AuthenticationService implements SingletonResourceProvider {
         }
     }
 
+    /**
+     * Creates the cache of the principals resolved by the auth modules.
+     *
+     * @param cacheConfig the principal cache configuration
+     * @return the cache, or null if the cache is not configured or disabled
+     */
+    private AuthenticationCache newPrincipalCache(JsonValue cacheConfig) {
+        if (cacheConfig.isNull() || !cacheConfig.get(PRINCIPAL_CACHE_ENABLED).defaultTo(true).asBoolean()) {
+            return null;
+        }
+        int maxEntries = cacheConfig.get(PRINCIPAL_CACHE_MAX_ENTRIES)
+                .defaultTo(DEFAULT_PRINCIPAL_CACHE_MAX_ENTRIES).asInteger();
+        long timeToLive = cacheConfig.get(PRINCIPAL_CACHE_TTL).defaultTo(DEFAULT_PRINCIPAL_CACHE_TTL).asLong();
+        logger.info("Caching up to {} authenticated principals for {} seconds", maxEntries, timeToLive);
+        return new AuthenticationCache(maxEntries, TimeUnit.SECONDS.toMillis(timeToLive));
+    }
+
+    /**
+     * Registers the router filter invalidating the principals resolved in the resource collections of the
+     * enabled auth modules.
+     *
+     * @param context The ComponentContext
+     * @param authModuleConfig the auth module configurations
+     */
+    private void registerPrincipalCacheInvalidator(ComponentContext context, JsonValue authModuleConfig) {
+        Set<String> resourceContainers = new LinkedHashSet<>();
+        for (JsonValue moduleProperties : FluentIterable.from(authModuleConfig)
+                .filter(enabledAuthModules)
+                .transform(toModuleProperties)) {
+            if (moduleProperties.get(QUERY_ON_RESOURCE).isString()) {
+                resourceContainers.add(moduleProperties.get(QUERY_ON_RESOURCE).asString());
+            }
+        }
+        principalCacheInvalidator = new AuthenticationCacheInvalidator(principalCache, resourceContainers,
+                clusterManagementServiceProvider);
+        Hashtable<String, Object> properties = new Hashtable<>();
+        properties.put(Constants.SERVICE_DESCRIPTION, "OpenIDM Authentication Principal Cache Invalidator");
+        properties.put(ServerConstants.ROUTER_FILTER, PRINCIPAL_CACHE_KEY);
+        principalCacheInvalidatorRegistration = context.getBundleContext().registerService(
+                org.forgerock.json.resource.Filter.class, principalCacheInvalidator, properties);
+    }
+
+    /**
+     * Invalidates the principals cached for the users updated or deleted on another instance of the cluster.
+     *
+     * @param event {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public boolean handleEvent(ClusterEvent event) {
+        AuthenticationCacheInvalidator invalidator = principalCacheInvalidator;
+        return invalidator == null || invalidator.handleEvent(event);
+    }
+
     /**
      * Configures the commons Authentication Filter with the given configuration.
      *
@@ -346,7 +460,8 @@ public class AuthenticationService implements SingletonResourceProvider {
         }
 
         // wrap all auth modules in our wrapper to apply the IDM business logic
-        return configureModule(new IDMAuthModuleWrapper(module, connectionFactory, cryptoService, scriptRegistry))
+        return configureModule(new IDMAuthModuleWrapper(module, connectionFactory, cryptoService, scriptRegistry,
+                        principalCache))
                 .withSettings(moduleProperties.asMap());
     }
 
@@ -51,6 +51,7 @@ import org.forgerock.json.resource.Requests;
 import org.forgerock.json.resource.ResourceException;
 import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.json.resource.Responses;
+import org.forgerock.openidm.auth.AuthenticationCache;
 import org.forgerock.openidm.crypto.CryptoService;
 import org.forgerock.openidm.util.ContextUtil;
 import org.forgerock.script.ScriptEntry;
@@ -106,6 +107,9 @@ public class IDMAuthModuleWrapper implements AsyncServerAuthModule {
 
     private final AsyncServerAuthModule authModule;
 
+    /** the cache of the resolved principals, or null if not cached */
+    private final AuthenticationCache principalCache;
+
     private JsonValue properties = json(object());
     private String logClientIPHeader = null;
     private String queryOnResource;
@@ -123,12 +127,23 @@ public class IDMAuthModuleWrapper implements AsyncServerAuthModule {
      */
     public IDMAuthModuleWrapper(AsyncServerAuthModule authModule,
             ConnectionFactory connectionFactory, CryptoService cryptoService, ScriptRegistry scriptRegistry) {
-        this.authModule = authModule;
-        this.connectionFactory = connectionFactory;
-        this.cryptoService = cryptoService;
-        this.scriptRegistry = scriptRegistry;
-        this.roleCalculatorFactory = new RoleCalculatorFactory();
-        this.augmentationScriptExecutor = new AugmentationScriptExecutor();
+        this(authModule, connectionFactory, cryptoService, scriptRegistry, null);
+    }
+
+    /**
+     * Constructs a new instance of the IDMAuthModuleWrapper caching the resolved principals.
+     *
+     * @param authModule The auth module wrapped by this module.
+     * @param connectionFactory
+     * @param cryptoService
+     * @param scriptRegistry
+     * @param principalCache The cache of the resolved principals and their roles, or null to not cache them.
+     */
+    public IDMAuthModuleWrapper(AsyncServerAuthModule authModule,
+            ConnectionFactory connectionFactory, CryptoService cryptoService, ScriptRegistry scriptRegistry,
+            AuthenticationCache principalCache) {
+        this(authModule, connectionFactory, cryptoService, scriptRegistry, new RoleCalculatorFactory(),
+                new AugmentationScriptExecutor(), principalCache);
     }
 
     /**
@@ -143,12 +158,31 @@ public class IDMAuthModuleWrapper implements AsyncServerAuthModule {
             ConnectionFactory connectionFactory, CryptoService cryptoService, ScriptRegistry scriptRegistry,
             RoleCalculatorFactory roleCalculatorFactory,
             AugmentationScriptExecutor augmentationScriptExecutor) {
+        this(authModule, connectionFactory, cryptoService, scriptRegistry, roleCalculatorFactory,
+                augmentationScriptExecutor, null);
+    }
+
+    /**
+     * Constructs a new instance of the IDMAuthModuleWrapper with the provided parameters, for test use.
+     *
+     * @param authModule The auth module wrapped by this module.
+     * @param roleCalculatorFactory An instance of the RoleCalculatorFactory.
+     * @param augmentationScriptExecutor An instance of the AugmentationScriptExecutor.
+     * @param principalCache The cache of the resolved principals and their roles, or null to not cache them.
+     */
+    IDMAuthModuleWrapper(
+            AsyncServerAuthModule authModule,
+            ConnectionFactory connectionFactory, CryptoService cryptoService, ScriptRegistry scriptRegistry,
+            RoleCalculatorFactory roleCalculatorFactory,
+            AugmentationScriptExecutor augmentationScriptExecutor,
+            AuthenticationCache principalCache) {
         this.authModule = authModule;
         this.connectionFactory = connectionFactory;
         this.cryptoService = cryptoService;
         this.scriptRegistry = scriptRegistry;
         this.roleCalculatorFactory = roleCalculatorFactory;
         this.augmentationScriptExecutor = augmentationScriptExecutor;
+        this.principalCache = principalCache;
     }
 
     /**
@@ -323,16 +357,39 @@ public class IDMAuthModuleWrapper implements AsyncServerAuthModule {
                         // user is authenticated; populate security context
 
                         try {
-                            final ResourceResponse resource = getAuthenticatedResource(principalName, messageInfo);
+                            // use the principal resolved by an earlier request, unless the authenticator
+                            // provided the resource
+                            final boolean cacheable = principalCache != null
+                                    && !messageInfo.getRequestContextMap().containsKey(AUTHENTICATED_RESOURCE);
+                            final AuthenticationCache.Entry cached = cacheable
+                                    ? principalCache.get(IDMAuthModuleWrapper.this, principalName)
+                                    : null;
+                            final ResourceResponse resource = cached != null
+                                    ? cached.getResource()
+                                    : getAuthenticatedResource(principalName, messageInfo);
 
                             final SecurityContextMapper securityContextMapper =
                                     SecurityContextMapper.fromMessageInfo(messageInfo)
                                             .setAuthenticationId(principalName);
 
                             // Calculate (and set) roles if not already set
+                            List<String> calculatedRoles = null;
                             if (securityContextMapper.getRoles() == null
                                     || securityContextMapper.getRoles().isEmpty()) {
-                                roleCalculator.calculateRoles(principalName, securityContextMapper, resource);
+                                if (cached != null) {
+                                    securityContextMapper.setRoles(cached.getRoles());
+                                } else {
+                                    roleCalculator.calculateRoles(principalName, securityContextMapper, resource);
+                                    calculatedRoles = securityContextMapper.getRoles();
+                                }
+                            }
+
+                            // only cache the principals whose roles were calculated, so that a cached entry
+                            // always carries the roles to restore
+                            if (cacheable && cached == null && calculatedRoles != null
+                                    && resource != null && resource.getId() != null) {
+                                principalCache.put(IDMAuthModuleWrapper.this, principalName, queryOnResource,
+                                        resource, calculatedRoles);
                             }
 
                             // set "resource" (component) if not already set
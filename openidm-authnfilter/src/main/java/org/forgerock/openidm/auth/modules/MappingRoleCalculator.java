@@ -18,6 +18,7 @@ package org.forgerock.openidm.auth.modules;
 
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.ResourceResponse;
@@ -125,11 +126,12 @@ class MappingRoleCalculator implements RoleCalculator {
         ldap {
             public boolean compare(final String groupA, final String groupB) {
                 // ldap is case (and to some degree whitespace) insensitive, so we have to be too:
-                return groupA.replaceAll(LDAP_WHITESPACE, "$1").equalsIgnoreCase(groupB.replaceAll(LDAP_WHITESPACE, "$1"));
+                return LDAP_WHITESPACE.matcher(groupA).replaceAll("$1")
+                        .equalsIgnoreCase(LDAP_WHITESPACE.matcher(groupB).replaceAll("$1"));
             }
         };
 
-        private static final String LDAP_WHITESPACE = "\\s*(^|$|,|=)\\s*";
+        private static final Pattern LDAP_WHITESPACE = Pattern.compile("\\s*(^|$|,|=)\\s*");
 
         /**
          * Compare two groups for fuzzy equality.
@@ -0,0 +1,108 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.auth;
+
+import static java.util.Arrays.asList;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Requests.newCreateRequest;
+import static org.forgerock.json.resource.Requests.newUpdateRequest;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.forgerock.json.resource.Router.uriTemplate;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.Collections;
+
+import javax.inject.Provider;
+
+import org.forgerock.json.resource.Connection;
+import org.forgerock.json.resource.FilterChain;
+import org.forgerock.json.resource.MemoryBackend;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.openidm.cluster.ClusterManagementService;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class AuthenticationCacheInvalidatorTest {
+
+    private final Object module = new Object();
+    private final Context context = new RootContext();
+
+    private AuthenticationCache cache;
+    private AuthenticationCacheInvalidator invalidator;
+    private Connection connection;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        cache = new AuthenticationCache(10, 60000L);
+        invalidator = new AuthenticationCacheInvalidator(cache, Collections.singleton("managed/user"),
+                new Provider<ClusterManagementService>() {
+                    @Override
+                    public ClusterManagementService get() {
+                        return null;
+                    }
+                });
+        Router router = new Router();
+        router.addRoute(uriTemplate("managed/user"), new MemoryBackend());
+        router.addRoute(uriTemplate("managed/role"), new MemoryBackend());
+        connection = Resources.newInternalConnectionFactory(new FilterChain(router, invalidator)).getConnection();
+        connection.create(context, newCreateRequest("managed/user", "1", json(object(field("userName", "bjensen")))));
+        connection.create(context, newCreateRequest("managed/user", "2", json(object(field("userName", "jdoe")))));
+        cache.put(module, "bjensen", "managed/user", newResourceResponse("1", "0", json(object())),
+                asList("openidm-authorized"));
+        cache.put(module, "jdoe", "managed/user", newResourceResponse("2", "0", json(object())),
+                asList("openidm-authorized"));
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        invalidator.close();
+    }
+
+    @Test
+    public void testUpdateInvalidatesResource() throws Exception {
+        connection.update(context, newUpdateRequest("managed/user/1", json(object(field("userName", "bjensen")))));
+
+        assertNull(cache.get(module, "bjensen"));
+        assertNotNull(cache.get(module, "jdoe"));
+    }
+
+    @Test
+    public void testCreateInvalidatesResource() throws Exception {
+        // a user deleted and created again with the same id
+        cache.put(module, "scarter", "managed/user", newResourceResponse("3", "0", json(object())),
+                asList("openidm-authorized"));
+
+        connection.create(context, newCreateRequest("managed/user", "3", json(object(field("userName", "scarter")))));
+
+        assertNull(cache.get(module, "scarter"));
+        assertEquals(cache.size(), 2);
+    }
+
+    @Test
+    public void testRoleWriteInvalidatesAll() throws Exception {
+        connection.create(context, newCreateRequest("managed/role", "admin", json(object(field("name", "admin")))));
+
+        assertEquals(cache.size(), 0);
+    }
+}
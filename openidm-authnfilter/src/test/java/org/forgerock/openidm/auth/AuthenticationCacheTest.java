@@ -0,0 +1,104 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.auth;
+
+import static java.util.Arrays.asList;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.json.resource.ResourceResponse;
+import org.testng.annotations.Test;
+
+public class AuthenticationCacheTest {
+
+    private static final List<String> NO_ROLES = Collections.emptyList();
+
+    private final Object module = new Object();
+
+    private static ResourceResponse user(String id) {
+        return newResourceResponse(id, "1", json(object()));
+    }
+
+    @Test
+    public void testGetCachedPrincipal() {
+        AuthenticationCache cache = new AuthenticationCache(10, 60000L);
+        cache.put(module, "bjensen", "managed/user", user("1"), asList("openidm-authorized"));
+
+        AuthenticationCache.Entry entry = cache.get(module, "bjensen");
+        assertNotNull(entry);
+        assertEquals(entry.getResource().getId(), "1");
+        assertEquals(entry.getRoles(), asList("openidm-authorized"));
+        // modules are told apart by identity
+        assertNull(cache.get(new Object(), "bjensen"));
+        assertNull(cache.get(module, "jdoe"));
+    }
+
+    @Test
+    public void testExpiredPrincipal() {
+        AuthenticationCache cache = new AuthenticationCache(10, -1L);
+        cache.put(module, "bjensen", "managed/user", user("1"), NO_ROLES);
+
+        assertNull(cache.get(module, "bjensen"));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedEvicted() {
+        AuthenticationCache cache = new AuthenticationCache(2, 60000L);
+        cache.put(module, "bjensen", "managed/user", user("1"), NO_ROLES);
+        cache.put(module, "jdoe", "managed/user", user("2"), NO_ROLES);
+        cache.get(module, "bjensen");
+        cache.put(module, "scarter", "managed/user", user("3"), NO_ROLES);
+
+        assertEquals(cache.size(), 2);
+        assertNotNull(cache.get(module, "bjensen"));
+        assertNull(cache.get(module, "jdoe"));
+        // the evicted entry is no longer indexed by resource
+        assertFalse(cache.invalidate("managed/user", "2"));
+    }
+
+    @Test
+    public void testInvalidateResource() {
+        AuthenticationCache cache = new AuthenticationCache(10, 60000L);
+        Object otherModule = new Object();
+        cache.put(module, "bjensen", "managed/user", user("1"), NO_ROLES);
+        cache.put(otherModule, "bjensen@example.com", "managed/user", user("1"), NO_ROLES);
+        cache.put(module, "openidm-admin", "repo/internal/user", user("openidm-admin"), NO_ROLES);
+
+        // a managed object is updated through its repository collection too
+        assertTrue(cache.invalidate("repo/managed/user", "1"));
+        assertNull(cache.get(module, "bjensen"));
+        assertNull(cache.get(otherModule, "bjensen@example.com"));
+        assertFalse(cache.invalidate("managed/user", "1"));
+
+        assertTrue(cache.invalidate("internal/user", "openidm-admin"));
+        assertEquals(cache.size(), 0);
+    }
+
+    @Test(expectedExceptions = NullPointerException.class)
+    public void testPrincipalWithoutRolesIsNotCached() {
+        new AuthenticationCache(10, 60000L).put(module, "bjensen", "managed/user", user("1"), null);
+    }
+}
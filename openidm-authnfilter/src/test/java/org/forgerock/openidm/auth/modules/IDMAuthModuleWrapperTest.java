@@ -17,11 +17,15 @@
 package org.forgerock.openidm.auth.modules;
 
 import static org.forgerock.caf.authentication.framework.AuthenticationFramework.ATTRIBUTE_AUTH_CONTEXT;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 import static org.mockito.BDDMockito.given;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.assertEquals;
 
 import java.security.Principal;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -37,13 +41,20 @@ import org.forgerock.caf.authentication.api.AuthenticationException;
 import org.forgerock.caf.authentication.api.MessageInfoContext;
 import org.forgerock.http.protocol.Request;
 import org.forgerock.http.protocol.Response;
+import org.forgerock.json.resource.Connection;
 import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.Responses;
+import org.forgerock.openidm.auth.AuthenticationCache;
 import org.forgerock.openidm.crypto.CryptoService;
 import org.forgerock.script.ScriptRegistry;
 import org.forgerock.services.context.ClientContext;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.util.promise.Promises;
 import org.mockito.Matchers;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeMethod;
 import org.testng.annotations.Test;
 
@@ -366,6 +377,60 @@ public class IDMAuthModuleWrapperTest {
         verify(messageInfo, never()).getRequestContextMap();
     }
 
+    @Test
+    public void shouldQueryCachedPrincipalOnce() throws Exception {
+
+        //Given
+        MessagePolicy messagePolicy = mock(MessagePolicy.class);
+        CallbackHandler handler = mock(CallbackHandler.class);
+        Subject serviceSubject = new Subject();
+        Connection connection = mock(Connection.class);
+        given(connectionFactory.getConnection()).willReturn(connection);
+        given(connection.query(any(org.forgerock.services.context.Context.class), any(QueryRequest.class),
+                anyCollectionOf(ResourceResponse.class))).willAnswer(new Answer<Object>() {
+                    @Override
+                    @SuppressWarnings("unchecked")
+                    public Object answer(InvocationOnMock invocation) {
+                        ((Collection<ResourceResponse>) invocation.getArguments()[2]).add(
+                                Responses.newResourceResponse("user1", "1",
+                                        json(object(field("userName", "USERNAME")))));
+                        return null;
+                    }
+                });
+        Map<String, Object> cachingOptions = new HashMap<>(options);
+        cachingOptions.put("propertyMapping", object(field("authenticationId", "userName")));
+        AuthenticationCache cache = new AuthenticationCache(10, 60000L);
+
+        //When
+        IDMAuthModuleWrapper wrapper = new IDMAuthModuleWrapper(authModule,
+                connectionFactory, mock(CryptoService.class), mock(ScriptRegistry.class),
+                roleCalculatorFactory, scriptExecutor, cache);
+        wrapper.initialize(messagePolicy, messagePolicy, handler, cachingOptions);
+        for (int i = 0; i < 3; i++) {
+            MessageInfoContext messageInfo = mockMessageInfoContext();
+            Map<String, Object> messageInfoMap = new HashMap<>();
+            messageInfoMap.put(ATTRIBUTE_AUTH_CONTEXT, new HashMap<String, Object>());
+            given(messageInfo.getRequest()).willReturn(new Request());
+            given(messageInfo.getRequestContextMap()).willReturn(messageInfoMap);
+            Subject clientSubject = new Subject();
+            Principal principal = mock(Principal.class);
+            given(principal.getName()).willReturn("USERNAME");
+            clientSubject.getPrincipals().add(principal);
+            given(authModule.validateRequest(messageInfo, clientSubject, serviceSubject))
+                    .willReturn(Promises.<AuthStatus, AuthenticationException>newResultPromise(AuthStatus.SUCCESS));
+
+            assertEquals(wrapper.validateRequest(messageInfo, clientSubject, serviceSubject)
+                    .getOrThrowUninterruptibly(), AuthStatus.SUCCESS);
+        }
+
+        //Then
+        verify(connection, times(1)).query(any(org.forgerock.services.context.Context.class),
+                any(QueryRequest.class), anyCollectionOf(ResourceResponse.class));
+        assertEquals(cache.size(), 1);
+        cache.invalidate("repo/foo/user", "user1");
+        assertEquals(cache.size(), 0);
+    }
+
     private MessageInfoContext mockMessageInfoContext() {
         MessageInfoContext messageInfo = mock(MessageInfoContext.class);
         given(messageInfo.asContext(ClientContext.class))
@@ -0,0 +1,102 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.benchmarks;
+
+import static org.forgerock.json.resource.Responses.newQueryResponse;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.CollectionResourceProvider;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * A stand-in for write-only resources such as audit logs, which accepts and counts creates without keeping them.
+ */
+public class DiscardingResourceProvider implements CollectionResourceProvider {
+
+    private final AtomicLong createCount = new AtomicLong();
+
+    /**
+     * @return the number of resources created since the provider was created
+     */
+    public long getCreateCount() {
+        return createCount.get();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> createInstance(Context context, CreateRequest request) {
+        long count = createCount.incrementAndGet();
+        String id = request.getNewResourceId() != null ? request.getNewResourceId() : String.valueOf(count);
+        return newResourceResponse(id, "0", request.getContent()).asPromise();
+    }
+
+    @Override
+    public Promise<QueryResponse, ResourceException> queryCollection(Context context, QueryRequest request,
+            QueryResourceHandler handler) {
+        return newQueryResponse().asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> readInstance(Context context, String resourceId,
+            ReadRequest request) {
+        return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> updateInstance(Context context, String resourceId,
+            UpdateRequest request) {
+        return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> deleteInstance(Context context, String resourceId,
+            DeleteRequest request) {
+        return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> patchInstance(Context context, String resourceId,
+            PatchRequest request) {
+        return new NotSupportedException("Patch is not supported").asPromise();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionCollection(Context context, ActionRequest request) {
+        return new NotSupportedException("Actions are not supported").asPromise();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionInstance(Context context, String resourceId,
+            ActionRequest request) {
+        return new NotSupportedException("Actions are not supported").asPromise();
+    }
+}
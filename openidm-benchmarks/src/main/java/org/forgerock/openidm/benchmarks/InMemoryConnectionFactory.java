@@ -0,0 +1,75 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.benchmarks;
+
+import static org.forgerock.json.resource.Router.uriTemplate;
+
+import org.forgerock.json.resource.CollectionResourceProvider;
+import org.forgerock.json.resource.Connection;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.openidm.router.IDMConnectionFactory;
+import org.forgerock.util.promise.Promise;
+
+/**
+ * A connection factory routing to in-memory resource providers, standing in for the OpenIDM router.
+ * Requests are not passed through any router filters, scripts or policies.
+ */
+public class InMemoryConnectionFactory implements IDMConnectionFactory {
+
+    private final Router router = new Router();
+    private final ConnectionFactory connectionFactory = Resources.newInternalConnectionFactory(router);
+
+    /**
+     * Routes a resource collection to a provider.
+     *
+     * @param path the path of the resource collection, such as {@code repo/link}
+     * @param provider the provider of the resource collection
+     * @param <T> the type of the provider
+     * @return the provider
+     */
+    public <T extends CollectionResourceProvider> T addCollection(String path, T provider) {
+        router.addRoute(uriTemplate(path), provider);
+        return provider;
+    }
+
+    @Override
+    public Connection getConnection() throws ResourceException {
+        return connectionFactory.getConnection();
+    }
+
+    @Override
+    public Promise<Connection, ResourceException> getConnectionAsync() {
+        return connectionFactory.getConnectionAsync();
+    }
+
+    @Override
+    public Connection getExternalConnection() throws ResourceException {
+        return getConnection();
+    }
+
+    @Override
+    public Promise<Connection, ResourceException> getExternalConnectionAsync() {
+        return getConnectionAsync();
+    }
+
+    @Override
+    public void close() {
+        connectionFactory.close();
+    }
+}
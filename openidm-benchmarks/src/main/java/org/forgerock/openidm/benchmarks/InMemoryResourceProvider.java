@@ -0,0 +1,525 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.benchmarks;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newQueryResponse;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionRequest;
+import org.forgerock.json.resource.ActionResponse;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.json.resource.CollectionResourceProvider;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.NotSupportedException;
+import org.forgerock.json.resource.PatchRequest;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.util.ResourceUtil;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.promise.Promise;
+import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.query.QueryFilterVisitor;
+
+/**
+ * An in-memory stand-in for a repository table or connector object class.
+ * <p>
+ * Resources are kept in a hash map, and equality assertions of query filters on the indexed fields are
+ * answered from hash indexes, the way a repository answers them from its database indexes. Besides query
+ * filters, only the {@code query-all-ids} query id is supported. Sort keys and paging are ignored.
+ */
+public class InMemoryResourceProvider implements CollectionResourceProvider {
+
+    private static final String QUERY_ALL_IDS = "query-all-ids";
+
+    private final ConcurrentMap<String, JsonValue> resources = new ConcurrentHashMap<>();
+    private final Map<JsonPointer, ConcurrentMap<String, Set<String>>> indexes = new HashMap<>();
+    private final AtomicLong requestCount = new AtomicLong();
+
+    /**
+     * Creates an empty provider.
+     *
+     * @param indexedFields the fields to maintain equality indexes for
+     */
+    public InMemoryResourceProvider(String... indexedFields) {
+        for (String field : indexedFields) {
+            indexes.put(new JsonPointer(field), new ConcurrentHashMap<String, Set<String>>());
+        }
+    }
+
+    /**
+     * Adds or replaces a resource without going through a request.
+     *
+     * @param content the resource, which must contain its {@code _id}
+     */
+    public void put(JsonValue content) {
+        String id = content.get(ResourceResponse.FIELD_CONTENT_ID).required().asString();
+        if (content.get(ResourceResponse.FIELD_CONTENT_REVISION).isNull()) {
+            content.put(ResourceResponse.FIELD_CONTENT_REVISION, "0");
+        }
+        store(id, content);
+    }
+
+    /**
+     * Removes all resources.
+     */
+    public void clear() {
+        resources.clear();
+        for (Map<String, Set<String>> index : indexes.values()) {
+            index.clear();
+        }
+    }
+
+    /**
+     * @return the number of resources
+     */
+    public int size() {
+        return resources.size();
+    }
+
+    /**
+     * @return the number of requests handled since the provider was created
+     */
+    public long getRequestCount() {
+        return requestCount.get();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> createInstance(Context context, CreateRequest request) {
+        requestCount.incrementAndGet();
+        String id = request.getNewResourceId() != null
+                ? request.getNewResourceId()
+                : UUID.randomUUID().toString();
+        JsonValue content = request.getContent().copy();
+        content.put(ResourceResponse.FIELD_CONTENT_ID, id);
+        content.put(ResourceResponse.FIELD_CONTENT_REVISION, "0");
+        if (resources.putIfAbsent(id, content) != null) {
+            return new PreconditionFailedException("Resource " + id + " already exists").asPromise();
+        }
+        index(id, content);
+        return newResourceResponse(id, "0", content.copy()).asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> readInstance(Context context, String resourceId,
+            ReadRequest request) {
+        requestCount.incrementAndGet();
+        JsonValue content = resources.get(resourceId);
+        if (content == null) {
+            return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+        }
+        return toResponse(content).asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> updateInstance(Context context, String resourceId,
+            UpdateRequest request) {
+        requestCount.incrementAndGet();
+        JsonValue existing = resources.get(resourceId);
+        if (existing == null) {
+            return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+        }
+        String rev = existing.get(ResourceResponse.FIELD_CONTENT_REVISION).asString();
+        if (request.getRevision() != null && !"*".equals(request.getRevision())
+                && !request.getRevision().equals(rev)) {
+            return new PreconditionFailedException("Revision " + request.getRevision() + " of " + resourceId
+                    + " is not current").asPromise();
+        }
+        JsonValue content = request.getContent().copy();
+        content.put(ResourceResponse.FIELD_CONTENT_ID, resourceId);
+        content.put(ResourceResponse.FIELD_CONTENT_REVISION, String.valueOf(Long.parseLong(rev) + 1));
+        store(resourceId, content);
+        return toResponse(content).asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> deleteInstance(Context context, String resourceId,
+            DeleteRequest request) {
+        requestCount.incrementAndGet();
+        JsonValue existing = resources.remove(resourceId);
+        if (existing == null) {
+            return new NotFoundException("Resource " + resourceId + " not found").asPromise();
+        }
+        unindex(resourceId, existing);
+        return toResponse(existing).asPromise();
+    }
+
+    @Override
+    public Promise<QueryResponse, ResourceException> queryCollection(Context context, QueryRequest request,
+            QueryResourceHandler handler) {
+        requestCount.incrementAndGet();
+        if (QUERY_ALL_IDS.equals(request.getQueryId())) {
+            for (JsonValue content : resources.values()) {
+                String id = content.get(ResourceResponse.FIELD_CONTENT_ID).asString();
+                String rev = content.get(ResourceResponse.FIELD_CONTENT_REVISION).asString();
+                if (!handler.handleResource(newResourceResponse(id, rev, json(object(
+                        field(ResourceResponse.FIELD_CONTENT_ID, id),
+                        field(ResourceResponse.FIELD_CONTENT_REVISION, rev)))))) {
+                    break;
+                }
+            }
+            return newQueryResponse().asPromise();
+        }
+        QueryFilter<JsonPointer> filter = request.getQueryFilter();
+        if (filter == null) {
+            return new BadRequestException("Only query filters and " + QUERY_ALL_IDS + " are supported")
+                    .asPromise();
+        }
+        Collection<String> candidates = filter.accept(candidateVisitor, null);
+        Iterable<JsonValue> scan = candidates == null ? resources.values() : lookup(candidates);
+        for (JsonValue content : scan) {
+            if (filter.accept(MATCHER, content) && !handler.handleResource(toResponse(content))) {
+                break;
+            }
+        }
+        return newQueryResponse().asPromise();
+    }
+
+    @Override
+    public Promise<ResourceResponse, ResourceException> patchInstance(Context context, String resourceId,
+            PatchRequest request) {
+        return new NotSupportedException("Patch is not supported").asPromise();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionCollection(Context context, ActionRequest request) {
+        return new NotSupportedException("Actions are not supported").asPromise();
+    }
+
+    @Override
+    public Promise<ActionResponse, ResourceException> actionInstance(Context context, String resourceId,
+            ActionRequest request) {
+        return new NotSupportedException("Actions are not supported").asPromise();
+    }
+
+    private ResourceResponse toResponse(JsonValue content) {
+        // Hand out copies, as a repository would hand out freshly read objects
+        return newResourceResponse(content.get(ResourceResponse.FIELD_CONTENT_ID).asString(),
+                content.get(ResourceResponse.FIELD_CONTENT_REVISION).asString(), content.copy());
+    }
+
+    private List<JsonValue> lookup(Collection<String> ids) {
+        List<JsonValue> found = new ArrayList<>(ids.size());
+        for (String id : ids) {
+            JsonValue content = resources.get(id);
+            if (content != null) {
+                found.add(content);
+            }
+        }
+        return found;
+    }
+
+    private void store(String id, JsonValue content) {
+        JsonValue previous = resources.put(id, content);
+        if (previous != null) {
+            unindex(id, previous);
+        }
+        index(id, content);
+    }
+
+    private void index(String id, JsonValue content) {
+        for (Map.Entry<JsonPointer, ConcurrentMap<String, Set<String>>> index : indexes.entrySet()) {
+            JsonValue value = content.get(index.getKey());
+            if (value != null && !value.isNull()) {
+                String key = String.valueOf(value.getObject());
+                Set<String> ids = index.getValue().get(key);
+                if (ids == null) {
+                    Set<String> created = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+                    ids = index.getValue().putIfAbsent(key, created);
+                    if (ids == null) {
+                        ids = created;
+                    }
+                }
+                ids.add(id);
+            }
+        }
+    }
+
+    private void unindex(String id, JsonValue content) {
+        for (Map.Entry<JsonPointer, ConcurrentMap<String, Set<String>>> index : indexes.entrySet()) {
+            JsonValue value = content.get(index.getKey());
+            if (value != null && !value.isNull()) {
+                Set<String> ids = index.getValue().get(String.valueOf(value.getObject()));
+                if (ids != null) {
+                    ids.remove(id);
+                }
+            }
+        }
+    }
+
+    /**
+     * Narrows a query filter down to the ids of an equality index, or null if all resources have to be scanned.
+     */
+    private final QueryFilterVisitor<Collection<String>, Void, JsonPointer> candidateVisitor =
+            new FilterAdapter<Collection<String>, Void>(null) {
+                @Override
+                public Collection<String> visitAndFilter(Void p, List<QueryFilter<JsonPointer>> subFilters) {
+                    Collection<String> smallest = null;
+                    for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                        Collection<String> candidates = subFilter.accept(this, p);
+                        if (candidates != null && (smallest == null || candidates.size() < smallest.size())) {
+                            smallest = candidates;
+                        }
+                    }
+                    return smallest;
+                }
+
+                @Override
+                public Collection<String> visitEqualsFilter(Void p, JsonPointer field, Object valueAssertion) {
+                    Map<String, Set<String>> index = indexes.get(field);
+                    if (index == null) {
+                        return null;
+                    }
+                    Set<String> ids = index.get(String.valueOf(valueAssertion));
+                    return ids == null ? Collections.<String>emptySet() : ids;
+                }
+            };
+
+    /**
+     * Evaluates a query filter against a resource.
+     */
+    private static final QueryFilterVisitor<Boolean, JsonValue, JsonPointer> MATCHER =
+            new FilterAdapter<Boolean, JsonValue>(Boolean.FALSE) {
+                @Override
+                public Boolean visitAndFilter(JsonValue p, List<QueryFilter<JsonPointer>> subFilters) {
+                    for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                        if (!subFilter.accept(this, p)) {
+                            return Boolean.FALSE;
+                        }
+                    }
+                    return Boolean.TRUE;
+                }
+
+                @Override
+                public Boolean visitOrFilter(JsonValue p, List<QueryFilter<JsonPointer>> subFilters) {
+                    for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                        if (subFilter.accept(this, p)) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitNotFilter(JsonValue p, QueryFilter<JsonPointer> subFilter) {
+                    return !subFilter.accept(this, p);
+                }
+
+                @Override
+                public Boolean visitBooleanLiteralFilter(JsonValue p, boolean value) {
+                    return value;
+                }
+
+                @Override
+                public Boolean visitPresentFilter(JsonValue p, JsonPointer field) {
+                    JsonValue value = p.get(field);
+                    return value != null && !value.isNull();
+                }
+
+                @Override
+                public Boolean visitEqualsFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        boolean matches = value instanceof String
+                                || ResourceUtil.RESOURCE_FIELD_CONTENT_ID_POINTER.equals(field)
+                                ? String.valueOf(valueAssertion).equals(String.valueOf(value))
+                                : compare(value, valueAssertion) == 0;
+                        if (matches) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitStartsWithFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (String.valueOf(value).startsWith(String.valueOf(valueAssertion))) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitContainsFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (String.valueOf(value).contains(String.valueOf(valueAssertion))) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitGreaterThanFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (compare(value, valueAssertion) > 0) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitGreaterThanOrEqualToFilter(JsonValue p, JsonPointer field,
+                        Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (compare(value, valueAssertion) >= 0) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitLessThanFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (compare(value, valueAssertion) < 0) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+
+                @Override
+                public Boolean visitLessThanOrEqualToFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+                    for (Object value : values(p, field)) {
+                        if (compare(value, valueAssertion) <= 0) {
+                            return Boolean.TRUE;
+                        }
+                    }
+                    return Boolean.FALSE;
+                }
+            };
+
+    private static List<Object> values(JsonValue content, JsonPointer field) {
+        JsonValue value = content.get(field);
+        if (value == null || value.isNull()) {
+            return Collections.emptyList();
+        } else if (value.isList()) {
+            return value.asList();
+        } else {
+            return Collections.singletonList(value.getObject());
+        }
+    }
+
+    private static int compare(Object value, Object valueAssertion) {
+        if (value instanceof Number && valueAssertion instanceof Number) {
+            return Double.compare(((Number) value).doubleValue(), ((Number) valueAssertion).doubleValue());
+        }
+        return String.valueOf(value).compareTo(String.valueOf(valueAssertion));
+    }
+
+    /**
+     * A query filter visitor returning a fixed result for all filters it does not override.
+     */
+    private static class FilterAdapter<R, P> implements QueryFilterVisitor<R, P, JsonPointer> {
+        private final R defaultResult;
+
+        FilterAdapter(R defaultResult) {
+            this.defaultResult = defaultResult;
+        }
+
+        @Override
+        public R visitAndFilter(P p, List<QueryFilter<JsonPointer>> subFilters) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitBooleanLiteralFilter(P p, boolean value) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitContainsFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitEqualsFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitExtendedMatchFilter(P p, JsonPointer field, String operator, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitGreaterThanFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitGreaterThanOrEqualToFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitLessThanFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitLessThanOrEqualToFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitNotFilter(P p, QueryFilter<JsonPointer> subFilter) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitOrFilter(P p, List<QueryFilter<JsonPointer>> subFilters) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitPresentFilter(P p, JsonPointer field) {
+            return defaultResult;
+        }
+
+        @Override
+        public R visitStartsWithFilter(P p, JsonPointer field, Object valueAssertion) {
+            return defaultResult;
+        }
+    }
+}
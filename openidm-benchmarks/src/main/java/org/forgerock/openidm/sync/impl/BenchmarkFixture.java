@@ -0,0 +1,242 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.script.Bindings;
+import javax.script.SimpleBindings;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.openidm.benchmarks.DiscardingResourceProvider;
+import org.forgerock.openidm.benchmarks.InMemoryConnectionFactory;
+import org.forgerock.openidm.benchmarks.InMemoryResourceProvider;
+import org.forgerock.openidm.sync.ReconContext;
+import org.forgerock.script.Script;
+import org.forgerock.script.ScriptEntry;
+import org.forgerock.script.ScriptRegistry;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+
+/**
+ * Wires a synchronization and a reconciliation service to in-memory source, target and link collections
+ * so that the sync and recon code paths can be measured without a repository, connectors or scripts.
+ * <p>
+ * Audit entries are discarded and every script, such as the default mapping and {@code onRecon} scripts
+ * of a mapping, is replaced by a stub that returns {@code null}.
+ */
+final class BenchmarkFixture {
+
+    /** The resource collection the mapping reads source objects from */
+    static final String SOURCE = "system/bench/account";
+
+    /** The resource collection the mapping writes target objects to */
+    static final String TARGET = "managed/user";
+
+    /** The name of the benchmarked mapping, which is also its link type */
+    static final String MAPPING = "systemBenchAccounts_managedUser";
+
+    /** The link qualifier of the generated links */
+    static final String LINK_QUALIFIER = "default";
+
+    /** The number of attributes of the generated objects, all mapped from source to target */
+    static final int ATTRIBUTES = 10;
+
+    final InMemoryConnectionFactory connectionFactory = new InMemoryConnectionFactory();
+    final InMemoryResourceProvider links;
+    final InMemoryResourceProvider sources;
+    final InMemoryResourceProvider targets;
+    final SynchronizationService syncService = new SynchronizationService();
+    final ReconciliationService reconService = new ReconciliationService();
+
+    BenchmarkFixture() {
+        links = connectionFactory.addCollection("repo/link",
+                new InMemoryResourceProvider("/firstId", "/secondId", "/linkType"));
+        sources = connectionFactory.addCollection(SOURCE, new InMemoryResourceProvider());
+        targets = connectionFactory.addCollection(TARGET, new InMemoryResourceProvider());
+        connectionFactory.addCollection("audit/recon", new DiscardingResourceProvider());
+        connectionFactory.addCollection("audit/sync", new DiscardingResourceProvider());
+        connectionFactory.addCollection("audit/activity", new DiscardingResourceProvider());
+        syncService.bindConnectionFactory(connectionFactory);
+        reconService.bindConnectionFactory(connectionFactory);
+        Scripts.init(newScriptRegistryStub());
+    }
+
+    /**
+     * Returns the configuration of the benchmarked mapping.
+     *
+     * @param taskThreads the number of reconciliation threads
+     * @param feedSize the number of entries queued to the reconciliation threads at a time
+     * @return the mapping configuration
+     */
+    static JsonValue mappingConfig(int taskThreads, int feedSize) {
+        List<Object> properties = new ArrayList<Object>();
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            properties.add(object(field("source", "attr" + i), field("target", "attr" + i)));
+        }
+        return json(object(
+                field("name", MAPPING),
+                field("source", SOURCE),
+                field("target", TARGET),
+                field("properties", properties),
+                field("sourceQuery", object(field("_queryFilter", "true"))),
+                field("targetQuery", object(field("_queryFilter", "true"))),
+                field("allowEmptySourceSet", true),
+                field("taskThreads", taskThreads),
+                field("feedSize", feedSize),
+                field("policies", array(
+                        object(field("situation", "CONFIRMED"), field("action", "UPDATE")),
+                        object(field("situation", "FOUND"), field("action", "UPDATE")),
+                        object(field("situation", "ABSENT"), field("action", "CREATE")),
+                        object(field("situation", "UNQUALIFIED"), field("action", "IGNORE")),
+                        object(field("situation", "UNASSIGNED"), field("action", "IGNORE"))))));
+    }
+
+    /**
+     * Creates the benchmarked mapping.
+     *
+     * @param config the mapping configuration
+     * @return the mapping, with its relationships initialized
+     */
+    ObjectMapping newMapping(JsonValue config) {
+        ObjectMapping mapping = new ObjectMapping(syncService, config);
+        mapping.initRelationships(syncService, Collections.singletonList(mapping));
+        return mapping;
+    }
+
+    /**
+     * Creates the context of a full reconciliation run of a mapping.
+     *
+     * @param mapping the mapping to reconcile
+     * @return the reconciliation context
+     * @throws BadRequestException if the mapping configuration is invalid
+     */
+    ReconciliationContext newReconContext(ObjectMapping mapping) throws BadRequestException {
+        Context context = new ReconContext(new RootContext(), mapping.getName());
+        return new ReconciliationContext(ReconciliationService.ReconAction.recon, mapping, context,
+                json(object()), null, reconService);
+    }
+
+    /**
+     * Fills the collections with generated objects.
+     *
+     * @param count the number of objects
+     * @param withSources whether to generate source objects
+     * @param withTargets whether to generate target objects
+     * @param withLinks whether to link each source object to the target object with the same index
+     */
+    void populate(int count, boolean withSources, boolean withTargets, boolean withLinks) {
+        sources.clear();
+        targets.clear();
+        links.clear();
+        for (int i = 0; i < count; i++) {
+            if (withSources) {
+                sources.put(sourceObject(i));
+            }
+            if (withTargets) {
+                targets.put(targetObject(i));
+            }
+            if (withLinks) {
+                links.put(link(i));
+            }
+        }
+    }
+
+    static String sourceId(int i) {
+        return "source" + i;
+    }
+
+    static String targetId(int i) {
+        return "target" + i;
+    }
+
+    static JsonValue sourceObject(int i) {
+        JsonValue source = json(object(field("_id", sourceId(i)), field("_rev", "0")));
+        for (int a = 0; a < ATTRIBUTES; a++) {
+            source.put("attr" + a, "value" + a + "-" + i);
+        }
+        source.put("department", i % 10 == 0 ? "engineering" : "sales");
+        source.put("active", i % 3 != 0);
+        return source;
+    }
+
+    static JsonValue targetObject(int i) {
+        JsonValue target = json(object(field("_id", targetId(i)), field("_rev", "0")));
+        for (int a = 0; a < ATTRIBUTES; a++) {
+            target.put("attr" + a, "value" + a + "-" + i);
+        }
+        return target;
+    }
+
+    static JsonValue link(int i) {
+        return json(object(
+                field("_id", "link" + i),
+                field("_rev", "0"),
+                field("linkType", MAPPING),
+                field("linkQualifier", LINK_QUALIFIER),
+                field("firstId", sourceId(i)),
+                field("secondId", targetId(i))));
+    }
+
+    /**
+     * Creates a script registry whose scripts do nothing and evaluate to {@code null}.
+     */
+    private static ScriptRegistry newScriptRegistryStub() {
+        return stub(ScriptRegistry.class);
+    }
+
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(BenchmarkFixture.class.getClassLoader(), new Class<?>[] { type },
+                new InvocationHandler() {
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        String name = method.getName();
+                        Class<?> returnType = method.getReturnType();
+                        if ("equals".equals(name) && args != null && args.length == 1) {
+                            return proxy == args[0];
+                        } else if ("hashCode".equals(name) && args == null) {
+                            return System.identityHashCode(proxy);
+                        } else if ("toString".equals(name) && args == null) {
+                            return "Stub " + method.getDeclaringClass().getSimpleName();
+                        } else if (returnType == ScriptEntry.class) {
+                            return stub(ScriptEntry.class);
+                        } else if (returnType == Script.class) {
+                            return stub(Script.class);
+                        } else if (returnType == Bindings.class) {
+                            return new SimpleBindings();
+                        } else if (returnType == boolean.class) {
+                            return Boolean.FALSE;
+                        } else if (returnType == int.class) {
+                            return 0;
+                        } else if (returnType == long.class) {
+                            return 0L;
+                        }
+                        return null;
+                    }
+                }));
+    }
+}
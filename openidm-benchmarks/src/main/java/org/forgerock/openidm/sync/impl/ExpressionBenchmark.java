@@ -0,0 +1,144 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.script.ScriptRegistry;
+import org.forgerock.script.engine.ScriptEngineFactory;
+import org.forgerock.script.javascript.RhinoScriptEngineFactory;
+import org.forgerock.script.registry.ScriptRegistryImpl;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares applying a 50 attribute mapping whose transforms and conditions are compiled expressions with
+ * the same mapping written as JavaScript transform and condition scripts.
+ * <p>
+ * The scripts are taken from a {@link ScriptRegistryImpl} with the Rhino engine, as configured in script.json,
+ * and evaluated by {@link Scripts.Script#exec} with new bindings holding a copy of the scope for each call,
+ * as in a reconciliation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionBenchmark {
+
+    /** The number of attributes of the mapping */
+    static final int ATTRIBUTES = 50;
+
+    /** The transforms of the mapping, as expressions and as the equivalent JavaScript */
+    private static final String[][] TRANSFORMS = {
+        { "lower(source)", "source == null ? null : String(source).toLowerCase()" },
+        { "concat(source, '@example.com')", "(source == null ? '' : source) + '@example.com'" },
+        { "default(source, 'none')", "source != null ? source : 'none'" },
+        { "substring(source, 0, 5)", "source == null ? null : String(source).substring(0, 5)" },
+        { "upper(trim(source))", "source == null ? null : String(source).trim().toUpperCase()" }
+    };
+
+    /** The condition of every fifth property, as an expression and as the equivalent JavaScript */
+    private static final String[] CONDITION = {
+        "contains(object/roles, 'admin')", "object.roles != null && object.roles.indexOf('admin') >= 0"
+    };
+
+    @Param({ "expression", "javascript" })
+    public String language;
+
+    private final List<PropertyMapping> properties = new ArrayList<PropertyMapping>();
+    private JsonValue source;
+
+    @Setup
+    public void setup() throws Exception {
+        boolean javascript = "javascript".equals(language);
+        if (javascript) {
+            Scripts.init(newJavaScriptRegistry());
+        }
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            String[] transform = TRANSFORMS[i % TRANSFORMS.length];
+            JsonValue config = json(object(
+                    field("source", "attr" + i),
+                    field("target", "attr" + i),
+                    field("transform", javascript ? script(transform[1]) : expression(transform[0]))));
+            if (i % TRANSFORMS.length == TRANSFORMS.length - 1) {
+                config.put("condition", javascript ? script(CONDITION[1]) : expression(CONDITION[0]));
+            }
+            properties.add(new PropertyMapping(config));
+        }
+        source = json(object(field("_id", "source1"), field("roles", array("admin", "user"))));
+        for (int i = 0; i < ATTRIBUTES; i++) {
+            source.put("attr" + i, " Value" + i + "-1 ");
+        }
+    }
+
+    @Benchmark
+    public JsonValue apply() throws Exception {
+        ObjectSetContext.push(new RootContext());
+        try {
+            JsonValue target = json(object());
+            for (PropertyMapping property : properties) {
+                property.apply(source, null, target, BenchmarkFixture.LINK_QUALIFIER);
+            }
+            return target;
+        } finally {
+            ObjectSetContext.pop();
+        }
+    }
+
+    private static Object expression(String expression) {
+        return object(field("expression", expression));
+    }
+
+    private static Object script(String source) {
+        return object(field("type", "text/javascript"), field("source", source));
+    }
+
+    /**
+     * Creates the script registry of the script service with its JavaScript engine, without the script
+     * sources and the functions it binds for the scripts.
+     */
+    private static ScriptRegistry newJavaScriptRegistry() {
+        Map<String, Object> javascript = new HashMap<String, Object>(1);
+        javascript.put("javascript.recompile.minimumInterval", "60000");
+        Map<String, Object> configuration = new HashMap<String, Object>(1);
+        configuration.put(RhinoScriptEngineFactory.LANGUAGE_NAME, javascript);
+        return new ScriptRegistryImpl(configuration,
+                Collections.<ScriptEngineFactory>singleton(new RhinoScriptEngineFactory()), null, null);
+    }
+}
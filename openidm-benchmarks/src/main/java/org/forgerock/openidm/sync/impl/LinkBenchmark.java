@@ -0,0 +1,90 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openidm.sync.ReconContext;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures link lookups against a link collection of {@code objectCount} links: the per-object query
+ * issued by source synchronization and the bulk load of all links of a mapping done before a
+ * reconciliation.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class LinkBenchmark {
+
+    @Param({ "10000", "100000", "1000000" })
+    public int objectCount;
+
+    private ObjectMapping mapping;
+
+    @Setup
+    public void setup() {
+        BenchmarkFixture fixture = new BenchmarkFixture();
+        mapping = fixture.newMapping(BenchmarkFixture.mappingConfig(0, ReconFeeder.DEFAULT_FEED_SIZE));
+        fixture.populate(objectCount, false, false, true);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    public Link getLinkForSource() throws Exception {
+        ObjectSetContext.push(new RootContext());
+        try {
+            Link link = new Link(mapping);
+            link.setLinkQualifier(BenchmarkFixture.LINK_QUALIFIER);
+            link.getLinkForSource(BenchmarkFixture.sourceId(ThreadLocalRandom.current().nextInt(objectCount)));
+            return link;
+        } finally {
+            ObjectSetContext.pop();
+        }
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public int getLinksForMapping() throws Exception {
+        ObjectSetContext.push(new ReconContext(new RootContext(), BenchmarkFixture.MAPPING));
+        Map<String, Link> links = null;
+        try {
+            links = Link.getLinksForMapping(mapping, BenchmarkFixture.LINK_QUALIFIER);
+            return links.size();
+        } finally {
+            // Give the off-heap segments back to the pool, as a reconciliation does
+            LinkIndex.releaseAll(Collections.singletonMap(BenchmarkFixture.LINK_QUALIFIER, links));
+            ObjectSetContext.pop();
+        }
+    }
+}
@@ -0,0 +1,107 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openidm.sync.ReconContext;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures a full reconciliation of {@code objectCount} objects through {@link ObjectMapping#recon}, with
+ * the source and target collections set up so that every object ends in the same situation:
+ * <ul>
+ *     <li>{@code CONFIRMED}: all source objects are linked to an identical target object, so the source
+ *     phase reads, correlates and compares every object without writing</li>
+ *     <li>{@code ABSENT}: there are no target objects, so the source phase creates every target object
+ *     and link</li>
+ *     <li>{@code UNASSIGNED}: there are no source objects, so every object is assessed in the target
+ *     phase</li>
+ * </ul>
+ * The collections are reset before each iteration, as reconciliation changes them.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = { "-Xms8g", "-Xmx8g" })
+public class ObjectMappingBenchmark {
+
+    @Param({ "CONFIRMED", "ABSENT", "UNASSIGNED" })
+    public String situation;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int objectCount;
+
+    @Param({ "10" })
+    public int taskThreads;
+
+    @Param({ "1000" })
+    public int feedSize;
+
+    private BenchmarkFixture fixture;
+    private ObjectMapping mapping;
+
+    @Setup
+    public void setup() {
+        fixture = new BenchmarkFixture();
+        mapping = fixture.newMapping(BenchmarkFixture.mappingConfig(taskThreads, feedSize));
+    }
+
+    @Setup(Level.Iteration)
+    public void populate() {
+        switch (Situation.valueOf(situation)) {
+            case CONFIRMED:
+                fixture.populate(objectCount, true, true, true);
+                break;
+            case ABSENT:
+                fixture.populate(objectCount, true, false, false);
+                break;
+            case UNASSIGNED:
+                fixture.populate(objectCount, false, true, false);
+                break;
+            default:
+                throw new IllegalArgumentException("Unsupported situation " + situation);
+        }
+    }
+
+    @Benchmark
+    public Map<String, Object> recon() throws Exception {
+        ObjectSetContext.push(new ReconContext(new RootContext(), BenchmarkFixture.MAPPING));
+        ReconciliationContext reconContext = fixture.newReconContext(mapping);
+        try {
+            mapping.recon(reconContext);
+            return reconContext.getSummary();
+        } finally {
+            reconContext.setStage(ReconStage.COMPLETED_SUCCESS);
+            ObjectSetContext.pop();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures applying the property mappings of a mapping to build a target object from a source object:
+ * plain attribute copies, a default value and a conditional property.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PropertyMappingBenchmark {
+
+    private final List<PropertyMapping> properties = new ArrayList<PropertyMapping>();
+    private JsonValue source;
+
+    @Setup
+    public void setup() {
+        for (int i = 0; i < BenchmarkFixture.ATTRIBUTES; i++) {
+            properties.add(new PropertyMapping(json(object(field("source", "attr" + i), field("target", "attr" + i)))));
+        }
+        properties.add(new PropertyMapping(json(object(field("source", "title"), field("target", "title"),
+                field("default", "none")))));
+        properties.add(new PropertyMapping(json(object(field("source", "department"), field("target", "group"),
+                field("condition", "/object/active eq true")))));
+        source = BenchmarkFixture.sourceObject(1);
+    }
+
+    @Benchmark
+    public JsonValue apply() throws Exception {
+        JsonValue target = json(object());
+        for (PropertyMapping property : properties) {
+            property.apply(source, null, target, BenchmarkFixture.LINK_QUALIFIER);
+        }
+        return target;
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.openidm.sync.ReconContext;
+import org.forgerock.services.context.RootContext;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the dispatch overhead of the reconciliation feeder: queuing {@code objectCount} entries to
+ * {@code taskThreads} threads, {@code feedSize} at a time, with tasks that only burn a few CPU cycles.
+ * A {@code taskThreads} of 0 reconciles on the calling thread.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+public class ReconFeederBenchmark {
+
+    private static final long TASK_TOKENS = 100;
+
+    @Param({ "10000", "100000", "1000000" })
+    public int objectCount;
+
+    @Param({ "0", "10", "32" })
+    public int taskThreads;
+
+    @Param({ "1000" })
+    public int feedSize;
+
+    private BenchmarkFixture fixture;
+    private ObjectMapping mapping;
+    private final List<ResultEntry> entries = new ArrayList<ResultEntry>();
+
+    @Setup
+    public void setup() {
+        fixture = new BenchmarkFixture();
+        mapping = fixture.newMapping(BenchmarkFixture.mappingConfig(taskThreads, feedSize));
+        for (int i = 0; i < objectCount; i++) {
+            entries.add(new ResultEntry(BenchmarkFixture.sourceId(i), null));
+        }
+    }
+
+    @Benchmark
+    public int dispatch() throws Exception {
+        ObjectSetContext.push(new ReconContext(new RootContext(), BenchmarkFixture.MAPPING));
+        ReconciliationContext reconContext = fixture.newReconContext(mapping);
+        try {
+            NoopFeeder feeder = new NoopFeeder(entries.iterator(), reconContext);
+            feeder.setFeedSize(feedSize);
+            feeder.execute();
+            return feeder.fed;
+        } finally {
+            // Shuts down the task threads of the run
+            reconContext.setStage(ReconStage.COMPLETED_SUCCESS);
+            ObjectSetContext.pop();
+        }
+    }
+
+    private static class NoopFeeder extends ReconFeeder {
+
+        NoopFeeder(Iterator<ResultEntry> entriesIter, ReconciliationContext reconContext) {
+            super(entriesIter, reconContext);
+        }
+
+        @Override
+        Callable createTask(ResultEntry entry) {
+            return new Callable<Void>() {
+                @Override
+                public Void call() {
+                    Blackhole.consumeCPU(TASK_TOKENS);
+                    return null;
+                }
+            };
+        }
+    }
+}
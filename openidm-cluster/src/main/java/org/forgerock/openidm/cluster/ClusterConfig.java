@@ -24,6 +24,7 @@
 */
 package org.forgerock.openidm.cluster;
 
+import java.util.HashMap;
 import java.util.Properties;
 
 import org.forgerock.json.JsonValue;
@@ -41,6 +42,9 @@ public class ClusterConfig {
     private final static String INSTANCE_CHECK_IN_INTERVAL = "instanceCheckInInterval";
     private final static String INSTANCE_CHECK_IN_OFFSET = "instanceCheckInOffset";
     private final static String ENABLED = "enabled";
+    private final static String EVENT_TRANSPORT = "eventTransport";
+    private final static String EVENT_TRANSPORT_TYPE = "type";
+    private final static String EVENT_POLL_INTERVAL = "pollInterval";
     
     private String instanceId = "instance0";
     private long instanceTimeout = 30000;
@@ -48,6 +52,9 @@ public class ClusterConfig {
     private long instanceCheckInInterval = 5000;
     private long instanceCheckInOffset = 0;
     private boolean enabled = true;
+    private JsonValue eventTransport = new JsonValue(new HashMap<String, Object>());
+    private String eventTransportType = RepoEventTransport.TYPE;
+    private long eventPollInterval = 30000;
     
     public ClusterConfig(JsonValue config) {
         if (!config.isNull()) {
@@ -77,6 +84,18 @@ public class ClusterConfig {
             } else if (!value.isNull() && value.isString()) {
                 setEnabled(Boolean.parseBoolean(value.asString()));
             }
+            value = config.get(EVENT_TRANSPORT);
+            if (!value.isNull()) {
+                eventTransport = value;
+                value = eventTransport.get(EVENT_TRANSPORT_TYPE);
+                if (!value.isNull()) {
+                    setEventTransportType(value.asString());
+                }
+                value = eventTransport.get(EVENT_POLL_INTERVAL);
+                if (!value.isNull()) {
+                    setEventPollInterval(value.isNumber() ? value.asLong() : Long.parseLong(value.asString()));
+                }
+            }
         }
     }
     
@@ -130,6 +149,37 @@ public class ClusterConfig {
         this.instanceCheckInOffset = instanceCheckInOffset;
     }
 
+    /**
+     * Returns the configuration of the cluster event transport.
+     *
+     * @return the {@code eventTransport} object of the configuration
+     */
+    public JsonValue getEventTransport() {
+        return eventTransport;
+    }
+
+    public String getEventTransportType() {
+        return eventTransportType;
+    }
+
+    public void setEventTransportType(String eventTransportType) {
+        this.eventTransportType = eventTransportType;
+    }
+
+    /**
+     * Returns the interval at which pending cluster events are polled from the repository when the event
+     * transport pushes notifications. Without push notifications, events are polled at every check-in.
+     *
+     * @return the poll interval in milliseconds
+     */
+    public long getEventPollInterval() {
+        return eventPollInterval;
+    }
+
+    public void setEventPollInterval(long eventPollInterval) {
+        this.eventPollInterval = eventPollInterval;
+    }
+
     public boolean isEnabled() {
         return enabled;
     }
@@ -0,0 +1,159 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.cluster;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.JsonValue;
+
+/**
+ * Delivery statistics of the cluster events received by this instance.
+ * <p>
+ * Latencies are only measured with the {@link System#nanoTime()} clock of this instance, never by comparing
+ * the clocks of two instances:
+ * <ul>
+ *     <li>the delivery latency of a notified event is the time from the receipt of the notification to the
+ *     processing of the event. Events found by polling the repository are counted, but have no latency.</li>
+ *     <li>the round trip of a notification is the time from sending it to another instance to receiving its
+ *     acknowledgement. Half of it estimates the time a notification takes to reach another instance.</li>
+ * </ul>
+ * Percentiles are computed over the most recent measurements.
+ */
+class ClusterEventStatistics {
+
+    /** The number of most recent measurements percentiles are computed over */
+    static final int RECENT_DELIVERIES = 1024;
+
+    private final Latencies deliveryLatencies = new Latencies();
+    private final Latencies roundTrips = new Latencies();
+    private long delivered;
+    private long deliveredAfterNotification;
+    private long notificationsSent;
+    private long notificationsFailed;
+    private long notificationsReceived;
+
+    /**
+     * Records the processing of an event.
+     *
+     * @param notifiedAt the {@link System#nanoTime()} at which the notification of the event was received,
+     *                   or null if the event was found by polling
+     * @param processedAt the {@link System#nanoTime()} at which the event was processed
+     */
+    synchronized void delivered(Long notifiedAt, long processedAt) {
+        delivered++;
+        if (notifiedAt != null) {
+            deliveredAfterNotification++;
+            deliveryLatencies.record(processedAt - notifiedAt);
+        }
+    }
+
+    /**
+     * Records a notification sent to another instance.
+     *
+     * @param success whether the notification was sent
+     */
+    synchronized void notificationSent(boolean success) {
+        if (success) {
+            notificationsSent++;
+        } else {
+            notificationsFailed++;
+        }
+    }
+
+    /**
+     * Records a notification received from another instance.
+     */
+    synchronized void notificationReceived() {
+        notificationsReceived++;
+    }
+
+    /**
+     * Records the acknowledgement of a notification sent to another instance.
+     *
+     * @param roundTrip the nanoseconds from sending the notification to receiving its acknowledgement
+     */
+    synchronized void notificationAcknowledged(long roundTrip) {
+        roundTrips.record(roundTrip);
+    }
+
+    /**
+     * Returns the statistics, with latencies in milliseconds.
+     *
+     * @param transport the type of the event transport in use
+     * @return the statistics
+     */
+    synchronized JsonValue toJsonValue(String transport) {
+        return json(object(
+                field("transport", transport),
+                field("delivered", delivered),
+                field("deliveredAfterNotification", deliveredAfterNotification),
+                field("deliveredByPolling", delivered - deliveredAfterNotification),
+                field("latency", deliveryLatencies.toMap()),
+                field("notifications", object(
+                        field("sent", notificationsSent),
+                        field("failed", notificationsFailed),
+                        field("received", notificationsReceived),
+                        field("acknowledged", roundTrips.count),
+                        field("roundTrip", roundTrips.toMap())))));
+    }
+
+    /**
+     * Latencies measured in nanoseconds, reported in fractional milliseconds.
+     */
+    private static class Latencies {
+
+        private final long[] recent = new long[RECENT_DELIVERIES];
+        private long count;
+        private long sum;
+        private long max;
+
+        void record(long latency) {
+            latency = Math.max(0L, latency);
+            recent[(int) (count % RECENT_DELIVERIES)] = latency;
+            count++;
+            sum += latency;
+            max = Math.max(max, latency);
+        }
+
+        Map<String, Object> toMap() {
+            long[] sorted = Arrays.copyOf(recent, (int) Math.min(count, RECENT_DELIVERIES));
+            Arrays.sort(sorted);
+            return object(
+                    field("mean", millis(count > 0 ? sum / count : 0L)),
+                    field("p50", millis(percentile(sorted, 0.5))),
+                    field("p90", millis(percentile(sorted, 0.9))),
+                    field("p99", millis(percentile(sorted, 0.99))),
+                    field("max", millis(max)));
+        }
+
+        private static double millis(long nanos) {
+            return (double) nanos / TimeUnit.MILLISECONDS.toNanos(1);
+        }
+
+        private static long percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0L;
+            }
+            return sorted[(int) Math.min(sorted.length - 1, Math.ceil(percentile * sorted.length) - 1)];
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.cluster;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * A transport notifying the other instances of a cluster that cluster events are pending for them.
+ * <p>
+ * Cluster events are always stored in the repository, which remains the only source of events. A transport
+ * only carries a wake-up notification so that the notified instance processes its pending events without
+ * waiting for its next check-in. Notifications are best effort: an instance that misses one still finds
+ * its events by polling the repository. A transport may acknowledge notifications, so that the sender can
+ * measure their round trip on its own clock.
+ */
+public interface ClusterEventTransport {
+
+    /**
+     * Receives the notifications and acknowledgements of a transport.
+     */
+    interface Listener {
+
+        /**
+         * Called when this instance is notified of pending events.
+         */
+        void notified();
+
+        /**
+         * Called when another instance acknowledges a notification sent by this instance.
+         *
+         * @param roundTrip the nanoseconds from sending the notification to receiving its acknowledgement
+         */
+        void acknowledged(long roundTrip);
+    }
+
+    /**
+     * Starts receiving notifications for this instance.
+     *
+     * @param instanceId the id of this instance
+     * @param listener called when this instance is notified of pending events, or a notification it sent
+     *                 is acknowledged
+     * @throws IOException if the transport could not be started
+     */
+    void start(String instanceId, Listener listener) throws IOException;
+
+    /**
+     * Stops receiving notifications.
+     */
+    void stop();
+
+    /**
+     * Returns whether this transport pushes notifications, or relies on polling the repository only.
+     *
+     * @return true if other instances can be notified through this transport
+     */
+    boolean isPush();
+
+    /**
+     * Returns the endpoint other instances notify this instance at, published with the instance state.
+     *
+     * @return the endpoint of this instance, or null if this instance cannot be notified
+     */
+    Map<String, Object> getEndpoint();
+
+    /**
+     * Notifies another instance that cluster events are pending for it.
+     *
+     * @param instanceId the id of the instance to notify
+     * @param endpoint the endpoint published by the instance
+     * @return true if the notification was sent, false otherwise
+     */
+    boolean notify(String instanceId, Map<String, Object> endpoint);
+}
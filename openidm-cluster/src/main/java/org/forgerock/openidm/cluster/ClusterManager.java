@@ -27,9 +27,11 @@ package org.forgerock.openidm.cluster;
 import static org.forgerock.json.JsonValue.field;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newActionResponse;
 import static org.forgerock.json.resource.Responses.newResourceResponse;
 import static org.forgerock.openidm.util.ResourceUtil.notSupported;
 
+import java.io.IOException;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -41,6 +43,7 @@ import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -115,6 +118,11 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
      */
     public static final String QUERY_EVENTS = "query-cluster-events";
 
+    /**
+     * Action returning the delivery statistics of the cluster events received by this instance
+     */
+    public static final String ACTION_EVENT_STATISTICS = "eventStatistics";
+
     /**
      * Resource name when issuing requests over the router
      */
@@ -164,6 +172,16 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
      */
     private ClusterConfig clusterConfig;
 
+    /**
+     * The transport notifying instances of pending cluster events
+     */
+    private volatile ClusterEventTransport eventTransport = new RepoEventTransport();
+
+    /**
+     * The delivery statistics of the cluster events received by this instance
+     */
+    private final ClusterEventStatistics eventStatistics = new ClusterEventStatistics();
+
     /**
      * The current state of this instance
      */
@@ -203,11 +221,28 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
 
         if (clusterConfig.isEnabled()) {
             enabled = true;
+            eventTransport = newEventTransport(clusterConfig);
             clusterManagerThread = new ClusterManagerThread(clusterConfig.getInstanceCheckInInterval(), 
             		clusterConfig.getInstanceCheckInOffset());
         }
     }
 
+    /**
+     * Creates the event transport configured for the cluster.
+     *
+     * @param config the cluster configuration
+     * @return the event transport
+     */
+    private static ClusterEventTransport newEventTransport(ClusterConfig config) {
+        String type = config.getEventTransportType();
+        if (DatagramEventTransport.TYPE.equals(type)) {
+            return new DatagramEventTransport(config.getEventTransport());
+        } else if (!RepoEventTransport.TYPE.equals(type)) {
+            logger.warn("Unknown cluster event transport {}, using the repository", type);
+        }
+        return new RepoEventTransport();
+    }
+
     @Deactivate
     void deactivate(ComponentContext compContext) {
         logger.debug("Deactivating Cluster Management Service {}", compContext);
@@ -405,18 +440,19 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
     }
     
     /**
-     * Gets a list of all instances in the cluster
+     * Gets the states of all instances in the cluster
      * 
-     * @return a list of Map objects representing each instance in the cluster
+     * @return a list of the states of each instance in the cluster
      * @throws ResourceException
      */
-    private List<Map<String, Object>> getInstances() throws ResourceException {
-        List<Map<String, Object>> instanceList = new ArrayList<Map<String, Object>>();
+    private List<InstanceState> getInstances() throws ResourceException {
+        List<InstanceState> instanceList = new ArrayList<InstanceState>();
         QueryRequest queryRequest = Requests.newQueryRequest(STATES_RESOURCE_CONTAINER.toString())
                 .setQueryId(QUERY_INSTANCES);
         List<ResourceResponse> results = repoService.query(queryRequest);
         for (ResourceResponse resource : results) {
-            instanceList.add(getInstanceMap(resource.getContent()));
+            JsonValue content = resource.getContent();
+            instanceList.add(new InstanceState(content.get("instanceId").asString(), content.asMap()));
         }
         return instanceList;
     }
@@ -479,6 +515,7 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
                 state.clearShutdown();
                 firstCheckin = false;
             }
+            state.setEventEndpoint(eventTransport.getEndpoint());
             switch (state.getState()) {
             case InstanceState.STATE_RUNNING:
                 // just update the timestamp
@@ -669,8 +706,8 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
     public void sendEvent(ClusterEvent event) {
         try {
             // Loop through instances, creating a pending event for each instance in the cluster
-            for (Map<String, Object> instanceMap : getInstances()) {
-                String instanceId = (String) instanceMap.get("instanceId");
+            for (InstanceState instance : getInstances()) {
+                String instanceId = instance.getInstanceId();
                 if (!instanceId.equals(this.instanceId)) {
                     JsonValue newEvent = json(object(
                             field("type", "event"),
@@ -679,6 +716,12 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
                     CreateRequest createRequest = Requests.newCreateRequest(EVENTS_RESOURCE_CONTAINER.toString(), newEvent);
                     ResourceResponse result = repoService.create(createRequest);
                     logger.debug("Creating cluster event {}", result.getId());
+                    // Wake up running instances, which otherwise find the event at their next poll
+                    if (eventTransport.isPush() && instance.getState() == InstanceState.STATE_RUNNING
+                            && instance.getEventEndpoint() != null) {
+                        eventStatistics.notificationSent(
+                                eventTransport.notify(instanceId, instance.getEventEndpoint()));
+                    }
                 }
             }
         } catch (ResourceException e) {
@@ -689,8 +732,11 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
     /**
      * Finds and processes any pending cluster events for this node.  The event will then 
      * be deleting if the processing was successful.
+     *
+     * @param notifiedAt the {@link System#nanoTime()} at which this instance was notified of pending events,
+     *                   or null if it polls for them
      */
-    private void processPendingEvents() {
+    private void processPendingEvents(Long notifiedAt) {
         try {
             // Find all pending cluster events for this instance
             logger.debug("Querying cluster events");
@@ -719,8 +765,9 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
                     // Send event to all listeners
                     success = sendEventToListeners(event);
                 }
-                // If the event was successfully processed, delete it
+                // If the event was successfully processed, record its delivery and delete it
                 if (success) {
+                    eventStatistics.delivered(notifiedAt, System.nanoTime());
                     try {
                         logger.debug("Deleting cluster event {}", resource.getId());
                         DeleteRequest deleteRequest = Requests.newDeleteRequest(EVENTS_RESOURCE_CONTAINER.toString(), resource.getId());
@@ -758,6 +805,9 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
         private ScheduledExecutorService scheduler = Executors.newScheduledThreadPool(1);
         private ScheduledFuture<?> handler;
         private boolean running = false;
+        private long lastEventPoll = 0L;
+        private final AtomicBoolean notificationPending = new AtomicBoolean(false);
+        private volatile long notifiedAt;
 
         public ClusterManagerThread(long checkinInterval, long checkinOffset) {
             this.checkinInterval = checkinInterval;
@@ -767,6 +817,7 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
         public void startup() {
             running = true;
             logger.info("Starting the cluster manager thread");
+            startEventTransport();
             handler = scheduler.scheduleAtFixedRate(new Runnable() {
                 public void run() {
                     try {
@@ -800,8 +851,12 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
                         // Set current state
                         currentState = state;
 
-                        // Check for pending cluster events
-                        processPendingEvents();
+                        // Check for pending cluster events, at every check-in unless notified of them
+                        long now = System.currentTimeMillis();
+                        if (!eventTransport.isPush() || now - lastEventPoll >= clusterConfig.getEventPollInterval()) {
+                            lastEventPoll = now;
+                            processPendingEvents(null);
+                        }
                         
                         // Find failed instances
                         logger.debug("Finding failed instances");
@@ -827,9 +882,62 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
             if (handler != null) {
                 handler.cancel(true);
             }
+            eventTransport.stop();
             running = false;
         }
 
+        /**
+         * Starts receiving notifications of pending events, falling back to polling the repository at
+         * every check-in if the configured event transport cannot be started.
+         */
+        private void startEventTransport() {
+            try {
+                eventTransport.start(instanceId, new ClusterEventTransport.Listener() {
+                    public void notified() {
+                        eventStatistics.notificationReceived();
+                        ClusterManagerThread.this.notified(System.nanoTime());
+                    }
+
+                    public void acknowledged(long roundTrip) {
+                        eventStatistics.notificationAcknowledged(roundTrip);
+                    }
+                });
+            } catch (IOException e) {
+                logger.warn("Failed to start the cluster event transport, polling the repository for events", e);
+                eventTransport = new RepoEventTransport();
+            }
+        }
+
+        /**
+         * Processes pending events on the cluster manager thread. Notifications received while events
+         * are waiting to be processed are coalesced, and their latency is measured from the first one.
+         *
+         * @param receivedAt the {@link System#nanoTime()} at which the notification was received
+         */
+        private void notified(long receivedAt) {
+            if (running && notificationPending.compareAndSet(false, true)) {
+                notifiedAt = receivedAt;
+                try {
+                    scheduler.execute(new Runnable() {
+                        public void run() {
+                            long receivedAt = notifiedAt;
+                            notificationPending.set(false);
+                            try {
+                                if (running && !failed) {
+                                    processPendingEvents(receivedAt);
+                                }
+                            } catch (Exception e) {
+                                logger.error("Error processing notified cluster events", e);
+                            }
+                        }
+                    });
+                } catch (RuntimeException e) {
+                    notificationPending.set(false);
+                    logger.debug("Failed to schedule the processing of notified cluster events", e);
+                }
+            }
+        }
+
         public boolean isRunning() {
             return running;
         }
@@ -837,6 +945,10 @@ public class ClusterManager implements RequestHandler, ClusterManagementService
 
     @Override
     public Promise<ActionResponse, ResourceException>  handleAction(Context context, ActionRequest request) {
+        if (ACTION_EVENT_STATISTICS.equals(request.getAction())) {
+            String transport = eventTransport.isPush() ? clusterConfig.getEventTransportType() : RepoEventTransport.TYPE;
+            return newActionResponse(eventStatistics.toJsonValue(transport)).asPromise();
+        }
         return notSupported(request).asPromise();
     }
 
@@ -0,0 +1,270 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.cluster;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.forgerock.json.JsonValue;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A {@link ClusterEventTransport} notifying instances with UDP datagrams.
+ * <p>
+ * Each instance listens on a UDP port and publishes its host and port with its instance state. A
+ * notification is a single datagram naming the notified instance; it carries no event data, so a forged
+ * or misdirected datagram can at most make an instance poll the repository early. Lost datagrams are
+ * covered by the repository polling fallback.
+ * <p>
+ * A notification also carries a probe number, which the notified instance sends back in an acknowledgement
+ * datagram. The sender measures the round trip with {@link System#nanoTime()}, so it does not depend on the
+ * clocks of the instances being synchronized.
+ * <p>
+ * Configured with the following properties of the {@code eventTransport} object of the cluster configuration:
+ * <ul>
+ *     <li>{@code host}: the host other instances send notifications to, by default the address of the
+ *     local host</li>
+ *     <li>{@code bindAddress}: the address to listen on, by default all addresses</li>
+ *     <li>{@code port}: the port to listen on, by default an ephemeral port</li>
+ * </ul>
+ */
+class DatagramEventTransport implements ClusterEventTransport {
+
+    private static final Logger logger = LoggerFactory.getLogger(DatagramEventTransport.class);
+
+    /** The transport type in the cluster configuration */
+    static final String TYPE = "udp";
+
+    private static final String PROP_HOST = "host";
+    private static final String PROP_PORT = "port";
+    private static final String PROP_BIND_ADDRESS = "bindAddress";
+    private static final String PROP_TYPE = "type";
+
+    private static final String MESSAGE_PREFIX = "openidm-cluster-events:";
+    private static final String ACK_PREFIX = "openidm-cluster-events-ack:";
+    private static final char PROBE_SEPARATOR = '#';
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_MESSAGE_LENGTH = 512;
+
+    /** The maximum number of notifications awaiting an acknowledgement */
+    private static final int MAX_PENDING_PROBES = 1024;
+    /** The time after which an unacknowledged notification is no longer awaited */
+    private static final long PROBE_TIMEOUT = TimeUnit.SECONDS.toNanos(10);
+
+    /** The initial and maximum delays before receiving again after a receive failure, in milliseconds */
+    private static final long MIN_RECEIVE_BACKOFF = 100L;
+    private static final long MAX_RECEIVE_BACKOFF = 5000L;
+
+    private final String host;
+    private final String bindAddress;
+    private final int port;
+
+    private volatile DatagramSocket socket;
+    private volatile String advertisedHost;
+    private Thread receiver;
+
+    /** The send times of the notifications awaiting an acknowledgement, by probe number */
+    private final ConcurrentMap<Long, Long> pendingProbes = new ConcurrentHashMap<Long, Long>();
+    private final AtomicLong nextProbe = new AtomicLong(new Random().nextLong());
+
+    /**
+     * Creates a datagram transport.
+     *
+     * @param config the {@code eventTransport} object of the cluster configuration
+     */
+    DatagramEventTransport(JsonValue config) {
+        this.host = config.get(PROP_HOST).asString();
+        this.bindAddress = config.get(PROP_BIND_ADDRESS).asString();
+        this.port = config.get(PROP_PORT).defaultTo(0).asInteger();
+    }
+
+    @Override
+    public synchronized void start(final String instanceId, final Listener listener) throws IOException {
+        advertisedHost = host != null ? host : InetAddress.getLocalHost().getHostAddress();
+        final DatagramSocket socket = bindAddress != null
+                ? new DatagramSocket(new InetSocketAddress(bindAddress, port))
+                : new DatagramSocket(port);
+        this.socket = socket;
+        receiver = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] buffer = new byte[MAX_MESSAGE_LENGTH];
+                long backoff = 0L;
+                while (!socket.isClosed()) {
+                    DatagramPacket packet = new DatagramPacket(buffer, buffer.length);
+                    try {
+                        socket.receive(packet);
+                        backoff = 0L;
+                    } catch (IOException e) {
+                        if (socket.isClosed()) {
+                            break;
+                        }
+                        // Do not spin on a socket that keeps failing
+                        if (backoff == 0L) {
+                            logger.warn("Failed to receive a cluster event notification", e);
+                            backoff = MIN_RECEIVE_BACKOFF;
+                        } else {
+                            logger.debug("Failed to receive a cluster event notification", e);
+                            backoff = Math.min(backoff * 2, MAX_RECEIVE_BACKOFF);
+                        }
+                        try {
+                            Thread.sleep(backoff);
+                        } catch (InterruptedException ie) {
+                            Thread.currentThread().interrupt();
+                            break;
+                        }
+                        continue;
+                    }
+                    received(instanceId, packet, listener);
+                }
+            }
+        }, "Cluster event transport " + socket.getLocalPort());
+        receiver.setDaemon(true);
+        receiver.start();
+        logger.info("Listening for cluster event notifications on port {}", socket.getLocalPort());
+    }
+
+    /**
+     * Handles a received datagram: acknowledges and reports a notification for this instance, or reports the
+     * round trip of an acknowledged notification.
+     */
+    private void received(String instanceId, DatagramPacket packet, Listener listener) {
+        String message = new String(packet.getData(), packet.getOffset(), packet.getLength(), UTF_8);
+        String notificationPrefix = MESSAGE_PREFIX + instanceId + PROBE_SEPARATOR;
+        if (message.startsWith(notificationPrefix)) {
+            Long probe = parseProbe(message.substring(notificationPrefix.length()));
+            if (probe != null) {
+                acknowledge(probe, packet.getSocketAddress());
+                listener.notified();
+                return;
+            }
+        } else if (message.startsWith(ACK_PREFIX)) {
+            Long probe = parseProbe(message.substring(ACK_PREFIX.length()));
+            Long sent = probe != null ? pendingProbes.remove(probe) : null;
+            if (sent != null) {
+                listener.acknowledged(System.nanoTime() - sent);
+                return;
+            }
+        }
+        logger.debug("Ignoring a datagram from {} that is not a notification for this instance",
+                packet.getSocketAddress());
+    }
+
+    private void acknowledge(long probe, SocketAddress sender) {
+        DatagramSocket socket = this.socket;
+        if (socket == null) {
+            return;
+        }
+        try {
+            byte[] ack = (ACK_PREFIX + probe).getBytes(UTF_8);
+            socket.send(new DatagramPacket(ack, ack.length, sender));
+        } catch (IOException e) {
+            logger.debug("Failed to acknowledge a cluster event notification from {}", sender, e);
+        }
+    }
+
+    private static Long parseProbe(String probe) {
+        try {
+            return Long.valueOf(probe);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the number of a new probe awaiting an acknowledgement, forgetting the probes that are no
+     * longer awaited.
+     */
+    private long newProbe() {
+        long probe = nextProbe.incrementAndGet();
+        long now = System.nanoTime();
+        if (pendingProbes.size() >= MAX_PENDING_PROBES) {
+            for (Iterator<Long> sent = pendingProbes.values().iterator(); sent.hasNext();) {
+                if (now - sent.next() > PROBE_TIMEOUT) {
+                    sent.remove();
+                }
+            }
+        }
+        if (pendingProbes.size() < MAX_PENDING_PROBES) {
+            pendingProbes.put(probe, now);
+        }
+        return probe;
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (socket != null) {
+            socket.close();
+            socket = null;
+        }
+        if (receiver != null) {
+            receiver.interrupt();
+            receiver = null;
+        }
+        pendingProbes.clear();
+    }
+
+    @Override
+    public boolean isPush() {
+        return true;
+    }
+
+    @Override
+    public Map<String, Object> getEndpoint() {
+        DatagramSocket socket = this.socket;
+        if (socket == null) {
+            return null;
+        }
+        return object(
+                field(PROP_TYPE, TYPE),
+                field(PROP_HOST, advertisedHost),
+                field(PROP_PORT, socket.getLocalPort()));
+    }
+
+    @Override
+    public boolean notify(String instanceId, Map<String, Object> endpoint) {
+        DatagramSocket socket = this.socket;
+        if (socket == null || endpoint == null || !TYPE.equals(endpoint.get(PROP_TYPE))) {
+            return false;
+        }
+        try {
+            String host = (String) endpoint.get(PROP_HOST);
+            int port = Integer.parseInt(String.valueOf(endpoint.get(PROP_PORT)));
+            byte[] message = (MESSAGE_PREFIX + instanceId + PROBE_SEPARATOR + newProbe()).getBytes(UTF_8);
+            socket.send(new DatagramPacket(message, message.length, new InetSocketAddress(host, port)));
+            return true;
+        } catch (IOException | RuntimeException e) {
+            logger.debug("Failed to notify instance {} at {}", instanceId, endpoint, e);
+            return false;
+        }
+    }
+}
@@ -44,6 +44,7 @@ public class InstanceState {
     public final static String PROP_TIMESTAMP_RECOVERY_STARTED  = "recoveryStarted";
     public final static String PROP_TIMESTAMP_RECOVERY_FINISHED = "recoveryFinished";
     public final static String PROP_RECOVERY_ATTEMPTS           = "recoveryAttempts";
+    public final static String PROP_EVENT_ENDPOINT              = "eventEndpoint";
     public final static String PROP_TYPE                        = "type";
     public final static String PROP_REV                         = "_rev";
     public final static String PROP_ID                          = "_id";
@@ -59,9 +60,11 @@ public class InstanceState {
     private long recoveryFinished;
     private long recoveringTimestamp;
     private String recoveringInstanceId;
+    private Map<String, Object> eventEndpoint;
     private String rev;
     private String id;
     
+    @SuppressWarnings("unchecked")
     public InstanceState(String instanceId, Map<String, Object> map) {
         this.instanceId = instanceId;
         this.recoveringInstanceId = (String)map.get(PROP_RECOVERING_INSTANCE_ID);
@@ -82,6 +85,7 @@ public class InstanceState {
             Long.parseLong((String)map.get(PROP_TIMESTAMP_RECOVERY_FINISHED)));
         this.recoveryAttempts = ((map.get(PROP_RECOVERY_ATTEMPTS) == null) ? 0 : 
             (Integer)map.get(PROP_RECOVERY_ATTEMPTS));
+        this.eventEndpoint = (Map<String, Object>)map.get(PROP_EVENT_ENDPOINT);
         this.rev = (String)map.get(PROP_REV);
         this.id = (String)map.get(PROP_ID);
     }
@@ -113,6 +117,7 @@ public class InstanceState {
         map.put(PROP_TIMESTAMP_RECOVERY_STARTED, pad(getRecoveryStarted()));
         map.put(PROP_TIMESTAMP_RECOVERY_FINISHED, pad(getRecoveryFinished()));
         map.put(PROP_RECOVERY_ATTEMPTS, getRecoveryAttempts());
+        map.put(PROP_EVENT_ENDPOINT, getEventEndpoint());
         map.put(PROP_REV, getRevision());
         map.put(PROP_ID, id);
         map.put(PROP_TYPE, "state");
@@ -229,6 +234,19 @@ public class InstanceState {
         this.recoveringInstanceId = recoveringInstanceId;
     }
 
+    /**
+     * Returns the endpoint at which this instance is notified of pending cluster events.
+     *
+     * @return the endpoint published by the event transport of the instance, or null
+     */
+    public Map<String, Object> getEventEndpoint() {
+        return eventEndpoint;
+    }
+
+    public void setEventEndpoint(Map<String, Object> eventEndpoint) {
+        this.eventEndpoint = eventEndpoint;
+    }
+
     public long getRecoveryStarted() {
         return recoveryStarted;
     }
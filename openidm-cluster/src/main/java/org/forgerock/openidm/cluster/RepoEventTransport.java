@@ -0,0 +1,53 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.cluster;
+
+import java.util.Map;
+
+/**
+ * The default {@link ClusterEventTransport}, which does not notify other instances: each instance finds
+ * its pending cluster events by polling the repository at every check-in.
+ */
+class RepoEventTransport implements ClusterEventTransport {
+
+    /** The transport type in the cluster configuration */
+    static final String TYPE = "repo";
+
+    @Override
+    public void start(String instanceId, Listener listener) {
+        // Nothing to receive
+    }
+
+    @Override
+    public void stop() {
+        // Nothing to stop
+    }
+
+    @Override
+    public boolean isPush() {
+        return false;
+    }
+
+    @Override
+    public Map<String, Object> getEndpoint() {
+        return null;
+    }
+
+    @Override
+    public boolean notify(String instanceId, Map<String, Object> endpoint) {
+        return false;
+    }
+}
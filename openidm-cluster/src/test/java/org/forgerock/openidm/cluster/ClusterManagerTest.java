@@ -10,6 +10,7 @@ import org.assertj.core.api.Assertions;
 import org.forgerock.openidm.router.IDMConnectionFactoryWrapper;
 import org.forgerock.services.context.RootContext;
 import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ActionResponse;
 import org.forgerock.json.resource.ReadRequest;
 import org.forgerock.json.resource.RequestHandler;
 import org.forgerock.json.resource.Requests;
@@ -79,6 +80,15 @@ public class ClusterManagerTest {
     	Assertions.assertThat(clusterService.isStarted()).isTrue();    	
     }
 
+    @Test
+    public void testEventStatistics() throws Exception {
+    	final ActionResponse response = clusterHandler.handleAction(new RootContext(),
+    			Requests.newActionRequest("", ClusterManager.ACTION_EVENT_STATISTICS)).get();
+    	Assertions.assertThat(response.getJsonContent().get("transport").asString()).isEqualTo("repo");
+    	Assertions.assertThat(response.getJsonContent().get("delivered").asLong()).isEqualTo(0L);
+    	Assertions.assertThat(response.getJsonContent().get("latency").get("max").asDouble()).isEqualTo(0.0);
+    }
+
 	
 	
 }
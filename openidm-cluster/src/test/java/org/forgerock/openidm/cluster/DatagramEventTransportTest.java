@@ -0,0 +1,120 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.cluster;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests {@link DatagramEventTransport}
+ */
+public class DatagramEventTransportTest {
+
+    private DatagramEventTransport sender;
+    private DatagramEventTransport receiver;
+    private final CountDownLatch notified = new CountDownLatch(1);
+    private final AtomicInteger notifications = new AtomicInteger();
+    private final CountDownLatch acknowledged = new CountDownLatch(1);
+    private final AtomicLong roundTrip = new AtomicLong(-1L);
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        sender = new DatagramEventTransport(json(object(field("host", "127.0.0.1"))));
+        sender.start("node1", new ClusterEventTransport.Listener() {
+            public void notified() {
+                // not notified in these tests
+            }
+
+            public void acknowledged(long nanos) {
+                roundTrip.set(nanos);
+                acknowledged.countDown();
+            }
+        });
+        receiver = new DatagramEventTransport(json(object(
+                field("host", "127.0.0.1"),
+                field("bindAddress", "127.0.0.1"))));
+        receiver.start("node2", new ClusterEventTransport.Listener() {
+            public void notified() {
+                notifications.incrementAndGet();
+                notified.countDown();
+            }
+
+            public void acknowledged(long nanos) {
+                // sends no notifications in these tests
+            }
+        });
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        sender.stop();
+        receiver.stop();
+    }
+
+    @Test
+    public void testEndpoint() {
+        Map<String, Object> endpoint = receiver.getEndpoint();
+        assertThat(endpoint.get("type")).isEqualTo("udp");
+        assertThat(endpoint.get("host")).isEqualTo("127.0.0.1");
+        assertThat((Integer) endpoint.get("port")).isGreaterThan(0);
+        assertThat(receiver.isPush()).isTrue();
+    }
+
+    @Test
+    public void testNotify() throws Exception {
+        assertThat(sender.notify("node2", receiver.getEndpoint())).isTrue();
+        assertThat(notified.await(5, TimeUnit.SECONDS)).isTrue();
+    }
+
+    @Test
+    public void testNotificationRoundTrip() throws Exception {
+        assertThat(sender.notify("node2", receiver.getEndpoint())).isTrue();
+        assertThat(acknowledged.await(5, TimeUnit.SECONDS)).isTrue();
+        assertThat(roundTrip.get()).isGreaterThanOrEqualTo(0L);
+    }
+
+    @Test
+    public void testIgnoresNotificationForOtherInstance() throws Exception {
+        assertThat(sender.notify("node3", receiver.getEndpoint())).isTrue();
+        assertThat(notified.await(500, TimeUnit.MILLISECONDS)).isFalse();
+        assertThat(notifications.get()).isEqualTo(0);
+        assertThat(acknowledged.getCount()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testNotifyWithoutEndpoint() {
+        assertThat(sender.notify("node2", null)).isFalse();
+        assertThat(sender.notify("node2", json(object(field("type", "repo"))).asMap())).isFalse();
+    }
+
+    @Test
+    public void testStop() {
+        receiver.stop();
+        assertThat(receiver.getEndpoint()).isNull();
+    }
+}
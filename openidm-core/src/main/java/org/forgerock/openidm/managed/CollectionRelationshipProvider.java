@@ -142,6 +142,20 @@ class CollectionRelationshipProvider extends RelationshipProvider implements Col
         }
     }
 
+    /** {@inheritDoc} */
+    @Override
+    protected JsonValue joinRelationships(final Context context, final String resourceId,
+            final List<ResourceResponse> relationships) {
+        final String resourceFullPath = resourceContainer.child(resourceId).toString();
+        final JsonValue buf = json(array());
+
+        for (ResourceResponse relationship : relationships) {
+            buf.add(formatRelationship(resourceFullPath, relationship).getContent().getObject());
+        }
+
+        return buf;
+    }
+
     @Override
     public Promise<JsonValue, ResourceException> setRelationshipValueForResource(final boolean clearExisting, Context context, String resourceId,
             JsonValue relationships) {
@@ -65,6 +65,7 @@ import org.forgerock.json.resource.Responses;
 import org.forgerock.json.resource.SortKey;
 import org.forgerock.json.resource.UpdateRequest;
 import org.forgerock.openidm.audit.util.ActivityLogger;
+import org.forgerock.openidm.audit.util.QueryActivitySummary;
 import org.forgerock.openidm.audit.util.RouterActivityLogger;
 import org.forgerock.openidm.audit.util.Status;
 import org.forgerock.openidm.core.IdentityServer;
@@ -148,6 +149,9 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
      */
     private static final Logger logger = LoggerFactory.getLogger(ManagedObjectSet.class);
 
+    /** The maximum number of query results to populate the relationship fields of with one query per field */
+    private static final int MAX_RELATIONSHIP_PAGE_SIZE = 100;
+
     /** The managed objects service that instantiated this managed object set. */
     private final CryptoService cryptoService;
 
@@ -720,36 +724,17 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
         try {
             final JsonValue joined = json(object());
 
-            /*
-             * Create set only containing the head of request fields
-             * Allows for a relationship to be fetched when only an expansion is requested.
-             * ie. a field of foo/name will retrieve the foo relationship
-             */
-            final Set<JsonPointer> fieldHeads = new HashSet<>();
-            for (JsonPointer field : requestFields) {
-                // A blank _fields param can yield a single '/' (empty) pointer
-                if (!field.isEmpty()) {
-                    fieldHeads.add(new JsonPointer(field.get(0)));
-                }
-            }
-
-            for (Map.Entry<JsonPointer, RelationshipProvider> entry : relationshipProviders.entrySet()) {
+            for (Map.Entry<JsonPointer, RelationshipProvider> entry
+                    : getRequestedRelationshipProviders(requestFields).entrySet()) {
                 final JsonPointer field = entry.getKey();
                 final RelationshipProvider provider = entry.getValue();
 
-                if (requestFields.contains(SchemaField.FIELD_ALL_RELATIONSHIPS)
-                        || provider.getSchemaField().isReturnedByDefault()
-                        || fieldHeads.contains(field)) { // only check head of request fields (see above)
-                    try {
-                        joined.put(field, provider.getRelationshipValueForResource(context,
-                                resourceId).getOrThrow().getObject());
-                    } catch (NotFoundException e) {
-                        logger.debug("No {} relationships found for {}", field, resourceId);
-                        joined.put(field, null);
-                    }
-                } else {
-                    // relationship was not requested or set to return by default
-                    logger.debug("Relationship field {} skipped", field);
+                try {
+                    joined.put(field, provider.getRelationshipValueForResource(context,
+                            resourceId).getOrThrow().getObject());
+                } catch (NotFoundException e) {
+                    logger.debug("No {} relationships found for {}", field, resourceId);
+                    joined.put(field, null);
                 }
             }
 
@@ -759,6 +744,83 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
         }
     }
 
+    /**
+     * Fetch the current relationship(s) for a page of query results, issuing one repository query per
+     * relationship field for all resources of the page instead of one per field and resource.
+     * The relationship fields of each resource are put into its content.
+     *
+     * @param context The current context
+     * @param resources The resources to fetch relationships of
+     * @param requestFields The fields requested in the initial request
+     * @throws ResourceException if the relationships could not be read
+     */
+    private void fetchRelationshipFields(final Context context, final List<ResourceResponse> resources,
+            final List<JsonPointer> requestFields) throws ResourceException {
+        EventEntry measure = Publisher.start(Name.get("openidm/internal/managed/set/fetchRelationshipFieldsBatch"),
+                resources.size(), context);
+
+        try {
+            final Map<String, ResourceResponse> resourcesById = new LinkedHashMap<>();
+            for (ResourceResponse resource : resources) {
+                resourcesById.put(resource.getId(), resource);
+            }
+
+            for (Map.Entry<JsonPointer, RelationshipProvider> entry
+                    : getRequestedRelationshipProviders(requestFields).entrySet()) {
+                final JsonPointer field = entry.getKey();
+                final Map<String, JsonValue> values = entry.getValue().getRelationshipValuesForResources(context,
+                        resourcesById.keySet());
+                for (Map.Entry<String, JsonValue> value : values.entrySet()) {
+                    resourcesById.get(value.getKey()).getContent().put(field,
+                            value.getValue() == null ? null : value.getValue().getObject());
+                }
+            }
+        } finally {
+            measure.end();
+        }
+    }
+
+    /**
+     * Returns the relationship providers of the relationship fields set to be returned by default
+     * or specified in the {@link ReadRequest#getFields()}
+     *
+     * @param requestFields The fields requested in the initial request
+     * @return The requested relationship providers keyed by their field
+     */
+    private Map<JsonPointer, RelationshipProvider> getRequestedRelationshipProviders(
+            final List<JsonPointer> requestFields) {
+        final Map<JsonPointer, RelationshipProvider> requested = new LinkedHashMap<>();
+
+        /*
+         * Create set only containing the head of request fields
+         * Allows for a relationship to be fetched when only an expansion is requested.
+         * ie. a field of foo/name will retrieve the foo relationship
+         */
+        final Set<JsonPointer> fieldHeads = new HashSet<>();
+        for (JsonPointer field : requestFields) {
+            // A blank _fields param can yield a single '/' (empty) pointer
+            if (!field.isEmpty()) {
+                fieldHeads.add(new JsonPointer(field.get(0)));
+            }
+        }
+
+        for (Map.Entry<JsonPointer, RelationshipProvider> entry : relationshipProviders.entrySet()) {
+            final JsonPointer field = entry.getKey();
+            final RelationshipProvider provider = entry.getValue();
+
+            if (requestFields.contains(SchemaField.FIELD_ALL_RELATIONSHIPS)
+                    || provider.getSchemaField().isReturnedByDefault()
+                    || fieldHeads.contains(field)) { // only check head of request fields (see above)
+                requested.put(field, provider);
+            } else {
+                // relationship was not requested or set to return by default
+                logger.debug("Relationship field {} skipped", field);
+            }
+        }
+
+        return requested;
+    }
+
     /**
      * This will traverse the jsonValue and validate that all relationship references are valid.
      *
@@ -1030,8 +1092,7 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
                 ? false
                 : Boolean.parseBoolean(executeOnRetrieve);
 
-        final List<Map<String,Object>> results = new ArrayList<Map<String,Object>>();
-        final ResourceException[] ex = new ResourceException[]{null};
+        final QueryActivitySummary summary = new QueryActivitySummary(activityLogger);
         try {
             // Create new QueryRequest to send to the repository
             // Does not include any fields specified in the current request
@@ -1048,49 +1109,19 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
                 repoRequest.setAdditionalParameter(key, request.getAdditionalParameter(key));
             }
         	
-        	QueryResponse queryResponse = connectionFactory.getConnection().query(managedContext, repoRequest,
-            		new QueryResourceHandler() {
-                @Override
-                public boolean handleResource(ResourceResponse resource) {
-                    ResourceResponse resourceResponse = null;
-                    // Check if the onRetrieve script should be run
-                    if (onRetrieve) {
-                        try {
-                            onRetrieve(managedContext, request, resource.getId(), resource);
-                        } catch (ResourceException e) {
-                        	ex[0] = e;
-                            return false;
-                        }
-                    }
-                    if (ServerConstants.QUERY_ALL_IDS.equals(request.getQueryId())) {
-                        // Don't populate relationships if this is a query-all-ids query.
-                        resourceResponse = resource;    
-                    } else {
-                        // Populate the relationship fields
-                        try {
-                            JsonValue relationships = fetchRelationshipFields(managedContext, resource.getId(), request.getFields());
-                            resource.getContent().asMap().putAll(relationships.asMap());
-                            resourceResponse = prepareResponse(managedContext, resource, request.getFields());
-                        } catch (ResourceException e) {
-                            ex[0] = e;
-                            return false;
-                        } catch (Exception e) {
-                            ex[0] = new InternalServerErrorException(e.getMessage(), e);
-                            return false;
-                        }
-                    }
-                    results.add(resourceResponse.getContent().asMap());
-                    return handler.handleResource(prepareResponse(managedContext, resourceResponse, request.getFields()));
-                }
-            });
-        	
-        	if(ex[0] != null) {
-            	return ex[0].asPromise();
-        	}
-        	
+            final RelationshipQueryResourceHandler queryHandler =
+                    new RelationshipQueryResourceHandler(managedContext, request, handler, onRetrieve, summary);
+            QueryResponse queryResponse = connectionFactory.getConnection().query(managedContext, repoRequest,
+                    queryHandler);
+            queryHandler.flush();
+
+            if (queryHandler.error != null) {
+                return queryHandler.error.asPromise();
+            }
+
             activityLogger.log(managedContext, request, 
-            		"query: " + request.getQueryId() + ", parameters: " + request.getAdditionalParameters(), 
-            		request.getQueryId(), null, new JsonValue(results), Status.SUCCESS);
+                    "query: " + request.getQueryId() + ", parameters: " + request.getAdditionalParameters(),
+                    request.getQueryId(), null, summary.toJsonValue(), Status.SUCCESS);
             
         	return queryResponse.asPromise();
 
@@ -1101,6 +1132,95 @@ class ManagedObjectSet implements CollectionResourceProvider, ScriptListener, Ma
         }
     }
 
+    /**
+     * Handles the repository results of a managed object query, populating the relationship fields of the results
+     * a page at a time with one relationship query per field.
+     */
+    private final class RelationshipQueryResourceHandler implements QueryResourceHandler {
+
+        private final Context context;
+        private final QueryRequest request;
+        private final QueryResourceHandler handler;
+        private final boolean onRetrieve;
+        private final boolean populateRelationships;
+        private final QueryActivitySummary summary;
+        private final List<ResourceResponse> page = new ArrayList<>();
+        private boolean stopped = false;
+
+        /** The first error that stopped the query, if any */
+        ResourceException error = null;
+
+        RelationshipQueryResourceHandler(Context context, QueryRequest request, QueryResourceHandler handler,
+                boolean onRetrieve, QueryActivitySummary summary) {
+            this.context = context;
+            this.request = request;
+            this.handler = handler;
+            this.onRetrieve = onRetrieve;
+            // Don't populate relationships if this is a query-all-ids query.
+            this.populateRelationships = !ServerConstants.QUERY_ALL_IDS.equals(request.getQueryId());
+            this.summary = summary;
+        }
+
+        @Override
+        public boolean handleResource(ResourceResponse resource) {
+            // Check if the onRetrieve script should be run
+            if (onRetrieve) {
+                try {
+                    onRetrieve(context, request, resource.getId(), resource);
+                } catch (ResourceException e) {
+                    return stop(e);
+                }
+            }
+            if (!populateRelationships) {
+                summary.add(resource);
+                return handle(resource);
+            }
+            page.add(resource);
+            return page.size() < MAX_RELATIONSHIP_PAGE_SIZE || flush();
+        }
+
+        /**
+         * Populates the relationship fields of the buffered results and passes them to the handler.
+         *
+         * @return false if the query should stop
+         */
+        boolean flush() {
+            if (stopped || page.isEmpty()) {
+                return !stopped;
+            }
+            try {
+                fetchRelationshipFields(context, page, request.getFields());
+                for (ResourceResponse resource : page) {
+                    ResourceResponse resourceResponse = prepareResponse(context, resource, request.getFields());
+                    summary.add(resourceResponse);
+                    if (!handle(resourceResponse)) {
+                        return false;
+                    }
+                }
+                return true;
+            } catch (ResourceException e) {
+                return stop(e);
+            } catch (Exception e) {
+                return stop(new InternalServerErrorException(e.getMessage(), e));
+            } finally {
+                page.clear();
+            }
+        }
+
+        private boolean handle(ResourceResponse resourceResponse) {
+            if (!handler.handleResource(prepareResponse(context, resourceResponse, request.getFields()))) {
+                stopped = true;
+            }
+            return !stopped;
+        }
+
+        private boolean stop(ResourceException e) {
+            error = e;
+            stopped = true;
+            return false;
+        }
+    }
+
     @Override
     public Promise<ActionResponse, ResourceException> actionInstance(Context context, String resourceId, 
     		ActionRequest request) {
@@ -24,8 +24,11 @@ import static org.forgerock.openidm.sync.impl.SynchronizationService.SyncService
 import static org.forgerock.openidm.util.RelationshipUtil.*;
 import static org.forgerock.openidm.util.ResourceUtil.*;
 import static org.forgerock.util.promise.Promises.newResultPromise;
+import static org.forgerock.util.query.QueryFilter.*;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -45,6 +48,7 @@ import org.forgerock.json.resource.InternalServerErrorException;
 import org.forgerock.json.resource.PatchRequest;
 import org.forgerock.json.resource.PreconditionFailedException;
 import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
 import org.forgerock.json.resource.ReadRequest;
 import org.forgerock.json.resource.Request;
 import org.forgerock.json.resource.RequestHandler;
@@ -62,6 +66,7 @@ import org.forgerock.util.Function;
 import org.forgerock.util.promise.NeverThrowsException;
 import org.forgerock.util.promise.Promise;
 import org.forgerock.util.promise.ResultHandler;
+import org.forgerock.util.query.QueryFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -199,43 +204,55 @@ public abstract class RelationshipProvider {
                 
                 @Override
                 public ResourceResponse apply(final ResourceResponse raw) {
-                    final JsonValue rawContent = raw.getContent();
-                    final JsonValue formatted = json(object());
-                    final Map<String, Object> properties = new LinkedHashMap<>();
-                    final Map<String, Object> repoProperties = rawContent.get(REPO_FIELD_PROPERTIES).asMap();
-                    final String ref;
-
-                    // set the field reference
-                    if (schemaField.isReverseRelationship()
-                            && !rawContent.get(REPO_FIELD_FIRST_ID).asString().equals(resourceFullPath)) {
-                        ref = rawContent.get(REPO_FIELD_FIRST_ID).asString();
-                    } else {
-                        ref = rawContent.get(REPO_FIELD_SECOND_ID).asString();
-                    }
-
-                    if (repoProperties != null) {
-                        properties.putAll(repoProperties);
-                    }
-
-                    properties.put(FIELD_CONTENT_ID, raw.getId());
-                    properties.put(FIELD_CONTENT_REVISION, raw.getRevision());
-
-                    formatted.put(SchemaField.FIELD_REFERENCE, ref);
-                    formatted.put(SchemaField.FIELD_PROPERTIES, properties);
-
-                    // If has error, append error flag and message.
-                    if (rawContent.get(REFERENCE_ERROR).defaultTo(false).asBoolean()) {
-                        formatted.put(REFERENCE_ERROR, true);
-                        formatted.put(REFERENCE_ERROR_MESSAGE,
-                                rawContent.get(REFERENCE_ERROR_MESSAGE).defaultTo("").asString());
-                    }
-
-                    // Return the resource without _id or _rev
-                    return newResourceResponse(null, null, formatted);
+                    return formatRelationship(resourceFullPath, raw);
                 }
             };
     }
 
+    /**
+     * Formats a relationship resource from the repository for the resource at the given path.
+     *
+     * @param resourceFullPath the full path of the resource the relationship is read for
+     * @param raw the relationship resource from the repository
+     * @return the relationship in the provider response format
+     * @see #formatResponseNoException(Context, Request)
+     */
+    protected ResourceResponse formatRelationship(final String resourceFullPath, final ResourceResponse raw) {
+        final JsonValue rawContent = raw.getContent();
+        final JsonValue formatted = json(object());
+        final Map<String, Object> properties = new LinkedHashMap<>();
+        final Map<String, Object> repoProperties = rawContent.get(REPO_FIELD_PROPERTIES).asMap();
+        final String ref;
+
+        // set the field reference
+        if (schemaField.isReverseRelationship()
+                && !rawContent.get(REPO_FIELD_FIRST_ID).asString().equals(resourceFullPath)) {
+            ref = rawContent.get(REPO_FIELD_FIRST_ID).asString();
+        } else {
+            ref = rawContent.get(REPO_FIELD_SECOND_ID).asString();
+        }
+
+        if (repoProperties != null) {
+            properties.putAll(repoProperties);
+        }
+
+        properties.put(FIELD_CONTENT_ID, raw.getId());
+        properties.put(FIELD_CONTENT_REVISION, raw.getRevision());
+
+        formatted.put(SchemaField.FIELD_REFERENCE, ref);
+        formatted.put(SchemaField.FIELD_PROPERTIES, properties);
+
+        // If has error, append error flag and message.
+        if (rawContent.get(REFERENCE_ERROR).defaultTo(false).asBoolean()) {
+            formatted.put(REFERENCE_ERROR, true);
+            formatted.put(REFERENCE_ERROR_MESSAGE,
+                    rawContent.get(REFERENCE_ERROR_MESSAGE).defaultTo("").asString());
+        }
+
+        // Return the resource without _id or _rev
+        return newResourceResponse(null, null, formatted);
+    }
+
     /**
      * On a create of a relationship, this will sync the referenced object after the update is completed.
      */
@@ -333,6 +350,87 @@ public abstract class RelationshipProvider {
     public abstract Promise<JsonValue, ResourceException> getRelationshipValueForResource(Context context, 
             String resourceId);
 
+    /**
+     * Get the full relationship representation for this provider for several resources, reading the relationships
+     * of all of them with a single repository query. This is equivalent to calling
+     * {@link #getRelationshipValueForResource(Context, String)} for each resource, but avoids a repository
+     * round trip per resource when populating the relationships of query results.
+     *
+     * @param context Context of this request
+     * @param resourceIds Ids of the resources to fetch relationships on
+     *
+     * @return The relationship value per resource id, in the order of the supplied ids; the value is null if the
+     *         resource has no relationship for a singleton relationship field
+     * @throws ResourceException if the relationships could not be read
+     */
+    public Map<String, JsonValue> getRelationshipValuesForResources(final Context context,
+            final Collection<String> resourceIds) throws ResourceException {
+        final Map<String, String> idsByPath = new HashMap<>();
+        final Map<String, List<ResourceResponse>> relationships = new LinkedHashMap<>();
+        final List<QueryFilter<JsonPointer>> firstIdFilters = new ArrayList<>();
+        final List<QueryFilter<JsonPointer>> secondIdFilters = new ArrayList<>();
+        for (String resourceId : resourceIds) {
+            final String resourceFullPath = resourceContainer.child(resourceId).toString();
+            idsByPath.put(resourceFullPath, resourceId);
+            relationships.put(resourceId, new ArrayList<ResourceResponse>());
+            firstIdFilters.add(equalTo(new JsonPointer(REPO_FIELD_FIRST_ID), resourceFullPath));
+            secondIdFilters.add(equalTo(new JsonPointer(REPO_FIELD_SECOND_ID), resourceFullPath));
+        }
+
+        final Map<String, JsonValue> values = new LinkedHashMap<>();
+        if (relationships.isEmpty()) {
+            return values;
+        }
+
+        // Same match as the RELATIONSHIP_QUERY_ID query, for all resources at once
+        final String fieldName = schemaField.getName();
+        final QueryRequest queryRequest = Requests.newQueryRequest(REPO_RESOURCE_PATH)
+                .setQueryFilter(or(
+                        and(equalTo(new JsonPointer(REPO_FIELD_FIRST_PROPERTY_NAME), fieldName), or(firstIdFilters)),
+                        and(equalTo(new JsonPointer(REPO_FIELD_SECOND_PROPERTY_NAME), fieldName),
+                                or(secondIdFilters))));
+
+        getConnection().query(context, queryRequest, new QueryResourceHandler() {
+            @Override
+            public boolean handleResource(ResourceResponse resource) {
+                final JsonValue content = resource.getContent();
+                if (fieldName.equals(content.get(REPO_FIELD_FIRST_PROPERTY_NAME).asString())) {
+                    addRelationship(content.get(REPO_FIELD_FIRST_ID).asString(), resource);
+                }
+                if (fieldName.equals(content.get(REPO_FIELD_SECOND_PROPERTY_NAME).asString())) {
+                    addRelationship(content.get(REPO_FIELD_SECOND_ID).asString(), resource);
+                }
+                return true;
+            }
+
+            private void addRelationship(String resourceFullPath, ResourceResponse resource) {
+                final String resourceId = idsByPath.get(resourceFullPath);
+                if (resourceId != null) {
+                    relationships.get(resourceId).add(resource);
+                }
+            }
+        });
+
+        for (Map.Entry<String, List<ResourceResponse>> entry : relationships.entrySet()) {
+            values.put(entry.getKey(), joinRelationships(context, entry.getKey(), entry.getValue()));
+        }
+        return values;
+    }
+
+    /**
+     * Joins the relationships read from the repository for a resource into the full relationship representation
+     * returned by {@link #getRelationshipValueForResource(Context, String)}.
+     *
+     * @param context Context of this request
+     * @param resourceId Id of the resource the relationships were read for
+     * @param relationships The relationship resources from the repository, not yet formatted
+     *
+     * @return The full representation of the relationship, or null if there is none
+     * @throws ResourceException if the relationships could not be joined
+     */
+    protected abstract JsonValue joinRelationships(Context context, String resourceId,
+            List<ResourceResponse> relationships) throws ResourceException;
+
     /**
      * Set the supplied {@link JsonValue} as the current state of this relationship. This will support updating any 
      * existing relationship (_id is present) and remove any relationship not present in the value from the repository.
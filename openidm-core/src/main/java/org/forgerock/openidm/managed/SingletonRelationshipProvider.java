@@ -111,6 +111,21 @@ class SingletonRelationshipProvider extends RelationshipProvider implements Sing
         }
     }
     
+    /** {@inheritDoc} */
+    @Override
+    protected JsonValue joinRelationships(final Context context, final String resourceId,
+            final List<ResourceResponse> relationships) throws ResourceException {
+        if (relationships.isEmpty()) {
+            return null;
+        } else if (relationships.size() == 1) {
+            return formatRelationship(resourceContainer.child(resourceId).toString(), relationships.get(0))
+                    .getContent();
+        } else {
+            // Multiple references are an error; let the single resource read report it
+            return getRelationshipValueForResource(context, resourceId).getOrThrowUninterruptibly();
+        }
+    }
+    
     /**
      * Queries relationships, returning the relationship associated with this providers resource path and the specified 
      * relationship field.
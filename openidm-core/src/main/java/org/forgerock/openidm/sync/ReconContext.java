@@ -19,13 +19,14 @@ package org.forgerock.openidm.sync;
 import static org.forgerock.util.Reject.checkNotNull;
 
 import org.forgerock.json.JsonValue;
+import org.forgerock.openidm.util.ProfiledContext;
 import org.forgerock.services.context.AbstractContext;
 import org.forgerock.services.context.Context;
 
 /**
  * A context to store reconciliation data on the request context chain
  */
-public class ReconContext extends AbstractContext {
+public class ReconContext extends AbstractContext implements ProfiledContext {
 
     /** The name of the Context */
     private static final String CONTEXT_NAME = "recon";
@@ -61,4 +62,14 @@ public class ReconContext extends AbstractContext {
         this.data.put(key, value);
     }
 
+    /**
+     * Returns the label of the scripts evaluated for the mapping being reconciled.
+     *
+     * @return recon:<i>mapping</i>
+     */
+    @Override
+    public String getProfileLabel() {
+        return CONTEXT_NAME + ":" + data.get(ATTR_MAPPING).asString();
+    }
+
 }
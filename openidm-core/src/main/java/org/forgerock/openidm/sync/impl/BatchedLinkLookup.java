@@ -0,0 +1,155 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * Looks up the links of the entries of a reconciliation phase a batch of entries at a time.
+ * <p>
+ * The entries are read ahead in batches, and the links of each batch are read with one query per
+ * link qualifier and chunk of ids, matching the ids in the repository. The ids are only compared
+ * for equality, in the repository and then in memory against the normalized ids, so the links
+ * are found whatever order the entries come in and whatever collation the repository sorts by.
+ * At most one batch of links is held in memory.
+ */
+class BatchedLinkLookup {
+
+    /** The maximum number of ids matched by a single link query, well under the bind limits of the databases */
+    static final int MAX_IDS_PER_QUERY = 100;
+
+    private final ObjectMapping mapping;
+    private final Collection<String> linkQualifiers;
+    private final boolean bySource;
+    private final int batchSize;
+    private List<ResultEntry> batchEntries = Collections.emptyList();
+    private Map<String, Map<String, Link>> batchLinks = null;
+
+    /**
+     * Constructs the lookup.
+     *
+     * @param mapping the mapping to look up the links of
+     * @param linkQualifiers the link qualifiers to look up the links of
+     * @param bySource true to look up the links by source id, false to look them up by target id
+     * @param batchSize the number of entries to read ahead and look up the links of at once
+     */
+    BatchedLinkLookup(ObjectMapping mapping, Collection<String> linkQualifiers, boolean bySource, int batchSize) {
+        this.mapping = mapping;
+        this.linkQualifiers = linkQualifiers;
+        this.bySource = bySource;
+        this.batchSize = Math.max(1, batchSize);
+    }
+
+    /**
+     * Returns the entries read ahead in batches. The links of a batch are read when the links of its
+     * first entry are requested, so the links of an entry must be requested with {@link #linksFor(String)}
+     * before the next entry is read.
+     *
+     * @param entries the entries of the reconciliation phase
+     * @return the same entries
+     */
+    Iterator<ResultEntry> batch(final Iterator<ResultEntry> entries) {
+        return new Iterator<ResultEntry>() {
+            private Iterator<ResultEntry> batch = Collections.<ResultEntry>emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                if (!batch.hasNext() && entries.hasNext()) {
+                    List<ResultEntry> next = new ArrayList<ResultEntry>(batchSize);
+                    while (next.size() < batchSize && entries.hasNext()) {
+                        next.add(entries.next());
+                    }
+                    batchEntries = next;
+                    batchLinks = null;
+                    batch = next.iterator();
+                }
+                return batch.hasNext();
+            }
+
+            @Override
+            public ResultEntry next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return batch.next();
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+        };
+    }
+
+    /**
+     * Returns the links found for an id of the current batch.
+     *
+     * @param normalizedId the normalized source or target id
+     * @return the links for the id, keyed by link qualifier and then by the id, in the form expected for pre-fetched
+     * links. Every link qualifier is present, with an empty map if there is no link for the id.
+     * @throws SynchronizationException if reading the links of the batch failed
+     */
+    Map<String, Map<String, Link>> linksFor(String normalizedId) throws SynchronizationException {
+        if (batchLinks == null) {
+            batchLinks = load(batchEntries);
+        }
+        Map<String, Map<String, Link>> links = new HashMap<String, Map<String, Link>>(linkQualifiers.size());
+        for (String linkQualifier : linkQualifiers) {
+            Link link = batchLinks.get(linkQualifier).get(normalizedId);
+            links.put(linkQualifier, link == null
+                    ? Collections.<String, Link>emptyMap()
+                    : Collections.singletonMap(normalizedId, link));
+        }
+        return links;
+    }
+
+    /**
+     * Reads the links of a batch of entries.
+     *
+     * @param entries the entries of the batch
+     * @return the links of the entries, keyed by link qualifier and then by the normalized id, in the form
+     * expected for pre-fetched links
+     * @throws SynchronizationException if reading the links failed
+     */
+    Map<String, Map<String, Link>> load(List<ResultEntry> entries) throws SynchronizationException {
+        List<String> ids = new ArrayList<String>(entries.size());
+        for (ResultEntry entry : entries) {
+            ids.add(bySource
+                    ? mapping.getLinkType().normalizeSourceId(entry.getId())
+                    : mapping.getLinkType().normalizeTargetId(entry.getId()));
+        }
+        Map<String, Map<String, Link>> links = new HashMap<String, Map<String, Link>>(linkQualifiers.size());
+        for (String linkQualifier : linkQualifiers) {
+            Map<String, Link> byId = new HashMap<String, Link>();
+            for (int from = 0; from < ids.size(); from += MAX_IDS_PER_QUERY) {
+                List<Link> found = Link.getLinksForIds(mapping, linkQualifier, bySource,
+                        ids.subList(from, Math.min(ids.size(), from + MAX_IDS_PER_QUERY)));
+                for (Link link : found) {
+                    byId.put(bySource ? link.sourceId : link.targetId, link);
+                }
+            }
+            links.put(linkQualifier, byId);
+        }
+        return links;
+    }
+}
@@ -0,0 +1,239 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.services.context.Context;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The source phase of a full reconciliation run, split into {@link ReconWorkUnit work units} reconciled by
+ * all instances of the cluster.
+ * <p>
+ * The coordinating instance, which runs the reconciliation, queries the source ids page by page as for a
+ * local source phase and publishes them in work units of a fixed number of ids, notifying the other
+ * instances once the first unit is published and once all are. Each instance, the coordinating one
+ * included, then claims and reconciles units with the thread pool of its own reconciliation runs.
+ * The coordinating instance adds the results of the units completed by other instances to the run
+ * statistics, and removes the targets they handled from the targets remaining for the target phase,
+ * which it runs alone once all units have completed.
+ * <p>
+ * A unit that another instance keeps claimed, without saving it, for longer than the work unit timeout is
+ * released, and then claimed again by any instance, the coordinating one included. The claim is timed on the
+ * clock of the coordinating instance from when it first sees the claimed revision of the unit, so the clocks
+ * of the instances need not be synchronized. An instance still reconciling a released unit fails to save
+ * it, and its entries are reconciled again by the instance claiming the unit next.
+ */
+class ClusteredSourcePhase {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ClusteredSourcePhase.class);
+
+    /** The interval, in milliseconds, at which the units completed by other instances are polled */
+    static final long POLL_INTERVAL = 1000L;
+
+    /** The default time, in milliseconds, after which a unit still claimed by another instance is released */
+    static final long DEFAULT_WORK_UNIT_TIMEOUT = TimeUnit.MINUTES.toMillis(10);
+
+    private final ObjectMapping mapping;
+    private final ReconciliationContext reconContext;
+    private final Context context;
+    private final int workUnitSize;
+    private final long workUnitTimeout;
+    private final ConnectionFactory connectionFactory;
+    private final String reconId;
+
+    /** The units claimed by other instances, by id, with the revision they were first seen claimed with */
+    private final Map<String, ObservedClaim> observedClaims = new HashMap<String, ObservedClaim>();
+
+    /**
+     * Creates the clustered source phase of a reconciliation run.
+     *
+     * @param mapping the mapping reconciled
+     * @param reconContext the context of the run
+     * @param context the context to reconcile the entries with
+     * @param workUnitSize the number of source ids per work unit
+     * @param workUnitTimeout the time, in milliseconds, after which a unit still claimed by another instance
+     * is released
+     */
+    ClusteredSourcePhase(ObjectMapping mapping, ReconciliationContext reconContext, Context context,
+            int workUnitSize, long workUnitTimeout) {
+        this.mapping = mapping;
+        this.reconContext = reconContext;
+        this.context = context;
+        this.workUnitSize = workUnitSize > 0 ? workUnitSize : ReconFeeder.DEFAULT_FEED_SIZE;
+        this.workUnitTimeout = workUnitTimeout > 0 ? workUnitTimeout : DEFAULT_WORK_UNIT_TIMEOUT;
+        this.connectionFactory = reconContext.getService().getConnectionFactory();
+        this.reconId = reconContext.getReconId();
+    }
+
+    /**
+     * Publishes the source ids in work units and reconciles them until all units have completed.
+     *
+     * @param sourceQueryResult the first page of source ids
+     * @param pageSize the page size of the source queries, or 0 if the source ids are not paged
+     * @param remainingTargetIds the targets remaining for the target phase, from which the handled
+     * targets are removed
+     * @throws SynchronizationException if a work unit failed or could not be published
+     * @throws InterruptedException if interrupted while waiting for the other instances
+     */
+    void execute(ReconQueryResult sourceQueryResult, int pageSize, Collection<String> remainingTargetIds)
+            throws SynchronizationException, InterruptedException {
+        boolean completed = false;
+        try {
+            int published = publish(sourceQueryResult, pageSize);
+            LOGGER.info("Published {} work units of recon {} on mapping {}",
+                    new Object[] { published, reconId, mapping.getName() });
+            int finished = 0;
+            while (finished < published) {
+                reconContext.checkCanceled();
+                ReconWorkUnit unit = ReconWorkUnit.claim(connectionFactory, context, reconId,
+                        reconContext.getService().getInstanceId());
+                if (unit != null) {
+                    mapping.reconWorkUnit(reconContext, context, unit.getIds(), remainingTargetIds);
+                    unit.delete(connectionFactory, context);
+                    finished++;
+                    continue;
+                }
+                int merged = mergeFinished(remainingTargetIds);
+                finished += merged;
+                if (merged == 0 && finished < published) {
+                    releaseTimedOutClaims();
+                    Thread.sleep(POLL_INTERVAL);
+                }
+            }
+            completed = true;
+        } finally {
+            if (!completed) {
+                ReconWorkUnit.deleteAll(connectionFactory, context, reconId);
+            }
+        }
+    }
+
+    /**
+     * Publishes the source ids in work units.
+     *
+     * @return the number of published units
+     */
+    private int publish(ReconQueryResult sourceQueryResult, int pageSize) throws SynchronizationException {
+        int published = 0;
+        List<String> ids = new ArrayList<String>(workUnitSize);
+        while (true) {
+            Iterator<ResultEntry> entries = sourceQueryResult.getIterator();
+            while (entries.hasNext()) {
+                ids.add(entries.next().getId());
+                if (ids.size() == workUnitSize) {
+                    publish(published++, ids);
+                    ids = new ArrayList<String>(workUnitSize);
+                }
+            }
+            if (pageSize <= 0 || sourceQueryResult.getPagingCookie() == null) {
+                break;
+            }
+            reconContext.checkCanceled();
+            sourceQueryResult = reconContext.querySourceIter(pageSize, sourceQueryResult.getPagingCookie());
+        }
+        if (!ids.isEmpty()) {
+            publish(published++, ids);
+        }
+        if (published > 1) {
+            reconContext.getService().workUnitsPublished(reconId);
+        }
+        return published;
+    }
+
+    private void publish(int index, List<String> ids) throws SynchronizationException {
+        ReconWorkUnit.publish(connectionFactory, context, reconId, mapping.getName(),
+                reconContext.getService().getInstanceId(), index, ids, reconContext.getOverridingConfig());
+        if (index == 0) {
+            // Let the other instances start while the remaining units are published
+            reconContext.getService().workUnitsPublished(reconId);
+        }
+    }
+
+    /**
+     * Adds the results of the units finished by other instances to the run, and deletes the units.
+     *
+     * @return the number of finished units
+     * @throws SynchronizationException if a unit failed
+     */
+    private int mergeFinished(Collection<String> remainingTargetIds) throws SynchronizationException {
+        int merged = 0;
+        for (ReconWorkUnit unit : ReconWorkUnit.queryFinished(connectionFactory, context, reconId)) {
+            if (unit.getState() == ReconWorkUnit.State.FAILED) {
+                throw new SynchronizationException("Work unit " + unit.getId() + " of recon " + reconId
+                        + " failed: " + unit.getError());
+            }
+            reconContext.getStatistics().addSourcePhaseResults(unit.getResults());
+            for (String targetId : unit.getHandledTargetIds()) {
+                remainingTargetIds.remove(targetId);
+            }
+            unit.delete(connectionFactory, context);
+            merged++;
+        }
+        if (merged == 0 && !ReconWorkUnit.exists(connectionFactory, context, reconId)) {
+            // The units were deleted, as when this instance was taken for failed and recovered
+            throw new SynchronizationException("The work units of recon " + reconId + " were deleted");
+        }
+        return merged;
+    }
+
+    /**
+     * Releases the units that stayed claimed with the same revision for longer than the work unit timeout.
+     *
+     * @throws SynchronizationException if the claimed units could not be queried
+     */
+    private void releaseTimedOutClaims() throws SynchronizationException {
+        long now = System.nanoTime();
+        Set<String> claimed = new HashSet<String>();
+        for (ReconWorkUnit unit : ReconWorkUnit.queryClaimed(connectionFactory, context, reconId)) {
+            claimed.add(unit.getId());
+            ObservedClaim observed = observedClaims.get(unit.getId());
+            if (observed == null || !observed.revision.equals(unit.getRevision())) {
+                observedClaims.put(unit.getId(), new ObservedClaim(unit.getRevision(), now));
+            } else if (now - observed.since >= TimeUnit.MILLISECONDS.toNanos(workUnitTimeout)) {
+                LOGGER.warn("Releasing work unit {} of recon {}, claimed by instance {} for over {} ms",
+                        new Object[] { unit.getId(), reconId, unit.getInstanceId(), workUnitTimeout });
+                unit.release(connectionFactory, context);
+                observedClaims.remove(unit.getId());
+            }
+        }
+        observedClaims.keySet().retainAll(claimed);
+    }
+
+    /**
+     * A claimed revision of a unit, and the {@link System#nanoTime()} at which it was first seen.
+     */
+    private static final class ObservedClaim {
+        private final String revision;
+        private final long since;
+
+        ObservedClaim(String revision, long since) {
+            this.revision = revision;
+            this.since = since;
+        }
+    }
+}
@@ -55,6 +55,10 @@ class Condition {
          * A condition evaluated by a matching "queryFilter".
          */
         QUERY_FILTER,
+        /**
+         * A condition evaluated by a compiled expression.
+         */
+        EXPRESSION,
         /**
          * A condition which always passes. This is used if a null configuration is passed in.
          */
@@ -75,6 +79,11 @@ class Condition {
      * The condition script if configured
      */
     private Script script;
+
+    /**
+     * The condition expression if configured
+     */
+    private Expressions.Expression expression;
     
     /**
      * The constructor.
@@ -86,6 +95,9 @@ class Condition {
             init(Type.TRUE, null, null);
         } else if (config.isString()) {
             init(Type.QUERY_FILTER, QueryFilters.parse(config.asString()), null);
+        } else if (config.isMap() && config.isDefined("expression")) {
+            init(Type.EXPRESSION, null, null);
+            expression = Expressions.compile(config.get("expression"));
         } else {
             init(Type.SCRIPTED, null, Scripts.newInstance(config));
         }
@@ -118,6 +130,8 @@ class Condition {
             return true;
         case QUERY_FILTER:
             return queryFilter == null ? false : queryFilter.accept(JSONVALUE_FILTER_VISITOR, params);
+        case EXPRESSION:
+            return Boolean.TRUE.equals(expression.evaluate(params));
         case SCRIPTED:
             Map<String, Object> scope = new HashMap<String, Object>();
             try {
@@ -0,0 +1,45 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+
+/**
+ * A source entry whose correlation query results were already retrieved as part of a batch.
+ */
+class CorrelatedResultEntry extends ResultEntry {
+    private final Map<String, JsonValue> correlations;
+
+    /**
+     * @param id the identifier
+     * @param value the loaded source object
+     * @param correlations the correlation results, keyed by link qualifier
+     */
+    CorrelatedResultEntry(String id, JsonValue value, Map<String, JsonValue> correlations) {
+        super(id, value);
+        this.correlations = correlations;
+    }
+
+    /**
+     * @param linkQualifier the link qualifier
+     * @return the correlation results for the link qualifier, or null if it was not correlated in the batch
+     */
+    JsonValue getCorrelation(String linkQualifier) {
+        return correlations.get(linkQualifier);
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.query.QueryFilterVisitor;
+
+/**
+ * Evaluates correlation query filters against target objects in memory, to fan the results of a
+ * combined correlation query back out to the individual source objects.
+ * <p>
+ * Only the filters correlation queries are made of are supported: equality, and, or, not and
+ * boolean literals. Any other filter evaluates to {@code null}, so a correlation query using it
+ * is run on its own rather than batched.
+ */
+final class CorrelationFilterMatcher {
+
+    private static final JsonValue EMPTY = new JsonValue(Collections.emptyMap());
+
+    private static final QueryFilterVisitor<Boolean, JsonValue, JsonPointer> EXACT = new Matcher(false);
+    private static final QueryFilterVisitor<Boolean, JsonValue, JsonPointer> IGNORE_CASE = new Matcher(true);
+
+    private CorrelationFilterMatcher() {
+    }
+
+    /**
+     * @param filter the filter to check
+     * @return true if the filter can be evaluated in memory
+     */
+    static boolean isSupported(QueryFilter<JsonPointer> filter) {
+        return filter.accept(EXACT, EMPTY) != null;
+    }
+
+    /**
+     * Evaluates a filter against an object.
+     *
+     * @param filter the filter to evaluate
+     * @param object the object to match
+     * @param ignoreCase whether strings are compared ignoring case
+     * @return whether the object matches, or null if the filter is not supported
+     */
+    static Boolean matches(QueryFilter<JsonPointer> filter, JsonValue object, boolean ignoreCase) {
+        return filter.accept(ignoreCase ? IGNORE_CASE : EXACT, object);
+    }
+
+    private static final class Matcher implements QueryFilterVisitor<Boolean, JsonValue, JsonPointer> {
+        private final boolean ignoreCase;
+
+        Matcher(boolean ignoreCase) {
+            this.ignoreCase = ignoreCase;
+        }
+
+        @Override
+        public Boolean visitAndFilter(JsonValue p, List<QueryFilter<JsonPointer>> subFilters) {
+            Boolean result = Boolean.TRUE;
+            for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                Boolean matched = subFilter.accept(this, p);
+                if (matched == null) {
+                    return null;
+                }
+                result = result && matched;
+            }
+            return result;
+        }
+
+        @Override
+        public Boolean visitOrFilter(JsonValue p, List<QueryFilter<JsonPointer>> subFilters) {
+            Boolean result = Boolean.FALSE;
+            for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                Boolean matched = subFilter.accept(this, p);
+                if (matched == null) {
+                    return null;
+                }
+                result = result || matched;
+            }
+            return result;
+        }
+
+        @Override
+        public Boolean visitNotFilter(JsonValue p, QueryFilter<JsonPointer> subFilter) {
+            Boolean matched = subFilter.accept(this, p);
+            return matched == null ? null : !matched;
+        }
+
+        @Override
+        public Boolean visitBooleanLiteralFilter(JsonValue p, boolean value) {
+            return value;
+        }
+
+        @Override
+        public Boolean visitEqualsFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            JsonValue value = p.get(field);
+            if (value == null || value.isNull()) {
+                return Boolean.FALSE;
+            }
+            if (value.isList()) {
+                for (Object element : value.asList()) {
+                    if (valueEquals(element, valueAssertion)) {
+                        return Boolean.TRUE;
+                    }
+                }
+                return Boolean.FALSE;
+            }
+            return valueEquals(value.getObject(), valueAssertion);
+        }
+
+        private boolean valueEquals(Object value, Object valueAssertion) {
+            if (value instanceof String && valueAssertion instanceof String) {
+                return ignoreCase
+                        ? ((String) value).equalsIgnoreCase((String) valueAssertion)
+                        : value.equals(valueAssertion);
+            } else if (value instanceof Number && valueAssertion instanceof Number) {
+                return ((Number) value).doubleValue() == ((Number) valueAssertion).doubleValue();
+            } else if (value instanceof Boolean && valueAssertion instanceof Boolean) {
+                return value.equals(valueAssertion);
+            }
+            return false;
+        }
+
+        @Override
+        public Boolean visitContainsFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitExtendedMatchFilter(JsonValue p, JsonPointer field, String operator,
+                Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitGreaterThanFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitGreaterThanOrEqualToFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitLessThanFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitLessThanOrEqualToFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitPresentFilter(JsonValue p, JsonPointer field) {
+            return null;
+        }
+
+        @Override
+        public Boolean visitStartsWithFilter(JsonValue p, JsonPointer field, Object valueAssertion) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,577 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+import org.apache.commons.lang3.StringUtils;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.JsonValueException;
+import org.joda.time.format.DateTimeFormat;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
+
+/**
+ * Compiles declarative property mapping transforms and conditions into trees of {@link Expression}s, so
+ * that they are parsed once when the mapping is loaded and evaluated without a script engine.
+ * <p>
+ * An expression is a literal, a field or a function call:
+ * <ul>
+ *     <li>literals are quoted strings, {@code 'value'} or {@code "value"}, numbers, {@code true},
+ *     {@code false} and {@code null}</li>
+ *     <li>fields are paths into the evaluation scope, e.g. {@code source} or {@code linkQualifier} in a
+ *     transform, {@code object/roles} or {@code oldSource/mail} in a condition</li>
+ *     <li>function calls are {@code name(argument, ...)}, where the arguments are expressions</li>
+ * </ul>
+ * For example, {@code lower(concat(source, '@example.com'))} or {@code contains(object/roles, 'admin')}.
+ * The functions are:
+ * <ul>
+ *     <li>{@code lower(s)}, {@code upper(s)}, {@code trim(s)} - null if {@code s} is null</li>
+ *     <li>{@code concat(a, b, ...)} - the concatenation of the non-null values</li>
+ *     <li>{@code default(v, d)} - {@code v} if it is not null, {@code d} otherwise</li>
+ *     <li>{@code substring(s, begin[, end])} - the substring, with the indexes clamped to the string</li>
+ *     <li>{@code replace(s, target, replacement)} - {@code s} with every occurrence of {@code target} replaced</li>
+ *     <li>{@code split(s, separator)}, {@code join(list, separator)}</li>
+ *     <li>{@code formatDate(date, 'pattern'[, 'inputPattern'])} - reformats a date, read as ISO 8601 by
+ *     default, with a Joda-Time pattern; the patterns must be literals</li>
+ *     <li>{@code contains(v, x)} - whether the list {@code v} has an element equal to {@code x}, or the string
+ *     {@code v} contains {@code x}</li>
+ *     <li>{@code eq(a, b)}, {@code ne(a, b)}, {@code isEmpty(v)}, {@code not(c)}, {@code and(c, ...)},
+ *     {@code or(c, ...)}</li>
+ * </ul>
+ * Numbers are equal if they have the same value, whatever their type.
+ */
+final class Expressions {
+
+    /**
+     * A compiled expression.
+     */
+    interface Expression {
+        /**
+         * Evaluates the expression.
+         *
+         * @param scope the values the fields of the expression refer to
+         * @return the value of the expression, may be null
+         */
+        Object evaluate(JsonValue scope);
+    }
+
+    /**
+     * A function of the expression language, which compiles a call from its arguments.
+     */
+    private abstract static class Function {
+        private final int minArguments;
+        private final int maxArguments;
+
+        Function(int minArguments, int maxArguments) {
+            this.minArguments = minArguments;
+            this.maxArguments = maxArguments;
+        }
+
+        abstract Expression compile(List<Expression> arguments);
+    }
+
+    private static final Map<String, Function> FUNCTIONS = new HashMap<String, Function>();
+
+    private Expressions() {
+    }
+
+    /**
+     * Compiles an expression.
+     *
+     * @param config the expression
+     * @return the compiled expression
+     * @throws JsonValueException if the expression is not a string or is invalid
+     */
+    static Expression compile(JsonValue config) throws JsonValueException {
+        String source = config.required().asString();
+        try {
+            Parser parser = new Parser(source);
+            Expression expression = parser.parseExpression();
+            parser.skipWhitespace();
+            if (!parser.atEnd()) {
+                throw parser.error("unexpected input");
+            }
+            return expression;
+        } catch (IllegalArgumentException e) {
+            throw new JsonValueException(config, "Invalid expression " + source + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * A recursive descent parser of one expression.
+     */
+    private static final class Parser {
+        private final String source;
+        private int position = 0;
+
+        Parser(String source) {
+            this.source = source;
+        }
+
+        boolean atEnd() {
+            return position >= source.length();
+        }
+
+        IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position);
+        }
+
+        void skipWhitespace() {
+            while (!atEnd() && Character.isWhitespace(source.charAt(position))) {
+                position++;
+            }
+        }
+
+        Expression parseExpression() {
+            skipWhitespace();
+            if (atEnd()) {
+                throw error("expected an expression");
+            }
+            char c = source.charAt(position);
+            if (c == '\'' || c == '"') {
+                return literal(parseString(c));
+            } else if (c == '-' || Character.isDigit(c)) {
+                return literal(parseNumber());
+            }
+            String name = parseName();
+            skipWhitespace();
+            if (!atEnd() && source.charAt(position) == '(') {
+                position++;
+                return parseCall(name);
+            } else if ("true".equals(name)) {
+                return literal(Boolean.TRUE);
+            } else if ("false".equals(name)) {
+                return literal(Boolean.FALSE);
+            } else if ("null".equals(name)) {
+                return literal(null);
+            }
+            return field(new JsonPointer(name));
+        }
+
+        private String parseString(char quote) {
+            StringBuilder value = new StringBuilder();
+            position++;
+            while (!atEnd()) {
+                char c = source.charAt(position++);
+                if (c == quote) {
+                    return value.toString();
+                } else if (c == '\\' && !atEnd()) {
+                    value.append(source.charAt(position++));
+                } else {
+                    value.append(c);
+                }
+            }
+            throw error("unterminated string");
+        }
+
+        private Number parseNumber() {
+            int start = position;
+            position++;
+            while (!atEnd() && (Character.isDigit(source.charAt(position)) || source.charAt(position) == '.')) {
+                position++;
+            }
+            String number = source.substring(start, position);
+            try {
+                if (number.indexOf('.') >= 0) {
+                    return Double.valueOf(number);
+                }
+                long value = Long.parseLong(number);
+                if (value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+                    return (int) value;
+                }
+                return value;
+            } catch (NumberFormatException e) {
+                throw error("invalid number " + number);
+            }
+        }
+
+        private String parseName() {
+            int start = position;
+            while (!atEnd() && isNameChar(source.charAt(position))) {
+                position++;
+            }
+            if (start == position) {
+                throw error("unexpected character '" + source.charAt(position) + "'");
+            }
+            return source.substring(start, position);
+        }
+
+        private boolean isNameChar(char c) {
+            return Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '/' || c == '.' || c == '-';
+        }
+
+        private Expression parseCall(String name) {
+            Function function = FUNCTIONS.get(name);
+            if (function == null) {
+                throw error("unknown function " + name);
+            }
+            List<Expression> arguments = new ArrayList<Expression>();
+            skipWhitespace();
+            if (!atEnd() && source.charAt(position) == ')') {
+                position++;
+            } else {
+                while (true) {
+                    arguments.add(parseExpression());
+                    skipWhitespace();
+                    if (atEnd()) {
+                        throw error("expected ')'");
+                    }
+                    char c = source.charAt(position++);
+                    if (c == ')') {
+                        break;
+                    } else if (c != ',') {
+                        throw error("expected ',' or ')'");
+                    }
+                }
+            }
+            if (arguments.size() < function.minArguments || arguments.size() > function.maxArguments) {
+                throw error("wrong number of arguments to " + name);
+            }
+            return function.compile(arguments);
+        }
+    }
+
+    private static Expression literal(final Object value) {
+        return new Literal(value);
+    }
+
+    private static final class Literal implements Expression {
+        private final Object value;
+
+        Literal(Object value) {
+            this.value = value;
+        }
+
+        @Override
+        public Object evaluate(JsonValue scope) {
+            return value;
+        }
+    }
+
+    private static Expression field(final JsonPointer pointer) {
+        return new Expression() {
+            @Override
+            public Object evaluate(JsonValue scope) {
+                JsonValue value = scope.get(pointer);
+                return value != null ? value.getObject() : null;
+            }
+        };
+    }
+
+    /**
+     * @return the value of a literal argument, which must be a string
+     */
+    private static String literalString(Expression argument, String name) {
+        if (!(argument instanceof Literal) || !(((Literal) argument).value instanceof String)) {
+            throw new IllegalArgumentException("the " + name + " must be a string literal");
+        }
+        return (String) ((Literal) argument).value;
+    }
+
+    private static String asString(Object value) {
+        return value != null ? value.toString() : null;
+    }
+
+    private static boolean isTrue(Object value) {
+        return Boolean.TRUE.equals(value);
+    }
+
+    private static boolean isEqual(Object v1, Object v2) {
+        if (v1 instanceof Number && v2 instanceof Number) {
+            return ((Number) v1).doubleValue() == ((Number) v2).doubleValue();
+        }
+        return v1 == null ? v2 == null : v1.equals(v2);
+    }
+
+    private static int toInt(Object value, int defaultValue) {
+        return value instanceof Number ? ((Number) value).intValue() : defaultValue;
+    }
+
+    /**
+     * A function of one string argument, null if the argument is null.
+     */
+    private abstract static class StringFunction extends Function {
+        StringFunction() {
+            super(1, 1);
+        }
+
+        abstract String apply(String value);
+
+        @Override
+        Expression compile(List<Expression> arguments) {
+            final Expression argument = arguments.get(0);
+            return new Expression() {
+                @Override
+                public Object evaluate(JsonValue scope) {
+                    String value = asString(argument.evaluate(scope));
+                    return value != null ? apply(value) : null;
+                }
+            };
+        }
+    }
+
+    static {
+        FUNCTIONS.put("lower", new StringFunction() {
+            @Override
+            String apply(String value) {
+                return value.toLowerCase(Locale.ROOT);
+            }
+        });
+        FUNCTIONS.put("upper", new StringFunction() {
+            @Override
+            String apply(String value) {
+                return value.toUpperCase(Locale.ROOT);
+            }
+        });
+        FUNCTIONS.put("trim", new StringFunction() {
+            @Override
+            String apply(String value) {
+                return value.trim();
+            }
+        });
+        FUNCTIONS.put("concat", new Function(1, Integer.MAX_VALUE) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        StringBuilder result = new StringBuilder();
+                        for (Expression argument : arguments) {
+                            Object value = argument.evaluate(scope);
+                            if (value != null) {
+                                result.append(value);
+                            }
+                        }
+                        return result.toString();
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("default", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        Object value = arguments.get(0).evaluate(scope);
+                        return value != null ? value : arguments.get(1).evaluate(scope);
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("substring", new Function(2, 3) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        String value = asString(arguments.get(0).evaluate(scope));
+                        if (value == null) {
+                            return null;
+                        }
+                        int end = arguments.size() > 2
+                                ? toInt(arguments.get(2).evaluate(scope), value.length())
+                                : value.length();
+                        return StringUtils.substring(value, toInt(arguments.get(1).evaluate(scope), 0), end);
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("replace", new Function(3, 3) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        return StringUtils.replace(asString(arguments.get(0).evaluate(scope)),
+                                asString(arguments.get(1).evaluate(scope)),
+                                asString(arguments.get(2).evaluate(scope)));
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("split", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        String value = asString(arguments.get(0).evaluate(scope));
+                        if (value == null) {
+                            return null;
+                        }
+                        List<Object> result = new ArrayList<Object>();
+                        Collections.addAll(result, StringUtils.splitByWholeSeparatorPreserveAllTokens(value,
+                                asString(arguments.get(1).evaluate(scope))));
+                        return result;
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("join", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        Object value = arguments.get(0).evaluate(scope);
+                        if (!(value instanceof Collection)) {
+                            return asString(value);
+                        }
+                        return StringUtils.join((Collection<?>) value, asString(arguments.get(1).evaluate(scope)));
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("formatDate", new Function(2, 3) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                final DateTimeFormatter output;
+                final DateTimeFormatter input;
+                output = DateTimeFormat.forPattern(literalString(arguments.get(1), "date pattern")).withZoneUTC();
+                input = arguments.size() > 2
+                        ? DateTimeFormat.forPattern(literalString(arguments.get(2), "input date pattern")).withZoneUTC()
+                        : ISODateTimeFormat.dateTimeParser().withOffsetParsed();
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        String value = asString(arguments.get(0).evaluate(scope));
+                        if (value == null) {
+                            return null;
+                        }
+                        try {
+                            return output.print(input.parseDateTime(value));
+                        } catch (IllegalArgumentException e) {
+                            // not a date, leave it to the default value of the property
+                            return null;
+                        }
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("contains", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        Object value = arguments.get(0).evaluate(scope);
+                        Object element = arguments.get(1).evaluate(scope);
+                        if (value instanceof Collection) {
+                            for (Object candidate : (Collection<?>) value) {
+                                if (isEqual(candidate, element)) {
+                                    return Boolean.TRUE;
+                                }
+                            }
+                            return Boolean.FALSE;
+                        } else if (value instanceof String && element != null) {
+                            return ((String) value).contains(element.toString());
+                        }
+                        return Boolean.FALSE;
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("eq", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        return isEqual(arguments.get(0).evaluate(scope), arguments.get(1).evaluate(scope));
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("ne", new Function(2, 2) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        return !isEqual(arguments.get(0).evaluate(scope), arguments.get(1).evaluate(scope));
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("isEmpty", new Function(1, 1) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        Object value = arguments.get(0).evaluate(scope);
+                        return value == null
+                                || (value instanceof String && ((String) value).isEmpty())
+                                || (value instanceof Collection && ((Collection<?>) value).isEmpty())
+                                || (value instanceof Map && ((Map<?, ?>) value).isEmpty());
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("not", new Function(1, 1) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        return !isTrue(arguments.get(0).evaluate(scope));
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("and", new Function(1, Integer.MAX_VALUE) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        for (Expression argument : arguments) {
+                            if (!isTrue(argument.evaluate(scope))) {
+                                return Boolean.FALSE;
+                            }
+                        }
+                        return Boolean.TRUE;
+                    }
+                };
+            }
+        });
+        FUNCTIONS.put("or", new Function(1, Integer.MAX_VALUE) {
+            @Override
+            Expression compile(final List<Expression> arguments) {
+                return new Expression() {
+                    @Override
+                    public Object evaluate(JsonValue scope) {
+                        for (Expression argument : arguments) {
+                            if (isTrue(argument.evaluate(scope))) {
+                                return Boolean.TRUE;
+                            }
+                        }
+                        return Boolean.FALSE;
+                    }
+                };
+            }
+        });
+    }
+}
@@ -26,9 +26,9 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
 
 import org.forgerock.services.context.Context;
+import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.JsonValueException;
 
@@ -312,30 +312,89 @@ class Link {
      * <p>
      * This method expects a {@code "links-for-linkType"} defined with a parameter of
      * {@code "linkType"}.
+     * <p>
+     * The query results are streamed into a compact {@link LinkIndex} rather than collected first,
+     * and each call to {@code get} on the returned map returns a new link object.
      *
      * @param mapping the mapping to look up the links for
      * @throws SynchronizationException if the query could not be performed.
      * @return the mapping from source identifier to the link object for it
      */
-    public static Map<String, Link> getLinksForMapping(ObjectMapping mapping, String linkQualifier) throws SynchronizationException {
-        Map<String, Link> sourceIdToLink = new ConcurrentHashMap<String, Link>();
+    public static Map<String, Link> getLinksForMapping(final ObjectMapping mapping, String linkQualifier)
+            throws SynchronizationException {
+        final LinkIndex sourceIdToLink = new LinkIndex(mapping, linkQualifier);
         if (mapping != null) {
-            JsonValue query = new JsonValue(new HashMap<String, Object>());
-            query.put(FIELD_QUERY_FILTER,
-                    QueryFilter.and(Arrays.asList(
-                            QueryFilter.equalTo("/linkType", mapping.getLinkType().getName()),
-                            QueryFilter.equalTo("/linkQualifier", linkQualifier)))
-                            .toString());
-            JsonValue queryResults = linkQuery(mapping.getService().getContext(), mapping.getService().getConnectionFactory(), query);
-            for (JsonValue entry : queryResults) {
-                Link link = new Link(mapping);
-                link.fromJsonValue(entry);
-                sourceIdToLink.put(link.sourceId, link);
+            try {
+                QueryRequest request = Requests.newQueryRequest(linkId(null))
+                        .setQueryFilter(QueryFilter.and(Arrays.asList(
+                                QueryFilter.equalTo(new JsonPointer("/linkType"), mapping.getLinkType().getName()),
+                                QueryFilter.equalTo(new JsonPointer("/linkQualifier"), linkQualifier))));
+                mapping.getService().getConnectionFactory().getConnection().query(
+                        mapping.getService().getContext(), request, new QueryResourceHandler() {
+                            @Override
+                            public boolean handleResource(ResourceResponse resource) {
+                                Link link = new Link(mapping);
+                                link.fromJsonValue(resource.getContent());
+                                sourceIdToLink.add(link);
+                                return true;
+                            }
+                        });
+            } catch (JsonValueException jve) {
+                throw new SynchronizationException("Malformed link query response", jve);
+            } catch (ResourceException ose) {
+                throw new SynchronizationException("Link query failed", ose);
             }
         }
         return sourceIdToLink;
     }
 
+    /**
+     * Queries the links for a given mapping and link qualifier whose source or target identifier is one
+     * of the given identifiers. The identifiers are matched by the repository, in a single query.
+     *
+     * @param mapping the mapping to look up the links for
+     * @param linkQualifier the link qualifier to look up the links for
+     * @param bySource true to match the source identifiers, false to match the target identifiers
+     * @param ids the normalized identifiers to look up the links of
+     * @return the links found, in no particular order
+     * @throws SynchronizationException if the query could not be performed.
+     */
+    static List<Link> getLinksForIds(final ObjectMapping mapping, String linkQualifier, boolean bySource,
+            Collection<String> ids) throws SynchronizationException {
+        final List<Link> links = new ArrayList<Link>(ids.size());
+        if (ids.isEmpty()) {
+            return links;
+        }
+        JsonPointer idField = new JsonPointer(
+                (bySource ^ mapping.getLinkType().useReverse()) ? "/firstId" : "/secondId");
+        List<QueryFilter<JsonPointer>> idFilters = new ArrayList<QueryFilter<JsonPointer>>(ids.size());
+        for (String id : ids) {
+            idFilters.add(QueryFilter.equalTo(idField, id));
+        }
+        try {
+            QueryRequest request = Requests.newQueryRequest(linkId(null))
+                    .setQueryFilter(QueryFilter.and(Arrays.asList(
+                            QueryFilter.equalTo(new JsonPointer("/linkType"), mapping.getLinkType().getName()),
+                            QueryFilter.equalTo(new JsonPointer("/linkQualifier"), linkQualifier),
+                            QueryFilter.or(idFilters))));
+            mapping.getService().getConnectionFactory().getConnection().query(
+                    mapping.getService().getContext(), request, new QueryResourceHandler() {
+                        @Override
+                        public boolean handleResource(ResourceResponse resource) {
+                            Link link = new Link(mapping);
+                            link.fromJsonValue(resource.getContent());
+                            links.add(link);
+                            return true;
+                        }
+                    });
+            return links;
+        } catch (JsonValueException jve) {
+            throw new SynchronizationException("Malformed link query response", jve);
+        } catch (ResourceException ose) {
+            throw new SynchronizationException("Link query failed", ose);
+        }
+    }
+
     /** Compares the given Id to the current targetId,
      * taking into account the settings for case sensitivity
      * @param compareTargetId The target id to compare
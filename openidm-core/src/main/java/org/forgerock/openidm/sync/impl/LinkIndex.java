@@ -0,0 +1,435 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * A compact, read-mostly index of the links of one mapping and link qualifier, keyed by the
+ * normalized source id, used for pre-fetched links during reconciliation.
+ * <p>
+ * Instead of one {@link Link} object, four strings and a hash map node per link, the link fields
+ * are encoded as UTF-8, each prefixed by its variable length, into direct (off-heap) memory segments,
+ * and an open addressing hash table of record addresses and key hashes is the only per link state
+ * kept on the heap. {@link #get(Object)} decodes a new {@link Link} for each call, which the caller
+ * is free to modify.
+ * <p>
+ * Adding is synchronized; reads may be done concurrently once the index has been populated and
+ * safely published, such as by submitting the reconciliation tasks to an executor.
+ * <p>
+ * The memory segments are taken from and given back to a pool shared by all indexes, bounded by the
+ * {@code openidm.recon.linkindex.pooledsegments} system property, so that successive reconciliations
+ * reuse the same off-heap memory. {@link #release()} must be called once the index is no longer used;
+ * reading a released index fails.
+ */
+class LinkIndex extends AbstractMap<String, Link> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Number of bits of a record address that hold the position within its segment */
+    private static final int SEGMENT_BITS = 22;
+
+    /** The size of each memory segment */
+    private static final int SEGMENT_SIZE = 1 << SEGMENT_BITS;
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    /** The maximum number of released segments kept for reuse, 128 MB by default */
+    private static final int MAX_POOLED_SEGMENTS =
+            Integer.getInteger("openidm.recon.linkindex.pooledsegments", 32);
+
+    /** Released segments, cleared and ready for reuse */
+    private static final Deque<ByteBuffer> POOL = new ArrayDeque<ByteBuffer>();
+
+    private final ObjectMapping mapping;
+    private final String linkQualifier;
+
+    private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+    private ByteBuffer current;
+
+    /** Record address plus one per slot, 0 for an empty slot */
+    private int[] addresses = new int[INITIAL_CAPACITY];
+
+    /** Source id hash per slot, kept to probe and resize without decoding the records */
+    private int[] hashes = new int[INITIAL_CAPACITY];
+
+    private int size = 0;
+
+    private volatile boolean released = false;
+
+    /**
+     * Constructs an empty index.
+     *
+     * @param mapping the mapping the links belong to
+     * @param linkQualifier the link qualifier of the links
+     */
+    LinkIndex(ObjectMapping mapping, String linkQualifier) {
+        this.mapping = mapping;
+        this.linkQualifier = linkQualifier;
+    }
+
+    /**
+     * Adds a link, replacing any link with the same source id.
+     *
+     * @param link the link to add, with normalized ids
+     */
+    synchronized void add(Link link) {
+        if (released) {
+            throw new IllegalStateException("Link index has been released");
+        }
+        byte[] sourceId = encode(link.sourceId);
+        int hash = hash(sourceId);
+        int address = write(sourceId, encode(link.targetId), encode(link._id), encode(link._rev));
+        int slot = findSlot(sourceId, hash);
+        if (addresses[slot] == 0) {
+            addresses[slot] = address + 1;
+            hashes[slot] = hash;
+            if (++size * 2 > addresses.length) {
+                resize();
+            }
+        } else {
+            // Superseded record stays in the segment; duplicates are not expected from a unique index
+            addresses[slot] = address + 1;
+        }
+    }
+
+    @Override
+    public Link get(Object key) {
+        if (!(key instanceof String)) {
+            return null;
+        }
+        byte[] sourceId = encode((String) key);
+        try {
+            int address = addresses[findSlot(sourceId, hash(sourceId))];
+            return checkNotReleased(address == 0 ? null : decode(address - 1));
+        } catch (RuntimeException e) {
+            // A segment given back to the pool may be reused while it is read
+            checkNotReleased(null);
+            throw e;
+        }
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        if (!(key instanceof String)) {
+            return false;
+        }
+        byte[] sourceId = encode((String) key);
+        try {
+            return checkNotReleased(addresses[findSlot(sourceId, hash(sourceId))] != 0);
+        } catch (RuntimeException e) {
+            checkNotReleased(null);
+            throw e;
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Gives the memory segments of the index back to the pool, or drops them for the garbage collector to
+     * free if the pool is full. Reading the index afterwards fails with an {@link IllegalStateException};
+     * a read that completes without failing has read the records intact.
+     */
+    synchronized void release() {
+        if (released) {
+            return;
+        }
+        // Set first, so a reader that does not see it read the segments before they were given back
+        released = true;
+        synchronized (POOL) {
+            for (ByteBuffer segment : segments) {
+                if (POOL.size() >= MAX_POOLED_SEGMENTS) {
+                    break;
+                }
+                segment.clear();
+                POOL.push(segment);
+            }
+        }
+        segments.clear();
+        current = null;
+        addresses = new int[0];
+        hashes = new int[0];
+        size = 0;
+    }
+
+    /**
+     * Releases the link indexes among the given links, such as the links pre-fetched for a reconciliation.
+     *
+     * @param links the links by link qualifier, or null
+     */
+    static void releaseAll(Map<String, Map<String, Link>> links) {
+        if (links != null) {
+            for (Map<String, Link> linksByQualifier : links.values()) {
+                if (linksByQualifier instanceof LinkIndex) {
+                    ((LinkIndex) linksByQualifier).release();
+                }
+            }
+        }
+    }
+
+    private <T> T checkNotReleased(T result) {
+        if (released) {
+            throw new IllegalStateException("Link index has been released");
+        }
+        return result;
+    }
+
+    /**
+     * @return the number of bytes of off-heap memory allocated for the link records
+     */
+    long getAllocatedBytes() {
+        return (long) segments.size() * SEGMENT_SIZE;
+    }
+
+    /**
+     * Iterates the links in hash table order, decoding each link.
+     */
+    @Override
+    public Set<Map.Entry<String, Link>> entrySet() {
+        return new AbstractSet<Map.Entry<String, Link>>() {
+            @Override
+            public Iterator<Map.Entry<String, Link>> iterator() {
+                return new Iterator<Map.Entry<String, Link>>() {
+                    private int slot = nextSlot(0);
+
+                    private int nextSlot(int from) {
+                        while (from < addresses.length && addresses[from] == 0) {
+                            from++;
+                        }
+                        return from;
+                    }
+
+                    @Override
+                    public boolean hasNext() {
+                        return slot < addresses.length;
+                    }
+
+                    @Override
+                    public Map.Entry<String, Link> next() {
+                        if (!hasNext()) {
+                            throw new NoSuchElementException();
+                        }
+                        Link link;
+                        try {
+                            link = checkNotReleased(decode(addresses[slot] - 1));
+                        } catch (RuntimeException e) {
+                            checkNotReleased(null);
+                            throw e;
+                        }
+                        slot = nextSlot(slot + 1);
+                        return new SimpleImmutableEntry<String, Link>(link.sourceId, link);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Finds the slot holding the given source id, or the empty slot where it would be added.
+     */
+    private int findSlot(byte[] sourceId, int hash) {
+        int mask = addresses.length - 1;
+        int slot = hash & mask;
+        while (addresses[slot] != 0) {
+            if (hashes[slot] == hash && keyEquals(addresses[slot] - 1, sourceId)) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void resize() {
+        int[] oldAddresses = addresses;
+        int[] oldHashes = hashes;
+        addresses = new int[oldAddresses.length * 2];
+        hashes = new int[oldHashes.length * 2];
+        int mask = addresses.length - 1;
+        for (int i = 0; i < oldAddresses.length; i++) {
+            if (oldAddresses[i] != 0) {
+                int slot = oldHashes[i] & mask;
+                while (addresses[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                addresses[slot] = oldAddresses[i];
+                hashes[slot] = oldHashes[i];
+            }
+        }
+    }
+
+    private static int hash(byte[] bytes) {
+        int hash = Arrays.hashCode(bytes);
+        // Spread the bits, as the table index uses the low bits only
+        return hash ^ (hash >>> 16);
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(UTF_8);
+    }
+
+    /**
+     * Writes a record into the current segment, allocating a new segment if it does not fit.
+     *
+     * @return the address of the record
+     */
+    private int write(byte[]... fields) {
+        int length = 0;
+        for (byte[] field : fields) {
+            length += field == null ? 1 : lengthSize(field.length + 1) + field.length;
+        }
+        if (length > SEGMENT_SIZE) {
+            throw new IllegalArgumentException("Link exceeds the maximum record size of " + SEGMENT_SIZE);
+        }
+        if (current == null || current.remaining() < length) {
+            if (segments.size() == 1 << (Integer.SIZE - 1 - SEGMENT_BITS)) {
+                throw new IllegalStateException("Link index exceeds its maximum size");
+            }
+            current = allocateSegment();
+            segments.add(current);
+        }
+        int address = ((segments.size() - 1) << SEGMENT_BITS) | current.position();
+        for (byte[] field : fields) {
+            if (field == null) {
+                writeLength(current, 0);
+            } else {
+                writeLength(current, field.length + 1);
+                current.put(field);
+            }
+        }
+        return address;
+    }
+
+    private static ByteBuffer allocateSegment() {
+        synchronized (POOL) {
+            if (!POOL.isEmpty()) {
+                return POOL.pop();
+            }
+        }
+        return ByteBuffer.allocateDirect(SEGMENT_SIZE);
+    }
+
+    /**
+     * @return the number of bytes taken by a field length, written as a variable length integer of 7 bits per byte
+     */
+    private static int lengthSize(int value) {
+        int size = 1;
+        while ((value >>>= 7) != 0) {
+            size++;
+        }
+        return size;
+    }
+
+    private static void writeLength(ByteBuffer segment, int value) {
+        while ((value & ~0x7F) != 0) {
+            segment.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        segment.put((byte) value);
+    }
+
+    /**
+     * Reads a field length with absolute gets, advancing the position.
+     *
+     * @return the field length plus one, 0 for a null field
+     */
+    private static int readLength(ByteBuffer segment, int[] position) {
+        int value = 0;
+        for (int shift = 0; shift < Integer.SIZE; shift += 7) {
+            byte b = segment.get(position[0]++);
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+        throw new IllegalStateException("Malformed link record");
+    }
+
+    private ByteBuffer segment(int address) {
+        return segments.get(address >>> SEGMENT_BITS);
+    }
+
+    private boolean keyEquals(int address, byte[] sourceId) {
+        ByteBuffer segment = segment(address);
+        int[] position = { address & (SEGMENT_SIZE - 1) };
+        int length = readLength(segment, position) - 1;
+        if (length != sourceId.length) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (segment.get(position[0] + i) != sourceId[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Link decode(int address) {
+        ByteBuffer segment = segment(address);
+        int[] position = { address & (SEGMENT_SIZE - 1) };
+        Link link = new Link(mapping);
+        link.sourceId = readString(segment, position);
+        link.targetId = readString(segment, position);
+        link._id = readString(segment, position);
+        link._rev = readString(segment, position);
+        link.linkQualifier = linkQualifier;
+        link.initialized = true;
+        return link;
+    }
+
+    /**
+     * Reads a string with absolute gets, so concurrent readers do not share a buffer position.
+     */
+    private static String readString(ByteBuffer segment, int[] position) {
+        int length = readLength(segment, position) - 1;
+        if (length < 0) {
+            return null;
+        }
+        if (length > SEGMENT_SIZE - position[0]) {
+            throw new IllegalStateException("Malformed link record");
+        }
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = segment.get(position[0] + i);
+        }
+        position[0] += length;
+        return new String(bytes, UTF_8);
+    }
+}
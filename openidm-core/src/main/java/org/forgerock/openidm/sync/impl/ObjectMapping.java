@@ -22,23 +22,28 @@ import static org.forgerock.json.JsonValue.object;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 import java.util.concurrent.Callable;
 
 import javax.script.ScriptException;
 
 import org.forgerock.services.context.Context;
+import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.JsonValueException;
 import org.forgerock.json.patch.JsonPatch;
 import org.forgerock.json.resource.CreateRequest;
 import org.forgerock.json.resource.DeleteRequest;
 import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.QueryFilters;
 import org.forgerock.json.resource.QueryRequest;
 import org.forgerock.json.resource.QueryResourceHandler;
 import org.forgerock.json.resource.QueryResponse;
@@ -58,6 +63,7 @@ import org.forgerock.openidm.sync.impl.Scripts.Script;
 import org.forgerock.openidm.util.RequestUtil;
 import org.forgerock.script.exception.ScriptThrownException;
 import org.forgerock.script.source.SourceUnit;
+import org.forgerock.util.query.QueryFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -95,6 +101,9 @@ class ObjectMapping {
     /** Default number of executor threads to process ReconTasks */
     private static final int DEFAULT_TASK_THREADS = 10;
 
+    /** Default maximum age in seconds of a recon checkpoint to resume from */
+    private static final long DEFAULT_CHECKPOINT_MAX_AGE = 24 * 60 * 60;
+
     /** Logger */
     private static final Logger LOGGER = LoggerFactory.getLogger(ObjectMapping.class);
 
@@ -147,6 +156,16 @@ class ObjectMapping {
      * A page size for recon source queries, if paging is used.
      */
     private int reconSourceQueryPageSize;
+
+    /**
+     * A boolean indicating if full recons save checkpoints to resume from after an interruption.
+     */
+    private boolean resumableRecon;
+
+    /**
+     * The maximum age in seconds of a recon checkpoint to resume from, or 0 for no limit.
+     */
+    private long resumableReconMaxAge;
     
     /**
      * A container for the correlation queries or script.
@@ -223,6 +242,27 @@ class ObjectMapping {
     /** The number of initial tasks the ReconFeeder should submit to executors */
     private int feedSize;
 
+    /**
+     * The number of unlinked source entries to correlate with one combined target query during
+     * reconciliation, or 0 to correlate each source entry with its own query
+     */
+    private int correlationBatchSize;
+
+    /**
+     * Whether the source phase of full reconciliations is split into work units reconciled by all
+     * instances of the cluster
+     */
+    private final boolean clusteredSourcePhase;
+
+    /** The number of source ids per work unit of a clustered source phase */
+    private final int clusteredWorkUnitSize;
+
+    /**
+     * The time, in milliseconds, after which a work unit still claimed by another instance is released
+     * for the coordinating instance to reconcile
+     */
+    private final long clusteredWorkUnitTimeout;
+
     /** a reference to the {@link SynchronizationService} */
     private final SynchronizationService service;
 
@@ -289,13 +329,20 @@ class ObjectMapping {
         prefetchLinks = config.get("prefetchLinks").defaultTo(Boolean.TRUE).asBoolean();
         taskThreads = config.get("taskThreads").defaultTo(DEFAULT_TASK_THREADS).asInteger();
         feedSize = config.get("feedSize").defaultTo(ReconFeeder.DEFAULT_FEED_SIZE).asInteger();
+        correlationBatchSize = config.get("correlationBatchSize").defaultTo(0).asInteger();
         correlateEmptyTargetSet = config.get("correlateEmptyTargetSet").defaultTo(Boolean.FALSE).asBoolean();
         syncEnabled = config.get("enableSync").defaultTo(Boolean.TRUE).asBoolean();
         linkingEnabled = config.get("enableLinking").defaultTo(Boolean.TRUE).asBoolean();
         reconSourceQueryPaging = config.get("reconSourceQueryPaging").defaultTo(false).asBoolean();
         reconSourceQueryPageSize = config.get("reconSourceQueryPageSize")
                 .defaultTo(reconSourceQueryPaging ? ReconFeeder.DEFAULT_FEED_SIZE : 0).asInteger();
-
+        resumableRecon = config.get("resumableRecon").defaultTo(false).asBoolean();
+        resumableReconMaxAge = config.get("resumableReconMaxAge").defaultTo(DEFAULT_CHECKPOINT_MAX_AGE).asLong();
+        clusteredSourcePhase = config.get("clusteredSourcePhase").defaultTo(false).asBoolean();
+        clusteredWorkUnitSize = config.get("clusteredWorkUnitSize")
+                .defaultTo(ReconFeeder.DEFAULT_FEED_SIZE).asInteger();
+        clusteredWorkUnitTimeout = config.get("clusteredWorkUnitTimeout")
+                .defaultTo(ClusteredSourcePhase.DEFAULT_WORK_UNIT_TIMEOUT).asLong();
         LOGGER.debug("Instantiated {}", name);
     }
 
@@ -932,6 +979,8 @@ class ObjectMapping {
         EventEntry measureIdQueries = Publisher.start(EVENT_RECON_ID_QUERIES, reconId, null);
         reconContext.setStage(ReconStage.ACTIVE_QUERY_ENTRIES);
         Context context = ObjectSetContext.get();
+        Map<String, Map<String, Link>> allLinks = null;
+        ReconCheckpoint checkpoint = null;
         try {
             // Execute onRecon script.
             executeOnRecon(context);
@@ -940,13 +989,20 @@ class ObjectMapping {
             ObjectSetContext.push(context);
             logReconStart(reconContext, context);
 
+            // Continue from the checkpoint of an interrupted run, if resuming
+            checkpoint = startCheckpoint(reconContext);
+            boolean sourcePhaseCompleted = checkpoint != null && checkpoint.getPhase() == ReconCheckpoint.Phase.TARGET;
+
             // Get the relevant source (and optionally target) identifiers before we assess the situations
             reconContext.getStatistics().sourceQueryStart();
             
-            ReconQueryResult sourceQueryResult = reconContext.querySourceIter(reconSourceQueryPageSize, null);
+            ReconQueryResult sourceQueryResult = sourcePhaseCompleted
+                    ? new ReconQueryResult(new ResultIterable(Collections.<String>emptyList(), null))
+                    : reconContext.querySourceIter(reconSourceQueryPageSize,
+                            checkpoint != null ? checkpoint.getPagingCookie() : null);
             Iterator<ResultEntry> sourceIter = sourceQueryResult.getIterator();
             reconContext.getStatistics().sourceQueryEnd();
-            if (!sourceIter.hasNext()) {
+            if (!sourceIter.hasNext() && !sourcePhaseCompleted) {
                 if (!reconContext.getReconHandler().allowEmptySourceSet()) {
                     LOGGER.warn("Cannot reconcile from an empty data source, unless allowEmptySourceSet is true.");
                     reconContext.setStage(ReconStage.COMPLETED_FAILED);
@@ -968,9 +1024,12 @@ class ObjectMapping {
                 remainingTargetIds = new ArrayList<String>();
             }
 
+            // A batched link lookup reads the links of each batch of entries instead
+            boolean batchedLinks = reconContext.getReconHandler().isBatchedLinkLookup();
+            int linkBatchSize = reconSourceQueryPageSize > 0 ? reconSourceQueryPageSize : ReconFeeder.DEFAULT_FEED_SIZE;
+
             // Optionally get all links up front as well
-            Map<String, Map<String, Link>> allLinks = null;
-            if (prefetchLinks) {
+            if (prefetchLinks && !batchedLinks) {
                 allLinks = new HashMap<String, Map<String, Link>>();
                 Integer totalLinkEntries = new Integer(0);
                 reconContext.getStatistics().linkQueryStart();
@@ -991,9 +1050,29 @@ class ObjectMapping {
             reconContext.getStatistics().sourcePhaseStart();
             
             boolean queryNextPage = false;
+            boolean batchCorrelation = correlationBatchSize > 0 && correlation.isBatchable() && allLinks != null;
+            if (correlationBatchSize > 0 && !batchCorrelation) {
+                LOGGER.info("Batched correlation for mapping {} requires correlation queries and prefetched links, "
+                        + "correlating source entries individually", name);
+            }
+            BatchedLinkLookup sourceLinkLookup = batchedLinks
+                    ? new BatchedLinkLookup(this, getAllLinkQualifiers(), true, linkBatchSize)
+                    : null;
 
             LOGGER.info("Performing source sync for recon {} on mapping {}", new Object[] {reconId, name});
+            if (!sourcePhaseCompleted && isClusteredSourcePhase(reconContext)) {
+                // Reconciled by the instances of the cluster in work units; page checkpoints are not saved
+                new ClusteredSourcePhase(this, reconContext, context, clusteredWorkUnitSize,
+                        clusteredWorkUnitTimeout)
+                        .execute(sourceQueryResult, reconSourceQueryPaging ? reconSourceQueryPageSize : 0,
+                                remainingTargetIds);
+                sourcePhaseCompleted = true;
+            }
             do {
+                if (sourcePhaseCompleted) {
+                    // Resuming after the source phase of the interrupted run
+                    break;
+                }
                 // Query next page of results if paging
                 if (queryNextPage) {
                     LOGGER.debug("Querying next page of source ids");
@@ -1001,13 +1080,31 @@ class ObjectMapping {
                             sourceQueryResult.getPagingCookie());
                     sourceIter = sourceQueryResult.getIterator();
                 }
+                // Checkpointed runs reconcile the entries in id order, after the watermark of a resumed run
+                Iterator<ResultEntry> pageIter = checkpoint != null
+                        ? checkpoint.remainingEntries(sourceIter)
+                        : sourceIter;
                 // Perform source recon phase on current set of source ids
-                ReconPhase sourcePhase = 
-                        new ReconPhase(sourceIter, reconContext, context, allLinks, remainingTargetIds, sourceRecon);
+                ReconPhase sourcePhase = batchedLinks
+                        ? new BatchedLinkReconPhase(pageIter, reconContext, context, sourceLinkLookup,
+                                remainingTargetIds, sourceRecon)
+                        : new ReconPhase(batchCorrelation
+                                ? new CorrelationBatchIterator(pageIter, reconContext, allLinks, correlationBatchSize)
+                                : pageIter,
+                                reconContext, context, allLinks, remainingTargetIds, sourceRecon);
                 sourcePhase.setFeedSize(feedSize);
+                sourcePhase.setCheckpoint(checkpoint);
                 sourcePhase.execute();
+                if (checkpoint != null && reconSourceQueryPaging) {
+                    checkpoint.sourcePageCompleted(sourceQueryResult.getPagingCookie());
+                }
                 queryNextPage = true;
             } while (reconSourceQueryPaging && sourceQueryResult.getPagingCookie() != null); // If paging, loop through next pages
+            if (checkpoint != null) {
+                checkpoint.sourcePhaseCompleted();
+            }
+            // The target phase does not use the pre-fetched links, and every source task has completed
+            LinkIndex.releaseAll(allLinks);
             
             reconContext.getStatistics().sourcePhaseEnd();
             measureSource.end();
@@ -1017,10 +1114,13 @@ class ObjectMapping {
             if (reconContext.getReconHandler().isRunTargetPhase()) {
                 EventEntry measureTarget = Publisher.start(EVENT_RECON_TARGET, reconId, null);
                 reconContext.setStage(ReconStage.ACTIVE_RECONCILING_TARGET);       
-                targetIterable.removeNotMatchingEntries(remainingTargetIds);
                 reconContext.getStatistics().targetPhaseStart();
-                ReconPhase targetPhase = new ReconPhase(targetIterable.iterator(), reconContext, context,
-                        allLinks, null, targetRecon);
+                targetIterable.removeNotMatchingEntries(remainingTargetIds);
+                ReconPhase targetPhase = batchedLinks
+                        ? new BatchedLinkReconPhase(targetIterable.iterator(), reconContext, context,
+                                new BatchedLinkLookup(this, getAllLinkQualifiers(), false, linkBatchSize),
+                                null, targetRecon)
+                        : new ReconPhase(targetIterable.iterator(), reconContext, context, null, null, targetRecon);
                 targetPhase.setFeedSize(feedSize);
                 targetPhase.execute();
                 reconContext.getStatistics().targetPhaseEnd();
@@ -1031,6 +1131,9 @@ class ObjectMapping {
             reconContext.setStage(ReconStage.ACTIVE_PROCESSING_RESULTS);
             doResults(reconContext);
             reconContext.setStage(ReconStage.COMPLETED_SUCCESS);
+            if (checkpoint != null) {
+                checkpoint.completed();
+            }
             logReconEndSuccess(reconContext, context);
         } catch (InterruptedException ex) {
             SynchronizationException syncException;
@@ -1061,6 +1164,11 @@ class ObjectMapping {
             logReconEndFailure(reconContext, context);
             throw new SynchronizationException("Synchronization failed", e);
         } finally {
+            LinkIndex.releaseAll(allLinks);
+            if (checkpoint != null && checkpoint.isResumed()
+                    && reconContext.getStage() == ReconStage.COMPLETED_FAILED) {
+                checkpoint.resumeFailed();
+            }
             ObjectSetContext.pop(); // pop the TriggerContext
             if (!reconContext.getStatistics().hasEnded()) {
                 reconContext.getStatistics().reconEnd();
@@ -1069,7 +1177,105 @@ class ObjectMapping {
 
 // TODO: cleanup orphan link objects (no matching source or target) here
     }
-    
+
+    /**
+     * Returns whether the source phase of a reconciliation run is split into work units reconciled by all
+     * instances of the cluster. Batched link lookup runs read the links of the source entries in batches as they
+     * are read, so their source phase is not split.
+     *
+     * @param reconContext the context specific to the reconciliation run
+     * @return true if the source phase is clustered
+     */
+    private boolean isClusteredSourcePhase(ReconciliationContext reconContext) {
+        if (!clusteredSourcePhase || reconContext.getReconAction() != ReconciliationService.ReconAction.recon) {
+            return false;
+        }
+        if (reconContext.getReconHandler().isBatchedLinkLookup()) {
+            LOGGER.info("Mapping {} has a clustered source phase, but batched link lookup recons run on one instance",
+                    name);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Reconciles the source entries of a work unit of a clustered source phase. With prefetched links, only
+     * the links of the source entries of the unit are read up front, and the entries may then be correlated
+     * in batches as in a local source phase.
+     *
+     * @param reconContext the context of the run the work unit is reconciled for
+     * @param context the context to reconcile the entries with
+     * @param sourceIds the source ids of the work unit
+     * @param remainingTargetIds the collection to remove the normalized ids of the handled targets from
+     * @throws SynchronizationException if reconciling the entries failed
+     * @throws InterruptedException if interrupted while waiting for the reconciliation threads
+     */
+    void reconWorkUnit(ReconciliationContext reconContext, Context context, List<String> sourceIds,
+            Collection<String> remainingTargetIds) throws SynchronizationException, InterruptedException {
+        List<ResultEntry> entries = new ArrayList<ResultEntry>(sourceIds.size());
+        Iterator<ResultEntry> sourceIter = new ResultIterable(sourceIds, null).iterator();
+        while (sourceIter.hasNext()) {
+            entries.add(sourceIter.next());
+        }
+        Map<String, Map<String, Link>> unitLinks = prefetchLinks
+                ? new BatchedLinkLookup(this, getAllLinkQualifiers(), true, entries.size()).load(entries)
+                : null;
+        boolean batchCorrelation = correlationBatchSize > 0 && correlation.isBatchable() && unitLinks != null;
+        ReconPhase sourcePhase = new ReconPhase(batchCorrelation
+                        ? new CorrelationBatchIterator(entries.iterator(), reconContext, unitLinks,
+                                correlationBatchSize)
+                        : entries.iterator(),
+                reconContext, context, unitLinks, remainingTargetIds, sourceRecon);
+        sourcePhase.setFeedSize(feedSize);
+        sourcePhase.execute();
+    }
+
+    /**
+     * Starts saving checkpoints for a full reconciliation run of a resumable mapping, taking over the checkpoint
+     * of an interrupted run unless the {@code resume} parameter of the run is false.
+     * <p>
+     * A run resuming in the source phase queries the page of source entries the interrupted run was on, or
+     * the whole source set without paging, and continues after the last id up to which the interrupted run
+     * reconciled it; one resuming after the source phase skips it. Either way, the target phase also assesses
+     * the targets already matched to a source by the interrupted run, as they cannot be told apart from the
+     * unmatched ones.
+     * <p>
+     * The checkpoint is only resumed if the run has the same recon queries and parameters, other than
+     * {@code resume} and {@code waitForCompletion}, and was saved within {@code resumableReconMaxAge} seconds.
+     * The {@code resume} parameter is read leniently: anything but true or "true" starts over.
+     *
+     * @param reconContext the context specific to the reconciliation run
+     * @return the checkpoint of the run, or null if the run does not save checkpoints
+     * @throws SynchronizationException if the checkpoint could not be read or saved
+     */
+    private ReconCheckpoint startCheckpoint(ReconciliationContext reconContext) throws SynchronizationException {
+        if (!resumableRecon || reconContext.getReconAction() != ReconciliationService.ReconAction.recon) {
+            return null;
+        }
+        JsonValue reconParams = reconContext.getReconParams();
+        JsonValue resumeParam = (reconParams == null ? new JsonValue(null) : reconParams.get("resume"))
+                .defaultTo(Boolean.TRUE);
+        boolean resume = resumeParam.isBoolean()
+                ? resumeParam.asBoolean()
+                : Boolean.parseBoolean(String.valueOf(resumeParam.getObject()));
+
+        JsonValue params = json(object());
+        if (reconParams != null && reconParams.isMap()) {
+            for (String key : reconParams.keys()) {
+                if (!"resume".equals(key) && !"waitForCompletion".equals(key)) {
+                    params.put(key, reconParams.get(key).getObject());
+                }
+            }
+        }
+        JsonValue scope = json(object(
+                field("queries", reconContext.getReconHandler().getReconParameters().getObject()),
+                field("params", params.getObject())));
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(this, reconContext.getReconId(), resume, scope,
+                resumableReconMaxAge * 1000L);
+        reconContext.setResumedFrom(checkpoint.getResumedFrom());
+        return checkpoint;
+    }
+
     private void executeOnRecon(Context context) throws SynchronizationException {
         if (onReconScript != null) {
             Map<String, Object> scope = new HashMap<String, Object>();
@@ -1126,15 +1332,16 @@ class ObjectMapping {
     private interface Recon {
         /**
          * Reconcile a given object ID
-         * @param id the object id to reconcile
-         * @param entry an optional value if the given entry was pre-loaded, or null if not
+         * @param entry the entry to reconcile, with the object id and an optional value if the given entry
+         * was pre-loaded, or null if not
          * @param reconContext reconciliation context
          * @param rootContext json resource root ctx
-         * @param allLinks all links if pre-queried, or null for on-demand link querying
+         * @param allLinks all links if pre-queried, keyed by link qualifier and then by the normalized id
+         * being reconciled, or null for on-demand link querying
          * @param remainingIds The set to update/remove any targets that were matched
          * @throws SynchronizationException if there is a failure reported in reconciling this id
          */
-        void recon(String id, JsonValue entry, ReconciliationContext reconContext, Context rootContext, 
+        void recon(ResultEntry entry, ReconciliationContext reconContext, Context rootContext, 
                 Map<String, Map<String, Link>> allLinks, Collection<String> remainingIds)  throws SynchronizationException;
     }
 
@@ -1146,10 +1353,12 @@ class ObjectMapping {
          * {@inheritDoc}
          */
         @Override
-        public void recon(String id, JsonValue objectEntry, ReconciliationContext reconContext, Context context,
+        public void recon(ResultEntry entry, ReconciliationContext reconContext, Context context,
                 Map<String, Map<String, Link>> allLinks, Collection<String> remainingIds)
                 throws SynchronizationException {
             reconContext.checkCanceled();
+            String id = entry.getId();
+            JsonValue objectEntry = entry.getValue();
             LazyObjectAccessor sourceObjectAccessor = objectEntry == null 
                     ? new LazyObjectAccessor(service, sourceObjectSet, id) // Load source detail on demand
                     : new LazyObjectAccessor(service, sourceObjectSet, id, objectEntry); // Pre-queried source detail
@@ -1168,6 +1377,9 @@ class ObjectMapping {
                     String normalizedSourceId = linkType.normalizeSourceId(id);
                     op.initializeLink(allLinks.get(linkQualifier).get(normalizedSourceId));
                 }
+                if (entry instanceof CorrelatedResultEntry) {
+                    op.batchedCorrelation = ((CorrelatedResultEntry) entry).getCorrelation(linkQualifier);
+                }
                 auditEvent.setSourceObjectId(LazyObjectAccessor.qualifiedId(sourceObjectSet, id));
                 op.reconId = reconContext.getReconId();
                 try {
@@ -1188,6 +1400,7 @@ class ObjectMapping {
                     // If target system has case insensitive IDs, remove without regard to case
                     String normalizedHandledId = linkType.normalizeTargetId(handledId);
                     remainingIds.remove(normalizedHandledId);
+                    reconContext.targetHandled(normalizedHandledId);
                     LOGGER.trace("Removed target from remaining targets: {}", normalizedHandledId);
                 }
                 if (!ReconAction.NOREPORT.equals(op.action) && (status == Status.FAILURE || op.action != null)) {
@@ -1220,9 +1433,11 @@ class ObjectMapping {
          * {@inheritDoc}
          */
         @Override
-        public void recon(String id, JsonValue objectEntry, ReconciliationContext reconContext, Context context, Map<String,
+        public void recon(ResultEntry entry, ReconciliationContext reconContext, Context context, Map<String,
                 Map<String, Link>> allLinks, Collection<String> remainingIds)  throws SynchronizationException {
             reconContext.checkCanceled();
+            String id = entry.getId();
+            JsonValue objectEntry = entry.getValue();
             for (String linkQualifier : getAllLinkQualifiers()) {
                 TargetSyncOperation op = new TargetSyncOperation();
                 op.context = context;
@@ -1232,6 +1447,9 @@ class ObjectMapping {
                 ReconAuditEventLogger event = new ReconAuditEventLogger(op, name, context);
                 event.setLinkQualifier(op.getLinkQualifier());
                 
+                if (allLinks != null) {
+                    op.initializeLink(allLinks.get(linkQualifier).get(linkType.normalizeTargetId(id)));
+                }
                 if (objectEntry == null) {
                     // Load target detail on demand
                     op.targetObjectAccessor = new LazyObjectAccessor(service, targetObjectSet, id);
@@ -1273,8 +1491,7 @@ class ObjectMapping {
      * Wrapper to submit source/target recon for a given id for concurrent processing
      */
     class ReconTask implements Callable<Void> {
-        String id;
-        JsonValue objectEntry;
+        ResultEntry resultEntry;
         ReconciliationContext reconContext;
         Context parentContext;
         Map<String, Map<String, Link>> allLinks;
@@ -1283,10 +1500,9 @@ class ObjectMapping {
 
         public ReconTask(ResultEntry resultEntry, ReconciliationContext reconContext, Context parentContext,
                 Map<String, Map<String, Link>> allLinks, Collection<String> remainingIds, Recon reconById) {
-            this.id = resultEntry.getId();
-            // This value is null if it wasn't pre-queried
-            this.objectEntry = resultEntry.getValue();
-            LOGGER.debug("Recon task on {} {}", id, objectEntry);
+            // The entry value is null if it wasn't pre-queried
+            this.resultEntry = resultEntry;
+            LOGGER.debug("Recon task on {} {}", resultEntry.getId(), resultEntry.getValue());
             
             this.reconContext = reconContext;
             this.parentContext = parentContext;
@@ -1299,7 +1515,7 @@ class ObjectMapping {
             //TODO I miss the Request Context
             ObjectSetContext.push(parentContext);
             try {
-                reconById.recon(id, objectEntry, reconContext, parentContext, allLinks, remainingIds);
+                reconById.recon(resultEntry, reconContext, parentContext, allLinks, remainingIds);
             } finally {
                 ObjectSetContext.pop();
             }
@@ -1315,6 +1531,7 @@ class ObjectMapping {
         Map<String, Map<String, Link>> allLinks;
         Collection<String> remainingIds;
         Recon reconById;
+        ReconCheckpoint checkpoint;
 
         public ReconPhase(Iterator<ResultEntry> resultIter, ReconciliationContext reconContext, Context parentContext,
                 Map<String, Map<String, Link>> allLinks, Collection<String> remainingIds, Recon reconById) {
@@ -1324,11 +1541,168 @@ class ObjectMapping {
             this.remainingIds = remainingIds;
             this.reconById = reconById;
         }
+        /**
+         * Sets the checkpoint to record the reconciled entries of the source phase in.
+         *
+         * @param checkpoint the checkpoint of the run, or null if the run does not save checkpoints
+         */
+        void setCheckpoint(ReconCheckpoint checkpoint) {
+            this.checkpoint = checkpoint;
+        }
+
         @Override
         Callable createTask(ResultEntry objectEntry) throws SynchronizationException {
             return new ReconTask(objectEntry, reconContext, parentContext,
                     allLinks, remainingIds, reconById);
         }
+
+        @Override
+        void completedInOrder(ResultEntry entry) throws SynchronizationException {
+            if (checkpoint != null) {
+                checkpoint.sourceEntryCompleted(entry.getId());
+            }
+        }
+    }
+
+    /**
+     * Reconcile the source/target phase of a batched link lookup, resolving the links of each entry
+     * from the links read for its batch of entries rather than querying them one by one.
+     */
+    class BatchedLinkReconPhase extends ReconPhase {
+        private final BatchedLinkLookup linkLookup;
+        private final boolean sourcePhase;
+
+        public BatchedLinkReconPhase(Iterator<ResultEntry> resultIter, ReconciliationContext reconContext,
+                Context parentContext, BatchedLinkLookup linkLookup, Collection<String> remainingIds,
+                Recon reconById) {
+            super(linkLookup.batch(resultIter), reconContext, parentContext, null, remainingIds, reconById);
+            this.linkLookup = linkLookup;
+            this.sourcePhase = (reconById == sourceRecon);
+        }
+
+        @Override
+        Callable createTask(ResultEntry objectEntry) throws SynchronizationException {
+            // Called for each entry on the feeding thread, before the next entry is read
+            String normalizedId = sourcePhase
+                    ? linkType.normalizeSourceId(objectEntry.getId())
+                    : linkType.normalizeTargetId(objectEntry.getId());
+            return new ReconTask(objectEntry, reconContext, parentContext,
+                    linkLookup.linksFor(normalizedId), remainingIds, reconById);
+        }
+    }
+
+    /**
+     * Reads ahead the entries of the source phase in batches, and correlates the unlinked entries of
+     * each batch with one combined target query per link qualifier. Entries with correlation results
+     * are passed on as {@link CorrelatedResultEntry}; any entry that could not be correlated in the
+     * batch is correlated individually when reconciled, as without batching.
+     */
+    class CorrelationBatchIterator implements Iterator<ResultEntry> {
+        private final Iterator<ResultEntry> sourceIter;
+        private final ReconciliationContext reconContext;
+        private final Map<String, Map<String, Link>> allLinks;
+        private final int batchSize;
+        private Iterator<ResultEntry> batch = Collections.<ResultEntry>emptyList().iterator();
+
+        public CorrelationBatchIterator(Iterator<ResultEntry> sourceIter, ReconciliationContext reconContext,
+                Map<String, Map<String, Link>> allLinks, int batchSize) {
+            this.sourceIter = sourceIter;
+            this.reconContext = reconContext;
+            this.allLinks = allLinks;
+            this.batchSize = batchSize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!batch.hasNext() && sourceIter.hasNext()) {
+                batch = nextBatch().iterator();
+            }
+            return batch.hasNext();
+        }
+
+        @Override
+        public ResultEntry next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            return batch.next();
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+
+        private List<ResultEntry> nextBatch() {
+            List<ResultEntry> entries = new ArrayList<ResultEntry>(batchSize);
+            while (entries.size() < batchSize && sourceIter.hasNext()) {
+                entries.add(sourceIter.next());
+            }
+            if (!correlateEmptyTargetSet && reconContext.hadEmptyTargetSet()) {
+                return entries;
+            }
+
+            // Collect the unlinked source objects per link qualifier
+            JsonValue[] sources = new JsonValue[entries.size()];
+            Map<String, List<Integer>> unlinked = new HashMap<String, List<Integer>>();
+            for (int i = 0; i < entries.size(); i++) {
+                ResultEntry entry = entries.get(i);
+                try {
+                    JsonValue source = entry.getValue() != null
+                            ? entry.getValue()
+                            : new LazyObjectAccessor(service, sourceObjectSet, entry.getId()).getObject();
+                    if (source == null || source.isNull()) {
+                        continue;
+                    }
+                    sources[i] = source;
+                    String normalizedSourceId = linkType.normalizeSourceId(entry.getId());
+                    for (String linkQualifier : getLinkQualifiers(source, null, false)) {
+                        if (correlation.hasCorrelation(linkQualifier)
+                                && (!isLinkingEnabled() || allLinks.get(linkQualifier).get(normalizedSourceId) == null)) {
+                            List<Integer> positions = unlinked.get(linkQualifier);
+                            if (positions == null) {
+                                positions = new ArrayList<Integer>();
+                                unlinked.put(linkQualifier, positions);
+                            }
+                            positions.add(i);
+                        }
+                    }
+                } catch (SynchronizationException e) {
+                    // The entry is correlated individually, which reports the failure
+                    LOGGER.debug("Failed to prepare {} for batched correlation", entry.getId(), e);
+                }
+            }
+
+            List<Map<String, JsonValue>> correlations = new ArrayList<Map<String, JsonValue>>(entries.size());
+            for (int i = 0; i < entries.size(); i++) {
+                correlations.add(new HashMap<String, JsonValue>());
+            }
+            for (Map.Entry<String, List<Integer>> qualifierPositions : unlinked.entrySet()) {
+                List<JsonValue> batchSources = new ArrayList<JsonValue>(qualifierPositions.getValue().size());
+                for (Integer position : qualifierPositions.getValue()) {
+                    batchSources.add(sources[position]);
+                }
+                List<JsonValue> results = correlation.correlateBatch(batchSources, qualifierPositions.getKey());
+                for (int j = 0; j < results.size(); j++) {
+                    if (results.get(j) != null) {
+                        correlations.get(qualifierPositions.getValue().get(j))
+                                .put(qualifierPositions.getKey(), results.get(j));
+                    }
+                }
+            }
+
+            // Pass on the loaded source objects along with the correlation results
+            for (int i = 0; i < entries.size(); i++) {
+                if (sources[i] == null) {
+                    continue;
+                }
+                String id = entries.get(i).getId();
+                entries.set(i, correlations.get(i).isEmpty()
+                        ? new ResultEntry(id, sources[i])
+                        : new CorrelatedResultEntry(id, sources[i], correlations.get(i)));
+            }
+            return entries;
+        }
     }
 
     /**
@@ -1665,12 +2039,8 @@ class ObjectMapping {
          * by another process concurrently
          */
         protected boolean hadEmptyTargetObjectSet() {
-            if (reconContext != null && reconContext.getTargets() != null) {
-                // If available, check against all queried existing IDs
-                return (reconContext.getTargets().size() == 0);
-            } else {
-                return false;
-            }
+            // If available, check against all queried existing IDs
+            return reconContext != null && reconContext.hadEmptyTargetSet();
         }
 
         /**
@@ -2137,6 +2507,9 @@ class ObjectMapping {
         // If it can not uniquely identify a target, the list of ambiguous target ids
         public List<String> ambiguousTargetIds;
 
+        // The correlation results if the source was correlated in a batch, null to correlate individually
+        JsonValue batchedCorrelation;
+
         @Override
         @SuppressWarnings("fallthrough")
         public JsonValue sync() throws SynchronizationException {
@@ -2399,6 +2772,9 @@ class ObjectMapping {
             if (hasTargetObject()) {
                 result = json(array(getTargetObject()));
             } else if (correlation.hasCorrelation(getLinkQualifier()) && (correlateEmptyTargetSet || !hadEmptyTargetObjectSet())) {
+                if (batchedCorrelation != null && sourceObjectOverride == null) {
+                    return batchedCorrelation;
+                }
                 EventEntry measure = Publisher.start(EVENT_CORRELATE_TARGET, getSourceObject(), null);
 
                 final JsonValue sourceObject = (sourceObjectOverride != null)
@@ -2561,6 +2937,108 @@ class ObjectMapping {
             }
         }
 
+        /**
+         * Returns true if source objects can be correlated in batches, which requires correlation queries.
+         *
+         * @return true if correlation queries are configured, false otherwise.
+         */
+        public boolean isBatchable() {
+            return type == CorrelationType.correlationQuery;
+        }
+
+        /**
+         * Correlates several source objects with one combined target query.
+         * <p>
+         * The correlation query of each source must consist of a single {@code _queryFilter} supported by
+         * {@link CorrelationFilterMatcher}. These filters are combined with "or", and the target objects
+         * returned are matched to each source in memory. A source is left to be correlated with its own query
+         * if its query is not of that form, if no target matches it, or if its matches depend on case, as the
+         * target system may compare values differently than the in-memory match.
+         *
+         * @param sources the source objects
+         * @param linkQualifier the link qualifier
+         * @return the correlation results of each source, or null for a source left to be correlated on its own
+         */
+        public List<JsonValue> correlateBatch(List<JsonValue> sources, String linkQualifier) {
+            List<JsonValue> results = new ArrayList<JsonValue>(Collections.<JsonValue>nCopies(sources.size(), null));
+            List<QueryFilter<JsonPointer>> filters = new ArrayList<QueryFilter<JsonPointer>>(sources.size());
+            Map<String, QueryFilter<JsonPointer>> distinctFilters = new LinkedHashMap<String, QueryFilter<JsonPointer>>();
+            for (JsonValue source : sources) {
+                QueryFilter<JsonPointer> filter = batchFilter(source, linkQualifier);
+                if (filter != null) {
+                    distinctFilters.put(filter.toString(), filter);
+                }
+                filters.add(filter);
+            }
+            if (distinctFilters.isEmpty()) {
+                return results;
+            }
+
+            QueryFilter<JsonPointer> combined = distinctFilters.size() == 1
+                    ? distinctFilters.values().iterator().next()
+                    : QueryFilter.or(new ArrayList<QueryFilter<JsonPointer>>(distinctFilters.values()));
+            Map<String, Object> queryParameters = new HashMap<String, Object>(1);
+            queryParameters.put(QueryRequest.FIELD_QUERY_FILTER, combined.toString());
+            JsonValue targets;
+            try {
+                targets = json(queryTargetObjectSet(queryParameters)).get(QueryResponse.FIELD_RESULT).required();
+            } catch (SynchronizationException e) {
+                LOGGER.debug("{} batched correlation query failed, correlating individually", name, e);
+                return results;
+            }
+
+            for (int i = 0; i < filters.size(); i++) {
+                QueryFilter<JsonPointer> filter = filters.get(i);
+                if (filter == null) {
+                    continue;
+                }
+                List<Object> matches = new ArrayList<Object>();
+                boolean caseDependent = false;
+                for (JsonValue target : targets) {
+                    boolean matched = CorrelationFilterMatcher.matches(filter, target, false);
+                    if (matched != CorrelationFilterMatcher.matches(filter, target, true)) {
+                        caseDependent = true;
+                        break;
+                    }
+                    if (matched) {
+                        matches.add(target.getObject());
+                    }
+                }
+                if (!caseDependent && !matches.isEmpty()) {
+                    results.set(i, json(matches));
+                }
+            }
+            return results;
+        }
+
+        /**
+         * Executes the correlation query of a source object for batching.
+         *
+         * @param source the source object
+         * @param linkQualifier the link qualifier
+         * @return the query filter, or null if the correlation query can not be batched
+         */
+        private QueryFilter<JsonPointer> batchFilter(JsonValue source, String linkQualifier) {
+            Map<String, Object> scope = new HashMap<String, Object>();
+            scope.put("source", source.asMap());
+            scope.put("linkQualifier", linkQualifier);
+            try {
+                JsonValue queryParameters = execScript(type.toString(), correlationQueries.get(linkQualifier), scope);
+                if (queryParameters.isMap() && queryParameters.size() == 1
+                        && queryParameters.get(QueryRequest.FIELD_QUERY_FILTER).isString()) {
+                    QueryFilter<JsonPointer> filter =
+                            QueryFilters.parse(queryParameters.get(QueryRequest.FIELD_QUERY_FILTER).asString());
+                    if (CorrelationFilterMatcher.isSupported(filter)) {
+                        return filter;
+                    }
+                }
+            } catch (ScriptException | RuntimeException e) {
+                // The source is correlated individually, which reports the failure
+                LOGGER.debug("{} correlation query for batch failed", name, e);
+            }
+            return null;
+        }
+
         /**
          * Executes a script of a given type with the given scope.
          * 
@@ -2651,7 +3129,8 @@ class ObjectMapping {
 
             // May want to consider an optimization to not query
             // if we don't need the link for the TARGET_IGNORED action
-            if (targetId != null) {
+            // In case the link was not pre-read get it here
+            if (targetId != null && !linkObject.initialized) {
                 linkObject.getLinkForTarget(targetId);
             }
 
@@ -25,6 +25,7 @@
 package org.forgerock.openidm.sync.impl;
 
 //import java.text.SimpleDateFormat;
+import org.forgerock.json.JsonValue;
 import org.forgerock.openidm.sync.ReconAction;
 
 import java.util.ArrayList;
@@ -57,6 +58,9 @@ public class PhaseStatistic {
     long phaseStartTime;
     long phaseEndTime;
 
+    /** The highest sampled heap usage, in bytes, while this phase was running */
+    final AtomicLong peakMemory = new AtomicLong();
+
     public PhaseStatistic(ReconciliationStatistic parentStat, Phase phase, String name) {
         this.parentStat = parentStat;
         this.phase = phase;
@@ -125,6 +129,7 @@ public class PhaseStatistic {
         results.put("duration", parentStat.getDuration(phaseStartTime, phaseEndTime));
         results.put("entryListDuration", parentStat.getDuration(queryStartTime, queryEndTime));
         results.put("processed", getProcessed());
+        results.put("peakMemory", peakMemory.get());
 
         Map<String, Object> nv = new HashMap<String, Object>();
         nv.put("count", notValid.size());
@@ -144,6 +149,47 @@ public class PhaseStatistic {
         return results;
     }
 
+    /**
+     * Returns the entries processed in this phase by situation, to be added to the phase statistic of the
+     * run they were processed for with {@link #addResults(JsonValue)}.
+     *
+     * @return the processed count, the ids by situation and the ids not valid
+     */
+    Map<String, Object> getResults() {
+        Map<String, Object> situations = new HashMap<String, Object>();
+        for (Entry<Situation, List<String>> e : ids.entrySet()) {
+            synchronized (e.getValue()) {
+                situations.put(e.getKey().name(), new ArrayList<String>(e.getValue()));
+            }
+        }
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put("processed", getProcessed());
+        results.put("situations", situations);
+        synchronized (notValid) {
+            results.put("notValid", new ArrayList<String>(notValid));
+        }
+        return results;
+    }
+
+    /**
+     * Adds the entries processed for the same run elsewhere, as returned by {@link #getResults()}.
+     *
+     * @param results the results to add
+     */
+    void addResults(JsonValue results) {
+        processedEntries.addAndGet(results.get("processed").defaultTo(0L).asLong());
+        JsonValue situations = results.get("situations");
+        for (String situation : situations.keys()) {
+            List<String> situationIds = ids.get(Situation.valueOf(situation));
+            if (situationIds != null) {
+                situationIds.addAll(situations.get(situation).asList(String.class));
+            }
+        }
+        if (results.isDefined("notValid")) {
+            notValid.addAll(results.get("notValid").asList(String.class));
+        }
+    }
+
     public void updateSummary(Map<String, Integer> simpleSummary) {
         for (Entry<Situation, List<String>> e : ids.entrySet()) {
             String key = e.getKey().name();
@@ -52,6 +52,9 @@ class PropertyMapping {
 
     /** A transform script */
     private final Script transform;
+
+    /** A transform expression, compiled instead of a transform script */
+    private final Expressions.Expression transformExpression;
     
     /** A {@link JsonPointer} for the target */
     private final JsonPointer targetPointer;
@@ -72,7 +75,14 @@ class PropertyMapping {
         condition = new Condition(config.get("condition"));
         targetPointer = config.get("target").required().asPointer();
         sourcePointer = config.get("source").asPointer(); // optional
-        transform = Scripts.newInstance(config.get("transform"));
+        JsonValue transformConfig = config.get("transform");
+        if (transformConfig.isMap() && transformConfig.isDefined("expression")) {
+            transformExpression = Expressions.compile(transformConfig.get("expression"));
+            transform = null;
+        } else {
+            transformExpression = null;
+            transform = Scripts.newInstance(transformConfig);
+        }
         defaultValue = config.get("default").getObject();
     }
 
@@ -132,7 +142,10 @@ class PropertyMapping {
                 result = jv.getObject();
             }
         }
-        if (transform != null) { // optional property mapping script
+        if (transformExpression != null) { // optional property mapping expression
+            result = transformExpression.evaluate(
+                    json(object(field("source", result), field("linkQualifier", linkQualifier))));
+        } else if (transform != null) { // optional property mapping script
             Map<String, Object> scope = new HashMap<String, Object>();
             scope.put("source", result);
             scope.put("linkQualifier", linkQualifier);
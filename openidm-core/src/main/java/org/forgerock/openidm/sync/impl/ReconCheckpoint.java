@@ -0,0 +1,395 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.Requests;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.util.DateUtil;
+import org.joda.time.DateTime;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * The progress of a resumable reconciliation of a mapping, saved in the repository so that a later run,
+ * on this or another node, can continue where an interrupted run left off.
+ * <p>
+ * There is at most one checkpoint per mapping, stored under the mapping name. While the source phase is
+ * running, the entries of each page of source entries, or of the whole source set without paging, are
+ * reconciled in id order, and the checkpoint holds the paging cookie of the page along with a watermark:
+ * the highest id up to which every entry of the page has been reconciled. It is saved every
+ * {@link #WATERMARK_SAVE_INTERVAL} entries and after each completed page, which moves it to the paging
+ * cookie of the next page. Once the source phase completes, the checkpoint moves to the target phase. It is
+ * deleted when a run completes successfully or a resumed run fails, and kept when a run fails, is
+ * canceled or dies with its node.
+ * <p>
+ * The ids are ordered by {@link String#compareTo(String)}, here rather than by the query, so the order does
+ * not depend on the object set returning its entries in the same order on every run.
+ * <p>
+ * A checkpoint is only resumed by a run with the same scope, the recon queries and request parameters,
+ * since a paging cookie is only valid for the query that issued it, and only while it is younger than
+ * the maximum age, after which the source may have changed too much for a partial run to be useful.
+ * <p>
+ * Saves are revision checked: when another run takes over the checkpoint, the next save of the run it
+ * took over from fails, which stops that run.
+ */
+class ReconCheckpoint {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconCheckpoint.class);
+
+    /** The repository collection holding the checkpoints, keyed by mapping name */
+    static final String CHECKPOINT_RESOURCE = "repo/recon/checkpoint";
+
+    private static final DateUtil DATE_UTIL = DateUtil.getDateUtil("UTC");
+
+    /** The number of reconciled source entries after which the watermark is saved */
+    static final int WATERMARK_SAVE_INTERVAL = 1000;
+
+    /** The order the entries of a page are reconciled in, which the watermark refers to */
+    private static final Comparator<ResultEntry> ID_ORDER = new Comparator<ResultEntry>() {
+        @Override
+        public int compare(ResultEntry a, ResultEntry b) {
+            return a.getId().compareTo(b.getId());
+        }
+    };
+
+    /**
+     * The reconciliation phase a checkpoint was saved in.
+     */
+    enum Phase {
+        /** Reconciling source entries; the paging cookie and the watermark locate the next entry */
+        SOURCE,
+        /** The source phase has completed */
+        TARGET
+    }
+
+    private final ObjectMapping mapping;
+    private final String reconId;
+    private final JsonValue scope;
+    private String resumedFrom;
+    private Phase phase = Phase.SOURCE;
+    private String pagingCookie;
+    private String watermark;
+    private int sourceProcessed;
+    private int unsavedProcessed;
+    private String revision;
+
+    private ReconCheckpoint(ObjectMapping mapping, String reconId, JsonValue scope) {
+        this.mapping = mapping;
+        this.reconId = reconId;
+        this.scope = scope;
+    }
+
+    /**
+     * Starts checkpointing a reconciliation run, taking over the checkpoint left by an earlier run of the
+     * mapping if there is one and {@code resume} is true.
+     *
+     * @param mapping the mapping being reconciled
+     * @param reconId the id of the reconciliation run
+     * @param resume whether to resume from a saved checkpoint, or discard it and start over
+     * @param scope the recon queries and request parameters of the run, which a resumed checkpoint must match
+     * @param maxAgeMillis the maximum time since a checkpoint was saved for it to be resumed, or 0 for no limit
+     * @return the checkpoint of the run
+     * @throws SynchronizationException if the checkpoint could not be read or saved
+     */
+    static ReconCheckpoint start(ObjectMapping mapping, String reconId, boolean resume, JsonValue scope,
+            long maxAgeMillis) throws SynchronizationException {
+        ReconCheckpoint checkpoint = new ReconCheckpoint(mapping, reconId, scope);
+        ResourceResponse saved = read(mapping);
+        if (saved != null) {
+            JsonValue content = saved.getContent();
+            checkpoint.revision = saved.getRevision();
+            String discardReason = resume
+                    ? getDiscardReason(content, scope, maxAgeMillis)
+                    : "resume is false";
+            if (discardReason == null) {
+                checkpoint.resumedFrom = content.get("reconId").asString();
+                checkpoint.phase = content.get("phase").defaultTo(Phase.SOURCE.name()).asEnum(Phase.class);
+                checkpoint.pagingCookie = content.get("pagingCookie").asString();
+                checkpoint.watermark = content.get("watermark").asString();
+                checkpoint.sourceProcessed = content.get("sourceProcessed").defaultTo(0).asInteger();
+                LOGGER.info("Recon {} of mapping {} resumes recon {} in the {} phase after {} source entries, "
+                        + "up to id {}", new Object[] { reconId, mapping.getName(), checkpoint.resumedFrom,
+                        checkpoint.phase, checkpoint.sourceProcessed, checkpoint.watermark });
+            } else {
+                LOGGER.info("Recon {} of mapping {} discards the checkpoint of recon {}, {}",
+                        new Object[] { reconId, mapping.getName(), content.get("reconId").asString(),
+                        discardReason });
+            }
+        }
+        // Take over the checkpoint, so that a run still holding it stops at its next save
+        checkpoint.save();
+        return checkpoint;
+    }
+
+    /**
+     * Returns why a saved checkpoint can not be resumed by a run.
+     *
+     * @param content the saved checkpoint
+     * @param scope the scope of the run
+     * @param maxAgeMillis the maximum age of a checkpoint to resume, or 0 for no limit
+     * @return the reason to discard the checkpoint, or null if it can be resumed
+     */
+    private static String getDiscardReason(JsonValue content, JsonValue scope, long maxAgeMillis) {
+        if (!sameValue(content.get("scope").getObject(), scope.getObject())) {
+            return "the recon queries or parameters changed";
+        }
+        if (maxAgeMillis > 0) {
+            DateTime lastUpdated = content.get("lastUpdated").isString()
+                    ? DATE_UTIL.parseIfDate(content.get("lastUpdated").asString())
+                    : null;
+            if (lastUpdated == null || lastUpdated.getMillis() < System.currentTimeMillis() - maxAgeMillis) {
+                return "it is older than the maximum age of " + maxAgeMillis + " ms";
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Compares JSON values read back from the repository, where numbers may change type and objects may change
+     * the order of their fields.
+     */
+    private static boolean sameValue(Object a, Object b) {
+        if (a == null || b == null) {
+            return a == b;
+        } else if (a instanceof Number && b instanceof Number) {
+            return ((Number) a).doubleValue() == ((Number) b).doubleValue();
+        } else if (a instanceof Map && b instanceof Map) {
+            Map<?, ?> mapA = (Map<?, ?>) a;
+            Map<?, ?> mapB = (Map<?, ?>) b;
+            if (!mapA.keySet().equals(mapB.keySet())) {
+                return false;
+            }
+            for (Map.Entry<?, ?> entry : mapA.entrySet()) {
+                if (!sameValue(entry.getValue(), mapB.get(entry.getKey()))) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (a instanceof List && b instanceof List) {
+            List<?> listA = (List<?>) a;
+            List<?> listB = (List<?>) b;
+            if (listA.size() != listB.size()) {
+                return false;
+            }
+            Iterator<?> iterB = listB.iterator();
+            for (Object elementA : listA) {
+                if (!sameValue(elementA, iterB.next())) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return a.equals(b);
+    }
+
+    private static ResourceResponse read(ObjectMapping mapping) throws SynchronizationException {
+        try {
+            ReadRequest request = Requests.newReadRequest(CHECKPOINT_RESOURCE, mapping.getName());
+            return mapping.getService().getConnectionFactory().getConnection()
+                    .read(mapping.getService().getContext(), request);
+        } catch (NotFoundException e) {
+            return null;
+        } catch (ResourceException e) {
+            LOGGER.warn("Failed to read the recon checkpoint of mapping {}", mapping.getName(), e);
+            throw new SynchronizationException(e);
+        }
+    }
+
+    /**
+     * @return whether this run resumes an earlier run
+     */
+    boolean isResumed() {
+        return resumedFrom != null;
+    }
+
+    /**
+     * @return the id of the run this run resumes, or null if it does not resume an earlier run
+     */
+    String getResumedFrom() {
+        return resumedFrom;
+    }
+
+    /**
+     * @return the phase to resume in
+     */
+    Phase getPhase() {
+        return phase;
+    }
+
+    /**
+     * @return the paging cookie of the page of source entries to continue with, or null to start
+     * with the first page
+     */
+    String getPagingCookie() {
+        return pagingCookie;
+    }
+
+    /**
+     * @return the highest id up to which the entries of the current page have been reconciled, or null
+     * if none has
+     */
+    String getWatermark() {
+        return watermark;
+    }
+
+    /**
+     * @return the number of source entries reconciled by this and the resumed runs
+     */
+    int getSourceProcessed() {
+        return sourceProcessed;
+    }
+
+    /**
+     * Orders the entries of the current page of source entries by id, as the watermark refers to that order,
+     * and leaves out the entries up to the watermark, which the resumed run already reconciled.
+     *
+     * @param entries the entries of the page
+     * @return the entries of the page still to reconcile, in the order to reconcile them in
+     */
+    Iterator<ResultEntry> remainingEntries(Iterator<ResultEntry> entries) {
+        List<ResultEntry> remaining = new ArrayList<ResultEntry>();
+        while (entries.hasNext()) {
+            ResultEntry entry = entries.next();
+            if (watermark == null || entry.getId().compareTo(watermark) > 0) {
+                remaining.add(entry);
+            }
+        }
+        Collections.sort(remaining, ID_ORDER);
+        return remaining.iterator();
+    }
+
+    /**
+     * Records a reconciled source entry of the current page. Entries must be recorded in the order of
+     * {@link #remainingEntries(Iterator)}, once every entry before them has been reconciled too.
+     *
+     * @param id the id of the entry
+     * @throws SynchronizationException if the checkpoint could not be saved
+     */
+    void sourceEntryCompleted(String id) throws SynchronizationException {
+        watermark = id;
+        sourceProcessed++;
+        if (++unsavedProcessed >= WATERMARK_SAVE_INTERVAL) {
+            save();
+        }
+    }
+
+    /**
+     * Records a completed page of source entries.
+     *
+     * @param nextPagingCookie the paging cookie of the next page, or null if the page was the last
+     * @throws SynchronizationException if the checkpoint could not be saved
+     */
+    void sourcePageCompleted(String nextPagingCookie) throws SynchronizationException {
+        pagingCookie = nextPagingCookie;
+        watermark = null;
+        save();
+    }
+
+    /**
+     * Records the completion of the source phase.
+     *
+     * @throws SynchronizationException if the checkpoint could not be saved
+     */
+    void sourcePhaseCompleted() throws SynchronizationException {
+        phase = Phase.TARGET;
+        pagingCookie = null;
+        watermark = null;
+        save();
+    }
+
+    /**
+     * Deletes the checkpoint once the run has completed successfully.
+     */
+    void completed() {
+        delete();
+    }
+
+    /**
+     * Deletes the checkpoint of a resumed run that failed, so that the next run starts over instead of resuming
+     * from a position that may be what makes it fail.
+     */
+    void resumeFailed() {
+        LOGGER.info("Recon {} of mapping {} failed after resuming recon {}, discarding its checkpoint",
+                new Object[] { reconId, mapping.getName(), resumedFrom });
+        delete();
+    }
+
+    private void delete() {
+        try {
+            DeleteRequest request = Requests.newDeleteRequest(CHECKPOINT_RESOURCE, mapping.getName());
+            request.setRevision(revision);
+            mapping.getService().getConnectionFactory().getConnection()
+                    .delete(mapping.getService().getContext(), request);
+            revision = null;
+        } catch (ResourceException e) {
+            // A stale checkpoint only makes the next run resume a completed run
+            LOGGER.warn("Failed to delete the recon checkpoint of mapping {}", mapping.getName(), e);
+        }
+    }
+
+    private void save() throws SynchronizationException {
+        JsonValue content = json(object(
+                field("mapping", mapping.getName()),
+                field("reconId", reconId),
+                field("resumedFrom", resumedFrom),
+                field("phase", phase.name()),
+                field("scope", scope.getObject()),
+                field("pagingCookie", pagingCookie),
+                field("watermark", watermark),
+                field("sourceProcessed", sourceProcessed),
+                field("lastUpdated", DATE_UTIL.formatDateTime(new Date()))));
+        try {
+            ResourceResponse response;
+            if (revision == null) {
+                response = mapping.getService().getConnectionFactory().getConnection().create(
+                        mapping.getService().getContext(),
+                        Requests.newCreateRequest(CHECKPOINT_RESOURCE, mapping.getName(), content));
+            } else {
+                UpdateRequest request = Requests.newUpdateRequest(CHECKPOINT_RESOURCE, mapping.getName(), content);
+                request.setRevision(revision);
+                response = mapping.getService().getConnectionFactory().getConnection().update(
+                        mapping.getService().getContext(), request);
+            }
+            revision = response.getRevision();
+            unsavedProcessed = 0;
+        } catch (PreconditionFailedException e) {
+            throw new SynchronizationException("The recon checkpoint of mapping " + mapping.getName()
+                    + " was taken over by another recon, stopping recon " + reconId, e);
+        } catch (ResourceException e) {
+            LOGGER.warn("Failed to save the recon checkpoint of mapping {}", mapping.getName(), e);
+            throw new SynchronizationException(e);
+        }
+    }
+}
@@ -24,7 +24,11 @@
 */
 package org.forgerock.openidm.sync.impl;
 
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CompletionService;
 import java.util.concurrent.ExecutionException;
@@ -46,14 +50,25 @@ public abstract class ReconFeeder {
      * The default feed size.
      */
     protected static int DEFAULT_FEED_SIZE = 1000;
+
+    /**
+     * The number of entries between samples of the heap usage for the recon statistics.
+     */
+    static final int MEMORY_SAMPLE_INTERVAL = 1000;
     
     CompletionService<Void> completionService;
     int feedSize = DEFAULT_FEED_SIZE;
     int submitted = 0;
+    int fed = 0;
 
     Iterator<ResultEntry> entriesIter;
     ReconciliationContext reconContext;
 
+    /** The submitted entries not yet reported completed, in the order they were fed */
+    private final Map<Future<Void>, ResultEntry> pending = new LinkedHashMap<Future<Void>, ResultEntry>();
+    /** The submitted tasks that completed ahead of an entry fed before them */
+    private final Set<Future<Void>> completedAhead = new HashSet<Future<Void>>();
+
     protected ReconFeeder(Iterator<ResultEntry> entriesIter, ReconciliationContext reconContext) {
         this.entriesIter = entriesIter;
         this.reconContext = reconContext;
@@ -69,11 +84,13 @@ public abstract class ReconFeeder {
             // Execute single threaded
             while (entriesIter.hasNext()) {
                 ResultEntry entry = entriesIter.next();
+                sampleMemory();
                 try {
                     createTask(entry).call();
                 } catch (Exception ex) {
                     translateTaskThrowable(ex);
                 }
+                completedInOrder(entry);
             }
         } else {
             submitted = 0;
@@ -95,6 +112,7 @@ public abstract class ReconFeeder {
                     Throwable cause = ex.getCause();
                     translateTaskThrowable(cause);
                 }
+                reportCompleted(future);
                 submitNextIfPresent();
             }
         }
@@ -104,11 +122,38 @@ public abstract class ReconFeeder {
         reconContext.checkCanceled();
         if (entriesIter.hasNext()) {
             ResultEntry entry = entriesIter.next();
-            completionService.submit(createTask(entry));
+            sampleMemory();
+            Future<Void> future = completionService.submit(createTask(entry));
+            pending.put(future, entry);
             ++submitted;
         }
     }
 
+    /**
+     * Reports the entries completed in the order they were fed, up to the first one still running.
+     *
+     * @param future the task that completed
+     * @throws SynchronizationException if reporting an entry failed
+     */
+    private void reportCompleted(Future<Void> future) throws SynchronizationException {
+        completedAhead.add(future);
+        Iterator<Map.Entry<Future<Void>, ResultEntry>> pendingIter = pending.entrySet().iterator();
+        while (pendingIter.hasNext()) {
+            Map.Entry<Future<Void>, ResultEntry> next = pendingIter.next();
+            if (!completedAhead.remove(next.getKey())) {
+                break;
+            }
+            pendingIter.remove();
+            completedInOrder(next.getValue());
+        }
+    }
+
+    private void sampleMemory() {
+        if (++fed % MEMORY_SAMPLE_INTERVAL == 0) {
+            reconContext.getStatistics().sampleMemory();
+        }
+    }
+
     void translateTaskThrowable(Throwable throwable) throws SynchronizationException {
         if (throwable instanceof SynchronizationException) {
             throw (SynchronizationException) throwable;
@@ -127,4 +172,14 @@ public abstract class ReconFeeder {
     
     abstract Callable createTask(ResultEntry entry) throws SynchronizationException;
 
+    /**
+     * Called on the feeding thread for each entry once it and every entry fed before it have been reconciled,
+     * in the order the entries were fed.
+     *
+     * @param entry the reconciled entry
+     * @throws SynchronizationException if processing fails
+     */
+    void completedInOrder(ResultEntry entry) throws SynchronizationException {
+    }
+
 }
@@ -0,0 +1,130 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cumulative statistics of the reconciliation runs of a mapping since the reconciliation service started,
+ * for monitoring the recon throughput and phase timings over time.
+ * <p>
+ * The statistics of a run are added once, when it completes; the entries processed by the runs not added
+ * yet are added when the statistics are read. Adding a run and reading the statistics are serialized, and
+ * a run is left out of the in-progress entries once it has been added, so a run moving from in progress
+ * to completed is counted exactly once. The processed counts still only move forward as long as the runs
+ * passed to {@link #asMap(Collection)} include the recently completed ones, not only those in progress.
+ */
+class ReconMappingStatistics {
+
+    private final AtomicLong completedRuns = new AtomicLong();
+    private final AtomicLong failedRuns = new AtomicLong();
+    private final AtomicLong canceledRuns = new AtomicLong();
+    private final AtomicLong sourceProcessed = new AtomicLong();
+    private final AtomicLong targetProcessed = new AtomicLong();
+    private final AtomicLong targetCreated = new AtomicLong();
+    private final AtomicLong linkCreated = new AtomicLong();
+    private final AtomicLong durationMillis = new AtomicLong();
+    private final AtomicLong entryListMillis = new AtomicLong();
+    private final AtomicLong sourcePhaseMillis = new AtomicLong();
+    private final AtomicLong targetPhaseMillis = new AtomicLong();
+
+    /** The runs already added, weakly held so that the runs dropped from the run history can be collected */
+    private final Set<ReconciliationContext> completed =
+            Collections.newSetFromMap(new WeakHashMap<ReconciliationContext, Boolean>());
+
+    /**
+     * Adds the statistics of a completed run.
+     *
+     * @param reconContext the context of the completed run
+     */
+    synchronized void runCompleted(ReconciliationContext reconContext) {
+        if (!completed.add(reconContext)) {
+            return;
+        }
+        switch (reconContext.getStage()) {
+        case COMPLETED_FAILED:
+            failedRuns.incrementAndGet();
+            break;
+        case COMPLETED_CANCELED:
+            canceledRuns.incrementAndGet();
+            break;
+        default:
+            completedRuns.incrementAndGet();
+        }
+        ReconciliationStatistic stat = reconContext.getStatistics();
+        sourceProcessed.addAndGet(stat.getSourceProcessed());
+        targetProcessed.addAndGet(stat.getTargetProcessed());
+        targetCreated.addAndGet(stat.getTargetCreated());
+        linkCreated.addAndGet(stat.getLinkCreated());
+        durationMillis.addAndGet(nonNegative(stat.getDuration()));
+        entryListMillis.addAndGet(nonNegative(stat.getDuration(stat.linkQueryStartTime, stat.linkQueryEndTime))
+                + entryListMillis(stat, stat.getSourceStat())
+                + entryListMillis(stat, stat.getTargetStat()));
+        sourcePhaseMillis.addAndGet(phaseMillis(stat, stat.getSourceStat()));
+        targetPhaseMillis.addAndGet(phaseMillis(stat, stat.getTargetStat()));
+    }
+
+    /**
+     * Returns the statistics, including the entries processed so far by the runs not completed yet.
+     *
+     * @param runs the known runs of the mapping, completed or not
+     * @return the statistics, keyed by name
+     */
+    synchronized Map<String, Long> asMap(Collection<ReconciliationContext> runs) {
+        long activeRuns = 0;
+        long activeSourceProcessed = 0;
+        long activeTargetProcessed = 0;
+        for (ReconciliationContext run : runs) {
+            if (!completed.contains(run)) {
+                activeRuns++;
+                activeSourceProcessed += run.getStatistics().getSourceProcessed();
+                activeTargetProcessed += run.getStatistics().getTargetProcessed();
+            }
+        }
+        Map<String, Long> map = new LinkedHashMap<String, Long>();
+        map.put("activeRuns", activeRuns);
+        map.put("completedRuns", completedRuns.get());
+        map.put("failedRuns", failedRuns.get());
+        map.put("canceledRuns", canceledRuns.get());
+        map.put("sourceProcessed", sourceProcessed.get() + activeSourceProcessed);
+        map.put("targetProcessed", targetProcessed.get() + activeTargetProcessed);
+        map.put("targetCreated", targetCreated.get());
+        map.put("linkCreated", linkCreated.get());
+        map.put("durationMillis", durationMillis.get());
+        map.put("entryListMillis", entryListMillis.get());
+        map.put("sourcePhaseMillis", sourcePhaseMillis.get());
+        map.put("targetPhaseMillis", targetPhaseMillis.get());
+        return map;
+    }
+
+    private static long entryListMillis(ReconciliationStatistic stat, PhaseStatistic phase) {
+        return phase == null ? 0 : nonNegative(stat.getDuration(phase.queryStartTime, phase.queryEndTime));
+    }
+
+    private static long phaseMillis(ReconciliationStatistic stat, PhaseStatistic phase) {
+        return phase == null ? 0 : nonNegative(stat.getDuration(phase.phaseStartTime, phase.phaseEndTime));
+    }
+
+    private static long nonNegative(long millis) {
+        return Math.max(0, millis);
+    }
+}
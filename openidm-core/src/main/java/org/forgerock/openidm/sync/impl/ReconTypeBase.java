@@ -15,6 +15,9 @@
  */
 package org.forgerock.openidm.sync.impl;
 
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.resource.QueryRequest.FIELD_QUERY_ID;
 import static org.forgerock.openidm.util.RequestUtil.hasQueryExpression;
 import static org.forgerock.openidm.util.RequestUtil.hasQueryFilter;
@@ -81,6 +84,19 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
      */
     final Boolean targetQueryFullEntry;
 
+    /**
+     * Whether the target ids for the target phase are spooled to disk rather than held in memory.
+     * Bounds the memory use of reconciliations against very large target sets, at the cost of
+     * not pre-loading target values and not knowing target existence without reading the target.
+     */
+    final boolean spoolTargetIds;
+
+    /**
+     * The number of target ids buffered in memory before a sorted run is spilled to disk,
+     * if spooling target ids.
+     */
+    final int targetIdSpoolRunSize;
+
     /**
      * A constructor.
      * 
@@ -97,7 +113,11 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
         logger.debug("sourceQueryFullEntry: {}", sourceQueryFullEntry);
         this.targetQueryFullEntry = calcEffectiveConfig("targetQueryFullEntry").asBoolean();
         logger.debug("targetQueryFullEntry: {}", targetQueryFullEntry);
-        
+        this.spoolTargetIds = calcEffectiveConfig("spoolTargetIds").defaultTo(false).asBoolean();
+        logger.debug("spoolTargetIds: {}", spoolTargetIds);
+        this.targetIdSpoolRunSize = calcEffectiveConfig("targetIdSpoolRunSize")
+                .defaultTo(SpooledIdSet.DEFAULT_RUN_SIZE).asInteger();
+        logger.debug("targetIdSpoolRunSize: {}", targetIdSpoolRunSize);
     }
 
     /**
@@ -116,6 +136,26 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
         return allowEmptySourceSet;
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBatchedLinkLookup() {
+        return false;
+    }
+
+    /**
+     * Returns the collection to populate with target ids, spooling to disk if so configured.
+     *
+     * @param inMemoryIds the in-memory collection to use if target ids are not spooled
+     * @return the collection to populate with target ids
+     */
+    protected Collection<String> targetIdCollection(Collection<String> inMemoryIds) {
+        return spoolTargetIds
+                ? new SpooledIdSet(targetIdSpoolRunSize, null)
+                : inMemoryIds;
+    }
+
     /**
      * Calculate the effective configuration for the given configuration property
      * Properties passed with the request body are given precedence, they override the default configuration
@@ -148,6 +188,21 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
      * @return the effecive query
      */
     protected JsonValue calcEffectiveQuery(String queryConfigPropertyName, String mappingResource) {
+        return calcEffectiveQuery(queryConfigPropertyName, mappingResource,
+                json(object(field(FIELD_QUERY_ID, ServerConstants.QUERY_ALL_IDS))));
+    }
+
+    /**
+     * Calculate the effective query, taking into account config overrides in the request, as well
+     * as the supplied default query
+     * @param queryConfigPropertyName The property name in the configuration for this query
+     * @param mappingResource the resource name in the mapping that this query relates to.
+     * Used to default the resource the query will be sent to
+     * @param defaultQuery the query parameters to use if the configuration does not specify the query
+     * @return the effecive query
+     */
+    protected JsonValue calcEffectiveQuery(String queryConfigPropertyName, String mappingResource,
+            JsonValue defaultQuery) {
         JsonValue queryCfg = calcEffectiveConfig(queryConfigPropertyName);
 
         if (queryCfg.isNull()) {
@@ -161,8 +216,10 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
 
         // If config doesn't explicitly specify the query, default to query all ids
         if (!specifiesQuery(queryCfg)) {
-            queryCfg.put(FIELD_QUERY_ID, ServerConstants.QUERY_ALL_IDS);
-            logger.debug("Default {} query to {}", queryConfigPropertyName, ServerConstants.QUERY_ALL_IDS);
+            for (String key : defaultQuery.keys()) {
+                queryCfg.put(key, defaultQuery.get(key).getObject());
+            }
+            logger.debug("Default {} query to {}", queryConfigPropertyName, defaultQuery);
         }
         logger.debug("Effective query for {}: {}", queryConfigPropertyName, queryCfg);
 
@@ -211,12 +268,15 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
             final Collection<String> collectionToPopulate, final boolean caseSensitive, final QuerySide querySide,
             int pageSize, String pagingCookie) throws SynchronizationException {
         final Collection<String> ids = collectionToPopulate;
+        // Spooled ids are kept off-heap, so do not hold on to the full entries either
+        final boolean keepValues = !(collectionToPopulate instanceof SpooledIdSet);
         final JsonValue objList = new JsonValue(new LinkedList());
         final ReconQueryResult reconQueryResult = new ReconQueryResult();
         try {
             QueryRequest request = RequestUtil.buildQueryRequestFromParameterMap(objectSet, query.asMap());
             request.setPageSize(pageSize);
             request.setPagedResultsCookie(pagingCookie);
+            prepareQueryRequest(request, querySide);
             QueryResponse queryResponse = reconContext.getService().getConnectionFactory().getConnection().query(
             		reconContext.getService().getContext(), request,
             		new QueryResourceHandler() {
@@ -238,7 +298,7 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
             						    : reconContext.getObjectMapping().getLinkType().normalizeId(resource.getId());
             					if (ids.add(id) == false) {
             						logger.warn("Detected duplicate entry id {} in query result; skipping entry. Query: {}", id, query);
-            					} else if (fullEntriesDetected) {
+            					} else if (fullEntriesDetected && keepValues) {
             						objList.add(resource.getContent());
             					}
 
@@ -258,6 +318,16 @@ public abstract class ReconTypeBase implements ReconTypeHandler {
         return reconQueryResult;
     }
     
+    /**
+     * Hook to amend a source or target query request before it is issued, such as to add sort keys.
+     * Does nothing by default.
+     *
+     * @param request the query request to amend
+     * @param querySide whether the query is on the source or target side of the reconciliation
+     */
+    protected void prepareQueryRequest(QueryRequest request, QuerySide querySide) {
+    }
+
     /**
      * Whether the query (source or target side query of a reconciliation)
      * returns full entry data, or just ids
@@ -0,0 +1,84 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.QueryRequest.FIELD_QUERY_FILTER;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.SortKey;
+
+/**
+ * Represents a reconciliation of a set defined by query/queries, reading the links of the entries
+ * a batch of entries at a time instead of pre-loading all links into memory or querying the link
+ * of each entry individually.
+ * <p>
+ * This is not a merge join: the source and target ids are still collected as by
+ * {@link ReconTypeByQuery}, and each entry still reads or correlates its target when reconciled.
+ * The queries are issued sorted by id only so that paging through them is stable. The links are
+ * matched to the entries by id equality, in the repository and then in memory, so the
+ * reconciliation does not depend on the object sets and the repository sorting ids alike.
+ */
+public class ReconTypeBatchedLinks extends ReconTypeByQuery {
+
+    /** The field to sort the source and target queries by */
+    static final String SORT_FIELD = "_id";
+
+    /**
+     * A constructor.
+     *
+     * @param reconContext a {@link ReconciliationContext} object.
+     */
+    public ReconTypeBatchedLinks(ReconciliationContext reconContext) {
+        super(reconContext);
+
+        // Query all entries by filter if not configured, as query ids typically do not support sort keys
+        JsonValue defaultQuery = json(object(field(FIELD_QUERY_FILTER, "true")));
+        sourceQuery = calcEffectiveQuery("sourceQuery", reconContext.getObjectMapping().getSourceObjectSet(),
+                defaultQuery);
+        targetQuery = calcEffectiveQuery("targetQuery", reconContext.getObjectMapping().getTargetObjectSet(),
+                defaultQuery);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isBatchedLinkLookup() {
+        return true;
+    }
+
+    /**
+     * Sorts the source and target queries by id.
+     */
+    @Override
+    protected void prepareQueryRequest(QueryRequest request, QuerySide querySide) {
+        request.addSortKey(SortKey.ascendingOrder(SORT_FIELD));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public JsonValue getReconParameters() {
+        JsonValue parameters = super.getReconParameters();
+        parameters.put("batchedLinks", true);
+        return parameters;
+    }
+}
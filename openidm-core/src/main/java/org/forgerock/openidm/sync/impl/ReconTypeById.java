@@ -85,7 +85,7 @@ public class ReconTypeById extends ReconTypeBase {
         return query(targetQuery.get("resourceName").asString(), 
                 targetQuery, 
                 reconContext,
-                Collections.synchronizedList(new ArrayList<String>()), 
+                targetIdCollection(Collections.synchronizedList(new ArrayList<String>())), 
                 reconContext.getObjectMapping().getLinkType().isTargetCaseSensitive(), 
                 QuerySide.TARGET,
                 0,
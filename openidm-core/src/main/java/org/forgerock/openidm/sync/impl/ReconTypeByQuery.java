@@ -80,7 +80,7 @@ public class ReconTypeByQuery extends ReconTypeBase {
     @Override
     public ResultIterable queryTarget() throws SynchronizationException {
         return query(targetQuery.get("resourceName").asString(), targetQuery, reconContext,
-                Collections.synchronizedSet(new LinkedHashSet<String>()), 
+                targetIdCollection(Collections.synchronizedSet(new LinkedHashSet<String>())), 
                 reconContext.getObjectMapping().getLinkType().isTargetCaseSensitive(), QuerySide.TARGET,
                 0, null
         ).getResultIterable();                
@@ -54,6 +54,14 @@ public interface ReconTypeHandler {
      */
     boolean allowEmptySourceSet();
 
+    /**
+     * Returns a boolean indicating if the recon should look up the links of each batch of entries at once
+     * rather than pre-loading all links or looking up the links per entry.
+     *
+     * @return true if the recon should look up the links in batches of entries, false otherwise.
+     */
+    boolean isBatchedLinkLookup();
+
     /**
      * Returns a {@link JsonValue} object containing parameters concerning source and target selection.
      * 
@@ -0,0 +1,430 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.util.query.QueryFilter.and;
+import static org.forgerock.util.query.QueryFilter.equalTo;
+import static org.forgerock.util.query.QueryFilter.or;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.Requests;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.services.context.Context;
+import org.forgerock.util.query.QueryFilter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A work unit of a clustered reconciliation: a slice of the source ids of a run, stored in the repository
+ * for any instance of the cluster to claim and reconcile.
+ * <p>
+ * The instance coordinating the run publishes the work units as {@link State#PENDING}. An instance claims
+ * one with a revision checked update to {@link State#CLAIMED}, so that each unit is claimed once, and
+ * reconciles its source entries under the id of the coordinating run. It then saves the source phase
+ * results and the target ids it handled, and marks the unit {@link State#COMPLETED}, or
+ * {@link State#FAILED} if the unit could not be reconciled. The coordinating instance adds the results
+ * of the completed units to the statistics of the run and deletes them.
+ * <p>
+ * Units claimed by an instance that fails are released to {@link State#PENDING}, and the units of a run
+ * whose coordinating instance fails are deleted, when the failed instance is recovered. The coordinating
+ * instance also releases a unit that stays claimed, unchanged, for longer than the work unit timeout, as
+ * when the claiming instance died without being detected as failed.
+ */
+class ReconWorkUnit {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReconWorkUnit.class);
+
+    /** The repository collection holding the work units */
+    static final String WORK_UNIT_RESOURCE = "repo/recon/workunit";
+
+    /**
+     * The state of a work unit.
+     */
+    enum State {
+        /** Published, waiting to be claimed */
+        PENDING,
+        /** Claimed and being reconciled by an instance */
+        CLAIMED,
+        /** Reconciled, with its results saved */
+        COMPLETED,
+        /** Reconciliation of the unit failed */
+        FAILED
+    }
+
+    static final String RECON_ID = "reconId";
+    static final String MAPPING = "mapping";
+    static final String COORDINATOR = "coordinator";
+    static final String STATE = "state";
+    static final String IDS = "ids";
+    static final String CONFIG = "config";
+    static final String INSTANCE_ID = "instanceId";
+    static final String RESULTS = "results";
+    static final String HANDLED_TARGET_IDS = "handledTargetIds";
+    static final String ERROR = "error";
+
+    /** The number of pending units queried at a time when claiming a unit */
+    private static final int CLAIM_QUERY_SIZE = 10;
+
+    private final String id;
+    private String revision;
+    private final JsonValue content;
+
+    private ReconWorkUnit(ResourceResponse resource) {
+        this.id = resource.getId();
+        this.revision = resource.getRevision();
+        this.content = resource.getContent();
+    }
+
+    /**
+     * Publishes a work unit.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param reconId the id of the coordinating run
+     * @param mapping the name of the mapping reconciled
+     * @param coordinator the id of the instance coordinating the run
+     * @param index the index of the unit in the run
+     * @param ids the source ids of the unit
+     * @param config the configuration overriding the mapping configuration for the run, or null
+     * @throws SynchronizationException if the unit could not be stored
+     */
+    static void publish(ConnectionFactory connectionFactory, Context context, String reconId, String mapping,
+            String coordinator, int index, List<String> ids, JsonValue config) throws SynchronizationException {
+        JsonValue content = json(object(
+                field(RECON_ID, reconId),
+                field(MAPPING, mapping),
+                field(COORDINATOR, coordinator),
+                field(STATE, State.PENDING.name()),
+                field(IDS, ids),
+                field(CONFIG, config == null ? null : config.getObject())));
+        try {
+            connectionFactory.getConnection().create(context,
+                    Requests.newCreateRequest(WORK_UNIT_RESOURCE, reconId + "-" + index, content));
+        } catch (ResourceException e) {
+            throw new SynchronizationException("Failed to publish work unit " + index + " of recon " + reconId, e);
+        }
+    }
+
+    /**
+     * Claims a pending work unit.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the requests with
+     * @param reconId the id of the run to claim a unit of, or null to claim a unit of any run
+     * @param instanceId the id of the claiming instance
+     * @return the claimed unit, or null if no unit is pending
+     * @throws SynchronizationException if the pending units could not be queried
+     */
+    static ReconWorkUnit claim(ConnectionFactory connectionFactory, Context context, String reconId,
+            String instanceId) throws SynchronizationException {
+        QueryFilter<JsonPointer> pending = equalTo(new JsonPointer(STATE), State.PENDING.name());
+        QueryFilter<JsonPointer> filter = reconId == null
+                ? pending
+                : and(equalTo(new JsonPointer(RECON_ID), reconId), pending);
+        List<ReconWorkUnit> units;
+        // Query again while all the queried units were claimed by other instances in the meantime
+        while (!(units = query(connectionFactory, context, filter, CLAIM_QUERY_SIZE)).isEmpty()) {
+            for (ReconWorkUnit unit : units) {
+                unit.content.put(STATE, State.CLAIMED.name());
+                unit.content.put(INSTANCE_ID, instanceId);
+                try {
+                    unit.save(connectionFactory, context);
+                    return unit;
+                } catch (PreconditionFailedException | NotFoundException e) {
+                    // Claimed by another instance, or deleted by the coordinator
+                    LOGGER.debug("Work unit {} was claimed by another instance", unit.id);
+                } catch (ResourceException e) {
+                    throw new SynchronizationException("Failed to claim work unit " + unit.id, e);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Queries the work units of a run that have completed or failed.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param reconId the id of the run
+     * @return the completed and failed units
+     * @throws SynchronizationException if the units could not be queried
+     */
+    static List<ReconWorkUnit> queryFinished(ConnectionFactory connectionFactory, Context context, String reconId)
+            throws SynchronizationException {
+        return query(connectionFactory, context, and(
+                equalTo(new JsonPointer(RECON_ID), reconId),
+                or(equalTo(new JsonPointer(STATE), State.COMPLETED.name()),
+                        equalTo(new JsonPointer(STATE), State.FAILED.name()))), 0);
+    }
+
+    /**
+     * Queries the work units of a run that are claimed by an instance.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param reconId the id of the run
+     * @return the claimed units
+     * @throws SynchronizationException if the units could not be queried
+     */
+    static List<ReconWorkUnit> queryClaimed(ConnectionFactory connectionFactory, Context context, String reconId)
+            throws SynchronizationException {
+        return query(connectionFactory, context, and(
+                equalTo(new JsonPointer(RECON_ID), reconId),
+                equalTo(new JsonPointer(STATE), State.CLAIMED.name())), 0);
+    }
+
+    /**
+     * Tells whether a run has any work units left.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param reconId the id of the run
+     * @return whether there is at least one unit of the run
+     * @throws SynchronizationException if the units could not be queried
+     */
+    static boolean exists(ConnectionFactory connectionFactory, Context context, String reconId)
+            throws SynchronizationException {
+        return !query(connectionFactory, context, equalTo(new JsonPointer(RECON_ID), reconId), 1).isEmpty();
+    }
+
+    /**
+     * Releases the units claimed by a failed instance, and deletes the units of the runs it coordinated.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the requests with
+     * @param instanceId the id of the failed instance
+     * @throws SynchronizationException if the units could not be queried
+     */
+    static void recover(ConnectionFactory connectionFactory, Context context, String instanceId)
+            throws SynchronizationException {
+        // Only reconId, state and instanceId are searchable, the coordinator is matched once queried
+        for (ReconWorkUnit unit : query(connectionFactory, context, QueryFilter.<JsonPointer>alwaysTrue(), 0)) {
+            if (instanceId.equals(unit.content.get(COORDINATOR).asString())) {
+                unit.delete(connectionFactory, context);
+            }
+        }
+        for (ReconWorkUnit unit : query(connectionFactory, context, and(
+                equalTo(new JsonPointer(INSTANCE_ID), instanceId),
+                equalTo(new JsonPointer(STATE), State.CLAIMED.name())), 0)) {
+            LOGGER.info("Releasing work unit {} claimed by failed instance {}", unit.id, instanceId);
+            unit.release(connectionFactory, context);
+        }
+    }
+
+    /**
+     * Deletes all work units of a run.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the requests with
+     * @param reconId the id of the run
+     */
+    static void deleteAll(ConnectionFactory connectionFactory, Context context, String reconId) {
+        try {
+            for (ReconWorkUnit unit : query(connectionFactory, context,
+                    equalTo(new JsonPointer(RECON_ID), reconId), 0)) {
+                unit.delete(connectionFactory, context);
+            }
+        } catch (SynchronizationException e) {
+            LOGGER.warn("Failed to delete the work units of recon {}", reconId, e);
+        }
+    }
+
+    private static List<ReconWorkUnit> query(ConnectionFactory connectionFactory, Context context,
+            QueryFilter<JsonPointer> filter, int pageSize) throws SynchronizationException {
+        QueryRequest request = Requests.newQueryRequest(WORK_UNIT_RESOURCE).setQueryFilter(filter);
+        if (pageSize > 0) {
+            request.setPageSize(pageSize);
+        }
+        Collection<ResourceResponse> results = new ArrayList<ResourceResponse>();
+        try {
+            connectionFactory.getConnection().query(context, request, results);
+        } catch (ResourceException e) {
+            throw new SynchronizationException("Failed to query recon work units", e);
+        }
+        List<ReconWorkUnit> units = new ArrayList<ReconWorkUnit>(results.size());
+        for (ResourceResponse resource : results) {
+            units.add(new ReconWorkUnit(resource));
+        }
+        return units;
+    }
+
+    /**
+     * @return the id of the unit
+     */
+    String getId() {
+        return id;
+    }
+
+    /**
+     * @return the revision of the unit, which changes whenever the unit is saved
+     */
+    String getRevision() {
+        return revision;
+    }
+
+    /**
+     * @return the id of the instance that claimed the unit, or null if it is not claimed
+     */
+    String getInstanceId() {
+        return content.get(INSTANCE_ID).asString();
+    }
+
+    /**
+     * @return the id of the coordinating run
+     */
+    String getReconId() {
+        return content.get(RECON_ID).asString();
+    }
+
+    /**
+     * @return the name of the mapping reconciled
+     */
+    String getMapping() {
+        return content.get(MAPPING).asString();
+    }
+
+    /**
+     * @return the state of the unit
+     */
+    State getState() {
+        return content.get(STATE).asEnum(State.class);
+    }
+
+    /**
+     * @return the source ids of the unit
+     */
+    List<String> getIds() {
+        return content.get(IDS).asList(String.class);
+    }
+
+    /**
+     * @return the configuration overriding the mapping configuration for the run, or null
+     */
+    JsonValue getConfig() {
+        JsonValue config = content.get(CONFIG);
+        return config.isNull() ? null : config;
+    }
+
+    /**
+     * @return the source phase results of a completed unit
+     */
+    JsonValue getResults() {
+        return content.get(RESULTS);
+    }
+
+    /**
+     * @return the normalized target ids handled while reconciling a completed unit
+     */
+    List<String> getHandledTargetIds() {
+        return content.get(HANDLED_TARGET_IDS).defaultTo(new ArrayList<String>()).asList(String.class);
+    }
+
+    /**
+     * @return the error a unit failed with
+     */
+    String getError() {
+        return content.get(ERROR).asString();
+    }
+
+    /**
+     * Saves the results of the claimed unit and marks it completed.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param results the source phase results
+     * @param handledTargetIds the normalized target ids handled while reconciling the unit
+     * @throws ResourceException if the unit could not be saved
+     */
+    void completed(ConnectionFactory connectionFactory, Context context, Map<String, Object> results,
+            Collection<String> handledTargetIds) throws ResourceException {
+        content.put(STATE, State.COMPLETED.name());
+        content.remove(IDS);
+        content.put(RESULTS, results);
+        content.put(HANDLED_TARGET_IDS, new ArrayList<String>(handledTargetIds));
+        save(connectionFactory, context);
+    }
+
+    /**
+     * Marks the claimed unit failed.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     * @param error the reason of the failure
+     * @throws ResourceException if the unit could not be saved
+     */
+    void failed(ConnectionFactory connectionFactory, Context context, String error) throws ResourceException {
+        content.put(STATE, State.FAILED.name());
+        content.put(ERROR, error);
+        save(connectionFactory, context);
+    }
+
+    /**
+     * Releases the claimed unit for another instance to claim.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     */
+    void release(ConnectionFactory connectionFactory, Context context) {
+        content.put(STATE, State.PENDING.name());
+        content.remove(INSTANCE_ID);
+        try {
+            save(connectionFactory, context);
+        } catch (ResourceException e) {
+            LOGGER.warn("Failed to release work unit {}", id, e);
+        }
+    }
+
+    /**
+     * Deletes the unit.
+     *
+     * @param connectionFactory the connection factory
+     * @param context the context to issue the request with
+     */
+    void delete(ConnectionFactory connectionFactory, Context context) {
+        try {
+            DeleteRequest request = Requests.newDeleteRequest(WORK_UNIT_RESOURCE, id);
+            request.setRevision(revision);
+            connectionFactory.getConnection().delete(context, request);
+        } catch (NotFoundException e) {
+            // Already deleted
+        } catch (ResourceException e) {
+            LOGGER.warn("Failed to delete work unit {}", id, e);
+        }
+    }
+
+    private void save(ConnectionFactory connectionFactory, Context context) throws ResourceException {
+        UpdateRequest request = Requests.newUpdateRequest(WORK_UNIT_RESOURCE, id, content);
+        request.setRevision(revision);
+        revision = connectionFactory.getConnection().update(context, request).getRevision();
+    }
+}
@@ -49,6 +49,7 @@ public class ReconciliationContext {
 
     private ReconStage stage = ReconStage.ACTIVE_INITIALIZED;
     private String reconId;
+    private String resumedFrom;
 
     private boolean canceled = false;
     private ReconTypeHandler reconTypeHandler;
@@ -62,6 +63,12 @@ public class ReconciliationContext {
     private Map<String, JsonValue> targets;
     // Whether the targets map contains preloaded values
     private boolean hasTargetsValues;
+
+    // If set, the disk spooled target ids used instead of the targets map
+    private SpooledIdSet spooledTargetIds;
+
+    // If set, the normalized ids of the targets handled by the source phase of a work unit
+    private volatile Set<String> handledTargetIds;
     
     private Integer totalSourceEntries;
     private Integer totalTargetEntries;
@@ -85,10 +92,32 @@ public class ReconciliationContext {
             JsonValue overridingConfig,
             ReconciliationService service)
         throws BadRequestException {
+        this(reconAction, mapping, reconParams, overridingConfig, service, callingContext.getId());
+    }
+
+    /**
+     * Creates the context of a reconciliation run processing entries on behalf of another run, such as
+     * a work unit of a clustered reconciliation, under the id of that run.
+     *
+     * @param reconAction the recon action
+     * @param mapping the mapping configuration
+     * @param reconParams configuration options for the recon
+     * @param overridingConfig the overriding configuration
+     * @param service the reconciliation service
+     * @param reconId the id of the run the entries are processed for
+     */
+    ReconciliationContext(
+            ReconciliationService.ReconAction reconAction,
+            ObjectMapping mapping,
+            JsonValue reconParams,
+            JsonValue overridingConfig,
+            ReconciliationService service,
+            String reconId)
+        throws BadRequestException {
 
         this.reconAction = reconAction;
         this.mapping = mapping;
-        this.reconId = callingContext.getId();
+        this.reconId = reconId;
         this.reconStat = new ReconciliationStatistic(this);
         this.reconParams = reconParams;
         this.overridingConfig = overridingConfig;
@@ -113,7 +142,9 @@ public class ReconciliationContext {
     private ReconTypeHandler createReconTypeHandler(ReconciliationService.ReconAction reconAction) throws BadRequestException {
         switch (reconAction) {
         case recon :
-            return new ReconTypeByQuery(this);
+            return isBatchedLinkLookup()
+                    ? new ReconTypeBatchedLinks(this)
+                    : new ReconTypeByQuery(this);
         case reconById :
             return new ReconTypeById(this);
         default:
@@ -121,6 +152,20 @@ public class ReconciliationContext {
         }
     }
 
+    /**
+     * Whether the mapping, or the configuration supplied with the request, selects the batched link lookup
+     * reconciliation. The request configuration takes precedence.
+     *
+     * @return true if the reconciliation should read the links in batches of entries
+     */
+    private boolean isBatchedLinkLookup() {
+        JsonValue batchedLinks = overridingConfig == null ? new JsonValue(null) : overridingConfig.get("batchedLinks");
+        if (batchedLinks.isNull()) {
+            batchedLinks = mapping.getConfig().get("batchedLinks");
+        }
+        return batchedLinks.defaultTo(false).asBoolean();
+    }
+
     /**
      * @return the reconciliation action
      */
@@ -135,6 +180,20 @@ public class ReconciliationContext {
         return reconId;
     }
 
+    /**
+     * @return the id of the interrupted reconciliation run this run resumes, or null if it does not resume a run
+     */
+    public String getResumedFrom() {
+        return resumedFrom;
+    }
+
+    /**
+     * @param resumedFrom the id of the interrupted reconciliation run this run resumes
+     */
+    void setResumedFrom(String resumedFrom) {
+        this.resumedFrom = resumedFrom;
+    }
+
     /**
      * @return the type of reconciliation
      */
@@ -302,6 +361,14 @@ public class ReconciliationContext {
      * If the target system IDs are case insensitive, the ids are kept in normalized (lower case) form
      */
     void setTargets(ResultIterable targetsIterable) {
+        if (targetsIterable.getAllIds() instanceof SpooledIdSet) {
+            // Spooled ids are not kept in memory; existence checks fall back to reading the target
+            this.spooledTargetIds = (SpooledIdSet) targetsIterable.getAllIds();
+            this.targets = null;
+            hasTargetsValues = false;
+            this.totalTargetEntries = Integer.valueOf((int) spooledTargetIds.getAddedCount());
+            return;
+        }
         // Choose a hash based map as we need fast "contains" key handling
         this.targets = new ConcurrentHashMap<String, JsonValue>();
         hasTargetsValues = true;
@@ -337,6 +404,34 @@ public class ReconciliationContext {
         return sourceIds;
     }
     
+    /**
+     * Starts recording the normalized ids of the targets handled by the source phase. A work unit of a
+     * clustered run does not know the remaining targets of the run, so it records the targets it handled
+     * for the coordinating instance to remove from them.
+     */
+    void recordHandledTargetIds() {
+        handledTargetIds = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Records a target handled by the source phase, if handled targets are recorded.
+     *
+     * @param normalizedTargetId the normalized id of the handled target
+     */
+    void targetHandled(String normalizedTargetId) {
+        Set<String> handled = handledTargetIds;
+        if (handled != null) {
+            handled.add(normalizedTargetId);
+        }
+    }
+
+    /**
+     * @return the normalized ids of the targets handled by the source phase, or null if they are not recorded
+     */
+    Set<String> getHandledTargetIds() {
+        return handledTargetIds;
+    }
+
     /**
      * @return a map all ids in the target object set,
      * mapped to the targetvalue (if value preloaded) or to null (if not preloaded)
@@ -347,6 +442,17 @@ public class ReconciliationContext {
         return targets;
     }
     
+    /**
+     * @return true if the bulk target query at the outset of reconciliation found no target
+     * objects; false if it found some, or if no bulk target query was done
+     */
+    public boolean hadEmptyTargetSet() {
+        if (targets != null) {
+            return targets.isEmpty();
+        }
+        return spooledTargetIds != null && totalTargetEntries != null && totalTargetEntries.intValue() == 0;
+    }
+
     /**
      * @return whether getTargets contains preloaded values
      */
@@ -389,6 +495,10 @@ public class ReconciliationContext {
     private synchronized void cleanupState() {
         sourceIds = null;
         targets = null;
+        if (spooledTargetIds != null) {
+            spooledTargetIds.close();
+            spooledTargetIds = null;
+        }
         if (executor != null) {
             executor.shutdown();
             executor = null;
@@ -405,6 +515,9 @@ public class ReconciliationContext {
         reconSummary.put("state", getState());
         reconSummary.put("stage", getStage().toString());
         reconSummary.put("stageDescription", getStage().getDescription());
+        if (resumedFrom != null) {
+            reconSummary.put("resumedFrom", resumedFrom);
+        }
         reconSummary.put("progress", getProgress());
         reconSummary.put("situationSummary", getStatistics().getSituationSummary());
         reconSummary.put("statusSummary", getStatistics().getStatusSummary());
@@ -412,6 +525,7 @@ public class ReconciliationContext {
         reconSummary.put("started", getStatistics().getStarted());
         reconSummary.put("ended", getStatistics().getEnded());
         reconSummary.put("duration", getStatistics().getDuration());
+        reconSummary.put("peakMemory", getStatistics().getPeakMemory());
         return reconSummary;
     }
 
@@ -15,6 +15,9 @@
  */
 package org.forgerock.openidm.sync.impl;
 
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.resource.Responses.newActionResponse;
 import static org.forgerock.json.resource.Responses.newResourceResponse;
 import static org.forgerock.openidm.util.ResourceUtil.notSupported;
@@ -25,14 +28,19 @@ import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.ListIterator;
 import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
 import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.management.MBeanServer;
 import javax.management.ObjectName;
@@ -48,8 +56,14 @@ import org.apache.felix.scr.annotations.ReferenceCardinality;
 import org.apache.felix.scr.annotations.ReferencePolicy;
 import org.apache.felix.scr.annotations.Service;
 import org.forgerock.json.JsonValueException;
+import org.forgerock.openidm.cluster.ClusterEvent;
+import org.forgerock.openidm.cluster.ClusterEventListener;
+import org.forgerock.openidm.cluster.ClusterEventType;
+import org.forgerock.openidm.cluster.ClusterManagementService;
 import org.forgerock.openidm.router.IDMConnectionFactory;
 import org.forgerock.openidm.sync.ReconContext;
+import org.forgerock.openidm.sync.TriggerContext;
+import org.forgerock.openidm.util.ContextUtil;
 import org.forgerock.services.context.Context;
 import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
@@ -89,13 +103,15 @@ import org.slf4j.LoggerFactory;
         @Property(name = "openidm.router.prefix", value = "/recon/*")
 })
 public class ReconciliationService
-        implements RequestHandler, Reconcile, ReconciliationServiceMBean {
+        implements RequestHandler, Reconcile, ReconciliationServiceMBean, ClusterEventListener {
     final static Logger logger = LoggerFactory.getLogger(ReconciliationService.class);
 
     public static final String PID = "org.forgerock.openidm.recon";
     private static final String MBEAN_NAME = "org.forgerock.openidm.recon:type=Reconciliation";
     private static final String AUDIT_RECON = "audit/recon";
     private static final String SUMMARY = "summary";
+    private static final String EVENT_LISTENER_ID = "recon";
+    private static final String EVENT_RECON_ID = "reconId";
 
     public enum ReconAction {
         recon, reconByQuery, reconById;
@@ -136,6 +152,32 @@ public class ReconciliationService
     )
     Mappings mappings;
 
+    /**
+     * The ClusterManagementService used to share the source phase of clustered reconciliation runs
+     */
+    @Reference(
+            cardinality = ReferenceCardinality.OPTIONAL_UNARY,
+            policy = ReferencePolicy.DYNAMIC
+    )
+    volatile ClusterManagementService clusterManagementService;
+
+    protected void bindClusterManagementService(final ClusterManagementService clusterManagementService) {
+        this.clusterManagementService = clusterManagementService;
+        this.clusterManagementService.register(EVENT_LISTENER_ID, this);
+    }
+
+    protected void unbindClusterManagementService(final ClusterManagementService clusterManagementService) {
+        clusterManagementService.unregister(EVENT_LISTENER_ID);
+        this.clusterManagementService = null;
+    }
+
+    /**
+     * Whether work units published by other instances are waiting to be claimed, and whether a thread
+     * of the full reconciliation pool is claiming them
+     */
+    private final AtomicBoolean workUnitsRequested = new AtomicBoolean();
+    private final AtomicBoolean workUnitsRunning = new AtomicBoolean();
+
     /**
      * The thread pool for executing full reconciliation runs.
      */
@@ -153,6 +195,12 @@ public class ReconciliationService
      */
     private int maxCompletedRuns;
 
+    /**
+     * Cumulative statistics of the completed runs, keyed by mapping name
+     */
+    private final ConcurrentMap<String, ReconMappingStatistics> mappingStatistics =
+            new ConcurrentHashMap<String, ReconMappingStatistics>();
+
     /**
      * Get the the list of all reconciliations, or details of one specific recon instance
      *
@@ -409,7 +457,21 @@ public class ReconciliationService
         } catch (RuntimeException ex) {
             reconContext.setStage(ReconStage.COMPLETED_FAILED);
             throw ex;
+        } finally {
+            statisticsOf(reconContext.getMapping()).runCompleted(reconContext);
+        }
+    }
+
+    private ReconMappingStatistics statisticsOf(String mapping) {
+        ReconMappingStatistics statistics = mappingStatistics.get(mapping);
+        if (statistics == null) {
+            ReconMappingStatistics newStatistics = new ReconMappingStatistics();
+            statistics = mappingStatistics.putIfAbsent(mapping, newStatistics);
+            if (statistics == null) {
+                statistics = newStatistics;
+            }
         }
+        return statistics;
     }
 
     /**
@@ -491,6 +553,166 @@ public class ReconciliationService
         return ObjectSetContext.get();
     }
 
+    /**
+     * Returns the id of this instance, which coordinates or claims the work units of clustered
+     * reconciliation runs.
+     *
+     * @return the cluster instance id
+     */
+    String getInstanceId() {
+        ClusterManagementService cluster = clusterManagementService;
+        return cluster != null
+                ? cluster.getInstanceId()
+                : IdentityServer.getInstance().getProperty("openidm.node.id");
+    }
+
+    /**
+     * Notifies the other instances of the cluster that work units of a run were published.
+     *
+     * @param reconId the id of the run
+     */
+    void workUnitsPublished(String reconId) {
+        ClusterManagementService cluster = clusterManagementService;
+        if (cluster != null && cluster.isEnabled()) {
+            cluster.sendEvent(new ClusterEvent(
+                    ClusterEventType.CUSTOM,
+                    cluster.getInstanceId(),
+                    EVENT_LISTENER_ID,
+                    json(object(field(EVENT_RECON_ID, reconId)))));
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean handleEvent(ClusterEvent event) {
+        switch (event.getType()) {
+        case RECOVERY_INITIATED:
+            try {
+                ReconWorkUnit.recover(connectionFactory, ContextUtil.createInternalContext(), event.getInstanceId());
+            } catch (SynchronizationException e) {
+                logger.warn("Failed to recover the recon work units of instance {}", event.getInstanceId(), e);
+                return false;
+            }
+            // The released units are left to claim
+            claimWorkUnits();
+            return true;
+        case CUSTOM:
+            logger.debug("Work units of recon {} published by instance {}",
+                    event.getDetails().get(EVENT_RECON_ID).asString(), event.getInstanceId());
+            claimWorkUnits();
+            return true;
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Claims and reconciles the work units published by the runs of other instances on a thread of the
+     * full reconciliation pool, until none is left. Notifications received while claiming are coalesced.
+     */
+    private void claimWorkUnits() {
+        workUnitsRequested.set(true);
+        if (fullReconExecutor == null || !workUnitsRunning.compareAndSet(false, true)) {
+            return;
+        }
+        fullReconExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    while (workUnitsRequested.getAndSet(false)) {
+                        reconcileWorkUnits();
+                    }
+                } catch (RuntimeException ex) {
+                    logger.warn("Reconciliation of work units failed with unexpected exception", ex);
+                } finally {
+                    workUnitsRunning.set(false);
+                }
+                // Requested after the last check and before the flag was reset
+                if (workUnitsRequested.get()) {
+                    claimWorkUnits();
+                }
+            }
+        });
+    }
+
+    private void reconcileWorkUnits() {
+        Context context = ContextUtil.createInternalContext();
+        String instanceId = getInstanceId();
+        try {
+            ReconWorkUnit unit;
+            while ((unit = ReconWorkUnit.claim(connectionFactory, context, null, instanceId)) != null) {
+                if (!reconcile(unit, context)) {
+                    break;
+                }
+            }
+        } catch (SynchronizationException ex) {
+            logger.warn("Failed to claim recon work units", ex);
+        }
+    }
+
+    /**
+     * Reconciles the source entries of a claimed work unit, and saves the results of the unit for the
+     * coordinating run.
+     *
+     * @param unit the claimed unit
+     * @param context the context to issue the requests with
+     * @return false if the mapping of the unit is not available on this instance, and the unit was released
+     */
+    private boolean reconcile(ReconWorkUnit unit, Context context) {
+        ObjectMapping mapping;
+        try {
+            if (mappings == null) {
+                throw new SynchronizationException("No mappings configured");
+            }
+            mapping = mappings.getMapping(unit.getMapping());
+        } catch (SynchronizationException ex) {
+            logger.warn("Releasing work unit {} of unavailable mapping {}", unit.getId(), unit.getMapping(), ex);
+            unit.release(connectionFactory, context);
+            return false;
+        }
+
+        ObjectSetContext.push(new TriggerContext(new ReconContext(context, mapping.getName()), "recon"));
+        ReconciliationContext reconContext = null;
+        try {
+            reconContext = new ReconciliationContext(ReconAction.recon, mapping, null, unit.getConfig(), this,
+                    unit.getReconId());
+            reconContext.setStage(ReconStage.ACTIVE_RECONCILING_SOURCE);
+            // The remaining targets of the run are not known here, the handled ones are recorded instead
+            reconContext.recordHandledTargetIds();
+            mapping.reconWorkUnit(reconContext, ObjectSetContext.get(), unit.getIds(),
+                    Collections.<String>emptySet());
+            unit.completed(connectionFactory, context, reconContext.getStatistics().getSourcePhaseResults(),
+                    reconContext.getHandledTargetIds());
+            reconContext.setStage(ReconStage.COMPLETED_SUCCESS);
+            logger.debug("Completed work unit {} of recon {}", unit.getId(), unit.getReconId());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            failed(unit, context, reconContext, ex);
+            return false;
+        } catch (Exception ex) {
+            failed(unit, context, reconContext, ex);
+        } finally {
+            ObjectSetContext.pop();
+        }
+        return true;
+    }
+
+    private void failed(ReconWorkUnit unit, Context context, ReconciliationContext reconContext,
+            Exception cause) {
+        if (reconContext != null) {
+            reconContext.setStage(ReconStage.COMPLETED_FAILED);
+        }
+        logger.warn("Work unit {} of recon {} failed", unit.getId(), unit.getReconId(), cause);
+        try {
+            unit.failed(connectionFactory, context, String.valueOf(cause.getMessage()));
+        } catch (ResourceException ex) {
+            // Deleted by the coordinator, which stopped waiting for the unit
+            logger.debug("Failed to save the failure of work unit {}", unit.getId(), ex);
+        }
+    }
+
     private void registerMBean() {
         try {
             MBeanServer mBeanServer = ManagementFactory.getPlatformMBeanServer();
@@ -595,4 +817,46 @@ public class ReconciliationService
             throw new InternalServerErrorException("Unable to get the maximum pool size in recon thread pool");
         }
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getQueueSize() throws ResourceException {
+        if (fullReconExecutor instanceof ThreadPoolExecutor) {
+            return ((ThreadPoolExecutor) fullReconExecutor).getQueue().size();
+        } else {
+            logger.error("Unable to get the queue size of recon thread pool");
+            throw new InternalServerErrorException("Unable to get the queue size of recon thread pool");
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Map<String, Long>> getMappingStatistics() {
+        // Pass the completed runs as well, a run whose stage is complete may not have been added yet
+        Map<String, List<ReconciliationContext>> mappingRuns = new HashMap<String, List<ReconciliationContext>>();
+        synchronized (reconRuns) {
+            for (ReconciliationContext run : reconRuns.values()) {
+                List<ReconciliationContext> runs = mappingRuns.get(run.getMapping());
+                if (runs == null) {
+                    runs = new ArrayList<ReconciliationContext>();
+                    mappingRuns.put(run.getMapping(), runs);
+                }
+                runs.add(run);
+            }
+        }
+        Map<String, Map<String, Long>> statistics = new TreeMap<String, Map<String, Long>>();
+        for (String mapping : mappingRuns.keySet()) {
+            statisticsOf(mapping);
+        }
+        for (Map.Entry<String, ReconMappingStatistics> entry : mappingStatistics.entrySet()) {
+            List<ReconciliationContext> runs = mappingRuns.get(entry.getKey());
+            statistics.put(entry.getKey(), entry.getValue().asMap(
+                    runs != null ? runs : Collections.<ReconciliationContext>emptyList()));
+        }
+        return statistics;
+    }
 }
@@ -18,6 +18,7 @@ package org.forgerock.openidm.sync.impl;
 
 import org.forgerock.json.resource.ResourceException;
 
+import java.util.Map;
 import java.util.concurrent.ExecutorService;
 
 /**
@@ -66,4 +67,20 @@ public interface ReconciliationServiceMBean {
      * @throws ResourceException if there is an error getting maximum allowed number of threads.
      */
     public int getMaximumPoolSize() throws ResourceException;
+
+    /**
+     * Gets the number of reconciliation runs waiting for a thread of the recon thread pool.
+     * @return the number of queued runs.
+     * @throws ResourceException if there is an error getting the number of queued runs.
+     */
+    public int getQueueSize() throws ResourceException;
+
+    /**
+     * Gets the cumulative statistics of the reconciliation runs per mapping since the service started:
+     * the number of active, completed, failed and canceled runs, the number of source and target entries
+     * processed, of targets and links created, and the time spent in runs, entry list queries, and the
+     * source and target phases, in milliseconds.
+     * @return the statistics, keyed by mapping name and then by statistic name.
+     */
+    public Map<String, Map<String, Long>> getMappingStatistics();
 }
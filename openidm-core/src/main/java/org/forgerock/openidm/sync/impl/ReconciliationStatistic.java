@@ -27,11 +27,14 @@ package org.forgerock.openidm.sync.impl;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
+import org.forgerock.json.JsonValue;
 import org.forgerock.openidm.audit.util.Status;
 import org.forgerock.openidm.sync.ReconAction;
 import org.forgerock.openidm.util.DateUtil;
@@ -50,6 +53,9 @@ public class ReconciliationStatistic {
     
     long linkQueryStartTime;
     long linkQueryEndTime;
+
+    /** The highest sampled heap usage, in bytes, while querying the entries to reconcile */
+    private final AtomicLong entryListPeakMemory = new AtomicLong();
     
     private AtomicInteger sourceProcessed = new AtomicInteger();
     private AtomicInteger linkProcessed = new AtomicInteger();
@@ -107,6 +113,7 @@ public class ReconciliationStatistic {
     
     public void sourceQueryEnd() {
         sourceStat.queryEndTime = System.currentTimeMillis();
+        updatePeak(entryListPeakMemory, usedMemory());
     }
     
     public void targetQueryStart() {
@@ -115,6 +122,7 @@ public class ReconciliationStatistic {
     
     public void targetQueryEnd() {
         targetStat.queryEndTime = System.currentTimeMillis();
+        updatePeak(entryListPeakMemory, usedMemory());
     }
     
     public void linkQueryStart() {
@@ -123,6 +131,7 @@ public class ReconciliationStatistic {
     
     public void linkQueryEnd() {
         linkQueryEndTime = System.currentTimeMillis();
+        updatePeak(entryListPeakMemory, usedMemory());
     }
 
     public void sourcePhaseStart() {
@@ -131,6 +140,7 @@ public class ReconciliationStatistic {
 
     public void sourcePhaseEnd() {
         sourceStat.phaseEndTime = System.currentTimeMillis();
+        updatePeak(sourceStat.peakMemory, usedMemory());
     }
 
     public void targetPhaseStart() {
@@ -139,6 +149,51 @@ public class ReconciliationStatistic {
 
     public void targetPhaseEnd() {
         targetStat.phaseEndTime = System.currentTimeMillis();
+        updatePeak(targetStat.peakMemory, usedMemory());
+    }
+
+    /**
+     * Samples the current heap usage and records it against the stage the reconciliation is in.
+     * The sample is JVM wide, so it includes garbage not yet collected and concurrent activity;
+     * it is an upper bound indicator of the memory a stage needed, not an exact measurement.
+     */
+    public void sampleMemory() {
+        switch (reconContext.getStage()) {
+        case ACTIVE_QUERY_ENTRIES:
+            updatePeak(entryListPeakMemory, usedMemory());
+            break;
+        case ACTIVE_RECONCILING_SOURCE:
+            updatePeak(sourceStat.peakMemory, usedMemory());
+            break;
+        case ACTIVE_RECONCILING_TARGET:
+            updatePeak(targetStat.peakMemory, usedMemory());
+            break;
+        default:
+            break;
+        }
+    }
+
+    /**
+     * @return the highest sampled heap usage, in bytes, for each phase of the reconciliation
+     */
+    public Map<String, Long> getPeakMemory() {
+        Map<String, Long> peakMemory = new LinkedHashMap<String, Long>();
+        peakMemory.put("entryList", entryListPeakMemory.get());
+        peakMemory.put("source", sourceStat.peakMemory.get());
+        peakMemory.put("target", targetStat.peakMemory.get());
+        return peakMemory;
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static void updatePeak(AtomicLong peak, long value) {
+        long current = peak.get();
+        while (value > current && !peak.compareAndSet(current, value)) {
+            current = peak.get();
+        }
     }
 
     /**
@@ -268,10 +323,48 @@ public class ReconciliationStatistic {
         results.put("duration", getDuration());
         results.put("reconId", reconContext.getReconId());
         results.put("mappingName", reconContext.getMapping());
+        results.put("peakMemory", getPeakMemory());
 
         return results;
     }
     
+    /**
+     * Returns the counts and situations of the source phase, for a run processing source entries on behalf
+     * of another run, such as a work unit of a clustered reconciliation. The coordinating run adds them
+     * to its own statistic with {@link #addSourcePhaseResults(JsonValue)}.
+     *
+     * @return the source phase results
+     */
+    Map<String, Object> getSourcePhaseResults() {
+        Map<String, Object> results = new HashMap<String, Object>();
+        results.put("sourceProcessed", sourceProcessed.get());
+        results.put("linkProcessed", linkProcessed.get());
+        results.put("linkCreated", linkCreated.get());
+        results.put("targetProcessed", targetProcessed.get());
+        results.put("targetCreated", targetCreated.get());
+        results.put("status", getStatusSummary());
+        results.put("source", sourceStat.getResults());
+        return results;
+    }
+
+    /**
+     * Adds the source phase results of a run that processed source entries on behalf of this run.
+     *
+     * @param results the results returned by {@link #getSourcePhaseResults()}
+     */
+    void addSourcePhaseResults(JsonValue results) {
+        sourceProcessed.addAndGet(results.get("sourceProcessed").defaultTo(0).asInteger());
+        linkProcessed.addAndGet(results.get("linkProcessed").defaultTo(0).asInteger());
+        linkCreated.addAndGet(results.get("linkCreated").defaultTo(0).asInteger());
+        targetProcessed.addAndGet(results.get("targetProcessed").defaultTo(0).asInteger());
+        targetCreated.addAndGet(results.get("targetCreated").defaultTo(0).asInteger());
+        JsonValue status = results.get("status");
+        for (String key : status.keys()) {
+            statusProcessed.get(Status.valueOf(key)).addAndGet(status.get(key).asInteger());
+        }
+        sourceStat.addResults(results.get("source"));
+    }
+
     public String simpleSummary() {
         Map<String, Integer> simpleSummary = new ConcurrentHashMap<String, Integer>();
         getSourceStat().updateSummary(simpleSummary);
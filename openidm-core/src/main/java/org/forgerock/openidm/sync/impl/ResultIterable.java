@@ -50,6 +50,10 @@ public class ResultIterable implements Iterable<ResultEntry> {
      * @param ids of entries to keep
      */
     public void removeNotMatchingEntries(Collection<String> ids) {
+        if (ids == allIds) {
+            // Filtering against our own ids; nothing to remove
+            return;
+        }
         Iterator<ResultEntry> entryIter = this.iterator();
         while (entryIter.hasNext()) {
             ResultEntry entry = entryIter.next();
@@ -0,0 +1,372 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.AbstractCollection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A disk backed collection of ids with bounded memory use, used to track the remaining
+ * target ids of a reconciliation.
+ * <p>
+ * Added ids and removed ids are each buffered in memory up to the configured run size,
+ * then sorted and spilled to a temporary file as a sorted run. Iterating merges all
+ * runs in id order and skips any id that was removed, so the iteration yields the
+ * distinct remaining ids in sorted order. At most one run worth of ids per buffer,
+ * plus one id per run during a merge, is held on the heap at any time.
+ * <p>
+ * Removal does not check membership and always reports success; {@link #contains(Object)}
+ * and {@link #size()} are answered by a full merge pass and should be avoided on hot paths.
+ */
+class SpooledIdSet extends AbstractCollection<String> implements Closeable {
+
+    /** The default number of ids to buffer in memory before spilling a sorted run */
+    static final int DEFAULT_RUN_SIZE = 100000;
+
+    private static final Logger logger = LoggerFactory.getLogger(SpooledIdSet.class);
+
+    private final int runSize;
+    private final File directory;
+
+    private final List<String> addBuffer = new ArrayList<String>();
+    private final List<String> removeBuffer = new ArrayList<String>();
+    private final List<File> addRuns = new ArrayList<File>();
+    private final List<File> removeRuns = new ArrayList<File>();
+
+    private long added = 0;
+    private boolean closed = false;
+
+    /**
+     * Construct the set.
+     *
+     * @param runSize the number of ids to buffer in memory before spilling a sorted run to disk
+     * @param directory the directory for the temporary run files, or null for the default temporary directory
+     */
+    SpooledIdSet(int runSize, File directory) {
+        this.runSize = runSize > 0 ? runSize : DEFAULT_RUN_SIZE;
+        this.directory = directory;
+    }
+
+    /**
+     * Adds an id. Duplicates are accepted and collapsed on iteration.
+     *
+     * @param id the id to add
+     * @return always true
+     */
+    @Override
+    public synchronized boolean add(String id) {
+        checkOpen();
+        addBuffer.add(id);
+        ++added;
+        if (addBuffer.size() >= runSize) {
+            addRuns.add(spill(addBuffer));
+        }
+        return true;
+    }
+
+    /**
+     * Records the id as removed. Membership is not checked.
+     *
+     * @param id the id to remove
+     * @return always true
+     */
+    @Override
+    public synchronized boolean remove(Object id) {
+        checkOpen();
+        if (id == null) {
+            return false;
+        }
+        removeBuffer.add(id.toString());
+        if (removeBuffer.size() >= runSize) {
+            removeRuns.add(spill(removeBuffer));
+        }
+        return true;
+    }
+
+    /**
+     * @return the number of ids added, including duplicates and ids that were later removed
+     */
+    synchronized long getAddedCount() {
+        return added;
+    }
+
+    /**
+     * Counts the distinct remaining ids with a full merge pass.
+     *
+     * @return the number of distinct ids added and not removed
+     */
+    @Override
+    public int size() {
+        int count = 0;
+        for (Iterator<String> iter = iterator(); iter.hasNext(); iter.next()) {
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Returns an iterator over the distinct remaining ids in sorted order. Any buffered ids
+     * are spilled first, so the iterator reflects the adds and removes made up to this call.
+     *
+     * @return the merging iterator
+     */
+    @Override
+    public synchronized Iterator<String> iterator() {
+        checkOpen();
+        if (!addBuffer.isEmpty()) {
+            addRuns.add(spill(addBuffer));
+        }
+        if (!removeBuffer.isEmpty()) {
+            removeRuns.add(spill(removeBuffer));
+        }
+        return new DifferenceIterator(new MergeIterator(addRuns), new MergeIterator(removeRuns));
+    }
+
+    /**
+     * Does not enumerate the content, which may be very large.
+     */
+    @Override
+    public synchronized String toString() {
+        return "SpooledIdSet [added=" + added + ", addRuns=" + addRuns.size()
+                + ", removeRuns=" + removeRuns.size() + "]";
+    }
+
+    /**
+     * Deletes all run files. The set can not be used afterwards.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        addBuffer.clear();
+        removeBuffer.clear();
+        deleteRuns(addRuns);
+        deleteRuns(removeRuns);
+    }
+
+    private void checkOpen() {
+        if (closed) {
+            throw new IllegalStateException("Spooled id set is closed");
+        }
+    }
+
+    private void deleteRuns(List<File> runs) {
+        for (File run : runs) {
+            if (!run.delete()) {
+                logger.debug("Failed to delete spooled id run {}", run);
+                run.deleteOnExit();
+            }
+        }
+        runs.clear();
+    }
+
+    /**
+     * Sorts the buffer, writes it to a new run file and clears the buffer.
+     */
+    private File spill(List<String> buffer) {
+        Collections.sort(buffer);
+        File run = null;
+        DataOutputStream out = null;
+        try {
+            run = File.createTempFile("openidm-recon-ids-", ".run", directory);
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+            for (String id : buffer) {
+                out.writeUTF(id);
+            }
+        } catch (IOException e) {
+            if (run != null) {
+                run.delete();
+            }
+            throw new IllegalStateException("Failed to spool ids to " + run, e);
+        } finally {
+            closeQuietly(out);
+        }
+        logger.debug("Spilled {} ids to {}", buffer.size(), run);
+        buffer.clear();
+        return run;
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                logger.debug("Failed to close spooled id stream", e);
+            }
+        }
+    }
+
+    /**
+     * Sequential reader of a single sorted run.
+     */
+    private static final class RunReader implements Comparable<RunReader> {
+        private final DataInputStream in;
+        private String current;
+
+        RunReader(File run) throws IOException {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(run)));
+            advance();
+        }
+
+        boolean advance() {
+            try {
+                current = in.readUTF();
+                return true;
+            } catch (EOFException e) {
+                current = null;
+                closeQuietly(in);
+                return false;
+            } catch (IOException e) {
+                closeQuietly(in);
+                throw new IllegalStateException("Failed to read spooled ids", e);
+            }
+        }
+
+        @Override
+        public int compareTo(RunReader other) {
+            return current.compareTo(other.current);
+        }
+    }
+
+    /**
+     * K-way merge over sorted runs, yielding each distinct id once.
+     */
+    private static final class MergeIterator implements Iterator<String> {
+        private final PriorityQueue<RunReader> queue;
+        private String last;
+
+        MergeIterator(List<File> runs) {
+            queue = new PriorityQueue<RunReader>(Math.max(1, runs.size()));
+            try {
+                for (File run : runs) {
+                    RunReader reader = new RunReader(run);
+                    if (reader.current != null) {
+                        queue.add(reader);
+                    }
+                }
+            } catch (IOException e) {
+                for (RunReader reader : queue) {
+                    closeQuietly(reader.in);
+                }
+                throw new IllegalStateException("Failed to open spooled ids", e);
+            }
+            skipDuplicates();
+        }
+
+        private void skipDuplicates() {
+            while (last != null && !queue.isEmpty() && queue.peek().current.equals(last)) {
+                pollAndAdvance();
+            }
+        }
+
+        private String pollAndAdvance() {
+            RunReader reader = queue.poll();
+            String id = reader.current;
+            if (reader.advance()) {
+                queue.add(reader);
+            }
+            return id;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !queue.isEmpty();
+        }
+
+        @Override
+        public String next() {
+            if (queue.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            last = pollAndAdvance();
+            skipDuplicates();
+            return last;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+
+    /**
+     * Streams the sorted difference of two sorted, distinct iterators.
+     */
+    private static final class DifferenceIterator implements Iterator<String> {
+        private final Iterator<String> included;
+        private final Iterator<String> excluded;
+        private String nextExcluded;
+        private String next;
+
+        DifferenceIterator(Iterator<String> included, Iterator<String> excluded) {
+            this.included = included;
+            this.excluded = excluded;
+            this.nextExcluded = excluded.hasNext() ? excluded.next() : null;
+            advance();
+        }
+
+        private void advance() {
+            next = null;
+            while (included.hasNext()) {
+                String candidate = included.next();
+                while (nextExcluded != null && nextExcluded.compareTo(candidate) < 0) {
+                    nextExcluded = excluded.hasNext() ? excluded.next() : null;
+                }
+                if (nextExcluded == null || !nextExcluded.equals(candidate)) {
+                    next = candidate;
+                    return;
+                }
+            }
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public String next() {
+            if (next == null) {
+                throw new NoSuchElementException();
+            }
+            String result = next;
+            advance();
+            return result;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
@@ -16,21 +16,32 @@
 package org.forgerock.openidm.managed;
 
 import static org.forgerock.json.JsonValue.*;
+import static org.forgerock.json.resource.Responses.newQueryResponse;
 import static org.forgerock.json.resource.Responses.newResourceResponse;
 import static org.mockito.Mockito.*;
 import static org.testng.Assert.*;
 
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Map;
+
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.BadRequestException;
 import org.forgerock.json.resource.Connection;
 import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
 import org.forgerock.json.resource.ReadRequest;
 import org.forgerock.json.resource.ResourcePath;
+import org.forgerock.json.resource.ResourceResponse;
 import org.forgerock.openidm.audit.util.ActivityLogger;
 import org.forgerock.openidm.util.RelationshipUtil;
 import org.forgerock.services.context.Context;
 import org.forgerock.services.context.RootContext;
 import org.mockito.ArgumentMatcher;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
 import org.testng.annotations.BeforeTest;
 import org.testng.annotations.Test;
 
@@ -146,6 +157,59 @@ public class CollectionRelationshipProviderTest {
         }
     }
 
+    @Test
+    public void testGetRelationshipValuesForResources() throws Exception {
+        Connection connection = mock(Connection.class);
+        ConnectionFactory factory = mock(ConnectionFactory.class);
+        when(factory.getConnection()).thenReturn(connection);
+        when(connection.query(any(Context.class), any(QueryRequest.class), any(QueryResourceHandler.class)))
+                .thenAnswer(new Answer<QueryResponse>() {
+                    @Override
+                    public QueryResponse answer(InvocationOnMock invocation) {
+                        QueryResourceHandler handler = (QueryResourceHandler) invocation.getArguments()[2];
+                        handler.handleResource(relationship("r1", "managed/role/a", "members", "managed/user/u1",
+                                "roles"));
+                        handler.handleResource(relationship("r2", "managed/role/b", "members", "managed/user/u1",
+                                "roles"));
+                        handler.handleResource(relationship("r3", "managed/role/a", "members", "managed/user/u2",
+                                "roles"));
+                        return newQueryResponse();
+                    }
+                });
+
+        SchemaField schemaField = mock(SchemaField.class);
+        when(schemaField.getName()).thenReturn("roles");
+        when(schemaField.isReverseRelationship()).thenReturn(true);
+        when(schemaField.getReversePropertyName()).thenReturn("members");
+
+        CollectionRelationshipProvider provider = new CollectionRelationshipProvider(factory,
+                ResourcePath.resourcePath("managed/user"), schemaField, activityLogger, managedObjectSyncService);
+
+        Map<String, JsonValue> values = provider.getRelationshipValuesForResources(new RootContext(),
+                Arrays.asList("u1", "u2", "u3"));
+
+        // one repository query for all resources
+        verify(connection, times(1)).query(any(Context.class), any(QueryRequest.class),
+                any(QueryResourceHandler.class));
+        assertEquals(values.keySet(), new LinkedHashSet<>(Arrays.asList("u1", "u2", "u3")));
+        assertEquals(values.get("u1").size(), 2);
+        assertEquals(values.get("u1").get(0).get(SchemaField.FIELD_REFERENCE).asString(), "managed/role/a");
+        assertEquals(values.get("u1").get(1).get(SchemaField.FIELD_REFERENCE).asString(), "managed/role/b");
+        assertEquals(values.get("u2").size(), 1);
+        assertEquals(values.get("u2").get(0).get(SchemaField.FIELD_PROPERTIES).get("_id").asString(), "r3");
+        assertEquals(values.get("u3").size(), 0);
+    }
+
+    private static ResourceResponse relationship(String id, String firstId, String firstPropertyName,
+            String secondId, String secondPropertyName) {
+        return newResourceResponse(id, "1", json(object(
+                field("firstId", firstId),
+                field("firstPropertyName", firstPropertyName),
+                field("secondId", secondId),
+                field("secondPropertyName", secondPropertyName),
+                field("properties", object()))));
+    }
+
     private static class IsRouteMatcher extends ArgumentMatcher<ReadRequest> {
         private final String route;
 
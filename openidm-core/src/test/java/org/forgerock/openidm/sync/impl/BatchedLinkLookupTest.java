@@ -0,0 +1,254 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newQueryResponse;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.resource.Connection;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.query.QueryFilterVisitor;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests looking up the links of batches of reconciliation entries.
+ */
+public class BatchedLinkLookupTest {
+
+    private ObjectMapping mapping;
+    private Connection connection;
+    private int queries;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        SynchronizationService service = mock(SynchronizationService.class);
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        LinkType linkType = mock(LinkType.class);
+        mapping = mock(ObjectMapping.class);
+        queries = 0;
+
+        when(mapping.getName()).thenReturn("testMapping");
+        when(mapping.getService()).thenReturn(service);
+        when(mapping.getLinkType()).thenReturn(linkType);
+        when(service.getConnectionFactory()).thenReturn(connectionFactory);
+        when(service.getContext()).thenReturn(new RootContext());
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        when(linkType.getName()).thenReturn("linkType");
+        when(linkType.useReverse()).thenReturn(false);
+        Answer<String> identity = new Answer<String>() {
+            @Override
+            public String answer(InvocationOnMock invocation) {
+                return (String) invocation.getArguments()[0];
+            }
+        };
+        when(linkType.normalizeSourceId(anyString())).thenAnswer(identity);
+        when(linkType.normalizeTargetId(anyString())).thenAnswer(identity);
+    }
+
+    @Test
+    public void testLinksAreLookedUpPerBatch() throws Exception {
+        givenLinks("a", "c", "d", "f", "g");
+
+        BatchedLinkLookup lookup = new BatchedLinkLookup(mapping, Collections.singleton("default"), true, 3);
+        Iterator<ResultEntry> entries = lookup.batch(entries("a", "b", "d", "e", "g", "h"));
+
+        assertThat(linkFor(lookup, entries, "a").targetId).isEqualTo("target-a");
+        assertThat(linkFor(lookup, entries, "b")).isNull();
+        assertThat(linkFor(lookup, entries, "d").targetId).isEqualTo("target-d");
+        assertThat(linkFor(lookup, entries, "e")).isNull();
+        assertThat(linkFor(lookup, entries, "g").targetId).isEqualTo("target-g");
+        assertThat(linkFor(lookup, entries, "h")).isNull();
+        assertThat(entries.hasNext()).isFalse();
+        assertThat(queries).isEqualTo(2);
+    }
+
+    @Test
+    public void testOrderIsNotAssumed() throws Exception {
+        // as returned by a case insensitive collation, which Java string order disagrees with
+        givenLinks("B", "a", "C");
+
+        BatchedLinkLookup lookup = new BatchedLinkLookup(mapping, Collections.singleton("default"), true, 10);
+        Iterator<ResultEntry> entries = lookup.batch(entries("C", "a", "b", "B"));
+
+        assertThat(linkFor(lookup, entries, "C").targetId).isEqualTo("target-C");
+        assertThat(linkFor(lookup, entries, "a").targetId).isEqualTo("target-a");
+        assertThat(linkFor(lookup, entries, "b")).isNull();
+        assertThat(linkFor(lookup, entries, "B").targetId).isEqualTo("target-B");
+    }
+
+    @Test
+    public void testLargeBatchesAreQueriedInChunks() throws Exception {
+        List<String> ids = new ArrayList<String>();
+        for (int i = 0; i < BatchedLinkLookup.MAX_IDS_PER_QUERY * 2 + 1; i++) {
+            ids.add("id" + i);
+        }
+        givenLinks(ids.get(0), ids.get(ids.size() - 1));
+
+        BatchedLinkLookup lookup = new BatchedLinkLookup(mapping, Collections.singleton("default"), true, ids.size());
+        Iterator<ResultEntry> entries = lookup.batch(entries(ids.toArray(new String[ids.size()])));
+
+        assertThat(linkFor(lookup, entries, ids.get(0))).isNotNull();
+        for (int i = 1; i < ids.size() - 1; i++) {
+            assertThat(linkFor(lookup, entries, ids.get(i))).isNull();
+        }
+        assertThat(linkFor(lookup, entries, ids.get(ids.size() - 1))).isNotNull();
+        assertThat(queries).isEqualTo(3);
+    }
+
+    private static Iterator<ResultEntry> entries(String... ids) {
+        return new ResultIterable(Arrays.asList(ids), null).iterator();
+    }
+
+    private static Link linkFor(BatchedLinkLookup lookup, Iterator<ResultEntry> entries, String id)
+            throws SynchronizationException {
+        assertThat(entries.next().getId()).isEqualTo(id);
+        Map<String, Map<String, Link>> links = lookup.linksFor(id);
+        assertThat(links).containsKey("default");
+        return links.get("default").get(id);
+    }
+
+    /**
+     * Serves the links of the given source ids that are matched by the ids the query asks for.
+     */
+    private void givenLinks(String... sourceIds) throws Exception {
+        final List<String> ids = Arrays.asList(sourceIds);
+        when(connection.query(any(Context.class), any(QueryRequest.class), any(QueryResourceHandler.class)))
+                .thenAnswer(new Answer<QueryResponse>() {
+                    @Override
+                    public QueryResponse answer(InvocationOnMock invocation) {
+                        queries++;
+                        QueryRequest request = (QueryRequest) invocation.getArguments()[1];
+                        QueryResourceHandler handler = (QueryResourceHandler) invocation.getArguments()[2];
+                        Set<Object> requested = new HashSet<Object>();
+                        collectFirstIds(request.getQueryFilter(), requested);
+                        assertThat(requested.size()).isLessThanOrEqualTo(BatchedLinkLookup.MAX_IDS_PER_QUERY);
+                        for (String id : ids) {
+                            if (requested.contains(id)) {
+                                handler.handleResource(newResourceResponse("link-" + id, "0", json(object(
+                                        field("_id", "link-" + id),
+                                        field("linkQualifier", "default"),
+                                        field("firstId", id),
+                                        field("secondId", "target-" + id)))));
+                            }
+                        }
+                        return newQueryResponse();
+                    }
+                });
+    }
+
+    private static void collectFirstIds(QueryFilter<JsonPointer> filter, final Set<Object> ids) {
+        filter.accept(new QueryFilterVisitor<Void, Void, JsonPointer>() {
+            @Override
+            public Void visitAndFilter(Void p, List<QueryFilter<JsonPointer>> subFilters) {
+                for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                    subFilter.accept(this, p);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitOrFilter(Void p, List<QueryFilter<JsonPointer>> subFilters) {
+                return visitAndFilter(p, subFilters);
+            }
+
+            @Override
+            public Void visitEqualsFilter(Void p, JsonPointer field, Object valueAssertion) {
+                if (field.equals(new JsonPointer("/firstId"))) {
+                    ids.add(valueAssertion);
+                }
+                return null;
+            }
+
+            @Override
+            public Void visitBooleanLiteralFilter(Void p, boolean value) {
+                return null;
+            }
+
+            @Override
+            public Void visitContainsFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitExtendedMatchFilter(Void p, JsonPointer field, String operator, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitGreaterThanFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitGreaterThanOrEqualToFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitLessThanFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitLessThanOrEqualToFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+
+            @Override
+            public Void visitNotFilter(Void p, QueryFilter<JsonPointer> subFilter) {
+                return null;
+            }
+
+            @Override
+            public Void visitPresentFilter(Void p, JsonPointer field) {
+                return null;
+            }
+
+            @Override
+            public Void visitStartsWithFilter(Void p, JsonPointer field, Object valueAssertion) {
+                return null;
+            }
+        }, null);
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Router.uriTemplate;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyCollectionOf;
+import static org.mockito.Matchers.anyListOf;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.MemoryBackend;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ClusteredSourcePhaseTest {
+
+    private static final String RECON_ID = "recon1";
+
+    private ConnectionFactory connectionFactory;
+    private Context context;
+    private ObjectMapping mapping;
+    private ReconciliationContext reconContext;
+    private ReconciliationService service;
+    private ReconciliationStatistic statistic;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        Router router = new Router();
+        router.addRoute(uriTemplate(ReconWorkUnit.WORK_UNIT_RESOURCE), new MemoryBackend());
+        connectionFactory = Resources.newInternalConnectionFactory(router);
+        context = new RootContext();
+
+        mapping = mock(ObjectMapping.class);
+        when(mapping.getName()).thenReturn("mapping1");
+        service = mock(ReconciliationService.class);
+        when(service.getConnectionFactory()).thenReturn(connectionFactory);
+        when(service.getInstanceId()).thenReturn("node1");
+        statistic = mock(ReconciliationStatistic.class);
+        reconContext = mock(ReconciliationContext.class);
+        when(reconContext.getService()).thenReturn(service);
+        when(reconContext.getReconId()).thenReturn(RECON_ID);
+        when(reconContext.getStatistics()).thenReturn(statistic);
+    }
+
+    private static ReconQueryResult sourceIds(String... ids) {
+        return new ReconQueryResult(new ResultIterable(Arrays.asList(ids), null));
+    }
+
+    @SuppressWarnings("unchecked")
+    private void reconcileUnitsWith(Answer<Void> answer) throws Exception {
+        doAnswer(answer).when(mapping).reconWorkUnit(eq(reconContext), any(Context.class),
+                anyListOf(String.class), anyCollectionOf(String.class));
+    }
+
+    @Test
+    public void testReconcilesAllUnitsLocally() throws Exception {
+        final List<String> reconciled = new ArrayList<String>();
+        reconcileUnitsWith(new Answer<Void>() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                reconciled.addAll((List<String>) invocation.getArguments()[2]);
+                return null;
+            }
+        });
+        Collection<String> remainingTargetIds = new HashSet<String>(Arrays.asList("target1"));
+
+        new ClusteredSourcePhase(mapping, reconContext, context, 2, 60000L)
+                .execute(sourceIds("s1", "s2", "s3", "s4", "s5"), 0, remainingTargetIds);
+
+        assertEquals(reconciled.size(), 5);
+        assertEquals(new HashSet<String>(reconciled), new HashSet<String>(Arrays.asList("s1", "s2", "s3", "s4", "s5")));
+        assertEquals(remainingTargetIds, new HashSet<String>(Arrays.asList("target1")));
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, RECON_ID));
+        // notified once the first unit is published, and once all are
+        verify(service, times(2)).workUnitsPublished(RECON_ID);
+    }
+
+    @Test
+    public void testMergesUnitsCompletedByOtherInstances() throws Exception {
+        final AtomicBoolean otherInstance = new AtomicBoolean(true);
+        reconcileUnitsWith(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (otherInstance.getAndSet(false)) {
+                    // another instance reconciles a unit while this one reconciles its first unit
+                    ReconWorkUnit unit = ReconWorkUnit.claim(connectionFactory, context, RECON_ID, "node2");
+                    unit.completed(connectionFactory, context, object(field("processed", 2)),
+                            Arrays.asList("target2"));
+                }
+                return null;
+            }
+        });
+        Collection<String> remainingTargetIds = new HashSet<String>(Arrays.asList("target1", "target2"));
+
+        new ClusteredSourcePhase(mapping, reconContext, context, 2, 60000L)
+                .execute(sourceIds("s1", "s2", "s3", "s4"), 0, remainingTargetIds);
+
+        verify(statistic).addSourcePhaseResults(any(JsonValue.class));
+        assertEquals(remainingTargetIds, new HashSet<String>(Arrays.asList("target1")));
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, RECON_ID));
+    }
+
+    @Test
+    public void testReleasesUnitOfDeadInstance() throws Exception {
+        final AtomicBoolean otherInstance = new AtomicBoolean(true);
+        reconcileUnitsWith(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (otherInstance.getAndSet(false)) {
+                    // another instance claims a unit, and dies without being recovered
+                    ReconWorkUnit.claim(connectionFactory, context, RECON_ID, "node2");
+                }
+                return null;
+            }
+        });
+
+        new ClusteredSourcePhase(mapping, reconContext, context, 2, 1L)
+                .execute(sourceIds("s1", "s2", "s3", "s4"), 0, new HashSet<String>());
+
+        // the unit of the dead instance was released, and reconciled by the coordinating instance
+        verify(mapping, times(2)).reconWorkUnit(eq(reconContext), any(Context.class),
+                anyListOf(String.class), anyCollectionOf(String.class));
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, RECON_ID));
+    }
+
+    @Test
+    public void testFailedUnitFailsRun() throws Exception {
+        final AtomicBoolean otherInstance = new AtomicBoolean(true);
+        reconcileUnitsWith(new Answer<Void>() {
+            @Override
+            public Void answer(InvocationOnMock invocation) throws Throwable {
+                if (otherInstance.getAndSet(false)) {
+                    ReconWorkUnit.claim(connectionFactory, context, RECON_ID, "node2")
+                            .failed(connectionFactory, context, "boom");
+                }
+                return null;
+            }
+        });
+
+        try {
+            new ClusteredSourcePhase(mapping, reconContext, context, 2, 60000L)
+                    .execute(sourceIds("s1", "s2", "s3", "s4"), 0, new HashSet<String>());
+            fail("the failed unit did not fail the run");
+        } catch (SynchronizationException e) {
+            // expected
+        }
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, RECON_ID));
+    }
+}
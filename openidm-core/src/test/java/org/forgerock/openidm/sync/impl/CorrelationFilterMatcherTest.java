@@ -0,0 +1,71 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.QueryFilters;
+import org.testng.annotations.Test;
+
+/**
+ * Tests matching correlation query filters against target objects in memory.
+ */
+public class CorrelationFilterMatcherTest {
+
+    private final JsonValue target = json(object(
+            field("_id", "1"),
+            field("mail", "Bjensen@example.com"),
+            field("employeeNumber", 42),
+            field("groups", array("admin", "users"))));
+
+    @Test
+    public void testEquality() {
+        assertThat(matches("mail eq \"Bjensen@example.com\"", false)).isTrue();
+        assertThat(matches("mail eq \"bjensen@example.com\"", false)).isFalse();
+        assertThat(matches("mail eq \"bjensen@example.com\"", true)).isTrue();
+        assertThat(matches("employeeNumber eq 42", false)).isTrue();
+        assertThat(matches("employeeNumber eq \"42\"", false)).isFalse();
+        assertThat(matches("groups eq \"users\"", false)).isTrue();
+        assertThat(matches("missing eq \"users\"", false)).isFalse();
+    }
+
+    @Test
+    public void testComposite() {
+        assertThat(matches("mail eq \"Bjensen@example.com\" and employeeNumber eq 42", false)).isTrue();
+        assertThat(matches("mail eq \"x\" and employeeNumber eq 42", false)).isFalse();
+        assertThat(matches("mail eq \"x\" or employeeNumber eq 42", false)).isTrue();
+        assertThat(matches("!(mail eq \"x\")", false)).isTrue();
+        assertThat(matches("true", false)).isTrue();
+    }
+
+    @Test
+    public void testUnsupportedFilters() {
+        assertThat(CorrelationFilterMatcher.isSupported(QueryFilters.parse("mail eq \"x\" and groups eq \"y\"")))
+                .isTrue();
+        assertThat(CorrelationFilterMatcher.isSupported(QueryFilters.parse("mail sw \"b\""))).isFalse();
+        assertThat(CorrelationFilterMatcher.isSupported(QueryFilters.parse("mail eq \"x\" or mail pr"))).isFalse();
+        assertThat(matches("mail co \"jensen\"", false)).isNull();
+    }
+
+    private Boolean matches(String filter, boolean ignoreCase) {
+        return CorrelationFilterMatcher.matches(QueryFilters.parse(filter), target, ignoreCase);
+    }
+}
@@ -0,0 +1,117 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.array;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Arrays;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.JsonValueException;
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+/**
+ * Test the Expressions compiler and the expression property mapping transforms and conditions.
+ */
+public class ExpressionsTest {
+    private static JsonValue scope = json(object(
+            field("source", " Alice "),
+            field("object", object(
+                field("name", "alice"),
+                field("age", 1234L),
+                field("roles", array("admin", "user")),
+                field("created", "2015-11-03T10:15:30.000Z"),
+                field("nullVal", null))),
+            field("linkQualifier", "test")));
+
+    @DataProvider
+    public Object[][] expressionData() {
+        return new Object[][] {
+                // @formatter:off
+                { "source", " Alice " },
+                { "'literal'", "literal" },
+                { "lower(trim(source))", "alice" },
+                { "upper(object/name)", "ALICE" },
+                { "lower(object/missing)", null },
+                { "concat(object/name, '@example.com')", "alice@example.com" },
+                { "concat(object/name, \"-\", linkQualifier, object/missing)", "alice-test" },
+                { "default(object/nullVal, 'none')", "none" },
+                { "default(object/name, 'none')", "alice" },
+                { "substring(object/name, 1, 3)", "li" },
+                { "substring(object/name, 2)", "ice" },
+                { "substring(object/name, 0, 100)", "alice" },
+                { "replace(object/name, 'l', 'L')", "aLice" },
+                { "split('a,b', ',')", Arrays.asList("a", "b") },
+                { "join(object/roles, ';')", "admin;user" },
+                { "formatDate(object/created, 'yyyyMMdd')", "20151103" },
+                { "formatDate('03/11/2015', 'yyyy-MM-dd', 'dd/MM/yyyy')", "2015-11-03" },
+                { "formatDate(object/name, 'yyyyMMdd')", null },
+                { "contains(object/roles, 'admin')", true },
+                { "contains(object/roles, 'guest')", false },
+                { "contains(object/name, 'lic')", true },
+                { "eq(object/age, 1234)", true },
+                { "ne(object/age, 1234)", false },
+                { "isEmpty(object/missing)", true },
+                { "and(eq(linkQualifier, 'test'), not(isEmpty(object/roles)))", true },
+                { "or(eq(linkQualifier, 'other'), false)", false }
+                // @formatter:on
+        };
+    }
+
+    @Test(dataProvider = "expressionData")
+    public void testEvaluate(String expression, Object expected) {
+        assertThat(Expressions.compile(json(expression)).evaluate(scope)).isEqualTo(expected);
+    }
+
+    @DataProvider
+    public Object[][] invalidData() {
+        return new Object[][] {
+                { "unknown(source)" },
+                { "lower(source, source)" },
+                { "lower(source" },
+                { "'unterminated" },
+                { "formatDate(source, object/pattern)" },
+                { "source source" }
+        };
+    }
+
+    @Test(dataProvider = "invalidData", expectedExceptions = JsonValueException.class)
+    public void testInvalid(String expression) {
+        Expressions.compile(json(expression));
+    }
+
+    @Test
+    public void testPropertyMappingTransform() throws Exception {
+        PropertyMapping mapping = new PropertyMapping(json(object(
+                field("source", "name"),
+                field("target", "mail"),
+                field("transform", object(field("expression", "concat(lower(source), '@example.com')"))),
+                field("condition", object(field("expression", "contains(object/roles, 'admin')"))))));
+        JsonValue target = json(object());
+
+        mapping.apply(json(object(field("name", "Alice"), field("roles", array("admin")))), null, target, "test");
+        assertThat(target.get("mail").asString()).isEqualTo("alice@example.com");
+
+        target = json(object());
+        mapping.apply(json(object(field("name", "Bob"), field("roles", array("user")))), null, target, "test");
+        assertThat(target.isDefined("mail")).isFalse();
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.mockito.Mockito.mock;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the heap retained per million pre-fetched links, for the previous
+ * {@code ConcurrentHashMap<String, Link>} and for the {@link LinkIndex}.
+ * <p>
+ * Not a unit test; run it manually from the test classpath, e.g.
+ * {@code java -Xmx2g -cp <test classpath> org.forgerock.openidm.sync.impl.LinkIndexFootprint [links]}.
+ */
+public final class LinkIndexFootprint {
+
+    private static final int DEFAULT_LINKS = 1000000;
+
+    private LinkIndexFootprint() {
+    }
+
+    public static void main(String[] args) {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_LINKS;
+        ObjectMapping mapping = mock(ObjectMapping.class);
+
+        long before = usedHeap();
+        Map<String, Link> map = new ConcurrentHashMap<String, Link>();
+        for (int i = 0; i < count; i++) {
+            Link link = link(mapping, i);
+            map.put(link.sourceId, link);
+        }
+        long mapHeap = usedHeap() - before;
+        report("ConcurrentHashMap", count, mapHeap, 0, map.size());
+        map = null;
+
+        before = usedHeap();
+        LinkIndex index = new LinkIndex(mapping, "default");
+        for (int i = 0; i < count; i++) {
+            index.add(link(mapping, i));
+        }
+        long indexHeap = usedHeap() - before;
+        report("LinkIndex", count, indexHeap, index.getAllocatedBytes(), index.size());
+        index.release();
+    }
+
+    private static Link link(ObjectMapping mapping, int i) {
+        Link link = new Link(mapping);
+        link.sourceId = "uid=user." + i + ",ou=people,dc=example,dc=com";
+        link.targetId = UUID.randomUUID().toString();
+        link._id = UUID.randomUUID().toString();
+        link._rev = "0";
+        link.linkQualifier = "default";
+        link.initialized = true;
+        return link;
+    }
+
+    private static void report(String name, int count, long heap, long offHeap, int size) {
+        double perMillion = 1000000d / count;
+        System.out.printf("%-18s %,d links: heap %,d MB, off-heap %,d MB per million links%n",
+                name, size, (long) (heap * perMillion) >> 20, (long) (offHeap * perMillion) >> 20);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
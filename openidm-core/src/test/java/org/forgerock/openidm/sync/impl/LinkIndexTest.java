@@ -0,0 +1,148 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the compact index of pre-fetched links.
+ */
+public class LinkIndexTest {
+
+    private ObjectMapping mapping;
+    private LinkIndex index;
+
+    @BeforeMethod
+    public void setUp() {
+        mapping = mock(ObjectMapping.class);
+        index = new LinkIndex(mapping, "default");
+    }
+
+    @Test
+    public void testGet() {
+        index.add(link("source1", "target1", "link1", "0"));
+        index.add(link("söurce2", "tärget2", "link2", null));
+
+        Link link = index.get("source1");
+        assertThat(link.sourceId).isEqualTo("source1");
+        assertThat(link.targetId).isEqualTo("target1");
+        assertThat(link._id).isEqualTo("link1");
+        assertThat(link._rev).isEqualTo("0");
+        assertThat(link.linkQualifier).isEqualTo("default");
+        assertThat(link.initialized).isTrue();
+
+        link = index.get("söurce2");
+        assertThat(link.targetId).isEqualTo("tärget2");
+        assertThat(link._rev).isNull();
+
+        assertThat(index.get("source3")).isNull();
+        assertThat(index.containsKey("source1")).isTrue();
+        assertThat(index.containsKey("source3")).isFalse();
+        assertThat(index.size()).isEqualTo(2);
+    }
+
+    @Test
+    public void testGetReturnsNewLink() {
+        index.add(link("source1", "target1", "link1", "0"));
+
+        index.get("source1").targetId = "changed";
+
+        assertThat(index.get("source1").targetId).isEqualTo("target1");
+    }
+
+    @Test
+    public void testAddReplacesSameSourceId() {
+        index.add(link("source1", "target1", "link1", "0"));
+        index.add(link("source1", "target2", "link2", "1"));
+
+        assertThat(index.size()).isEqualTo(1);
+        assertThat(index.get("source1").targetId).isEqualTo("target2");
+    }
+
+    @Test
+    public void testManyLinks() {
+        int count = 100000;
+        for (int i = 0; i < count; i++) {
+            index.add(link("source" + i, "target" + i, "link" + i, "0"));
+        }
+
+        assertThat(index.size()).isEqualTo(count);
+        for (int i = 0; i < count; i++) {
+            assertThat(index.get("source" + i).targetId).isEqualTo("target" + i);
+        }
+        assertThat(index.get("source" + count)).isNull();
+        assertThat(index.getAllocatedBytes()).isGreaterThan(0);
+
+        Set<String> sourceIds = new HashSet<String>();
+        for (Map.Entry<String, Link> entry : index.entrySet()) {
+            assertThat(entry.getValue().sourceId).isEqualTo(entry.getKey());
+            sourceIds.add(entry.getKey());
+        }
+        assertThat(sourceIds).hasSize(count);
+    }
+
+    @Test
+    public void testLongFields() {
+        StringBuilder longId = new StringBuilder();
+        for (int i = 0; i < 40000; i++) {
+            longId.append((char) ('a' + i % 26));
+        }
+        index.add(link(longId.toString(), "target1", "link1", "0"));
+        index.add(link("source2", longId.toString(), "link2", "0"));
+
+        assertThat(index.get(longId.toString()).targetId).isEqualTo("target1");
+        assertThat(index.get("source2").targetId).isEqualTo(longId.toString());
+    }
+
+    @Test
+    public void testReleasedSegmentsAreReused() {
+        index.add(link("source1", "target1", "link1", "0"));
+        index.release();
+
+        LinkIndex reused = new LinkIndex(mapping, "default");
+        reused.add(link("source2", "target2", "link2", "0"));
+
+        assertThat(reused.get("source1")).isNull();
+        assertThat(reused.get("source2").targetId).isEqualTo("target2");
+        reused.release();
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testGetAfterRelease() {
+        index.add(link("source1", "target1", "link1", "0"));
+        index.release();
+
+        index.get("source1");
+    }
+
+    private Link link(String sourceId, String targetId, String id, String rev) {
+        Link link = new Link(mapping);
+        link.sourceId = sourceId;
+        link.targetId = targetId;
+        link._id = id;
+        link._rev = rev;
+        link.linkQualifier = "default";
+        return link;
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.Connection;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.CreateRequest;
+import org.forgerock.json.resource.DeleteRequest;
+import org.forgerock.json.resource.NotFoundException;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.util.DateUtil;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.mockito.ArgumentCaptor;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ReconCheckpointTest {
+
+    private static final long MAX_AGE = 60 * 60 * 1000L;
+
+    private ObjectMapping mapping;
+    private Connection connection;
+    private JsonValue scope;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        SynchronizationService service = mock(SynchronizationService.class);
+        ConnectionFactory connectionFactory = mock(ConnectionFactory.class);
+        connection = mock(Connection.class);
+        mapping = mock(ObjectMapping.class);
+        when(mapping.getName()).thenReturn("systemLdapAccounts_managedUser");
+        when(mapping.getService()).thenReturn(service);
+        when(service.getConnectionFactory()).thenReturn(connectionFactory);
+        when(service.getContext()).thenReturn(new RootContext());
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        when(connection.create(any(Context.class), any(CreateRequest.class)))
+                .thenReturn(newResourceResponse("systemLdapAccounts_managedUser", "0", json(object())));
+        when(connection.update(any(Context.class), any(UpdateRequest.class)))
+                .thenReturn(newResourceResponse("systemLdapAccounts_managedUser", "2", json(object())));
+        scope = json(object(
+                field("queries", object(field("sourceQuery", object(field("_queryFilter", "true"))))),
+                field("params", object(field("mapping", "systemLdapAccounts_managedUser")))));
+    }
+
+    private void givenSavedCheckpoint() throws Exception {
+        givenSavedCheckpoint(scope.getObject(), DateUtil.getDateUtil("UTC").now());
+    }
+
+    private void givenSavedCheckpoint(Object savedScope, String lastUpdated) throws Exception {
+        JsonValue saved = json(object(
+                field("reconId", "recon1"),
+                field("phase", "SOURCE"),
+                field("scope", savedScope),
+                field("pagingCookie", "cookie"),
+                field("watermark", "b"),
+                field("sourceProcessed", 1000),
+                field("lastUpdated", lastUpdated)));
+        when(connection.read(any(Context.class), any(ReadRequest.class)))
+                .thenReturn(newResourceResponse("systemLdapAccounts_managedUser", "1", saved));
+    }
+
+    @Test
+    public void testStartWithoutCheckpoint() throws Exception {
+        when(connection.read(any(Context.class), any(ReadRequest.class))).thenThrow(new NotFoundException());
+
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        assertFalse(checkpoint.isResumed());
+        assertEquals(checkpoint.getPhase(), ReconCheckpoint.Phase.SOURCE);
+        assertNull(checkpoint.getPagingCookie());
+        verify(connection).create(any(Context.class), any(CreateRequest.class));
+    }
+
+    @Test
+    public void testResume() throws Exception {
+        givenSavedCheckpoint();
+
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        assertTrue(checkpoint.isResumed());
+        assertEquals(checkpoint.getResumedFrom(), "recon1");
+        assertEquals(checkpoint.getPhase(), ReconCheckpoint.Phase.SOURCE);
+        assertEquals(checkpoint.getPagingCookie(), "cookie");
+        assertEquals(checkpoint.getWatermark(), "b");
+        assertEquals(checkpoint.getSourceProcessed(), 1000);
+
+        // Taking over the checkpoint is revision checked
+        ArgumentCaptor<UpdateRequest> request = ArgumentCaptor.forClass(UpdateRequest.class);
+        verify(connection).update(any(Context.class), request.capture());
+        assertEquals(request.getValue().getRevision(), "1");
+        assertEquals(request.getValue().getContent().get("reconId").asString(), "recon2");
+        assertEquals(request.getValue().getContent().get("resumedFrom").asString(), "recon1");
+    }
+
+    @Test
+    public void testDiscard() throws Exception {
+        givenSavedCheckpoint();
+
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", false, scope, MAX_AGE);
+
+        assertFalse(checkpoint.isResumed());
+        assertNull(checkpoint.getPagingCookie());
+        assertNull(checkpoint.getWatermark());
+        assertEquals(checkpoint.getSourceProcessed(), 0);
+    }
+
+    @Test
+    public void testRemainingEntriesAfterWatermark() throws Exception {
+        givenSavedCheckpoint();
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        List<String> ids = new ArrayList<String>();
+        Iterator<ResultEntry> remaining = checkpoint.remainingEntries(
+                new ResultIterable(Arrays.asList("d", "a", "c", "b"), null).iterator());
+        while (remaining.hasNext()) {
+            ids.add(remaining.next().getId());
+        }
+
+        assertEquals(ids, Arrays.asList("c", "d"));
+    }
+
+    @Test
+    public void testDiscardOnChangedScope() throws Exception {
+        // Read back from the repository with a different field order
+        givenSavedCheckpoint(object(
+                field("params", object(field("mapping", "systemLdapAccounts_managedUser"))),
+                field("queries", object(field("sourceQuery", object(field("_queryFilter", "true")))))),
+                DateUtil.getDateUtil("UTC").now());
+        assertTrue(ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE).isResumed());
+
+        givenSavedCheckpoint(object(
+                field("queries", object(field("sourceQuery", object(field("_queryFilter", "/active eq true"))))),
+                field("params", object(field("mapping", "systemLdapAccounts_managedUser")))),
+                DateUtil.getDateUtil("UTC").now());
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        assertFalse(checkpoint.isResumed());
+        assertNull(checkpoint.getPagingCookie());
+    }
+
+    @Test
+    public void testDiscardWhenTooOld() throws Exception {
+        givenSavedCheckpoint(scope.getObject(),
+                DateUtil.getDateUtil("UTC").formatDateTime(new Date(System.currentTimeMillis() - 2 * MAX_AGE)));
+
+        assertFalse(ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE).isResumed());
+        assertTrue(ReconCheckpoint.start(mapping, "recon2", true, scope, 0).isResumed());
+    }
+
+    @Test
+    public void testResumeFailedDeletesCheckpoint() throws Exception {
+        givenSavedCheckpoint();
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        checkpoint.resumeFailed();
+
+        ArgumentCaptor<DeleteRequest> request = ArgumentCaptor.forClass(DeleteRequest.class);
+        verify(connection).delete(any(Context.class), request.capture());
+        assertEquals(request.getValue().getRevision(), "2");
+    }
+
+    @Test
+    public void testProgress() throws Exception {
+        givenSavedCheckpoint();
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        for (int i = 0; i < ReconCheckpoint.WATERMARK_SAVE_INTERVAL; i++) {
+            checkpoint.sourceEntryCompleted(String.format("c%05d", i));
+        }
+        assertEquals(checkpoint.getWatermark(), "c00999");
+        assertEquals(checkpoint.getSourceProcessed(), 2000);
+        ArgumentCaptor<UpdateRequest> request = ArgumentCaptor.forClass(UpdateRequest.class);
+        verify(connection, times(2)).update(any(Context.class), request.capture());
+        assertEquals(request.getValue().getContent().get("watermark").asString(), "c00999");
+
+        checkpoint.sourcePageCompleted("cookie2");
+        assertEquals(checkpoint.getPagingCookie(), "cookie2");
+        assertNull(checkpoint.getWatermark());
+
+        checkpoint.sourcePhaseCompleted();
+        assertEquals(checkpoint.getPhase(), ReconCheckpoint.Phase.TARGET);
+        assertNull(checkpoint.getPagingCookie());
+
+        verify(connection, times(4)).update(any(Context.class), request.capture());
+        JsonValue saved = request.getValue().getContent();
+        assertEquals(saved.get("phase").asString(), "TARGET");
+        assertEquals(saved.get("scope").getObject(), scope.getObject());
+        assertEquals(saved.get("sourceProcessed").asInteger(), Integer.valueOf(2000));
+    }
+
+    @Test(expectedExceptions = SynchronizationException.class)
+    public void testTakenOver() throws Exception {
+        givenSavedCheckpoint();
+        ReconCheckpoint checkpoint = ReconCheckpoint.start(mapping, "recon2", true, scope, MAX_AGE);
+
+        when(connection.update(any(Context.class), any(UpdateRequest.class)))
+                .thenThrow(new PreconditionFailedException("revision mismatch"));
+        checkpoint.sourcePageCompleted("cookie2");
+    }
+}
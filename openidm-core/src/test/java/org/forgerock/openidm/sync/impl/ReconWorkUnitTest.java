@@ -0,0 +1,165 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Router.uriTemplate;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.MemoryBackend;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ReconWorkUnitTest {
+
+    private ConnectionFactory connectionFactory;
+    private Context context;
+
+    @BeforeMethod
+    public void setUp() {
+        Router router = new Router();
+        router.addRoute(uriTemplate(ReconWorkUnit.WORK_UNIT_RESOURCE), new MemoryBackend());
+        connectionFactory = Resources.newInternalConnectionFactory(router);
+        context = new RootContext();
+    }
+
+    private void publish(String reconId, String coordinator, int index, String... ids) throws Exception {
+        ReconWorkUnit.publish(connectionFactory, context, reconId, "mapping1", coordinator, index,
+                Arrays.asList(ids), null);
+    }
+
+    @Test
+    public void testClaimEachUnitOnce() throws Exception {
+        publish("recon1", "node1", 0, "source1", "source2");
+        publish("recon1", "node1", 1, "source3");
+
+        ReconWorkUnit first = ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2");
+        ReconWorkUnit second = ReconWorkUnit.claim(connectionFactory, context, null, "node3");
+
+        assertNotNull(first);
+        assertNotNull(second);
+        assertFalse(first.getId().equals(second.getId()));
+        assertEquals(first.getState(), ReconWorkUnit.State.CLAIMED);
+        assertEquals(first.getInstanceId(), "node2");
+        assertEquals(first.getMapping(), "mapping1");
+        assertEquals(second.getInstanceId(), "node3");
+        HashSet<String> ids = new HashSet<String>(first.getIds());
+        ids.addAll(second.getIds());
+        assertEquals(ids, new HashSet<String>(Arrays.asList("source1", "source2", "source3")));
+        assertNull(ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2"));
+        assertEquals(ReconWorkUnit.queryClaimed(connectionFactory, context, "recon1").size(), 2);
+    }
+
+    @Test
+    public void testClaimOnlyUnitsOfRun() throws Exception {
+        publish("recon1", "node1", 0, "source1");
+
+        assertNull(ReconWorkUnit.claim(connectionFactory, context, "recon2", "node2"));
+        assertNotNull(ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2"));
+    }
+
+    @Test
+    public void testStaleUnitIsNotSaved() throws Exception {
+        publish("recon1", "node1", 0, "source1");
+        ReconWorkUnit claimed = ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2");
+
+        // the coordinator releases the unit, which another instance claims
+        ReconWorkUnit.queryClaimed(connectionFactory, context, "recon1").get(0)
+                .release(connectionFactory, context);
+        assertNotNull(ReconWorkUnit.claim(connectionFactory, context, "recon1", "node3"));
+
+        try {
+            claimed.completed(connectionFactory, context, object(), Arrays.asList("target1"));
+            throw new AssertionError("saved a unit claimed by another instance");
+        } catch (PreconditionFailedException e) {
+            // expected
+        }
+        assertTrue(ReconWorkUnit.queryFinished(connectionFactory, context, "recon1").isEmpty());
+    }
+
+    @Test
+    public void testCompletedAndFailedUnitsAreFinished() throws Exception {
+        publish("recon1", "node1", 0, "source1");
+        publish("recon1", "node1", 1, "source2");
+        ReconWorkUnit completed = ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2");
+        ReconWorkUnit failed = ReconWorkUnit.claim(connectionFactory, context, "recon1", "node2");
+
+        completed.completed(connectionFactory, context, object(field("processed", 1)),
+                Arrays.asList("target1"));
+        failed.failed(connectionFactory, context, "boom");
+
+        List<ReconWorkUnit> finished = ReconWorkUnit.queryFinished(connectionFactory, context, "recon1");
+        assertEquals(finished.size(), 2);
+        for (ReconWorkUnit unit : finished) {
+            if (unit.getId().equals(completed.getId())) {
+                assertEquals(unit.getState(), ReconWorkUnit.State.COMPLETED);
+                assertEquals(unit.getHandledTargetIds(), Arrays.asList("target1"));
+                assertEquals(unit.getResults().get("processed").asInteger(), Integer.valueOf(1));
+            } else {
+                assertEquals(unit.getState(), ReconWorkUnit.State.FAILED);
+                assertEquals(unit.getError(), "boom");
+            }
+        }
+    }
+
+    @Test
+    public void testRecoverFailedInstance() throws Exception {
+        // a run coordinated by the failed instance
+        publish("recon1", "failed", 0, "source1");
+        // a run with a unit claimed by the failed instance
+        publish("recon2", "node1", 0, "source2");
+        publish("recon2", "node1", 1, "source3");
+        assertNotNull(ReconWorkUnit.claim(connectionFactory, context, "recon2", "failed"));
+        assertNotNull(ReconWorkUnit.claim(connectionFactory, context, "recon2", "node2"));
+
+        ReconWorkUnit.recover(connectionFactory, context, "failed");
+
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, "recon1"));
+        List<ReconWorkUnit> claimed = ReconWorkUnit.queryClaimed(connectionFactory, context, "recon2");
+        assertEquals(claimed.size(), 1);
+        assertEquals(claimed.get(0).getInstanceId(), "node2");
+        ReconWorkUnit released = ReconWorkUnit.claim(connectionFactory, context, "recon2", "node1");
+        assertNotNull(released);
+        assertEquals(released.getInstanceId(), "node1");
+    }
+
+    @Test
+    public void testDeleteAll() throws Exception {
+        publish("recon1", "node1", 0, "source1");
+        publish("recon1", "node1", 1, "source2");
+        publish("recon2", "node1", 0, "source3");
+
+        ReconWorkUnit.deleteAll(connectionFactory, context, "recon1");
+
+        assertFalse(ReconWorkUnit.exists(connectionFactory, context, "recon1"));
+        assertTrue(ReconWorkUnit.exists(connectionFactory, context, "recon2"));
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.testng.Assert.assertEquals;
+
+import java.util.Arrays;
+import java.util.Map;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.openidm.audit.util.Status;
+import org.forgerock.openidm.sync.ReconAction;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+public class ReconciliationStatisticTest {
+
+    private ReconciliationContext reconContext;
+
+    @BeforeMethod
+    public void setUp() {
+        ObjectMapping mapping = mock(ObjectMapping.class);
+        when(mapping.getSourceObjectSet()).thenReturn("system/ldap/account");
+        when(mapping.getTargetObjectSet()).thenReturn("managed/user");
+        reconContext = mock(ReconciliationContext.class);
+        when(reconContext.getObjectMapping()).thenReturn(mapping);
+    }
+
+    @Test
+    public void testAddSourcePhaseResults() {
+        // The statistic of a work unit reconciled on another instance
+        ReconciliationStatistic unitStat = new ReconciliationStatistic(reconContext);
+        unitStat.getSourceStat().processed("source1", "target1", true, "link1", false,
+                Situation.CONFIRMED, ReconAction.UPDATE);
+        unitStat.getSourceStat().processed("source2", "target2", false, null, true,
+                Situation.ABSENT, ReconAction.CREATE);
+        unitStat.getSourceStat().addNotValid("source3");
+        unitStat.processStatus(Status.SUCCESS);
+        unitStat.processStatus(Status.SUCCESS);
+
+        ReconciliationStatistic runStat = new ReconciliationStatistic(reconContext);
+        runStat.getSourceStat().processed("source4", "target4", true, "link4", false,
+                Situation.CONFIRMED, ReconAction.UPDATE);
+        runStat.processStatus(Status.FAILURE);
+
+        runStat.addSourcePhaseResults(new JsonValue(unitStat.getSourcePhaseResults()));
+
+        assertEquals(runStat.getSourceProcessed(), 3);
+        assertEquals(runStat.getSourceStat().getProcessed(), 3L);
+        assertEquals(runStat.getLinkProcessed(), 2);
+        assertEquals(runStat.getLinkCreated(), 1);
+        assertEquals(runStat.getTargetProcessed(), 2);
+        assertEquals(runStat.getTargetCreated(), 1);
+        assertEquals(runStat.getStatusSummary().get(Status.SUCCESS.name()), Integer.valueOf(2));
+        assertEquals(runStat.getStatusSummary().get(Status.FAILURE.name()), Integer.valueOf(1));
+
+        Map<String, Object> results = runStat.getSourceStat().getResults();
+        Map<?, ?> situations = (Map<?, ?>) results.get("situations");
+        assertEquals(situations.get(Situation.CONFIRMED.name()), Arrays.asList("source4", "source1"));
+        assertEquals(situations.get(Situation.ABSENT.name()), Arrays.asList("source2"));
+        assertEquals(results.get("notValid"), Arrays.asList("source3"));
+    }
+}
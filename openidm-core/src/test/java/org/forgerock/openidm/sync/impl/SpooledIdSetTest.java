@@ -0,0 +1,92 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.sync.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the disk spooled id set used for the reconciliation target phase.
+ */
+public class SpooledIdSetTest {
+
+    @Test
+    public void testRemainingIdsAreSortedAndDistinct() {
+        SpooledIdSet ids = new SpooledIdSet(3, null);
+        try {
+            for (String id : new String[] { "e", "b", "a", "d", "b", "c", "f", "a" }) {
+                ids.add(id);
+            }
+            ids.remove("c");
+            ids.remove("x");
+            ids.remove("a");
+
+            assertThat(toList(ids.iterator())).containsExactly("b", "d", "e", "f");
+            assertThat(ids.getAddedCount()).isEqualTo(8);
+            assertThat(ids.size()).isEqualTo(4);
+        } finally {
+            ids.close();
+        }
+    }
+
+    @Test
+    public void testRemoveAfterIteration() {
+        SpooledIdSet ids = new SpooledIdSet(2, null);
+        try {
+            ids.add("1");
+            ids.add("2");
+            ids.add("3");
+            assertThat(toList(ids.iterator())).containsExactly("1", "2", "3");
+
+            ids.remove("2");
+            assertThat(toList(ids.iterator())).containsExactly("1", "3");
+        } finally {
+            ids.close();
+        }
+    }
+
+    @Test
+    public void testEmpty() {
+        SpooledIdSet ids = new SpooledIdSet(10, null);
+        try {
+            ids.remove("a");
+            assertThat(ids.iterator().hasNext()).isFalse();
+            assertThat(ids.size()).isEqualTo(0);
+        } finally {
+            ids.close();
+        }
+    }
+
+    @Test(expectedExceptions = IllegalStateException.class)
+    public void testClosed() {
+        SpooledIdSet ids = new SpooledIdSet(10, null);
+        ids.close();
+        ids.add("a");
+    }
+
+    private static List<String> toList(Iterator<String> iter) {
+        List<String> list = new ArrayList<String>();
+        while (iter.hasNext()) {
+            list.add(iter.next());
+        }
+        return list;
+    }
+}
@@ -42,6 +42,9 @@ import java.security.KeyStore.SecretKeyEntry;
 import java.util.ArrayList;
 import java.util.Enumeration;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
 
 import javax.crypto.KeyGenerator;
 import javax.crypto.SecretKey;
@@ -58,14 +61,17 @@ import org.forgerock.json.crypto.simple.SimpleDecryptor;
 import org.forgerock.json.crypto.simple.SimpleEncryptor;
 import org.forgerock.openidm.cluster.ClusterUtils;
 import org.forgerock.openidm.core.IdentityServer;
+import org.forgerock.openidm.crypto.BCryptFieldStorageScheme;
 import org.forgerock.openidm.crypto.CryptoConstants;
 import org.forgerock.openidm.crypto.CryptoService;
 import org.forgerock.openidm.crypto.FieldStorageScheme;
+import org.forgerock.openidm.crypto.PBKDF2FieldStorageScheme;
 import org.forgerock.openidm.crypto.SaltedMD5FieldStorageScheme;
 import org.forgerock.openidm.crypto.SaltedSHA1FieldStorageScheme;
 import org.forgerock.openidm.crypto.SaltedSHA256FieldStorageScheme;
 import org.forgerock.openidm.crypto.SaltedSHA384FieldStorageScheme;
 import org.forgerock.openidm.crypto.SaltedSHA512FieldStorageScheme;
+import org.forgerock.openidm.crypto.SCryptFieldStorageScheme;
 import org.forgerock.openidm.crypto.factory.CryptoUpdateService;
 import org.forgerock.openidm.util.JsonUtil;
 import org.osgi.framework.BundleContext;
@@ -90,6 +96,13 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
     private final ArrayList<JsonTransformer> decryptionTransformers =
             new ArrayList<JsonTransformer>();
 
+    /** The field storage schemes by algorithm, created on first use; the schemes are thread safe. */
+    private final ConcurrentMap<String, FieldStorageScheme> fieldStorageSchemes =
+            new ConcurrentHashMap<String, FieldStorageScheme>();
+
+    /** The cache of successful hash verifications, or null if disabled. */
+    private volatile HashVerificationCache verificationCache;
+
     /**
      * Opens a connection to the specified URI location and returns an input
      * stream with which to read its content. If the URI is not absolute, it is
@@ -179,6 +192,14 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
                 decryptionTransformers.add(new JsonCryptoTransformer(new SimpleDecryptor(
                         keySelector)));
             }
+            int maxVerifications = getIntegerProperty("openidm.crypto.hash.verificationcache.maxentries", 0);
+            if (maxVerifications > 0) {
+                long timeToLive = TimeUnit.SECONDS.toMillis(
+                        getIntegerProperty("openidm.crypto.hash.verificationcache.ttlseconds", 60));
+                verificationCache = new HashVerificationCache(maxVerifications, timeToLive);
+                logger.info("Caching up to {} successful hash verifications for {} ms",
+                        maxVerifications, timeToLive);
+            }
             logger.info("CryptoService is initialized with {} keys.", keyCount);
         } catch (final JsonValueException jve) {
             logger.error("Exception when loading CryptoService configuration", jve);
@@ -216,6 +237,7 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
     public void deactivate(BundleContext context) {
         decryptionTransformers.clear();
         keySelector = null;
+        verificationCache = null;
         logger.info("CryptoService stopped.");
     }
 
@@ -323,6 +345,28 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
      * @throws JsonCryptoException
      */
     private FieldStorageScheme getFieldStorageScheme(String algorithm) throws JsonCryptoException {
+        FieldStorageScheme fieldStorageScheme = fieldStorageSchemes.get(algorithm);
+        if (fieldStorageScheme == null) {
+            fieldStorageScheme = newFieldStorageScheme(algorithm);
+            FieldStorageScheme existing = fieldStorageSchemes.putIfAbsent(algorithm, fieldStorageScheme);
+            if (existing != null) {
+                fieldStorageScheme = existing;
+            }
+        }
+        return fieldStorageScheme;
+    }
+
+    /**
+     * Creates a {@link FieldStorageScheme} instance based on the supplied algorithm. The cost of the slow
+     * hash algorithms is read from the boot properties; it only applies to new hashes, as the cost of a
+     * hash is stored with it. Stored hashes above a maximum cost, by default a fixed ceiling of each algorithm
+     * or the cost if higher, are rejected without being computed.
+     * 
+     * @param algorithm a string representing a storage scheme algorithm
+     * @return a field storage scheme implementation.
+     * @throws JsonCryptoException
+     */
+    private FieldStorageScheme newFieldStorageScheme(String algorithm) throws JsonCryptoException {
         try {
             if (algorithm.equals(CryptoConstants.ALGORITHM_MD5)) {
                 return new SaltedMD5FieldStorageScheme();
@@ -334,6 +378,26 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
                 return new SaltedSHA384FieldStorageScheme();
             } else if (algorithm.equals(CryptoConstants.ALGORITHM_SHA_512)) {
                 return new SaltedSHA512FieldStorageScheme();
+            } else if (algorithm.equals(CryptoConstants.ALGORITHM_PBKDF2_SHA_256)) {
+                int iterations = getIntegerProperty("openidm.crypto.pbkdf2.iterations",
+                        PBKDF2FieldStorageScheme.DEFAULT_ITERATIONS);
+                return new PBKDF2FieldStorageScheme(iterations,
+                        getIntegerProperty("openidm.crypto.pbkdf2.maxiterations",
+                                Math.max(iterations, PBKDF2FieldStorageScheme.DEFAULT_MAX_ITERATIONS)));
+            } else if (algorithm.equals(CryptoConstants.ALGORITHM_BCRYPT)) {
+                int cost = getIntegerProperty("openidm.crypto.bcrypt.cost", BCryptFieldStorageScheme.DEFAULT_COST);
+                return new BCryptFieldStorageScheme(cost,
+                        getIntegerProperty("openidm.crypto.bcrypt.maxcost",
+                                Math.max(cost, BCryptFieldStorageScheme.DEFAULT_MAX_COST)));
+            } else if (algorithm.equals(CryptoConstants.ALGORITHM_SCRYPT)) {
+                int cost = getIntegerProperty("openidm.crypto.scrypt.cost", SCryptFieldStorageScheme.DEFAULT_COST);
+                return new SCryptFieldStorageScheme(cost,
+                        getIntegerProperty("openidm.crypto.scrypt.blocksize",
+                                SCryptFieldStorageScheme.DEFAULT_BLOCK_SIZE),
+                        getIntegerProperty("openidm.crypto.scrypt.parallelization",
+                                SCryptFieldStorageScheme.DEFAULT_PARALLELIZATION),
+                        getIntegerProperty("openidm.crypto.scrypt.maxcost",
+                                Math.max(cost, SCryptFieldStorageScheme.DEFAULT_MAX_COST)));
             } else {
                 throw new JsonCryptoException("Unsupported field storage algorithm " + algorithm);
             }
@@ -344,13 +408,38 @@ public class CryptoServiceImpl implements CryptoService, CryptoUpdateService {
         }
     }
 
+    private static int getIntegerProperty(String name, int defaultValue) {
+        String value = IdentityServer.getInstance().getProperty(name);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            logger.warn("Invalid value {} of property {}, using {}", new Object[] { value, name, defaultValue });
+            return defaultValue;
+        }
+    }
+
     @Override
     public boolean matches(String plainTextValue, JsonValue value) throws JsonCryptoException {
         if (isHashed(value)) {
             JsonValue cryptoValue = value.get("$crypto").get("value");
             String algorithm = cryptoValue.get("algorithm").asString();
+            String storedField = cryptoValue.get("data").asString();
             final FieldStorageScheme fieldStorageScheme = getFieldStorageScheme(algorithm);
-            return fieldStorageScheme.fieldMatches(plainTextValue, cryptoValue.get("data").asString());
+            final HashVerificationCache cache = verificationCache;
+            if (cache == null || plainTextValue == null || storedField == null) {
+                return fieldStorageScheme.fieldMatches(plainTextValue, storedField);
+            }
+            if (cache.isVerified(algorithm, storedField, plainTextValue)) {
+                return true;
+            }
+            boolean matches = fieldStorageScheme.fieldMatches(plainTextValue, storedField);
+            if (matches) {
+                cache.verified(algorithm, storedField, plainTextValue);
+            }
+            return matches;
         }
         return false;
     }
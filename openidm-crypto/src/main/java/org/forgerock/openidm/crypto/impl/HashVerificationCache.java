@@ -0,0 +1,134 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.crypto.impl;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.util.encode.Base64;
+
+/**
+ * A short-lived, bounded cache of successful hash verifications, so that repeated verifications of the
+ * same credential against the same stored hash, such as bursts of re-authentication, do not recompute
+ * slow hashes.
+ * <p>
+ * Entries are keyed by an HMAC of the hash algorithm, the stored hash and the clear-text value, keyed with
+ * a random key generated when the cache is created; neither clear-text values nor anything an attacker
+ * could test guesses against offline is kept in memory. As the stored hash is part of the key, entries
+ * stop matching as soon as the stored value changes. Only successful verifications are cached, so that a
+ * failed verification is always recomputed. The least recently used entries are evicted once the cache is
+ * full, and entries expire after a fixed time to live.
+ */
+class HashVerificationCache {
+
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final byte[] SEPARATOR = { 0 };
+
+    private final byte[] key = new byte[32];
+    private final long timeToLive;
+    private final Map<String, Long> expiries;
+
+    /**
+     * Creates a cache of successful verifications.
+     *
+     * @param maxEntries the maximum number of cached verifications
+     * @param timeToLive the time in milliseconds a verification stays cached
+     */
+    HashVerificationCache(final int maxEntries, long timeToLive) {
+        new SecureRandom().nextBytes(key);
+        this.timeToLive = timeToLive;
+        this.expiries = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns whether a verification of a clear-text value against a stored hash succeeded recently.
+     *
+     * @param algorithm the hash algorithm
+     * @param storedField the stored hash
+     * @param plainTextValue the clear-text value
+     * @return true if the verification is cached and has not expired
+     */
+    boolean isVerified(String algorithm, String storedField, String plainTextValue) {
+        String entry = entryKey(algorithm, storedField, plainTextValue);
+        synchronized (expiries) {
+            Long expiry = expiries.get(entry);
+            if (expiry == null) {
+                return false;
+            }
+            if (expiry < System.currentTimeMillis()) {
+                expiries.remove(entry);
+                return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Caches a successful verification of a clear-text value against a stored hash.
+     *
+     * @param algorithm the hash algorithm
+     * @param storedField the stored hash
+     * @param plainTextValue the clear-text value
+     */
+    void verified(String algorithm, String storedField, String plainTextValue) {
+        String entry = entryKey(algorithm, storedField, plainTextValue);
+        synchronized (expiries) {
+            expiries.put(entry, System.currentTimeMillis() + timeToLive);
+        }
+    }
+
+    /**
+     * @return the number of cached verifications, including expired ones not evicted yet
+     */
+    int size() {
+        synchronized (expiries) {
+            return expiries.size();
+        }
+    }
+
+    private String entryKey(String algorithm, String storedField, String plainTextValue) {
+        byte[] plainText = plainTextValue.getBytes(UTF_8);
+        try {
+            Mac mac = Mac.getInstance(HMAC_ALGORITHM);
+            mac.init(new SecretKeySpec(key, HMAC_ALGORITHM));
+            mac.update(algorithm.getBytes(UTF_8));
+            mac.update(SEPARATOR);
+            mac.update(storedField.getBytes(UTF_8));
+            mac.update(SEPARATOR);
+            mac.update(plainText);
+            return Base64.encode(mac.doFinal());
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot compute " + HMAC_ALGORITHM, e);
+        } finally {
+            Arrays.fill(plainText, (byte) 0);
+        }
+    }
+}
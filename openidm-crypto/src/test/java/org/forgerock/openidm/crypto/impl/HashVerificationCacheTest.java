@@ -0,0 +1,60 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.crypto.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+
+import org.testng.annotations.Test;
+
+/**
+ * Tests the cache of successful hash verifications.
+ */
+public class HashVerificationCacheTest {
+
+    @Test
+    public void testVerificationIsKeyedByAlgorithmStoredFieldAndValue() {
+        HashVerificationCache cache = new HashVerificationCache(10, 60000);
+        assertThat(cache.isVerified("BCRYPT", "stored", "secret")).isFalse();
+
+        cache.verified("BCRYPT", "stored", "secret");
+        assertThat(cache.isVerified("BCRYPT", "stored", "secret")).isTrue();
+        assertThat(cache.isVerified("BCRYPT", "stored", "secret2")).isFalse();
+        assertThat(cache.isVerified("BCRYPT", "changed", "secret")).isFalse();
+        assertThat(cache.isVerified("SCRYPT", "stored", "secret")).isFalse();
+    }
+
+    @Test
+    public void testLeastRecentlyUsedVerificationIsEvicted() {
+        HashVerificationCache cache = new HashVerificationCache(2, 60000);
+        cache.verified("BCRYPT", "stored1", "secret");
+        cache.verified("BCRYPT", "stored2", "secret");
+        assertThat(cache.isVerified("BCRYPT", "stored1", "secret")).isTrue();
+
+        cache.verified("BCRYPT", "stored3", "secret");
+        assertThat(cache.size()).isEqualTo(2);
+        assertThat(cache.isVerified("BCRYPT", "stored1", "secret")).isTrue();
+        assertThat(cache.isVerified("BCRYPT", "stored2", "secret")).isFalse();
+    }
+
+    @Test
+    public void testVerificationExpires() throws Exception {
+        HashVerificationCache cache = new HashVerificationCache(10, 1);
+        cache.verified("BCRYPT", "stored", "secret");
+        Thread.sleep(10);
+        assertThat(cache.isVerified("BCRYPT", "stored", "secret")).isFalse();
+        assertThat(cache.size()).isEqualTo(0);
+    }
+}
@@ -56,6 +56,7 @@ import org.forgerock.openidm.core.ServerConstants;
 import org.forgerock.openidm.info.HealthInfo;
 import org.forgerock.openidm.info.health.OsInfoResourceProvider;
 import org.forgerock.openidm.info.health.DatabaseInfoResourceProvider;
+import org.forgerock.openidm.info.health.LatencyInfoResourceProvider;
 import org.forgerock.openidm.info.health.MemoryInfoResourceProvider;
 import org.forgerock.openidm.info.health.ReconInfoResourceProvider;
 import org.forgerock.openidm.osgi.ServiceTrackerListener;
@@ -380,6 +381,7 @@ public class HealthService
         router.addRoute(uriTemplate("memory"), new MemoryInfoResourceProvider());
         router.addRoute(uriTemplate("recon"), new ReconInfoResourceProvider());
         router.addRoute(uriTemplate("jdbc"), new DatabaseInfoResourceProvider());
+        router.addRoute(uriTemplate("latency"), new LatencyInfoResourceProvider());
 
         // Check if the framework has already started.  If so, schedule the start up
         // thread that checks the state of OpenIDM.
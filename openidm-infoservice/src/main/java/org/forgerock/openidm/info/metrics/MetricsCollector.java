@@ -0,0 +1,286 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.info.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Collects the router, repository and reconciliation metrics from the OpenIDM MBeans and writes them in
+ * the Prometheus text exposition format (version 0.0.4).
+ * <p>
+ * Collecting only reads what the MBeans already keep: the latency histograms of the smartevent statistics
+ * handler, which are recorded off the request threads, and the counters of the router filters and of the
+ * reconciliation service.
+ * Nothing is recorded for the scrape itself, so scraping does not slow down the instrumented code.
+ * <p>
+ * The router and repository series are only populated when smartevent monitoring is enabled with the
+ * {@code openidm.smartevent.enabled} system property.
+ */
+class MetricsCollector {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsCollector.class);
+
+    /** The content type of the text exposition format */
+    static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+
+    private static final String STATISTICS_MBEAN = "OpenIDM:type=Statistics";
+    private static final String RECON_MBEAN = "org.forgerock.openidm.recon:type=Reconciliation";
+    private static final String ROUTER_FILTERS_MBEAN = "org.forgerock.openidm.router:type=Filters";
+
+    private static final String ROUTER_EVENT_PREFIX = "openidm/internal/router/";
+    private static final String JDBC_QUERY_EVENT_PREFIX = "openidm/internal/repo/jdbc/raw/query/";
+
+    private static final String[][] QUANTILES = {
+        { "0.5", "p50" }, { "0.9", "p90" }, { "0.99", "p99" }, { "0.999", "p999" }
+    };
+
+    private static final String[] FILTER_STAGES = { "condition", "onRequest", "onResponse", "onFailure" };
+
+    private static final String[][] RECON_POOL_GAUGES = {
+        { "ActiveThreads", "openidm_recon_thread_pool_active_threads", "Recon threads running a reconciliation" },
+        { "PoolSize", "openidm_recon_thread_pool_threads", "Recon threads in the pool" },
+        { "CorePoolSize", "openidm_recon_thread_pool_core_threads", "Core number of recon threads" },
+        { "MaximumPoolSize", "openidm_recon_thread_pool_max_threads", "Maximum number of recon threads" },
+        { "LargestPoolSize", "openidm_recon_thread_pool_largest_threads",
+            "Largest number of recon threads ever in the pool" },
+        { "QueueSize", "openidm_recon_thread_pool_queued_runs", "Reconciliations waiting for a recon thread" }
+    };
+
+    private final MBeanServer mBeanServer;
+
+    MetricsCollector() {
+        this(ManagementFactory.getPlatformMBeanServer());
+    }
+
+    MetricsCollector(MBeanServer mBeanServer) {
+        this.mBeanServer = mBeanServer;
+    }
+
+    /**
+     * Collects the metrics.
+     *
+     * @return the metrics in the text exposition format
+     */
+    String collect() {
+        StringBuilder out = new StringBuilder(8192);
+        collectLatencies(out);
+        collectFilters(out);
+        collectRecon(out);
+        return out.toString();
+    }
+
+    private void collectLatencies(StringBuilder out) {
+        Map<?, ?> latencies = (Map<?, ?>) getAttribute(STATISTICS_MBEAN, "Latencies");
+        if (latencies == null) {
+            return;
+        }
+        StringBuilder router = new StringBuilder();
+        StringBuilder jdbc = new StringBuilder();
+        StringBuilder other = new StringBuilder();
+        for (Map.Entry<?, ?> entry : latencies.entrySet()) {
+            String eventName = String.valueOf(entry.getKey());
+            Map<?, ?> eventLatencies = (Map<?, ?>) entry.getValue();
+            if (eventName.startsWith(ROUTER_EVENT_PREFIX)) {
+                // The router event names end with the request type, e.g. openidm/internal/router/managed/user/read,
+                // and have the resource ids of their path already replaced by {id}, so the path is a route
+                String pathAndType = eventName.substring(ROUTER_EVENT_PREFIX.length());
+                int slash = pathAndType.lastIndexOf('/');
+                writeSummary(router, "openidm_router_request_duration_seconds",
+                        "path=\"" + escape(slash < 0 ? "" : pathAndType.substring(0, slash))
+                        + "\",type=\"" + escape(pathAndType.substring(slash + 1)) + "\"", eventLatencies);
+            } else if (eventName.startsWith(JDBC_QUERY_EVENT_PREFIX)) {
+                writeSummary(jdbc, "openidm_repo_jdbc_query_duration_seconds",
+                        "query=\"" + escape(eventName.substring(JDBC_QUERY_EVENT_PREFIX.length())) + "\"",
+                        eventLatencies);
+            } else {
+                writeSummary(other, "openidm_event_duration_seconds",
+                        "event=\"" + escape(eventName) + "\"", eventLatencies);
+            }
+        }
+        writeFamily(out, "openidm_router_request_duration_seconds", "summary",
+                "Router request latency by resource path and request type", router);
+        writeFamily(out, "openidm_repo_jdbc_query_duration_seconds", "summary",
+                "JDBC repository query latency by query id", jdbc);
+        writeFamily(out, "openidm_event_duration_seconds", "summary",
+                "Latency of other monitored events", other);
+    }
+
+    /**
+     * Writes the samples of a summary: the quantiles over the sliding window of the statistics handler, and
+     * the sum and count since the statistics were last reset.
+     */
+    private static void writeSummary(StringBuilder out, String name, String labels, Map<?, ?> eventLatencies) {
+        Map<?, ?> window = (Map<?, ?>) eventLatencies.get("window");
+        Map<?, ?> total = (Map<?, ?>) eventLatencies.get("total");
+        if (window != null) {
+            for (String[] quantile : QUANTILES) {
+                writeSample(out, name, labels + ",quantile=\"" + quantile[0] + "\"",
+                        millisToSeconds(window.get(quantile[1])));
+            }
+        }
+        if (total != null) {
+            writeSample(out, name + "_sum", labels, millisToSeconds(total.get("sum")));
+            writeSample(out, name + "_count", labels, toDouble(total.get("count")));
+        }
+    }
+
+    private void collectFilters(StringBuilder out) {
+        Map<?, ?> filters = (Map<?, ?>) getAttribute(ROUTER_FILTERS_MBEAN, "FilterStatistics");
+        if (filters == null) {
+            return;
+        }
+        StringBuilder duration = new StringBuilder();
+        StringBuilder evaluations = new StringBuilder();
+        StringBuilder matches = new StringBuilder();
+        for (Map.Entry<?, ?> entry : filters.entrySet()) {
+            String filter = "filter=\"" + escape(String.valueOf(entry.getKey())) + "\"";
+            Map<?, ?> stats = (Map<?, ?>) entry.getValue();
+            for (String stage : FILTER_STAGES) {
+                String labels = filter + ",stage=\"" + stage + "\"";
+                writeSample(duration, "openidm_router_filter_duration_seconds_total", labels,
+                        toDouble(stats.get(stage + "Micros")) / 1000000d);
+                writeSample(evaluations, "openidm_router_filter_evaluations_total", labels,
+                        toDouble(stats.get(stage + "Count")));
+            }
+            writeSample(matches, "openidm_router_filter_matches_total", filter, toDouble(stats.get("matched")));
+        }
+        writeFamily(out, "openidm_router_filter_duration_seconds_total", "counter",
+                "Time spent in the conditions and scripts of the router filters", duration);
+        writeFamily(out, "openidm_router_filter_evaluations_total", "counter",
+                "Evaluations of the conditions and scripts of the router filters", evaluations);
+        writeFamily(out, "openidm_router_filter_matches_total", "counter",
+                "Requests matched by the condition of the router filters", matches);
+    }
+
+    private void collectRecon(StringBuilder out) {
+        for (String[] gauge : RECON_POOL_GAUGES) {
+            Object value = getAttribute(RECON_MBEAN, gauge[0]);
+            if (value != null) {
+                StringBuilder sample = new StringBuilder();
+                writeSample(sample, gauge[1], null, toDouble(value));
+                writeFamily(out, gauge[1], "gauge", gauge[2], sample);
+            }
+        }
+
+        Map<?, ?> mappings = (Map<?, ?>) getAttribute(RECON_MBEAN, "MappingStatistics");
+        if (mappings == null) {
+            return;
+        }
+        StringBuilder active = new StringBuilder();
+        StringBuilder runs = new StringBuilder();
+        StringBuilder processed = new StringBuilder();
+        StringBuilder created = new StringBuilder();
+        StringBuilder duration = new StringBuilder();
+        StringBuilder phaseDuration = new StringBuilder();
+        for (Map.Entry<?, ?> entry : mappings.entrySet()) {
+            String mapping = "mapping=\"" + escape(String.valueOf(entry.getKey())) + "\"";
+            Map<?, ?> stats = (Map<?, ?>) entry.getValue();
+            writeSample(active, "openidm_recon_active_runs", mapping, toDouble(stats.get("activeRuns")));
+            writeSample(runs, "openidm_recon_runs_total", mapping + ",outcome=\"success\"",
+                    toDouble(stats.get("completedRuns")));
+            writeSample(runs, "openidm_recon_runs_total", mapping + ",outcome=\"failure\"",
+                    toDouble(stats.get("failedRuns")));
+            writeSample(runs, "openidm_recon_runs_total", mapping + ",outcome=\"canceled\"",
+                    toDouble(stats.get("canceledRuns")));
+            writeSample(processed, "openidm_recon_entries_processed_total", mapping + ",phase=\"source\"",
+                    toDouble(stats.get("sourceProcessed")));
+            writeSample(processed, "openidm_recon_entries_processed_total", mapping + ",phase=\"target\"",
+                    toDouble(stats.get("targetProcessed")));
+            writeSample(created, "openidm_recon_created_total", mapping + ",object=\"target\"",
+                    toDouble(stats.get("targetCreated")));
+            writeSample(created, "openidm_recon_created_total", mapping + ",object=\"link\"",
+                    toDouble(stats.get("linkCreated")));
+            writeSample(duration, "openidm_recon_duration_seconds_total", mapping,
+                    millisToSeconds(stats.get("durationMillis")));
+            writeSample(phaseDuration, "openidm_recon_phase_duration_seconds_total",
+                    mapping + ",phase=\"entry_list\"", millisToSeconds(stats.get("entryListMillis")));
+            writeSample(phaseDuration, "openidm_recon_phase_duration_seconds_total",
+                    mapping + ",phase=\"source\"", millisToSeconds(stats.get("sourcePhaseMillis")));
+            writeSample(phaseDuration, "openidm_recon_phase_duration_seconds_total",
+                    mapping + ",phase=\"target\"", millisToSeconds(stats.get("targetPhaseMillis")));
+        }
+        writeFamily(out, "openidm_recon_active_runs", "gauge", "Reconciliations in progress", active);
+        writeFamily(out, "openidm_recon_runs_total", "counter", "Completed reconciliations by outcome", runs);
+        writeFamily(out, "openidm_recon_entries_processed_total", "counter",
+                "Entries reconciled by phase", processed);
+        writeFamily(out, "openidm_recon_created_total", "counter",
+                "Targets and links created by reconciliations", created);
+        writeFamily(out, "openidm_recon_duration_seconds_total", "counter",
+                "Time spent in completed reconciliations", duration);
+        writeFamily(out, "openidm_recon_phase_duration_seconds_total", "counter",
+                "Time spent in the phases of completed reconciliations", phaseDuration);
+    }
+
+    private Object getAttribute(String mBeanName, String attribute) {
+        try {
+            return mBeanServer.getAttribute(new ObjectName(mBeanName), attribute);
+        } catch (InstanceNotFoundException e) {
+            // The service is not running
+            return null;
+        } catch (Exception e) {
+            logger.debug("Unable to get attribute {} of mbean {}", attribute, mBeanName, e);
+            return null;
+        }
+    }
+
+    private static void writeFamily(StringBuilder out, String name, String type, String help,
+            StringBuilder samples) {
+        if (samples.length() == 0) {
+            return;
+        }
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        out.append(samples);
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, double value) {
+        out.append(name);
+        if (labels != null) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ');
+        if (value == Math.rint(value) && !Double.isInfinite(value)) {
+            out.append((long) value);
+        } else {
+            out.append(Double.toString(value));
+        }
+        out.append('\n');
+    }
+
+    private static double millisToSeconds(Object millis) {
+        return toDouble(millis) / 1000d;
+    }
+
+    private static double toDouble(Object value) {
+        return value instanceof Number ? ((Number) value).doubleValue() : Double.NaN;
+    }
+
+    /**
+     * Escapes a label value as required by the text exposition format.
+     */
+    static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
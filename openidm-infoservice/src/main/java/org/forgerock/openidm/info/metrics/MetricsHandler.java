@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.info.metrics;
+
+import static org.forgerock.util.promise.Promises.newResultPromise;
+
+import java.util.Set;
+
+import org.forgerock.http.Handler;
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.http.SecurityContextFactory;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.SecurityContext;
+import org.forgerock.util.promise.NeverThrowsException;
+import org.forgerock.util.promise.Promise;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Serves the metrics collected by a {@link MetricsCollector} to Prometheus scrapes.
+ * <p>
+ * The handler runs behind the OpenIDM authentication filter and only serves callers having one of the
+ * configured roles.
+ */
+class MetricsHandler implements Handler {
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsHandler.class);
+
+    private final MetricsCollector collector;
+    private final Set<String> roles;
+
+    MetricsHandler(MetricsCollector collector, Set<String> roles) {
+        this.collector = collector;
+        this.roles = roles;
+    }
+
+    @Override
+    public Promise<Response, NeverThrowsException> handle(Context context, Request request) {
+        if (!"GET".equals(request.getMethod())) {
+            Response response = new Response(Status.METHOD_NOT_ALLOWED);
+            response.getHeaders().put("Allow", "GET");
+            return newResultPromise(response);
+        }
+        if (!isAuthorized(context)) {
+            return newResultPromise(new Response(Status.FORBIDDEN));
+        }
+        Response response = new Response(Status.OK);
+        response.getHeaders().put("Content-Type", MetricsCollector.CONTENT_TYPE);
+        response.getHeaders().put("Cache-Control", "no-cache");
+        response.setEntity(collector.collect());
+        return newResultPromise(response);
+    }
+
+    /**
+     * Checks that the authenticated caller has one of the roles allowed to scrape the metrics.
+     */
+    private boolean isAuthorized(Context context) {
+        try {
+            SecurityContext securityContext = context.containsContext(SecurityContext.class)
+                    ? context.asContext(SecurityContext.class)
+                    : SecurityContextFactory.getHttpServletContextFactory().createContext(context);
+            JsonValue callerRoles = new JsonValue(securityContext.getAuthorization())
+                    .get(SecurityContext.AUTHZID_ROLES);
+            if (callerRoles.isList()) {
+                for (Object role : callerRoles.asList()) {
+                    if (roles.contains(String.valueOf(role))) {
+                        return true;
+                    }
+                }
+            }
+        } catch (ResourceException | IllegalArgumentException e) {
+            logger.debug("Unable to read the security context of a metrics request", e);
+        }
+        return false;
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.info.metrics;
+
+import java.util.Hashtable;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+
+import org.apache.felix.scr.annotations.Activate;
+import org.apache.felix.scr.annotations.Component;
+import org.apache.felix.scr.annotations.ConfigurationPolicy;
+import org.apache.felix.scr.annotations.Deactivate;
+import org.apache.felix.scr.annotations.Properties;
+import org.apache.felix.scr.annotations.Property;
+import org.apache.felix.scr.annotations.Reference;
+import org.apache.felix.scr.annotations.ReferencePolicy;
+import org.forgerock.http.Filter;
+import org.forgerock.http.Handler;
+import org.forgerock.http.HttpApplication;
+import org.forgerock.http.HttpApplicationException;
+import org.forgerock.http.handler.Handlers;
+import org.forgerock.http.io.Buffer;
+import org.forgerock.http.servlet.HttpFrameworkServlet;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openidm.config.enhanced.EnhancedConfig;
+import org.forgerock.openidm.core.ServerConstants;
+import org.forgerock.openidm.servletregistration.ServletRegistration;
+import org.forgerock.util.Factory;
+import org.osgi.framework.Constants;
+import org.osgi.service.component.ComponentContext;
+import org.osgi.service.http.NamespaceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registers a servlet publishing the router, repository and reconciliation metrics in the Prometheus text
+ * exposition format.
+ * <p>
+ * The servlet is registered when a {@code conf/metrics.json} configuration exists, at the {@code alias}
+ * it configures, {@code /metrics} by default. Scrapes go through the OpenIDM authentication filter like
+ * the REST requests do, and are only served to callers having one of the configured {@code roles},
+ * {@code openidm-admin} by default.
+ */
+@Component(name = MetricsService.PID, policy = ConfigurationPolicy.REQUIRE, metatype = true,
+        description = "OpenIDM Metrics Service", immediate = true)
+@Properties({
+    @Property(name = Constants.SERVICE_VENDOR, value = ServerConstants.SERVER_VENDOR_NAME),
+    @Property(name = Constants.SERVICE_DESCRIPTION, value = "OpenIDM Metrics Service") })
+public class MetricsService {
+
+    public static final String PID = "org.forgerock.openidm.metrics";
+
+    private static final String DEFAULT_ALIAS = "/metrics";
+
+    private static final String DEFAULT_ROLE = "openidm-admin";
+
+    private static final Logger logger = LoggerFactory.getLogger(MetricsService.class);
+
+    /** Enhanced configuration service. */
+    @Reference(policy = ReferencePolicy.DYNAMIC)
+    private EnhancedConfig enhancedConfig;
+
+    @Reference
+    private ServletRegistration servletRegistration;
+
+    /** The authentication filter */
+    @Reference(policy = ReferencePolicy.STATIC, target = "(service.pid=org.forgerock.openidm.auth.config)")
+    private Filter authFilter;
+
+    private HttpFrameworkServlet servlet;
+
+    @Activate
+    protected void activate(ComponentContext context) throws ServletException, NamespaceException {
+        JsonValue configuration = enhancedConfig.getConfigurationAsJson(context);
+        String alias = configuration.get("alias").defaultTo(DEFAULT_ALIAS).asString();
+        Set<String> roles = new LinkedHashSet<String>();
+        if (configuration.isDefined("roles")) {
+            roles.addAll(configuration.get("roles").asList(String.class));
+        } else {
+            roles.add(DEFAULT_ROLE);
+        }
+        final Handler handler = new MetricsHandler(new MetricsCollector(), roles);
+        servlet = new HttpFrameworkServlet(
+                new HttpApplication() {
+                    @Override
+                    public Handler start() throws HttpApplicationException {
+                        return Handlers.chainOf(handler, authFilter);
+                    }
+
+                    @Override
+                    public Factory<Buffer> getBufferFactory() {
+                        return null;
+                    }
+
+                    @Override
+                    public void stop() {
+                    }
+                });
+        servletRegistration.registerServlet(alias, servlet, new Hashtable());
+        logger.info("Registered metrics servlet at {}", alias);
+    }
+
+    @Deactivate
+    protected void deactivate(ComponentContext context) {
+        if (servlet != null) {
+            servletRegistration.unregisterServlet(servlet);
+            servlet = null;
+        }
+        logger.info("OpenIDM Metrics Service component is deactivated.");
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.info.metrics;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.management.InstanceNotFoundException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.testng.annotations.Test;
+
+public class MetricsCollectorTest {
+
+    private static Map<String, Object> latencies(long count, double sum, double p50) {
+        Map<String, Object> total = new HashMap<String, Object>();
+        total.put("count", count);
+        total.put("sum", sum);
+        Map<String, Object> window = new HashMap<String, Object>();
+        window.put("p50", p50);
+        window.put("p90", p50);
+        window.put("p99", p50);
+        window.put("p999", p50);
+        Map<String, Object> eventLatencies = new HashMap<String, Object>();
+        eventLatencies.put("total", total);
+        eventLatencies.put("window", window);
+        return eventLatencies;
+    }
+
+    private static MBeanServer mBeanServer(Map<String, Object> latencies) throws Exception {
+        MBeanServer mBeanServer = mock(MBeanServer.class);
+        doThrow(new InstanceNotFoundException()).when(mBeanServer).getAttribute(any(ObjectName.class), anyString());
+        doReturn(latencies).when(mBeanServer)
+                .getAttribute(eq(new ObjectName("OpenIDM:type=Statistics")), eq("Latencies"));
+        return mBeanServer;
+    }
+
+    @Test
+    public void testRouterPathLabelIsTheRouteTemplate() throws Exception {
+        Map<String, Object> latencies = new HashMap<String, Object>();
+        latencies.put("openidm/internal/router/managed/user/{id}/roles/read", latencies(4, 20d, 5d));
+
+        String metrics = new MetricsCollector(mBeanServer(latencies)).collect();
+
+        assertThat(metrics).contains("# TYPE openidm_router_request_duration_seconds summary\n");
+        assertThat(metrics).contains("openidm_router_request_duration_seconds_count"
+                + "{path=\"managed/user/{id}/roles\",type=\"read\"} 4\n");
+        assertThat(metrics).contains("openidm_router_request_duration_seconds_sum"
+                + "{path=\"managed/user/{id}/roles\",type=\"read\"} 0.02\n");
+        assertThat(metrics).contains("openidm_router_request_duration_seconds"
+                + "{path=\"managed/user/{id}/roles\",type=\"read\",quantile=\"0.5\"} 0.005\n");
+    }
+
+    @Test
+    public void testOtherEventsAndMissingServices() throws Exception {
+        Map<String, Object> latencies = new HashMap<String, Object>();
+        latencies.put("openidm/internal/repo/jdbc/raw/query/query-all-ids", latencies(1, 1000d, 1000d));
+        latencies.put("openidm/internal/\"quoted\"", latencies(2, 0d, 0d));
+
+        String metrics = new MetricsCollector(mBeanServer(latencies)).collect();
+
+        assertThat(metrics).contains(
+                "openidm_repo_jdbc_query_duration_seconds_count{query=\"query-all-ids\"} 1\n");
+        assertThat(metrics).contains(
+                "openidm_event_duration_seconds_count{event=\"openidm/internal/\\\"quoted\\\"\"} 2\n");
+        // The recon service and the router filters are not running
+        assertThat(metrics).doesNotContain("openidm_recon_");
+        assertThat(metrics).doesNotContain("openidm_router_filter_");
+    }
+
+    @Test
+    public void testNothingIsWrittenWithoutStatistics() throws Exception {
+        assertThat(new MetricsCollector(mBeanServer(null)).collect()).isEmpty();
+    }
+
+    @Test
+    public void testEscape() {
+        assertThat(MetricsCollector.escape("a\\b\"c\nd")).isEqualTo("a\\\\b\\\"c\\nd");
+    }
+}
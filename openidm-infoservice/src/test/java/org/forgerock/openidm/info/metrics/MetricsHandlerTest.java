@@ -0,0 +1,100 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.info.metrics;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.forgerock.http.protocol.Request;
+import org.forgerock.http.protocol.Response;
+import org.forgerock.http.protocol.Status;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.forgerock.services.context.SecurityContext;
+import org.testng.annotations.Test;
+
+public class MetricsHandlerTest {
+
+    private static Context securityContext(String... roles) {
+        Map<String, Object> authorization = new HashMap<String, Object>();
+        authorization.put(SecurityContext.AUTHZID_ID, "admin");
+        authorization.put(SecurityContext.AUTHZID_COMPONENT, "repo/internal/user");
+        authorization.put(SecurityContext.AUTHZID_ROLES, Arrays.asList(roles));
+        return new SecurityContext(new RootContext(), "admin", authorization);
+    }
+
+    private static MetricsHandler handler(MetricsCollector collector) {
+        return new MetricsHandler(collector, Collections.singleton("openidm-admin"));
+    }
+
+    @Test
+    public void testServesTheAllowedRoles() throws Exception {
+        MetricsCollector collector = mock(MetricsCollector.class);
+        when(collector.collect()).thenReturn("openidm_recon_active_runs{mapping=\"m\"} 0\n");
+
+        Response response = handler(collector)
+                .handle(securityContext("openidm-authorized", "openidm-admin"), new Request().setMethod("GET"))
+                .getOrThrow();
+
+        assertThat(response.getStatus()).isEqualTo(Status.OK);
+        assertThat(response.getHeaders().getFirst("Content-Type")).isEqualTo(MetricsCollector.CONTENT_TYPE);
+        assertThat(response.getEntity().getString()).isEqualTo("openidm_recon_active_runs{mapping=\"m\"} 0\n");
+    }
+
+    @Test
+    public void testRejectsOtherRoles() throws Exception {
+        MetricsCollector collector = mock(MetricsCollector.class);
+
+        Response response = handler(collector)
+                .handle(securityContext("openidm-authorized"), new Request().setMethod("GET"))
+                .getOrThrow();
+
+        assertThat(response.getStatus()).isEqualTo(Status.FORBIDDEN);
+        verify(collector, never()).collect();
+    }
+
+    @Test
+    public void testRejectsUnauthenticatedRequests() throws Exception {
+        MetricsCollector collector = mock(MetricsCollector.class);
+
+        Response response = handler(collector).handle(new RootContext(), new Request().setMethod("GET"))
+                .getOrThrow();
+
+        assertThat(response.getStatus()).isEqualTo(Status.FORBIDDEN);
+        verify(collector, never()).collect();
+    }
+
+    @Test
+    public void testOnlyServesGet() throws Exception {
+        MetricsCollector collector = mock(MetricsCollector.class);
+
+        Response response = handler(collector)
+                .handle(securityContext("openidm-admin"), new Request().setMethod("DELETE"))
+                .getOrThrow();
+
+        assertThat(response.getStatus()).isEqualTo(Status.METHOD_NOT_ALLOWED);
+        verify(collector, never()).collect();
+    }
+}
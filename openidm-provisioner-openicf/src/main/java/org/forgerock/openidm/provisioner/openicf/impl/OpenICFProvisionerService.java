@@ -15,7 +15,6 @@
  */
 package org.forgerock.openidm.provisioner.openicf.impl;
 
-import static org.forgerock.json.JsonValue.array;
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
 import static org.forgerock.json.resource.Responses.newActionResponse;
@@ -52,6 +51,10 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.commons.lang3.StringUtils;
@@ -101,6 +104,7 @@ import org.forgerock.json.resource.UpdateRequest;
 import org.forgerock.json.resource.http.HttpContext;
 import org.forgerock.openidm.audit.util.ActivityLogger;
 import org.forgerock.openidm.audit.util.NullActivityLogger;
+import org.forgerock.openidm.audit.util.QueryActivitySummary;
 import org.forgerock.openidm.audit.util.RouterActivityLogger;
 import org.forgerock.openidm.audit.util.Status;
 import org.forgerock.openidm.config.enhanced.EnhancedConfig;
@@ -223,6 +227,12 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
 
     private static final int UNAUTHORIZED_ERROR_CODE = 401;
 
+    /** Configuration of pipelined live sync delta processing */
+    private static final String LIVE_SYNC = "liveSync";
+
+    /** The default number of deltas queued per live sync worker */
+    private static final int DEFAULT_LIVE_SYNC_QUEUE_SIZE = 100;
+
     private SimpleSystemIdentifier systemIdentifier = null;
     private OperationHelperBuilder operationHelperBuilder = null;
     private Promise<ConnectorInfo, RuntimeException> connectorFacadeCallback = null;
@@ -230,6 +240,11 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
     private JsonValue jsonConfiguration = null;
     private ConnectorReference connectorReference = null;
     private SyncFailureHandler syncFailureHandler = null;
+    private int liveSyncWorkerThreads = 0;
+    private int liveSyncQueueSize = DEFAULT_LIVE_SYNC_QUEUE_SIZE;
+
+    /** Runs the worker lanes of the pipelined live sync runs, if configured */
+    private ExecutorService liveSyncExecutor = null;
     private String factoryPid = null;
 
     /** use null-object activity logger until/unless ConnectionFactory binder updates it */
@@ -333,6 +348,23 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
             connectorReference = ConnectorUtil.getConnectorReference(jsonConfiguration);
 
             syncFailureHandler = syncFailureHandlerFactory.create(jsonConfiguration.get("syncFailureHandler"));
+            liveSyncWorkerThreads = jsonConfiguration.get(LIVE_SYNC).get("workerThreads").defaultTo(0).asInteger();
+            liveSyncQueueSize = jsonConfiguration.get(LIVE_SYNC).get("queueSize")
+                    .defaultTo(DEFAULT_LIVE_SYNC_QUEUE_SIZE).asInteger();
+            if (liveSyncWorkerThreads > 1) {
+                liveSyncExecutor = Executors.newFixedThreadPool(liveSyncWorkerThreads,
+                        new ThreadFactory() {
+                            private final String prefix = "liveSync-" + systemIdentifier.getName() + "-";
+                            private final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable r) {
+                                Thread thread = new Thread(r, prefix + count.getAndIncrement());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+            }
             
             connectorInfoProvider.findConnectorInfoAsync(connectorReference).thenOnResult(
                     new org.forgerock.util.promise.ResultHandler<ConnectorInfo>() {
@@ -437,6 +469,11 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
             ((LocalConnectorFacadeImpl) connectorFacade.get()).dispose();
         }
         connectorFacade.set(null);
+        if (liveSyncExecutor != null) {
+            // Interrupts the lanes of a running live sync, which then stops
+            liveSyncExecutor.shutdownNow();
+            liveSyncExecutor = null;
+        }
         logger.info("OpenICF Provisioner Service component {} is deactivated.", systemIdentifier.getName());
         systemIdentifier = null;
     }
@@ -1451,7 +1488,7 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
                     objectClassInfoHelper.setAttributesToGet(operationOptionsBuilder, request.getFields());
                 }
 
-                final JsonValue logValue = json(array());
+                final QueryActivitySummary summary = new QueryActivitySummary(activityLogger);
                 final Exception[] ex = new Exception[] { null };
                 SearchResult searchResult = facade.search(objectClassInfoHelper.getObjectClass(), filter,
                         new ResultsHandler() {
@@ -1459,7 +1496,7 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
                             public boolean handle(ConnectorObject obj) {
                                 try {
                                     ResourceResponse resource = objectClassInfoHelper.build(obj, cryptoService);
-                                    logValue.add(resource.getContent().getObject());
+                                    summary.add(resource);
                                     return handler.handleResource(resource);
                                 } catch (Exception e) {
                                     ex[0] = e;
@@ -1476,7 +1513,7 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
                                 + ", queryExpression: " + request.getQueryExpression()
                                 + ", queryFilter: " + (request.getQueryFilter() != null ? request.getQueryFilter().toString() : null)
                                 + ", parameters: " + request.getAdditionalParameters(),
-                        request.getQueryId(), null, logValue, Status.SUCCESS);
+                        request.getQueryId(), null, summary.toJsonValue(), Status.SUCCESS);
 
                 // TODO-crest3- fix contract for remainingPagedResults
                 return newResultPromise(
@@ -1762,6 +1799,214 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
         }
     }
 
+    /**
+     * Waits for a live sync pipeline to finish and takes over the token of its highest contiguous
+     * completed delta.
+     *
+     * @param pipeline the pipeline
+     * @param deltaHandler the delta handler of the live sync run
+     * @throws InterruptedException if interrupted while waiting
+     */
+    private void finishPipeline(SyncDeltaPipeline<LiveSyncDelta> pipeline, LiveSyncDeltaHandler deltaHandler)
+            throws InterruptedException {
+        try {
+            pipeline.finish();
+        } finally {
+            // Lanes still running after an interrupt only complete deltas past this token
+            if (pipeline.getLastToken() != null) {
+                deltaHandler.lastToken = pipeline.getLastToken();
+            }
+        }
+        if (pipeline.getError() != null) {
+            throw pipeline.getError();
+        }
+    }
+
+    /**
+     * A sync delta decoded into the sync action request to issue for it.
+     */
+    private static final class LiveSyncDelta {
+        final SyncDelta syncDelta;
+        final ActionRequest request;
+        final String activity;
+        final JsonValue deltaObject;
+        final Exception decodeFailure;
+
+        LiveSyncDelta(SyncDelta syncDelta, ActionRequest request, String activity, JsonValue deltaObject,
+                Exception decodeFailure) {
+            this.syncDelta = syncDelta;
+            this.request = request;
+            this.activity = activity;
+            this.deltaObject = deltaObject;
+            this.decodeFailure = decodeFailure;
+        }
+    }
+
+    /**
+     * Handles the deltas of a live synchronization run: decodes each delta into a sync action request,
+     * issues the request, and passes failures to the sync failure handler.
+     * <p>
+     * As a {@link SyncResultsHandler} it processes each delta on the connector callback thread. With
+     * worker threads configured, the deltas are decoded on the callback thread and processed by a
+     * {@link SyncDeltaPipeline}.
+     */
+    private class LiveSyncDeltaHandler
+            implements SyncResultsHandler, SyncDeltaPipeline.DeltaProcessor<LiveSyncDelta> {
+        private final Context context;
+        private final String objectType;
+        private final JsonValue stage;
+        private final OperationHelper helper;
+        private final SyncRetry syncRetry;
+
+        /** The serialized delta that failed, if any */
+        String failedRecord = null;
+
+        /** The token of the last delta processed, if processed on the callback thread */
+        SyncToken lastToken;
+
+        LiveSyncDeltaHandler(Context context, String objectType, JsonValue stage, OperationHelper helper,
+                SyncRetry syncRetry, SyncToken token) {
+            this.context = context;
+            this.objectType = objectType;
+            this.stage = stage;
+            this.helper = helper;
+            this.syncRetry = syncRetry;
+            this.lastToken = token;
+        }
+
+        /**
+         * Called to handle a delta in the stream. The Connector framework will call
+         * this method multiple times, once for each result.
+         * Although this method is callback, the framework will invoke it synchronously.
+         * Thus, the framework guarantees that once an application's call to
+         * {@link SyncApiOp#sync} returns, the framework will no longer call this method
+         * to handle results from that <code>sync()</code> operation.
+         *
+         * @param syncDelta The change
+         * @return True iff the application wants to continue processing more results.
+         * @throws RuntimeException If the application encounters an exception. This will
+         * stop iteration and the exception will propagate to the application.
+         */
+        @Override
+        public boolean handle(SyncDelta syncDelta) {
+            LiveSyncDelta delta = decode(syncDelta);
+            try {
+                process(delta);
+            } catch (Exception e) {
+                if (!handleFailure(delta, e)) {
+                    // Stop the processing of this result set. Next retry will start again after last token.
+                    return false;
+                }
+            }
+            // success (either by original sync or by failure handler)
+            // Continue the processing of the rest of the result set
+            lastToken = syncDelta.getToken();
+            return true;
+        }
+
+        /**
+         * Decodes a delta into the sync action request to issue for it.
+         *
+         * @param syncDelta the delta
+         * @return the decoded delta, holding the failure if decoding failed
+         */
+        LiveSyncDelta decode(SyncDelta syncDelta) {
+            try {
+                // Q: are we going to encode ids?
+                final String resourceId = syncDelta.getUid().getUidValue();
+                final String objectTypeName = getObjectTypeName(syncDelta.getObjectClass());
+                final String resourceContainer = getSource(objectTypeName == null ? objectType : objectTypeName);
+                final JsonValue content = new JsonValue(new LinkedHashMap<String, Object>(2));
+
+                //rebuild the OperationHelper if the helper is for the __ALL__ object class
+                final OperationHelper syncDeltaOperationHelper = helper.getObjectClass().equals(ObjectClass.ALL)
+                        ? operationHelperBuilder.build(objectTypeName, stage, cryptoService)
+                        : helper;
+
+                JsonValue deltaObject = null;
+                String action;
+                String activity;
+                switch (syncDelta.getDeltaType()) {
+                    case CREATE:
+                        deltaObject = syncDeltaOperationHelper.build(syncDelta.getObject());
+                        content.put("oldValue", null);
+                        content.put("newValue", deltaObject.getObject());
+                        // TODO import SynchronizationService.Action.notifyCreate and ACTION_PARAM_ constants
+                        action = "notifyCreate";
+                        activity = "sync-create";
+                        break;
+                    case UPDATE:
+                    case CREATE_OR_UPDATE:
+                        deltaObject = syncDeltaOperationHelper.build(syncDelta.getObject());
+                        content.put("oldValue", null);
+                        content.put("newValue", deltaObject.getObject());
+                        if (null != syncDelta.getPreviousUid()) {
+                            deltaObject.put("_previous-id", syncDelta.getPreviousUid().getUidValue());
+                        }
+                        // TODO import SynchronizationService.Action.notifyUpdate and ACTION_PARAM_ constants
+                        action = "notifyUpdate";
+                        activity = "sync-update";
+                        break;
+                    case DELETE:
+                        // TODO Pass along the old deltaObject - do we have it?
+                        content.put("oldValue", null);
+                        // TODO import SynchronizationService.Action.notifyDelete and ACTION_PARAM_ constants
+                        action = "notifyDelete";
+                        activity = "sync-delete";
+                        break;
+                    default:
+                        return new LiveSyncDelta(syncDelta, null, null, null, null);
+                }
+                ActionRequest request = Requests.newActionRequest("sync", action)
+                        .setAdditionalParameter("resourceContainer", resourceContainer)
+                        .setAdditionalParameter("resourceId", resourceId)
+                        .setContent(content);
+                return new LiveSyncDelta(syncDelta, request, activity, deltaObject, null);
+            } catch (Exception e) {
+                // Reported in order when the delta is processed
+                return new LiveSyncDelta(syncDelta, null, null, null, e);
+            }
+        }
+
+        @Override
+        public void process(LiveSyncDelta delta) throws Exception {
+            if (delta.decodeFailure != null) {
+                throw delta.decodeFailure;
+            }
+            if (delta.request != null) {
+                connectionFactory.getConnection().action(context, delta.request);
+                activityLogger.log(context, delta.request, delta.activity, delta.request.getResourcePath(),
+                        delta.deltaObject, delta.deltaObject, Status.SUCCESS);
+            }
+        }
+
+        @Override
+        public boolean handleFailure(LiveSyncDelta delta, Exception e) {
+            SyncDelta syncDelta = delta.syncDelta;
+            failedRecord = SerializerUtil.serializeXmlObject(syncDelta, true);
+            logger.debug("Failed to synchronize {} object, handle failure using {}",
+                    syncDelta.getUid(), syncFailureHandler, e);
+            Map<String, Object> syncFailureMap = new HashMap<String, Object>(6);
+            syncFailureMap.put("token", syncDelta.getToken().getValue());
+            syncFailureMap.put("systemIdentifier", systemIdentifier.getName());
+            syncFailureMap.put("objectType", objectType);
+            syncFailureMap.put("uid", syncDelta.getUid().getUidValue());
+            syncFailureMap.put("failedRecord", failedRecord);
+            try {
+                syncFailureHandler.invoke(context, syncFailureMap, e);
+            } catch (SyncHandlerException syncHandlerException) {
+                // Current contract of the failure handler is that throwing this exception indicates
+                // that it should retry for this entry
+                syncRetry.setValue(true);
+                syncRetry.setThrowable(syncHandlerException);
+                logger.debug("Sync failure handler indicated to stop current change set processing until retry handling: {}",
+                        syncHandlerException.getMessage(), syncHandlerException);
+                return false;
+            }
+            return true;
+        }
+    }
+
     private static final QueryFilterVisitor<Filter, ObjectClassInfoHelper, JsonPointer> RESOURCE_FILTER =
             new QueryFilterVisitor<Filter, ObjectClassInfoHelper, JsonPointer>() {
 
@@ -2172,146 +2417,65 @@ public class OpenICFProvisionerService implements ProvisionerService, SingletonR
                     token = operation.getLatestSyncToken(helper.getObjectClass());
                     logger.debug("New LatestSyncToken has been fetched. New token is: {}", token);
                 } else {
-                    final SyncToken[] lastToken = new SyncToken[]{token};
-                    final String[] failedRecord = new String[1];
+                    final LiveSyncDeltaHandler deltaHandler =
+                            new LiveSyncDeltaHandler(context, objectType, stage, helper, syncRetry, token);
                     OperationOptionsBuilder operationOptionsBuilder =
                             helper.getOperationOptionsBuilder(SyncApiOp.class, null, previousStage);
 
+                    // Optionally dispatch the decoded deltas to worker lanes, partitioned by uid
+                    final SyncDeltaPipeline<LiveSyncDelta> pipeline = liveSyncExecutor != null
+                            ? new SyncDeltaPipeline<LiveSyncDelta>(deltaHandler, liveSyncExecutor,
+                                    liveSyncWorkerThreads, liveSyncQueueSize)
+                            : null;
+                    SyncResultsHandler resultsHandler = pipeline == null
+                            ? deltaHandler
+                            : new SyncResultsHandler() {
+                                @Override
+                                public boolean handle(SyncDelta syncDelta) {
+                                    return pipeline.submit(syncDelta.getUid().getUidValue(), syncDelta.getToken(),
+                                            deltaHandler.decode(syncDelta));
+                                }
+                            };
+
                     try {
                         logger.debug("Execute sync(ObjectClass:{}, SyncToken:{})",
                                 new Object[] { helper.getObjectClass().getObjectClassValue(), token });
-                        SyncToken syncToken = operation.sync(helper.getObjectClass(), token,
-                                new SyncResultsHandler() {
-                                    /**
-                                     * Called to handle a delta in the stream. The Connector framework will call
-                                     * this method multiple times, once for each result.
-                                     * Although this method is callback, the framework will invoke it synchronously.
-                                     * Thus, the framework guarantees that once an application's call to
-                                     * {@link org.identityconnectors.framework.api.operations.SyncApiOp#sync(org.identityconnectors.framework.common.objects.ObjectClass, org.identityconnectors.framework.common.objects.SyncToken, org.identityconnectors.framework.common.objects.SyncResultsHandler, org.identityconnectors.framework.common.objects.OperationOptions)} SyncApiOp#sync() returns,
-                                     * the framework will no longer call this method
-                                     * to handle results from that <code>sync()</code> operation.
-                                     *
-                                     * @param syncDelta The change
-                                     * @return True iff the application wants to continue processing more results.
-                                     * @throws RuntimeException If the application encounters an exception. This will
-                                     * stop iteration and the exception will propagate to the application.
-                                     */
-                                    @SuppressWarnings("fallthrough")
-                                    public boolean handle(SyncDelta syncDelta) {
-                                        try {
-                                            // Q: are we going to encode ids?
-                                            final String resourceId = syncDelta.getUid().getUidValue();
-                                            final String objectTypeName = getObjectTypeName(syncDelta.getObjectClass());
-                                            final String resourceContainer = getSource(objectTypeName == null ? objectType : objectTypeName);
-                                            final JsonValue content = new JsonValue(new LinkedHashMap<String, Object>(2));
-
-                                            //rebuild the OperationHelper if the helper is for the __ALL__ object class
-                                            final OperationHelper syncDeltaOperationHelper = helper.getObjectClass().equals(ObjectClass.ALL)
-                                                    ? operationHelperBuilder.build(objectTypeName, stage, cryptoService)
-                                                    : helper;
-
-                                            switch (syncDelta.getDeltaType()) {
-                                                case CREATE: {
-                                                    JsonValue deltaObject = syncDeltaOperationHelper.build(syncDelta.getObject());
-                                                    content.put("oldValue", null);
-                                                    content.put("newValue", deltaObject.getObject());
-                                                    // TODO import SynchronizationService.Action.notifyCreate and ACTION_PARAM_ constants
-                                                    ActionRequest onCreateRequest = Requests.newActionRequest("sync", "notifyCreate")
-                                                            .setAdditionalParameter("resourceContainer", resourceContainer)
-                                                            .setAdditionalParameter("resourceId", resourceId)
-                                                            .setContent(content);
-                                                    connectionFactory.getConnection().action(context, onCreateRequest);
-
-                                                    activityLogger.log(context, onCreateRequest,
-                                                                    "sync-create", onCreateRequest.getResourcePath(),
-                                                                    deltaObject, deltaObject, Status.SUCCESS);
-                                                    break;
-                                                }
-                                                case UPDATE:
-                                                case CREATE_OR_UPDATE: {
-                                                    JsonValue deltaObject = syncDeltaOperationHelper.build(syncDelta.getObject());
-                                                    content.put("oldValue", null);
-                                                    content.put("newValue", deltaObject.getObject());
-                                                    if (null != syncDelta.getPreviousUid()) {
-                                                        deltaObject.put("_previous-id", syncDelta.getPreviousUid().getUidValue());
-                                                    }
-                                                    // TODO import SynchronizationService.Action.notifyUpdate and ACTION_PARAM_ constants
-                                                    ActionRequest onUpdateRequest = Requests.newActionRequest("sync", "notifyUpdate")
-                                                            .setAdditionalParameter("resourceContainer", resourceContainer)
-                                                            .setAdditionalParameter("resourceId", resourceId)
-                                                            .setContent(content);
-                                                    connectionFactory.getConnection().action(context, onUpdateRequest);
-
-                                                    activityLogger.log(context, onUpdateRequest,
-                                                            "sync-update", onUpdateRequest.getResourcePath(),
-                                                            deltaObject, deltaObject, Status.SUCCESS);
-                                                    break;
-                                                }
-                                                case DELETE:
-                                                    // TODO Pass along the old deltaObject - do we have it?
-                                                    content.put("oldValue", null);
-                                                    // TODO import SynchronizationService.Action.notifyDelete and ACTION_PARAM_ constants
-                                                    ActionRequest onDeleteRequest = Requests.newActionRequest("sync", "notifyDelete")
-                                                            .setAdditionalParameter("resourceContainer", resourceContainer)
-                                                            .setAdditionalParameter("resourceId", resourceId)
-                                                            .setContent(content);
-                                                    connectionFactory.getConnection().action(context, onDeleteRequest);
-
-                                                    activityLogger.log(context, onDeleteRequest,
-                                                            "sync-delete", onDeleteRequest.getResourcePath(),
-                                                            null, null, Status.SUCCESS);
-                                                    break;
-                                            }
-                                        } catch (Exception e) {
-                                            failedRecord[0] = SerializerUtil.serializeXmlObject(syncDelta, true);
-                                            logger.debug("Failed to synchronize {} object, handle failure using {}",
-                                                    syncDelta.getUid(), syncFailureHandler, e);
-                                            Map<String, Object> syncFailureMap = new HashMap<String, Object>(6);
-                                            syncFailureMap.put("token", syncDelta.getToken().getValue());
-                                            syncFailureMap.put("systemIdentifier", systemIdentifier.getName());
-                                            syncFailureMap.put("objectType", objectType);
-                                            syncFailureMap.put("uid", syncDelta.getUid().getUidValue());
-                                            syncFailureMap.put("failedRecord", failedRecord[0]);
-                                            try {
-                                                syncFailureHandler.invoke(context, syncFailureMap, e);
-                                            } catch (SyncHandlerException syncHandlerException) {
-                                                // Current contract of the failure handler is that throwing this exception indicates 
-                                                // that it should retry for this entry
-                                                syncRetry.setValue(true);
-                                                syncRetry.setThrowable(syncHandlerException);
-                                                logger.debug("Sync failure handler indicated to stop current change set processing until retry handling: {}", 
-                                                        syncHandlerException.getMessage(), syncHandlerException);
-                                            }
-                                        }
-
-                                        if (syncRetry.getValue()) {
-                                            // Stop the processing of this result set. Next retry will start again after last token.
-                                            return false; 
-                                        } else {
-                                            // success (either by original sync or by failure handler)
-                                            // Continue the processing of the rest of the result set
-                                            lastToken[0] = syncDelta.getToken();
-                                            return true;
-                                        }
-                                    }
-                        }, operationOptionsBuilder.build());
+                        SyncToken syncToken = operation.sync(helper.getObjectClass(), token, resultsHandler,
+                                operationOptionsBuilder.build());
+                        if (pipeline != null) {
+                            finishPipeline(pipeline, deltaHandler);
+                        }
                         if (syncRetry.getValue()) {
                             Throwable throwable = syncRetry.getThrowable();
                             Map<String, Object> lastException = new LinkedHashMap<String, Object>(2);
                             lastException.put("throwable", throwable.getMessage());
-                            if (null != failedRecord[0]) {
-                                lastException.put("syncDelta", failedRecord[0]);
+                            if (null != deltaHandler.failedRecord) {
+                                lastException.put("syncDelta", deltaHandler.failedRecord);
                             }
                             stage.put("lastException", lastException);
                             logger.debug("Live synchronization of {} failed on {}",
                                     new Object[] { objectType, systemIdentifier.getName() }, throwable);
                         } else {
                             if (syncToken != null) {
-                                lastToken[0] = syncToken;
+                                deltaHandler.lastToken = syncToken;
                             }
                         }
                     } finally {
-                        token = lastToken[0];
+                        if (pipeline != null && !pipeline.isFinished()) {
+                            // Sync failed; keep the token of the deltas completed so far, without masking the failure
+                            pipeline.abort();
+                            try {
+                                finishPipeline(pipeline, deltaHandler);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                                logger.debug("Interrupted while stopping live synchronization of {} on {}",
+                                        new Object[] { objectType, systemIdentifier.getName(), e });
+                            } catch (RuntimeException e) {
+                                logger.debug("Live synchronization of {} on {} also failed processing a delta",
+                                        new Object[] { objectType, systemIdentifier.getName(), e });
+                            }
+                        }
+                        token = deltaHandler.lastToken;
                         logger.debug("Synchronization is finished. New LatestSyncToken value: {}", token);
                     }
                 }
@@ -0,0 +1,346 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.provisioner.openicf.impl;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Processes the decoded deltas of a live synchronization run on a bounded set of worker lanes.
+ * <p>
+ * Deltas are partitioned by object id, so the deltas of one object are processed in order by the
+ * same lane, while deltas of different objects are processed in parallel. Each lane has a bounded
+ * queue; submitting to a full lane blocks the connector callback thread. The lanes run on an executor
+ * shared by the live synchronization runs of the system, so no thread is started per run.
+ * <p>
+ * Every delta gets a sequence number, and the sync token only advances past the highest contiguous
+ * completed delta. Failures are passed to the failure handler in sequence order, once every earlier
+ * delta completed, so a failure handler sees the same failures as with sequential processing. If the
+ * failure handler requests a retry, processing stops and the token stays before the failed delta; deltas
+ * after it that already completed are delivered again on the retry.
+ *
+ * @param <T> the type of the decoded deltas
+ */
+class SyncDeltaPipeline<T> {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncDeltaPipeline.class);
+
+    /**
+     * Processes the decoded deltas.
+     *
+     * @param <T> the type of the decoded deltas
+     */
+    interface DeltaProcessor<T> {
+        /**
+         * Processes a delta on a worker lane.
+         *
+         * @param delta the decoded delta
+         * @throws Exception if the processing failed
+         */
+        void process(T delta) throws Exception;
+
+        /**
+         * Handles the failure of a delta; invoked one at a time in delta order.
+         *
+         * @param delta the decoded delta
+         * @param failure the processing failure
+         * @return true if the failure was handled and processing should continue, false to stop for a retry
+         */
+        boolean handleFailure(T delta, Exception failure);
+    }
+
+    /** How long to wait for room in a full lane before checking whether processing stopped */
+    private static final long SUBMIT_POLL_MILLIS = 100;
+
+    /** Queue entry telling a lane to stop */
+    private static final Entry<Object> END = new Entry<Object>(-1, null, null);
+
+    private final DeltaProcessor<T> processor;
+    private final List<Lane> lanes;
+    private final CountDownLatch lanesDone;
+
+    /* Guarded by this */
+    private final Map<Long, SyncToken> completed = new HashMap<Long, SyncToken>();
+    private final Map<Long, Entry<T>> failed = new HashMap<Long, Entry<T>>();
+    private long nextSequence = 0;
+    private long nextContiguous = 0;
+    private SyncToken lastToken = null;
+    private volatile boolean stopped = false;
+    private volatile RuntimeException error = null;
+    private boolean finished = false;
+
+    /**
+     * Constructs the pipeline and starts its worker lanes on the executor. The lanes of a pipeline run
+     * until {@link #finish()}; if the executor has fewer threads than lanes, lanes wait for the lanes of
+     * other pipelines to finish.
+     *
+     * @param processor the delta processor
+     * @param executor the executor to run the worker lanes on
+     * @param workers the number of worker lanes
+     * @param queueSize the number of deltas each lane queues
+     * @throws RejectedExecutionException if the executor does not accept the lanes, such as once shut down
+     */
+    SyncDeltaPipeline(DeltaProcessor<T> processor, Executor executor, int workers, int queueSize) {
+        this.processor = processor;
+        lanes = new ArrayList<Lane>(workers);
+        lanesDone = new CountDownLatch(workers);
+        for (int i = 0; i < workers; i++) {
+            lanes.add(new Lane(queueSize, i));
+        }
+        for (int i = 0; i < workers; i++) {
+            try {
+                executor.execute(lanes.get(i));
+            } catch (RejectedExecutionException e) {
+                // Stop the lanes already started
+                abort();
+                for (int started = 0; started < i; started++) {
+                    lanes.get(started).queue.clear();
+                    lanes.get(started).queue.offer(end());
+                }
+                throw e;
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> Entry<T> end() {
+        return (Entry<T>) (Entry<?>) END;
+    }
+
+    /**
+     * Submits a decoded delta to the lane of its object; called on the connector callback thread.
+     *
+     * @param objectId the id of the object the delta is for
+     * @param token the sync token of the delta
+     * @param delta the decoded delta
+     * @return true to continue receiving deltas, false if processing stopped for a retry
+     */
+    boolean submit(String objectId, SyncToken token, T delta) {
+        if (stopped) {
+            return false;
+        }
+        Entry<T> entry = new Entry<T>(nextSequence++, token, delta);
+        BlockingQueue<Entry<T>> queue = lanes.get((objectId.hashCode() & Integer.MAX_VALUE) % lanes.size()).queue;
+        try {
+            while (!queue.offer(entry, SUBMIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    return false;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            abort();
+            return false;
+        }
+        return !stopped;
+    }
+
+    /**
+     * Waits for the submitted deltas to be processed and stops the worker lanes. Deltas submitted
+     * after a stop for a retry are skipped.
+     *
+     * @throws InterruptedException if interrupted while waiting
+     */
+    void finish() throws InterruptedException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        for (Lane lane : lanes) {
+            while (!lane.queue.offer(SyncDeltaPipeline.<T>end(), SUBMIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+                if (stopped) {
+                    // The remaining deltas are skipped, and the lane may have ended already
+                    lane.queue.clear();
+                }
+            }
+        }
+        while (!lanesDone.await(SUBMIT_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            if (stopped) {
+                // Lanes the executor never ran, such as once shut down, will not count down themselves
+                for (Lane lane : lanes) {
+                    if (lane.claimed.compareAndSet(false, true)) {
+                        lanesDone.countDown();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @return true if {@link #finish()} was called
+     */
+    boolean isFinished() {
+        return finished;
+    }
+
+    /**
+     * Stops processing without waiting, skipping the deltas not yet processed.
+     */
+    synchronized void abort() {
+        stopped = true;
+        notifyAll();
+    }
+
+    /**
+     * @return true if processing stopped before all deltas were processed
+     */
+    boolean isStopped() {
+        return stopped;
+    }
+
+    /**
+     * @return the unexpected exception that stopped processing, or null
+     */
+    RuntimeException getError() {
+        return error;
+    }
+
+    /**
+     * @return the token of the highest contiguous completed delta, or null if no delta completed
+     */
+    synchronized SyncToken getLastToken() {
+        return lastToken;
+    }
+
+    private synchronized void complete(Entry<T> entry) {
+        completed.put(entry.sequence, entry.token);
+        advance();
+    }
+
+    /**
+     * Records a failure and waits until it is handled in order.
+     *
+     * @return true if the failure was handled, false if processing stopped
+     */
+    private synchronized boolean fail(Entry<T> entry) throws InterruptedException {
+        failed.put(entry.sequence, entry);
+        advance();
+        while (!stopped && nextContiguous <= entry.sequence) {
+            wait();
+        }
+        return nextContiguous > entry.sequence;
+    }
+
+    /**
+     * Advances the contiguous completion, handling the failure at the front if any.
+     */
+    private void advance() {
+        while (!stopped) {
+            if (completed.containsKey(nextContiguous)) {
+                lastToken = completed.remove(nextContiguous++);
+            } else if (failed.containsKey(nextContiguous)) {
+                Entry<T> entry = failed.remove(nextContiguous);
+                if (processor.handleFailure(entry.delta, entry.failure)) {
+                    lastToken = entry.token;
+                    nextContiguous++;
+                } else {
+                    stopped = true;
+                }
+            } else {
+                break;
+            }
+        }
+        notifyAll();
+    }
+
+    private static final class Entry<T> {
+        final long sequence;
+        final SyncToken token;
+        final T delta;
+        Exception failure;
+
+        Entry(long sequence, SyncToken token, T delta) {
+            this.sequence = sequence;
+            this.token = token;
+            this.delta = delta;
+        }
+    }
+
+    private final class Lane implements Runnable {
+        final BlockingQueue<Entry<T>> queue;
+        final int index;
+        /** Set by whichever comes first: the lane running, or the pipeline giving up on a lane never run */
+        final AtomicBoolean claimed = new AtomicBoolean(false);
+
+        Lane(int queueSize, int index) {
+            this.index = index;
+            queue = new ArrayBlockingQueue<Entry<T>>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            if (!claimed.compareAndSet(false, true)) {
+                return;
+            }
+            try {
+                drain();
+            } finally {
+                lanesDone.countDown();
+            }
+        }
+
+        private void drain() {
+            // Keep draining the queue until the end, even once stopped, so submitting never blocks for good
+            Entry<T> entry;
+            while ((entry = take()) != END) {
+                if (stopped) {
+                    continue;
+                }
+                try {
+                    try {
+                        processor.process(entry.delta);
+                    } catch (Exception e) {
+                        entry.failure = e;
+                    }
+                    if (entry.failure == null) {
+                        complete(entry);
+                    } else if (!fail(entry)) {
+                        logger.debug("Live synchronization stopped on lane {}", index);
+                    }
+                } catch (InterruptedException e) {
+                    abort();
+                } catch (RuntimeException e) {
+                    // Thrown by the failure handler; stops processing like it would stop sequential processing
+                    error = e;
+                    abort();
+                }
+            }
+        }
+
+        private Entry<T> take() {
+            try {
+                return queue.take();
+            } catch (InterruptedException e) {
+                // The executor is shutting down
+                abort();
+                return end();
+            }
+        }
+    }
+}
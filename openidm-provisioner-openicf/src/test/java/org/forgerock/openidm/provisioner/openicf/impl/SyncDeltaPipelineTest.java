@@ -0,0 +1,161 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.provisioner.openicf.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.identityconnectors.framework.common.objects.SyncToken;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the parallel processing of live sync deltas.
+ */
+public class SyncDeltaPipelineTest {
+
+    /** Shared by the pipelines of all tests, as by the live sync runs of a system */
+    private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+    @AfterClass
+    public void tearDown() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Records the processing order per object, failing the deltas in {@code failing}.
+     */
+    private static class RecordingProcessor implements SyncDeltaPipeline.DeltaProcessor<String[]> {
+        final Map<String, List<Integer>> processed = Collections.synchronizedMap(new HashMap<String, List<Integer>>());
+        final List<Integer> failures = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> failing = new ArrayList<Integer>();
+        boolean retryOnFailure = false;
+
+        @Override
+        public void process(String[] delta) throws Exception {
+            int token = Integer.parseInt(delta[1]);
+            if (failing.contains(token)) {
+                throw new Exception("failed " + token);
+            }
+            // Give the other lanes a chance to overtake
+            Thread.sleep(token % 3);
+            synchronized (processed) {
+                List<Integer> tokens = processed.get(delta[0]);
+                if (tokens == null) {
+                    tokens = new ArrayList<Integer>();
+                    processed.put(delta[0], tokens);
+                }
+                tokens.add(token);
+            }
+        }
+
+        @Override
+        public boolean handleFailure(String[] delta, Exception failure) {
+            failures.add(Integer.parseInt(delta[1]));
+            return !retryOnFailure;
+        }
+    }
+
+    @Test
+    public void testOrderPerObjectAndLastToken() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor();
+        SyncDeltaPipeline<String[]> pipeline = new SyncDeltaPipeline<String[]>(processor, executor, 4, 2);
+        for (int i = 0; i < 100; i++) {
+            assertThat(submit(pipeline, "object" + (i % 7), i)).isTrue();
+        }
+        pipeline.finish();
+
+        for (int object = 0; object < 7; object++) {
+            List<Integer> tokens = processor.processed.get("object" + object);
+            for (int i = 1; i < tokens.size(); i++) {
+                assertThat(tokens.get(i)).isGreaterThan(tokens.get(i - 1));
+            }
+        }
+        assertThat(pipeline.isStopped()).isFalse();
+        assertThat(pipeline.getLastToken().getValue()).isEqualTo(99);
+    }
+
+    @Test
+    public void testHandledFailureAdvancesToken() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.failing.add(5);
+        SyncDeltaPipeline<String[]> pipeline = new SyncDeltaPipeline<String[]>(processor, executor, 3, 10);
+        for (int i = 0; i < 20; i++) {
+            submit(pipeline, "object" + i, i);
+        }
+        pipeline.finish();
+
+        assertThat(processor.failures).containsExactly(5);
+        assertThat(pipeline.getLastToken().getValue()).isEqualTo(19);
+    }
+
+    @Test
+    public void testRetryStopsBeforeFailedDelta() throws Exception {
+        RecordingProcessor processor = new RecordingProcessor();
+        processor.failing.add(5);
+        processor.failing.add(8);
+        processor.retryOnFailure = true;
+        SyncDeltaPipeline<String[]> pipeline = new SyncDeltaPipeline<String[]>(processor, executor, 3, 10);
+        for (int i = 0; i < 20 && submit(pipeline, "object" + i, i); i++) {
+            // submit until stopped
+        }
+        pipeline.finish();
+
+        // Only the first failure in delta order reaches the failure handler
+        assertThat(processor.failures).containsExactly(5);
+        assertThat(pipeline.isStopped()).isTrue();
+        assertThat(pipeline.getLastToken().getValue()).isEqualTo(4);
+    }
+
+    @Test
+    public void testLanesReuseExecutorThreads() throws Exception {
+        for (int run = 0; run < 3; run++) {
+            RecordingProcessor processor = new RecordingProcessor();
+            SyncDeltaPipeline<String[]> pipeline = new SyncDeltaPipeline<String[]>(processor, executor, 4, 2);
+            for (int i = 0; i < 10; i++) {
+                submit(pipeline, "object" + i, i);
+            }
+            pipeline.finish();
+            assertThat(pipeline.getLastToken().getValue()).isEqualTo(9);
+        }
+        assertThat(((java.util.concurrent.ThreadPoolExecutor) executor).getLargestPoolSize()).isEqualTo(4);
+    }
+
+    @Test
+    public void testFinishAfterExecutorShutdown() throws Exception {
+        ExecutorService shutdown = Executors.newFixedThreadPool(2);
+        RecordingProcessor processor = new RecordingProcessor();
+        SyncDeltaPipeline<String[]> pipeline = new SyncDeltaPipeline<String[]>(processor, shutdown, 2, 1);
+        shutdown.shutdownNow();
+        for (int i = 0; i < 10 && submit(pipeline, "object" + i, i); i++) {
+            // submit until stopped
+        }
+        pipeline.finish();
+
+        assertThat(pipeline.isStopped()).isTrue();
+    }
+
+    private static boolean submit(SyncDeltaPipeline<String[]> pipeline, String objectId, int token) {
+        return pipeline.submit(objectId, new SyncToken(token), new String[] { objectId, String.valueOf(token) });
+    }
+}
@@ -32,13 +32,13 @@ import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
-import java.util.NoSuchElementException;
 import java.util.Set;
-import java.util.TreeSet;
+import java.util.concurrent.ConcurrentSkipListSet;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.forgerock.openidm.router.IDMConnectionFactory;
 import org.forgerock.services.context.Context;
+import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.JsonValueException;
 import org.forgerock.json.resource.ConnectionFactory;
@@ -46,14 +46,19 @@ import org.forgerock.json.resource.CreateRequest;
 import org.forgerock.json.resource.DeleteRequest;
 import org.forgerock.json.resource.NotFoundException;
 import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
 import org.forgerock.json.resource.Requests;
 import org.forgerock.json.resource.ResourceException;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.SortKey;
 import org.forgerock.json.resource.UpdateRequest;
 import org.forgerock.openidm.cluster.ClusterEvent;
 import org.forgerock.openidm.cluster.ClusterEventListener;
 import org.forgerock.openidm.cluster.ClusterManagementService;
 import org.forgerock.openidm.core.IdentityServer;
 import org.forgerock.openidm.util.ContextUtil;
+import org.forgerock.util.query.QueryFilter;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
@@ -75,6 +80,12 @@ import org.slf4j.LoggerFactory;
 
 /**
  * A JobStore implementation used for persistence with the OpenIdm Repository Service.
+ * <p>
+ * Waiting and acquired triggers are kept as one repository object per trigger, under
+ * {@code /repo/scheduler/waitingTriggers} and {@code /repo/scheduler/acquiredTriggers}, rather than in one
+ * shared list, so that nodes do not contend on a single object. A node acquires triggers by querying a
+ * batch of due waiting triggers ordered by next fire time and claiming each one by deleting it with its
+ * revision; a trigger claimed by another node in the meantime fails the revision check and is skipped.
  */
 public class RepoJobStore implements JobStore, ClusterEventListener {
 
@@ -132,6 +143,25 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
      */
     private List<String> blockedJobs = new ArrayList<String>();
 
+    /**
+     * The maximum number of due triggers claimed at once (defaults to 10).
+     */
+    private int acquireBatchSize = 10;
+
+    /**
+     * Triggers claimed by this instance and not yet handed to the scheduler, ordered by next fire time.
+     * The buffered triggers are evicted when they are paused, resumed, rescheduled or their calendar changes
+     * on this instance; triggerFired re-checks the stored trigger for the changes made by other instances.
+     */
+    private final ConcurrentSkipListSet<Trigger> claimedTriggers =
+            new ConcurrentSkipListSet<Trigger>(new TriggerComparator());
+
+    /**
+     * Set when a trigger due before the last buffered trigger is added to the waiting triggers, so that the
+     * next acquisition claims it rather than handing out the buffered triggers first.
+     */
+    private volatile boolean earlierTriggerWaiting = false;
+
     /**
      * An AtomicLong used for creating record IDs
      */
@@ -166,6 +196,9 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         this.loadHelper = loadHelper;
         // Set the number of retries for failed writes to the repository
         this.writeRetries = Integer.parseInt(IdentityServer.getInstance().getProperty("openidm.scheduler.repo.retry", "-1"));
+        // Set the number of due triggers to claim at once
+        this.acquireBatchSize = Integer.parseInt(
+                IdentityServer.getInstance().getProperty("openidm.scheduler.acquire.batchsize", "10"));
         cleanUpInstance();
     }
 
@@ -220,6 +253,24 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         return connectionFactory;
     }
 
+    /**
+     * Sets the connection factory to the repository, rather than looking up the router service.
+     *
+     * @param connectionFactory the connection factory
+     */
+    void setConnectionFactory(ConnectionFactory connectionFactory) {
+        this.connectionFactory = connectionFactory;
+    }
+
+    /**
+     * Sets the cluster management service, rather than looking up the service.
+     *
+     * @param clusterManager the cluster management service
+     */
+    void setClusterManager(ClusterManagementService clusterManager) {
+        this.clusterManager = clusterManager;
+    }
+
     @Override
     public void schedulerStarted() throws SchedulerException {
         logger.debug("Job Scheduler Started");
@@ -352,7 +403,7 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     }
 
     /**
-     * Gets the Waiting Triggers repository ID.
+     * Gets the Waiting Triggers repository collection ID.
      *
      * @return  the repository ID
      */
@@ -362,7 +413,19 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     }
 
     /**
-     * Gets the Acquired Triggers repository ID.
+     * Gets the repository ID of a waiting Trigger.
+     *
+     * @param group the Trigger's group
+     * @param name  the Trigger's name
+     * @return  the repository ID
+     */
+    private String getWaitingTriggerRepoId(String group, String name) {
+        return new StringBuilder(getWaitingTriggersRepoId()).append("/")
+                .append(getTriggerId(group, name)).toString();
+    }
+
+    /**
+     * Gets the Acquired Triggers repository collection ID.
      *
      * @return  the repository ID
      */
@@ -371,6 +434,18 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         return sb.append(getIdPrefix()).append("acquiredTriggers").toString();
     }
 
+    /**
+     * Gets the repository ID of an acquired Trigger.
+     *
+     * @param group the Trigger's group
+     * @param name  the Trigger's name
+     * @return  the repository ID
+     */
+    private String getAcquiredTriggerRepoId(String group, String name) {
+        return new StringBuilder(getAcquiredTriggersRepoId()).append("/")
+                .append(getTriggerId(group, name)).toString();
+    }
+
     /**
      * Gets the Trigger ID.
      *
@@ -412,6 +487,7 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
      */
     @Override
     public void shutdown() {
+        releaseClaimedTriggers();
         synchronized(lock) {
             shutdown = true;
             logger.debug("Job Scheduler Stopped");
@@ -457,6 +533,12 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                 }
 
                 if (updateTriggers) {
+                    // The buffered triggers of the calendar would fire at the times of the old calendar
+                    for (Trigger claimed : claimedTriggers) {
+                        if (name.equals(claimed.getCalendarName())) {
+                            evictClaimedTrigger(claimed.getGroup(), claimed.getName());
+                        }
+                    }
                     List<TriggerWrapper> twList = getTriggerWrappersForCalendar(name);
                     for (TriggerWrapper tw : twList) {
                         Trigger t = tw.getTrigger();
@@ -565,6 +647,8 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
             try {
                 // Check if trigger name exists
                 if (triggerNames.contains(triggerName)) {
+                    // A buffered trigger would fire at its old fire time
+                    evictClaimedTrigger(groupName, triggerName);
                     TriggerWrapper oldTw = getTriggerWrapper(groupName, triggerName);
                     // Update trigger
                     logger.debug("Updating Trigger {}", triggerId);
@@ -595,97 +679,228 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     @Override
     public Trigger acquireNextTrigger(SchedulingContext context, long noLaterThan)
             throws JobPersistenceException {
-        synchronized (lock) {
-            logger.debug("Attempting to acquire the next trigger");
-            Trigger trigger = null;
-            WaitingTriggers waitingTriggers = null;
-            while (trigger == null && !shutdown) {
-                try {
-                    waitingTriggers = getWaitingTriggers();
-                    trigger = waitingTriggers.getTriggers().first();
-                } catch (NoSuchElementException e1) {
-                    logger.debug("No waiting triggers to acquire");
-                    return null;
-                }
-
-                if (trigger == null) {
-                    logger.debug("No waiting triggers to acquire");
-                    return null;
-                }
-
-
-                Date nextFireTime = trigger.getNextFireTime();
-                if (nextFireTime == null) {
-                    logger.debug("Trigger next fire time = null, removing");
-                    removeWaitingTrigger(trigger);
-                    trigger = null;
-                    continue;
-                }
-
-                if (noLaterThan > 0) {
-                    if (nextFireTime.getTime() > noLaterThan) {
-                        logger.debug("Trigger fire time {} is later than {}, not acquiring",  nextFireTime, new Date(noLaterThan));
-                        return null;
-                    }
-                }
-
-                if(!removeWaitingTrigger(trigger)) {
-                    trigger = null;
-                    continue;
-                }
-
-                TriggerWrapper tw = getTriggerWrapper(trigger.getGroup(), trigger.getName());
+        // Acquisition relies on the revision checks of the claims rather than on the lock
+        logger.debug("Attempting to acquire the next trigger");
+        if (claimedTriggers.isEmpty() || earlierTriggerWaiting) {
+            earlierTriggerWaiting = false;
+            // Claiming in fire time order picks up the triggers due before the buffered ones first
+            claimWaitingTriggers(noLaterThan, Math.max(1, acquireBatchSize - claimedTriggers.size()));
+        }
+        Trigger trigger = claimedTriggers.pollFirst();
+        if (trigger == null) {
+            logger.debug("No waiting triggers to acquire");
+            return null;
+        }
+        if (noLaterThan > 0 && trigger.getNextFireTime().getTime() > noLaterThan) {
+            logger.debug("Trigger fire time {} is later than {}, not acquiring",
+                    trigger.getNextFireTime(), new Date(noLaterThan));
+            claimedTriggers.add(trigger);
+            return null;
+        }
+        logger.debug("Acquired next trigger {} to be fired at {}", trigger.getName(), trigger.getNextFireTime());
+        return (Trigger) trigger.clone();
+    }
 
-                if (hasTriggerMisfired(trigger)) {
-                    logger.debug("Attempting to process misfired trigger");
-                    processTriggerMisfired(tw);
-                    if (trigger.getNextFireTime() != null) {
-                        addWaitingTrigger(trigger);
-                    }
-                    trigger = null;
+    /**
+     * Claims a batch of the waiting triggers due to fire no later than a given time, and puts them in the
+     * acquired state.
+     * <p>
+     * A waiting trigger is claimed by marking it with the instance ID, a single write conditional on the
+     * revision read, before its acquired trigger is added and it is removed from the waiting triggers. A
+     * trigger is thus always either waiting or acquired by an instance, and the triggers left claimed or
+     * acquired by a failed instance are released when it is recovered.
+     *
+     * @param noLaterThan the latest fire time of the claimed triggers, or 0 for any time
+     * @param batchSize the maximum number of triggers to claim
+     * @throws JobPersistenceException
+     */
+    private void claimWaitingTriggers(long noLaterThan, int batchSize) throws JobPersistenceException {
+        QueryFilter<JsonPointer> filter = noLaterThan > 0
+                ? QueryFilter.lessThanOrEqualTo(new JsonPointer("nextFireTime"), formatFireTime(noLaterThan))
+                : QueryFilter.<JsonPointer>alwaysTrue();
+        List<ResourceResponse> dueTriggers;
+        try {
+            dueTriggers = queryRepo(getWaitingTriggersRepoId(), filter, batchSize);
+        } catch (ResourceException e) {
+            logger.warn("Error querying waiting triggers", e);
+            throw new JobPersistenceException("Error querying waiting triggers", e);
+        }
+        logger.debug("Found {} due waiting triggers", dueTriggers.size());
+        for (ResourceResponse dueTrigger : dueTriggers) {
+            if (shutdown) {
+                return;
+            }
+            JsonValue waiting = dueTrigger.getContent();
+            String triggerId = waiting.get("triggerId").asString();
+            if (waiting.isDefined("instanceId")) {
+                logger.debug("Waiting trigger {} is being claimed by instance {}", triggerId,
+                        waiting.get("instanceId").asString());
+                continue;
+            }
+            String group = getGroupFromId(triggerId);
+            String name = getNameFromId(triggerId);
+            try {
+                Map<String, Object> claim = new HashMap<String, Object>();
+                claim.put("triggerId", triggerId);
+                claim.put("nextFireTime", waiting.get("nextFireTime").getObject());
+                claim.put("priority", waiting.get("priority").getObject());
+                claim.put("instanceId", instanceId);
+                UpdateRequest r = Requests.newUpdateRequest(getWaitingTriggersRepoId(), dueTrigger.getId(),
+                        new JsonValue(claim));
+                r.setRevision(dueTrigger.getRevision());
+                getConnectionFactory().getConnection().update(getContext(), r);
+            } catch (NotFoundException e) {
+                logger.debug("Waiting trigger {} was claimed by another instance", triggerId);
+                continue;
+            } catch (PreconditionFailedException e) {
+                logger.debug("Waiting trigger {} was claimed or changed by another instance", triggerId);
+                continue;
+            } catch (ResourceException e) {
+                logger.warn("Error claiming waiting trigger {}", triggerId, e);
+                throw new JobPersistenceException("Error claiming waiting trigger", e);
+            }
+            String fireInstanceId = getFiredTriggerRecordId();
+            addAcquiredTrigger(group, name, instanceId, fireInstanceId);
+            try {
+                if (!deleteRepoObject(getWaitingTriggerRepoId(group, name), instanceId)) {
+                    // The trigger was paused, rescheduled or released since it was claimed
+                    logger.debug("Claimed waiting trigger {} was removed or replaced", triggerId);
+                    removeAcquiredTrigger(group, name, instanceId, fireInstanceId);
                     continue;
                 }
+            } catch (ResourceException e) {
+                logger.warn("Error removing claimed waiting trigger {}", triggerId, e);
+                removeAcquiredTrigger(group, name, instanceId, fireInstanceId);
+                throw new JobPersistenceException("Error removing claimed waiting trigger", e);
+            }
 
-                tw.setAcquired(true);
-                trigger.setFireInstanceId(getFiredTriggerRecordId());
-                try {
-                    tw.updateTrigger(trigger);
-                } catch (Exception e) {
-                    logger.warn("Error serializing trigger", e);
+            TriggerWrapper tw = getTriggerWrapper(group, name);
+            if (tw == null) {
+                logger.debug("Claimed trigger {} no longer exists", triggerId);
+                removeAcquiredTrigger(group, name, instanceId, null);
+                continue;
+            }
+            Trigger trigger = tw.getTrigger();
+            Date nextFireTime = trigger.getNextFireTime();
+            if (nextFireTime == null) {
+                logger.debug("Trigger next fire time = null, removing");
+                removeAcquiredTrigger(group, name, instanceId, null);
+                continue;
+            }
+            if (tw.isPaused() || tw.getState() == Trigger.STATE_COMPLETE) {
+                logger.debug("Claimed trigger {} is paused or complete, removing", triggerId);
+                removeAcquiredTrigger(group, name, instanceId, null);
+                continue;
+            }
+            if (noLaterThan > 0 && nextFireTime.getTime() > noLaterThan) {
+                // The trigger was rescheduled since it was added to the waiting triggers
+                addWaitingTrigger(trigger);
+                removeAcquiredTrigger(group, name, instanceId, null);
+                continue;
+            }
+            if (hasTriggerMisfired(trigger)) {
+                logger.debug("Attempting to process misfired trigger");
+                processTriggerMisfired(tw);
+                if (trigger.getNextFireTime() != null) {
                     addWaitingTrigger(trigger);
-                    throw new JobPersistenceException("Error serializing trigger", e);
                 }
+                removeAcquiredTrigger(group, name, instanceId, null);
+                continue;
+            }
 
+            tw.setAcquired(true);
+            trigger.setFireInstanceId(fireInstanceId);
+            try {
+                tw.updateTrigger(trigger);
                 updateTriggerInRepo(trigger.getGroup(), trigger.getName(), tw, tw.getRevision());
+            } catch (Exception e) {
+                logger.warn("Error acquiring trigger {}", triggerId, e);
+                addWaitingTrigger(trigger);
+                removeAcquiredTrigger(group, name, instanceId, null);
+                throw new JobPersistenceException("Error acquiring trigger", e);
+            }
+            claimedTriggers.add(trigger);
+        }
+    }
 
-                addAcquiredTrigger(trigger, instanceId);
-
-                logger.debug("Acquired next trigger {} to be fired at {}", trigger.getName(), trigger.getNextFireTime());
-                return (Trigger)trigger.clone();
+    /**
+     * Releases the triggers claimed by this instance that were not handed to the scheduler.
+     */
+    private void releaseClaimedTriggers() {
+        Trigger trigger;
+        while ((trigger = claimedTriggers.pollFirst()) != null) {
+            try {
+                releaseAcquiredTrigger(null, trigger);
+            } catch (JobPersistenceException e) {
+                logger.warn("Error releasing claimed trigger {}", trigger.getFullName(), e);
             }
-            logger.debug("No waiting triggers to acquire");
-            return null;
         }
     }
 
+    /**
+     * Drops a trigger claimed by this instance and not yet handed to the scheduler.
+     *
+     * @param group the Trigger's group
+     * @param name  the Trigger's name
+     */
+    private void removeClaimedTrigger(String group, String name) {
+        Iterator<Trigger> iterator = claimedTriggers.iterator();
+        while (iterator.hasNext()) {
+            Trigger trigger = iterator.next();
+            if (trigger.getGroup().equals(group) && trigger.getName().equals(name)) {
+                iterator.remove();
+            }
+        }
+    }
 
+    /**
+     * Evicts a trigger claimed by this instance and not yet handed to the scheduler, and releases it so that
+     * it is claimed again as it is stored now.
+     *
+     * @param group the Trigger's group
+     * @param name  the Trigger's name
+     * @throws JobPersistenceException
+     */
+    private void evictClaimedTrigger(String group, String name) throws JobPersistenceException {
+        Iterator<Trigger> iterator = claimedTriggers.iterator();
+        while (iterator.hasNext()) {
+            Trigger trigger = iterator.next();
+            if (trigger.getGroup().equals(group) && trigger.getName().equals(name)
+                    && claimedTriggers.remove(trigger)) {
+                logger.debug("Evicting claimed trigger {}", trigger.getFullName());
+                releaseAcquiredTrigger(null, trigger);
+            }
+        }
+    }
 
     @Override
     public void releaseAcquiredTrigger(SchedulingContext arg0, Trigger trigger)
             throws JobPersistenceException {
         synchronized (lock) {
+            // Only release the trigger as this instance acquired it, another instance may have claimed it since
+            String holder = readAcquiredTrigger(trigger.getGroup(), trigger.getName()).get("instanceId").asString();
+            if (holder != null && !holder.equals(instanceId)) {
+                logger.debug("Cannot release acquired trigger {} in group {}, trigger is acquired by instance {}",
+                        new Object[] { trigger.getName(), trigger.getGroup(), holder });
+                return;
+            }
+            removeAcquiredTrigger(trigger.getGroup(), trigger.getName(), instanceId, trigger.getFireInstanceId());
             TriggerWrapper tw = getTriggerWrapper(trigger.getGroup(), trigger.getName());
             if (tw == null) {
                 logger.debug("Cannot release acquired trigger {} in group {}, trigger does not exist", trigger.getName(), trigger.getGroup());
                 return;
             }
-            if (tw.isAcquired()) {
+            Trigger storedTrigger = tw.getTrigger();
+            if (tw.isAcquired() && equal(storedTrigger.getFireInstanceId(), trigger.getFireInstanceId())) {
                 tw.setAcquired(false);
                 updateTriggerInRepo(trigger.getGroup(), trigger.getName(), tw, tw.getRevision());
-                addWaitingTrigger(trigger);
-                removeAcquiredTrigger(trigger, instanceId);
+                // Wait with the trigger as it is stored, it may have been rescheduled
+                if (tw.getState() == Trigger.STATE_NORMAL) {
+                    addWaitingTrigger(storedTrigger);
+                }
             } else {
-                logger.warn("Cannot release acquired trigger {} in group {}, trigger has not been acquired", trigger.getName(), trigger.getGroup());
+                logger.debug("Cannot release acquired trigger {} in group {}, trigger was acquired again since",
+                        trigger.getName(), trigger.getGroup());
             }
         }
     }
@@ -951,6 +1166,7 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     public void pauseTrigger(SchedulingContext context, String triggerName, String triggerGroup)
             throws JobPersistenceException {
         synchronized (lock) {
+            evictClaimedTrigger(triggerGroup, triggerName);
             TriggerWrapper tw = getTriggerWrapper(triggerGroup, triggerName);
             if (tw == null) {
                 logger.warn("Cannot pause trigger {} in group {}, trigger does not exist", triggerName, triggerGroup);
@@ -1104,6 +1320,7 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                 if (tw != null)  {
                     removeWaitingTrigger(tw.getTrigger());
                     removeAcquiredTrigger(tw.getTrigger(), instanceId);
+                    removeClaimedTrigger(groupName, triggerName);
 
                     // Delete trigger
                     rev = tw.getRevision();
@@ -1239,6 +1456,7 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     public void resumeTrigger(SchedulingContext arg0, String triggerName, String triggerGroup)
             throws JobPersistenceException {
         synchronized (lock) {
+            evictClaimedTrigger(triggerGroup, triggerName);
             TriggerWrapper tw = getTriggerWrapper(triggerGroup, triggerName);
             if (tw == null) {
                 logger.warn("Cannot resume trigger {} in group {}, trigger does not exist", triggerName, triggerGroup);
@@ -1415,9 +1633,6 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                 logger.warn("Error setting trigger fired, trigger does not exist");
                 return null;
             }
-            if (!tw.isAcquired()) {
-                logger.warn("Error setting trigger fired, trigger was not in acquired state");
-            }
             Trigger localTrigger;
             try {
                 localTrigger = tw.getTrigger();
@@ -1425,6 +1640,17 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                 logger.warn("Error setting trigger fired", e);
                 throw new JobPersistenceException("Error setting trigger fired", e);
             }
+            // The trigger may have been paused, rescheduled or recovered by another instance since it was acquired
+            JsonValue acquired = readAcquiredTrigger(trigger.getGroup(), trigger.getName());
+            if (!tw.isAcquired() || tw.getState() != Trigger.STATE_NORMAL
+                    || !instanceId.equals(acquired.get("instanceId").asString())
+                    || !equal(acquired.get("fireInstanceId").asString(), trigger.getFireInstanceId())
+                    || !equal(localTrigger.getFireInstanceId(), trigger.getFireInstanceId())
+                    || !equal(localTrigger.getNextFireTime(), trigger.getNextFireTime())) {
+                logger.debug("Not firing trigger {}, it is no longer acquired by this instance as it was acquired",
+                        trigger.getFullName());
+                return null;
+            }
             Calendar triggerCalendar = null;
             if (localTrigger.getCalendarName() != null) {
                 CalendarWrapper cw = getCalendarWrapper(localTrigger.getCalendarName());
@@ -1498,8 +1724,8 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                 tw = new TriggerWrapper(triggerValue.asMap());
             }
 
-            // Remove the acquired trigger (if acquired)
-            removeAcquiredTrigger(trigger, instanceId);
+            // Remove the acquired trigger (if acquired), unless it has been claimed again since it fired
+            removeAcquiredTrigger(trigger.getGroup(), trigger.getName(), instanceId, trigger.getFireInstanceId());
 
             if (jw != null) {
                 JobDetail jd;
@@ -1691,229 +1917,371 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     }
 
     /**
-     * Adds a Trigger to the list of waiting triggers.
+     * Adds a Trigger to the waiting triggers, or updates its next fire time if it is already waiting.
      *
      * @param trigger   the Trigger to add
      * @throws JobPersistenceException
-     * @throws ObjectSetException
      */
     private void addWaitingTrigger(Trigger trigger) throws JobPersistenceException {
-        synchronized (lock) {
-            try {
-                int retries = 0;
-                while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
-                    try {
-                        // update repo
-                        addRepoListName(getTriggerId(trigger.getGroup(), trigger.getName()),
-                                getWaitingTriggersRepoId(), "names");
-                        break;
-                    } catch (PreconditionFailedException e) {
-                        logger.debug("Adding waiting trigger failed {}, retrying", e);
-                        retries++;
-                    }
+        if (trigger.getNextFireTime() == null) {
+            logger.debug("Trigger {} has no next fire time, not adding to waiting triggers", trigger.getName());
+            return;
+        }
+        Iterator<Trigger> lastClaimed = claimedTriggers.descendingIterator();
+        if (lastClaimed.hasNext() && trigger.getNextFireTime().before(lastClaimed.next().getNextFireTime())) {
+            earlierTriggerWaiting = true;
+        }
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("triggerId", getTriggerId(trigger.getGroup(), trigger.getName()));
+        map.put("nextFireTime", formatFireTime(trigger.getNextFireTime().getTime()));
+        map.put("priority", trigger.getPriority());
+        try {
+            int retries = 0;
+            while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
+                try {
+                    putRepoObject(getWaitingTriggerRepoId(trigger.getGroup(), trigger.getName()), map);
+                    break;
+                } catch (PreconditionFailedException e) {
+                    logger.debug("Adding waiting trigger failed {}, retrying", e);
+                    retries++;
                 }
-            } catch (ResourceException e) {
-                throw new JobPersistenceException("Error adding waiting trigger", e);
             }
+        } catch (ResourceException e) {
+            throw new JobPersistenceException("Error adding waiting trigger", e);
         }
     }
 
     /**
-     * Removes a Trigger from the list of waiting triggers.
+     * Removes a Trigger from the waiting triggers.
      *
      * @param trigger   the Trigger to remove
+     * @return  true if the Trigger was removed, false otherwise (the Trigger may not have been waiting)
      * @throws JobPersistenceException
-     * @throws ObjectSetException
      */
     private boolean removeWaitingTrigger(Trigger trigger) throws JobPersistenceException {
-        synchronized (lock) {
-            try {
-                boolean result = false;
-                int retries = 0;
-                while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
-                    try {
-                        result = removeRepoListName(getTriggerId(trigger.getGroup(), trigger.getName()),
-                                getWaitingTriggersRepoId(), "names");
-                        break;
-                    } catch (PreconditionFailedException e) {
-                        logger.debug("Removing waiting trigger failed {}, retrying", e);
-                        retries++;
-                    }
+        try {
+            boolean result = false;
+            int retries = 0;
+            while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
+                try {
+                    result = deleteRepoObject(getWaitingTriggerRepoId(trigger.getGroup(), trigger.getName()), null);
+                    break;
+                } catch (PreconditionFailedException e) {
+                    logger.debug("Removing waiting trigger failed {}, retrying", e);
+                    retries++;
                 }
-                return result;
-            } catch (ResourceException e) {
-                throw new JobPersistenceException("Error removing waiting trigger", e);
             }
+            return result;
+        } catch (ResourceException e) {
+            throw new JobPersistenceException("Error removing waiting trigger", e);
         }
     }
 
     /**
-     * Adds a Trigger to the list of acquired triggers.
+     * Adds a Trigger to the acquired triggers of an instance.
      *
-     * @param trigger    the Trigger to add
-     * @param instanceId the instance ID
+     * @param group          the Trigger's group
+     * @param name           the Trigger's name
+     * @param instanceId     the instance ID
+     * @param fireInstanceId the fire instance ID the Trigger is acquired with
      * @throws JobPersistenceException
-     * @throws ObjectSetException
      */
-    private void addAcquiredTrigger(Trigger trigger, String instanceId) throws JobPersistenceException {
-        synchronized (lock) {
-            try {
-                logger.debug("Adding acquired trigger {} for instance {}", trigger.getName(), instanceId);
-                int retries = 0;
-                while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
-                    try {
-                        addRepoListName(getTriggerId(trigger.getGroup(), trigger.getName()),
-                                getAcquiredTriggersRepoId(), instanceId);
-                        break;
-                    } catch (PreconditionFailedException e) {
-                        logger.debug("Adding acquired trigger failed {}, retrying", e);
-                        retries++;
-                    }
+    private void addAcquiredTrigger(String group, String name, String instanceId, String fireInstanceId)
+            throws JobPersistenceException {
+        logger.debug("Adding acquired trigger {} for instance {}", name, instanceId);
+        Map<String, Object> map = new HashMap<String, Object>();
+        map.put("triggerId", getTriggerId(group, name));
+        map.put("instanceId", instanceId);
+        map.put("fireInstanceId", fireInstanceId);
+        try {
+            int retries = 0;
+            while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
+                try {
+                    putRepoObject(getAcquiredTriggerRepoId(group, name), map);
+                    break;
+                } catch (PreconditionFailedException e) {
+                    logger.debug("Adding acquired trigger failed {}, retrying", e);
+                    retries++;
                 }
-            } catch (ResourceException e) {
-                throw new JobPersistenceException("Error adding waiting trigger", e);
             }
+        } catch (ResourceException e) {
+            throw new JobPersistenceException("Error adding acquired trigger", e);
         }
     }
 
     /**
-     * Removes a Trigger from the list of acquired triggers.
+     * Removes a Trigger from the acquired triggers of an instance.
      *
      * @param trigger    the Trigger to remove
      * @param instanceId the instance ID
+     * @return  true if the Trigger was removed, false otherwise (the Trigger may not have been acquired by
+     *          the instance)
      * @throws JobPersistenceException
-     * @throws ObjectSetException
      */
     private boolean removeAcquiredTrigger(Trigger trigger, String instanceId) throws JobPersistenceException {
-        synchronized (lock) {
-            try {
-                logger.debug("Removing acquired trigger {} for instance {}", trigger.getName(), instanceId);
-                boolean result = false;
-                int retries = 0;
-                while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
-                    try {
-                        result = removeRepoListName(getTriggerId(trigger.getGroup(), trigger.getName()),
-                                getAcquiredTriggersRepoId(), instanceId);
-                        break;
-                    } catch (PreconditionFailedException e) {
-                        logger.debug("Removing acquired trigger failed {}, retrying", e);
-                        retries++;
-                    }
+        return removeAcquiredTrigger(trigger.getGroup(), trigger.getName(), instanceId, null);
+    }
+
+    /**
+     * Removes a Trigger from the acquired triggers of an instance.
+     *
+     * @param group          the Trigger's group
+     * @param name           the Trigger's name
+     * @param instanceId     the instance ID
+     * @param fireInstanceId the fire instance ID the Trigger must be acquired with, or null for any
+     * @return  true if the Trigger was removed, false otherwise (the Trigger may not have been acquired by
+     *          the instance, or acquired again since)
+     * @throws JobPersistenceException
+     */
+    private boolean removeAcquiredTrigger(String group, String name, String instanceId, String fireInstanceId)
+            throws JobPersistenceException {
+        logger.debug("Removing acquired trigger {} for instance {}", name, instanceId);
+        try {
+            boolean result = false;
+            int retries = 0;
+            while (writeRetries == -1 || retries <= writeRetries && !shutdown) {
+                try {
+                    result = deleteRepoObject(getAcquiredTriggerRepoId(group, name), instanceId, fireInstanceId);
+                    break;
+                } catch (PreconditionFailedException e) {
+                    logger.debug("Removing acquired trigger failed {}, retrying", e);
+                    retries++;
                 }
-                return result;
-            } catch (ResourceException e) {
-                throw new JobPersistenceException("Error removing waiting trigger", e);
             }
+            return result;
+        } catch (ResourceException e) {
+            throw new JobPersistenceException("Error removing acquired trigger", e);
         }
     }
 
     /**
-     * Returns the an AcquiredTriggers object which wraps the List of all triggers in the "acquired" state
+     * Returns the an AcquiredTriggers object which wraps the List of all triggers acquired by an instance
      *
      * @param instanceId    the ID of the instance that acquired the triggers
-     * @return  the WaitingTriggers object
+     * @return  the AcquiredTriggers object
      * @throws JobPersistenceException
      */
     private AcquiredTriggers getAcquiredTriggers(String instanceId) throws JobPersistenceException {
         List<Trigger> acquiredTriggers = new ArrayList<Trigger>();
-        List<String> acquiredTriggerIds = new ArrayList<String>();
-        String repoId = getAcquiredTriggersRepoId();
-        String revision = null;
-        Map<String, Object> map;
         try {
-            try {
-                map = getConnectionFactory().getConnection().read(getContext(), Requests.newReadRequest(repoId)).getContent().asMap();
-            } catch (NotFoundException e) {
-                logger.trace("repo list {} not found, lets create it", "names");
-                map = null;
-            }
-            if (map == null) {
-                map = new HashMap<String, Object>();
-                map.put(instanceId, acquiredTriggerIds);
-                // create in repo
-                map = getConnectionFactory().getConnection().create(getContext(), getCreateRequest(repoId, map)).getContent().asMap();
-                revision = (String)map.get("_rev");
-            } else {
-                // else check if list exists in map
-                acquiredTriggerIds = (List<String>) map.get(instanceId);
-                revision = (String)map.get("_rev");
-                if (acquiredTriggerIds == null) {
-                    acquiredTriggerIds = new ArrayList<String>();
-                    map.put(instanceId, acquiredTriggerIds);
-                    UpdateRequest r = Requests.newUpdateRequest(repoId, new JsonValue(map));
-                    r.setRevision(revision);
-                    JsonValue updatedValue = getConnectionFactory().getConnection().update(getContext(), r).getContent();;
-                    revision = (String) updatedValue.asMap().get("_rev");
-                }
-            }
-            for (String id : acquiredTriggerIds) {
+            List<ResourceResponse> responses = queryRepo(getAcquiredTriggersRepoId(),
+                    QueryFilter.equalTo(new JsonPointer("instanceId"), instanceId), 0);
+            for (ResourceResponse response : responses) {
+                String id = response.getContent().get("triggerId").asString();
                 TriggerWrapper tw = getTriggerWrapper(getGroupFromId(id), getNameFromId(id));
                 if (tw == null) {
-                    logger.warn("Could not add {} to list of waiting Triggers. Trigger not found in repo", id);
+                    logger.warn("Could not add {} to list of acquired Triggers. Trigger not found in repo", id);
                 } else {
                     logger.trace("Found acquired trigger {} in group {}", tw.getName(),tw.getGroup());
                     acquiredTriggers.add(tw.getTrigger());
                 }
             }
-            return new AcquiredTriggers(acquiredTriggers, revision);
+            return new AcquiredTriggers(acquiredTriggers, null);
         } catch (ResourceException e) {
-            logger.warn("Error initializing waiting triggers", e);
-            throw new JobPersistenceException("Error initializing waiting triggers", e);
+            logger.warn("Error reading acquired triggers", e);
+            throw new JobPersistenceException("Error reading acquired triggers", e);
         }
     }
 
     /**
-     * Returns the a WaitingTriggers object which wraps the Tree of all triggers in the "waiting" state
+     * Reads the acquired trigger of a Trigger, holding the ID of the instance which acquired the Trigger and
+     * the fire instance ID it was acquired with.
      *
-     * @return  the WaitingTriggers object
+     * @param group the Trigger's group
+     * @param name  the Trigger's name
+     * @return  the acquired trigger, or a null value if the Trigger is not acquired
      * @throws JobPersistenceException
      */
-    private WaitingTriggers getWaitingTriggers() throws JobPersistenceException {
-        TreeSet<Trigger> waitingTriggers = new TreeSet(new TriggerComparator());
-        List<String> waitingTriggersRepoList = null;
-        String repoId = getWaitingTriggersRepoId();
-        String revision = null;
-        Map<String, Object> map;
+    private JsonValue readAcquiredTrigger(String group, String name) throws JobPersistenceException {
         try {
-            try {
-                map = getConnectionFactory().getConnection().read(getContext(), Requests.newReadRequest(repoId)).getContent().asMap();
-            } catch (NotFoundException e) {
-                logger.debug("repo list {} not found, lets create it", "names");
-                map = null;
+            return readFromRepo(getAcquiredTriggerRepoId(group, name));
+        } catch (ResourceException e) {
+            logger.warn("Error reading acquired trigger", e);
+            throw new JobPersistenceException("Error reading acquired trigger", e);
+        }
+    }
+
+    /**
+     * Returns the IDs of all triggers acquired by any instance.
+     *
+     * @return  the Trigger IDs
+     * @throws JobPersistenceException
+     */
+    private Set<String> getAcquiredTriggerIds() throws JobPersistenceException {
+        Set<String> acquiredTriggerIds = new HashSet<String>();
+        try {
+            for (ResourceResponse response
+                    : queryRepo(getAcquiredTriggersRepoId(), QueryFilter.<JsonPointer>alwaysTrue(), 0)) {
+                acquiredTriggerIds.add(response.getContent().get("triggerId").asString());
             }
-            if (map == null) {
-                map = new HashMap<String, Object>();
-                waitingTriggersRepoList = new ArrayList<String>();
-                map.put("names", waitingTriggersRepoList);
-                // create in repo
-                map = getConnectionFactory().getConnection().create(getContext(), getCreateRequest(repoId, map)).getContent().asMap();
-                revision = (String)map.get("_rev");
-            } else {
-                // else check if list exists in map
-                waitingTriggersRepoList = (List<String>) map.get("names");
-                revision = (String)map.get("_rev");
-                if (waitingTriggersRepoList == null) {
-                    waitingTriggersRepoList = new ArrayList<String>();
-                    map.put("names", waitingTriggersRepoList);
-                    UpdateRequest r = Requests.newUpdateRequest(repoId, new JsonValue(map));
-                    r.setRevision(revision);
-                    JsonValue updatedValue = getConnectionFactory().getConnection().update(getContext(), r).getContent();
-                    revision = (String) updatedValue.asMap().get("_rev");
+            return acquiredTriggerIds;
+        } catch (ResourceException e) {
+            logger.warn("Error reading acquired triggers", e);
+            throw new JobPersistenceException("Error reading acquired triggers", e);
+        }
+    }
+
+    /**
+     * Releases the claims an instance holds on waiting triggers, left over if the instance failed while it
+     * was claiming them.
+     *
+     * @param instanceId    the ID of the instance that claimed the triggers
+     * @throws JobPersistenceException
+     */
+    private void releaseWaitingTriggerClaims(String instanceId) throws JobPersistenceException {
+        try {
+            for (ResourceResponse response : queryRepo(getWaitingTriggersRepoId(),
+                    QueryFilter.equalTo(new JsonPointer("instanceId"), instanceId), 0)) {
+                JsonValue claim = response.getContent();
+                Map<String, Object> map = new HashMap<String, Object>();
+                map.put("triggerId", claim.get("triggerId").getObject());
+                map.put("nextFireTime", claim.get("nextFireTime").getObject());
+                map.put("priority", claim.get("priority").getObject());
+                UpdateRequest r = Requests.newUpdateRequest(getWaitingTriggersRepoId(), response.getId(),
+                        new JsonValue(map));
+                r.setRevision(response.getRevision());
+                try {
+                    getConnectionFactory().getConnection().update(getContext(), r);
+                    logger.info("Released claim on waiting trigger {} of instance {}",
+                            claim.get("triggerId").asString(), instanceId);
+                } catch (NotFoundException e) {
+                    logger.debug("Claimed waiting trigger {} was removed", claim.get("triggerId").asString());
+                } catch (PreconditionFailedException e) {
+                    logger.debug("Claimed waiting trigger {} was changed", claim.get("triggerId").asString());
                 }
             }
-            for (String id : waitingTriggersRepoList) {
-                TriggerWrapper tw = getTriggerWrapper(getGroupFromId(id), getNameFromId(id));
-                if (tw == null) {
-                    logger.warn("Could not add {} to list of waiting Triggers. Trigger not found in repo", id);
-                } else {
-                    logger.debug("Found waiting trigger {} in group {}", tw.getName(),tw.getGroup());
-                    waitingTriggers.add(tw.getTrigger());
-                }
+        } catch (ResourceException e) {
+            logger.warn("Error releasing claimed waiting triggers", e);
+            throw new JobPersistenceException("Error releasing claimed waiting triggers", e);
+        }
+    }
+
+    /**
+     * Returns the IDs of all triggers in the "waiting" state
+     *
+     * @return  the Trigger IDs
+     * @throws JobPersistenceException
+     */
+    private Set<String> getWaitingTriggerIds() throws JobPersistenceException {
+        Set<String> waitingTriggerIds = new HashSet<String>();
+        try {
+            for (ResourceResponse response
+                    : queryRepo(getWaitingTriggersRepoId(), QueryFilter.<JsonPointer>alwaysTrue(), 0)) {
+                waitingTriggerIds.add(response.getContent().get("triggerId").asString());
             }
-            return new WaitingTriggers(waitingTriggers, revision);
+            return waitingTriggerIds;
         } catch (ResourceException e) {
-            logger.warn("Error initializing waiting triggers", e);
-            throw new JobPersistenceException("Error initializing waiting triggers", e);
+            logger.warn("Error reading waiting triggers", e);
+            throw new JobPersistenceException("Error reading waiting triggers", e);
+        }
+    }
+
+    /**
+     * Formats a fire time so that fire times sort in the same order as strings as they do as numbers,
+     * whichever way the repository stores the property.
+     *
+     * @param time  the fire time in milliseconds
+     * @return  the fire time zero-padded to 19 digits
+     */
+    static String formatFireTime(long time) {
+        return String.format("%019d", Math.max(0, time));
+    }
+
+    /**
+     * Queries a repository collection, ordered by next fire time.
+     *
+     * @param collection    the repository collection ID
+     * @param filter        the query filter
+     * @param pageSize      the maximum number of results, or 0 for all results
+     * @return  the matching objects
+     * @throws JobPersistenceException
+     * @throws ResourceException
+     */
+    private List<ResourceResponse> queryRepo(String collection, QueryFilter<JsonPointer> filter, int pageSize)
+            throws JobPersistenceException, ResourceException {
+        final List<ResourceResponse> results = new ArrayList<ResourceResponse>();
+        QueryRequest request = Requests.newQueryRequest(collection);
+        request.setQueryFilter(filter);
+        request.addSortKey(SortKey.ascendingOrder("nextFireTime"));
+        if (pageSize > 0) {
+            request.setPageSize(pageSize);
+        }
+        try {
+            getConnectionFactory().getConnection().query(getContext(), request, new QueryResourceHandler() {
+                @Override
+                public boolean handleResource(ResourceResponse resource) {
+                    results.add(resource);
+                    return true;
+                }
+            });
+        } catch (NotFoundException e) {
+            logger.trace("repo collection {} not found", collection);
+        }
+        return results;
+    }
+
+    /**
+     * Creates or replaces an object in the repo.
+     *
+     * @param repoId    the repo id
+     * @param map       the object content
+     * @throws JobPersistenceException
+     * @throws ResourceException
+     */
+    private void putRepoObject(String repoId, Map<String, Object> map)
+            throws JobPersistenceException, ResourceException {
+        JsonValue existing = readFromRepo(repoId);
+        if (existing.isNull()) {
+            getConnectionFactory().getConnection().create(getContext(), getCreateRequest(repoId, map));
+        } else {
+            UpdateRequest r = Requests.newUpdateRequest(repoId, new JsonValue(map));
+            r.setRevision(existing.get("_rev").asString());
+            getConnectionFactory().getConnection().update(getContext(), r);
+        }
+    }
+
+    /**
+     * Deletes an object from the repo.
+     *
+     * @param repoId        the repo id
+     * @param instanceId    the instance ID the object must hold, or null to delete it whichever instance it holds
+     * @return  true if the object was deleted, false if it did not exist or held another instance ID
+     * @throws JobPersistenceException
+     * @throws ResourceException
+     */
+    private boolean deleteRepoObject(String repoId, String instanceId)
+            throws JobPersistenceException, ResourceException {
+        return deleteRepoObject(repoId, instanceId, null);
+    }
+
+    /**
+     * Deletes an object from the repo.
+     *
+     * @param repoId            the repo id
+     * @param instanceId        the instance ID the object must hold, or null to delete it whichever instance it
+     *                          holds
+     * @param fireInstanceId    the fire instance ID the object must hold, or null to delete it whichever fire
+     *                          instance ID it holds
+     * @return  true if the object was deleted, false if it did not exist or held other IDs
+     * @throws JobPersistenceException
+     * @throws ResourceException
+     */
+    private boolean deleteRepoObject(String repoId, String instanceId, String fireInstanceId)
+            throws JobPersistenceException, ResourceException {
+        JsonValue existing = readFromRepo(repoId);
+        if (existing.isNull()
+                || (instanceId != null && !instanceId.equals(existing.get("instanceId").asString()))
+                || (fireInstanceId != null
+                        && !fireInstanceId.equals(existing.get("fireInstanceId").asString()))) {
+            return false;
+        }
+        DeleteRequest r = Requests.newDeleteRequest(repoId);
+        r.setRevision(existing.get("_rev").asString());
+        try {
+            getConnectionFactory().getConnection().delete(getContext(), r);
+            return true;
+        } catch (NotFoundException e) {
+            return false;
         }
     }
 
@@ -1972,40 +2340,6 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
 
     }
 
-    /**
-     * Removes a name from a list of names in the repo.
-     *
-     * @param name  the name to remove
-     * @param id    the repo id
-     * @return  true if the name was removed, false otherwise (the name may not have been present)
-     * @throws JobPersistenceException
-     * @throws ObjectSetException
-     */
-     private boolean removeRepoListName(String name, String id, String list)
-            throws JobPersistenceException, ResourceException {
-        synchronized (lock) {
-            logger.trace("Removing name: {} from {}", name, id);
-            Map<String, Object> map = getOrCreateRepo(id);
-            String rev = (String)map.get("_rev");
-
-            List<String> names = (List<String>) map.get(list);
-            if (names == null) {
-                names = new ArrayList<String>();
-                map.put(list, names);
-            }
-            boolean result = names.remove(name);
-            if (result) {
-                // update repo
-                UpdateRequest r = Requests.newUpdateRequest(id, new JsonValue(map));
-                r.setRevision(rev);
-                getConnectionFactory().getConnection().update(getContext(), r);
-            }
-            return result;
-        }
-
-    }
-
-
     private Map<String, Object> getOrCreateRepo(String repoId)
             throws JobPersistenceException, ResourceException {
         synchronized (lock) {
@@ -2185,30 +2519,20 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
     }
     
     /**
-     * Cleans up any triggers previously acquired by this instance and processes any misfires.
+     * Cleans up any triggers previously claimed or acquired by this instance and processes any misfires.
+     * <p>
+     * The stored triggers neither waiting nor acquired by any instance are then added to the waiting
+     * triggers. The triggers acquired by other instances are left to them, or to their recovery if they
+     * failed.
      */
     private void cleanUpInstance() {
         synchronized (lock) {
             try {
                 logger.trace("Cleaning up instance");
-                
-                // Get the list of all stored triggers
-                List<Trigger> storedTriggers = new ArrayList<Trigger>();
-                String[] groupNames = getTriggerGroupNames(null);
-                for (String groupName : groupNames) {
-                    String[] triggerNames = getTriggerNames(null, groupName);
-                    for (String triggerName : triggerNames) {
-                        storedTriggers.add(getTriggerWrapper(groupName, triggerName).getTrigger());
-                    }
-                }
 
-                // Ignore triggers which are already present in the waiting list.
-                WaitingTriggers wt = getWaitingTriggers();
-                TreeSet<Trigger> waitingTriggers = wt.getTriggers();
-                for (Trigger t : waitingTriggers) {
-                    storedTriggers.remove(t);
-                }
-                
+                // Release the waiting triggers this instance was claiming
+                releaseWaitingTriggerClaims(instanceId);
+
                 // Process and release any triggers which are acquired
                 AcquiredTriggers at = getAcquiredTriggers(instanceId);
                 List<Trigger> acquiredTriggers = at.getTriggers();
@@ -2216,16 +2540,39 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
                     if (hasTriggerMisfired(t)) {
                         logger.trace("Trigger {} has misfired", t.getName());
                         processTriggerMisfired(getTriggerWrapper(t.getGroup(), t.getName()));
-                        if (t.getNextFireTime() != null) {
-                            // Remove the trigger from the "acquired" triggers list
-                            removeAcquiredTrigger(t, instanceId);
-                        }
+                        // Remove the trigger from the "acquired" triggers, it is added to the waiting ones below
+                        removeAcquiredTrigger(t, instanceId);
                     } else {
-                        releaseAcquiredTrigger(null, t);
+                        // The trigger may have been acquired with another fire instance ID than it was stored with
+                        removeAcquiredTrigger(t, instanceId);
+                        TriggerWrapper tw = getTriggerWrapper(t.getGroup(), t.getName());
+                        if (tw != null && tw.isAcquired()) {
+                            tw.setAcquired(false);
+                            updateTriggerInRepo(t.getGroup(), t.getName(), tw, tw.getRevision());
+                        }
                     }
                 }
-                
-                // Add remaining triggers to the "waiting" triggers tree
+
+                // Get the stored triggers which are neither waiting nor acquired, nor paused or complete
+                Set<String> waitingTriggerIds = getWaitingTriggerIds();
+                Set<String> acquiredTriggerIds = getAcquiredTriggerIds();
+                List<Trigger> storedTriggers = new ArrayList<Trigger>();
+                String[] groupNames = getTriggerGroupNames(null);
+                for (String groupName : groupNames) {
+                    String[] triggerNames = getTriggerNames(null, groupName);
+                    for (String triggerName : triggerNames) {
+                        String triggerId = getTriggerId(groupName, triggerName);
+                        if (waitingTriggerIds.contains(triggerId) || acquiredTriggerIds.contains(triggerId)) {
+                            continue;
+                        }
+                        TriggerWrapper tw = getTriggerWrapper(groupName, triggerName);
+                        if (tw != null && !tw.isPaused() && tw.getState() != Trigger.STATE_COMPLETE) {
+                            storedTriggers.add(tw.getTrigger());
+                        }
+                    }
+                }
+
+                // Add remaining triggers to the "waiting" triggers
                 for (Trigger t : storedTriggers) {
                     logger.trace("Adding trigger {} waitingTriggers", t.getName());
                     addWaitingTrigger(t);
@@ -2236,16 +2583,18 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         }
     }
 
+    private static boolean equal(Object o1, Object o2) {
+        return o1 == null ? o2 == null : o1.equals(o2);
+    }
+
     /**
      * A Comparator used to compare two Triggers
      */
-    protected class TriggerComparator implements Comparator {
+    protected class TriggerComparator implements Comparator<Trigger> {
 
-        public int compare(Object t1, Object t2) {
-            Trigger trigger1 = (Trigger)t1;
-            Trigger trigger2 = (Trigger)t2;
+        public int compare(Trigger trigger1, Trigger trigger2) {
             // First compare by nextFireTime()
-            int result = ((Trigger)t1).compareTo((Trigger)t2);
+            int result = trigger1.compareTo(trigger2);
             if (result == 0) {
                 // If that didn't work, compare by priority
                 result = trigger2.getPriority() - trigger1.getPriority();
@@ -2258,43 +2607,6 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         }
     }
 
-    /**
-     * A wrapper for the tree of waiting triggers
-     */
-    protected class WaitingTriggers {
-
-        private TreeSet<Trigger> triggers;
-        private String revision;
-
-        public WaitingTriggers(TreeSet<Trigger> triggers, String rev) {
-            this.triggers = triggers;
-            revision = rev;
-        }
-
-        public TreeSet<Trigger> getTriggers() {
-            return triggers;
-        }
-
-        public String getRevision() {
-            return revision;
-        }
-
-        public void setRevision(String rev) {
-            revision = rev;
-        }
-
-        public List<String> getTriggerNamesList() {
-            List<String> names = new ArrayList<String>();
-            Iterator<Trigger> iterator = triggers.iterator();
-            while (iterator.hasNext()) {
-                Trigger t = iterator.next();
-                names.add(getTriggerId(t.getGroup(), t.getName()));
-            }
-            return names;
-        }
-
-    }
-
     /**
      * A wrapper for the list of acquired triggers
      */
@@ -2336,6 +2648,9 @@ public class RepoJobStore implements JobStore, ClusterEventListener {
         switch (event.getType()) {
         case RECOVERY_INITIATED:
             try {
+                // Free the waiting triggers the instance was claiming
+                releaseWaitingTriggerClaims(eventInstanceId);
+
                 // Free acquired triggers
                 AcquiredTriggers triggers = getAcquiredTriggers(eventInstanceId);
                 logger.debug("Found {} acquired triggers while recovering instance {}", triggers.getTriggers().size(), eventInstanceId);
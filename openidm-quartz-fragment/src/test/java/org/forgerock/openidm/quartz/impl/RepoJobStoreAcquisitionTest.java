@@ -0,0 +1,182 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.quartz.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.resource.Router.uriTemplate;
+import static org.mockito.Mockito.mock;
+
+import java.util.Date;
+
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.MemoryBackend;
+import org.forgerock.json.resource.Resources;
+import org.forgerock.json.resource.Router;
+import org.forgerock.openidm.cluster.ClusterEvent;
+import org.forgerock.openidm.cluster.ClusterEventType;
+import org.forgerock.openidm.cluster.ClusterManagementService;
+import org.forgerock.openidm.core.IdentityServer;
+import org.forgerock.openidm.core.PropertyAccessor;
+import org.forgerock.services.context.RootContext;
+import org.quartz.JobDetail;
+import org.quartz.SimpleTrigger;
+import org.quartz.Trigger;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests how {@link RepoJobStore} claims, buffers and recovers triggers.
+ */
+public class RepoJobStoreAcquisitionTest {
+
+    private static final String GROUP = "group1";
+    private static final String JOB = "job1";
+
+    private ConnectionFactory connectionFactory;
+    private RepoJobStore store;
+    private long now;
+
+    @BeforeClass
+    public void setUpClass() {
+        try {
+            IdentityServer.initInstance(new PropertyAccessor() {
+                @Override
+                public <T> T getProperty(String key, T defaultValue, Class<T> expected) {
+                    return defaultValue;
+                }
+            });
+        } catch (IllegalStateException e) {
+            // already initialised by another test
+        }
+        RepoJobStore.setContext(new RootContext());
+    }
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        Router router = new Router();
+        router.addRoute(uriTemplate("repo/scheduler"), new MemoryBackend());
+        for (String collection : new String[] { "calendars", "triggers", "triggerGroups", "jobs", "jobGroups",
+                "waitingTriggers", "acquiredTriggers" }) {
+            router.addRoute(uriTemplate("repo/scheduler/" + collection), new MemoryBackend());
+        }
+        connectionFactory = Resources.newInternalConnectionFactory(router);
+        store = newStore("instanceA");
+        now = System.currentTimeMillis();
+        store.storeJob(null, new JobDetail(JOB, GROUP, SimpleJob.class, false, true, false), false);
+    }
+
+    private RepoJobStore newStore(String instanceId) {
+        RepoJobStore jobStore = new RepoJobStore();
+        jobStore.setConnectionFactory(connectionFactory);
+        jobStore.setClusterManager(mock(ClusterManagementService.class));
+        jobStore.setSchedulerSignaler(new SimpleSignaler());
+        jobStore.setInstanceId(instanceId);
+        return jobStore;
+    }
+
+    private Trigger newTrigger(String name, long delay) {
+        SimpleTrigger trigger = new SimpleTrigger(name, GROUP, JOB, GROUP, new Date(now + delay), null, 0, 0);
+        trigger.computeFirstFireTime(null);
+        return trigger;
+    }
+
+    private Trigger acquire(RepoJobStore jobStore) throws Exception {
+        return jobStore.acquireNextTrigger(null, now + 30000);
+    }
+
+    @Test
+    public void testPausedTriggerIsEvictedFromBuffer() throws Exception {
+        store.storeTrigger(null, newTrigger("trigger1", 1000), false);
+        store.storeTrigger(null, newTrigger("trigger2", 2000), false);
+
+        // trigger2 is claimed with trigger1 and buffered
+        assertThat(acquire(store).getName()).isEqualTo("trigger1");
+
+        store.pauseTrigger(null, "trigger2", GROUP);
+        assertThat(acquire(store)).isNull();
+
+        store.resumeTrigger(null, "trigger2", GROUP);
+        assertThat(acquire(store).getName()).isEqualTo("trigger2");
+    }
+
+    @Test
+    public void testTriggerPausedAfterAcquisitionDoesNotFire() throws Exception {
+        store.storeTrigger(null, newTrigger("trigger1", 1000), false);
+
+        Trigger trigger = acquire(store);
+        assertThat(trigger.getName()).isEqualTo("trigger1");
+
+        // another instance pauses the acquired trigger
+        newStore("instanceB").pauseTrigger(null, "trigger1", GROUP);
+
+        assertThat(store.triggerFired(null, trigger)).isNull();
+    }
+
+    @Test
+    public void testRescheduledEarlierTriggerIsAcquiredFirst() throws Exception {
+        store.storeTrigger(null, newTrigger("trigger1", 2000), false);
+        store.storeTrigger(null, newTrigger("trigger2", 3000), false);
+        store.storeTrigger(null, newTrigger("trigger3", 4000), false);
+
+        assertThat(acquire(store).getName()).isEqualTo("trigger1");
+
+        // trigger3 is buffered behind trigger2, move it ahead
+        store.storeTrigger(null, newTrigger("trigger3", 1000), true);
+        assertThat(acquire(store).getName()).isEqualTo("trigger3");
+
+        // a newly scheduled trigger due earlier than the buffered one is handed out first
+        store.storeTrigger(null, newTrigger("trigger4", 1500), false);
+        assertThat(acquire(store).getName()).isEqualTo("trigger4");
+        assertThat(acquire(store).getName()).isEqualTo("trigger2");
+        assertThat(acquire(store)).isNull();
+    }
+
+    @Test
+    public void testRecoveryReleasesTriggersOfFailedInstance() throws Exception {
+        store.storeTrigger(null, newTrigger("trigger1", 1000), false);
+        store.storeTrigger(null, newTrigger("trigger2", 2000), false);
+
+        Trigger trigger = acquire(store);
+        assertThat(trigger.getName()).isEqualTo("trigger1");
+
+        RepoJobStore other = newStore("instanceB");
+        assertThat(acquire(other)).isNull();
+
+        other.handleEvent(new ClusterEvent(ClusterEventType.RECOVERY_INITIATED, "instanceA"));
+        assertThat(acquire(other).getName()).isEqualTo("trigger1");
+        assertThat(acquire(other).getName()).isEqualTo("trigger2");
+
+        // instanceA no longer holds the trigger it acquired
+        assertThat(store.triggerFired(null, trigger)).isNull();
+    }
+
+    @Test
+    public void testCleanUpKeepsTriggersOfOtherInstances() throws Exception {
+        store.storeTrigger(null, newTrigger("trigger1", 1000), false);
+
+        Trigger trigger = acquire(store);
+        assertThat(trigger.getName()).isEqualTo("trigger1");
+
+        // another instance starting up leaves the acquired trigger alone
+        RepoJobStore other = newStore("instanceB");
+        other.initialize(null, new SimpleSignaler());
+        assertThat(acquire(other)).isNull();
+
+        assertThat(store.triggerFired(null, trigger)).isNotNull();
+    }
+}
@@ -85,6 +85,24 @@ public interface TableHandler {
             Map<String, Object> obj, Connection connection)
             throws SQLException, IOException, ResourceException;
 
+    /**
+     * Creates several new objects in the object set, sending the inserts to the database as JDBC statement
+     * batches where the table layout allows it rather than one statement round trip per object.
+     * <p>
+     * This method sets the {@code _id} and {@code _rev} properties of each object as
+     * {@link #create(String, String, String, Map, Connection)} does. The objects are not committed.
+     *
+     * @param type the qualifier of the objects to create
+     * @param objects the contents of the objects to create, keyed by their identifier without the qualifier
+     * @param connection
+     * @throws PreconditionFailedException if an object with the same ID already exists.
+     * @throws InternalServerErrorException if the operation failed because of a (possibly transient) failure
+     * @throws java.io.IOException
+     * @throws java.sql.SQLException
+     */
+    public abstract void createBatch(String type, Map<String, Map<String, Object>> objects, Connection connection)
+            throws SQLException, IOException, ResourceException;
+
     /**
      * Updates the specified object in the object set. 
      * <p>
@@ -157,6 +175,24 @@ public interface TableHandler {
     public List<Map<String, Object>> query(String type, Map<String, Object> params, Connection connection)
                 throws SQLException, ResourceException;
 
+    /**
+     * Performs the query on the specified object and passes each result record to the handler as it is read from
+     * the result set, instead of collecting all records first.
+     *
+     * @param type identifies the object to query.
+     * @param params the parameters of the query to perform.
+     * @param connection
+     * @param handler the handler to receive the result records; reading stops when it returns false.
+     * @throws BadRequestException if the specified params contain invalid arguments, e.g. a query id that is not
+     * configured, a query expression that is invalid, or missing query substitution tokens.
+     * @throws ForbiddenException if access to the object or specified query is forbidden.
+     * @throws InternalServerErrorException if the operation failed because of a (possibly transient) failure
+     * @throws java.sql.SQLException
+     * @see #query(String, Map, Connection)
+     */
+    public void query(String type, Map<String, Object> params, Connection connection, QueryResultHandler handler)
+                throws SQLException, ResourceException;
+
     /**
      * Performs the command on the specified target and returns the number of affected objects
      * <p>
@@ -188,6 +224,10 @@ public interface TableHandler {
     
     /**
      * Builds a raw query from the supplied filter.
+     * <p>
+     * The raw query is cached by the shape of the filter, so it must only depend on the operators, fields
+     * and value types of the filter and on the resource type, paging and sort keys in the params; values
+     * must be passed as replacement tokens.
      * 
      * @param filter the query filter
      * @param replacementTokens a map to store any replacement tokens
@@ -26,9 +26,9 @@ package org.forgerock.openidm.repo.jdbc.impl;
 import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
-import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_FIRST_ROW_TOKEN;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_LAST_ROW_TOKEN;
 import static org.forgerock.openidm.repo.util.Clauses.where;
 
 import org.forgerock.json.resource.SortKey;
@@ -92,11 +92,8 @@ public class DB2TableHandler extends GenericTableHandler {
      */
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String)params.get(PAGED_RESULTS_OFFSET));
-        final int pageSizeParam = Integer.parseInt((String)params.get(PAGE_SIZE));
-
         // Create custom builder which overrides SQL output syntax
-        // note enclosing offsetParam and pageSizeParam - we don't bother passing these to the builder to deal with
+        // the page is bound through the page tokens of TableQueries
         final SQLBuilder builder =
                 new SQLBuilder() {
                     @Override
@@ -109,9 +106,9 @@ public class DB2TableHandler extends GenericTableHandler {
                                 + getWhereClause().toSQL()
                                 + getOrderByClause().toSQL()
                                 + ") WHERE rn BETWEEN "
-                                + (offsetParam + 1)
+                                + PAGE_FIRST_ROW_TOKEN
                                 + " AND "
-                                + (offsetParam + pageSizeParam)
+                                + PAGE_LAST_ROW_TOKEN
                                 + " ORDER BY rn";
                     }
                 };
@@ -125,7 +122,7 @@ public class DB2TableHandler extends GenericTableHandler {
                         .and("objecttypes.objecttype = ${otype}"))
 
                 .where(filter.accept(
-                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder) {
+                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder, cfg) {
                             // override numeric value clause generation to cast propvalue to a number
                             @Override
                             Clause buildNumericValueClause(String propTable, String operand, String placeholder) {
@@ -35,6 +35,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.forgerock.guava.common.base.Function;
 import org.forgerock.guava.common.collect.FluentIterable;
 import org.forgerock.json.JsonPointer;
+import org.forgerock.openidm.repo.jdbc.impl.query.TableQueries;
 import org.forgerock.openidm.repo.util.AbstractSQLQueryFilterVisitor;
 import org.forgerock.openidm.repo.util.Clause;
 import org.forgerock.openidm.util.ResourceUtil;
@@ -50,16 +51,28 @@ class GenericSQLQueryFilterVisitor extends AbstractSQLQueryFilterVisitor<Clause,
 
     private final int searchableLength;
     private final SQLBuilder builder;
+    private final GenericTableConfig cfg;
 
     /**
-     * Construct a QueryFilterVisitor to produce SQL for managed objects using the generic table structure.
+     * Construct a QueryFilterVisitor to produce SQL for managed objects using the generic table structure,
+     * comparing numbers and declared timestamps against the typed property columns if the table has them.
      *
      * @param searchableLength the searchable length; properties longer than this will be trimmed to this length
      * @param builder The {@link SQLBuilder} to use to keep track of the select columns, table joins, and order by lists
+     * @param cfg the generic table configuration, or null to compare all values against propvalue
      */
-    GenericSQLQueryFilterVisitor(final int searchableLength, SQLBuilder builder) {
+    GenericSQLQueryFilterVisitor(final int searchableLength, SQLBuilder builder, GenericTableConfig cfg) {
         this.searchableLength = searchableLength;
         this.builder = builder;
+        this.cfg = cfg;
+    }
+
+    private boolean isTyped() {
+        return cfg != null && cfg.typedProperties;
+    }
+
+    private boolean isTimestamp(final String operand, final JsonPointer field, final Object valueAssertion) {
+        return isTyped() && valueAssertion instanceof String && !"LIKE".equals(operand) && cfg.isTimestamp(field);
     }
 
     private boolean isNumeric(final Object valueAssertion) {
@@ -94,6 +107,40 @@ class GenericSQLQueryFilterVisitor extends AbstractSQLQueryFilterVisitor<Clause,
                 .and("CAST(" + propTable + ".propvalue AS DECIMAL) " + operand + " ${" + placeholder + "}");
     }
 
+    /**
+     * Generate the WHERE clause for properties table for a numeric value assertion against the typed number
+     * column, which an index on (propkey, propnumber) can serve. Rows without a number, such as rows written
+     * before the column was added and not yet backfilled, are compared as by
+     * {@link #buildNumericValueClause}.
+     *
+     * @param propTable the property table
+     * @param operand the comparison operand
+     * @param placeholder the value placeholder
+     * @return SQL WHERE clause for properties table
+     */
+    private Clause buildTypedNumericValueClause(String propTable, String operand, String placeholder) {
+        return where(propTable + ".propnumber " + operand + " ${" + TableQueries.PREFIX_NUMBER + ":" + placeholder + "}")
+                .or(where(propTable + ".propnumber IS NULL")
+                        .and(buildNumericValueClause(propTable, operand, placeholder)));
+    }
+
+    /**
+     * Generate the WHERE clause for properties table for a value assertion on a declared timestamp property
+     * against the typed timestamp column, which an index on (propkey, proptimestamp) can serve. Rows without a
+     * timestamp, such as rows written before the property was declared, are compared as strings.
+     *
+     * @param propTable the property table
+     * @param operand the comparison operand
+     * @param placeholder the value placeholder
+     * @return SQL WHERE clause for properties table
+     */
+    private Clause buildTimestampValueClause(String propTable, String operand, String placeholder) {
+        return where(propTable + ".proptimestamp " + operand
+                + " ${" + TableQueries.PREFIX_TIMESTAMP + ":" + placeholder + "}")
+                .or(where(propTable + ".proptimestamp IS NULL")
+                        .and(buildStringValueClause(propTable, operand, placeholder)));
+    }
+
     /**
      * Generate the WHERE clause for properties table for a boolean value assertion.
      *
@@ -137,7 +184,11 @@ class GenericSQLQueryFilterVisitor extends AbstractSQLQueryFilterVisitor<Clause,
             objects.put(key, field.toString());
             objects.put(value, valueAssertion);
             final Clause valueClause;
-            if (isNumeric(valueAssertion)) {
+            if (isTyped() && isNumeric(valueAssertion)) {
+                valueClause = buildTypedNumericValueClause(propTable, operand, value);
+            } else if (isTimestamp(operand, field, valueAssertion)) {
+                valueClause = buildTimestampValueClause(propTable, operand, value);
+            } else if (isNumeric(valueAssertion)) {
                 // validate type is integer or double cast all numeric types to decimal
                 valueClause = buildNumericValueClause(propTable, operand, value);
             } else if (isBoolean(valueAssertion)) {
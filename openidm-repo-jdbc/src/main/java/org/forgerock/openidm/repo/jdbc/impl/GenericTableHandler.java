@@ -24,9 +24,9 @@
 package org.forgerock.openidm.repo.jdbc.impl;
 
 import static org.forgerock.json.resource.Responses.newResourceResponse;
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_OFFSET_TOKEN;
 import static org.forgerock.openidm.repo.util.Clauses.where;
 
 import java.io.IOException;
@@ -36,14 +36,19 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
 
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -58,9 +63,11 @@ import org.forgerock.json.resource.ResourceException;
 import org.forgerock.json.resource.SortKey;
 import org.forgerock.openidm.repo.jdbc.ErrorType;
 import org.forgerock.openidm.repo.jdbc.SQLExceptionHandler;
+import org.forgerock.openidm.repo.jdbc.QueryResultHandler;
 import org.forgerock.openidm.repo.jdbc.TableHandler;
 import org.forgerock.openidm.repo.jdbc.impl.query.QueryResultMapper;
 import org.forgerock.openidm.repo.jdbc.impl.query.TableQueries;
+import org.forgerock.openidm.util.ResourceUtil;
 import org.forgerock.util.query.QueryFilter;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -78,6 +85,18 @@ public class GenericTableHandler implements TableHandler {
      */
     protected static final int SEARCHABLE_LENGTH = 2000;
 
+    /**
+     * The property types whose values are also stored in the typed propnumber column.
+     */
+    private static final Set<String> NUMERIC_TYPES = new HashSet<String>(Arrays.asList(
+            Integer.class.getName(), Long.class.getName(), Float.class.getName(), Double.class.getName()));
+
+    /**
+     * Strings holding a decimal number, which are also stored in the typed propnumber column so that numeric
+     * query filters match them.
+     */
+    private static final Pattern NUMERIC_STRING = Pattern.compile("[-+]?[0-9]+(\\.[0-9]+)?([eE][-+]?[0-9]+)?");
+
     SQLExceptionHandler sqlExceptionHandler;
 
     GenericTableConfig cfg;
@@ -108,6 +127,9 @@ public class GenericTableHandler implements TableHandler {
         DELETEQUERYSTR,
         PROPCREATEQUERYSTR,
         PROPDELETEQUERYSTR,
+        PROPUPDATEQUERYSTR,
+        PROPDELETEKEYQUERYSTR,
+        PROPREADQUERYSTR,
         QUERYALLIDS
     }
 
@@ -199,8 +221,23 @@ public class GenericTableHandler implements TableHandler {
         */
 
         // Object properties table
-        result.put(QueryDefinition.PROPCREATEQUERYSTR, "INSERT INTO " + propertyTable + " ( " + mainTableName + "_id, propkey, proptype, propvalue) VALUES (?,?,?,?)");
+        if (cfg.typedProperties) {
+            result.put(QueryDefinition.PROPCREATEQUERYSTR, "INSERT INTO " + propertyTable + " ( " + mainTableName + "_id, propkey, proptype, propvalue, propnumber, proptimestamp) VALUES (?,?,?,?,?,?)");
+        } else {
+            result.put(QueryDefinition.PROPCREATEQUERYSTR, "INSERT INTO " + propertyTable + " ( " + mainTableName + "_id, propkey, proptype, propvalue) VALUES (?,?,?,?)");
+        }
         result.put(QueryDefinition.PROPDELETEQUERYSTR, "DELETE prop FROM " + propertyTable + " prop INNER JOIN " + mainTable + " obj ON prop." + mainTableName + "_id = obj.id INNER JOIN " + typeTable + " objtype ON obj.objecttypes_id = objtype.id WHERE objtype.objecttype = ? AND obj.objectid = ?");
+        if (cfg.typedProperties) {
+            result.put(QueryDefinition.PROPUPDATEQUERYSTR, "UPDATE " + propertyTable + " SET proptype = ?, propvalue = ?, propnumber = ?, proptimestamp = ? WHERE " + mainTableName + "_id = ? AND propkey = ?");
+        } else {
+            result.put(QueryDefinition.PROPUPDATEQUERYSTR, "UPDATE " + propertyTable + " SET proptype = ?, propvalue = ? WHERE " + mainTableName + "_id = ? AND propkey = ?");
+        }
+        result.put(QueryDefinition.PROPDELETEKEYQUERYSTR, "DELETE FROM " + propertyTable + " WHERE " + mainTableName + "_id = ? AND propkey = ?");
+        if (cfg.typedProperties) {
+            result.put(QueryDefinition.PROPREADQUERYSTR, "SELECT propkey, proptype, propvalue, propnumber, proptimestamp FROM " + propertyTable + " WHERE " + mainTableName + "_id = ?");
+        } else {
+            result.put(QueryDefinition.PROPREADQUERYSTR, "SELECT propkey, proptype, propvalue FROM " + propertyTable + " WHERE " + mainTableName + "_id = ?");
+        }
         // Default object queries
         String tableVariable =  dbSchemaName == null ? "${_mainTable}" : "${_dbSchema}.${_mainTable}";
         result.put(QueryDefinition.QUERYALLIDS, "SELECT obj.objectid FROM " + tableVariable + " obj INNER JOIN " + typeTable + " objtype ON obj.objecttypes_id = objtype.id WHERE objtype.objecttype = ${_resource}");
@@ -287,6 +324,57 @@ public class GenericTableHandler implements TableHandler {
         }
     }
 
+    /**
+     * {@inheritDoc}
+     * <p>
+     * The property rows of an object reference the key the database generated for its main table row, which
+     * drivers do not reliably return for batched inserts. The main table rows are therefore only inserted in
+     * batches for tables without searchable properties; otherwise each object is created on its own.
+     */
+    @Override
+    public void createBatch(String type, Map<String, Map<String, Object>> objects, Connection connection)
+            throws SQLException, IOException, ResourceException {
+        if (!enableBatching || cfg.hasPossibleSearchableProperties()) {
+            for (Map.Entry<String, Map<String, Object>> object : objects.entrySet()) {
+                create(type + "/" + object.getKey(), type, object.getKey(), object.getValue(), connection);
+            }
+            return;
+        }
+
+        // Note this call can commit and start a new transaction in some cases
+        long typeId = getTypeId(type, connection);
+
+        PreparedStatement createStatement = null;
+        try {
+            createStatement = getPreparedStatement(connection, QueryDefinition.CREATEQUERYSTR);
+            int batchingCount = 0;
+            for (Map.Entry<String, Map<String, Object>> object : objects.entrySet()) {
+                String localId = object.getKey();
+                Map<String, Object> obj = object.getValue();
+                String rev = "0";
+                obj.put("_id", localId); // Save the id in the object
+                obj.put("_rev", rev); // Save the rev in the object, and return the changed rev from the create.
+                createStatement.setLong(1, typeId);
+                createStatement.setString(2, localId);
+                createStatement.setString(3, rev);
+                createStatement.setString(4, mapper.writeValueAsString(obj));
+                createStatement.addBatch();
+                if (++batchingCount >= maxBatchSize) {
+                    int[] numUpdates = createStatement.executeBatch();
+                    logger.debug("Batch limit reached, created {} objects of type {}", numUpdates.length, type);
+                    createStatement.clearBatch();
+                    batchingCount = 0;
+                }
+            }
+            if (batchingCount > 0) {
+                int[] numUpdates = createStatement.executeBatch();
+                logger.debug("Executed batch of {} creates of type {}", numUpdates.length, type);
+            }
+        } finally {
+            CleanupHelper.loggedClose(createStatement);
+        }
+    }
+
     /**
      * Writes all properties of a given resource to the properties table and links them to the main table record.
      *
@@ -359,8 +447,8 @@ public class GenericTableHandler implements TableHandler {
                     }
                     propCreateStatement.setLong(1, dbId);
                     propCreateStatement.setString(2, propkey);
-                    propCreateStatement.setString(3, proptype);
-                    propCreateStatement.setString(4, propvalue);
+                    toPropertyRow(propPointer, proptype, propvalue)
+                            .setValues(propCreateStatement, 3, cfg.typedProperties);
                     logger.debug("Executing: {}", propCreateStatement);
                     if (enableBatching) {
                         propCreateStatement.addBatch();
@@ -386,6 +474,303 @@ public class GenericTableHandler implements TableHandler {
         return batchingCount;
     }
 
+    /**
+     * Brings the properties table in line with a changed resource by only writing the rows that differ from the
+     * rows currently stored for it, instead of deleting and re-inserting all of them. The stored rows are
+     * compared, not the previous version of the resource, so rows whose searchable or typed column state no
+     * longer matches the table configuration are rewritten even if the property value did not change.
+     *
+     * @param fullId the full URI of the resource the belongs to
+     * @param dbId the generated identifier to link the properties table with the main table (foreign key)
+     * @param localId the local identifier of the resource these properties belong to
+     * @param value the JSON value of the resource to store
+     * @param connection the DB connection
+     * @throws SQLException if a read or write failed
+     */
+    void updateValueProperties(String fullId, long dbId, String localId, JsonValue value, Connection connection)
+            throws SQLException {
+        Map<String, PropertyRow> storedRows = readValueProperties(dbId, connection);
+        Map<String, PropertyRow> newRows = new LinkedHashMap<String, PropertyRow>();
+        if (cfg.hasPossibleSearchableProperties()) {
+            collectValueProperties(value, newRows);
+        }
+
+        PropertyStatement propDeleteStatement =
+                new PropertyStatement(connection, QueryDefinition.PROPDELETEKEYQUERYSTR);
+        PropertyStatement propUpdateStatement =
+                new PropertyStatement(connection, QueryDefinition.PROPUPDATEQUERYSTR);
+        PropertyStatement propCreateStatement =
+                new PropertyStatement(connection, QueryDefinition.PROPCREATEQUERYSTR);
+        try {
+            for (String propkey : storedRows.keySet()) {
+                if (!newRows.containsKey(propkey)) {
+                    logger.trace("Deleting objectproperty id: {} propkey: {}", fullId, propkey);
+                    PreparedStatement statement = propDeleteStatement.prepare();
+                    statement.setLong(1, dbId);
+                    statement.setString(2, propkey);
+                    propDeleteStatement.execute();
+                }
+            }
+            for (Map.Entry<String, PropertyRow> entry : newRows.entrySet()) {
+                String propkey = entry.getKey();
+                PropertyRow row = entry.getValue();
+                PropertyRow storedRow = storedRows.get(propkey);
+                if (storedRow == null) {
+                    logger.trace("Inserting objectproperty id: {} propkey: {} proptype: {}, propvalue: {}",
+                            fullId, propkey, row.proptype, row.propvalue);
+                    PreparedStatement statement = propCreateStatement.prepare();
+                    statement.setLong(1, dbId);
+                    statement.setString(2, propkey);
+                    row.setValues(statement, 3, cfg.typedProperties);
+                    propCreateStatement.execute();
+                } else if (!row.equals(storedRow)) {
+                    logger.trace("Updating objectproperty id: {} propkey: {} proptype: {}, propvalue: {}",
+                            fullId, propkey, row.proptype, row.propvalue);
+                    PreparedStatement statement = propUpdateStatement.prepare();
+                    int index = row.setValues(statement, 1, cfg.typedProperties);
+                    statement.setLong(index, dbId);
+                    statement.setString(index + 1, propkey);
+                    propUpdateStatement.execute();
+                }
+            }
+            propDeleteStatement.flush();
+            propUpdateStatement.flush();
+            propCreateStatement.flush();
+            logger.debug("Updated objectproperties of {}, deleted: {} updated: {} inserted: {}", fullId,
+                    propDeleteStatement.count, propUpdateStatement.count, propCreateStatement.count);
+        } finally {
+            propDeleteStatement.close();
+            propUpdateStatement.close();
+            propCreateStatement.close();
+        }
+    }
+
+    /**
+     * Reads the rows currently stored in the properties table for a resource.
+     *
+     * @param dbId the main table identifier of the resource
+     * @param connection the DB connection
+     * @return the stored rows keyed by property key
+     * @throws SQLException if the read failed
+     */
+    private Map<String, PropertyRow> readValueProperties(long dbId, Connection connection) throws SQLException {
+        Map<String, PropertyRow> rows = new HashMap<String, PropertyRow>();
+        PreparedStatement statement = null;
+        ResultSet rs = null;
+        try {
+            statement = getPreparedStatement(connection, QueryDefinition.PROPREADQUERYSTR);
+            statement.setLong(1, dbId);
+            rs = statement.executeQuery();
+            while (rs.next()) {
+                Double propnumber = null;
+                Timestamp proptimestamp = null;
+                if (cfg.typedProperties) {
+                    double number = rs.getDouble("propnumber");
+                    if (!rs.wasNull()) {
+                        propnumber = number;
+                    }
+                    proptimestamp = rs.getTimestamp("proptimestamp", TableQueries.utcCalendar());
+                }
+                rows.put(rs.getString("propkey"), new PropertyRow(rs.getString("proptype"),
+                        rs.getString("propvalue"), propnumber, proptimestamp));
+            }
+        } finally {
+            CleanupHelper.loggedClose(rs);
+            CleanupHelper.loggedClose(statement);
+        }
+        return rows;
+    }
+
+    /**
+     * Builds the properties table row of a property value, with the typed propnumber and proptimestamp columns
+     * left null if the value is neither a number, a string holding a number nor a valid value of a property
+     * declared as a timestamp.
+     *
+     * @param propPointer the property
+     * @param proptype the property type
+     * @param propvalue the property value
+     * @return the row
+     */
+    private PropertyRow toPropertyRow(JsonPointer propPointer, String proptype, String propvalue) {
+        Double number = null;
+        if (propvalue != null && (NUMERIC_TYPES.contains(proptype)
+                || (String.class.getName().equals(proptype) && NUMERIC_STRING.matcher(propvalue).matches()))) {
+            try {
+                number = Double.valueOf(propvalue);
+            } catch (NumberFormatException e) {
+                number = null;
+            }
+            if (number == null || number.isNaN() || number.isInfinite()) {
+                number = null;
+                logger.debug("Not storing the number of property {} with value {}", propPointer, propvalue);
+            }
+        }
+
+        Timestamp timestamp = null;
+        if (propvalue != null && String.class.getName().equals(proptype) && cfg.isTimestamp(propPointer)) {
+            timestamp = TableQueries.parseTimestamp(propvalue);
+            if (timestamp == null) {
+                logger.debug("Not storing the timestamp of property {} with value {}", propPointer, propvalue);
+            }
+        }
+        return new PropertyRow(proptype, propvalue, number, timestamp);
+    }
+
+    /**
+     * Collects the searchable properties of a JSON value, as written by {@link #writeValueProperties}, keyed by
+     * property key.
+     *
+     * @param value the JSON value with the properties to collect
+     * @param properties the map to add the property rows to
+     */
+    private void collectValueProperties(JsonValue value, Map<String, PropertyRow> properties) {
+        for (JsonValue entry : value) {
+            JsonPointer propPointer = entry.getPointer();
+            if (cfg.isSearchable(propPointer)) {
+                if (entry.isMap() || entry.isList()) {
+                    collectValueProperties(entry, properties);
+                } else {
+                    String propvalue = null;
+                    String proptype = null;
+                    Object val = entry.getObject();
+                    if (val != null) {
+                        propvalue = StringUtils.left(val.toString(), getSearchableLength());
+                        proptype = val.getClass().getName();
+                    }
+                    properties.put(propPointer.toString(), toPropertyRow(propPointer, proptype, propvalue));
+                }
+            }
+        }
+    }
+
+    /**
+     * The proptype, propvalue and typed column values of a properties table row.
+     */
+    private static final class PropertyRow {
+        private final String proptype;
+        private final String propvalue;
+        private final Double propnumber;
+        private final Timestamp proptimestamp;
+
+        PropertyRow(String proptype, String propvalue, Double propnumber, Timestamp proptimestamp) {
+            this.proptype = proptype;
+            this.propvalue = propvalue;
+            this.propnumber = propnumber;
+            this.proptimestamp = proptimestamp;
+        }
+
+        /**
+         * Sets the proptype and propvalue parameters of a statement, followed by propnumber and proptimestamp
+         * if the table has typed columns.
+         *
+         * @param statement the properties insert or update statement
+         * @param index the parameter index of the proptype column
+         * @param typed whether the table has the typed columns
+         * @return the index of the next parameter
+         * @throws SQLException if setting a parameter failed
+         */
+        int setValues(PreparedStatement statement, int index, boolean typed) throws SQLException {
+            statement.setString(index++, proptype);
+            statement.setString(index++, propvalue);
+            if (typed) {
+                if (propnumber != null) {
+                    statement.setDouble(index++, propnumber);
+                } else {
+                    statement.setNull(index++, Types.DOUBLE);
+                }
+                if (proptimestamp != null) {
+                    statement.setTimestamp(index++, proptimestamp, TableQueries.utcCalendar());
+                } else {
+                    statement.setNull(index++, Types.TIMESTAMP);
+                }
+            }
+            return index;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof PropertyRow)) {
+                return false;
+            }
+            PropertyRow other = (PropertyRow) o;
+            // Timestamps are stored with millisecond precision
+            return StringUtils.equals(proptype, other.proptype)
+                    && StringUtils.equals(propvalue, other.propvalue)
+                    && (propnumber == null ? other.propnumber == null : propnumber.equals(other.propnumber))
+                    && (proptimestamp == null
+                            ? other.proptimestamp == null
+                            : other.proptimestamp != null && proptimestamp.getTime() == other.proptimestamp.getTime());
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(new Object[] { proptype, propvalue, propnumber });
+        }
+    }
+
+    /**
+     * A lazily prepared properties table statement which is executed immediately, or batched up to the
+     * maximum batch size if batching is enabled.
+     */
+    private final class PropertyStatement {
+        private final Connection connection;
+        private final QueryDefinition queryDefinition;
+        private PreparedStatement statement;
+        private int batchingCount;
+        private int count;
+
+        PropertyStatement(Connection connection, QueryDefinition queryDefinition) {
+            this.connection = connection;
+            this.queryDefinition = queryDefinition;
+        }
+
+        /**
+         * @return the prepared statement, to be populated for the next execution
+         */
+        PreparedStatement prepare() throws SQLException {
+            if (statement == null) {
+                statement = getPreparedStatement(connection, queryDefinition);
+            }
+            return statement;
+        }
+
+        /**
+         * Executes the populated statement, or adds it to the batch.
+         */
+        void execute() throws SQLException {
+            count++;
+            logger.debug("Executing: {}", statement);
+            if (enableBatching) {
+                statement.addBatch();
+                if (++batchingCount >= maxBatchSize) {
+                    flush();
+                }
+            } else {
+                statement.executeUpdate();
+            }
+        }
+
+        /**
+         * Executes the statements remaining in the batch.
+         */
+        void flush() throws SQLException {
+            if (enableBatching && batchingCount > 0) {
+                int[] numUpdates = statement.executeBatch();
+                if (logger.isDebugEnabled()) {
+                    logger.debug("Batch of {} updated: {}", queryDefinition, Arrays.asList(numUpdates));
+                }
+                statement.clearBatch();
+                batchingCount = 0;
+            }
+        }
+
+        void close() {
+            if (statement != null) {
+                CleanupHelper.loggedClose(statement);
+            }
+        }
+    }
+
     /**
      * @inheritDoc
      */
@@ -536,7 +921,6 @@ public class GenericTableHandler implements TableHandler {
 
         ResultSet rs = null;
         PreparedStatement updateStatement = null;
-        PreparedStatement deletePropStatement = null;
         try {
             rs = readForUpdate(fullId, type, localId, connection);
             String existingRev = rs.getString("rev");
@@ -548,7 +932,6 @@ public class GenericTableHandler implements TableHandler {
                 throw new PreconditionFailedException("Update rejected as current Object revision " + existingRev + " is different than expected by caller (" + rev + "), the object has changed since retrieval.");
             }
             updateStatement = getPreparedStatement(connection, QueryDefinition.UPDATEQUERYSTR);
-            deletePropStatement = getPreparedStatement(connection, QueryDefinition.PROPDELETEQUERYSTR);
 
             // Support changing object identifier
             String newLocalId = (String) obj.get("_id");
@@ -573,14 +956,7 @@ public class GenericTableHandler implements TableHandler {
             }
 
             JsonValue jv = new JsonValue(obj);
-            // TODO: only update what changed?
-            logger.trace("Populating prepared statement {} for {} {} {}", deletePropStatement, fullId, type, localId);
-            deletePropStatement.setString(1, type);
-            deletePropStatement.setString(2, localId);
-            logger.debug("Update properties del statement: {}", deletePropStatement);
-            int deleteCount = deletePropStatement.executeUpdate();
-            logger.trace("Deleted child rows: {} for: {}", deleteCount, fullId);
-            writeValueProperties(fullId, dbId, localId, jv, connection);
+            updateValueProperties(fullId, dbId, localId, jv, connection);
         } finally {
             if (rs != null) {
                 // Ensure associated statement also is closed
@@ -589,7 +965,6 @@ public class GenericTableHandler implements TableHandler {
                 CleanupHelper.loggedClose(rsStatement);
             }
             CleanupHelper.loggedClose(updateStatement);
-            CleanupHelper.loggedClose(deletePropStatement);
         }
     }
 
@@ -653,6 +1028,12 @@ public class GenericTableHandler implements TableHandler {
         return queries.query(type, params, connection);
     }
 
+    @Override
+    public void query(String type, Map<String, Object> params, Connection connection, QueryResultHandler handler)
+            throws ResourceException {
+        queries.query(type, params, connection, handler);
+    }
+
     @Override
     public Integer command(String type, Map<String, Object> params, Connection connection) throws SQLException, ResourceException {
         return queries.command(type, params, connection);
@@ -677,7 +1058,6 @@ public class GenericTableHandler implements TableHandler {
      */
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String) params.get(PAGED_RESULTS_OFFSET));
         final int pageSizeParam = Integer.parseInt((String) params.get(PAGE_SIZE));
 
         SQLBuilder builder = new SQLBuilder() {
@@ -689,7 +1069,7 @@ public class GenericTableHandler implements TableHandler {
                         + getWhereClause().toSQL()
                         + getOrderByClause().toSQL()
                         + " LIMIT " + pageSizeParam
-                        + " OFFSET " + offsetParam;
+                        + " OFFSET " + PAGE_OFFSET_TOKEN;
             }
         };
 
@@ -703,7 +1083,7 @@ public class GenericTableHandler implements TableHandler {
                         .and("objecttypes.objecttype = ${otype}"))
 
                 // construct where clause by visiting filter
-                .where(filter.accept(new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder), replacementTokens));
+                .where(filter.accept(new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder, cfg), replacementTokens));
 
         // other half of OPENIDM-2773 fix
         replacementTokens.put("otype", params.get("_resource"));
@@ -729,6 +1109,11 @@ public class GenericTableHandler implements TableHandler {
         }
         for (int i = 0; i < sortKeys.size(); i++) {
             final SortKey sortKey = sortKeys.get(i);
+            if (ResourceUtil.RESOURCE_FIELD_CONTENT_ID_POINTER.equals(sortKey.getField())) {
+                // the id is a column of the main table, as in the query filter
+                builder.orderBy("obj.objectid", sortKey.isAscendingOrder());
+                continue;
+            }
             final String tokenName = "sortKey" + i;
             final String tableAlias = "orderby" + i;
             builder.join("${_dbSchema}.${_propTable}", tableAlias)
@@ -748,9 +1133,8 @@ class GenericQueryResultMapper implements QueryResultMapper {
     // Type information for the Jackson parser
     TypeReference<LinkedHashMap<String,Object>> typeRef = new TypeReference<LinkedHashMap<String,Object>>() {};
 
-    public List<Map<String, Object>> mapQueryToObject(ResultSet rs, String queryId, String type, Map<String, Object> params,  TableQueries tableQueries)
-            throws SQLException, IOException {
-        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+    public boolean mapQueryToObject(ResultSet rs, String queryId, String type, Map<String, Object> params,
+            TableQueries tableQueries, QueryResultHandler handler) throws SQLException, IOException, ResourceException {
         ResultSetMetaData rsMetaData = rs.getMetaData();
         boolean hasFullObject = tableQueries.hasColumn(rsMetaData, "fullobject");
         boolean hasId = false;
@@ -773,7 +1157,9 @@ class GenericQueryResultMapper implements QueryResultMapper {
                 // TODO: remove data logging
                 logger.trace("Query result for queryId: {} type: {} converted obj: {}", new Object[] {queryId, type, obj});
 
-                result.add(obj);
+                if (!handler.handleResult(obj)) {
+                    return false;
+                }
             } else {
                 Map<String, Object> obj = new HashMap<String, Object>();
                 if (hasId) {
@@ -793,10 +1179,12 @@ class GenericQueryResultMapper implements QueryResultMapper {
                     JsonValue wrapped = new JsonValue(obj);
                     wrapped.put(pointer, propValue);
                 }
-                result.add(obj);
+                if (!handler.handleResult(obj)) {
+                    return false;
+                }
             }
         }
-        return result;
+        return true;
     }
 }
 
@@ -804,6 +1192,8 @@ class GenericTableConfig {
     public String mainTableName;
     public String propertiesTableName;
     public boolean searchableDefault;
+    // Whether the properties table has the typed propnumber and proptimestamp columns
+    public boolean typedProperties;
     public GenericPropertiesConfig properties;
 
     public boolean isSearchable(JsonPointer propPointer) {
@@ -831,12 +1221,27 @@ class GenericTableConfig {
         return ((searchableDefault) ? true : properties.explicitSearchableProperties);
     }
 
+    /**
+     * @return whether the property, or a property it is part of, is declared as an ISO 8601 timestamp
+     * to store in the typed timestamp column
+     */
+    public boolean isTimestamp(JsonPointer propPointer) {
+        while (!propPointer.isEmpty()) {
+            if (properties.timestamps.contains(propPointer)) {
+                return true;
+            }
+            propPointer = propPointer.parent();
+        }
+        return false;
+    }
+
     public static GenericTableConfig parse(JsonValue tableConfig) {
         GenericTableConfig cfg = new GenericTableConfig();
         tableConfig.required();
         cfg.mainTableName = tableConfig.get("mainTable").required().asString();
         cfg.propertiesTableName = tableConfig.get("propertiesTable").required().asString();
         cfg.searchableDefault = tableConfig.get("searchableDefault").defaultTo(Boolean.TRUE).asBoolean();
+        cfg.typedProperties = tableConfig.get("typedProperties").defaultTo(Boolean.FALSE).asBoolean();
         cfg.properties = GenericPropertiesConfig.parse(tableConfig.get("properties"));
 
         return cfg;
@@ -844,6 +1249,8 @@ class GenericTableConfig {
 }
 
 class GenericPropertiesConfig {
+    static final String TYPE_TIMESTAMP = "timestamp";
+
     public Map<JsonPointer, Boolean> explicitlySearchable = new HashMap<JsonPointer, Boolean>();
     public String mainTableName;
     public String propertiesTableName;
@@ -851,6 +1258,8 @@ class GenericPropertiesConfig {
     public GenericPropertiesConfig properties;
     // Whether there are any properties explicitly set to searchable true
     public boolean explicitSearchableProperties;
+    // Properties declared with "type" : "timestamp"
+    public Set<JsonPointer> timestamps = new HashSet<JsonPointer>();
 
     public static GenericPropertiesConfig parse(JsonValue propsConfig) {
         
@@ -858,10 +1267,15 @@ class GenericPropertiesConfig {
         if (!propsConfig.isNull()) {
             for (String propName : propsConfig.keys()) {
                 JsonValue detail = propsConfig.get(propName);
-                boolean propSearchable = detail.get("searchable").asBoolean();
-                cfg.explicitlySearchable.put(new JsonPointer(propName), propSearchable);
-                if (propSearchable) {
-                    cfg.explicitSearchableProperties = true;
+                if (detail.isDefined("searchable")) {
+                    boolean propSearchable = detail.get("searchable").asBoolean();
+                    cfg.explicitlySearchable.put(new JsonPointer(propName), propSearchable);
+                    if (propSearchable) {
+                        cfg.explicitSearchableProperties = true;
+                    }
+                }
+                if (TYPE_TIMESTAMP.equals(detail.get("type").asString())) {
+                    cfg.timestamps.add(new JsonPointer(propName));
                 }
             }
         }
@@ -24,9 +24,9 @@
  */
 package org.forgerock.openidm.repo.jdbc.impl;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_OFFSET_TOKEN;
 
 import org.forgerock.json.JsonPointer;
 import org.forgerock.json.JsonValue;
@@ -62,7 +62,6 @@ public class H2TableHandler extends GenericTableHandler {
      */
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String) params.get(PAGED_RESULTS_OFFSET));
         final int pageSizeParam = Integer.parseInt((String) params.get(PAGE_SIZE));
 
         // "SELECT obj.* FROM mainTable obj..."
@@ -75,12 +74,12 @@ public class H2TableHandler extends GenericTableHandler {
                         + getWhereClause().toSQL()
                         + getOrderByClause().toSQL()
                         + " LIMIT " + pageSizeParam
-                        + " OFFSET " + offsetParam;
+                        + " OFFSET " + PAGE_OFFSET_TOKEN;
             }
         };
         builder.addColumn("SELECT obj.fullobject")
                 .from("${_dbSchema}.${_mainTable} obj")
-                .where(filter.accept(new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder), replacementTokens));
+                .where(filter.accept(new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder, cfg), replacementTokens));
 
         // JsonValue-cheat to avoid an unchecked cast
         final List<SortKey> sortKeys = new JsonValue(params).get(SORT_KEYS).asList(SortKey.class);
@@ -25,6 +25,7 @@ import static org.forgerock.json.resource.ResourceResponse.FIELD_CONTENT_REVISIO
 import static org.forgerock.json.resource.Responses.newActionResponse;
 import static org.forgerock.json.resource.Responses.newQueryResponse;
 import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.forgerock.openidm.repo.QueryConstants.FETCH_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.QUERY_EXPRESSION;
@@ -37,9 +38,11 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.Semaphore;
 
 import org.apache.felix.scr.annotations.Activate;
 import org.apache.felix.scr.annotations.Component;
@@ -85,7 +88,9 @@ import org.forgerock.openidm.repo.RepoBootService;
 import org.forgerock.openidm.repo.RepositoryService;
 import org.forgerock.openidm.repo.jdbc.DatabaseType;
 import org.forgerock.openidm.repo.jdbc.ErrorType;
+import org.forgerock.openidm.repo.jdbc.QueryResultHandler;
 import org.forgerock.openidm.repo.jdbc.TableHandler;
+import org.forgerock.openidm.repo.jdbc.impl.query.KeysetPagingCookie;
 import org.forgerock.openidm.util.Accessor;
 import org.forgerock.util.promise.Promise;
 import org.osgi.framework.BundleContext;
@@ -111,12 +116,17 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
 
     public static final String PID = "org.forgerock.openidm.repo.jdbc";
     private static final String ACTION_COMMAND = "command";
+    private static final String ACTION_CREATE_BATCH = "createBatch";
+    private static final String FIELD_BATCH_OBJECTS = "objects";
 
     // Keys in the JSON configuration
     public static final String CONFIG_USE_DATASOURCE = "useDataSource";
     public static final String CONFIG_DB_TYPE = "dbType";
     public static final String CONFIG_MAX_TX_RETRY = "maxTxRetry";
     public static final String CONFIG_MAX_BATCH_SIZE = "maxBatchSize";
+    public static final String CONFIG_QUERY_FETCH_SIZE = "queryFetchSize";
+    public static final String CONFIG_MAX_STREAMING_QUERIES = "maxStreamingQueries";
+    public static final String CONFIG_TYPED_PROPERTIES = "typedProperties";
 
     Map<String, TableHandler> tableHandlers;
     TableHandler defaultTableHandler;
@@ -124,6 +134,33 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
     private JsonValue config;
     private int maxTxRetry = 5;
 
+    /** Number of query results to fetch per database round trip, 0 for the driver default */
+    private int queryFetchSize = 0;
+
+    /**
+     * Bounds the queries passing their results to a handler as they are read, each of which holds a connection
+     * open while the handler runs. It must be lower than the size of the connection pool, so that the
+     * repository calls made by the handlers always find a free connection.
+     */
+    private Semaphore streamingQueries = new Semaphore(10);
+
+    /** The number of streaming queries holding a connection open for the current thread */
+    private final ThreadLocal<Integer> streamingDepth = new ThreadLocal<Integer>() {
+        @Override
+        protected Integer initialValue() {
+            return 0;
+        }
+    };
+
+    /**
+     * Whether the generic properties tables have the typed propnumber and proptimestamp columns, which
+     * the shipped schemas have and older schemas get from the upgrade scripts. Generic table mappings
+     * can override this setting.
+     */
+    private boolean typedProperties = false;
+
+    private DatabaseType databaseType;
+
     /** CryptoService for detecting whether a value is encrypted */
     @Reference
     protected CryptoService cryptoService;
@@ -310,67 +347,14 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
 
         final JsonValue obj = request.getContent();
 
-        Connection connection = null;
-        boolean retry = false;
-        int tryCount = 0;
-        do {
-            TableHandler handler = getTableHandler(type);
-            if (handler == null) {
-                throw ResourceException.getException(ResourceException.INTERNAL_ERROR,
-                        "No handler configured for resource type " + type);
-            }
-            retry = false;
-            ++tryCount;
-            try {
-                connection = getConnection();
-                connection.setAutoCommit(false);
-
+        createInTransaction(type, fullId, new CreateOperation() {
+            @Override
+            public void create(TableHandler handler, Connection connection)
+                    throws SQLException, IOException, ResourceException {
                 handler.create(fullId, type, localId, obj.asMap(), connection);
-
-                connection.commit();
-                logger.debug("Commited created object for id: {}", fullId);
-
-            } catch (SQLException ex) {
-                if (logger.isDebugEnabled()) {
-                    logger.debug("SQL Exception in create of {} with error code {}, sql state {}",
-                            fullId, ex.getErrorCode(), ex.getSQLState(), ex);
-                }
-                rollback(connection);
-                boolean alreadyExisted = handler.isErrorType(ex, ErrorType.DUPLICATE_KEY);
-                if (alreadyExisted) {
-                    throw new PreconditionFailedException(
-                            "Create rejected as Object with same ID already exists and was detected. "
-                                    + "(" + ex.getErrorCode() + "-" + ex.getSQLState() + ")"
-                                    + ex.getMessage(), ex);
-                }
-                if (handler.isRetryable(ex, connection)) {
-                    if (tryCount <= maxTxRetry) {
-                        retry = true;
-                        logger.debug("Retryable exception encountered, retry {}", ex.getMessage());
-                    }
-                }
-                if (!retry) {
-                    throw new InternalServerErrorException("Creating object failed " + "("
-                            + ex.getErrorCode() + "-" + ex.getSQLState() + ")" + ex.getMessage(),
-                            ex);
-                }
-            } catch (ResourceException ex) {
-                logger.debug("ResourceException in create of {}", fullId, ex);
-                rollback(connection);
-                throw ex;
-            } catch (java.io.IOException ex) {
-                logger.debug("IO Exception in create of {}", fullId, ex);
-                rollback(connection);
-                throw new InternalServerErrorException("Conversion of object to create failed", ex);
-            } catch (RuntimeException ex) {
-                logger.debug("Runtime Exception in create of {}", fullId, ex);
-                rollback(connection);
-                throw new InternalServerErrorException(
-                        "Creating object failed with unexpected failure: " + ex.getMessage(), ex);
-            } finally {
-                CleanupHelper.loggedClose(connection);
             }
-        } while (retry);
+        });
+        logger.debug("Commited created object for id: {}", fullId);
 
         // Return the newly created resource
         return newResourceResponse(obj.get(FIELD_CONTENT_ID).asString(), obj.get(FIELD_CONTENT_REVISION).asString(), obj);
@@ -565,43 +549,77 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
     }
 
     @Override
-    public Promise<QueryResponse, ResourceException> handleQuery(Context context, QueryRequest request, QueryResourceHandler handler) {
+    public Promise<QueryResponse, ResourceException> handleQuery(Context context, QueryRequest request,
+            final QueryResourceHandler handler) {
         try {
 
             // If paged results are requested then decode the cookie in order to determine
             // the index of the first result to be returned.
             final int requestPageSize = request.getPageSize();
 
-            // Cookie containing offset of last request
+            // Cookie containing offset of last request, or the sort key values of the last result
             final String pagedResultsCookie = request.getPagedResultsCookie();
 
             final boolean pagedResultsRequested = requestPageSize > 0;
 
+            // Query filters are paged by seeking past the sort key values of the previous page,
+            // unless the client asked for a numeric offset
+            final KeysetPagingCookie keyset;
+
             // index of first record (used for SKIP/OFFSET)
             final int firstResultIndex;
 
             if (pagedResultsRequested) {
-                if (!isNullOrEmpty(pagedResultsCookie)) {
+                final boolean keysetSupported = request.getQueryFilter() != null
+                        && KeysetPagingCookie.isSupported(request.getSortKeys());
+                if (KeysetPagingCookie.isKeysetCookie(pagedResultsCookie)) {
+                    if (!keysetSupported) {
+                        throw new BadRequestException("Paged results cookie does not match the query");
+                    }
+                    keyset = KeysetPagingCookie.parse(pagedResultsCookie, request.getSortKeys());
+                    firstResultIndex = keyset.getOffset();
+                } else if (keysetSupported && isNullOrEmpty(pagedResultsCookie)
+                        && request.getPagedResultsOffset() <= 0) {
+                    keyset = KeysetPagingCookie.first(request.getSortKeys());
+                    firstResultIndex = 0;
+                } else if (!isNullOrEmpty(pagedResultsCookie)) {
+                    keyset = null;
                     try {
                         firstResultIndex = Integer.parseInt(pagedResultsCookie);
                     } catch (final NumberFormatException e) {
                         throw new BadRequestException("Invalid paged results cookie");
                     }
                 } else {
+                    keyset = null;
                     firstResultIndex = Math.max(0, request.getPagedResultsOffset());
                 }
             } else {
+                keyset = null;
                 firstResultIndex = 0;
             }
 
             // Once cookie is processed Queries.query() can rely on the offset.
             request.setPagedResultsOffset(firstResultIndex);
 
-            List<ResourceResponse> results = query(request);
-            for (ResourceResponse result : results) {
-                handler.handleResource(result);
+            final Map<String, Object> params = getQueryParams(request);
+            if (keyset != null) {
+                params.put(QUERY_FILTER, keyset.seek(request.getQueryFilter()));
+                params.put(SORT_KEYS, keyset.getSortKeys());
             }
 
+            // Pass the results to the handler as they are read
+            final int[] handledCount = { 0 };
+            final List<Map<String, Object>> lastResult = new ArrayList<Map<String, Object>>(1);
+            streamQuery(request.getResourcePath(), params, new QueryResultHandler() {
+                @Override
+                public boolean handleResult(Map<String, Object> result) {
+                    handledCount[0]++;
+                    lastResult.clear();
+                    lastResult.add(result);
+                    return handler.handleResource(toResourceResponse(result));
+                }
+            });
+
             /*
              * Execute additional -count query if we are paging
              */
@@ -647,10 +665,12 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
                         break;
                 }
 
-                if (results.size() < requestPageSize) {
+                if (handledCount[0] < requestPageSize) {
                     nextCookie = null;
+                } else if (keyset != null) {
+                    nextCookie = keyset.next(lastResult.get(0), requestPageSize).toString();
                 } else {
-                    final int remainingResults = resultCount - (firstResultIndex + results.size());
+                    final int remainingResults = resultCount - (firstResultIndex + handledCount[0]);
                     if (remainingResults == 0) {
                         nextCookie = null;
                     } else {
@@ -676,9 +696,24 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
 
     @Override
     public List<ResourceResponse> query(QueryRequest request) throws ResourceException {
-        String fullId = request.getResourcePath();
-        String type = trimStartingSlash(fullId);
-        logger.trace("Full id: {} Extracted type: {}", fullId, type);
+        final List<ResourceResponse> results = new ArrayList<ResourceResponse>();
+        query(request.getResourcePath(), getQueryParams(request), new QueryResultHandler() {
+            @Override
+            public boolean handleResult(Map<String, Object> result) {
+                results.add(toResourceResponse(result));
+                return true;
+            }
+        });
+        return results;
+    }
+
+    /**
+     * Builds the table handler query parameters of a query request.
+     *
+     * @param request the query request
+     * @return the query parameters
+     */
+    private Map<String, Object> getQueryParams(QueryRequest request) {
         Map<String, Object> params = new HashMap<String, Object>();
         params.putAll(request.getAdditionalParameters());
         params.put(QUERY_ID, request.getQueryId());
@@ -686,9 +721,80 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
         params.put(QUERY_FILTER, request.getQueryFilter());
         params.put(PAGE_SIZE, request.getPageSize());
         params.put(PAGED_RESULTS_OFFSET, request.getPagedResultsOffset());
-        params.put(SORT_KEYS, request.getSortKeys());  
+        params.put(SORT_KEYS, request.getSortKeys());
+        params.put(FETCH_SIZE, queryFetchSize);
+        return params;
+    }
+
+    /**
+     * Performs a query whose handler may call back into the repository, passing each result to the handler as
+     * it is read from the database.
+     * <p>
+     * The connection of the query is held open while the handler runs, so at most {@code maxStreamingQueries}
+     * queries stream at once, leaving the rest of the connection pool to the calls of their handlers. A query
+     * made by the handler of a streaming query on the same thread only streams if it does not have to wait
+     * for that, as waiting while holding a connection could exhaust the pool; otherwise its results are read
+     * before they are passed on.
+     *
+     * @param fullId the resource path of the query
+     * @param params the table handler query parameters
+     * @param handler the handler of the results
+     * @throws ResourceException if the query or the handler failed
+     */
+    private void streamQuery(String fullId, Map<String, Object> params, QueryResultHandler handler)
+            throws ResourceException {
+        final Semaphore permits = streamingQueries;
+        final int depth = streamingDepth.get();
+        if (depth == 0) {
+            try {
+                permits.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InternalServerErrorException("Interrupted while waiting to query " + fullId, e);
+            }
+        } else if (!permits.tryAcquire()) {
+            logger.debug("Reading the results of nested query of {} before passing them on", fullId);
+            final List<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+            query(fullId, params, new QueryResultHandler() {
+                @Override
+                public boolean handleResult(Map<String, Object> result) {
+                    results.add(result);
+                    return true;
+                }
+            });
+            for (Map<String, Object> result : results) {
+                if (!handler.handleResult(result)) {
+                    break;
+                }
+            }
+            return;
+        }
+        streamingDepth.set(depth + 1);
+        try {
+            query(fullId, params, handler);
+        } finally {
+            streamingDepth.set(depth);
+            permits.release();
+        }
+    }
+
+    /**
+     * Performs a query, passing each result to the handler as it is read from the database.
+     *
+     * @param fullId the resource path of the query
+     * @param params the table handler query parameters
+     * @param handler the handler of the results
+     * @throws ResourceException if the query failed
+     */
+    private void query(String fullId, Map<String, Object> params, QueryResultHandler handler)
+            throws ResourceException {
+        String type = trimStartingSlash(fullId);
+        logger.trace("Full id: {} Extracted type: {}", fullId, type);
 
         Connection connection = null;
+        // PostgreSQL only reads results in batches of the fetch size from within a transaction
+        final boolean useCursor = queryFetchSize > 0 && databaseType == DatabaseType.POSTGRESQL;
+        boolean completed = false;
         try {
             TableHandler tableHandler = getTableHandler(type);
             if (tableHandler == null) {
@@ -696,19 +802,14 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
                         "No handler configured for resource type " + type);
             }
             connection = getConnection();
-            connection.setAutoCommit(true); // Ensure we do not implicitly
-                                            // start transaction isolation
-
-            List<Map<String, Object>> docs = tableHandler.query(type, params, connection);
-            List<ResourceResponse> results = new ArrayList<ResourceResponse>();
-            for (Map<String, Object> resultMap : docs) {
-                String id = (String) resultMap.get("_id");
-                String rev = (String) resultMap.get("_rev");
-                JsonValue value = new JsonValue(resultMap);
-                ResourceResponse resultResource = newResourceResponse(id, rev, value);
-                results.add(resultResource);
+            connection.setAutoCommit(!useCursor); // Ensure we do not implicitly
+                                                  // start transaction isolation
+
+            tableHandler.query(type, params, connection, handler);
+            if (useCursor) {
+                connection.commit();
             }
-            return results;
+            completed = true;
         } catch (SQLException ex) {
             if (logger.isDebugEnabled()) {
                 logger.debug("SQL Exception in query of {} with error code {}, sql state {}",
@@ -719,15 +820,26 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
             logger.debug("ResourceException in query of {}", fullId, ex);
             throw ex;
         } finally {
+            if (useCursor && !completed) {
+                rollback(connection);
+            }
             CleanupHelper.loggedClose(connection);
         }
     }
+
+    private ResourceResponse toResourceResponse(Map<String, Object> result) {
+        String id = (String) result.get("_id");
+        String rev = (String) result.get("_rev");
+        return newResourceResponse(id, rev, new JsonValue(result));
+    }
     
     @Override
     public Promise<ActionResponse, ResourceException> handleAction(Context context, ActionRequest request) {
         try {
             if (ACTION_COMMAND.equalsIgnoreCase(request.getAction())) {
                 return command(request).asPromise();
+            } else if (ACTION_CREATE_BATCH.equalsIgnoreCase(request.getAction())) {
+                return createBatch(request).asPromise();
             } else {
                 throw new NotSupportedException("Action operations are not supported");
             }
@@ -738,6 +850,125 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
         }
     }
 
+    /**
+     * Creates the objects listed in the {@code objects} array of the request content in a single transaction,
+     * sent to the database as JDBC statement batches where the table handler supports it, so that writers of
+     * many small objects, such as audit entries, pay for one commit and few round trips per batch instead of
+     * one of each per object. Either all objects are created or none is.
+     *
+     * @param request the request on the type of the objects to create
+     * @return the ids of the created objects
+     * @throws ResourceException if any of the objects could not be created
+     */
+    private ActionResponse createBatch(ActionRequest request) throws ResourceException {
+        if (request.getResourcePathObject().isEmpty()) {
+            throw new BadRequestException(
+                    "The respository requires clients to supply a type for the objects to create.");
+        }
+        final String type = request.getResourcePath();
+        final JsonValue objects = request.getContent().get(FIELD_BATCH_OBJECTS).required().expect(List.class);
+        final Map<String, Map<String, Object>> objectsById = new LinkedHashMap<String, Map<String, Object>>();
+        for (JsonValue obj : objects) {
+            final String localId = obj.get(FIELD_CONTENT_ID).isNull()
+                    ? UUID.randomUUID().toString()
+                    : obj.get(FIELD_CONTENT_ID).asString();
+            if (objectsById.put(localId, obj.asMap()) != null) {
+                throw new BadRequestException("The batch lists more than one object with id " + localId);
+            }
+        }
+        final List<Object> createdIds = new ArrayList<Object>(objectsById.keySet());
+
+        createInTransaction(type, type, new CreateOperation() {
+            @Override
+            public void create(TableHandler handler, Connection connection)
+                    throws SQLException, IOException, ResourceException {
+                handler.createBatch(type, objectsById, connection);
+            }
+        });
+        logger.debug("Commited batch of {} created objects of type {}", createdIds.size(), type);
+
+        return newActionResponse(json(object(field("created", createdIds))));
+    }
+
+    /**
+     * Creates objects with the table handler of a type in one transaction.
+     */
+    private interface CreateOperation {
+        void create(TableHandler handler, Connection connection) throws SQLException, IOException, ResourceException;
+    }
+
+    /**
+     * Runs a create operation in a transaction, which is retried up to the configured maximum number of times
+     * if it fails with a retryable error.
+     *
+     * @param type the type of the objects to create
+     * @param description the id or type of the objects to create, for logging
+     * @param operation the operation creating the objects
+     * @throws ResourceException if the objects could not be created
+     */
+    private void createInTransaction(String type, String description, CreateOperation operation)
+            throws ResourceException {
+        Connection connection = null;
+        boolean retry = false;
+        int tryCount = 0;
+        do {
+            TableHandler handler = getTableHandler(type);
+            if (handler == null) {
+                throw ResourceException.getException(ResourceException.INTERNAL_ERROR,
+                        "No handler configured for resource type " + type);
+            }
+            retry = false;
+            ++tryCount;
+            try {
+                connection = getConnection();
+                connection.setAutoCommit(false);
+
+                operation.create(handler, connection);
+
+                connection.commit();
+            } catch (SQLException ex) {
+                if (logger.isDebugEnabled()) {
+                    logger.debug("SQL Exception in create of {} with error code {}, sql state {}",
+                            description, ex.getErrorCode(), ex.getSQLState(), ex);
+                }
+                rollback(connection);
+                boolean alreadyExisted = handler.isErrorType(ex, ErrorType.DUPLICATE_KEY);
+                if (alreadyExisted) {
+                    throw new PreconditionFailedException(
+                            "Create rejected as Object with same ID already exists and was detected. "
+                                    + "(" + ex.getErrorCode() + "-" + ex.getSQLState() + ")"
+                                    + ex.getMessage(), ex);
+                }
+                if (handler.isRetryable(ex, connection)) {
+                    if (tryCount <= maxTxRetry) {
+                        retry = true;
+                        logger.debug("Retryable exception encountered, retry {}", ex.getMessage());
+                    }
+                }
+                if (!retry) {
+                    throw new InternalServerErrorException("Creating object failed " + "("
+                            + ex.getErrorCode() + "-" + ex.getSQLState() + ")" + ex.getMessage(),
+                            ex);
+                }
+            } catch (ResourceException ex) {
+                logger.debug("ResourceException in create of {}", description, ex);
+                rollback(connection);
+                throw ex;
+            } catch (IOException ex) {
+                logger.debug("IO Exception in create of {}", description, ex);
+                rollback(connection);
+                throw new InternalServerErrorException("Conversion of object to create failed", ex);
+            } catch (RuntimeException ex) {
+                logger.debug("Runtime Exception in create of {}", description, ex);
+                rollback(connection);
+                throw new InternalServerErrorException(
+                        "Creating object failed with unexpected failure: " + ex.getMessage(), ex);
+            } finally {
+                CleanupHelper.loggedClose(connection);
+            }
+        } while (retry);
+    }
+
     /**
      * Performs the repo command defined by the {@code request).
      *
@@ -879,11 +1110,20 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
 
             tableHandlers = new HashMap<String, TableHandler>();
 
-            DatabaseType databaseType = config.get(CONFIG_DB_TYPE)
+            databaseType = config.get(CONFIG_DB_TYPE)
                     .defaultTo(DatabaseType.ANSI_SQL99.name())
                     .asEnum(DatabaseType.class);
             maxTxRetry = config.get(CONFIG_MAX_TX_RETRY).defaultTo(5).asInteger();
+            queryFetchSize = config.get(CONFIG_QUERY_FETCH_SIZE).defaultTo(0).asInteger();
+            streamingQueries = new Semaphore(
+                    Math.max(1, config.get(CONFIG_MAX_STREAMING_QUERIES).defaultTo(10).asInteger()));
             int maxBatchSize = config.get(CONFIG_MAX_BATCH_SIZE).defaultTo(100).asInteger();
+            typedProperties = config.get(CONFIG_TYPED_PROPERTIES).defaultTo(false).asBoolean();
+            if (typedProperties && databaseType == DatabaseType.POSTGRESQL) {
+                // PostgreSQL filters on the JSON of the full object rather than on the properties table
+                logger.info("Typed properties are not used with PostgreSQL");
+                typedProperties = false;
+            }
 
             JsonValue defaultMapping = config.get("resourceMapping").get("default");
             if (!defaultMapping.isNull()) {
@@ -980,6 +1220,11 @@ public class JDBCRepoService implements RequestHandler, RepoBootService, Reposit
     GenericTableHandler getGenericTableHandler(DatabaseType databaseType, JsonValue tableConfig,
             String dbSchemaName, JsonValue queries, JsonValue commands, int maxBatchSize) {
 
+        if (typedProperties && !tableConfig.isDefined(CONFIG_TYPED_PROPERTIES)) {
+            tableConfig = tableConfig.copy();
+            tableConfig.put(CONFIG_TYPED_PROPERTIES, Boolean.TRUE);
+        }
+
         // TODO: make pluggable
         switch (databaseType) {
         case DB2:
@@ -24,9 +24,9 @@
 
 package org.forgerock.openidm.repo.jdbc.impl;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
-import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_FIRST_ROW_TOKEN;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_LAST_ROW_TOKEN;
 import static org.forgerock.openidm.repo.util.Clauses.where;
 
 import java.io.IOException;
@@ -104,7 +104,6 @@ public class MSSQLTableHandler extends GenericTableHandler {
 
         ResultSet rs = null;
         PreparedStatement updateStatement = null;
-        PreparedStatement deletePropStatement = null;
         try {
             rs = readForUpdate(fullId, type, localId, connection);
             String existingRev = rs.getString("rev");
@@ -120,7 +119,6 @@ public class MSSQLTableHandler extends GenericTableHandler {
                         + "the object has changed since retrieval.");
             }
             updateStatement = getPreparedStatement(connection, QueryDefinition.UPDATEQUERYSTR);
-            deletePropStatement = getPreparedStatement(connection, QueryDefinition.PROPDELETEQUERYSTR);
             // Support changing object identifier
             String newLocalId = (String) obj.get("_id");
             if (newLocalId != null && !localId.equals(newLocalId)) {
@@ -148,14 +146,7 @@ public class MSSQLTableHandler extends GenericTableHandler {
             }
 
             JsonValue jv = new JsonValue(obj);
-            // TODO: only update what changed?
-            logger.trace("Populating prepared statement {} for {} {} {}", deletePropStatement, fullId, type, localId);
-            deletePropStatement.setString(1, type);
-            deletePropStatement.setString(2, localId);
-            logger.debug("Update properties del statement: {}", deletePropStatement);
-            int deleteCount = deletePropStatement.executeUpdate();
-            logger.trace("Deleted child rows: {} for: {}", deleteCount, fullId);
-            writeValueProperties(fullId, dbId, localId, jv, connection);
+            updateValueProperties(fullId, dbId, localId, jv, connection);
         } finally {
             if (rs != null) {
                 // Ensure associated statement also is closed
@@ -164,7 +155,6 @@ public class MSSQLTableHandler extends GenericTableHandler {
                 CleanupHelper.loggedClose(rsStatement);
             }
             CleanupHelper.loggedClose(updateStatement);
-            CleanupHelper.loggedClose(deletePropStatement);
         }
     }
 
@@ -173,11 +163,8 @@ public class MSSQLTableHandler extends GenericTableHandler {
      */
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String) params.get(PAGED_RESULTS_OFFSET));
-        final int pageSizeParam = Integer.parseInt((String) params.get(PAGE_SIZE));
-
         // Create custom builder which overrides SQL output syntax
-        // note enclosing offsetParam and pageSizeParam - we don't bother passing these to the builder to deal with
+        // the page is bound through the page tokens of TableQueries
         final SQLBuilder builder =
                 new SQLBuilder() {
                     @Override
@@ -189,9 +176,9 @@ public class MSSQLTableHandler extends GenericTableHandler {
                                 + getJoinClause().toSQL()
                                 + getWhereClause().toSQL()
                                 + ") SELECT * FROM results WHERE rowNo BETWEEN "
-                                + (offsetParam + 1)
+                                + PAGE_FIRST_ROW_TOKEN
                                 + " AND "
-                                + (offsetParam + pageSizeParam);
+                                + PAGE_LAST_ROW_TOKEN;
                     }
                 };
 
@@ -205,7 +192,7 @@ public class MSSQLTableHandler extends GenericTableHandler {
 
                 .where(filter.accept(
                         // override numeric value clause generation to cast propvalue to a number
-                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder) {
+                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder, cfg) {
                             @Override
                             Clause buildNumericValueClause(String propTable, String operand, String placeholder) {
                                 return where(propTable + ".proptype = 'java.lang.Integer'")
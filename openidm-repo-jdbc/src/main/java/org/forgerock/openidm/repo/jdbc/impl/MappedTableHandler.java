@@ -25,9 +25,9 @@
 package org.forgerock.openidm.repo.jdbc.impl;
 
 import static org.forgerock.json.resource.Responses.newResourceResponse;
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_OFFSET_TOKEN;
 
 import java.io.IOException;
 import java.sql.Connection;
@@ -56,6 +56,7 @@ import org.forgerock.openidm.config.enhanced.InvalidException;
 import org.forgerock.openidm.crypto.CryptoService;
 import org.forgerock.openidm.repo.jdbc.ErrorType;
 import org.forgerock.openidm.repo.jdbc.SQLExceptionHandler;
+import org.forgerock.openidm.repo.jdbc.QueryResultHandler;
 import org.forgerock.openidm.repo.jdbc.TableHandler;
 import org.forgerock.openidm.repo.jdbc.impl.query.QueryResultMapper;
 import org.forgerock.openidm.repo.jdbc.impl.query.TableQueries;
@@ -286,6 +287,27 @@ public class MappedTableHandler implements TableHandler {
         }
     }
 
+    /**
+     * @see org.forgerock.openidm.repo.jdbc.TableHandler#createBatch(java.lang.String, java.util.Map,
+     *      java.sql.Connection)
+     */
+    @Override
+    public void createBatch(String type, Map<String, Map<String, Object>> objects, Connection connection)
+            throws SQLException, IOException {
+        PreparedStatement createStatement =
+                queries.getPreparedStatement(connection, createQueryStr);
+        try {
+            for (Map.Entry<String, Map<String, Object>> object : objects.entrySet()) {
+                create(type + "/" + object.getKey(), type, object.getKey(), object.getValue(), connection,
+                        createStatement, true);
+            }
+            int[] numUpdates = createStatement.executeBatch();
+            logger.debug("Executed batch of {} creates of type {}", numUpdates.length, type);
+        } finally {
+            CleanupHelper.loggedClose(createStatement);
+        }
+    }
+
     /**
      * Adds the option to batch more than one create statement
      *
@@ -492,6 +514,12 @@ public class MappedTableHandler implements TableHandler {
         return queries.query(type, params, connection);
     }
 
+    @Override
+    public void query(String type, Map<String, Object> params, Connection connection, QueryResultHandler handler)
+            throws ResourceException {
+        queries.query(type, params, connection, handler);
+    }
+
     @Override
     public Integer command(String type, Map<String, Object> params, Connection connection) throws SQLException, ResourceException {
         return queries.command(type, params, connection);
@@ -525,9 +553,8 @@ public class MappedTableHandler implements TableHandler {
 
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final String offsetParam = (String) params.get(PAGED_RESULTS_OFFSET);
         final String pageSizeParam = (String) params.get(PAGE_SIZE);
-        String pageClause = " LIMIT " + pageSizeParam + " OFFSET " + offsetParam;
+        String pageClause = " LIMIT " + pageSizeParam + " OFFSET " + PAGE_OFFSET_TOKEN;
 
         // JsonValue-cheat to avoid an unchecked cast
         final List<SortKey> sortKeys = new JsonValue(params).get(SORT_KEYS).asList(SortKey.class);
@@ -585,17 +612,18 @@ class ExplicitQueryResultMapper implements QueryResultMapper {
         this.explicitMapping = explicitMapping;
     }
 
-    public List<Map<String, Object>> mapQueryToObject(ResultSet rs, String queryId, String type,
-            Map<String, Object> params, TableQueries tableQueries) throws SQLException,
-            InternalServerErrorException {
+    public boolean mapQueryToObject(ResultSet rs, String queryId, String type,
+            Map<String, Object> params, TableQueries tableQueries, QueryResultHandler handler)
+            throws SQLException, ResourceException {
 
-        List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
         Set<String> names = Mapping.getColumnNames(rs);
         while (rs.next()) {
             JsonValue obj = explicitMapping.mapToJsonValue(rs, names);
-            result.add(obj.asMap());
+            if (!handler.handleResult(obj.asMap())) {
+                return false;
+            }
         }
-        return result;
+        return true;
     }
 }
 
@@ -23,9 +23,9 @@
  */
 package org.forgerock.openidm.repo.jdbc.impl;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
-import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_FIRST_ROW_TOKEN;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_LAST_ROW_TOKEN;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -51,8 +51,6 @@ public class OracleMappedTableHandler extends MappedTableHandler {
     
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String)params.get(PAGED_RESULTS_OFFSET));
-        final int pageSizeParam = Integer.parseInt((String)params.get(PAGE_SIZE));
         String filterString = getFilterString(filter, replacementTokens);
         final String keysClause;
 
@@ -72,9 +70,9 @@ public class OracleMappedTableHandler extends MappedTableHandler {
                 + " ) AS rn FROM ${_dbSchema}.${_mainTable} "
                 + filterString 
                 + " ) WHERE rn BETWEEN " 
-                + (offsetParam+1)
-                + " AND " 
-                + (offsetParam + pageSizeParam)
+                + PAGE_FIRST_ROW_TOKEN
+                + " AND "
+                + PAGE_LAST_ROW_TOKEN
                 + " ORDER BY rn";
     }
 
@@ -24,9 +24,9 @@
  */
 package org.forgerock.openidm.repo.jdbc.impl;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
-import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_FIRST_ROW_TOKEN;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_LAST_ROW_TOKEN;
 import static org.forgerock.openidm.repo.util.Clauses.where;
 
 import java.io.IOException;
@@ -125,11 +125,8 @@ public class OracleTableHandler extends GenericTableHandler {
      */
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final int offsetParam = Integer.parseInt((String)params.get(PAGED_RESULTS_OFFSET));
-        final int pageSizeParam = Integer.parseInt((String)params.get(PAGE_SIZE));
-
         // Create custom builder which overrides SQL output syntax
-        // note enclosing offsetParam and pageSizeParam - we don't bother passing these to the builder to deal with
+        // the page is bound through the page tokens of TableQueries
         final SQLBuilder builder =
                 new SQLBuilder() {
                     @Override
@@ -142,9 +139,9 @@ public class OracleTableHandler extends GenericTableHandler {
                                 + getWhereClause().toSQL()
                                 + getOrderByClause().toSQL()
                                 + ") WHERE rn BETWEEN "
-                                + (offsetParam + 1)
+                                + PAGE_FIRST_ROW_TOKEN
                                 + " AND "
-                                + (offsetParam + pageSizeParam)
+                                + PAGE_LAST_ROW_TOKEN
                                 + " ORDER BY rn";
                     }
                 };
@@ -158,7 +155,7 @@ public class OracleTableHandler extends GenericTableHandler {
                         .and("objecttypes.objecttype = ${otype}"))
 
                 .where(filter.accept(
-                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder) {
+                        new GenericSQLQueryFilterVisitor(SEARCHABLE_LENGTH, builder, cfg) {
                             // override numeric value clause generation to cast propvalue to a number
                             @Override
                             Clause buildNumericValueClause(String propTable, String operand, String placeholder) {
@@ -24,9 +24,9 @@
  */
 package org.forgerock.openidm.repo.jdbc.impl;
 
-import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+import static org.forgerock.openidm.repo.jdbc.impl.query.TableQueries.PAGE_OFFSET_TOKEN;
 
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -144,9 +144,8 @@ public class PostgreSQLTableHandler extends GenericTableHandler {
     
     @Override
     public String renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens, Map<String, Object> params) {
-        final String offsetParam = (String) params.get(PAGED_RESULTS_OFFSET);
         final String pageSizeParam = (String) params.get(PAGE_SIZE);
-        String pageClause = " LIMIT " + pageSizeParam + " OFFSET " + offsetParam;
+        String pageClause = " LIMIT " + pageSizeParam + " OFFSET " + PAGE_OFFSET_TOKEN;
         
         // JsonValue-cheat to avoid an unchecked cast
         final List<SortKey> sortKeys = new JsonValue(params).get(SORT_KEYS).asList(SortKey.class);
@@ -48,7 +48,7 @@ import org.forgerock.openidm.repo.util.SQLRenderer;
  *                 + getWhereClause().toSQL()
  *                 + getOrderByClause().toSQL()
  *                 + " LIMIT " + pageSizeParam
- *                 + " OFFSET " + offsetParam;
+ *                 + " OFFSET " + PAGE_OFFSET_TOKEN;
  *     }
  * }
  * </pre>
@@ -0,0 +1,267 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.repo.jdbc.impl.query;
+
+import static org.forgerock.util.query.QueryFilter.and;
+import static org.forgerock.util.query.QueryFilter.equalTo;
+import static org.forgerock.util.query.QueryFilter.greaterThan;
+import static org.forgerock.util.query.QueryFilter.lessThan;
+import static org.forgerock.util.query.QueryFilter.or;
+
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.json.resource.SortKey;
+import org.forgerock.openidm.util.ResourceUtil;
+import org.forgerock.util.encode.Base64;
+import org.forgerock.util.query.QueryFilter;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A paged results cookie that positions a page after the sort key values of the last record of the
+ * previous page (keyset, or seek, paging) instead of after a number of records to skip.
+ * <p>
+ * The sort keys of the query are extended with the object id as a tie breaker, so they define a total
+ * order, and the next page is selected by ANDing a seek condition on the sort key values to the query
+ * filter. The database can then start reading at the position of the previous page through the sort
+ * index, where an OFFSET would have to read and discard every record of the previous pages.
+ * <p>
+ * The sort key values are compared as strings, the same way the generic tables and JSON columns sort
+ * them. A seek condition never matches a NULL sort value, and databases disagree on where NULLs sort,
+ * so keyset paging is only used for sort keys that can not be NULL, see {@link #isSupported(List)}.
+ * When the last record of a page has no string representation for a sort key anyway, the cookie keeps
+ * the previous position and falls back to an offset from it.
+ */
+public final class KeysetPagingCookie {
+
+    private static final String PREFIX = "k:";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final TypeReference<LinkedHashMap<String, Object>> TYPE_REF =
+            new TypeReference<LinkedHashMap<String, Object>>() {};
+
+    private static final String FIELD_KEYS = "keys";
+    private static final String FIELD_VALUES = "values";
+    private static final String FIELD_OFFSET = "offset";
+
+    private final List<SortKey> sortKeys;
+    private final List<String> values;
+    private final int offset;
+
+    private KeysetPagingCookie(List<SortKey> sortKeys, List<String> values, int offset) {
+        this.sortKeys = sortKeys;
+        this.values = values;
+        this.offset = offset;
+    }
+
+    /**
+     * Whether a paged results cookie is a keyset cookie, as opposed to a numeric offset.
+     *
+     * @param cookie the paged results cookie, may be null
+     * @return true if it is a keyset cookie
+     */
+    public static boolean isKeysetCookie(String cookie) {
+        return cookie != null && cookie.startsWith(PREFIX);
+    }
+
+    /**
+     * Whether a query can be paged by keyset with the requested sort keys. The object id is the only
+     * field every table stores in a non-NULL column; a seek past a mapped or generic property would
+     * skip the records where it is NULL, so queries sorted by any other field keep offset paging.
+     *
+     * @param requestedSortKeys the sort keys of the query request, may be null
+     * @return true if all sort keys are on the object id
+     */
+    public static boolean isSupported(List<SortKey> requestedSortKeys) {
+        if (requestedSortKeys != null) {
+            for (SortKey sortKey : requestedSortKeys) {
+                if (!ResourceUtil.RESOURCE_FIELD_CONTENT_ID_POINTER.equals(sortKey.getField())) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the position of the first page of a query.
+     *
+     * @param requestedSortKeys the sort keys of the query request
+     * @return the position of the first page
+     */
+    public static KeysetPagingCookie first(List<SortKey> requestedSortKeys) {
+        return new KeysetPagingCookie(getEffectiveSortKeys(requestedSortKeys), null, 0);
+    }
+
+    /**
+     * Decodes a keyset cookie for a query request.
+     *
+     * @param cookie the paged results cookie
+     * @param requestedSortKeys the sort keys of the query request, which must be those the cookie was issued for
+     * @return the decoded cookie
+     * @throws BadRequestException if the cookie is invalid or was issued for different sort keys
+     */
+    public static KeysetPagingCookie parse(String cookie, List<SortKey> requestedSortKeys)
+            throws BadRequestException {
+        final List<SortKey> sortKeys = getEffectiveSortKeys(requestedSortKeys);
+        final JsonValue decoded;
+        try {
+            final byte[] bytes = Base64.decode(cookie.substring(PREFIX.length()));
+            if (bytes == null) {
+                throw new BadRequestException("Invalid paged results cookie");
+            }
+            final Map<String, Object> content = MAPPER.readValue(new String(bytes, UTF_8), TYPE_REF);
+            decoded = new JsonValue(content);
+        } catch (IOException e) {
+            throw new BadRequestException("Invalid paged results cookie", e);
+        }
+
+        try {
+            if (!toStrings(sortKeys).equals(decoded.get(FIELD_KEYS).asList(String.class))) {
+                throw new BadRequestException("Paged results cookie does not match the sort keys of the query");
+            }
+            final List<String> values = decoded.get(FIELD_VALUES).isNull()
+                    ? null
+                    : decoded.get(FIELD_VALUES).asList(String.class);
+            final int offset = decoded.get(FIELD_OFFSET).defaultTo(0).asInteger();
+            if ((values != null && values.size() != sortKeys.size()) || offset < 0) {
+                throw new BadRequestException("Invalid paged results cookie");
+            }
+            return new KeysetPagingCookie(sortKeys, values, offset);
+        } catch (RuntimeException e) {
+            // JsonValueException on an unexpected type
+            throw new BadRequestException("Invalid paged results cookie", e);
+        }
+    }
+
+    /**
+     * Returns the requested sort keys followed by the object id, unless already sorted by the id.
+     *
+     * @param requestedSortKeys the sort keys of the query request
+     * @return the sort keys defining a total order
+     */
+    static List<SortKey> getEffectiveSortKeys(List<SortKey> requestedSortKeys) {
+        final List<SortKey> sortKeys = new ArrayList<SortKey>();
+        boolean hasId = false;
+        if (requestedSortKeys != null) {
+            for (SortKey sortKey : requestedSortKeys) {
+                sortKeys.add(sortKey);
+                hasId |= ResourceUtil.RESOURCE_FIELD_CONTENT_ID_POINTER.equals(sortKey.getField());
+            }
+        }
+        if (!hasId) {
+            sortKeys.add(SortKey.ascendingOrder(ResourceUtil.RESOURCE_FIELD_CONTENT_ID_POINTER));
+        }
+        return Collections.unmodifiableList(sortKeys);
+    }
+
+    /**
+     * @return the sort keys to query with, which include the object id
+     */
+    public List<SortKey> getSortKeys() {
+        return sortKeys;
+    }
+
+    /**
+     * @return the number of records to skip after the seek position
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    /**
+     * Restricts a query filter to the records after the position of this cookie.
+     *
+     * @param filter the query filter
+     * @return the restricted filter, or the filter itself for the first page
+     */
+    public QueryFilter<JsonPointer> seek(QueryFilter<JsonPointer> filter) {
+        if (values == null) {
+            return filter;
+        }
+        // (k1 > v1) OR (k1 = v1 AND k2 > v2) OR ... with < for descending keys
+        final List<QueryFilter<JsonPointer>> alternatives = new ArrayList<QueryFilter<JsonPointer>>();
+        for (int i = 0; i < sortKeys.size(); i++) {
+            final List<QueryFilter<JsonPointer>> terms = new ArrayList<QueryFilter<JsonPointer>>();
+            for (int j = 0; j < i; j++) {
+                terms.add(equalTo(sortKeys.get(j).getField(), values.get(j)));
+            }
+            final SortKey sortKey = sortKeys.get(i);
+            terms.add(sortKey.isAscendingOrder()
+                    ? greaterThan(sortKey.getField(), values.get(i))
+                    : lessThan(sortKey.getField(), values.get(i)));
+            alternatives.add(terms.size() == 1 ? terms.get(0) : and(terms));
+        }
+        return and(filter, alternatives.size() == 1 ? alternatives.get(0) : or(alternatives));
+    }
+
+    /**
+     * Returns the position after a full page.
+     *
+     * @param lastRecord the last record of the page
+     * @param pageSize the number of records of the page
+     * @return the position of the next page
+     */
+    public KeysetPagingCookie next(Map<String, Object> lastRecord, int pageSize) {
+        final JsonValue record = new JsonValue(lastRecord);
+        final List<String> nextValues = new ArrayList<String>(sortKeys.size());
+        for (SortKey sortKey : sortKeys) {
+            final JsonValue value = record.get(sortKey.getField());
+            if (value == null || !(value.isString() || value.isNumber() || value.isBoolean())) {
+                // Cannot seek past this record; skip the page from the current position instead
+                return new KeysetPagingCookie(sortKeys, values, offset + pageSize);
+            }
+            nextValues.add(value.getObject().toString());
+        }
+        return new KeysetPagingCookie(sortKeys, nextValues, 0);
+    }
+
+    /**
+     * Encodes the cookie.
+     *
+     * @return the paged results cookie
+     */
+    @Override
+    public String toString() {
+        final Map<String, Object> content = new LinkedHashMap<String, Object>();
+        content.put(FIELD_KEYS, toStrings(sortKeys));
+        content.put(FIELD_VALUES, values);
+        content.put(FIELD_OFFSET, offset);
+        try {
+            return PREFIX + Base64.encode(MAPPER.writeValueAsString(content).getBytes(UTF_8));
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to encode paged results cookie", e);
+        }
+    }
+
+    private static List<String> toStrings(List<SortKey> sortKeys) {
+        final List<String> keys = new ArrayList<String>(sortKeys.size());
+        for (SortKey sortKey : sortKeys) {
+            keys.add(sortKey.toString());
+        }
+        return keys;
+    }
+}
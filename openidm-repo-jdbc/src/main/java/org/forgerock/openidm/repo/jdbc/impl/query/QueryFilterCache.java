@@ -0,0 +1,539 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.repo.jdbc.impl.query;
+
+import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
+import static org.forgerock.openidm.repo.QueryConstants.SORT_KEYS;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.lang3.StringUtils;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.SortKey;
+import org.forgerock.openidm.core.ServerConstants;
+import org.forgerock.util.query.QueryFilter;
+import org.forgerock.util.query.QueryFilterVisitor;
+
+/**
+ * A bounded cache of the SQL rendered for query filters, keyed by the shape of the filter, so that queries
+ * repeating the same filter with different values, such as correlation queries, skip rendering.
+ * <p>
+ * The shape of a filter is its operators and fields, the types of its value assertions, and the resource
+ * type, page size and sort keys of the query; the rendered SQL only depends on the shape, as the offset of
+ * the page is bound as a parameter. A shape is compiled
+ * by rendering a copy of the filter whose value assertions are replaced by markers, and recording which
+ * replacement token receives which value assertion, and whether it is wrapped, e.g. in {@code %} for a
+ * {@code LIKE}. Shapes whose rendering does not pass the value assertions through to replacement tokens
+ * are remembered as not cacheable and rendered on every query.
+ * <p>
+ * The least recently used shapes are evicted once the cache is full.
+ */
+final class QueryFilterCache {
+
+    /** The default maximum number of cached shapes */
+    static final int DEFAULT_MAX_ENTRIES = 256;
+
+    /** Delimits the index of a value assertion in a string marker */
+    private static final char MARKER = '\u0000';
+
+    /** Cached for the shapes that cannot be compiled */
+    private static final CompiledQuery NOT_CACHEABLE = new CompiledQuery(null, null);
+
+    private final Map<List<Object>, CompiledQuery> compiled;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    /**
+     * Creates a cache.
+     *
+     * @param maxEntries the maximum number of cached shapes
+     */
+    QueryFilterCache(final int maxEntries) {
+        this.compiled = new LinkedHashMap<List<Object>, CompiledQuery>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<List<Object>, CompiledQuery> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Returns the compiled query of a shape, counting a hit if it is cached and cacheable, and a miss
+     * otherwise.
+     *
+     * @param shape the shape of a query, or null if the query filter has no cacheable shape
+     * @return the compiled query, which is not cacheable if the shape could not be compiled, or null if
+     * the shape has not been compiled yet
+     */
+    CompiledQuery get(Shape shape) {
+        CompiledQuery query = null;
+        if (shape != null) {
+            synchronized (compiled) {
+                query = compiled.get(shape.key);
+            }
+        }
+        if (query != null && query.isCacheable()) {
+            hits.incrementAndGet();
+        } else {
+            misses.incrementAndGet();
+        }
+        return query;
+    }
+
+    /**
+     * Caches the compiled query of a shape.
+     *
+     * @param shape the shape of a query
+     * @param query the compiled query, or null if the shape is not cacheable
+     */
+    void put(Shape shape, CompiledQuery query) {
+        synchronized (compiled) {
+            compiled.put(shape.key, query != null ? query : NOT_CACHEABLE);
+        }
+    }
+
+    /**
+     * @return the number of queries whose compiled SQL was found in the cache
+     */
+    long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of queries that had to be rendered
+     */
+    long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of cached shapes
+     */
+    int size() {
+        synchronized (compiled) {
+            return compiled.size();
+        }
+    }
+
+    /**
+     * Returns the shape of a query filter.
+     *
+     * @param filter the query filter
+     * @param params the query parameters, with the paging parameters resolved
+     * @return the shape, or null if the filter has value assertions of types that cannot be cached
+     */
+    static Shape shapeOf(QueryFilter<JsonPointer> filter, Map<String, Object> params) {
+        Shape shape = new Shape(filter);
+        if (!filter.accept(SHAPE_BUILDER, shape)) {
+            return null;
+        }
+        shape.key.add(params.get(ServerConstants.RESOURCE_NAME));
+        shape.key.add(params.get(PAGE_SIZE));
+        // JsonValue-cheat to avoid an unchecked cast
+        final List<SortKey> sortKeys = new JsonValue(params).get(SORT_KEYS).asList(SortKey.class);
+        if (sortKeys != null) {
+            for (SortKey sortKey : sortKeys) {
+                shape.key.add(sortKey.toString());
+            }
+        }
+        return shape;
+    }
+
+    /**
+     * The shape of a query and the value assertions of its filter, in the order the filter is visited.
+     */
+    static final class Shape {
+        private final QueryFilter<JsonPointer> filter;
+        private final List<Object> key = new ArrayList<Object>();
+        private final List<Object> assertions = new ArrayList<Object>();
+        private List<Object> markers;
+
+        private Shape(QueryFilter<JsonPointer> filter) {
+            this.filter = filter;
+        }
+
+        /**
+         * Returns a copy of the filter whose value assertions are replaced by markers, to render the SQL of
+         * the shape.
+         *
+         * @return the filter to render
+         */
+        QueryFilter<JsonPointer> getMarkerFilter() {
+            markers = new ArrayList<Object>(assertions.size());
+            return filter.accept(MARKER_BUILDER, markers);
+        }
+
+        /**
+         * Compiles the rendering of the marker filter.
+         *
+         * @param queryInfo the rendered and tokenized SQL of the marker filter
+         * @param markerTokens the replacement tokens of the marker filter
+         * @return the compiled query, or null if the rendering cannot be reused for other values
+         */
+        CompiledQuery compile(QueryInfo queryInfo, Map<String, Object> markerTokens) {
+            if (markers == null || queryInfo.getQueryString().indexOf(MARKER) >= 0) {
+                return null;
+            }
+            boolean[] bound = new boolean[markers.size()];
+            Map<String, Binding> bindings = new LinkedHashMap<String, Binding>();
+            for (Map.Entry<String, Object> token : markerTokens.entrySet()) {
+                Binding binding = bindingOf(token.getValue());
+                if (binding == null) {
+                    return null;
+                }
+                if (binding.index >= 0) {
+                    bound[binding.index] = true;
+                }
+                bindings.put(token.getKey(), binding);
+            }
+            for (boolean b : bound) {
+                if (!b) {
+                    return null;
+                }
+            }
+            return new CompiledQuery(queryInfo, bindings);
+        }
+
+        private Binding bindingOf(Object value) {
+            for (int i = 0; i < markers.size(); i++) {
+                if (value == markers.get(i) && !(value instanceof String)) {
+                    return new Binding(i, null, null, null);
+                }
+            }
+            if (!(value instanceof String) || ((String) value).indexOf(MARKER) < 0) {
+                return new Binding(-1, value, null, null);
+            }
+            String s = (String) value;
+            int start = s.indexOf(MARKER);
+            int end = s.indexOf(MARKER, start + 1);
+            if (end < 0 || s.indexOf(MARKER, end + 1) >= 0) {
+                return null;
+            }
+            int index;
+            try {
+                index = Integer.parseInt(s.substring(start + 1, end));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (index < 0 || index >= markers.size() || !(markers.get(index) instanceof String)) {
+                return null;
+            }
+            return new Binding(index, null, s.substring(0, start), s.substring(end + 1));
+        }
+    }
+
+    /**
+     * The replacement token of a compiled query: either a constant, or a value assertion, possibly wrapped.
+     */
+    private static final class Binding {
+        /** The index of the value assertion, or -1 for a constant */
+        private final int index;
+        private final Object constant;
+        /** The text before and after a string value assertion, or null for a value passed as is */
+        private final String prefix;
+        private final String suffix;
+
+        private Binding(int index, Object constant, String prefix, String suffix) {
+            this.index = index;
+            this.constant = constant;
+            this.prefix = prefix;
+            this.suffix = suffix;
+        }
+    }
+
+    /**
+     * The rendered and tokenized SQL of a shape, and how to bind the value assertions of a query of that
+     * shape to its replacement tokens.
+     */
+    static final class CompiledQuery {
+        private final QueryInfo queryInfo;
+        private final Map<String, Binding> bindings;
+
+        private CompiledQuery(QueryInfo queryInfo, Map<String, Binding> bindings) {
+            this.queryInfo = queryInfo;
+            this.bindings = bindings;
+        }
+
+        /**
+         * @return whether the shape could be compiled
+         */
+        boolean isCacheable() {
+            return queryInfo != null;
+        }
+
+        /**
+         * @return the tokenized SQL
+         */
+        QueryInfo getQueryInfo() {
+            return queryInfo;
+        }
+
+        /**
+         * Returns the replacement tokens of a query, as the rendering of its filter would have.
+         *
+         * @param shape the shape of the query
+         * @param maxLength the length searchable string values are trimmed to, or 0 if they are not trimmed
+         * @return the replacement tokens
+         */
+        Map<String, Object> bind(Shape shape, int maxLength) {
+            Map<String, Object> tokens = new LinkedHashMap<String, Object>();
+            for (Map.Entry<String, Binding> entry : bindings.entrySet()) {
+                Binding binding = entry.getValue();
+                if (binding.index < 0) {
+                    tokens.put(entry.getKey(), binding.constant);
+                } else if (binding.prefix == null) {
+                    tokens.put(entry.getKey(), shape.assertions.get(binding.index));
+                } else {
+                    String value = shape.assertions.get(binding.index).toString();
+                    if (maxLength > 0) {
+                        value = StringUtils.left(value, maxLength);
+                    }
+                    tokens.put(entry.getKey(), binding.prefix + value + binding.suffix);
+                }
+            }
+            return tokens;
+        }
+    }
+
+    /**
+     * Adds the shape of a filter to the key of a shape and collects its value assertions, returning false
+     * if a value assertion has a type that cannot be cached.
+     */
+    private static final QueryFilterVisitor<Boolean, Shape, JsonPointer> SHAPE_BUILDER =
+            new QueryFilterVisitor<Boolean, Shape, JsonPointer>() {
+
+                private Boolean composite(Shape shape, String operator, List<QueryFilter<JsonPointer>> subFilters) {
+                    shape.key.add(operator);
+                    shape.key.add(subFilters.size());
+                    for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                        if (!subFilter.accept(this, shape)) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+
+                private Boolean assertion(Shape shape, String operator, JsonPointer field, Object value) {
+                    shape.key.add(operator);
+                    shape.key.add(field.toString());
+                    if (value instanceof String) {
+                        shape.key.add(String.class);
+                    } else if (value instanceof Integer || value instanceof Long
+                            || value instanceof Float || value instanceof Double) {
+                        shape.key.add(value.getClass());
+                    } else if (value instanceof Boolean) {
+                        // Few enough to be part of the shape
+                        shape.key.add(value);
+                    } else {
+                        return false;
+                    }
+                    shape.assertions.add(value);
+                    return true;
+                }
+
+                @Override
+                public Boolean visitAndFilter(Shape shape, List<QueryFilter<JsonPointer>> subFilters) {
+                    return composite(shape, "and", subFilters);
+                }
+
+                @Override
+                public Boolean visitOrFilter(Shape shape, List<QueryFilter<JsonPointer>> subFilters) {
+                    return composite(shape, "or", subFilters);
+                }
+
+                @Override
+                public Boolean visitNotFilter(Shape shape, QueryFilter<JsonPointer> subFilter) {
+                    shape.key.add("!");
+                    return subFilter.accept(this, shape);
+                }
+
+                @Override
+                public Boolean visitBooleanLiteralFilter(Shape shape, boolean value) {
+                    shape.key.add(value);
+                    return true;
+                }
+
+                @Override
+                public Boolean visitPresentFilter(Shape shape, JsonPointer field) {
+                    shape.key.add("pr");
+                    shape.key.add(field.toString());
+                    return true;
+                }
+
+                @Override
+                public Boolean visitContainsFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "co", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitEqualsFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "eq", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitExtendedMatchFilter(Shape shape, JsonPointer field, String operator,
+                        Object valueAssertion) {
+                    shape.key.add("ext");
+                    return assertion(shape, operator, field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitGreaterThanFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "gt", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitGreaterThanOrEqualToFilter(Shape shape, JsonPointer field,
+                        Object valueAssertion) {
+                    return assertion(shape, "ge", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitLessThanFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "lt", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitLessThanOrEqualToFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "le", field, valueAssertion);
+                }
+
+                @Override
+                public Boolean visitStartsWithFilter(Shape shape, JsonPointer field, Object valueAssertion) {
+                    return assertion(shape, "sw", field, valueAssertion);
+                }
+            };
+
+    /**
+     * Copies a filter, replacing its value assertions by markers of the same type: strings holding the
+     * index of the assertion, and new instances for numbers and booleans, recognized by identity.
+     */
+    @SuppressWarnings("deprecation")
+    private static final QueryFilterVisitor<QueryFilter<JsonPointer>, List<Object>, JsonPointer> MARKER_BUILDER =
+            new QueryFilterVisitor<QueryFilter<JsonPointer>, List<Object>, JsonPointer>() {
+
+                private Object marker(List<Object> markers, Object value) {
+                    final Object marker;
+                    if (value instanceof Integer) {
+                        marker = new Integer((Integer) value);
+                    } else if (value instanceof Long) {
+                        marker = new Long((Long) value);
+                    } else if (value instanceof Float) {
+                        marker = new Float((Float) value);
+                    } else if (value instanceof Double) {
+                        marker = new Double((Double) value);
+                    } else if (value instanceof Boolean) {
+                        marker = new Boolean((Boolean) value);
+                    } else {
+                        marker = MARKER + Integer.toString(markers.size()) + MARKER;
+                    }
+                    markers.add(marker);
+                    return marker;
+                }
+
+                private List<QueryFilter<JsonPointer>> copyAll(List<Object> markers,
+                        List<QueryFilter<JsonPointer>> subFilters) {
+                    List<QueryFilter<JsonPointer>> copies = new ArrayList<QueryFilter<JsonPointer>>(subFilters.size());
+                    for (QueryFilter<JsonPointer> subFilter : subFilters) {
+                        copies.add(subFilter.accept(this, markers));
+                    }
+                    return copies;
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitAndFilter(List<Object> markers,
+                        List<QueryFilter<JsonPointer>> subFilters) {
+                    return QueryFilter.and(copyAll(markers, subFilters));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitOrFilter(List<Object> markers,
+                        List<QueryFilter<JsonPointer>> subFilters) {
+                    return QueryFilter.or(copyAll(markers, subFilters));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitNotFilter(List<Object> markers,
+                        QueryFilter<JsonPointer> subFilter) {
+                    return QueryFilter.not(subFilter.accept(this, markers));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitBooleanLiteralFilter(List<Object> markers, boolean value) {
+                    return value ? QueryFilter.<JsonPointer>alwaysTrue() : QueryFilter.<JsonPointer>alwaysFalse();
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitPresentFilter(List<Object> markers, JsonPointer field) {
+                    return QueryFilter.present(field);
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitContainsFilter(List<Object> markers, JsonPointer field,
+                        Object valueAssertion) {
+                    return QueryFilter.contains(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitEqualsFilter(List<Object> markers, JsonPointer field,
+                        Object valueAssertion) {
+                    return QueryFilter.equalTo(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitExtendedMatchFilter(List<Object> markers, JsonPointer field,
+                        String operator, Object valueAssertion) {
+                    return QueryFilter.extendedMatch(field, operator, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitGreaterThanFilter(List<Object> markers, JsonPointer field,
+                        Object valueAssertion) {
+                    return QueryFilter.greaterThan(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitGreaterThanOrEqualToFilter(List<Object> markers,
+                        JsonPointer field, Object valueAssertion) {
+                    return QueryFilter.greaterThanOrEqualTo(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitLessThanFilter(List<Object> markers, JsonPointer field,
+                        Object valueAssertion) {
+                    return QueryFilter.lessThan(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitLessThanOrEqualToFilter(List<Object> markers,
+                        JsonPointer field, Object valueAssertion) {
+                    return QueryFilter.lessThanOrEqualTo(field, marker(markers, valueAssertion));
+                }
+
+                @Override
+                public QueryFilter<JsonPointer> visitStartsWithFilter(List<Object> markers, JsonPointer field,
+                        Object valueAssertion) {
+                    return QueryFilter.startsWith(field, marker(markers, valueAssertion));
+                }
+            };
+}
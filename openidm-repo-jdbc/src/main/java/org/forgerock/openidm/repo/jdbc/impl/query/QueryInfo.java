@@ -32,10 +32,17 @@ import java.util.List;
 final class QueryInfo {
     private String queryString;
     private List<String> tokenNames;
+    private boolean listTokens;
 
     public QueryInfo(String queryString, List<String> tokenNames) {
         this.queryString = queryString;
         this.tokenNames = tokenNames;
+        for (String tokenName : tokenNames) {
+            if (tokenName.startsWith(TableQueries.PREFIX_LIST + ":")) {
+                listTokens = true;
+                break;
+            }
+        }
     }
 
     /**
@@ -53,4 +60,12 @@ final class QueryInfo {
     public List<String> getTokenNames() {
         return tokenNames;
     }
-}
\ No newline at end of file
+
+    /**
+     * @return whether the query has ${list:variable} tokens, which need to be expanded
+     * to the number of values of the variable
+     */
+    public boolean hasListTokens() {
+        return listTokens;
+    }
+}
@@ -26,17 +26,23 @@ package org.forgerock.openidm.repo.jdbc.impl.query;
 import java.io.IOException;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.List;
 import java.util.Map;
 
-import org.forgerock.json.resource.InternalServerErrorException;
+import org.forgerock.json.resource.ResourceException;
+import org.forgerock.openidm.repo.jdbc.QueryResultHandler;
 
 /**
  * Handles the conversion of query resultsets into Object set result
  *
  */
 public interface QueryResultMapper {
-    List<Map<String, Object>> mapQueryToObject(ResultSet rs, String queryId, String type,
-            Map<String, Object> params, TableQueries tableQueries) throws SQLException,
-            IOException, InternalServerErrorException;
+
+    /**
+     * Converts the records of a query result set, passing each to the handler as soon as it is read.
+     *
+     * @return false if the handler stopped the query before the end of the result set
+     */
+    boolean mapQueryToObject(ResultSet rs, String queryId, String type,
+            Map<String, Object> params, TableQueries tableQueries, QueryResultHandler handler)
+            throws SQLException, IOException, ResourceException;
 }
@@ -26,6 +26,7 @@ package org.forgerock.openidm.repo.jdbc.impl.query;
 
 import static org.forgerock.json.JsonValue.json;
 import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.openidm.repo.QueryConstants.FETCH_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
 import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
 import static org.forgerock.openidm.repo.QueryConstants.QUERY_EXPRESSION;
@@ -39,11 +40,14 @@ import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.TimeZone;
 
 import org.apache.commons.lang3.StringUtils;
 import org.forgerock.json.JsonPointer;
@@ -52,6 +56,7 @@ import org.forgerock.json.resource.BadRequestException;
 import org.forgerock.json.resource.InternalServerErrorException;
 import org.forgerock.json.resource.ResourceException;
 import org.forgerock.openidm.core.ServerConstants;
+import org.forgerock.openidm.repo.jdbc.QueryResultHandler;
 import org.forgerock.openidm.repo.jdbc.TableHandler;
 import org.forgerock.openidm.repo.jdbc.impl.CleanupHelper;
 import org.forgerock.openidm.repo.jdbc.impl.GenericTableHandler.QueryDefinition;
@@ -60,6 +65,8 @@ import org.forgerock.openidm.smartevent.EventEntry;
 import org.forgerock.openidm.smartevent.Name;
 import org.forgerock.openidm.smartevent.Publisher;
 import org.forgerock.util.query.QueryFilter;
+import org.joda.time.format.DateTimeFormatter;
+import org.joda.time.format.ISODateTimeFormat;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,7 +84,29 @@ public class TableQueries {
     public static final String PREFIX_INT = "int";
     
     public static final String PREFIX_LIST = "list";
+
+    /** Prefix of tokens bound as a double, compared against the typed number column of generic tables */
+    public static final String PREFIX_NUMBER = "number";
+
+    /** Prefix of tokens bound as a UTC timestamp, compared against the typed timestamp column of generic tables */
+    public static final String PREFIX_TIMESTAMP = "timestamp";
+
+    /**
+     * Replacement token of the offset of the first result of a page, bound for each query so that the SQL
+     * rendered for a query filter does not depend on the page requested
+     */
+    public static final String PAGE_OFFSET_TOKEN = "${" + PREFIX_INT + ":" + PAGED_RESULTS_OFFSET + "}";
+
+    /** Replacement token of the row number, counted from 1, of the first result of a page */
+    public static final String PAGE_FIRST_ROW_TOKEN = "${" + PREFIX_INT + ":_pageFirstRow}";
+
+    /** Replacement token of the row number, counted from 1, of the last result of a page */
+    public static final String PAGE_LAST_ROW_TOKEN = "${" + PREFIX_INT + ":_pageLastRow}";
     
+    private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+    private static final DateTimeFormatter TIMESTAMP_PARSER = ISODateTimeFormat.dateTimeParser().withZoneUTC();
+
     // Monitoring event name prefix
     static final String EVENT_RAW_QUERY_PREFIX = "openidm/internal/repo/jdbc/raw/query/";
 
@@ -163,6 +192,9 @@ public class TableQueries {
     final int maxPropLen;
 
     final QueryResultMapper resultMapper;
+
+    /** The SQL rendered for query filters, by shape */
+    final QueryFilterCache filterCache = new QueryFilterCache(QueryFilterCache.DEFAULT_MAX_ENTRIES);
     
     private TableHandler tableHandler;
 
@@ -284,8 +316,48 @@ public class TableQueries {
      */
     public List<Map<String, Object>> query(final String type, Map<String, Object> params, Connection con)
             throws ResourceException {
+        final List<Map<String, Object>> result = new ArrayList<Map<String, Object>>();
+        query(type, params, con, new QueryResultHandler() {
+            @Override
+            public boolean handleResult(Map<String, Object> record) {
+                result.add(record);
+                return true;
+            }
+        });
+        return result;
+    }
+
+    /**
+     * Execute a query, either a pre-configured query by using the query ID, or
+     * a query expression passed as part of the params, passing each record to
+     * the handler as it is read from the result set.
+     * <p>
+     * If the params contain a {@link org.forgerock.openidm.repo.QueryConstants#FETCH_SIZE} greater than 0,
+     * it is set as the fetch size of the statement so that the driver reads
+     * the result set in batches of that size, where supported.
+     *
+     * @param type
+     *            the resource component name targeted by the URI
+     * @param params
+     *            the parameters which include the query id, or the query
+     *            expression, as well as the token key/value pairs to replace in
+     *            the query
+     * @param con
+     *            a handle to a database connection newBuilder for exclusive use
+     *            by the query method whilst it is executing.
+     * @param handler
+     *            the handler to receive the result records
+     * @throws BadRequestException
+     *             if the passed request parameters are invalid, e.g. missing
+     *             query id or query expression or tokens.
+     * @throws InternalServerErrorException
+     *             if the preparing or executing the query fails because of
+     *             configuration or DB issues
+     * @see #query(String, Map, Connection)
+     */
+    public void query(final String type, Map<String, Object> params, Connection con,
+            final QueryResultHandler handler) throws ResourceException {
 
-        List<Map<String, Object>> result = null;
         params.put(ServerConstants.RESOURCE_NAME, type);
 
         // If paged results are requested then decode the cookie in order to determine
@@ -344,9 +416,20 @@ public class TableQueries {
         EventEntry measure = Publisher.start(eventName, foundQuery, null);
         ResultSet rs = null;
         try {
+            final Integer fetchSize = (Integer) params.get(FETCH_SIZE);
+            if (fetchSize != null && fetchSize > 0) {
+                foundQuery.setFetchSize(fetchSize);
+            }
             rs = foundQuery.executeQuery();
-            result = resultMapper.mapQueryToObject(rs, queryId, type, params, this);
-            measure.setResult(result);
+            final int[] count = { 0 };
+            resultMapper.mapQueryToObject(rs, queryId, type, params, this, new QueryResultHandler() {
+                @Override
+                public boolean handleResult(Map<String, Object> record) throws ResourceException {
+                    count[0]++;
+                    return handler.handleResult(record);
+                }
+            });
+            measure.setResult(count[0]);
         } catch (SQLException ex) {
             throw new InternalServerErrorException("DB reported failure executing query "
                     + foundQuery.toString() + " with params: " + params + " error code: "
@@ -361,7 +444,6 @@ public class TableQueries {
             CleanupHelper.loggedClose(foundQuery);
             measure.end();
         }
-        return result;
     }
 
     public Integer command(final String type, Map<String, Object> params, Connection con)
@@ -434,6 +516,10 @@ public class TableQueries {
 
     /**
      * Resolves a query filter.
+     * <p>
+     * The SQL of the filter is looked up in the {@link QueryFilterCache} by the shape of the query, and
+     * only rendered by the table handler if the shape is not cached. The page of results is bound through
+     * the page tokens, such as {@link #PAGE_OFFSET_TOKEN}, and is not part of the shape.
      *
      * @param con
      *            The db connection
@@ -443,8 +529,57 @@ public class TableQueries {
      */
     PreparedStatement parseQueryFilter(Connection con, QueryFilter<JsonPointer> filter, Map<String, Object> params)
             throws SQLException, ResourceException {
+        QueryFilterCache.Shape shape = QueryFilterCache.shapeOf(filter, params);
+        QueryFilterCache.CompiledQuery compiled = filterCache.get(shape);
+        if (compiled == null && shape != null) {
+            Map<String, Object> markerTokens = new LinkedHashMap<String, Object>();
+            QueryInfo markerInfo = renderQueryFilter(shape.getMarkerFilter(), markerTokens, params);
+            compiled = shape.compile(markerInfo, markerTokens);
+            filterCache.put(shape, compiled);
+            if (compiled == null) {
+                logger.debug("Rendering of query filter {} is not cacheable", filter);
+            }
+        }
+        if (compiled != null && compiled.isCacheable()) {
+            return resolveQuery(compiled.getQueryInfo(), con, putPageTokens(compiled.bind(shape, maxPropLen), params));
+        }
+
         Map<String, Object> replacementTokens = new LinkedHashMap<String, Object>();
+        QueryInfo queryInfo = renderQueryFilter(filter, replacementTokens, params);
+        return resolveQuery(queryInfo, con, putPageTokens(replacementTokens, params));
+    }
 
+    /**
+     * Adds the values of the page tokens of a query to its replacement tokens.
+     *
+     * @param replacementTokens the replacement tokens of a query filter
+     * @param params the query parameters, with the paging parameters resolved
+     * @return the replacement tokens
+     * @see #PAGE_OFFSET_TOKEN
+     */
+    private static Map<String, Object> putPageTokens(Map<String, Object> replacementTokens,
+            Map<String, Object> params) {
+        final int offset = Integer.parseInt((String) params.get(PAGED_RESULTS_OFFSET));
+        final int pageSize = Integer.parseInt((String) params.get(PAGE_SIZE));
+        replacementTokens.put(PAGED_RESULTS_OFFSET, offset);
+        replacementTokens.put("_pageFirstRow", offset + 1);
+        replacementTokens.put("_pageLastRow", (int) Math.min(Integer.MAX_VALUE, (long) offset + pageSize));
+        return replacementTokens;
+    }
+
+    /**
+     * Renders a query filter with the table handler and tokenizes the SQL.
+     *
+     * @param filter
+     *            the query filter to render
+     * @param replacementTokens
+     *            a map to store the replacement tokens of the filter
+     * @param params
+     *            the query parameters
+     * @return the tokenized SQL
+     */
+    private QueryInfo renderQueryFilter(QueryFilter<JsonPointer> filter, Map<String, Object> replacementTokens,
+            Map<String, Object> params) {
         String rawQuery = tableHandler.renderQueryFilter(filter, replacementTokens, params);
 
         Map<String, String> replacements = new LinkedHashMap<String, String>();
@@ -462,8 +597,21 @@ public class TableQueries {
         List<String> tokenNames = tokenHandler.extractTokens(tempQueryString);
         String queryString = tokenHandler.replaceTokens(tempQueryString, "?", PREFIX_LIST);
 
-        QueryInfo queryInfo = new QueryInfo(queryString, tokenNames);
-        return resolveQuery(queryInfo, con, replacementTokens);
+        return new QueryInfo(queryString, tokenNames);
+    }
+
+    /**
+     * @return the number of query filters whose SQL was found in the cache
+     */
+    public long getQueryFilterCacheHits() {
+        return filterCache.getHits();
+    }
+
+    /**
+     * @return the number of query filters whose SQL had to be rendered
+     */
+    public long getQueryFilterCacheMisses() {
+        return filterCache.getMisses();
     }
 
     /**
@@ -516,16 +664,18 @@ public class TableQueries {
         List<String> tokenNames = info.getTokenNames();
 
         // replace ${list:variable} tokens with the correct number of bind variables
-        Map<String, Integer> listReplacements = new HashMap<String, Integer>();
-        for (String tokenName : tokenNames) {
-            String[] tokenParts = tokenName.split(":", 2);
-            if (PREFIX_LIST.equals(tokenParts[0]) && params.containsKey(tokenParts[1])) {
-                listReplacements.put(tokenName, ((String) params.get(tokenParts[1])).split(",").length);
+        if (info.hasListTokens()) {
+            Map<String, Integer> listReplacements = new HashMap<String, Integer>();
+            for (String tokenName : tokenNames) {
+                String[] tokenParts = tokenName.split(":", 2);
+                if (PREFIX_LIST.equals(tokenParts[0]) && params.containsKey(tokenParts[1])) {
+                    listReplacements.put(tokenName, ((String) params.get(tokenParts[1])).split(",").length);
+                }
+            }
+            if (listReplacements.size() > 0) {
+                TokenHandler tokenHandler = new TokenHandler();
+                queryStr = tokenHandler.replaceListTokens(queryStr, listReplacements, "?");
             }
-        }
-        if (listReplacements.size() > 0) {
-            TokenHandler tokenHandler = new TokenHandler();
-            queryStr = tokenHandler.replaceListTokens(queryStr, listReplacements, "?");
         }
 
         // now prepare the statement using the correct number of bind variables
@@ -560,6 +710,20 @@ public class TableQueries {
                     }
                     statement.setInt(count, int_value);
                     count++;
+                } else if (PREFIX_NUMBER.equals(tokenParts[0])) {
+                    try {
+                        statement.setDouble(count, Double.parseDouble(objValue.toString()));
+                    } catch (NumberFormatException e) {
+                        throw new BadRequestException("Invalid number " + objValue + " for token " + tokenName);
+                    }
+                    count++;
+                } else if (PREFIX_TIMESTAMP.equals(tokenParts[0])) {
+                    Timestamp timestamp = parseTimestamp(objValue.toString());
+                    if (timestamp == null) {
+                        throw new BadRequestException("Invalid timestamp " + objValue + " for token " + tokenName);
+                    }
+                    statement.setTimestamp(count, timestamp, utcCalendar());
+                    count++;
                 } else if (PREFIX_LIST.equals(tokenParts[0])) {
                     // handle list of values - presently assumes Strings, TODO support integer lists
                     if (objValue != null) {
@@ -584,6 +748,27 @@ public class TableQueries {
         return statement;
     }
 
+    /**
+     * Parses an ISO 8601 date and time, as stored in the typed timestamp column of generic tables.
+     *
+     * @param value the date and time, with or without milliseconds and offset; UTC is assumed without offset
+     * @return the timestamp, or null if the value is not an ISO 8601 date and time
+     */
+    public static Timestamp parseTimestamp(String value) {
+        try {
+            return new Timestamp(TIMESTAMP_PARSER.parseMillis(value));
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return a calendar in UTC, to store and compare timestamps independently of the JVM and database time zone
+     */
+    public static Calendar utcCalendar() {
+        return Calendar.getInstance(UTC);
+    }
+
     /**
      * Set the pre-configured queries/commands for generic tables, which are identified
      * by a query identifier and can be invoked using this identifier
@@ -74,6 +74,38 @@ public class GenericTableConfigTest {
 
     }
 
+    @Test
+    public void testTypedProperties() throws Exception {
+
+        String cfgStr = 
+            "    {" + 
+            "        'mainTable' : 'managedobjects'," + 
+            "        'propertiesTable' : 'managedobjectproperties'," +
+            "        'typedProperties' : true," + 
+            "        'properties' : {" + 
+            "            '/sunset/date' : {" + 
+            "                'searchable' : true," +
+            "                'type' : 'timestamp'" +
+            "            }," + 
+            "            '/dates' : {" + 
+            "                'type' : 'timestamp'" + 
+            "            }" + 
+            "        }" + 
+            "    }";
+
+        GenericTableConfig tableCfg = GenericTableConfig.parse(parseJson(cfgStr));
+
+        Assert.assertTrue(tableCfg.typedProperties);
+        Assert.assertTrue(tableCfg.isTimestamp(new JsonPointer("/sunset/date")));
+        Assert.assertTrue(tableCfg.isTimestamp(new JsonPointer("/dates/1")));
+        Assert.assertFalse(tableCfg.isTimestamp(new JsonPointer("/sunset")));
+        // declaring a type only leaves the searchable default in place
+        Assert.assertTrue(tableCfg.isSearchable(new JsonPointer("/dates/1")));
+
+        Assert.assertFalse(GenericTableConfig.parse(parseJson(
+                "{ 'mainTable' : 'genericobjects', 'propertiesTable' : 'genericobjectproperties' }")).typedProperties);
+    }
+
     private JsonValue parseJson(String json) throws IOException {
         ObjectMapper mapper = new ObjectMapper();
         mapper.configure(JsonParser.Feature.ALLOW_SINGLE_QUOTES, true);
@@ -0,0 +1,94 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.repo.jdbc.impl.query;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.object;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.resource.BadRequestException;
+import org.forgerock.json.resource.SortKey;
+import org.forgerock.util.query.QueryFilter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of KeysetPagingCookie
+ */
+public class KeysetPagingCookieTest {
+
+    private static final List<SortKey> SORT_BY_SN = Arrays.asList(SortKey.valueOf("-sn"));
+
+    @Test
+    public void testFirstPageAppendsIdSortKey() {
+        KeysetPagingCookie cookie = KeysetPagingCookie.first(SORT_BY_SN);
+        Assert.assertEquals(cookie.getSortKeys().size(), 2);
+        Assert.assertEquals(cookie.getSortKeys().get(1).toString(), "+/_id");
+        Assert.assertEquals(cookie.getOffset(), 0);
+
+        QueryFilter<JsonPointer> filter = QueryFilter.alwaysTrue();
+        Assert.assertSame(cookie.seek(filter), filter);
+    }
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        Map<String, Object> last = object(field("_id", "user2"), field("sn", "Smith"));
+        String encoded = KeysetPagingCookie.first(SORT_BY_SN).next(last, 10).toString();
+        Assert.assertTrue(KeysetPagingCookie.isKeysetCookie(encoded));
+        Assert.assertFalse(KeysetPagingCookie.isKeysetCookie("20"));
+
+        KeysetPagingCookie cookie = KeysetPagingCookie.parse(encoded, SORT_BY_SN);
+        Assert.assertEquals(cookie.getOffset(), 0);
+        String seek = cookie.seek(QueryFilter.<JsonPointer>alwaysTrue()).toString();
+        Assert.assertTrue(seek.contains("/sn lt \"Smith\""), seek);
+        Assert.assertTrue(seek.contains("/sn eq \"Smith\""), seek);
+        Assert.assertTrue(seek.contains("/_id gt \"user2\""), seek);
+    }
+
+    @Test
+    public void testMissingSortValueFallsBackToOffset() throws Exception {
+        Map<String, Object> last = object(field("_id", "user2"));
+        KeysetPagingCookie first = KeysetPagingCookie.first(SORT_BY_SN);
+        KeysetPagingCookie second = KeysetPagingCookie.parse(first.next(last, 10).toString(), SORT_BY_SN);
+        Assert.assertEquals(second.getOffset(), 10);
+        Assert.assertEquals(second.next(last, 10).getOffset(), 20);
+    }
+
+    @Test
+    public void testOnlyIdSortKeysAreSupported() {
+        Assert.assertTrue(KeysetPagingCookie.isSupported(null));
+        Assert.assertTrue(KeysetPagingCookie.isSupported(Arrays.asList(SortKey.valueOf("-_id"))));
+        Assert.assertFalse(KeysetPagingCookie.isSupported(SORT_BY_SN));
+        Assert.assertFalse(KeysetPagingCookie.isSupported(
+                Arrays.asList(SortKey.valueOf("_id"), SortKey.valueOf("sn"))));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testSortKeyMismatch() throws Exception {
+        Map<String, Object> last = object(field("_id", "user2"), field("sn", "Smith"));
+        String encoded = KeysetPagingCookie.first(SORT_BY_SN).next(last, 10).toString();
+        KeysetPagingCookie.parse(encoded, Arrays.asList(SortKey.valueOf("sn")));
+    }
+
+    @Test(expectedExceptions = BadRequestException.class)
+    public void testInvalidCookie() throws Exception {
+        KeysetPagingCookie.parse("k:not-a-cookie", SORT_BY_SN);
+    }
+}
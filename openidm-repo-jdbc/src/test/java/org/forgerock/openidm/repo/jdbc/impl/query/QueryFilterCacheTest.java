@@ -0,0 +1,170 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.repo.jdbc.impl.query;
+
+import static org.forgerock.openidm.repo.QueryConstants.PAGED_RESULTS_OFFSET;
+import static org.forgerock.openidm.repo.QueryConstants.PAGE_SIZE;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.resource.QueryFilters;
+import org.forgerock.openidm.core.ServerConstants;
+import org.forgerock.openidm.repo.util.StringSQLQueryFilterVisitor;
+import org.forgerock.openidm.repo.util.StringSQLRenderer;
+import org.forgerock.util.query.QueryFilter;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of QueryFilterCache
+ */
+public class QueryFilterCacheTest {
+
+    /**
+     * Renders filters like the explicit table handlers, passing values as replacement tokens.
+     */
+    private static String render(QueryFilter<JsonPointer> filter, Map<String, Object> tokens) {
+        return "SELECT * FROM t WHERE " + filter.accept(new StringSQLQueryFilterVisitor<Map<String, Object>>() {
+            int objectNumber = 0;
+
+            @Override
+            public StringSQLRenderer visitValueAssertion(Map<String, Object> objects, String operand,
+                    JsonPointer field, Object valueAssertion) {
+                String value = "v" + ++objectNumber;
+                objects.put(value, valueAssertion);
+                return new StringSQLRenderer(field.leaf() + " " + operand + " ${" + value + "}");
+            }
+
+            @Override
+            public StringSQLRenderer visitPresentFilter(Map<String, Object> objects, JsonPointer field) {
+                return new StringSQLRenderer(field.leaf() + " IS NOT NULL");
+            }
+        }, tokens).toSQL();
+    }
+
+    private static Map<String, Object> params(String resource) {
+        return params(resource, "0");
+    }
+
+    private static Map<String, Object> params(String resource, String offset) {
+        Map<String, Object> params = new HashMap<String, Object>();
+        params.put(ServerConstants.RESOURCE_NAME, resource);
+        params.put(PAGED_RESULTS_OFFSET, offset);
+        params.put(PAGE_SIZE, "10");
+        return params;
+    }
+
+    private static QueryFilterCache.CompiledQuery compile(QueryFilterCache.Shape shape) {
+        Map<String, Object> markerTokens = new LinkedHashMap<String, Object>();
+        String sql = render(shape.getMarkerFilter(), markerTokens);
+        return shape.compile(new QueryInfo(sql, new ArrayList<String>()), markerTokens);
+    }
+
+    @Test
+    public void testShape() {
+        QueryFilterCache.Shape smith = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Smith\" and age gt 30"), params("managed/user"));
+        QueryFilterCache.Shape jones = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Jones\" and age gt 40"), params("managed/user"));
+        QueryFilterCache cache = new QueryFilterCache(10);
+        cache.put(smith, compile(smith));
+
+        Assert.assertNotNull(cache.get(jones));
+        Assert.assertNull(cache.get(QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Jones\" and age gt \"40\""), params("managed/user"))));
+        Assert.assertNull(cache.get(QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Jones\" or age gt 40"), params("managed/user"))));
+        Assert.assertNull(cache.get(QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Jones\" and age gt 40"), params("managed/role"))));
+        Assert.assertEquals(cache.getHits(), 1);
+        Assert.assertEquals(cache.getMisses(), 3);
+    }
+
+    @Test
+    public void testPagesShareShape() {
+        QueryFilterCache.Shape first = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Smith\""), params("managed/user", "0"));
+        QueryFilterCache.Shape next = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Smith\""), params("managed/user", "10"));
+        QueryFilterCache cache = new QueryFilterCache(10);
+        cache.put(first, compile(first));
+
+        // the offset of the page is bound as a parameter
+        Assert.assertNotNull(cache.get(next));
+        Assert.assertEquals(cache.getHits(), 1);
+    }
+
+    @Test
+    public void testBindReproducesRendering() {
+        QueryFilterCache.Shape first = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn co \"mit\" and (age ge 30 or active eq true) and mail pr"),
+                params("managed/user"));
+        QueryFilterCache.CompiledQuery compiled = compile(first);
+        Assert.assertTrue(compiled.isCacheable());
+
+        QueryFilter<JsonPointer> filter =
+                QueryFilters.parse("sn co \"ones\" and (age ge 45 or active eq true) and mail pr");
+        Map<String, Object> rendered = new LinkedHashMap<String, Object>();
+        String sql = render(filter, rendered);
+        Assert.assertEquals(compiled.getQueryInfo().getQueryString(), sql);
+        Assert.assertEquals(compiled.bind(QueryFilterCache.shapeOf(filter, params("managed/user")), 0), rendered);
+        Assert.assertEquals(rendered.get("v1"), "%ones%");
+    }
+
+    @Test
+    public void testBindTrimsStrings() {
+        QueryFilter<JsonPointer> filter = QueryFilters.parse("sn sw \"Smithson\"");
+        QueryFilterCache.Shape shape = QueryFilterCache.shapeOf(filter, params("managed/user"));
+        Map<String, Object> tokens = compile(shape).bind(shape, 5);
+        Assert.assertEquals(tokens.get("v1"), "Smith%");
+    }
+
+    @Test
+    public void testInlinedValuesAreNotCacheable() {
+        QueryFilterCache.Shape shape = QueryFilterCache.shapeOf(
+                QueryFilters.parse("sn eq \"Smith\""), params("managed/user"));
+        shape.getMarkerFilter();
+        // A rendering with the marker of the value inlined
+        String sql = "SELECT * FROM t WHERE sn = '\u00000\u0000'";
+        Assert.assertNull(shape.compile(new QueryInfo(sql, new ArrayList<String>()),
+                new LinkedHashMap<String, Object>()));
+
+        QueryFilterCache cache = new QueryFilterCache(10);
+        cache.put(shape, null);
+        QueryFilterCache.CompiledQuery cached = cache.get(shape);
+        Assert.assertFalse(cached.isCacheable());
+        Assert.assertEquals(cache.getMisses(), 1);
+    }
+
+    @Test
+    public void testLeastRecentlyUsedShapesAreEvicted() {
+        QueryFilterCache cache = new QueryFilterCache(2);
+        QueryFilterCache.Shape sn = QueryFilterCache.shapeOf(QueryFilters.parse("sn eq \"a\""), params("t"));
+        QueryFilterCache.Shape cn = QueryFilterCache.shapeOf(QueryFilters.parse("cn eq \"a\""), params("t"));
+        QueryFilterCache.Shape mail = QueryFilterCache.shapeOf(QueryFilters.parse("mail eq \"a\""), params("t"));
+        cache.put(sn, compile(sn));
+        cache.put(cn, compile(cn));
+        Assert.assertNotNull(cache.get(sn));
+        cache.put(mail, compile(mail));
+        Assert.assertEquals(cache.size(), 2);
+        Assert.assertNotNull(cache.get(sn));
+        Assert.assertNull(cache.get(cn));
+    }
+}
@@ -133,4 +133,10 @@ public final class QueryConstants {
      * The clause at the end of the query expressing that provides paging details.
      */
     public static final String PAGE_CLAUSE = "pageClause";
+
+    /**
+     * Number of result records the database driver should fetch per round trip when
+     * reading the results of a query, as an Integer. Not set or 0 uses the driver default.
+     */
+    public static final String FETCH_SIZE = "_fetchSize";
 }
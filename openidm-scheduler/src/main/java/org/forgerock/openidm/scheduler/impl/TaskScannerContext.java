@@ -199,6 +199,27 @@ public class TaskScannerContext {
         return numParams.asInteger();
     }
 
+    /**
+     * Returns the number of objects to query at a time, or 0 to query all objects with a single query.
+     * Paging requires a query that supports paged results, and that excludes the objects whose task
+     * completed: as claimed objects leave the results, each page is queried from the first object,
+     * until a page is not full or none of its objects could be claimed.
+     *
+     * @return the page size of the query
+     */
+    public int getPageSize() {
+        return params.get("pageSize").defaultTo(0).asInteger();
+    }
+
+    /**
+     * Returns the number of objects claimed together by a thread before executing their tasks.
+     *
+     * @return the claim batch size
+     */
+    public int getClaimBatchSize() {
+        return Math.max(1, params.get("claimBatchSize").defaultTo(10).asInteger());
+    }
+
     public TaskScannerStatistic getStatistics() {
         return this.statistics;
     }
@@ -210,6 +231,9 @@ public class TaskScannerContext {
         progress.put("total", statistics.getNumberOfTasksToProcess());
         progress.put("successes", statistics.getNumberOfTasksSucceeded());
         progress.put("failures", statistics.getNumberOfTasksFailed());
+        progress.put("skipped", statistics.getNumberOfTasksSkipped());
+        progress.put("pages", statistics.getNumberOfPagesFetched());
+        progress.put("throughput", statistics.getThroughput());
         return progress;
     }
 
@@ -20,10 +20,10 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
-import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.script.ScriptException;
 
@@ -57,6 +57,9 @@ public class TaskScannerJob {
     private ConnectionFactory connectionFactory;
     private TaskScannerContext taskScannerContext;
 
+    /** The number of objects claimed by this job */
+    private final AtomicInteger claimedTasks = new AtomicInteger();
+
     public TaskScannerJob(ConnectionFactory connectionFactory, TaskScannerContext context)
             throws ExecutionException {
         this.connectionFactory = connectionFactory;
@@ -71,7 +74,8 @@ public class TaskScannerJob {
      */
     public String startTask() throws ExecutionException {
         int numberOfThreads = taskScannerContext.getNumberOfThreads();
-        final ExecutorService executor = Executors.newFixedThreadPool(numberOfThreads);
+        // A work-stealing pool, so that threads done with their batches take over queued ones
+        final ExecutorService executor = new ForkJoinPool(numberOfThreads);
         
         if (taskScannerContext.getWaitForCompletion()) {
             try {
@@ -104,7 +108,9 @@ public class TaskScannerJob {
 
     /**
      * Performs the task associated with the task scanner event.
-     * Runs the query and executes the script across each resulting object.
+     * Runs the query and executes the script across each resulting object. The query results are not
+     * collected: they are fed to the executor in batches as they are returned, and the query waits while
+     * the executor has as many batches queued as it has threads.
      *
      * @param executor ExecutorService in which to invoke this task.
      * @throws ExecutionException
@@ -115,44 +121,23 @@ public class TaskScannerJob {
         logger.info("Task {} started from {} with script {}",
                 new Object[] { taskScannerContext.getTaskScanID(), taskScannerContext.getInvokerName(), taskScannerContext.getScriptName() });
 
-        JsonValue results;
+        int maxQueuedBatches = taskScannerContext.getNumberOfThreads() * 2;
+        Semaphore queuedBatches = new Semaphore(maxQueuedBatches);
+        BatchFeeder feeder = new BatchFeeder(executor, queuedBatches, maxQueuedBatches);
         taskScannerContext.startQuery();
         try {
-            results = fetchAllObjects();
+            queryObjects(feeder);
+            feeder.flush();
+            taskScannerContext.endQuery();
+            logger.debug("TaskScan {} query results: {}", taskScannerContext.getInvokerName(),
+                    taskScannerContext.getStatistics().getNumberOfTasksToProcess());
+            if (feeder.isInterrupted()) {
+                throw new InterruptedException();
+            }
+            // Wait for the queued batches to complete
+            queuedBatches.acquire(maxQueuedBatches);
         } catch (ResourceException e1) {
             throw new ExecutionException("Error during query", e1);
-        }
-        taskScannerContext.endQuery();
-        Integer maxRecords = taskScannerContext.getMaxRecords();
-        if (maxRecords == null) {
-            taskScannerContext.setNumberOfTasksToProcess(results.size());
-        } else {
-            taskScannerContext.setNumberOfTasksToProcess(Math.min(results.size(), maxRecords));
-        }
-        logger.debug("TaskScan {} query results: {}", taskScannerContext.getInvokerName(), results.size());
-        // TODO jump out early if it's empty?
-
-        // Split and prune the result set according to our max and if we're synchronous or not
-        List<JsonValue> resultSets = splitResultsOverThreads(results, taskScannerContext.getNumberOfThreads(), maxRecords);
-        logger.debug("Split result set into {} units", resultSets.size());
-
-        List<Callable<Object>> todo = new ArrayList<Callable<Object>>();
-        for (final JsonValue result : resultSets) {
-            Runnable command = new Runnable() {
-                @Override
-                public void run() {
-                    try {
-                        performTaskOverSet(result);
-                    } catch (Exception ex) {
-                        logger.warn("Taskscanner failed with unexpected exception", ex);
-                    }
-                }
-            };
-            todo.add(Executors.callable(command));
-        }
-
-        try {
-            executor.invokeAll(todo);
         } catch (InterruptedException e) {
             // Mark it interrupted
             taskScannerContext.interrupted();
@@ -171,35 +156,122 @@ public class TaskScannerJob {
         });
     }
 
-    private List<JsonValue> splitResultsOverThreads(JsonValue results, int numberOfThreads, Integer max) {
-        List<List<Object>> resultSets = new ArrayList<List<Object>>();
-        for (int i = 0; i < numberOfThreads; i++) {
-            resultSets.add(new ArrayList<Object>());
+    /**
+     * Collects query results into batches and queues each full batch to the executor, waiting while the
+     * executor has as many batches queued as it may have.
+     */
+    private final class BatchFeeder implements QueryResourceHandler {
+        private final ExecutorService executor;
+        private final Semaphore queuedBatches;
+        private final int maxQueuedBatches;
+        private final int batchSize = taskScannerContext.getClaimBatchSize();
+        private final Integer maxRecords = taskScannerContext.getMaxRecords();
+        private List<JsonValue> batch = new ArrayList<JsonValue>();
+        private int fed = 0;
+        private int fedInPage = 0;
+        private boolean interrupted = false;
+
+        BatchFeeder(ExecutorService executor, Semaphore queuedBatches, int maxQueuedBatches) {
+            this.executor = executor;
+            this.queuedBatches = queuedBatches;
+            this.maxQueuedBatches = maxQueuedBatches;
         }
 
-        int i = 0;
-        for (JsonValue obj : results) {
-            if (max != null && i >= max) {
-                break;
+        @Override
+        public boolean handleResource(ResourceResponse resource) {
+            if (isStopped()) {
+                return false;
             }
-            resultSets.get(i % numberOfThreads).add(obj.getObject());
-            i++;
+            fed++;
+            fedInPage++;
+            taskScannerContext.getStatistics().taskQueued();
+            batch.add(resource.getContent());
+            return batch.size() < batchSize || flush();
+        }
+
+        /**
+         * Returns whether no more objects should be fed, as the task was canceled, the maximum number of
+         * records was reached or the feeding thread was interrupted.
+         */
+        boolean isStopped() {
+            return interrupted || taskScannerContext.isCanceled() || (maxRecords != null && fed >= maxRecords);
         }
 
-        List<JsonValue> jsonSets = new ArrayList<JsonValue>();
-        for (List<Object> set : resultSets) {
-            jsonSets.add(new JsonValue(set));
+        boolean isInterrupted() {
+            return interrupted;
         }
 
-        return jsonSets;
+        /**
+         * Queues the current batch, and waits for all queued batches to complete.
+         *
+         * @return the number of objects fed since the last call, or -1 if interrupted
+         */
+        int completePage() {
+            if (!flush()) {
+                return -1;
+            }
+            try {
+                queuedBatches.acquire(maxQueuedBatches);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                return -1;
+            }
+            queuedBatches.release(maxQueuedBatches);
+            int page = fedInPage;
+            fedInPage = 0;
+            return page;
+        }
+
+        /**
+         * Queues the current batch, if not empty, to the executor.
+         *
+         * @return false if interrupted while waiting to queue the batch
+         */
+        boolean flush() {
+            if (batch.isEmpty()) {
+                return true;
+            }
+            final List<JsonValue> claims = batch;
+            batch = new ArrayList<JsonValue>();
+            try {
+                queuedBatches.acquire();
+            } catch (InterruptedException e) {
+                interrupted = true;
+                return false;
+            }
+            try {
+                executor.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            performTaskOverBatch(claims);
+                        } catch (Exception ex) {
+                            logger.warn("Taskscanner failed with unexpected exception", ex);
+                        } finally {
+                            queuedBatches.release();
+                        }
+                    }
+                });
+            } catch (RuntimeException e) {
+                queuedBatches.release();
+                throw e;
+            }
+            return true;
+        }
     }
 
-    private void performTaskOverSet(JsonValue results)
-                    throws ExecutionException {
-        for (JsonValue input : results) {
+    /**
+     * Claims the objects of a batch that are not claimed yet, or whose claim has expired, then executes the
+     * script over each claimed object.
+     *
+     * @param batch the objects returned by the query
+     */
+    private void performTaskOverBatch(List<JsonValue> batch) {
+        List<JsonValue> claimed = new ArrayList<JsonValue>(batch.size());
+        for (JsonValue input : batch) {
             if (taskScannerContext.isCanceled()) {
                 logger.info("Task '" + taskScannerContext.getTaskScanID() + "' cancelled. Terminating execution.");
-                break; // Jump out quick since we've cancelled the job
+                return; // Jump out quick since we've cancelled the job
             }
             // Check if this object has a STARTED time already
             JsonValue startTime = input.get(taskScannerContext.getStartField());
@@ -217,49 +289,76 @@ public class TaskScannerJob {
                             DATE_UTIL.formatDateTime(startedTime),
                             period,
                             DATE_UTIL.formatDateTime(expirationDate)});
+                    taskScannerContext.getStatistics().taskSkipped();
                     continue;
                 }
             }
 
             try {
-                claimAndExecScript(input, startTimeString);
+                JsonValue claim = claimTask(input, startTimeString);
+                if (claim != null) {
+                    claimedTasks.incrementAndGet();
+                    claimed.add(claim);
+                } else {
+                    taskScannerContext.getStatistics().taskSkipped();
+                }
+            } catch (ResourceException e) {
+                logger.warn("Task '{}' failed to claim {}", new Object[] { taskScannerContext.getTaskScanID(),
+                        input.get("_id").asString(), e });
+                taskScannerContext.getStatistics().taskFailed();
+            }
+        }
+
+        for (JsonValue input : claimed) {
+            if (taskScannerContext.isCanceled()) {
+                logger.info("Task '" + taskScannerContext.getTaskScanID() + "' cancelled. Terminating execution.");
+                return;
+            }
+            try {
+                execScript(input);
+            } catch (ExecutionException e) {
+                logger.warn(e.getMessage(), e);
             } catch (ResourceException e) {
-                throw new ExecutionException("Error during claim and execution phase", e);
+                logger.warn("Task '{}' failed to complete {}", new Object[] { taskScannerContext.getTaskScanID(),
+                        input.get("_id").asString(), e });
+                taskScannerContext.getStatistics().taskFailed();
             }
         }
     }
 
     /**
-     * Flatten a list of parameters and perform a query to fetch all objects from storage.
+     * Flatten a list of parameters and perform a query that feeds the objects to a handler, a page at a
+     * time if a page size is configured.
+     * <p>
+     * Claiming an object updates it, which usually removes it from the results of the scan query, so the
+     * offset of the next page would skip as many objects as were claimed. Paged scans therefore always
+     * query the first page, once the objects of the previous one are done, until a page is not full or
+     * none of its objects could be claimed; the objects left, such as those whose claim has not expired,
+     * are picked up by the next scan. This requires the scan query to exclude the objects it completed.
      *
-     * @return JsonValue containing a list of all the retrieved objects
+     * @param handler the handler of the objects
      * @throws ResourceException
      */
-    private JsonValue fetchAllObjects() throws ResourceException {
+    private void queryObjects(BatchFeeder handler) throws ResourceException {
         JsonValue flatParams = flattenJson(taskScannerContext.getScanValue());
         ConfigMacroUtil.expand(flatParams);
-        return performQuery(taskScannerContext.getObjectID(), flatParams);
-    }
-
-    /**
-     * Performs a query on a resource and returns the result set
-     * @param resourceID the identifier of the resource to query
-     * @param params parameters to supply to the query
-     * @return the set of results from the performed query
-     * @throws ResourceException
-     */
-    private JsonValue performQuery(String resourceID, JsonValue params) throws ResourceException {
-        final JsonValue queryResults = new JsonValue(new ArrayList<Map<String, Object>>());;
-
-        QueryRequest request = RequestUtil.buildQueryRequestFromParameterMap(resourceID, params.asMap());
-        connectionFactory.getConnection().query(taskScannerContext.getContext(), request, new QueryResourceHandler() {
-            @Override
-            public boolean handleResource(ResourceResponse resource) {
-                queryResults.add(resource.getContent().getObject());
-                return true;
-            }
-        });
-        return queryResults;
+        QueryRequest request = RequestUtil.buildQueryRequestFromParameterMap(
+                taskScannerContext.getObjectID(), flatParams.asMap());
+        int pageSize = taskScannerContext.getPageSize();
+        if (pageSize <= 0) {
+            connectionFactory.getConnection().query(taskScannerContext.getContext(), request, handler);
+            taskScannerContext.getStatistics().pageFetched();
+            return;
+        }
+        request.setPageSize(pageSize);
+        int claimedBefore;
+        int fedInPage;
+        do {
+            claimedBefore = claimedTasks.get();
+            connectionFactory.getConnection().query(taskScannerContext.getContext(), request, handler);
+            taskScannerContext.getStatistics().pageFetched();
+            fedInPage = handler.completePage();
+        } while (fedInPage >= pageSize && claimedTasks.get() > claimedBefore && !handler.isStopped());
     }
 
     /**
@@ -291,21 +390,25 @@ public class TaskScannerJob {
     }
 
     /**
-     * Performs an update on a given resource with a supplied JsonValue
+     * Performs an update on a given resource with a supplied JsonValue, conditional on the revision of
+     * the value.
      * @param resourceID the resource identifier to perform the update on
      * @param value the object to update with
-     * @return the updated object
+     * @return the updated object, as returned by the update
      * @throws ResourceException
      */
     private JsonValue performUpdate(String resourceID, JsonValue value) throws ResourceException {
-        String id = value.get("_id").required().asString();
         String fullID = retrieveFullID(resourceID, value);
         String rev = value.get("_rev").required().asString();
         UpdateRequest updateRequest = Requests.newUpdateRequest(fullID, value);
         updateRequest.setRevision(rev);
 
-        connectionFactory.getConnection().update(taskScannerContext.getContext(), updateRequest);
-        return retrieveObject(resourceID, id);
+        ResourceResponse response =
+                connectionFactory.getConnection().update(taskScannerContext.getContext(), updateRequest);
+        JsonValue updated = response.getContent();
+        updated.put("_id", response.getId());
+        updated.put("_rev", response.getRevision());
+        return updated;
     }
 
     /**
@@ -352,11 +455,17 @@ public class TaskScannerJob {
         return performRead(retrieveFullID(resourceID, id));
     }
 
-    private void claimAndExecScript(JsonValue input, String expectedStartDateStr)
-            throws ExecutionException, ResourceException {
+    /**
+     * Claims the task of an object by setting its started field and clearing its completed field with a
+     * single update, conditional on the revision the object was read with.
+     *
+     * @param input the object as returned by the query
+     * @param expectedStartDateStr the started field of the object as returned by the query
+     * @return the claimed object, or null if the task was claimed by someone else
+     * @throws ResourceException
+     */
+    private JsonValue claimTask(JsonValue input, String expectedStartDateStr) throws ResourceException {
         String id = input.get("_id").required().asString();
-        boolean claimedTask = false;
-        boolean retryClaimTask = false;
 
         JsonPointer startField = taskScannerContext.getStartField();
         JsonPointer completedField = taskScannerContext.getCompletedField();
@@ -365,29 +474,29 @@ public class TaskScannerJob {
         JsonValue _input = input;
         do {
             try {
-                retryClaimTask = false;
-                _input = updateValueWithObject(resourceID, _input, startField, DATE_UTIL.now());
-                _input = updateValueWithObject(resourceID, _input, completedField, null);
+                ensureJsonPointerExists(startField, _input);
+                _input.put(startField, DATE_UTIL.now());
+                ensureJsonPointerExists(completedField, _input);
+                _input.put(completedField, null);
+                _input = performUpdate(resourceID, _input);
                 logger.debug("Claimed task and updated StartField: {}", _input);
-                claimedTask = true;
+                return _input;
             } catch (PreconditionFailedException ex) {
-                    // If the object changed since we queried, get the latest
-                    // and check if it's still in a state we want to process the task.
-                    _input = retrieveObject(resourceID, id);
-                    String currentStartDateStr = (_input.get(startField) == null)  ? null : _input.get(startField).asString();
-                    String currentCompletedDateStr = (_input.get(completedField) == null)  ? null : _input.get(completedField).asString();
-                    if (currentCompletedDateStr == null && (currentStartDateStr == null || currentStartDateStr.equals(expectedStartDateStr))) {
-                        retryClaimTask = true;
-                    } else {
-                        // Someone else managed to update the started field first,
-                        // claimed the task. Do not execute it here this run.
-                        logger.debug("Task for {} {} was already claimed, ignore.", resourceID, id);
-                    }
+                // If the object changed since we queried, get the latest
+                // and check if it's still in a state we want to process the task.
+                _input = retrieveObject(resourceID, id);
+                String currentStartDateStr = (_input.get(startField) == null)  ? null : _input.get(startField).asString();
+                String currentCompletedDateStr = (_input.get(completedField) == null)  ? null : _input.get(completedField).asString();
+                if (currentCompletedDateStr != null
+                        || (currentStartDateStr != null && !currentStartDateStr.equals(expectedStartDateStr))) {
+                    // Someone else managed to update the started field first,
+                    // claimed the task. Do not execute it here this run.
+                    logger.debug("Task for {} {} was already claimed, ignore.", resourceID, id);
+                    return null;
+                }
             }
-        } while (retryClaimTask && !taskScannerContext.isCanceled());
-        if (claimedTask) {
-            execScript(_input);
-        }
+        } while (!taskScannerContext.isCanceled());
+        return null;
     }
 
     /**
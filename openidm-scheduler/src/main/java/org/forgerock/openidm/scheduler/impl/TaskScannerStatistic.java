@@ -27,19 +27,24 @@ import java.util.concurrent.atomic.AtomicInteger;
 
 public class TaskScannerStatistic {
 
-    private long jobStartTime;
-    private long jobEndTime;
-    private long queryStartTime;
-    private long queryEndTime;
-    private int numberToProcess = 0;
+    private volatile long jobStartTime;
+    private volatile long jobEndTime;
+    private volatile long queryStartTime;
+    private volatile long queryEndTime;
 
     // Note: These should be the only ones used during the thread executions
+    private AtomicInteger numberToProcess;
     private AtomicInteger numSuccessful;
     private AtomicInteger numFailed;
+    private AtomicInteger numSkipped;
+    private AtomicInteger numPages;
 
     public TaskScannerStatistic() {
+        numberToProcess = new AtomicInteger(0);
         numSuccessful = new AtomicInteger(0);
         numFailed = new AtomicInteger(0);
+        numSkipped = new AtomicInteger(0);
+        numPages = new AtomicInteger(0);
     }
 
     public void jobStart() {
@@ -82,6 +87,27 @@ public class TaskScannerStatistic {
         numFailed.incrementAndGet();
     }
 
+    /**
+     * Counts an object returned by the query and queued for processing.
+     */
+    public void taskQueued() {
+        numberToProcess.incrementAndGet();
+    }
+
+    /**
+     * Counts an object that was not processed as its task was already claimed.
+     */
+    public void taskSkipped() {
+        numSkipped.incrementAndGet();
+    }
+
+    /**
+     * Counts a page of query results.
+     */
+    public void pageFetched() {
+        numPages.incrementAndGet();
+    }
+
     public int getNumberOfTasksProcessed() {
         return numSuccessful.get() + numFailed.get();
     }
@@ -94,15 +120,37 @@ public class TaskScannerStatistic {
         return numFailed.get();
     }
 
+    public int getNumberOfTasksSkipped() {
+        return numSkipped.get();
+    }
+
+    public int getNumberOfPagesFetched() {
+        return numPages.get();
+    }
+
+    /**
+     * Returns the number of objects returned by the query so far; the total once the query completed.
+     */
     public int getNumberOfTasksToProcess() {
-        return numberToProcess;
+        return numberToProcess.get();
     }
 
     public int getNumberOfTasksRemaining() {
-        return numberToProcess - getNumberOfTasksProcessed();
+        return getNumberOfTasksToProcess() - getNumberOfTasksProcessed() - getNumberOfTasksSkipped();
     }
 
     public void setNumberOfTasksToProcess(int numberToProcess) {
-        this.numberToProcess = numberToProcess;
+        this.numberToProcess.set(numberToProcess);
+    }
+
+    /**
+     * Returns the number of tasks processed per second since the job started, until it ended.
+     */
+    public double getThroughput() {
+        if (jobStartTime == 0) {
+            return 0;
+        }
+        long end = jobEndTime >= jobStartTime ? jobEndTime : System.currentTimeMillis();
+        return getNumberOfTasksProcessed() * 1000d / Math.max(1, end - jobStartTime);
     }
 }
@@ -0,0 +1,250 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.scheduler.impl;
+
+import static org.fest.assertions.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+import static org.forgerock.json.resource.Responses.newQueryResponse;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.Connection;
+import org.forgerock.json.resource.ConnectionFactory;
+import org.forgerock.json.resource.PreconditionFailedException;
+import org.forgerock.json.resource.QueryRequest;
+import org.forgerock.json.resource.QueryResourceHandler;
+import org.forgerock.json.resource.QueryResponse;
+import org.forgerock.json.resource.ReadRequest;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.json.resource.UpdateRequest;
+import org.forgerock.openidm.util.DateUtil;
+import org.forgerock.script.Script;
+import org.forgerock.script.ScriptEntry;
+import org.forgerock.services.context.Context;
+import org.forgerock.services.context.RootContext;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests the streaming task scan of {@link TaskScannerJob} against an in-memory collection.
+ */
+public class TaskScannerJobTest {
+
+    private static final JsonPointer STARTED = new JsonPointer("/task/started");
+    private static final JsonPointer COMPLETED = new JsonPointer("/task/completed");
+
+    /** The objects of the scanned collection by id, guarded by itself */
+    private final Map<String, JsonValue> objects = new LinkedHashMap<String, JsonValue>();
+    private ConnectionFactory connectionFactory;
+    private ScriptEntry scriptEntry;
+
+    @BeforeMethod
+    public void setUp() throws Exception {
+        objects.clear();
+        for (int i = 0; i < 25; i++) {
+            objects.put("user" + i, json(object(field("_id", "user" + i), field("_rev", "0"))));
+        }
+
+        Connection connection = mock(Connection.class);
+        connectionFactory = mock(ConnectionFactory.class);
+        when(connectionFactory.getConnection()).thenReturn(connection);
+        when(connection.query(any(Context.class), any(QueryRequest.class), any(QueryResourceHandler.class)))
+                .thenAnswer(new Answer<QueryResponse>() {
+                    @Override
+                    public QueryResponse answer(InvocationOnMock invocation) throws Throwable {
+                        // an offset paged query of the objects whose task has not completed
+                        QueryRequest request = (QueryRequest) invocation.getArguments()[1];
+                        QueryResourceHandler handler = (QueryResourceHandler) invocation.getArguments()[2];
+                        List<ResourceResponse> resources = snapshot();
+                        int offset = request.getPagedResultsCookie() == null
+                                ? 0 : Integer.parseInt(request.getPagedResultsCookie());
+                        int end = request.getPageSize() > 0
+                                ? Math.min(resources.size(), offset + request.getPageSize()) : resources.size();
+                        for (ResourceResponse resource : resources.subList(Math.min(offset, end), end)) {
+                            if (!handler.handleResource(resource)) {
+                                break;
+                            }
+                        }
+                        return end < resources.size()
+                                ? newQueryResponse(String.valueOf(end))
+                                : newQueryResponse();
+                    }
+                });
+        when(connection.read(any(Context.class), any(ReadRequest.class))).thenAnswer(new Answer<ResourceResponse>() {
+            @Override
+            public ResourceResponse answer(InvocationOnMock invocation) throws Throwable {
+                ReadRequest request = (ReadRequest) invocation.getArguments()[1];
+                synchronized (objects) {
+                    return toResource(objects.get(request.getResourcePathObject().leaf()));
+                }
+            }
+        });
+        when(connection.update(any(Context.class), any(UpdateRequest.class))).thenAnswer(
+                new Answer<ResourceResponse>() {
+                    @Override
+                    public ResourceResponse answer(InvocationOnMock invocation) throws Throwable {
+                        UpdateRequest request = (UpdateRequest) invocation.getArguments()[1];
+                        String id = request.getResourcePathObject().leaf();
+                        synchronized (objects) {
+                            JsonValue current = objects.get(id);
+                            if (!current.get("_rev").asString().equals(request.getRevision())) {
+                                throw new PreconditionFailedException("Revision mismatch");
+                            }
+                            JsonValue updated = request.getContent().copy();
+                            updated.put("_rev", String.valueOf(Integer.parseInt(request.getRevision()) + 1));
+                            objects.put(id, updated);
+                            return toResource(updated);
+                        }
+                    }
+                });
+
+        Script script = mock(Script.class);
+        when(script.eval()).thenReturn(Boolean.TRUE);
+        scriptEntry = mock(ScriptEntry.class);
+        when(scriptEntry.getScript(any(Context.class))).thenReturn(script);
+    }
+
+    private List<ResourceResponse> snapshot() {
+        synchronized (objects) {
+            ArrayList<ResourceResponse> resources = new ArrayList<ResourceResponse>();
+            for (JsonValue value : objects.values()) {
+                if (value.get(COMPLETED) == null || value.get(COMPLETED).isNull()) {
+                    resources.add(toResource(value));
+                }
+            }
+            return resources;
+        }
+    }
+
+    private static ResourceResponse toResource(JsonValue value) {
+        return newResourceResponse(value.get("_id").asString(), value.get("_rev").asString(), value.copy());
+    }
+
+    private TaskScannerContext newContext(Integer maxRecords) throws Exception {
+        return newContext(maxRecords, 0);
+    }
+
+    private TaskScannerContext newContext(Integer maxRecords, int pageSize) throws Exception {
+        JsonValue params = json(object(
+                field("waitForCompletion", true),
+                field("numberOfThreads", 4),
+                field("claimBatchSize", 3),
+                field("scan", object(
+                        field("_queryId", "scan-tasks"),
+                        field("object", "managed/user"),
+                        field("taskState", object(
+                                field("started", STARTED.toString()),
+                                field("completed", COMPLETED.toString()))),
+                        field("recovery", object(field("timeout", "10m")))))));
+        if (maxRecords != null) {
+            params.put("maxRecords", maxRecords);
+        }
+        if (pageSize > 0) {
+            params.put("pageSize", pageSize);
+        }
+        return new TaskScannerContext("test", "script", params, new RootContext(), scriptEntry);
+    }
+
+    private int countCompleted() {
+        int completed = 0;
+        synchronized (objects) {
+            for (JsonValue value : objects.values()) {
+                if (value.get(COMPLETED) != null && value.get(COMPLETED).isNotNull()) {
+                    completed++;
+                }
+            }
+        }
+        return completed;
+    }
+
+    @Test
+    public void testAllObjectsAreProcessed() throws Exception {
+        TaskScannerContext context = newContext(null);
+        new TaskScannerJob(connectionFactory, context).startTask();
+
+        assertThat(context.isCompleted()).isTrue();
+        assertThat(context.getStatistics().getNumberOfTasksToProcess()).isEqualTo(25);
+        assertThat(context.getStatistics().getNumberOfTasksSucceeded()).isEqualTo(25);
+        assertThat(context.getStatistics().getNumberOfTasksRemaining()).isEqualTo(0);
+        assertThat(context.getStatistics().getNumberOfPagesFetched()).isEqualTo(1);
+        assertThat(countCompleted()).isEqualTo(25);
+    }
+
+    @Test
+    public void testMaxRecordsLimitsTheScan() throws Exception {
+        TaskScannerContext context = newContext(7);
+        new TaskScannerJob(connectionFactory, context).startTask();
+
+        assertThat(context.getStatistics().getNumberOfTasksToProcess()).isEqualTo(7);
+        assertThat(context.getStatistics().getNumberOfTasksSucceeded()).isEqualTo(7);
+        assertThat(countCompleted()).isEqualTo(7);
+    }
+
+    @Test
+    public void testClaimedObjectsAreSkipped() throws Exception {
+        synchronized (objects) {
+            JsonValue claimed = objects.get("user3");
+            claimed.put("task", object(field("started", DateUtil.getDateUtil("UTC").now())));
+        }
+        TaskScannerContext context = newContext(null);
+        new TaskScannerJob(connectionFactory, context).startTask();
+
+        assertThat(context.getStatistics().getNumberOfTasksSucceeded()).isEqualTo(24);
+        assertThat(context.getStatistics().getNumberOfTasksSkipped()).isEqualTo(1);
+        assertThat(context.getStatistics().getNumberOfTasksRemaining()).isEqualTo(0);
+        assertThat(countCompleted()).isEqualTo(24);
+    }
+
+    @Test
+    public void testPagedScanProcessesAllObjects() throws Exception {
+        // following the offset of the next page would skip the objects claimed in the previous pages
+        TaskScannerContext context = newContext(null, 10);
+        new TaskScannerJob(connectionFactory, context).startTask();
+
+        assertThat(context.getStatistics().getNumberOfTasksSucceeded()).isEqualTo(25);
+        assertThat(context.getStatistics().getNumberOfPagesFetched()).isEqualTo(3);
+        assertThat(countCompleted()).isEqualTo(25);
+    }
+
+    @Test
+    public void testPagedScanStopsWhenNothingIsClaimed() throws Exception {
+        synchronized (objects) {
+            for (int i = 0; i < 5; i++) {
+                objects.get("user" + i).put("task", object(field("started", DateUtil.getDateUtil("UTC").now())));
+            }
+        }
+        TaskScannerContext context = newContext(null, 5);
+        new TaskScannerJob(connectionFactory, context).startTask();
+
+        // the first page only holds objects claimed by another scan
+        assertThat(context.getStatistics().getNumberOfTasksSucceeded()).isEqualTo(0);
+        assertThat(context.getStatistics().getNumberOfTasksSkipped()).isEqualTo(5);
+        assertThat(context.getStatistics().getNumberOfPagesFetched()).isEqualTo(1);
+    }
+}
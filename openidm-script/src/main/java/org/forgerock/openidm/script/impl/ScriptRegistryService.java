@@ -25,6 +25,7 @@
 package org.forgerock.openidm.script.impl;
 
 import static org.forgerock.json.resource.Responses.newActionResponse;
+import static org.forgerock.json.resource.Responses.newResourceResponse;
 import static org.forgerock.util.promise.Promises.newResultPromise;
 
 import java.io.File;
@@ -187,6 +188,12 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
     private static final String SOURCE_TYPE = "type";
     private static final String SOURCE_GLOBALS = "globals";
 
+    /** The configuration flag turning script profiling on or off, on by default */
+    private static final String CONFIG_PROFILING = "profiling";
+
+    /** The resource path of the script profile, read with a read request and reset with a "reset" action */
+    private static final String PROFILE = "profile";
+
     /** Enhanced configuration service. */
     @Reference(policy = ReferencePolicy.DYNAMIC)
     private EnhancedConfig enhancedConfig;
@@ -198,6 +205,13 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
     private enum Action {
         compile, eval
     }
+
+    private enum ProfileAction {
+        reset
+    }
+
+    /** Records the evaluations of the scripts handed out by {@link #takeScript(JsonValue)} */
+    private final ScriptProfiler profiler = new ScriptProfiler();
     
     private BundleWatcher<ManifestEntry> manifestWatcher;
 
@@ -206,6 +220,7 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
         JsonValue configuration = enhancedConfig.getConfigurationAsJson(context);
 
         setConfiguration(configuration.required().asMap());
+        profiler.setEnabled(configuration.get(CONFIG_PROFILING).defaultTo(true).asBoolean());
 
         HashMap<String, Object> identityServer = new HashMap<String, Object>();
         for (IdentityServerFunctions f : IdentityServerFunctions.values()) {
@@ -285,6 +300,7 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
     protected void modified(ComponentContext context) {
         JsonValue configuration = enhancedConfig.getConfigurationAsJson(context);
         setConfiguration(configuration.required().asMap());
+        profiler.setEnabled(configuration.get(CONFIG_PROFILING).defaultTo(true).asBoolean());
         propertiesCache.clear();
         Set<String> keys =
                 null != getBindings() ? new HashSet<String>(getBindings().keySet()) : Collections
@@ -586,7 +602,8 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
                 scriptEntry.put(key, globals.get(key));
             }
         }
-        return scriptEntry;
+        return profiler.profile(scriptEntry, scriptConfig.get(SourceUnit.ATTR_NAME).asString(),
+                ScriptProfiler.getRole(script.getPointer()));
     }
     
     private static enum IdentityServerFunctions implements Function<Object> {
@@ -674,7 +691,14 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
         JsonValue config = new JsonValue(new HashMap<String, Object>());
         ScriptEntry scriptEntry = null;
         try {
-            if (resourcePath == null || "".equals(resourcePath)) {
+            if (PROFILE.equals(resourcePath)) {
+                switch (request.getActionAsEnum(ProfileAction.class)) {
+                    case reset:
+                        return newActionResponse(profiler.reset()).asPromise();
+                    default:
+                        throw new BadRequestException("Unrecognized action ID " + request.getAction());
+                }
+            } else if (resourcePath == null || "".equals(resourcePath)) {
                 for (String key : content.keys()) {
                     if (isSourceUnit(key)) {
                         config.put(key, content.get(key).getObject());
@@ -727,6 +751,9 @@ public class ScriptRegistryService extends ScriptRegistryImpl implements Request
     }
 
     public Promise<ResourceResponse, ResourceException> handleRead(final Context context, final ReadRequest request) {
+        if (PROFILE.equals(request.getResourcePath())) {
+            return newResourceResponse(PROFILE, null, profiler.toJsonValue()).asPromise();
+        }
         final ResourceException e = new NotSupportedException("Read operations are not supported");
         return e.asPromise();
     }
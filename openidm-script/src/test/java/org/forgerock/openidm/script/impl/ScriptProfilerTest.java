@@ -0,0 +1,183 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.script.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.script.Bindings;
+import javax.script.ScriptException;
+
+import org.forgerock.http.routing.UriRouterContext;
+import org.forgerock.json.JsonPointer;
+import org.forgerock.json.JsonValue;
+import org.forgerock.openidm.util.ProfiledContext;
+import org.forgerock.script.Script;
+import org.forgerock.script.ScriptEntry;
+import org.forgerock.services.context.Context;
+import org.testng.annotations.Test;
+
+public class ScriptProfilerTest {
+
+    @Test
+    public void testEvaluationsAreRecordedByScriptAndContext() throws Exception {
+        //given
+        ScriptProfiler profiler = new ScriptProfiler();
+        Script script = mock(Script.class);
+        when(script.eval(any(Bindings.class))).thenReturn("result");
+        ScriptEntry entry = mock(ScriptEntry.class);
+        when(entry.getScript(any(Context.class))).thenReturn(script);
+        Context recon = mock(Context.class);
+        when(recon.getContextName()).thenReturn("recon");
+
+        //when
+        ScriptEntry profiled = profiler.profile(entry, "mapping.js", null);
+        Object result = profiled.getScript(recon).eval(mock(Bindings.class));
+        profiled.getScript(recon).eval(mock(Bindings.class));
+
+        //then
+        assertThat(result).isEqualTo("result");
+        verify(entry, times(2)).getScript(recon);
+        JsonValue statistics = profiler.toJsonValue().get("scripts").get("mapping.js").get("recon");
+        assertThat(statistics.get("count").asLong()).isEqualTo(2L);
+        assertThat(statistics.get("failures").asLong()).isEqualTo(0L);
+        assertThat(statistics.isDefined("p99Micros")).isTrue();
+    }
+
+    @Test
+    public void testFailuresAreCountedAndRethrown() throws Exception {
+        //given
+        ScriptProfiler profiler = new ScriptProfiler();
+        Script script = mock(Script.class);
+        ScriptException failure = new ScriptException("failed");
+        when(script.eval(any(Bindings.class))).thenThrow(failure);
+        ScriptEntry entry = mock(ScriptEntry.class);
+        when(entry.getScript(any(Context.class))).thenReturn(script);
+
+        //when
+        Throwable thrown = null;
+        try {
+            profiler.profile(entry, "hook.js", null).getScript(null).eval(mock(Bindings.class));
+        } catch (ScriptException e) {
+            thrown = e;
+        }
+
+        //then
+        assertThat(thrown).isSameAs(failure);
+        JsonValue statistics = profiler.toJsonValue().get("scripts").get("hook.js").get(ScriptProfiler.NO_CONTEXT);
+        assertThat(statistics.get("count").asLong()).isEqualTo(1L);
+        assertThat(statistics.get("failures").asLong()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testPercentiles() {
+        //given
+        ScriptProfiler.Statistics statistics = new ScriptProfiler().getStatistics("script", "context");
+
+        //when
+        for (int i = 0; i < 99; i++) {
+            statistics.record(TimeUnit.MICROSECONDS.toNanos(3), false);
+        }
+        statistics.record(TimeUnit.MILLISECONDS.toNanos(5), false);
+
+        //then
+        assertThat(statistics.getPercentileMicros(0.5)).isEqualTo(4L);
+        assertThat(statistics.getPercentileMicros(0.99)).isEqualTo(4L);
+        assertThat(statistics.getPercentileMicros(1.0)).isEqualTo(8192L);
+    }
+
+    @Test
+    public void testResetKeepsRecording() throws Exception {
+        //given
+        ScriptProfiler profiler = new ScriptProfiler();
+        Script script = mock(Script.class);
+        ScriptEntry entry = mock(ScriptEntry.class);
+        when(entry.getScript(any(Context.class))).thenReturn(script);
+        Script profiled = profiler.profile(entry, "script", null).getScript(null);
+        profiled.eval(mock(Bindings.class));
+
+        //when
+        JsonValue before = profiler.reset();
+        profiled.eval(mock(Bindings.class));
+
+        //then
+        assertThat(before.get("scripts").get("script").get(ScriptProfiler.NO_CONTEXT).get("count").asLong())
+                .isEqualTo(1L);
+        assertThat(profiler.toJsonValue().get("scripts").get("script").get(ScriptProfiler.NO_CONTEXT)
+                .get("count").asLong()).isEqualTo(1L);
+    }
+
+    @Test
+    public void testDisable() throws Exception {
+        //given
+        ScriptProfiler profiler = new ScriptProfiler();
+        Script script = mock(Script.class);
+        ScriptEntry entry = mock(ScriptEntry.class);
+        when(entry.getScript(any(Context.class))).thenReturn(script);
+        ScriptEntry profiled = profiler.profile(entry, "script", null);
+        Script profiledScript = profiled.getScript(null);
+
+        //when
+        profiler.setEnabled(false);
+        profiledScript.eval(mock(Bindings.class));
+
+        //then
+        assertThat(profiler.toJsonValue().get("enabled").asBoolean()).isFalse();
+        assertThat(profiled.getScript(null)).isSameAs(script);
+        assertThat(profiler.toJsonValue().get("scripts").get("script").get(ScriptProfiler.NO_CONTEXT)
+                .get("count").asLong()).isEqualTo(0L);
+        verify(script).eval(any(Bindings.class));
+    }
+
+    @Test
+    public void testLabelFromContextChain() {
+        //given
+        Context root = mock(Context.class);
+        when(root.getContextName()).thenReturn("root");
+        Context recon = mock(Context.class, withSettings().extraInterfaces(ProfiledContext.class));
+        when(((ProfiledContext) recon).getProfileLabel()).thenReturn("recon:mapping1");
+        when(recon.getParent()).thenReturn(root);
+        Context managed = mock(Context.class);
+        when(managed.getContextName()).thenReturn("managedObject");
+        when(managed.getParent()).thenReturn(recon);
+        UriRouterContext endpoint = mock(UriRouterContext.class);
+        when(endpoint.getMatchedUri()).thenReturn("endpoint/echo");
+        when(endpoint.getParent()).thenReturn(root);
+
+        //then
+        assertThat(ScriptProfiler.getLabel(recon, "transform")).isEqualTo("recon:mapping1:transform");
+        assertThat(ScriptProfiler.getLabel(managed, "onCreate")).isEqualTo("managedObject:onCreate");
+        assertThat(ScriptProfiler.getLabel(endpoint, null)).isEqualTo("endpoint:echo");
+        assertThat(ScriptProfiler.getLabel(root, null)).isEqualTo("root");
+        assertThat(ScriptProfiler.getLabel(null, null)).isEqualTo(ScriptProfiler.NO_CONTEXT);
+    }
+
+    @Test
+    public void testRoleFromConfigurationPointer() {
+        assertThat(ScriptProfiler.getRole(new JsonPointer("/objects/0/onCreate"))).isEqualTo("onCreate");
+        assertThat(ScriptProfiler.getRole(new JsonPointer("/mappings/1/properties/2/transform")))
+                .isEqualTo("transform");
+        assertThat(ScriptProfiler.getRole(new JsonPointer("/filters/0"))).isEqualTo("filters");
+        assertThat(ScriptProfiler.getRole(new JsonPointer(""))).isNull();
+    }
+}
@@ -0,0 +1,175 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.smartevent.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed size, log-linear histogram of event durations, in the style of an HDR histogram.
+ * <p>
+ * Durations are recorded in microseconds into buckets that each cover 1/16th of a power of two, so a
+ * reported percentile is within about 6% of the actual duration. Durations above 2^36 microseconds
+ * (about 19 hours) are counted in the last bucket. Recording is lock-free and does not allocate, and
+ * snapshots may be taken concurrently with recording.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 36;
+
+    /** The number of buckets */
+    static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNanos = new AtomicLong();
+    private final AtomicLong maxNanos = new AtomicLong();
+
+    /**
+     * Records an event duration.
+     *
+     * @param nanos the duration in nanoseconds
+     */
+    void record(long nanos) {
+        if (nanos < 0) {
+            return;
+        }
+        counts.incrementAndGet(bucketOf(nanos / 1000));
+        count.incrementAndGet();
+        totalNanos.addAndGet(nanos);
+        long max = maxNanos.get();
+        while (nanos > max && !maxNanos.compareAndSet(max, nanos)) {
+            max = maxNanos.get();
+        }
+    }
+
+    /**
+     * Clears the recorded durations.
+     */
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        totalNanos.set(0);
+        maxNanos.set(0);
+    }
+
+    /**
+     * Adds the recorded durations to a snapshot.
+     *
+     * @param snapshot the snapshot to add to
+     */
+    void addTo(Snapshot snapshot) {
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot.counts[i] += counts.get(i);
+        }
+        snapshot.count += count.get();
+        snapshot.totalNanos += totalNanos.get();
+        snapshot.maxNanos = Math.max(snapshot.maxNanos, maxNanos.get());
+    }
+
+    static int bucketOf(long micros) {
+        if (micros < SUB_BUCKETS) {
+            return (int) micros;
+        }
+        int exponent = 63 - Long.numberOfLeadingZeros(micros);
+        if (exponent >= MAX_EXPONENT) {
+            return BUCKETS - 1;
+        }
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS
+                + (int) ((micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1));
+    }
+
+    /**
+     * @return the smallest duration in microseconds counted in a bucket
+     */
+    static long lowestMicrosOf(int bucket) {
+        if (bucket < SUB_BUCKETS) {
+            return bucket;
+        }
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        return ((long) (SUB_BUCKETS + bucket % SUB_BUCKETS)) << (exponent - SUB_BUCKET_BITS);
+    }
+
+    /**
+     * A point in time copy of one or more merged histograms.
+     */
+    static final class Snapshot {
+        private final long[] counts = new long[BUCKETS];
+        private long count;
+        private long totalNanos;
+        private long maxNanos;
+
+        /**
+         * @return the number of recorded durations
+         */
+        long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the sum of the recorded durations in nanoseconds
+         */
+        long getSumNanos() {
+            return totalNanos;
+        }
+
+        /**
+         * @return the mean duration in nanoseconds, or 0 if none was recorded
+         */
+        long getMeanNanos() {
+            return count > 0 ? totalNanos / count : 0;
+        }
+
+        /**
+         * @return the longest duration in nanoseconds, or 0 if none was recorded
+         */
+        long getMaxNanos() {
+            return maxNanos;
+        }
+
+        /**
+         * Returns the duration below or at which a percentage of the recorded durations are, rounded up to
+         * the upper bound of its bucket.
+         *
+         * @param percentile the percentage, such as 99.9
+         * @return the duration in nanoseconds, or 0 if none was recorded
+         */
+        long getPercentileNanos(double percentile) {
+            long total = 0;
+            for (long bucketCount : counts) {
+                total += bucketCount;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100d * total));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    long upperNanos = i + 1 < BUCKETS ? lowestMicrosOf(i + 1) * 1000 - 1 : Long.MAX_VALUE;
+                    return Math.min(upperNanos, maxNanos);
+                }
+            }
+            return maxNanos;
+        }
+    }
+}
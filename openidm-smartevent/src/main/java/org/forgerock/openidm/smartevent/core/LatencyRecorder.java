@@ -0,0 +1,127 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.smartevent.core;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records the durations of an event in a histogram since the last reset, and in a sliding time window made
+ * of a ring of interval histograms. An interval histogram is cleared when the first duration of a new
+ * interval lands in its slot, so the window covers the current interval and the preceding ones.
+ * <p>
+ * The window defaults to 5 intervals of 60 seconds, and can be changed with the
+ * {@code openidm.smartevent.latency.intervals} and {@code openidm.smartevent.latency.intervalseconds}
+ * system properties.
+ */
+final class LatencyRecorder {
+
+    static final int INTERVALS = Integer.getInteger("openidm.smartevent.latency.intervals", 5);
+    static final long INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(
+            Long.getLong("openidm.smartevent.latency.intervalseconds", 60L));
+
+    private final LatencyHistogram total = new LatencyHistogram();
+    private final LatencyHistogram[] intervals;
+    private final AtomicLongArray intervalEpochs;
+    private final long intervalNanos;
+
+    LatencyRecorder() {
+        this(INTERVALS, INTERVAL_NANOS);
+    }
+
+    LatencyRecorder(int intervalCount, long intervalNanos) {
+        this.intervalNanos = intervalNanos;
+        intervals = new LatencyHistogram[intervalCount];
+        intervalEpochs = new AtomicLongArray(intervalCount);
+        for (int i = 0; i < intervalCount; i++) {
+            intervals[i] = new LatencyHistogram();
+            intervalEpochs.set(i, Long.MIN_VALUE);
+        }
+    }
+
+    /**
+     * Records an event duration.
+     *
+     * @param endTime the {@link System#nanoTime()} at which the event ended
+     * @param duration the duration of the event in nanoseconds
+     */
+    void record(long endTime, long duration) {
+        total.record(duration);
+        long epoch = epochOf(endTime);
+        int slot = slotOf(epoch);
+        long slotEpoch = intervalEpochs.get(slot);
+        if (slotEpoch != epoch && intervalEpochs.compareAndSet(slot, slotEpoch, epoch)) {
+            // The slot held an interval that has left the window
+            intervals[slot].reset();
+        }
+        intervals[slot].record(duration);
+    }
+
+    /**
+     * @return a snapshot of the durations recorded since the last reset
+     */
+    LatencyHistogram.Snapshot getTotal() {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        total.addTo(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * @param now the current {@link System#nanoTime()}
+     * @return a snapshot of the durations recorded in the sliding window ending now
+     */
+    LatencyHistogram.Snapshot getWindow(long now) {
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        long currentEpoch = epochOf(now);
+        for (int i = 0; i < intervals.length; i++) {
+            long epoch = intervalEpochs.get(i);
+            if (epoch <= currentEpoch && epoch > currentEpoch - intervals.length) {
+                intervals[i].addTo(snapshot);
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * @return the length of the sliding window in nanoseconds
+     */
+    long getWindowNanos() {
+        return intervals.length * intervalNanos;
+    }
+
+    /**
+     * Clears all recorded durations.
+     */
+    void reset() {
+        total.reset();
+        for (int i = 0; i < intervals.length; i++) {
+            intervalEpochs.set(i, Long.MIN_VALUE);
+            intervals[i].reset();
+        }
+    }
+
+    private long epochOf(long nanoTime) {
+        // nanoTime may be negative, round down
+        long epoch = nanoTime / intervalNanos;
+        return nanoTime < 0 && nanoTime % intervalNanos != 0 ? epoch - 1 : epoch;
+    }
+
+    private int slotOf(long epoch) {
+        int slot = (int) (epoch % intervals.length);
+        return slot < 0 ? slot + intervals.length : slot;
+    }
+}
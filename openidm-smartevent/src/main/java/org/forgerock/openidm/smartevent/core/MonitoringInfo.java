@@ -25,17 +25,37 @@ public class MonitoringInfo {
     public long totalInvokes;
     public long totalTime;
 
+    /**
+     * Latency histograms of the event, since the last reset and over a sliding window
+     */
+    final LatencyRecorder latencies = new LatencyRecorder();
+
+    /**
+     * Record a completed event
+     *
+     * @param endTime the System.nanoTime() at which the event ended
+     * @param duration the duration of the event in nanoseconds
+     */
+    void record(long endTime, long duration) {
+        totalTime += duration;
+        totalInvokes++;
+        latencies.record(endTime, duration);
+    }
+
     /**
      * Reset the statistics
      */
     public void reset() {
         totalInvokes = 0;
         totalTime = 0;
+        latencies.reset();
     }
 
     public String toString() {
         return "Invocations: " + totalInvokes + " total time: "
                 + StatisticsHandler.formatNsAsMs(totalTime) + " mean: "
-                + StatisticsHandler.formatNsAsMs(totalInvokes > 0 ? totalTime / totalInvokes : -1);
+                + StatisticsHandler.formatNsAsMs(totalInvokes > 0 ? totalTime / totalInvokes : -1)
+                + " p99: " + StatisticsHandler.formatNsAsMs(latencies.getTotal().getPercentileNanos(99))
+                + " max: " + StatisticsHandler.formatNsAsMs(latencies.getTotal().getMaxNanos());
     }
 }
@@ -19,9 +19,10 @@ package org.forgerock.openidm.smartevent.core;
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
@@ -50,15 +51,28 @@ public class StatisticsHandler implements EventHandler<DisruptorReferringEventEn
 
     final static NumberFormat MILLISEC_FORMAT = new DecimalFormat("###,###,##0.### ms");
 
+    /**
+     * The maximum number of event names to keep statistics for. Each name has its own latency histograms of
+     * about 25 KB, and some names contain identifiers, such as router events on relationship paths, so the
+     * events of names beyond the limit are counted together under {@link #OTHER_EVENTS}.
+     */
+    final static int MAX_EVENT_NAMES = Integer.getInteger("openidm.smartevent.maxnames", 1000);
+
+    /**
+     * The name the events of names beyond {@link #MAX_EVENT_NAMES} are counted under
+     */
+    public final static String OTHER_EVENTS = "openidm/internal/_other";
+
     /**
      * Access to the ring buffer for monitoring/history display purposes
      */
     Disruptor<DisruptorReferringEventEntry> disruptor;
 
     /**
-     * Keep track of monitoring data per event Name
+     * Keep track of monitoring data per event Name. Only the consumer thread adds entries, JMX clients
+     * read them concurrently
      */
-    public Map<String, MonitoringInfo> map = new HashMap<String, MonitoringInfo>();
+    public Map<String, MonitoringInfo> map = new ConcurrentHashMap<String, MonitoringInfo>();
 
     // Regular statistics logging option
     private ScheduledExecutorService logScheduler;
@@ -137,6 +151,41 @@ public class StatisticsHandler implements EventHandler<DisruptorReferringEventEn
         return stats;
     }
 
+    /**
+     * @inheritDoc
+     */
+    public Map getLatencies() {
+        long now = System.nanoTime();
+        Map latencies = new TreeMap();
+        for (Map.Entry<String, MonitoringInfo> entry : map.entrySet()) {
+            LatencyRecorder recorder = entry.getValue().latencies;
+            Map<String, Object> window = toMap(recorder.getWindow(now));
+            window.put("windowSeconds", TimeUnit.NANOSECONDS.toSeconds(recorder.getWindowNanos()));
+            Map<String, Object> eventLatencies = new LinkedHashMap<String, Object>();
+            eventLatencies.put("window", window);
+            eventLatencies.put("total", toMap(recorder.getTotal()));
+            latencies.put(entry.getKey(), eventLatencies);
+        }
+        return latencies;
+    }
+
+    private static Map<String, Object> toMap(LatencyHistogram.Snapshot snapshot) {
+        Map<String, Object> map = new LinkedHashMap<String, Object>();
+        map.put("count", snapshot.getCount());
+        map.put("sum", nsToMs(snapshot.getSumNanos()));
+        map.put("mean", nsToMs(snapshot.getMeanNanos()));
+        map.put("p50", nsToMs(snapshot.getPercentileNanos(50)));
+        map.put("p90", nsToMs(snapshot.getPercentileNanos(90)));
+        map.put("p99", nsToMs(snapshot.getPercentileNanos(99)));
+        map.put("p999", nsToMs(snapshot.getPercentileNanos(99.9)));
+        map.put("max", nsToMs(snapshot.getMaxNanos()));
+        return map;
+    }
+
+    private static double nsToMs(long nanoseconds) {
+        return nanoseconds / 1000000d;
+    }
+
     /**
      * @inheritDoc
      */
@@ -254,13 +303,7 @@ public class StatisticsHandler implements EventHandler<DisruptorReferringEventEn
          * += diff; ++info.totalInvokes;
          */
 
-        MonitoringInfo entry = map.get(eventEntry.eventName.asString());
-        if (entry == null) {
-            entry = new MonitoringInfo();
-            map.put(eventEntry.eventName.asString(), entry);
-        }
-        entry.totalTime += diff;
-        entry.totalInvokes++;
+        getMonitoringInfo(eventEntry.eventName.asString()).record(eventEntry.endTime, diff);
     }
 
     // TODO: more research on latency of batched end time option
@@ -293,13 +336,7 @@ public class StatisticsHandler implements EventHandler<DisruptorReferringEventEn
         EventEntryImpl eventEntry = (EventEntryImpl) eventEntryParam;
         long diff = eventEntry.endTime - eventEntry.startTime;
 
-        MonitoringInfo entry = map.get(eventEntry.eventName.asString());
-        if (entry == null) {
-            entry = new MonitoringInfo();
-            map.put(eventEntry.eventName.asString(), entry);
-        }
-        entry.totalTime += diff;
-        entry.totalInvokes++;
+        getMonitoringInfo(eventEntry.eventName.asString()).record(eventEntry.endTime, diff);
         if (endOfBatch) {
             newBatch = true;
         } else {
@@ -307,6 +344,32 @@ public class StatisticsHandler implements EventHandler<DisruptorReferringEventEn
         }
     }
 
+    /**
+     * Returns the statistics of an event name, adding them if the limit of event names is not reached yet.
+     * Only called by the consumer thread.
+     *
+     * @param eventName the event name
+     * @return the statistics to record the event in
+     */
+    private MonitoringInfo getMonitoringInfo(String eventName) {
+        MonitoringInfo entry = map.get(eventName);
+        if (entry == null) {
+            if (map.size() >= MAX_EVENT_NAMES) {
+                entry = map.get(OTHER_EVENTS);
+                if (entry == null) {
+                    logger.warn("Statistics are kept for {} event names, counting further names such as {} as {}",
+                            new Object[] { MAX_EVENT_NAMES, eventName, OTHER_EVENTS });
+                    entry = new MonitoringInfo();
+                    map.put(OTHER_EVENTS, entry);
+                }
+                return entry;
+            }
+            entry = new MonitoringInfo();
+            map.put(eventName, entry);
+        }
+        return entry;
+    }
+
     /**
      * Helper to format nanosecond difference in human readable ms if a negative
      * value is passed, returns "N/A"
@@ -36,6 +36,12 @@ public interface StatisticsHandlerMBean {
      */
     Map getTotals();
 
+    /**
+     * @return the latency percentiles per event name, in milliseconds: the count, sum, mean, p50, p90, p99,
+     *         p999 and max over the sliding window ("window") and since the last reset ("total")
+     */
+    Map getLatencies();
+
     /**
      * @return the recent history of events, mapping from start time to the
      *         event detail
@@ -0,0 +1,91 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.smartevent.core;
+
+import java.util.concurrent.TimeUnit;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of LatencyHistogram and LatencyRecorder
+ */
+public class LatencyHistogramTest {
+
+    private static final long MS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    @Test
+    public void testBucketBoundaries() {
+        for (long micros = 0; micros < 100000; micros++) {
+            int bucket = LatencyHistogram.bucketOf(micros);
+            Assert.assertTrue(LatencyHistogram.lowestMicrosOf(bucket) <= micros, "micros " + micros);
+            Assert.assertTrue(LatencyHistogram.lowestMicrosOf(bucket + 1) > micros, "micros " + micros);
+        }
+        Assert.assertEquals(LatencyHistogram.bucketOf(Long.MAX_VALUE), LatencyHistogram.BUCKETS - 1);
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * MS);
+        }
+        LatencyHistogram.Snapshot snapshot = new LatencyHistogram.Snapshot();
+        histogram.addTo(snapshot);
+
+        Assert.assertEquals(snapshot.getCount(), 1000);
+        Assert.assertEquals(snapshot.getMaxNanos(), 1000 * MS);
+        assertWithin(snapshot.getPercentileNanos(50), 500 * MS);
+        assertWithin(snapshot.getPercentileNanos(90), 900 * MS);
+        assertWithin(snapshot.getPercentileNanos(99), 990 * MS);
+        Assert.assertEquals(snapshot.getPercentileNanos(99.9), 1000 * MS);
+
+        histogram.reset();
+        snapshot = new LatencyHistogram.Snapshot();
+        histogram.addTo(snapshot);
+        Assert.assertEquals(snapshot.getCount(), 0);
+        Assert.assertEquals(snapshot.getPercentileNanos(99), 0);
+    }
+
+    @Test
+    public void testSlidingWindow() {
+        LatencyRecorder recorder = new LatencyRecorder(3, TimeUnit.SECONDS.toNanos(1));
+        long start = TimeUnit.SECONDS.toNanos(100);
+        recorder.record(start, 10 * MS);
+        recorder.record(start + TimeUnit.SECONDS.toNanos(1), 20 * MS);
+
+        Assert.assertEquals(recorder.getWindow(start + TimeUnit.SECONDS.toNanos(2)).getCount(), 2);
+        // The first interval has left the window
+        Assert.assertEquals(recorder.getWindow(start + TimeUnit.SECONDS.toNanos(3)).getCount(), 1);
+
+        // Reuses the slot of the first interval
+        recorder.record(start + TimeUnit.SECONDS.toNanos(3), 30 * MS);
+        LatencyHistogram.Snapshot window = recorder.getWindow(start + TimeUnit.SECONDS.toNanos(3));
+        Assert.assertEquals(window.getCount(), 2);
+        Assert.assertEquals(window.getMaxNanos(), 30 * MS);
+        Assert.assertEquals(recorder.getTotal().getCount(), 3);
+
+        recorder.reset();
+        Assert.assertEquals(recorder.getTotal().getCount(), 0);
+        Assert.assertEquals(recorder.getWindow(start + TimeUnit.SECONDS.toNanos(3)).getCount(), 0);
+    }
+
+    private static void assertWithin(long actual, long expected) {
+        // A bucket spans 1/16th of a power of two
+        Assert.assertTrue(actual >= expected && actual <= expected + expected / 8,
+                "expected about " + expected + " but was " + actual);
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.smartevent.core;
+
+import org.forgerock.openidm.smartevent.Name;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+/**
+ * Test of StatisticsHandler
+ */
+public class StatisticsHandlerTest {
+
+    private static void record(StatisticsHandler handler, String eventName) {
+        EventEntryImpl entry = new EventEntryImpl();
+        entry.eventName = Name.get(eventName);
+        entry.startTime = 1000L;
+        entry.endTime = 2000L;
+        handler.onEvent(entry, 0, true);
+    }
+
+    @Test
+    public void testEventNamesAreCapped() {
+        StatisticsHandler handler = new StatisticsHandler(null);
+        for (int i = 0; i < StatisticsHandler.MAX_EVENT_NAMES + 5; i++) {
+            record(handler, "openidm/internal/test/object" + i + "/read");
+        }
+        record(handler, "openidm/internal/test/object0/read");
+
+        Assert.assertEquals(handler.map.size(), StatisticsHandler.MAX_EVENT_NAMES + 1);
+        Assert.assertEquals(handler.map.get("openidm/internal/test/object0/read").totalInvokes, 2);
+        Assert.assertEquals(handler.map.get(StatisticsHandler.OTHER_EVENTS).totalInvokes, 5);
+    }
+}
@@ -222,6 +222,11 @@ public final class ServerConstants {
 
     public static final String ROUTER_PREFIX = "openidm.router.prefix";
 
+    /**
+     * Service property marking a resource Filter service to be added to the filter chain of the router.
+     */
+    public static final String ROUTER_FILTER = "openidm.router.filter";
+
     /**
      * Query input value for the QUERY_ID input key.
      *
@@ -27,6 +27,7 @@ package org.forgerock.openidm.audit.util;
 import org.forgerock.services.context.Context;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.RequestType;
 import org.forgerock.json.resource.ResourceException;
 
 /**
@@ -49,4 +50,13 @@ public interface ActivityLogger {
      */
     void log(Context context, Request request, String message, String objectId,
              JsonValue before, JsonValue after, Status status) throws ResourceException;
+
+    /**
+     * Returns whether the "before" and "after" values of requests of a type are written to the activity log,
+     * so that callers can skip computing values that would be dropped.
+     *
+     * @param requestType the type of request
+     * @return true if the values are logged
+     */
+    boolean isValueLogged(RequestType requestType);
 }
@@ -27,6 +27,7 @@ package org.forgerock.openidm.audit.util;
 import org.forgerock.services.context.Context;
 import org.forgerock.json.JsonValue;
 import org.forgerock.json.resource.Request;
+import org.forgerock.json.resource.RequestType;
 import org.forgerock.json.resource.ResourceException;
 
 /**
@@ -45,4 +46,12 @@ public class NullActivityLogger implements ActivityLogger {
                     JsonValue before, JsonValue after, Status status) throws ResourceException {
         // don't log
     }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isValueLogged(RequestType requestType) {
+        return false;
+    }
 }
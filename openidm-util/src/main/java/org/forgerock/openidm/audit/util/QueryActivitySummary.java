@@ -0,0 +1,210 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.audit.util;
+
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.RequestType;
+import org.forgerock.json.resource.ResourceResponse;
+import org.forgerock.openidm.core.IdentityServer;
+
+/**
+ * A summary of the results of a query for the activity log, which takes bounded memory however many
+ * results the query returns.
+ * <p>
+ * The summary holds the number of results, the ids of the first results and a SHA-256 digest of the ids
+ * and revisions of all results. If full objects are logged (see
+ * {@link RouterActivityLogger#OPENIDM_AUDIT_LOG_FULL_OBJECTS}), it also holds the content of the first results.
+ * <p>
+ * If the activity logger drops the values of queries, the summary only counts the results.
+ */
+public class QueryActivitySummary {
+
+    /** The property setting the number of result ids, and objects, kept in the summary */
+    public static final String OPENIDM_AUDIT_QUERY_RESULTS_LOGGED = "openidm.audit.queryResultsLogged";
+
+    /** The default number of result ids kept in the summary */
+    public static final int DEFAULT_QUERY_RESULTS_LOGGED = 100;
+
+    private static final String DIGEST_ALGORITHM = "SHA-256";
+
+    private final int maxResults;
+    private final boolean logFullObjects;
+    private final boolean logged;
+    private final MessageDigest digest;
+    private final List<Object> ids = new ArrayList<Object>();
+    private final List<Object> results = new ArrayList<Object>();
+    private int count = 0;
+
+    /**
+     * Creates a summary of the results of a query logged by an activity logger, configured by the
+     * {@link #OPENIDM_AUDIT_QUERY_RESULTS_LOGGED} and {@link RouterActivityLogger#OPENIDM_AUDIT_LOG_FULL_OBJECTS}
+     * properties.
+     *
+     * @param activityLogger the activity logger the summary is logged with
+     */
+    public QueryActivitySummary(ActivityLogger activityLogger) {
+        this(parseMaxResults(IdentityServer.getInstance().getProperty(OPENIDM_AUDIT_QUERY_RESULTS_LOGGED)),
+                Boolean.valueOf(IdentityServer.getInstance().getProperty(
+                        RouterActivityLogger.OPENIDM_AUDIT_LOG_FULL_OBJECTS, "false")),
+                activityLogger.isValueLogged(RequestType.QUERY));
+    }
+
+    /**
+     * Creates a summary.
+     *
+     * @param maxResults the number of result ids, and objects, to keep
+     * @param logFullObjects whether to keep the content of the first results
+     */
+    public QueryActivitySummary(int maxResults, boolean logFullObjects) {
+        this(maxResults, logFullObjects, true);
+    }
+
+    /**
+     * Creates a summary.
+     *
+     * @param maxResults the number of result ids, and objects, to keep
+     * @param logFullObjects whether to keep the content of the first results
+     * @param logged whether the summary is logged; if not, only the results are counted
+     */
+    public QueryActivitySummary(int maxResults, boolean logFullObjects, boolean logged) {
+        this.maxResults = maxResults;
+        this.logFullObjects = logFullObjects;
+        this.logged = logged;
+        if (logged) {
+            try {
+                this.digest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                // Every Java platform supports SHA-256
+                throw new IllegalStateException(e);
+            }
+        } else {
+            this.digest = null;
+        }
+    }
+
+    /**
+     * Parses the {@link #OPENIDM_AUDIT_QUERY_RESULTS_LOGGED} property.
+     *
+     * @param value the property value, may be null
+     * @return the number of result ids to keep, or {@link #DEFAULT_QUERY_RESULTS_LOGGED} if the value is not set,
+     * not a number or negative
+     */
+    static int parseMaxResults(String value) {
+        if (value == null) {
+            return DEFAULT_QUERY_RESULTS_LOGGED;
+        }
+        try {
+            int maxResults = Integer.parseInt(value.trim());
+            return maxResults >= 0 ? maxResults : DEFAULT_QUERY_RESULTS_LOGGED;
+        } catch (NumberFormatException e) {
+            return DEFAULT_QUERY_RESULTS_LOGGED;
+        }
+    }
+
+    /**
+     * Adds a query result to the summary.
+     *
+     * @param resource the query result
+     */
+    public void add(ResourceResponse resource) {
+        add(resource.getId(), resource.getRevision(), resource.getContent());
+    }
+
+    /**
+     * Adds a query result to the summary.
+     *
+     * @param id the id of the result, may be null
+     * @param revision the revision of the result, may be null
+     * @param content the content of the result
+     */
+    public synchronized void add(String id, String revision, JsonValue content) {
+        count++;
+        if (!logged) {
+            return;
+        }
+        if (id != null) {
+            digest.update(id.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) 0);
+        if (revision != null) {
+            digest.update(revision.getBytes(StandardCharsets.UTF_8));
+        }
+        digest.update((byte) '\n');
+        if (count <= maxResults) {
+            ids.add(id);
+            if (logFullObjects) {
+                results.add(content.getObject());
+            }
+        }
+    }
+
+    /**
+     * @return the number of results added to the summary
+     */
+    public synchronized int getCount() {
+        return count;
+    }
+
+    /**
+     * Returns the summary, to log as the "after" value of the query.
+     *
+     * @return the summary with the result count, the first result ids, whether ids were left out, the
+     * hex encoded digest and, if full objects are logged, the first results; only the result count if the
+     * summary is not logged
+     */
+    public synchronized JsonValue toJsonValue() {
+        if (!logged) {
+            return json(object(field("resultCount", count)));
+        }
+        JsonValue summary = json(object(
+                field("resultCount", count),
+                field("ids", new ArrayList<Object>(ids)),
+                field("truncated", count > maxResults),
+                field("digest", toHex(cloneDigest().digest()))));
+        if (logFullObjects) {
+            summary.put("results", new ArrayList<Object>(results));
+        }
+        return summary;
+    }
+
+    private MessageDigest cloneDigest() {
+        try {
+            return (MessageDigest) digest.clone();
+        } catch (CloneNotSupportedException e) {
+            // The SHA-256 digests of the platform providers are cloneable
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+}
@@ -187,15 +187,22 @@ public class RouterActivityLogger implements ActivityLogger {
      * {@link JsonValue} wrapped null.
      */
     private JsonValue getJsonForLog(JsonValue value, RequestType requestType) {
-        boolean isReadOrQueryRequest = RequestType.READ.equals(requestType) || RequestType.QUERY.equals(requestType);
-
-        if (logFullObjects || !isReadOrQueryRequest) {
+        if (isValueLogged(requestType)) {
             return value != null ? value : json(null);
         }
 
         return json(null);
     }
 
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean isValueLogged(RequestType requestType) {
+        boolean isReadOrQueryRequest = RequestType.READ.equals(requestType) || RequestType.QUERY.equals(requestType);
+        return logFullObjects || !isReadOrQueryRequest;
+    }
+
     /**
      * Pulls the revision from after if it isn't null, otherwise from before if it isn't null, otherwise null.
      * Revision is expected to be a string field.
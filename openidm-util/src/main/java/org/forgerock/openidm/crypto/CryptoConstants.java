@@ -49,4 +49,19 @@ public class CryptoConstants {
      * The name of the message digest algorithm that should be used to generate 512-bit SHA-2 hashes.
      */
     public static final String ALGORITHM_SHA_512 = "SHA-512";
+
+    /**
+     * The name of the PBKDF2 key derivation function with HMAC-SHA256, used to generate slow salted hashes.
+     */
+    public static final String ALGORITHM_PBKDF2_SHA_256 = "PBKDF2-SHA-256";
+
+    /**
+     * The name of the bcrypt password hashing function, used to generate slow salted hashes.
+     */
+    public static final String ALGORITHM_BCRYPT = "BCRYPT";
+
+    /**
+     * The name of the scrypt key derivation function, used to generate slow, memory-hard salted hashes.
+     */
+    public static final String ALGORITHM_SCRYPT = "SCRYPT";
 }
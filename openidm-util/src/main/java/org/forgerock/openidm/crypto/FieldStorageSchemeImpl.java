@@ -27,6 +27,7 @@
 package org.forgerock.openidm.crypto;
 
 import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
 import java.util.Arrays;
 
@@ -54,36 +55,41 @@ public class FieldStorageSchemeImpl implements FieldStorageScheme {
     private static final int NUM_SALT_BYTES = 16;
 
     /**
-     * The message digest that will actually be used to generate the hashes.
+     * The message digests that will actually be used to generate the hashes, one per thread as message
+     * digests are not thread safe.
      */
-    private MessageDigest messageDigest;
+    private final ThreadLocal<MessageDigest> messageDigest;
 
     /** 
-     * The lock used to provide thread safe access to the message digest. 
+     * The secure random number generator to use to generate the salt values, shared by all instances. 
      */
-    private Object digestLock;
-
-    /** 
-     * The secure random number generator to use to generate the salt values. 
-     */
-    private SecureRandom random;
+    private static final SecureRandom random = new SecureRandom();
 
     /** 
      * Size of the digest in bytes.
      */
-    private int digestSize;
+    private final int digestSize;
 
     /**
      * Creates a new instance of this field storage scheme.
      * 
      * @param digestSize the size of the digest in bytes.
      * @param algorithm the algorithm to use.
-     * @throws Exception
+     * @throws Exception if the algorithm is not available
      */
-    public FieldStorageSchemeImpl(int digestSize, String algorithm) throws Exception {
-        this.messageDigest = MessageDigest.getInstance(algorithm);
-        this.digestLock = new Object();
-        this.random     = new SecureRandom();
+    public FieldStorageSchemeImpl(int digestSize, final String algorithm) throws Exception {
+        // Fail early if the algorithm is not available
+        MessageDigest.getInstance(algorithm);
+        this.messageDigest = new ThreadLocal<MessageDigest>() {
+            @Override
+            protected MessageDigest initialValue() {
+                try {
+                    return MessageDigest.getInstance(algorithm);
+                } catch (NoSuchAlgorithmException e) {
+                    throw new IllegalStateException(e);
+                }
+            }
+        };
         this.digestSize = digestSize;
     }
 
@@ -96,20 +102,18 @@ public class FieldStorageSchemeImpl implements FieldStorageScheme {
         System.arraycopy(plaintext.getBytes(),0, plainPlusSalt, 0, plainBytesLength);
         byte[] digestBytes;
 
-        synchronized (digestLock) {
-            try {
-                // Generate the salt and put in the plain+salt array.
-                random.nextBytes(saltBytes);
-                System.arraycopy(saltBytes,0, plainPlusSalt, plainBytesLength, NUM_SALT_BYTES);
-
-                // Create the hash from the concatenated value.
-                digestBytes = messageDigest.digest(plainPlusSalt);
-            } catch (Exception e) {
-                logger.error("Cannot encode field: " + e.getMessage(), e);
-                throw e;
-            } finally {
-                Arrays.fill(plainPlusSalt, (byte) 0);
-            }
+        try {
+            // Generate the salt and put in the plain+salt array.
+            random.nextBytes(saltBytes);
+            System.arraycopy(saltBytes,0, plainPlusSalt, plainBytesLength, NUM_SALT_BYTES);
+
+            // Create the hash from the concatenated value.
+            digestBytes = messageDigest.get().digest(plainPlusSalt);
+        } catch (RuntimeException e) {
+            logger.error("Cannot encode field: " + e.getMessage(), e);
+            throw e;
+        } finally {
+            Arrays.fill(plainPlusSalt, (byte) 0);
         }
 
         // Append the salt to the hashed value and base64-the whole thing.
@@ -154,18 +158,16 @@ public class FieldStorageSchemeImpl implements FieldStorageScheme {
 
         byte[] userDigestBytes;
 
-        synchronized (digestLock) {
-            try {
-                userDigestBytes = messageDigest.digest(plainPlusSalt);
-            } catch (Exception e) {
-                logger.error("Cannot encode field", storedField, e);
-                return false;
-            } finally {
-                Arrays.fill(plainPlusSalt, (byte) 0);
-            }
+        try {
+            userDigestBytes = messageDigest.get().digest(plainPlusSalt);
+        } catch (Exception e) {
+            logger.error("Cannot encode field", storedField, e);
+            return false;
+        } finally {
+            Arrays.fill(plainPlusSalt, (byte) 0);
         }
 
-        return Arrays.equals(digestBytes, userDigestBytes);
+        return MessageDigest.isEqual(digestBytes, userDigestBytes);
     }
     
 }
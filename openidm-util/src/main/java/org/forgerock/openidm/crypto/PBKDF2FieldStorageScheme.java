@@ -0,0 +1,190 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.crypto;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import org.forgerock.util.encode.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A field storage scheme based on the PBKDF2 key derivation function with HMAC-SHA256 as its
+ * pseudorandom function. The cost of a hash is set by the number of iterations, which is stored with
+ * the hash so that hashes of different cost can be verified:
+ * <pre>
+ *     $pbkdf2-sha256$&lt;iterations&gt;$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ * Stored hashes of more than a maximum number of iterations are rejected without being computed, so that a
+ * tampered stored field cannot make a verification arbitrarily slow.
+ */
+public class PBKDF2FieldStorageScheme implements FieldStorageScheme {
+
+    private static final Logger logger = LoggerFactory.getLogger(PBKDF2FieldStorageScheme.class);
+
+    /** The default number of iterations */
+    public static final int DEFAULT_ITERATIONS = 20000;
+
+    /**
+     * The default maximum number of iterations of a stored hash. It does not depend on the number of iterations
+     * of new hashes, so that lowering them does not reject the hashes stored before.
+     */
+    public static final int DEFAULT_MAX_ITERATIONS = 1000000;
+
+    private static final String PREFIX = "$pbkdf2-sha256$";
+    private static final String HMAC_ALGORITHM = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NUM_SALT_BYTES = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final int iterations;
+    private final int maxIterations;
+
+    /**
+     * Creates a new instance of this field storage scheme using the default number of iterations.
+     */
+    public PBKDF2FieldStorageScheme() {
+        this(DEFAULT_ITERATIONS);
+    }
+
+    /**
+     * Creates a new instance of this field storage scheme, verifying stored hashes of up to
+     * {@link #DEFAULT_MAX_ITERATIONS} iterations, or the number of iterations if higher.
+     *
+     * @param iterations the number of iterations of new hashes
+     */
+    public PBKDF2FieldStorageScheme(int iterations) {
+        this(iterations, Math.max(iterations, DEFAULT_MAX_ITERATIONS));
+    }
+
+    /**
+     * Creates a new instance of this field storage scheme.
+     *
+     * @param iterations the number of iterations of new hashes
+     * @param maxIterations the maximum number of iterations of the stored hashes to verify
+     */
+    public PBKDF2FieldStorageScheme(int iterations, int maxIterations) {
+        if (iterations < 1 || maxIterations < iterations) {
+            throw new IllegalArgumentException("Invalid number of PBKDF2 iterations " + iterations
+                    + ", maximum " + maxIterations);
+        }
+        this.iterations = iterations;
+        this.maxIterations = maxIterations;
+    }
+
+    @Override
+    public String hashField(String plaintext) {
+        byte[] salt = new byte[NUM_SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] password = plaintext.getBytes(UTF_8);
+        try {
+            byte[] hash = pbkdf2(password, salt, iterations, HASH_LENGTH);
+            return PREFIX + iterations + "$" + Base64.encode(salt) + "$" + Base64.encode(hash);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean fieldMatches(String plaintextfield, String storedField) {
+        if (storedField == null || !storedField.startsWith(PREFIX)) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        String[] parts = storedField.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        int storedIterations;
+        byte[] salt;
+        byte[] hash;
+        try {
+            storedIterations = Integer.parseInt(parts[0]);
+            salt = Base64.decode(parts[1]);
+            hash = Base64.decode(parts[2]);
+        } catch (RuntimeException e) {
+            // Also catches the NPE if Base64.decode returns null on bad (non-base64) input
+            logger.error("Cannot decode stored field", e);
+            return false;
+        }
+        if (storedIterations < 1 || salt == null || hash == null || hash.length == 0) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        if (storedIterations > maxIterations) {
+            logger.error("Stored field of {} iterations exceeds the maximum of {}", storedIterations, maxIterations);
+            return false;
+        }
+        byte[] password = plaintextfield.getBytes(UTF_8);
+        try {
+            return MessageDigest.isEqual(hash, pbkdf2(password, salt, storedIterations, hash.length));
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    /**
+     * Derives a key from a password with PBKDF2 (RFC 2898) using HMAC-SHA256.
+     *
+     * @param password the password
+     * @param salt the salt
+     * @param iterations the number of iterations
+     * @param length the length of the derived key in bytes
+     * @return the derived key
+     */
+    static byte[] pbkdf2(byte[] password, byte[] salt, int iterations, int length) {
+        Mac mac;
+        try {
+            mac = Mac.getInstance(HMAC_ALGORITHM);
+            // An empty password is valid for PBKDF2, but not for SecretKeySpec
+            mac.init(new SecretKeySpec(password.length > 0 ? password : new byte[1], HMAC_ALGORITHM));
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException("Cannot initialize " + HMAC_ALGORITHM, e);
+        }
+        int macLength = mac.getMacLength();
+        byte[] derived = new byte[length];
+        byte[] block = new byte[macLength];
+        byte[] u = new byte[macLength];
+        for (int i = 1, offset = 0; offset < length; i++, offset += macLength) {
+            mac.update(salt);
+            mac.update(new byte[] { (byte) (i >>> 24), (byte) (i >>> 16), (byte) (i >>> 8), (byte) i });
+            try {
+                mac.doFinal(u, 0);
+                System.arraycopy(u, 0, block, 0, macLength);
+                for (int n = 1; n < iterations; n++) {
+                    mac.update(u);
+                    mac.doFinal(u, 0);
+                    for (int k = 0; k < macLength; k++) {
+                        block[k] ^= u[k];
+                    }
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IllegalStateException("Cannot compute " + HMAC_ALGORITHM, e);
+            }
+            System.arraycopy(block, 0, derived, offset, Math.min(macLength, length - offset));
+        }
+        return derived;
+    }
+}
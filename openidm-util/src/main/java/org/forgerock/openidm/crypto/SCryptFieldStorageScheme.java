@@ -0,0 +1,264 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+package org.forgerock.openidm.crypto;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import org.forgerock.util.encode.Base64;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A field storage scheme based on the scrypt key derivation function (RFC 7914), which is both CPU and
+ * memory hard. The cost of a hash is set by the CPU/memory cost N, the block size r and the
+ * parallelization p; a hash needs 128 * N * r bytes of memory. The parameters are stored with the hash so
+ * that hashes of different cost can be verified:
+ * <pre>
+ *     $s0$&lt;hex log2(N) &lt;&lt; 16 | r &lt;&lt; 8 | p&gt;$&lt;base64 salt&gt;$&lt;base64 hash&gt;
+ * </pre>
+ * Stored hashes whose work N * r * p exceeds that of a maximum cost N, at the configured block size and
+ * parallelization, are rejected without being computed; this also bounds the memory they need.
+ */
+public class SCryptFieldStorageScheme implements FieldStorageScheme {
+
+    private static final Logger logger = LoggerFactory.getLogger(SCryptFieldStorageScheme.class);
+
+    /** The default CPU/memory cost N */
+    public static final int DEFAULT_COST = 16384;
+
+    /** The default block size r */
+    public static final int DEFAULT_BLOCK_SIZE = 8;
+
+    /** The default parallelization p */
+    public static final int DEFAULT_PARALLELIZATION = 1;
+
+    /**
+     * The default maximum CPU/memory cost N of a stored hash, 128 MiB of memory at the default block size. It
+     * does not depend on the cost of new hashes, so that lowering it does not reject the hashes stored before.
+     */
+    public static final int DEFAULT_MAX_COST = 131072;
+
+    private static final String PREFIX = "$s0$";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NUM_SALT_BYTES = 16;
+    private static final int HASH_LENGTH = 32;
+    private static final SecureRandom random = new SecureRandom();
+
+    private final int cost;
+    private final int blockSize;
+    private final int parallelization;
+
+    /** The maximum work N * r * p of the stored hashes to verify */
+    private final long maxWork;
+
+    /**
+     * Creates a new instance of this field storage scheme using the default parameters.
+     */
+    public SCryptFieldStorageScheme() {
+        this(DEFAULT_COST, DEFAULT_BLOCK_SIZE, DEFAULT_PARALLELIZATION);
+    }
+
+    /**
+     * Creates a new instance of this field storage scheme, verifying stored hashes of up to a CPU/memory cost
+     * of {@link #DEFAULT_MAX_COST}, or the cost if higher, at the block size and parallelization of new hashes.
+     *
+     * @param cost the CPU/memory cost N of new hashes, a power of 2 greater than 1
+     * @param blockSize the block size r of new hashes
+     * @param parallelization the parallelization p of new hashes
+     */
+    public SCryptFieldStorageScheme(int cost, int blockSize, int parallelization) {
+        this(cost, blockSize, parallelization, Math.max(cost, DEFAULT_MAX_COST));
+    }
+
+    /**
+     * Creates a new instance of this field storage scheme.
+     *
+     * @param cost the CPU/memory cost N of new hashes, a power of 2 greater than 1
+     * @param blockSize the block size r of new hashes
+     * @param parallelization the parallelization p of new hashes
+     * @param maxCost the maximum CPU/memory cost N of the stored hashes to verify, at the block size and
+     *                parallelization of new hashes
+     */
+    public SCryptFieldStorageScheme(int cost, int blockSize, int parallelization, long maxCost) {
+        if (!isValid(cost, blockSize, parallelization) || maxCost < cost) {
+            throw new IllegalArgumentException("Invalid scrypt parameters N=" + cost + ", r=" + blockSize
+                    + ", p=" + parallelization + ", maximum N=" + maxCost);
+        }
+        this.cost = cost;
+        this.blockSize = blockSize;
+        this.parallelization = parallelization;
+        this.maxWork = maxCost * blockSize * parallelization;
+    }
+
+    private static boolean isValid(int cost, int blockSize, int parallelization) {
+        return cost > 1 && (cost & (cost - 1)) == 0
+                && blockSize >= 1 && blockSize <= 255
+                && parallelization >= 1 && parallelization <= 255
+                && (long) cost * blockSize <= Integer.MAX_VALUE / 128;
+    }
+
+    @Override
+    public String hashField(String plaintext) {
+        byte[] salt = new byte[NUM_SALT_BYTES];
+        random.nextBytes(salt);
+        byte[] password = plaintext.getBytes(UTF_8);
+        try {
+            byte[] hash = scrypt(password, salt, cost, blockSize, parallelization, HASH_LENGTH);
+            int params = Integer.numberOfTrailingZeros(cost) << 16 | blockSize << 8 | parallelization;
+            return PREFIX + Integer.toHexString(params) + "$" + Base64.encode(salt) + "$" + Base64.encode(hash);
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    @Override
+    public boolean fieldMatches(String plaintextfield, String storedField) {
+        if (storedField == null || !storedField.startsWith(PREFIX)) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        String[] parts = storedField.substring(PREFIX.length()).split("\\$");
+        if (parts.length != 3) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        int params;
+        byte[] salt;
+        byte[] hash;
+        try {
+            params = Integer.parseInt(parts[0], 16);
+            salt = Base64.decode(parts[1]);
+            hash = Base64.decode(parts[2]);
+        } catch (RuntimeException e) {
+            logger.error("Cannot decode stored field", e);
+            return false;
+        }
+        int log2Cost = params >>> 16;
+        int storedBlockSize = params >>> 8 & 0xff;
+        int storedParallelization = params & 0xff;
+        if (log2Cost < 1 || log2Cost > 30
+                || !isValid(1 << log2Cost, storedBlockSize, storedParallelization)
+                || salt == null || hash == null || hash.length == 0) {
+            logger.error("Invalid stored field");
+            return false;
+        }
+        if ((1L << log2Cost) * storedBlockSize * storedParallelization > maxWork) {
+            logger.error("Stored field of parameters N={}, r={}, p={} exceeds the maximum work of {}",
+                    new Object[] { 1 << log2Cost, storedBlockSize, storedParallelization, maxWork });
+            return false;
+        }
+        byte[] password = plaintextfield.getBytes(UTF_8);
+        try {
+            return MessageDigest.isEqual(hash,
+                    scrypt(password, salt, 1 << log2Cost, storedBlockSize, storedParallelization, hash.length));
+        } finally {
+            Arrays.fill(password, (byte) 0);
+        }
+    }
+
+    /**
+     * Derives a key from a password with scrypt.
+     *
+     * @param password the password
+     * @param salt the salt
+     * @param n the CPU/memory cost
+     * @param r the block size
+     * @param p the parallelization
+     * @param length the length of the derived key in bytes
+     * @return the derived key
+     */
+    static byte[] scrypt(byte[] password, byte[] salt, int n, int r, int p, int length) {
+        int blockLength = 128 * r;
+        byte[] b = PBKDF2FieldStorageScheme.pbkdf2(password, salt, 1, p * blockLength);
+        int[] x = new int[32 * r];
+        int[] v = new int[32 * r * n];
+        int[] y = new int[32 * r];
+        for (int i = 0; i < p; i++) {
+            int offset = i * blockLength;
+            for (int k = 0; k < x.length; k++) {
+                int o = offset + 4 * k;
+                x[k] = (b[o] & 0xff) | (b[o + 1] & 0xff) << 8 | (b[o + 2] & 0xff) << 16 | (b[o + 3] & 0xff) << 24;
+            }
+            roMix(x, v, y, r, n);
+            for (int k = 0; k < x.length; k++) {
+                int o = offset + 4 * k;
+                b[o] = (byte) x[k];
+                b[o + 1] = (byte) (x[k] >>> 8);
+                b[o + 2] = (byte) (x[k] >>> 16);
+                b[o + 3] = (byte) (x[k] >>> 24);
+            }
+        }
+        Arrays.fill(v, 0);
+        return PBKDF2FieldStorageScheme.pbkdf2(password, b, 1, length);
+    }
+
+    private static void roMix(int[] x, int[] v, int[] y, int r, int n) {
+        int words = 32 * r;
+        for (int i = 0; i < n; i++) {
+            System.arraycopy(x, 0, v, i * words, words);
+            blockMix(x, y, r);
+        }
+        for (int i = 0; i < n; i++) {
+            int j = x[(2 * r - 1) * 16] & (n - 1);
+            for (int k = 0; k < words; k++) {
+                x[k] ^= v[j * words + k];
+            }
+            blockMix(x, y, r);
+        }
+    }
+
+    private static void blockMix(int[] b, int[] y, int r) {
+        int[] x = new int[16];
+        System.arraycopy(b, (2 * r - 1) * 16, x, 0, 16);
+        for (int i = 0; i < 2 * r; i++) {
+            for (int k = 0; k < 16; k++) {
+                x[k] ^= b[i * 16 + k];
+            }
+            salsa20_8(x);
+            // Even blocks go to the first half of the output, odd blocks to the second half
+            System.arraycopy(x, 0, y, ((i & 1) * r + (i >>> 1)) * 16, 16);
+        }
+        System.arraycopy(y, 0, b, 0, 32 * r);
+    }
+
+    private static void salsa20_8(int[] b) {
+        int x0 = b[0], x1 = b[1], x2 = b[2], x3 = b[3], x4 = b[4], x5 = b[5], x6 = b[6], x7 = b[7];
+        int x8 = b[8], x9 = b[9], x10 = b[10], x11 = b[11], x12 = b[12], x13 = b[13], x14 = b[14], x15 = b[15];
+        for (int i = 0; i < 8; i += 2) {
+            x4 ^= Integer.rotateLeft(x0 + x12, 7);   x8 ^= Integer.rotateLeft(x4 + x0, 9);
+            x12 ^= Integer.rotateLeft(x8 + x4, 13);  x0 ^= Integer.rotateLeft(x12 + x8, 18);
+            x9 ^= Integer.rotateLeft(x5 + x1, 7);    x13 ^= Integer.rotateLeft(x9 + x5, 9);
+            x1 ^= Integer.rotateLeft(x13 + x9, 13);  x5 ^= Integer.rotateLeft(x1 + x13, 18);
+            x14 ^= Integer.rotateLeft(x10 + x6, 7);  x2 ^= Integer.rotateLeft(x14 + x10, 9);
+            x6 ^= Integer.rotateLeft(x2 + x14, 13);  x10 ^= Integer.rotateLeft(x6 + x2, 18);
+            x3 ^= Integer.rotateLeft(x15 + x11, 7);  x7 ^= Integer.rotateLeft(x3 + x15, 9);
+            x11 ^= Integer.rotateLeft(x7 + x3, 13);  x15 ^= Integer.rotateLeft(x11 + x7, 18);
+            x1 ^= Integer.rotateLeft(x0 + x3, 7);    x2 ^= Integer.rotateLeft(x1 + x0, 9);
+            x3 ^= Integer.rotateLeft(x2 + x1, 13);   x0 ^= Integer.rotateLeft(x3 + x2, 18);
+            x6 ^= Integer.rotateLeft(x5 + x4, 7);    x7 ^= Integer.rotateLeft(x6 + x5, 9);
+            x4 ^= Integer.rotateLeft(x7 + x6, 13);   x5 ^= Integer.rotateLeft(x4 + x7, 18);
+            x11 ^= Integer.rotateLeft(x10 + x9, 7);  x8 ^= Integer.rotateLeft(x11 + x10, 9);
+            x9 ^= Integer.rotateLeft(x8 + x11, 13);  x10 ^= Integer.rotateLeft(x9 + x8, 18);
+            x12 ^= Integer.rotateLeft(x15 + x14, 7); x13 ^= Integer.rotateLeft(x12 + x15, 9);
+            x14 ^= Integer.rotateLeft(x13 + x12, 13); x15 ^= Integer.rotateLeft(x14 + x13, 18);
+        }
+        b[0] += x0; b[1] += x1; b[2] += x2; b[3] += x3; b[4] += x4; b[5] += x5; b[6] += x6; b[7] += x7;
+        b[8] += x8; b[9] += x9; b[10] += x10; b[11] += x11; b[12] += x12; b[13] += x13; b[14] += x14; b[15] += x15;
+    }
+}
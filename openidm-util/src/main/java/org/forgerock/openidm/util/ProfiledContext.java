@@ -0,0 +1,31 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.util;
+
+/**
+ * A context which names what the scripts evaluated under it run for, such as the mapping of a reconciliation,
+ * so that the script profile reports their evaluations separately.
+ */
+public interface ProfiledContext {
+
+    /**
+     * Returns the label the evaluations of scripts under this context are recorded with.
+     *
+     * @return the label, such as {@code recon:systemLdapAccounts_managedUser}
+     */
+    String getProfileLabel();
+}
@@ -0,0 +1,98 @@
+/*
+ * The contents of this file are subject to the terms of the Common Development and
+ * Distribution License (the License). You may not use this file except in compliance with the
+ * License.
+ *
+ * You can obtain a copy of the License at legal/CDDLv1.0.txt. See the License for the
+ * specific language governing permission and limitations under the License.
+ *
+ * When distributing Covered Software, include this CDDL Header Notice in each file and include
+ * the License file at legal/CDDLv1.0.txt. If applicable, add the following below the CDDL
+ * Header, with the fields enclosed by brackets [] replaced by your own identifying
+ * information: "Portions copyright [year] [name of copyright owner]".
+ *
+ * Copyright 2015 ForgeRock AS.
+ */
+
+package org.forgerock.openidm.audit.util;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.forgerock.json.JsonValue.field;
+import static org.forgerock.json.JsonValue.json;
+import static org.forgerock.json.JsonValue.object;
+
+import org.forgerock.json.JsonValue;
+import org.forgerock.json.resource.Responses;
+import org.testng.annotations.Test;
+
+/**
+ * Tests QueryActivitySummary
+ *
+ * @see QueryActivitySummary
+ */
+public class QueryActivitySummaryTest {
+
+    @Test
+    public void testSummaryIsBounded() throws Exception {
+        QueryActivitySummary summary = new QueryActivitySummary(2, false);
+        for (int i = 0; i < 5; i++) {
+            summary.add(Responses.newResourceResponse("id" + i, "1", json(object(field("name", "user" + i)))));
+        }
+
+        JsonValue value = summary.toJsonValue();
+        assertThat(value.get("resultCount").asInteger()).isEqualTo(5);
+        assertThat(value.get("ids").asList()).containsExactly("id0", "id1");
+        assertThat(value.get("truncated").asBoolean()).isTrue();
+        assertThat(value.get("digest").asString()).hasSize(64);
+        assertThat(value.isDefined("results")).isFalse();
+    }
+
+    @Test
+    public void testFullObjects() throws Exception {
+        QueryActivitySummary summary = new QueryActivitySummary(2, true);
+        summary.add(Responses.newResourceResponse("id0", "1", json(object(field("name", "user0")))));
+
+        JsonValue value = summary.toJsonValue();
+        assertThat(value.get("truncated").asBoolean()).isFalse();
+        assertThat(value.get("results").get(0).get("name").asString()).isEqualTo("user0");
+    }
+
+    @Test
+    public void testDigestDependsOnIdsAndRevisions() throws Exception {
+        QueryActivitySummary first = new QueryActivitySummary(0, false);
+        first.add("id0", "1", json(object()));
+        QueryActivitySummary same = new QueryActivitySummary(10, false);
+        same.add("id0", "1", json(object(field("name", "user0"))));
+        QueryActivitySummary changed = new QueryActivitySummary(0, false);
+        changed.add("id0", "2", json(object()));
+
+        String digest = first.toJsonValue().get("digest").asString();
+        assertThat(same.toJsonValue().get("digest").asString()).isEqualTo(digest);
+        assertThat(changed.toJsonValue().get("digest").asString()).isNotEqualTo(digest);
+        // computing the summary does not reset the digest
+        assertThat(first.toJsonValue().get("digest").asString()).isEqualTo(digest);
+    }
+
+    @Test
+    public void testSummaryNotLoggedOnlyCounts() throws Exception {
+        QueryActivitySummary summary = new QueryActivitySummary(2, true, false);
+        summary.add(Responses.newResourceResponse("id0", "1", json(object(field("name", "user0")))));
+
+        JsonValue value = summary.toJsonValue();
+        assertThat(value.get("resultCount").asInteger()).isEqualTo(1);
+        assertThat(value.isDefined("digest")).isFalse();
+        assertThat(value.isDefined("ids")).isFalse();
+        assertThat(value.isDefined("results")).isFalse();
+    }
+
+    @Test
+    public void testMalformedMaxResultsFallsBackToDefault() throws Exception {
+        assertThat(QueryActivitySummary.parseMaxResults("10")).isEqualTo(10);
+        assertThat(QueryActivitySummary.parseMaxResults(null))
+                .isEqualTo(QueryActivitySummary.DEFAULT_QUERY_RESULTS_LOGGED);
+        assertThat(QueryActivitySummary.parseMaxResults("ten"))
+                .isEqualTo(QueryActivitySummary.DEFAULT_QUERY_RESULTS_LOGGED);
+        assertThat(QueryActivitySummary.parseMaxResults("-1"))
+                .isEqualTo(QueryActivitySummary.DEFAULT_QUERY_RESULTS_LOGGED);
+    }
+}
@@ -32,7 +32,10 @@ public class FieldStorageSchemeTest {
                 { new SaltedSHA1FieldStorageScheme(), 48 },
                 { new SaltedSHA256FieldStorageScheme(), 64 },
                 { new SaltedSHA384FieldStorageScheme(), 88 },
-                { new SaltedSHA512FieldStorageScheme(), 108 }  
+                { new SaltedSHA512FieldStorageScheme(), 108 },
+                { new PBKDF2FieldStorageScheme(1000), 89 },
+                { new BCryptFieldStorageScheme(4), 60 },
+                { new SCryptFieldStorageScheme(1024, 8, 1), 79 }
         };
     }
     
@@ -49,4 +52,123 @@ public class FieldStorageSchemeTest {
         assertThat(fieldStorageScheme.fieldMatches(testField, hashedField)).isTrue();
         assertThat(fieldStorageScheme.fieldMatches(testField + " ", hashedField)).isFalse();
     }
+
+    @DataProvider
+    public Object[][] bcryptTestVectors() {
+        // The test vectors of the OpenBSD bcrypt and jBCrypt implementations
+        return new Object[][] {
+                { "", "$2a$06$DCq7YPn5Rq63x1Lad4cll.TV4S6ytwfsfvkgY8jIucDrjc8deX1s." },
+                { "", "$2a$08$HqWuK6/Ng6sg9gQzbLrgb.Tl.ZHfXLhvt/SgVyWhQqgqcZ7ZuUtye" },
+                { "", "$2a$10$k1wbIrmNyFAPwPVPSVa/zecw2BCEnBwVS2GbrmgzxFUOqW9dk4TCW" },
+                { "a", "$2a$06$m0CrhHm10qJ3lXRY.5zDGO3rS2KdeeWLuGmsfGlMfOxih58VYVfxe" },
+                { "a", "$2a$08$cfcvVd2aQ8CMvoMpP2EBfeodLEkkFJ9umNEfPD18.hUF62qqlC/V." },
+                { "abc", "$2a$06$If6bvum7DFjUnE9p2uDeDu0YHzrHM6tf.iqN8.yx.jNN1ILEf7h0i" },
+                { "abc", "$2a$10$WvvTPHKwdBJ3uk0Z37EMR.hLA2W6N9AEBhEgrAOljy2Ae5MtaSIUi" },
+                { "abcdefghijklmnopqrstuvwxyz", "$2a$06$.rCVZVOThsIa97pEDOxvGuRRgzG64bvtJ0938xuqzv18d3ZpQhstC" },
+                { "~!@#$%^&*()      ~!@#$%^&*()PNBFRD",
+                        "$2a$06$fPIsBO8qRqkjj273rfaOI.HtSV9jLDpTbZn782DC6/t7qT67P6FfO" },
+                { "U*U", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.E5YPO9kmyuRGyh0XouQYb4YMJKvyOeW" },
+                { "U*U*", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.VGOzA784oUp/Z0DY336zx7pLYAy0lwK" },
+                { "U*U*U", "$2a$05$XXXXXXXXXXXXXXXXXXXXXOAcXxm9kjPGEMsLznoKqmqw7tc8WCx4a" },
+                { "", "$2a$05$CCCCCCCCCCCCCCCCCCCCC.7uG0VCzI2bS7j6ymqJi9CdcdxiRTWNy" }
+        };
+    }
+
+    @Test(dataProvider = "bcryptTestVectors")
+    public void testBCryptTestVectors(String plaintext, String hashedField) {
+        FieldStorageScheme fieldStorageScheme = new BCryptFieldStorageScheme();
+        assertThat(fieldStorageScheme.fieldMatches(plaintext, hashedField)).isTrue();
+        assertThat(fieldStorageScheme.fieldMatches(plaintext + "x", hashedField)).isFalse();
+    }
+
+    @Test
+    public void testBCryptInvalidHashes() {
+        FieldStorageScheme fieldStorageScheme = new BCryptFieldStorageScheme();
+        assertThat(fieldStorageScheme.fieldMatches("U*U",
+                "$2a$05$CCCCCCCCCCCCCCCCCCCCC.VGOzA784oUp/Z0DY336zx7pLYAy0lwK")).isFalse();
+        assertThat(fieldStorageScheme.fieldMatches("U*U", "not a bcrypt hash")).isFalse();
+    }
+
+    @Test
+    public void testSCryptTestVectors() {
+        // The test vectors of RFC 7914, section 12, but the last one, which needs 1 GiB of memory
+        assertThat(hex(SCryptFieldStorageScheme.scrypt(new byte[0], new byte[0], 16, 1, 1, 64))).isEqualTo(
+                "77d6576238657b203b19ca42c18a0497f16b4844e3074ae8dfdffa3fede2144"
+                + "2fcd0069ded0948f8326a753a0fc81f17e8d3e0fb2e0d3628cf35e20c38d18906");
+        assertThat(hex(SCryptFieldStorageScheme.scrypt("password".getBytes(), "NaCl".getBytes(), 1024, 8, 16, 64)))
+                .isEqualTo("fdbabe1c9d3472007856e7190d01e9fe7c6ad7cbc8237830e77376634b373162"
+                        + "2eaf30d92e22a3886ff109279d9830dac727afb94a83ee6d8360cbdfa2cc0640");
+        assertThat(hex(SCryptFieldStorageScheme.scrypt("pleaseletmein".getBytes(), "SodiumChloride".getBytes(),
+                16384, 8, 1, 64))).isEqualTo("7023bdcb3afd7348461c06cd81fd38ebfda8fbba904f8e3ea9b543f6545da1f2"
+                        + "d5432955613f0fcf62d49705242a9af9e61e85dc0d651e40dfcf017b45575887");
+    }
+
+    @Test
+    public void testPBKDF2TestVectors() {
+        // The PBKDF2-HMAC-SHA256 test vectors of RFC 7914, section 11, and of the scrypt paper
+        assertThat(hex(PBKDF2FieldStorageScheme.pbkdf2("passwd".getBytes(), "salt".getBytes(), 1, 64))).isEqualTo(
+                "55ac046e56e3089fec1691c22544b605f94185216dde0465e68b9d57c20dacbc"
+                + "49ca9cccf179b645991664b39d77ef317c71b845b1e30bd509112041d3a19783");
+        assertThat(hex(PBKDF2FieldStorageScheme.pbkdf2("Password".getBytes(), "NaCl".getBytes(), 80000, 64)))
+                .isEqualTo("4ddcd8f60b98be21830cee5ef22701f9641a4418d04c0414aeff08876b34ab56"
+                        + "a1d425a1225833549adb841b51c9b3176a272bdebba1d078478f62b397f33c8d");
+        assertThat(hex(PBKDF2FieldStorageScheme.pbkdf2("password".getBytes(), "salt".getBytes(), 4096, 40)))
+                .isEqualTo("c5e478d59288c841aa530db6845c4c8d962893a001ce4e11a4963873aa98134af7ad98c1b458ce3f");
+    }
+
+    @Test
+    public void testStoredCostIsUsedForVerification() {
+        String hashedField = new PBKDF2FieldStorageScheme(1000).hashField("valueToHash");
+        assertThat(new PBKDF2FieldStorageScheme(2000).fieldMatches("valueToHash", hashedField)).isTrue();
+        hashedField = new SCryptFieldStorageScheme(1024, 8, 1).hashField("valueToHash");
+        assertThat(new SCryptFieldStorageScheme(2048, 4, 2).fieldMatches("valueToHash", hashedField)).isTrue();
+    }
+
+    @Test
+    public void testLoweredCostStillVerifiesStoredHashes() {
+        String hashedField = new PBKDF2FieldStorageScheme(5000).hashField("valueToHash");
+        assertThat(new PBKDF2FieldStorageScheme(1000).fieldMatches("valueToHash", hashedField)).isTrue();
+        hashedField = new BCryptFieldStorageScheme(7).hashField("valueToHash");
+        assertThat(new BCryptFieldStorageScheme(4).fieldMatches("valueToHash", hashedField)).isTrue();
+        hashedField = new SCryptFieldStorageScheme(1024, 8, 1).hashField("valueToHash");
+        assertThat(new SCryptFieldStorageScheme(128, 8, 1).fieldMatches("valueToHash", hashedField)).isTrue();
+    }
+
+    @Test
+    public void testStoredCostAboveMaximumIsRejected() {
+        String hashedField = new PBKDF2FieldStorageScheme(5000).hashField("valueToHash");
+        assertThat(new PBKDF2FieldStorageScheme(1000, 4999).fieldMatches("valueToHash", hashedField)).isFalse();
+        assertThat(new PBKDF2FieldStorageScheme(1000, 5000).fieldMatches("valueToHash", hashedField)).isTrue();
+        hashedField = new BCryptFieldStorageScheme(7).hashField("valueToHash");
+        assertThat(new BCryptFieldStorageScheme(4, 6).fieldMatches("valueToHash", hashedField)).isFalse();
+        assertThat(new BCryptFieldStorageScheme(4, 7).fieldMatches("valueToHash", hashedField)).isTrue();
+        hashedField = new SCryptFieldStorageScheme(1024, 8, 1).hashField("valueToHash");
+        assertThat(new SCryptFieldStorageScheme(128, 8, 1, 512).fieldMatches("valueToHash", hashedField)).isFalse();
+        assertThat(new SCryptFieldStorageScheme(128, 8, 1, 1024).fieldMatches("valueToHash", hashedField)).isTrue();
+    }
+
+    @Test
+    public void testStoredCostAboveDefaultMaximumIsRejected() {
+        // The stored fields are only valid at a lower cost; they are rejected before being computed
+        String hashedField = new PBKDF2FieldStorageScheme(1000).hashField("valueToHash");
+        assertThat(new PBKDF2FieldStorageScheme(1000).fieldMatches("valueToHash",
+                hashedField.replace("$1000$", "$" + (PBKDF2FieldStorageScheme.DEFAULT_MAX_ITERATIONS + 1) + "$")))
+                .isFalse();
+        hashedField = new BCryptFieldStorageScheme(4).hashField("valueToHash");
+        assertThat(new BCryptFieldStorageScheme(4).fieldMatches("valueToHash",
+                "$2a$" + (BCryptFieldStorageScheme.DEFAULT_MAX_COST + 1) + hashedField.substring(6))).isFalse();
+        hashedField = new SCryptFieldStorageScheme(1024, 8, 1).hashField("valueToHash");
+        int log2MaxCost = Integer.numberOfTrailingZeros(SCryptFieldStorageScheme.DEFAULT_MAX_COST);
+        assertThat(new SCryptFieldStorageScheme(1024, 8, 1).fieldMatches("valueToHash",
+                hashedField.replace("$a0801$", "$" + Integer.toHexString((log2MaxCost + 1) << 16 | 0x0801) + "$")))
+                .isFalse();
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder();
+        for (byte b : bytes) {
+            builder.append(String.format("%02x", b));
+        }
+        return builder.toString();
+    }
 }
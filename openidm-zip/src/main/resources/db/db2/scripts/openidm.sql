@@ -69,6 +69,8 @@ CREATE TABLE SOPENIDM.GENERICOBJECTPROPERTIES (
     propkey                    VARCHAR(255)   NOT NULL,
     proptype                   VARCHAR(255),
     propvalue                  VARCHAR(2000),
+    propnumber                 DOUBLE,
+    proptimestamp              TIMESTAMP,
     CONSTRAINT FK_GENERICOBJECTPROPERTIES_GENERICOBJECTS
         FOREIGN KEY (GENERICOBJECTS_ID ) REFERENCES SOPENIDM.GENERICOBJECTS (ID)
         ON DELETE CASCADE
@@ -77,6 +79,8 @@ COMMENT ON TABLE SOPENIDM.GENERICOBJECTPROPERTIES IS 'OPENIDM - Properties of Ge
 CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_GENERICOBJECTS ON SOPENIDM.GENERICOBJECTPROPERTIES (GENERICOBJECTS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPKEY ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPVALUE ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Table openidm.managedobjects
@@ -109,6 +113,8 @@ CREATE TABLE SOPENIDM.MANAGEDOBJECTPROPERTIES (
     PROPKEY                    VARCHAR(255)   NOT NULL,
     PROPTYPE                   VARCHAR(255),
     PROPVALUE                  VARCHAR(2000),
+    PROPNUMBER                 DOUBLE,
+    PROPTIMESTAMP              TIMESTAMP,
     CONSTRAINT FK_MANAGEDOBJECTPROPERTIES_MANAGEDOBJECTS
         FOREIGN KEY (MANAGEDOBJECTS_ID )
         REFERENCES SOPENIDM.MANAGEDOBJECTS (ID )
@@ -118,6 +124,8 @@ COMMENT ON TABLE SOPENIDM.MANAGEDOBJECTPROPERTIES IS 'OPENIDM - Properties of Ma
 CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_MANAGEDOBJECTS ON SOPENIDM.MANAGEDOBJECTPROPERTIES (MANAGEDOBJECTS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPKEY ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPVALUE ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Table openidm.configobjects
@@ -150,6 +158,8 @@ CREATE TABLE SOPENIDM.CONFIGOBJECTPROPERTIES (
     PROPKEY                    VARCHAR(255)   NOT NULL,
     PROPTYPE                   VARCHAR(255),
     PROPVALUE                  VARCHAR(2000),
+    PROPNUMBER                 DOUBLE,
+    PROPTIMESTAMP              TIMESTAMP,
     CONSTRAINT FK_CONFIGOBJECTPROPERTIES_CONFIGOBJECTS
         FOREIGN KEY (CONFIGOBJECTS_ID )
         REFERENCES SOPENIDM.CONFIGOBJECTS (ID )
@@ -159,6 +169,8 @@ COMMENT ON TABLE SOPENIDM.CONFIGOBJECTPROPERTIES IS 'OPENIDM - Properties of Con
 CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_CONFIGOBJECTS ON SOPENIDM.CONFIGOBJECTPROPERTIES (CONFIGOBJECTS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPKEY ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPVALUE ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Table openidm.relationships
@@ -191,6 +203,8 @@ CREATE TABLE SOPENIDM.RELATIONSHIPPROPERTIES (
     propkey                    VARCHAR(255)   NOT NULL,
     proptype                   VARCHAR(255),
     propvalue                  VARCHAR(2000),
+    propnumber                 DOUBLE,
+    proptimestamp              TIMESTAMP,
     CONSTRAINT fk_relationshipproperties_relationships
         FOREIGN KEY (relationships_id)
         REFERENCES sopenidm.relationships (id)
@@ -200,6 +214,8 @@ COMMENT ON TABLE SOPENIDM.RELATIONSHIPPROPERTIES IS 'OPENIDM - Properties of Rel
 CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_RELATIONSHIPS ON SOPENIDM.RELATIONSHIPPROPERTIES (RELATIONSHIPS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPKEY ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPVALUE ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPNUMBER ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPTIMESTAMP ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Table openidm.links
@@ -475,6 +491,8 @@ CREATE TABLE SOPENIDM.SCHEDULEROBJECTPROPERTIES (
     PROPKEY                    VARCHAR(255)   NOT NULL,
     PROPTYPE                   VARCHAR(255),
     PROPVALUE                  VARCHAR(2000),
+    PROPNUMBER                 DOUBLE,
+    PROPTIMESTAMP              TIMESTAMP,
     CONSTRAINT FK_SCHEDULEROBJECTPROPERTIES_SCHEDULEROBJECTS
         FOREIGN KEY (SCHEDULEROBJECTS_ID )
         REFERENCES SOPENIDM.SCHEDULEROBJECTS (ID )
@@ -484,6 +502,8 @@ COMMENT ON TABLE SOPENIDM.SCHEDULEROBJECTPROPERTIES IS 'OPENIDM - Properties of
 CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_SCHEDULEROBJECTS ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (SCHEDULEROBJECTS_ID ASC) ;
 CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPKEY ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPKEY ASC) ;
 CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPVALUE ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPVALUE ASC) ;
+CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC) ;
+CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC) ;
 
 -- -----------------------------------------------------
 -- Table openidm.uinotification
@@ -535,6 +555,8 @@ CREATE TABLE SOPENIDM.CLUSTEROBJECTPROPERTIES (
     PROPKEY                    VARCHAR(255)   NOT NULL,
     PROPTYPE                   VARCHAR(255),
     PROPVALUE                  VARCHAR(2000),
+    PROPNUMBER                 DOUBLE,
+    PROPTIMESTAMP              TIMESTAMP,
     CONSTRAINT FK_CLUSTEROBJECTPROPERTIES_CLUSTEROBJECTS
         FOREIGN KEY (CLUSTEROBJECTS_ID )
         REFERENCES SOPENIDM.CLUSTEROBJECTS (ID )
@@ -544,6 +566,8 @@ COMMENT ON TABLE SOPENIDM.CLUSTEROBJECTPROPERTIES IS 'OPENIDM - Properties of Ge
 CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_CLUSTEROBJECTS ON SOPENIDM.CLUSTEROBJECTPROPERTIES (CLUSTEROBJECTS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPKEY ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPVALUE ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Table `openidm`.`updateobjects`
@@ -573,6 +597,8 @@ CREATE TABLE SOPENIDM.UPDATEOBJECTPROPERTIES (
   PROPKEY                    VARCHAR(255)   NOT NULL,
   PROPTYPE                   VARCHAR(255),
   PROPVALUE                  VARCHAR(2000),
+  PROPNUMBER                 DOUBLE,
+  PROPTIMESTAMP              TIMESTAMP,
   CONSTRAINT FK_UPDATEOBJECTPROPERTIES_UPDATEOBJECTS
   FOREIGN KEY (UPDATEOBJECTS_ID )
   REFERENCES SOPENIDM.UPDATEOBJECTS (ID )
@@ -582,6 +608,8 @@ COMMENT ON TABLE SOPENIDM.UPDATEOBJECTPROPERTIES IS 'OPENIDM - Properties of Upd
 CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_UPDATEOBJECTS ON SOPENIDM.UPDATEOBJECTPROPERTIES (UPDATEOBJECTS_ID ASC);
 CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPKEY ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPKEY ASC);
 CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPVALUE ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPVALUE ASC);
+CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
 
 -- -----------------------------------------------------
 -- Data for table openidm.internaluser
@@ -0,0 +1,62 @@
+-- -----------------------------------------------------
+-- Upgrades the generic properties tables of an existing DB2 repository with the typed
+-- propnumber and proptimestamp columns, which index numeric and timestamp properties for
+-- range queries. Once applied, set "typedProperties" : true in conf/repo.jdbc.json.
+-- -----------------------------------------------------
+
+ALTER TABLE SOPENIDM.GENERICOBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_GENERICOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.GENERICOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.GENERICOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.GENERICOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.GENERICOBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.MANAGEDOBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_MANAGEDOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.MANAGEDOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.MANAGEDOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.MANAGEDOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.MANAGEDOBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.CONFIGOBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_CONFIGOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.CONFIGOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.CONFIGOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.CONFIGOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.CONFIGOBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.RELATIONSHIPPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPNUMBER ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_RELATIONSHIPPROPERTIES_PROPTIMESTAMP ON SOPENIDM.RELATIONSHIPPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.RELATIONSHIPPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.RELATIONSHIPPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.RELATIONSHIPPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.SCHEDULEROBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_SCHEDULEROBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.SCHEDULEROBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.SCHEDULEROBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.SCHEDULEROBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.SCHEDULEROBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.CLUSTEROBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_CLUSTEROBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.CLUSTEROBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.CLUSTEROBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.CLUSTEROBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.CLUSTEROBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+ALTER TABLE SOPENIDM.UPDATEOBJECTPROPERTIES ADD COLUMN PROPNUMBER DOUBLE ADD COLUMN PROPTIMESTAMP TIMESTAMP;
+CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPNUMBER ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPKEY ASC, PROPNUMBER ASC);
+CREATE INDEX SOPENIDM.IDX_UPDATEOBJECTPROPERTIES_PROPTIMESTAMP ON SOPENIDM.UPDATEOBJECTPROPERTIES (PROPKEY ASC, PROPTIMESTAMP ASC);
+UPDATE SOPENIDM.UPDATEOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE SOPENIDM.UPDATEOBJECTPROPERTIES SET PROPNUMBER = DOUBLE(PROPVALUE) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$")]' PASSING PROPVALUE AS "v");
+UPDATE SOPENIDM.UPDATEOBJECTPROPERTIES SET PROPTIMESTAMP = TIMESTAMP(REPLACE(REPLACE(PROPVALUE, 'T', ' '), 'Z', '')) WHERE PROPTYPE = 'java.lang.String' AND XMLEXISTS('$v[fn:matches(., "^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$")]' PASSING PROPVALUE AS "v");
+
+
+-- Strings holding a number are backfilled into propnumber, so numeric query filters match them, and
+-- ISO 8601 UTC timestamps such as 2015-10-01T12:00:00.000Z into proptimestamp. proptimestamp is only
+-- compared for properties declared with "type" : "timestamp" in a generic mapping; other properties
+-- drop it when their objects are next written. Rows left without a typed value, such as timestamps
+-- with a time zone offset, are compared against propvalue as before until their objects are next
+-- written.
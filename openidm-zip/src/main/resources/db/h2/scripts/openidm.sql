@@ -29,6 +29,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`genericobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_genericobjectproperties_genericobjects`
     FOREIGN KEY (`genericobjects_id` )
     REFERENCES `openidm`.`genericobjects` (`id` )
@@ -41,6 +43,8 @@ CREATE INDEX  IF NOT EXISTS  `openidm`.`fk_genericobjectproperties_genericobject
 
 CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_genericobjectproperties_propkey` ON `openidm`.`genericobjectproperties` (`propkey` ASC);
 CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_genericobjectproperties_propvalue` ON `openidm`.`genericobjectproperties` (`propvalue` ASC);
+CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_genericobjectproperties_propnumber` ON `openidm`.`genericobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_genericobjectproperties_proptimestamp` ON `openidm`.`genericobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`managedobjects` (
   `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT ,
@@ -64,6 +68,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`managedobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_managedobjectproperties_managedobjects`
     FOREIGN KEY (`managedobjects_id` )
     REFERENCES `openidm`.`managedobjects` (`id` )
@@ -73,6 +79,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`managedobjectproperties` (
 CREATE INDEX IF NOT EXISTS `openidm`.`fk_managedobjectproperties_managedobjects` ON `openidm`.`managedobjectproperties` (`managedobjects_id` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_propkey` ON `openidm`.`managedobjectproperties` (`propkey` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_propvalue` ON `openidm`.`managedobjectproperties` (`propvalue` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_propnumber` ON `openidm`.`managedobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_proptimestamp` ON `openidm`.`managedobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
 
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`configobjects` (
@@ -98,6 +106,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`configobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(255) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_configobjectproperties_configobjects`
     FOREIGN KEY (`configobjects_id` )
     REFERENCES `openidm`.`configobjects` (`id` )
@@ -107,6 +117,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`configobjectproperties` (
 CREATE INDEX IF NOT EXISTS `openidm`.`fk_configobjectproperties_configobjects` ON `openidm`.`configobjectproperties`(`configobjects_id` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_propkey` ON `openidm`.`configobjectproperties`(`propkey` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_propvalue` ON `openidm`.`configobjectproperties`(`propvalue` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_propnumber` ON `openidm`.`configobjectproperties`(`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_proptimestamp` ON `openidm`.`configobjectproperties`(`propkey` ASC, `proptimestamp` ASC);
 
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`relationships` (
@@ -132,6 +144,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`relationshipproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(255) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_relationshipproperties_relationships`
     FOREIGN KEY (`relationships_id` )
     REFERENCES `openidm`.`relationships` (`id` )
@@ -141,6 +155,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`relationshipproperties` (
 CREATE INDEX IF NOT EXISTS `openidm`.`fk_relationshipproperties_relationships` ON `openidm`.`relationshipproperties`(`relationships_id` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_propkey` ON `openidm`.`relationshipproperties`(`propkey` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_propvalue` ON `openidm`.`relationshipproperties`(`propvalue` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_propnumber` ON `openidm`.`relationshipproperties`(`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_proptimestamp` ON `openidm`.`relationshipproperties`(`propkey` ASC, `proptimestamp` ASC);
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`links` (
   `objectid` VARCHAR(38) NOT NULL ,
@@ -335,6 +351,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`schedulerobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_schedulerobjectproperties_schedulerobjects`
     FOREIGN KEY (`schedulerobjects_id` )
     REFERENCES `openidm`.`schedulerobjects` (`id` )
@@ -344,6 +362,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`schedulerobjectproperties` (
 CREATE INDEX IF NOT EXISTS `openidm`.`fk_schedulerobjectproperties_schedulerobjects` ON `openidm`.`schedulerobjectproperties`(`schedulerobjects_id` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_propkey` ON `openidm`.`schedulerobjectproperties`(`propkey` ASC);
 CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_propvalue` ON `openidm`.`schedulerobjectproperties`(`propvalue` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_propnumber` ON `openidm`.`schedulerobjectproperties`(`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_proptimestamp` ON `openidm`.`schedulerobjectproperties`(`propkey` ASC, `proptimestamp` ASC);
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`clusterobjects` (
   `id` BIGINT UNSIGNED NOT NULL AUTO_INCREMENT ,
@@ -366,6 +386,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`clusterobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_clusterobjectproperties_clusterobjects`
     FOREIGN KEY (`clusterobjects_id` )
     REFERENCES `openidm`.`clusterobjects` (`id` )
@@ -375,6 +397,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`clusterobjectproperties` (
 CREATE INDEX IF NOT EXISTS `fk_clusterobjectproperties_clusterobjects` ON `openidm`.`clusterobjectproperties`  (`clusterobjects_id` ASC);
 CREATE INDEX IF NOT EXiSTS `idx_clusterobjectproperties_propkey` ON `openidm`.`clusterobjectproperties` (`propkey` ASC);
 CREATE INDEX IF NOT EXiSTS `idx_clusterobjectproperties_propvalue` ON `openidm`.`clusterobjectproperties` (`propvalue` ASC);
+CREATE INDEX IF NOT EXiSTS `idx_clusterobjectproperties_propnumber` ON `openidm`.`clusterobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXiSTS `idx_clusterobjectproperties_proptimestamp` ON `openidm`.`clusterobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
 
 CREATE  TABLE IF NOT EXISTS `openidm`.`uinotification` (
   `objectid` VARCHAR(38) NOT NULL ,
@@ -411,6 +435,8 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`updateobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` TEXT NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` TIMESTAMP NULL ,
   CONSTRAINT `fk_updateobjectproperties_updateobjects`
     FOREIGN KEY (`updateobjects_id` )
     REFERENCES `openidm`.`updateobjects` (`id` )
@@ -422,6 +448,8 @@ CREATE INDEX  IF NOT EXISTS  `openidm`.`fk_updateobjectproperties_updateobjects`
 
 CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_updateobjectproperties_propkey` ON `openidm`.`updateobjectproperties` (`propkey` ASC);
 CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_updateobjectproperties_propvalue` ON `openidm`.`updateobjectproperties` (`propvalue` ASC);
+CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_updateobjectproperties_propnumber` ON `openidm`.`updateobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX  IF NOT EXISTS  `openidm`.`idx_updateobjectproperties_proptimestamp` ON `openidm`.`updateobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
 
 
 INSERT INTO `openidm`.`internaluser` (`objectid`, `rev`, `pwd`, `roles`)
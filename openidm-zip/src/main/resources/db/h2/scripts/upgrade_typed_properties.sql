@@ -0,0 +1,69 @@
+-- -----------------------------------------------------
+-- Upgrades the generic properties tables of an existing H2 repository with the typed
+-- propnumber and proptimestamp columns, which index numeric and timestamp properties for
+-- range queries. Once applied, set "typedProperties" : true in conf/repo.jdbc.json.
+-- -----------------------------------------------------
+
+ALTER TABLE `openidm`.`genericobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`genericobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_genericobjectproperties_propnumber` ON `openidm`.`genericobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_genericobjectproperties_proptimestamp` ON `openidm`.`genericobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`genericobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`genericobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`genericobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`managedobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`managedobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_propnumber` ON `openidm`.`managedobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_managedobjectproperties_proptimestamp` ON `openidm`.`managedobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`managedobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`managedobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`managedobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`configobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`configobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_propnumber` ON `openidm`.`configobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_configobjectproperties_proptimestamp` ON `openidm`.`configobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`configobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`configobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`configobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`relationshipproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`relationshipproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_propnumber` ON `openidm`.`relationshipproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_relationshipproperties_proptimestamp` ON `openidm`.`relationshipproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`relationshipproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`relationshipproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`relationshipproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`schedulerobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`schedulerobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_propnumber` ON `openidm`.`schedulerobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_schedulerobjectproperties_proptimestamp` ON `openidm`.`schedulerobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`schedulerobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`schedulerobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`schedulerobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`clusterobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`clusterobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_clusterobjectproperties_propnumber` ON `openidm`.`clusterobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_clusterobjectproperties_proptimestamp` ON `openidm`.`clusterobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`clusterobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`clusterobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`clusterobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`updateobjectproperties` ADD COLUMN IF NOT EXISTS `propnumber` DOUBLE NULL ;
+ALTER TABLE `openidm`.`updateobjectproperties` ADD COLUMN IF NOT EXISTS `proptimestamp` TIMESTAMP NULL ;
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_updateobjectproperties_propnumber` ON `openidm`.`updateobjectproperties` (`propkey` ASC, `propnumber` ASC);
+CREATE INDEX IF NOT EXISTS `openidm`.`idx_updateobjectproperties_proptimestamp` ON `openidm`.`updateobjectproperties` (`propkey` ASC, `proptimestamp` ASC);
+UPDATE `openidm`.`updateobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`updateobjectproperties` SET `propnumber` = CAST(`propvalue` AS DOUBLE) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`updateobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS TIMESTAMP) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+
+-- Strings holding a number are backfilled into propnumber, so numeric query filters match them, and
+-- ISO 8601 UTC timestamps such as 2015-10-01T12:00:00.000Z into proptimestamp. proptimestamp is only
+-- compared for properties declared with "type" : "timestamp" in a generic mapping; other properties
+-- drop it when their objects are next written. Rows left without a typed value, such as timestamps
+-- with a time zone offset, are compared against propvalue as before until their objects are next
+-- written.
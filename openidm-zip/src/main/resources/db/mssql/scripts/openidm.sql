@@ -88,6 +88,8 @@ CREATE  TABLE [openidm].[genericobjectproperties]
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(32) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_genericobjectproperties_genericobjects
     FOREIGN KEY (genericobjects_id)
     REFERENCES [openidm].[genericobjects] (id)
@@ -97,6 +99,8 @@ CREATE  TABLE [openidm].[genericobjectproperties]
 CREATE INDEX fk_genericobjectproperties_genericobjects ON [openidm].[genericobjectproperties] (genericobjects_id ASC);
 CREATE INDEX idx_genericobjectproperties_propkey ON [openidm].[genericobjectproperties] (propkey ASC);
 CREATE INDEX idx_genericobjectproperties_propvalue ON [openidm].[genericobjectproperties] (propvalue ASC);
+CREATE INDEX idx_genericobjectproperties_propnumber ON [openidm].[genericobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_genericobjectproperties_proptimestamp ON [openidm].[genericobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -135,6 +139,8 @@ CREATE  TABLE [openidm].[managedobjectproperties]
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(32) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_managedobjectproperties_managedobjects
     FOREIGN KEY (managedobjects_id)
     REFERENCES [openidm].[managedobjects] (id)
@@ -144,6 +150,8 @@ CREATE  TABLE [openidm].[managedobjectproperties]
 CREATE INDEX fk_managedobjectproperties_managedobjects ON [openidm].[managedobjectproperties] (managedobjects_id ASC);
 CREATE INDEX idx_managedobjectproperties_propkey ON [openidm].[managedobjectproperties] (propkey ASC);
 CREATE INDEX idx_managedobjectproperties_propvalue ON [openidm].[managedobjectproperties] (propvalue ASC);
+CREATE INDEX idx_managedobjectproperties_propnumber ON [openidm].[managedobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_managedobjectproperties_proptimestamp ON [openidm].[managedobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -181,6 +189,8 @@ CREATE  TABLE [openidm].[configobjectproperties] (
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(255) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_configobjectproperties_configobjects
     FOREIGN KEY (configobjects_id)
     REFERENCES [openidm].[configobjects] (id)
@@ -190,6 +200,8 @@ CREATE  TABLE [openidm].[configobjectproperties] (
 CREATE INDEX fk_configobjectproperties_configobjects ON [openidm].[configobjectproperties] (configobjects_id ASC);
 CREATE INDEX idx_configobjectproperties_propkey ON [openidm].[configobjectproperties] (propkey ASC);
 CREATE INDEX idx_configobjectproperties_propvalue ON [openidm].[configobjectproperties] (propvalue ASC);
+CREATE INDEX idx_configobjectproperties_propnumber ON [openidm].[configobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_configobjectproperties_proptimestamp ON [openidm].[configobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -227,6 +239,8 @@ CREATE  TABLE [openidm].[relationshipproperties] (
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(255) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_relationshipproperties_relationships
     FOREIGN KEY (relationships_id)
     REFERENCES [openidm].[relationships] (id)
@@ -236,6 +250,8 @@ CREATE  TABLE [openidm].[relationshipproperties] (
 CREATE INDEX fk_relationshipproperties_relationships ON [openidm].[relationshipproperties] (relationships_id ASC);
 CREATE INDEX idx_relationshipproperties_propkey ON [openidm].[relationshipproperties] (propkey ASC);
 CREATE INDEX idx_relationshipproperties_propvalue ON [openidm].[relationshipproperties] (propvalue ASC);
+CREATE INDEX idx_relationshipproperties_propnumber ON [openidm].[relationshipproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_relationshipproperties_proptimestamp ON [openidm].[relationshipproperties] (propkey ASC, proptimestamp ASC);
 END
 
 -- -----------------------------------------------------
@@ -527,6 +543,8 @@ CREATE  TABLE [openidm].[schedulerobjectproperties] (
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(32) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_schedulerobjectproperties_schedulerobjects
     FOREIGN KEY (schedulerobjects_id)
     REFERENCES [openidm].[schedulerobjects] (id)
@@ -536,6 +554,8 @@ CREATE  TABLE [openidm].[schedulerobjectproperties] (
 CREATE INDEX fk_schedulerobjectproperties_schedulerobjects ON [openidm].[schedulerobjectproperties] (schedulerobjects_id ASC);
 CREATE INDEX idx_schedulerobjectproperties_propkey ON [openidm].[schedulerobjectproperties] (propkey ASC);
 CREATE INDEX idx_schedulerobjectproperties_propvalue ON [openidm].[schedulerobjectproperties] (propvalue ASC);
+CREATE INDEX idx_schedulerobjectproperties_propnumber ON [openidm].[schedulerobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_schedulerobjectproperties_proptimestamp ON [openidm].[schedulerobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -573,6 +593,8 @@ CREATE  TABLE [openidm].[clusterobjectproperties] (
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(32) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_clusterobjectproperties_clusterobjects
     FOREIGN KEY (clusterobjects_id)
     REFERENCES [openidm].[clusterobjects] (id)
@@ -582,6 +604,8 @@ CREATE  TABLE [openidm].[clusterobjectproperties] (
 CREATE INDEX fk_clusterobjectproperties_clusterobjects ON [openidm].[clusterobjectproperties] (clusterobjects_id ASC);
 CREATE INDEX idx_clusterobjectproperties_propkey ON [openidm].[clusterobjectproperties] (propkey ASC);
 CREATE INDEX idx_clusterobjectproperties_propvalue ON [openidm].[clusterobjectproperties] (propvalue ASC);
+CREATE INDEX idx_clusterobjectproperties_propnumber ON [openidm].[clusterobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_clusterobjectproperties_proptimestamp ON [openidm].[clusterobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -641,6 +665,8 @@ CREATE  TABLE [openidm].[updateobjectproperties]
   propkey NVARCHAR(255) NOT NULL ,
   proptype NVARCHAR(32) NULL ,
   propvalue NVARCHAR(195) NULL ,
+  propnumber FLOAT NULL ,
+  proptimestamp DATETIME2 NULL ,
   CONSTRAINT fk_updateobjectproperties_updateobjects
     FOREIGN KEY (updateobjects_id)
     REFERENCES [openidm].[updateobjects] (id)
@@ -650,6 +676,8 @@ CREATE  TABLE [openidm].[updateobjectproperties]
 CREATE INDEX fk_updateobjectproperties_updateobjects ON [openidm].[updateobjectproperties] (updateobjects_id ASC);
 CREATE INDEX idx_updateobjectproperties_propkey ON [openidm].[updateobjectproperties] (propkey ASC);
 CREATE INDEX idx_updateobjectproperties_propvalue ON [openidm].[updateobjectproperties] (propvalue ASC);
+CREATE INDEX idx_updateobjectproperties_propnumber ON [openidm].[updateobjectproperties] (propkey ASC, propnumber ASC);
+CREATE INDEX idx_updateobjectproperties_proptimestamp ON [openidm].[updateobjectproperties] (propkey ASC, proptimestamp ASC);
 END
 
 
@@ -0,0 +1,127 @@
+-- -----------------------------------------------------
+-- Upgrades the generic properties tables of an existing SQL Server repository with the typed
+-- propnumber and proptimestamp columns, which index numeric and timestamp properties for
+-- range queries. Once applied, set "typedProperties" : true in conf/repo.jdbc.json.
+-- -----------------------------------------------------
+
+USE [openidm]
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[genericobjectproperties]'))
+ALTER TABLE [openidm].[genericobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_genericobjectproperties_propnumber')
+CREATE INDEX idx_genericobjectproperties_propnumber ON [openidm].[genericobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_genericobjectproperties_proptimestamp')
+CREATE INDEX idx_genericobjectproperties_proptimestamp ON [openidm].[genericobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[genericobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[genericobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[genericobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[managedobjectproperties]'))
+ALTER TABLE [openidm].[managedobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_managedobjectproperties_propnumber')
+CREATE INDEX idx_managedobjectproperties_propnumber ON [openidm].[managedobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_managedobjectproperties_proptimestamp')
+CREATE INDEX idx_managedobjectproperties_proptimestamp ON [openidm].[managedobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[managedobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[managedobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[managedobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[configobjectproperties]'))
+ALTER TABLE [openidm].[configobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_configobjectproperties_propnumber')
+CREATE INDEX idx_configobjectproperties_propnumber ON [openidm].[configobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_configobjectproperties_proptimestamp')
+CREATE INDEX idx_configobjectproperties_proptimestamp ON [openidm].[configobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[configobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[configobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[configobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[relationshipproperties]'))
+ALTER TABLE [openidm].[relationshipproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_relationshipproperties_propnumber')
+CREATE INDEX idx_relationshipproperties_propnumber ON [openidm].[relationshipproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_relationshipproperties_proptimestamp')
+CREATE INDEX idx_relationshipproperties_proptimestamp ON [openidm].[relationshipproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[relationshipproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[relationshipproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[relationshipproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[schedulerobjectproperties]'))
+ALTER TABLE [openidm].[schedulerobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_schedulerobjectproperties_propnumber')
+CREATE INDEX idx_schedulerobjectproperties_propnumber ON [openidm].[schedulerobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_schedulerobjectproperties_proptimestamp')
+CREATE INDEX idx_schedulerobjectproperties_proptimestamp ON [openidm].[schedulerobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[schedulerobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[schedulerobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[schedulerobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[clusterobjectproperties]'))
+ALTER TABLE [openidm].[clusterobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_clusterobjectproperties_propnumber')
+CREATE INDEX idx_clusterobjectproperties_propnumber ON [openidm].[clusterobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_clusterobjectproperties_proptimestamp')
+CREATE INDEX idx_clusterobjectproperties_proptimestamp ON [openidm].[clusterobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[clusterobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[clusterobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[clusterobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+IF NOT EXISTS (SELECT name FROM syscolumns WHERE name='propnumber' AND id=OBJECT_ID('[openidm].[updateobjectproperties]'))
+ALTER TABLE [openidm].[updateobjectproperties] ADD propnumber FLOAT NULL, proptimestamp DATETIME2 NULL;
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_updateobjectproperties_propnumber')
+CREATE INDEX idx_updateobjectproperties_propnumber ON [openidm].[updateobjectproperties] (propkey ASC, propnumber ASC);
+GO
+IF NOT EXISTS (SELECT name FROM sysindexes WHERE name='idx_updateobjectproperties_proptimestamp')
+CREATE INDEX idx_updateobjectproperties_proptimestamp ON [openidm].[updateobjectproperties] (propkey ASC, proptimestamp ASC);
+GO
+UPDATE [openidm].[updateobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+GO
+UPDATE [openidm].[updateobjectproperties] SET propnumber = CAST(propvalue AS FLOAT) WHERE proptype = 'java.lang.String' AND ISNUMERIC(propvalue) = 1 AND propvalue NOT LIKE '%[^0-9.eE+-]%' AND propvalue LIKE '[-+0-9]%' AND propvalue LIKE '%[0-9]';
+GO
+UPDATE [openidm].[updateobjectproperties] SET proptimestamp = CONVERT(DATETIME2, LEFT(propvalue, LEN(propvalue) - 1), 126) WHERE proptype = 'java.lang.String' AND (propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9]Z' OR propvalue LIKE '[0-9][0-9][0-9][0-9]-[0-9][0-9]-[0-9][0-9]T[0-9][0-9]:[0-9][0-9]:[0-9][0-9].[0-9][0-9][0-9]Z');
+GO
+
+-- Strings holding a number are backfilled into propnumber, so numeric query filters match them, and
+-- ISO 8601 UTC timestamps such as 2015-10-01T12:00:00.000Z into proptimestamp. proptimestamp is only
+-- compared for properties declared with "type" : "timestamp" in a generic mapping; other properties
+-- drop it when their objects are next written. Rows left without a typed value, such as timestamps
+-- with a time zone offset, are compared against propvalue as before until their objects are next
+-- written.
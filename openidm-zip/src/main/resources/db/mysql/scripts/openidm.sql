@@ -44,9 +44,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`genericobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_genericobjectproperties_genericobjects` (`genericobjects_id` ASC) ,
   INDEX `idx_genericobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_genericobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_genericobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_genericobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_genericobjectproperties_genericobjects`
     FOREIGN KEY (`genericobjects_id` )
     REFERENCES `openidm`.`genericobjects` (`id` )
@@ -83,9 +87,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`managedobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_managedobjectproperties_managedobjects` (`managedobjects_id` ASC) ,
   INDEX `idx_managedobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_managedobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_managedobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_managedobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_managedobjectproperties_managedobjects`
     FOREIGN KEY (`managedobjects_id` )
     REFERENCES `openidm`.`managedobjects` (`id` )
@@ -122,9 +130,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`configobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(255) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_configobjectproperties_configobjects` (`configobjects_id` ASC) ,
   INDEX `idx_configobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_configobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_configobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_configobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_configobjectproperties_configobjects`
     FOREIGN KEY (`configobjects_id` )
     REFERENCES `openidm`.`configobjects` (`id` )
@@ -161,9 +173,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`relationshipproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(255) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_relationshipproperties_relationships` (`relationships_id` ASC) ,
   INDEX `idx_relationshipproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_relationshipproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_relationshipproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_relationshipproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_relationshipproperties_relationships`
   FOREIGN KEY (`relationships_id` )
   REFERENCES `openidm`.`relationships` (`id` )
@@ -422,9 +438,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`schedulerobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_schedulerobjectproperties_schedulerobjects` (`schedulerobjects_id` ASC) ,
   INDEX `idx_schedulerobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_schedulerobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_schedulerobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_schedulerobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_schedulerobjectproperties_schedulerobjects`
     FOREIGN KEY (`schedulerobjects_id` )
     REFERENCES `openidm`.`schedulerobjects` (`id` )
@@ -478,8 +498,12 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`clusterobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(32) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `idx_clusterobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_clusterobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_clusterobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_clusterobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   INDEX `fk_clusterobjectproperties_clusterobjects` (`clusterobjects_id` ASC) ,
   CONSTRAINT `fk_clusterobjectproperties_clusterobjects`
     FOREIGN KEY (`clusterobjects_id` )
@@ -516,9 +540,13 @@ CREATE  TABLE IF NOT EXISTS `openidm`.`updateobjectproperties` (
   `propkey` VARCHAR(255) NOT NULL ,
   `proptype` VARCHAR(255) NULL ,
   `propvalue` VARCHAR(2000) NULL ,
+  `propnumber` DOUBLE NULL ,
+  `proptimestamp` DATETIME(3) NULL ,
   INDEX `fk_updateobjectproperties_updateobjects` (`updateobjects_id` ASC) ,
   INDEX `idx_updateobjectproperties_propkey` (`propkey` ASC) ,
   INDEX `idx_updateobjectproperties_propvalue` (`propvalue`(255) ASC) ,
+  INDEX `idx_updateobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  INDEX `idx_updateobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ,
   CONSTRAINT `fk_updateobjectproperties_updateobjects`
     FOREIGN KEY (`updateobjects_id` )
     REFERENCES `openidm`.`updateobjects` (`id` )
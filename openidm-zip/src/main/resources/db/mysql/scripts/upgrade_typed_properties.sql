@@ -0,0 +1,78 @@
+-- -----------------------------------------------------
+-- Upgrades the generic properties tables of an existing MySQL repository with the typed
+-- propnumber and proptimestamp columns, which index numeric and timestamp properties for
+-- range queries. Once applied, set "typedProperties" : true in conf/repo.jdbc.json.
+-- -----------------------------------------------------
+
+USE `openidm` ;
+
+ALTER TABLE `openidm`.`genericobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_genericobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_genericobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`genericobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`genericobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`genericobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`managedobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_managedobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_managedobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`managedobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`managedobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`managedobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`configobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_configobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_configobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`configobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`configobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`configobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`relationshipproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_relationshipproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_relationshipproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`relationshipproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`relationshipproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`relationshipproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`schedulerobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_schedulerobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_schedulerobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`schedulerobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`schedulerobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`schedulerobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`clusterobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_clusterobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_clusterobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`clusterobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`clusterobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`clusterobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+ALTER TABLE `openidm`.`updateobjectproperties`
+  ADD COLUMN `propnumber` DOUBLE NULL ,
+  ADD COLUMN `proptimestamp` DATETIME(3) NULL ,
+  ADD INDEX `idx_updateobjectproperties_propnumber` (`propkey` ASC, `propnumber` ASC) ,
+  ADD INDEX `idx_updateobjectproperties_proptimestamp` (`propkey` ASC, `proptimestamp` ASC) ;
+UPDATE `openidm`.`updateobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE `openidm`.`updateobjectproperties` SET `propnumber` = `propvalue` + 0E0 WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$';
+UPDATE `openidm`.`updateobjectproperties` SET `proptimestamp` = CAST(REPLACE(REPLACE(`propvalue`, 'T', ' '), 'Z', '') AS DATETIME(3)) WHERE `proptype` = 'java.lang.String' AND `propvalue` REGEXP '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$';
+
+
+-- Strings holding a number are backfilled into propnumber, so numeric query filters match them, and
+-- ISO 8601 UTC timestamps such as 2015-10-01T12:00:00.000Z into proptimestamp. proptimestamp is only
+-- compared for properties declared with "type" : "timestamp" in a generic mapping; other properties
+-- drop it when their objects are next written. Rows left without a typed value, such as timestamps
+-- with a time zone offset, are compared against propvalue as before until their objects are next
+-- written.
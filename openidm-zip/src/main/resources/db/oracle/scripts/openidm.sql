@@ -336,7 +336,9 @@ CREATE TABLE configobjectproperties (
   configobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(255 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -358,6 +360,20 @@ CREATE INDEX idx_configobjectpropert_2 ON configobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_configobjectpropert_3 on configobjectproperties ...
+CREATE INDEX idx_configobjectpropert_3 ON configobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_configobjectpropert_4 on configobjectproperties ...
+CREATE INDEX idx_configobjectpropert_4 ON configobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE configobjects CASCADE CONSTRAINTS;
 
@@ -402,7 +418,9 @@ CREATE TABLE relationshipproperties (
   relationships_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(255 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -424,6 +442,20 @@ CREATE INDEX idx_relationshippropert_2 ON relationshipproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_relationshippropert_3 on relationshipproperties ...
+CREATE INDEX idx_relationshippropert_3 ON relationshipproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_relationshippropert_4 on relationshipproperties ...
+CREATE INDEX idx_relationshippropert_4 ON relationshipproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE relationships CASCADE CONSTRAINTS;
 
@@ -469,7 +501,9 @@ CREATE TABLE genericobjectproperties (
   genericobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(32 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -491,6 +525,20 @@ CREATE INDEX idx_genericobjectproper_2 ON genericobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_genericobjectproper_3 on genericobjectproperties ...
+CREATE INDEX idx_genericobjectproper_3 ON genericobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_genericobjectproper_4 on genericobjectproperties ...
+CREATE INDEX idx_genericobjectproper_4 ON genericobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE genericobjects CASCADE CONSTRAINTS;
 
@@ -646,7 +694,9 @@ CREATE TABLE managedobjectproperties (
   managedobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(32 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -668,6 +718,20 @@ CREATE INDEX idx_managedobjectproper_2 ON managedobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_managedobjectproper_3 on managedobjectproperties ...
+CREATE INDEX idx_managedobjectproper_3 ON managedobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_managedobjectproper_4 on managedobjectproperties ...
+CREATE INDEX idx_managedobjectproper_4 ON managedobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE managedobjects CASCADE CONSTRAINTS;
 
@@ -712,7 +776,9 @@ CREATE TABLE schedobjectproperties (
   schedulerobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(32 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -734,6 +800,20 @@ CREATE INDEX idx_schedobjectproperties_2 ON schedobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_schedobjectproperties_3 on schedobjectproperties ...
+CREATE INDEX idx_schedobjectproperties_3 ON schedobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_schedobjectproperties_4 on schedobjectproperties ...
+CREATE INDEX idx_schedobjectproperties_4 ON schedobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE schedulerobjects CASCADE CONSTRAINTS;
 
@@ -778,7 +858,9 @@ CREATE TABLE clusterobjectproperties (
   clusterobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(32 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -800,6 +882,20 @@ CREATE INDEX idx_clusterobjectproperties_2 ON clusterobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_clusterobjectproperties_3 on clusterobjectproperties ...
+CREATE INDEX idx_clusterobjectproperties_3 ON clusterobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_clusterobjectproperties_4 on clusterobjectproperties ...
+CREATE INDEX idx_clusterobjectproperties_4 ON clusterobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE clusterobjects CASCADE CONSTRAINTS;
 
@@ -844,7 +940,9 @@ CREATE TABLE updateobjectproperties (
   updateobjects_id NUMBER(24,0) NOT NULL,
   propkey VARCHAR2(255 CHAR) NOT NULL,
   proptype VARCHAR2(32 CHAR),
-  propvalue VARCHAR2(2000 CHAR)
+  propvalue VARCHAR2(2000 CHAR),
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
 );
 
 
@@ -866,6 +964,20 @@ CREATE INDEX idx_updateobjectproper_2 ON updateobjectproperties
   propvalue
 )
 ;
+PROMPT Creating Index idx_updateobjectproper_3 on updateobjectproperties ...
+CREATE INDEX idx_updateobjectproper_3 ON updateobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_updateobjectproper_4 on updateobjectproperties ...
+CREATE INDEX idx_updateobjectproper_4 ON updateobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
 
 -- DROP TABLE updateobjects CASCADE CONSTRAINTS;
 
@@ -0,0 +1,175 @@
+-- -----------------------------------------------------
+-- Upgrades the generic properties tables of an existing Oracle repository with the typed
+-- propnumber and proptimestamp columns, which index numeric and timestamp properties for
+-- range queries. Once applied, set "typedProperties" : true in conf/repo.jdbc.json.
+-- -----------------------------------------------------
+
+PROMPT Adding typed columns to genericobjectproperties ...
+ALTER TABLE genericobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_genericobjectproper_3 on genericobjectproperties ...
+CREATE INDEX idx_genericobjectproper_3 ON genericobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_genericobjectproper_4 on genericobjectproperties ...
+CREATE INDEX idx_genericobjectproper_4 ON genericobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE genericobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE genericobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE genericobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to managedobjectproperties ...
+ALTER TABLE managedobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_managedobjectproper_3 on managedobjectproperties ...
+CREATE INDEX idx_managedobjectproper_3 ON managedobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_managedobjectproper_4 on managedobjectproperties ...
+CREATE INDEX idx_managedobjectproper_4 ON managedobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE managedobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE managedobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE managedobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to configobjectproperties ...
+ALTER TABLE configobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_configobjectpropert_3 on configobjectproperties ...
+CREATE INDEX idx_configobjectpropert_3 ON configobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_configobjectpropert_4 on configobjectproperties ...
+CREATE INDEX idx_configobjectpropert_4 ON configobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE configobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE configobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE configobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to relationshipproperties ...
+ALTER TABLE relationshipproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_relationshippropert_3 on relationshipproperties ...
+CREATE INDEX idx_relationshippropert_3 ON relationshipproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_relationshippropert_4 on relationshipproperties ...
+CREATE INDEX idx_relationshippropert_4 ON relationshipproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE relationshipproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE relationshipproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE relationshipproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to schedobjectproperties ...
+ALTER TABLE schedobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_schedobjectproperties_3 on schedobjectproperties ...
+CREATE INDEX idx_schedobjectproperties_3 ON schedobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_schedobjectproperties_4 on schedobjectproperties ...
+CREATE INDEX idx_schedobjectproperties_4 ON schedobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE schedobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE schedobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE schedobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to clusterobjectproperties ...
+ALTER TABLE clusterobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_clusterobjectproperties_3 on clusterobjectproperties ...
+CREATE INDEX idx_clusterobjectproperties_3 ON clusterobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_clusterobjectproperties_4 on clusterobjectproperties ...
+CREATE INDEX idx_clusterobjectproperties_4 ON clusterobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE clusterobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE clusterobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE clusterobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+PROMPT Adding typed columns to updateobjectproperties ...
+ALTER TABLE updateobjectproperties ADD (
+  propnumber BINARY_DOUBLE,
+  proptimestamp TIMESTAMP
+);
+PROMPT Creating Index idx_updateobjectproper_3 on updateobjectproperties ...
+CREATE INDEX idx_updateobjectproper_3 ON updateobjectproperties
+(
+  propkey,
+  propnumber
+)
+;
+PROMPT Creating Index idx_updateobjectproper_4 on updateobjectproperties ...
+CREATE INDEX idx_updateobjectproper_4 ON updateobjectproperties
+(
+  propkey,
+  proptimestamp
+)
+;
+UPDATE updateobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype IN ('java.lang.Integer', 'java.lang.Long', 'java.lang.Float', 'java.lang.Double');
+UPDATE updateobjectproperties SET propnumber = TO_BINARY_DOUBLE(propvalue) WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[-+]?[0-9]+([.][0-9]+)?([eE][-+]?[0-9]+)?$');
+UPDATE updateobjectproperties SET proptimestamp = CASE WHEN LENGTH(propvalue) = 20 THEN TO_TIMESTAMP(SUBSTR(propvalue, 1, 19), 'YYYY-MM-DD"T"HH24:MI:SS') ELSE TO_TIMESTAMP(SUBSTR(propvalue, 1, 23), 'YYYY-MM-DD"T"HH24:MI:SS.FF3') END WHERE proptype = 'java.lang.String' AND REGEXP_LIKE(propvalue, '^[0-9]{4}-[0-9]{2}-[0-9]{2}T[0-9]{2}:[0-9]{2}:[0-9]{2}([.][0-9]{3})?Z$');
+
+COMMIT;
+
+-- Strings holding a number are backfilled into propnumber, so numeric query filters match them, and
+-- ISO 8601 UTC timestamps such as 2015-10-01T12:00:00.000Z into proptimestamp. proptimestamp is only
+-- compared for properties declared with "type" : "timestamp" in a generic mapping; other properties
+-- drop it when their objects are next written. Rows left without a typed value, such as timestamps
+-- with a time zone offset, are compared against propvalue as before until their objects are next
+-- written.